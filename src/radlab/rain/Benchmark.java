@@ -46,6 +46,9 @@ import org.json.*;
 
 import radlab.rain.communication.RainPipe;
 import radlab.rain.util.ConfigUtil;
+import radlab.rain.util.ConvergenceMonitor;
+import radlab.rain.util.RandomStreams;
+import radlab.rain.util.ResultsWriter;
 
 /**
  * The Benchmark class provides a framework to initialize and run a benchmark
@@ -67,6 +70,9 @@ public class Benchmark
 	
 	public boolean waitingForStartSignal = false;
 	
+	/** Why the steady state ended when it did, if convergence detection was on. */
+	private String _convergenceDecision = null;
+	
 	public static Benchmark getBenchmarkInstance()
 	{
 		if( BenchmarkInstance == null )
@@ -108,6 +114,41 @@ public class Benchmark
 		long startSteadyState = start + (scenario.getRampUp() * 1000);
 		long endSteadyState   = startSteadyState + (scenario.getDuration() * 1000);
 		
+		// With convergence detection on, the steady state lasts until the
+		// results converge, for at most maxDuration seconds (default: the
+		// configured duration). The threads and scoreboards start out with
+		// the longest steady state and are cut short once we know.
+		JSONObject convergence = scenario.getConvergence();
+		long maxEndSteadyState = endSteadyState;
+		TreeMap<String,ConvergenceMonitor> monitors = new TreeMap<String,ConvergenceMonitor>();
+		
+		// A capacity search drives one track's load through the steady state
+		// and ends it once the knee is found, which replaces convergence
+		// detection (its measurement windows are convergence monitors).
+		CapacitySearch search = null;
+		if( scenario.getCapacitySearch() != null )
+		{
+			JSONObject capacity = scenario.getCapacitySearch();
+			ScenarioTrack searchTrack = scenario.getTracks().get( capacity.optString( CapacitySearch.CFG_TRACK_KEY, scenario.getTracks().firstKey() ) );
+			if( searchTrack == null )
+				throw new IllegalArgumentException( "Capacity search track not found: " + capacity.optString( CapacitySearch.CFG_TRACK_KEY ) );
+			search = new CapacitySearch( searchTrack.getName(), capacity, searchTrack.getMaxUsers(), scenario.getDuration() );
+			maxEndSteadyState = startSteadyState + (search.getMaxDuration() * 1000);
+			System.out.println( "[BENCHMARK] Searching for the maximum sustainable load (" + search.getVariable() + ") of track " + search.getTrackName() + " for at most " + search.getMaxDuration() + " seconds." );
+			if( convergence != null )
+			{
+				System.out.println( "[BENCHMARK] Ignoring the convergence settings during the capacity search." );
+				convergence = null;
+			}
+		}
+		
+		if( convergence != null )
+		{
+			long maxDuration = Math.max( convergence.optLong( ConvergenceMonitor.CFG_MAX_DURATION_KEY, scenario.getDuration() ), scenario.getDuration() );
+			maxEndSteadyState = startSteadyState + (maxDuration * 1000);
+			System.out.println( "[BENCHMARK] Steady state ends once the results converge, after at most " + maxDuration + " seconds." );
+		}
+		
 		System.out.println( "[BENCHMARK] Initializing " + scenario.getTracks().size() + " track(s)." );
 		for ( ScenarioTrack track : scenario.getTracks().values() )
 		{
@@ -116,9 +157,16 @@ public class Benchmark
 			IScoreboard scoreboard = track.createScoreboard( null );
 			if( scoreboard != null )
 			{
-				scoreboard.initialize( startSteadyState, endSteadyState );
+				scoreboard.initialize( startSteadyState, maxEndSteadyState );
 				scoreboard.setMetricSnapshotInterval( (long) (track.getMetricSnapshotInterval() * 1000) );
 				scoreboard.setMetricWriter( track.getMetricWriter() );
+				if( convergence != null )
+				{
+					ConvergenceMonitor monitor = new ConvergenceMonitor( track.getName(), convergence );
+					monitor.start( startSteadyState );
+					scoreboard.setConvergenceMonitor( monitor );
+					monitors.put( track.getName(), monitor );
+				}
 				scoreboard.start();
 			}
 			track.setScoreboard(scoreboard);
@@ -134,7 +182,7 @@ public class Benchmark
 			// Create enough threads for maximum users needed by the scenario.
 			for( int i = 0; i < maxUsers; i++ )
 			{
-				Generator generator = track.createWorkloadGenerator( track.getGeneratorClassName(), track.getGeneratorParams() );
+				Generator generator = track.createWorkloadGenerator( track.getGeneratorClassName(), track.getGeneratorParams(), LoadGenerationStrategy.getThreadName( track, i ) );
 				generator.setScoreboard( scoreboard );
 				generator.setMeanCycleTime( (long)(track.getMeanCycleTime() * 1000) );
 				generator.setMeanThinkTime( (long)(track.getMeanThinkTime() * 1000) );
@@ -145,6 +193,7 @@ public class Benchmark
 				lgThread.setInteractive( track.getInteractive() );
 				lgThread.setSharedWorkPool( pool );
 				lgThread.setTimeStarted( start );
+				lgThread.setEndSteadyState( maxEndSteadyState );
 				
 				threads.add( lgThread );
 				
@@ -152,6 +201,23 @@ public class Benchmark
 			}
 		}
 		
+		// Closed-loop load schedules take over at the start of the steady state
+		for( ScenarioTrack track : scenario.getTracks().values() )
+		{
+			if( track.getLoadController() != null )
+				track.getLoadController().start( track, startSteadyState, maxEndSteadyState + (scenario.getRampDown() * 1000) );
+		}
+		
+		if( search != null )
+		{
+			endSteadyState = search.run( scenario.getTracks().get( search.getTrackName() ), startSteadyState, maxEndSteadyState, maxEndSteadyState + (scenario.getRampDown() * 1000) );
+			if( endSteadyState < maxEndSteadyState )
+				this.endSteadyState( scenario, threads, endSteadyState );
+			else endSteadyState = maxEndSteadyState;
+		}
+		else if( monitors.size() > 0 )
+			endSteadyState = this.waitForConvergence( scenario, monitors, threads, endSteadyState, maxEndSteadyState );
+		
 		// Wait for all of the threads to finish.
 		for( LoadGenerationStrategy lgThread : threads )
 		{
@@ -169,12 +235,46 @@ public class Benchmark
 			}
 		}
 		
+		for( ScenarioTrack track : scenario.getTracks().values() )
+		{
+			if( track.getLoadController() != null )
+				track.getLoadController().stop();
+		}
+		
 		// Purge threads.
 		System.out.println( "[BENCHMARK] Purging threads and shutting down... exiting!" );
 		threads.clear();
 		
 		// Set up for stats aggregation across tracks based on the generators used
 		TreeMap<String,Scorecard> aggStats = new TreeMap<String,Scorecard>();
+		// Machine-readable copy of the results, if asked for
+		ResultsWriter results = null;
+		if( scenario.getResultsFile() != null )
+		{
+			results = new ResultsWriter( scenario.getResultsFile() );
+			JSONObject run = results.getRun();
+			run.put( "startTime", start );
+			run.put( "startSteadyState", startSteadyState );
+			run.put( "endSteadyState", endSteadyState );
+			run.put( "rampUpSecs", scenario.getRampUp() );
+			run.put( "durationSecs", scenario.getDuration() );
+			run.put( "rampDownSecs", scenario.getRampDown() );
+			run.put( "rngSeed", RandomStreams.getMasterSeed() );
+			if( monitors.size() > 0 )
+			{
+				JSONObject decision = new JSONObject();
+				decision.put( "decision", this._convergenceDecision );
+				decision.put( "steadyStateSecs", ( endSteadyState - startSteadyState ) / 1000.0 );
+				decision.put( "maxSteadyStateSecs", ( maxEndSteadyState - startSteadyState ) / 1000.0 );
+				JSONArray tracks = new JSONArray();
+				for( ConvergenceMonitor monitor : monitors.values() )
+					tracks.put( monitor.getStatistics() );
+				decision.put( "tracks", tracks );
+				run.put( "convergence", decision );
+			}
+			if( search != null )
+				run.put( "capacitySearch", search.getStatistics() );
+		}
 		
 		// Shutdown the scoreboards and tally up the results.
 		for ( ScenarioTrack track : scenario.getTracks().values() )
@@ -206,6 +306,16 @@ public class Benchmark
 			// Collect scoreboard results
 			// Collect object pool results
 			track.getObjectPool().shutdown();
+			
+			JSONObject trackResults = track.getScoreboard().getStatistics();
+			if( results != null && trackResults != null )
+			{
+				if( track.getObjectPool().getFinalStatistics() != null )
+					trackResults.put( "objectPool", track.getObjectPool().getFinalStatistics() );
+				if( track.getLoadController() != null )
+					trackResults.put( "controller", track.getLoadController().getStatistics() );
+				results.addTrack( trackResults );
+			}
 		}
 		
 		// Check whether we're printing out aggregated stats
@@ -218,10 +328,26 @@ public class Benchmark
 			for( String generatorName : aggStats.keySet() )
 			{
 				Scorecard card = aggStats.get( generatorName );
+				// Record the card before printing it, printing discards the percentile samples
+				if( results != null )
+					results.addAggregate( card.getStatistics() );
 				card.printStatistics( System.out );
 			}
 		}
 		
+		if( results != null )
+		{
+			try
+			{
+				results.write();
+				System.out.println( "[BENCHMARK] Results written to: " + results.getFile( ".json" ) );
+			}
+			catch( IOException e )
+			{
+				System.out.println( "[BENCHMARK] ERROR writing results to: " + results.getFile( ".json" ) + ". Reason: " + e.toString() );
+			}
+		}
+		
 		// Shutdown the shared threadpool.
 		pool.shutdown();
 		try
@@ -248,6 +374,89 @@ public class Benchmark
 		System.out.println( "[BENCHMARK] finished!" );
 	}
 	
+	/**
+	 * Checks the tracks' convergence monitors once per batch until every
+	 * track has converged, then ends the steady state for all of them. If
+	 * they don't converge the steady state runs to the cap.
+	 * 
+	 * @return  The time the steady state ends.
+	 */
+	private long waitForConvergence( Scenario scenario, TreeMap<String,ConvergenceMonitor> monitors, LinkedList<LoadGenerationStrategy> threads, long endSteadyState, long maxEndSteadyState )
+	{
+		long nextCheck = 0;
+		long batchMsecs = Long.MAX_VALUE;
+		for( ConvergenceMonitor monitor : monitors.values() )
+		{
+			nextCheck = Math.max( nextCheck, monitor.getEarliestDecision() );
+			batchMsecs = Math.min( batchMsecs, monitor.getBatchMsecs() );
+		}
+		
+		try
+		{
+			while( true )
+			{
+				long now = System.currentTimeMillis();
+				if( now >= maxEndSteadyState )
+					break;
+				
+				if( now >= nextCheck )
+				{
+					boolean converged = true;
+					for( ConvergenceMonitor monitor : monitors.values() )
+					{
+						if( !monitor.check( now ) )
+							converged = false;
+						System.out.println( "[BENCHMARK] Convergence " + monitor.getName() + ": " + monitor.getSummary() );
+					}
+					
+					if( converged )
+					{
+						this._convergenceDecision = "converged";
+						System.out.println( "[BENCHMARK] All tracks converged, ending steady state after " + ( now - monitors.firstEntry().getValue().getStartTime() )/1000 + " seconds (configured: " + scenario.getDuration() + ")." );
+						this.endSteadyState( scenario, threads, now );
+						return now;
+					}
+					nextCheck = now + batchMsecs;
+				}
+				
+				boolean running = false;
+				for( LoadGenerationStrategy lgThread : threads )
+					running |= lgThread.isAlive();
+				if( !running )
+					break;
+				
+				Thread.sleep( Math.max( 1, Math.min( nextCheck, maxEndSteadyState ) - now ) );
+			}
+		}
+		catch( InterruptedException ie )
+		{
+			System.out.println( "[BENCHMARK] Interrupted while checking for convergence, running the full steady state." );
+		}
+		
+		// Record where the estimates ended up
+		for( ConvergenceMonitor monitor : monitors.values() )
+			monitor.check( System.currentTimeMillis() );
+		if( maxEndSteadyState > endSteadyState )
+			this._convergenceDecision = "not converged, extended to the maximum duration";
+		else this._convergenceDecision = "not converged";
+		System.out.println( "[BENCHMARK] Steady state ended without converging (" + this._convergenceDecision + ")." );
+		return maxEndSteadyState;
+	}
+	
+	/**
+	 * Ends the steady state of every track early, at the given time.
+	 */
+	private void endSteadyState( Scenario scenario, LinkedList<LoadGenerationStrategy> threads, long now )
+	{
+		for( ScenarioTrack track : scenario.getTracks().values() )
+		{
+			if( track.getScoreboard() != null )
+				track.getScoreboard().setEndTimestamp( now );
+		}
+		for( LoadGenerationStrategy lgThread : threads )
+			lgThread.setEndSteadyState( now );
+	}
+	
 	/**
 	 * Runs the benchmark. The only required argument is the configuration
 	 * file path (e.g. config/rain.config.sample.json).
@@ -0,0 +1,489 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain;
+
+import java.util.ArrayList;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import radlab.rain.util.ConvergenceMonitor;
+
+/**
+ * Searches for the maximum load a track's target sustains within an SLO,
+ * instead of walking a hand-written list of load profiles. The search
+ * drives one variable, either the number of users or the offered rate (the
+ * load profile's openLoopMaxOpsPerSec, which throttles asynchronous
+ * operations), and measures one level at a time during the steady state:
+ * the level is activated as a load profile, the target gets settleSecs to
+ * adjust, and then a short batch-means window (a ConvergenceMonitor)
+ * measures it until the estimates converge or maxStepSecs runs out.<br />
+ * <br />
+ * A level passes if the chosen response time percentile, the error rate and
+ * the effective load (as a share of the offered load) are all within the
+ * SLO. In a rate search the offered load is the rate; in a users search it
+ * is the users times the best per-user throughput seen at any level so far,
+ * so a level fails once adding users stops adding throughput in proportion.
+ * The level grows by growthFactor until one fails, then a binary search
+ * between the highest passing and the lowest failing level narrows the
+ * knee down to resolutionPct. Every step is reported, giving the
+ * throughput-latency curve along with the knee.
+ */
+public class CapacitySearch 
+{
+	public static String CFG_TRACK_KEY					= "track";
+	public static String CFG_VARIABLE_KEY				= "variable";
+	public static String CFG_INITIAL_KEY				= "initial";
+	public static String CFG_MAX_KEY					= "max";
+	public static String CFG_USERS_KEY					= "users";
+	public static String CFG_GROWTH_FACTOR_KEY			= "growthFactor";
+	public static String CFG_RESOLUTION_PCT_KEY			= "resolutionPct";
+	public static String CFG_SETTLE_SECS_KEY			= "settleSecs";
+	public static String CFG_MAX_STEP_SECS_KEY			= "maxStepSecs";
+	public static String CFG_MAX_DURATION_KEY			= "maxDuration";
+	public static String CFG_WINDOW_KEY					= "window";
+	public static String CFG_PERCENTILE_KEY				= "percentile";
+	public static String CFG_MAX_RESPONSE_TIME_KEY		= "maxResponseTimeMsecs";
+	public static String CFG_MAX_ERROR_PCT_KEY			= "maxErrorPct";
+	public static String CFG_MIN_EFFECTIVE_LOAD_PCT_KEY	= "minEffectiveLoadPct";
+	
+	public static String VARIABLE_USERS					= "users";
+	public static String VARIABLE_RATE					= "rate";
+	
+	public static final double DEFAULT_GROWTH_FACTOR		= 2.0;
+	public static final double DEFAULT_RESOLUTION_PCT		= 5.0;
+	public static final long DEFAULT_SETTLE_SECS			= 10;
+	public static final long DEFAULT_MAX_STEP_SECS			= 120;
+	public static final int DEFAULT_PERCENTILE				= 99;
+	public static final double DEFAULT_MAX_ERROR_PCT		= 1.0;
+	public static final double DEFAULT_MIN_EFFECTIVE_LOAD_PCT = 90.0;
+	public static final int DEFAULT_INITIAL_RATE			= 10;
+	
+	/** Measurement window defaults, shorter than a full convergence run's. */
+	public static final long DEFAULT_WINDOW_BATCH_SECS		= 5;
+	public static final int DEFAULT_WINDOW_MIN_BATCHES		= 6;
+	public static final double DEFAULT_WINDOW_PRECISION		= 0.10;
+	
+	public static String DECISION_KNEE_FOUND			= "knee found";
+	public static String DECISION_MAX_SUSTAINED			= "maximum load sustained";
+	public static String DECISION_NONE_PASSED			= "no load level met the SLO";
+	public static String DECISION_OUT_OF_TIME			= "out of time";
+	public static String DECISION_INTERRUPTED			= "interrupted";
+	public static String DECISION_INVALID_PROFILE		= "invalid load profile";
+	
+	private String _trackName = "";
+	private String _variable = VARIABLE_USERS;
+	private int _initial = 1;
+	private int _max = Integer.MAX_VALUE;
+	private int _users = 0;
+	private double _growthFactor = DEFAULT_GROWTH_FACTOR;
+	private double _resolutionPct = DEFAULT_RESOLUTION_PCT;
+	private long _settleSecs = DEFAULT_SETTLE_SECS;
+	private long _maxStepSecs = DEFAULT_MAX_STEP_SECS;
+	private long _maxDuration = 0;
+	private JSONObject _window = null;
+	private int _percentile = DEFAULT_PERCENTILE;
+	private double _maxResponseTimeMsecs = -1.0;
+	private double _maxErrorPct = DEFAULT_MAX_ERROR_PCT;
+	private double _minEffectiveLoadPct = DEFAULT_MIN_EFFECTIVE_LOAD_PCT;
+	
+	/** Highest level that met the SLO (0: none yet). */
+	private int _passed = 0;
+	/** Lowest level that missed it (-1: none yet). */
+	private int _failed = -1;
+	/** The level to measure next (-1: the search is over). */
+	private int _next = 1;
+	private String _decision = null;
+	private double _bestPerUserThroughput = 0.0;
+	private Step _knee = null;
+	private ArrayList<Step> _steps = new ArrayList<Step>();
+	
+	/**
+	 * Creates a search from the scenario's "capacitySearch" settings.
+	 * 
+	 * @param trackName         The track whose load is searched.
+	 * @param config            The settings; anything left out takes its default.
+	 * @param maxUsers          The most users the track can run (its thread count).
+	 * @param duration          The configured steady state duration (secs), the default time budget.
+	 */
+	public CapacitySearch( String trackName, JSONObject config, int maxUsers, long duration ) throws JSONException
+	{
+		this._trackName = trackName;
+		this._variable = config.optString( CFG_VARIABLE_KEY, VARIABLE_USERS );
+		if( !this._variable.equals( VARIABLE_USERS ) && !this._variable.equals( VARIABLE_RATE ) )
+			throw new IllegalArgumentException( CFG_VARIABLE_KEY + " must be \"" + VARIABLE_USERS + "\" or \"" + VARIABLE_RATE + "\": " + this._variable );
+		
+		if( this.isUsersSearch() )
+		{
+			this._max = config.optInt( CFG_MAX_KEY, maxUsers );
+			// There's one thread per user
+			if( this._max > maxUsers )
+			{
+				System.out.println( "[CAPACITY] Capping the search at the track's " + maxUsers + " users (set the track's maxUsers to go higher)." );
+				this._max = maxUsers;
+			}
+			this._initial = config.optInt( CFG_INITIAL_KEY, Math.max( 1, this._max / 8 ) );
+		}
+		else
+		{
+			this._max = config.optInt( CFG_MAX_KEY, Integer.MAX_VALUE );
+			this._initial = config.optInt( CFG_INITIAL_KEY, DEFAULT_INITIAL_RATE );
+			this._users = Math.min( config.optInt( CFG_USERS_KEY, maxUsers ), maxUsers );
+		}
+		this._growthFactor = config.optDouble( CFG_GROWTH_FACTOR_KEY, DEFAULT_GROWTH_FACTOR );
+		this._resolutionPct = config.optDouble( CFG_RESOLUTION_PCT_KEY, DEFAULT_RESOLUTION_PCT );
+		this._settleSecs = config.optLong( CFG_SETTLE_SECS_KEY, DEFAULT_SETTLE_SECS );
+		this._maxStepSecs = config.optLong( CFG_MAX_STEP_SECS_KEY, DEFAULT_MAX_STEP_SECS );
+		this._maxDuration = Math.max( config.optLong( CFG_MAX_DURATION_KEY, duration ), duration );
+		this._percentile = config.optInt( CFG_PERCENTILE_KEY, DEFAULT_PERCENTILE );
+		this._maxResponseTimeMsecs = config.optDouble( CFG_MAX_RESPONSE_TIME_KEY, -1.0 );
+		this._maxErrorPct = config.optDouble( CFG_MAX_ERROR_PCT_KEY, DEFAULT_MAX_ERROR_PCT );
+		this._minEffectiveLoadPct = config.optDouble( CFG_MIN_EFFECTIVE_LOAD_PCT_KEY, DEFAULT_MIN_EFFECTIVE_LOAD_PCT );
+		
+		// The window is a convergence monitor measuring just the SLO percentile
+		JSONObject window = config.optJSONObject( CFG_WINDOW_KEY );
+		this._window = ( window != null ) ? new JSONObject( window.toString() ) : new JSONObject();
+		if( !this._window.has( ConvergenceMonitor.CFG_BATCH_SECS_KEY ) )
+			this._window.put( ConvergenceMonitor.CFG_BATCH_SECS_KEY, DEFAULT_WINDOW_BATCH_SECS );
+		if( !this._window.has( ConvergenceMonitor.CFG_MIN_BATCHES_KEY ) )
+			this._window.put( ConvergenceMonitor.CFG_MIN_BATCHES_KEY, DEFAULT_WINDOW_MIN_BATCHES );
+		if( !this._window.has( ConvergenceMonitor.CFG_RELATIVE_PRECISION_KEY ) )
+			this._window.put( ConvergenceMonitor.CFG_RELATIVE_PRECISION_KEY, DEFAULT_WINDOW_PRECISION );
+		this._window.put( ConvergenceMonitor.CFG_PERCENTILES_KEY, new JSONArray().put( this._percentile ) );
+		// Validates the window settings
+		ConvergenceMonitor monitor = new ConvergenceMonitor( trackName, this._window );
+		
+		// A step must be able to hold a full window
+		this._maxStepSecs = Math.max( this._maxStepSecs, this._settleSecs + ( monitor.getMinBatches() * monitor.getBatchMsecs() + ConvergenceMonitor.SETTLE_MSECS ) / 1000 + 1 );
+		
+		if( this._max < 1 || this._initial < 1 )
+			throw new IllegalArgumentException( CFG_INITIAL_KEY + " and " + CFG_MAX_KEY + " must be positive: " + this._initial + ", " + this._max );
+		if( this._growthFactor <= 1.0 )
+			throw new IllegalArgumentException( CFG_GROWTH_FACTOR_KEY + " must be greater than 1: " + this._growthFactor );
+		this._next = Math.min( this._initial, this._max );
+	}
+	
+	public String getTrackName() { return this._trackName; }
+	public String getVariable() { return this._variable; }
+	public boolean isUsersSearch() { return this._variable.equals( VARIABLE_USERS ); }
+	public long getMaxDuration() { return this._maxDuration; }
+	
+	/** Returns the level to measure next, or -1 once the search is over. */
+	public int getNextLevel() { return this._next; }
+	/** Returns the highest level that met the SLO, or 0 if none did. */
+	public int getMaxSustainableLevel() { return this._passed; }
+	public Step getKnee() { return this._knee; }
+	public String getDecision() { return this._decision; }
+	public ArrayList<Step> getSteps() { return this._steps; }
+	
+	/**
+	 * Measures one level after another on the given track, from the start
+	 * of the steady state until the search is over or runs out of time.
+	 * 
+	 * @param track                 The track whose load is searched; its scoreboard must be running.
+	 * @param startSteadyState      When the steady state starts.
+	 * @param maxEndSteadyState     The latest the steady state may end.
+	 * @param timeToQuit            When the run ends; the search's load profiles last until then.
+	 * @return  The time the search ended.
+	 */
+	public long run( ScenarioTrack track, long startSteadyState, long maxEndSteadyState, long timeToQuit ) throws JSONException
+	{
+		IScoreboard scoreboard = track.getScoreboard();
+		long settleMsecs = this._settleSecs * 1000;
+		long now = System.currentTimeMillis();
+		try
+		{
+			if( now < startSteadyState )
+				Thread.sleep( startSteadyState - now );
+			// The profile in effect during the ramp up supplies the mix (and the rate in a users search)
+			LoadProfile template = track.getCurrentLoadProfile();
+			
+			while( this._next > 0 )
+			{
+				now = System.currentTimeMillis();
+				ConvergenceMonitor monitor = new ConvergenceMonitor( this._trackName + ".step-" + ( this._steps.size() + 1 ), this._window );
+				if( now + settleMsecs + monitor.getMinBatches() * monitor.getBatchMsecs() + ConvergenceMonitor.SETTLE_MSECS > maxEndSteadyState )
+				{
+					this._decision = DECISION_OUT_OF_TIME;
+					break;
+				}
+				
+				int level = this._next;
+				int users = this.isUsersSearch() ? level : this._users;
+				int rate = this.isUsersSearch() ? template.getOpenLoopMaxOpsPerSec() : level;
+				LoadProfile profile = new LoadProfile( Math.max( 1, ( timeToQuit - now ) / 1000 + 1 ), users, template.getMixName(), 0 );
+				profile.setOpenLoopMaxOpsPerSec( rate );
+				if( track.validateLoadProfile( profile ) != ScenarioTrack.VALID_LOAD_PROFILE )
+				{
+					this._decision = DECISION_INVALID_PROFILE;
+					break;
+				}
+				
+				System.out.println( "[CAPACITY] Step " + ( this._steps.size() + 1 ) + ": " + this.describe( level ) + " for " + this._settleSecs + " secs to settle, then measuring." );
+				track.activateLoadProfile( profile );
+				monitor.start( now + settleMsecs );
+				scoreboard.setConvergenceMonitor( monitor );
+				
+				long stepEnd = Math.min( now + this._maxStepSecs * 1000, maxEndSteadyState );
+				long nextCheck = monitor.getEarliestDecision();
+				while( ( now = System.currentTimeMillis() ) < stepEnd )
+				{
+					if( now >= nextCheck )
+					{
+						if( monitor.check( now ) )
+							break;
+						nextCheck = now + monitor.getBatchMsecs();
+					}
+					Thread.sleep( Math.max( 1, Math.min( nextCheck, stepEnd ) - now ) );
+				}
+				scoreboard.setConvergenceMonitor( null );
+				monitor.check( now );
+				
+				Step step = new Step( level, users, rate, monitor.getStartTime(), now, monitor );
+				this.addStep( step );
+				System.out.println( "[CAPACITY] Step " + this._steps.size() + ": " + this.describe( level ) + ": " + step );
+			}
+		}
+		catch( InterruptedException ie )
+		{
+			this._decision = DECISION_INTERRUPTED;
+			scoreboard.setConvergenceMonitor( null );
+		}
+		
+		if( this._knee != null )
+			System.out.println( "[CAPACITY] Maximum sustainable load: " + this.describe( this._passed ) + ", " + this._knee.toString() + " (" + this._decision + ")." );
+		else System.out.println( "[CAPACITY] No sustainable load found (" + this._decision + ")." );
+		return System.currentTimeMillis();
+	}
+	
+	private String describe( int level )
+	{
+		return this.isUsersSearch() ? level + " users" : level + " ops/sec";
+	}
+	
+	/**
+	 * Judges a measured step against the SLO and picks the next level to
+	 * measure.
+	 */
+	public void addStep( Step step )
+	{
+		this.evaluate( step );
+		this._steps.add( step );
+		
+		int level = step._level;
+		if( step._passed )
+		{
+			if( level >= this._passed )
+			{
+				this._passed = level;
+				this._knee = step;
+			}
+		}
+		else if( this._failed < 0 || level < this._failed )
+			this._failed = level;
+		
+		if( this._failed < 0 )
+		{
+			// Still growing
+			if( this._passed >= this._max )
+			{
+				this._decision = DECISION_MAX_SUSTAINED;
+				this._next = -1;
+			}
+			else this._next = (int) Math.min( this._max, Math.max( this._passed + 1, Math.ceil( this._passed * this._growthFactor ) ) );
+			return;
+		}
+		
+		// Narrowing down
+		int resolution = (int) Math.max( 1, Math.floor( this._failed * this._resolutionPct / 100.0 ) );
+		if( this._failed - this._passed <= resolution )
+		{
+			this._decision = ( this._passed > 0 ) ? DECISION_KNEE_FOUND : DECISION_NONE_PASSED;
+			this._next = -1;
+		}
+		else this._next = this._passed + ( this._failed - this._passed ) / 2;
+	}
+	
+	private void evaluate( Step step )
+	{
+		if( this.isUsersSearch() )
+		{
+			double perUser = step._users > 0 ? step._throughput / step._users : 0.0;
+			if( perUser > this._bestPerUserThroughput )
+				this._bestPerUserThroughput = perUser;
+			step._offeredLoad = this._bestPerUserThroughput * step._users;
+		}
+		else step._offeredLoad = step._rate;
+		step._effectiveLoadPct = step._offeredLoad > 0.0 ? 100.0 * step._throughput / step._offeredLoad : 0.0;
+		
+		StringBuffer violations = new StringBuffer();
+		if( step._successes == 0 )
+			violations.append( "; no operations completed" );
+		if( this._maxResponseTimeMsecs > 0.0 && step._responseTimeSecs * 1000.0 > this._maxResponseTimeMsecs )
+			violations.append( String.format( "; p%d %.1f msecs > %.1f msecs", this._percentile, step._responseTimeSecs * 1000.0, this._maxResponseTimeMsecs ) );
+		if( step.getErrorPct() > this._maxErrorPct )
+			violations.append( String.format( "; errors %.2f%% > %.2f%%", step.getErrorPct(), this._maxErrorPct ) );
+		if( step._effectiveLoadPct < this._minEffectiveLoadPct )
+			violations.append( String.format( "; effective load %.1f%% < %.1f%% of offered", step._effectiveLoadPct, this._minEffectiveLoadPct ) );
+		step._passed = violations.length() == 0;
+		step._violations = step._passed ? "" : violations.substring( 2 );
+	}
+	
+	public JSONObject getStatistics() throws JSONException
+	{
+		JSONObject stats = new JSONObject();
+		stats.put( "track", this._trackName );
+		stats.put( "variable", this._variable );
+		stats.put( "decision", this._decision );
+		stats.put( "maxSustainableLevel", this._passed );
+		JSONObject slo = new JSONObject();
+		slo.put( "percentile", this._percentile );
+		if( this._maxResponseTimeMsecs > 0.0 )
+			slo.put( "maxResponseTimeMsecs", this._maxResponseTimeMsecs );
+		slo.put( "maxErrorPct", this._maxErrorPct );
+		slo.put( "minEffectiveLoadPct", this._minEffectiveLoadPct );
+		stats.put( "slo", slo );
+		if( this._knee != null )
+			stats.put( "knee", this._knee.getStatistics() );
+		JSONArray steps = new JSONArray();
+		for( int i = 0; i < this._steps.size(); i++ )
+		{
+			JSONObject step = this._steps.get( i ).getStatistics();
+			step.put( "step", i + 1 );
+			step.put( "knee", this._steps.get( i ) == this._knee );
+			steps.put( step );
+		}
+		stats.put( "steps", steps );
+		return stats;
+	}
+	
+	/** One measured load level. */
+	public static class Step
+	{
+		private int _level;
+		private int _users;
+		private int _rate;
+		private long _startTime;
+		private long _endTime;
+		private int _batches;
+		private boolean _converged;
+		private double _throughput;
+		private double _throughputHalfWidth = Double.POSITIVE_INFINITY;
+		private double _responseTimeSecs;
+		private long _successes;
+		private long _failures;
+		
+		// Filled in by the search
+		private double _offeredLoad = 0.0;
+		private double _effectiveLoadPct = 0.0;
+		private boolean _passed = false;
+		private String _violations = "";
+		
+		public Step( int level, int users, int rate, int batches, boolean converged, double throughput, double responseTimeSecs, long successes, long failures )
+		{
+			this._level = level;
+			this._users = users;
+			this._rate = rate;
+			this._batches = batches;
+			this._converged = converged;
+			this._throughput = throughput;
+			this._responseTimeSecs = responseTimeSecs;
+			this._successes = successes;
+			this._failures = failures;
+		}
+		
+		/** Takes the step's numbers from the window that measured it. */
+		public Step( int level, int users, int rate, long startTime, long endTime, ConvergenceMonitor monitor )
+		{
+			this( level, users, rate, monitor.getBatchCount(), monitor.isConverged(), 0.0, 0.0, monitor.getSuccesses(), monitor.getFailures() );
+			this._startTime = startTime;
+			this._endTime = endTime;
+			ConvergenceMonitor.Estimate[] estimates = monitor.getEstimates();
+			if( estimates.length > 0 )
+			{
+				this._throughput = estimates[0].getMean();
+				this._throughputHalfWidth = estimates[0].getHalfWidth();
+			}
+			if( estimates.length > 1 )
+				this._responseTimeSecs = estimates[1].getMean();
+		}
+		
+		public int getLevel() { return this._level; }
+		public int getUsers() { return this._users; }
+		public int getRate() { return this._rate; }
+		public double getThroughput() { return this._throughput; }
+		public double getResponseTimeSecs() { return this._responseTimeSecs; }
+		public double getOfferedLoad() { return this._offeredLoad; }
+		public double getEffectiveLoadPct() { return this._effectiveLoadPct; }
+		public boolean getPassed() { return this._passed; }
+		public String getViolations() { return this._violations; }
+		
+		public double getErrorPct()
+		{
+			long total = this._successes + this._failures;
+			return total > 0 ? 100.0 * this._failures / total : 0.0;
+		}
+		
+		public JSONObject getStatistics() throws JSONException
+		{
+			JSONObject stats = new JSONObject();
+			stats.put( "level", this._level );
+			stats.put( "users", this._users );
+			stats.put( "rateOpsPerSec", this._rate );
+			stats.put( "windowStart", this._startTime );
+			stats.put( "windowEnd", this._endTime );
+			stats.put( "batches", this._batches );
+			stats.put( "converged", this._converged );
+			stats.put( "offeredLoadOpsPerSec", this._offeredLoad );
+			stats.put( "throughputOpsPerSec", this._throughput );
+			if( !Double.isInfinite( this._throughputHalfWidth ) )
+				stats.put( "throughputHalfWidth", this._throughputHalfWidth );
+			stats.put( "effectiveLoadPct", this._effectiveLoadPct );
+			stats.put( "responseTimeSecs", this._responseTimeSecs );
+			stats.put( "opsSuccessful", this._successes );
+			stats.put( "opsFailed", this._failures );
+			stats.put( "errorPct", this.getErrorPct() );
+			stats.put( "passed", this._passed );
+			stats.put( "violations", this._violations );
+			return stats;
+		}
+		
+		public String toString()
+		{
+			String verdict = this._passed ? "passed" : "failed (" + this._violations + ")";
+			return String.format( "%.2f ops/sec (%.1f%% of offered), response time %.4f secs, %.2f%% errors, %d batches%s - %s", 
+					this._throughput, this._effectiveLoadPct, this._responseTimeSecs, this.getErrorPct(), this._batches, this._converged ? "" : " (not converged)", verdict );
+		}
+	}
+}
@@ -38,6 +38,8 @@ import java.util.Calendar;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 
+import radlab.rain.util.RandomStreams;
+
 /**
  * The DefaultScenarioTrack class is a generic implementation of the abstract
  * <code>ScenarioTrack</code> class that supports load profiles that specify
@@ -46,18 +48,21 @@ import java.text.SimpleDateFormat;
 public class DefaultScenarioTrack extends ScenarioTrack 
 {
 	private LoadManagerThread _loadManager;
-	private Random _random = new Random();
+	// Shared by every user's thread during transitions, so keep java.util.Random's thread-safety
+	private Random _random;
 	
 	public DefaultScenarioTrack( Scenario parent )
 	{
 		super( parent );
 		this._loadManager = new LoadManagerThread( this );
+		this._random = RandomStreams.newSharedStream( this._name, "transitions" );
 	}
 	
 	public DefaultScenarioTrack( String name, Scenario scenario )
 	{
 		super( scenario );
 		this._name = name;
+		this._random = RandomStreams.newSharedStream( this._name, "transitions" );
 		this._loadManager = new LoadManagerThread( this );
 	}
 	
@@ -147,6 +152,11 @@ public class DefaultScenarioTrack extends ScenarioTrack
 		this._loadManager.submitDynamicLoadProfile( profile );
 	}
 	
+	public void activateLoadProfile( LoadProfile profile )
+	{
+		this._loadManager.activateLoadProfile( profile );
+	}
+	
 	/**
 	 * Checks whether a load profile is valid within a ScenarioTrack, e.g.,
 	 * that the number of users is > 0, the mix name exists in the mixmap for the track,
@@ -284,7 +294,10 @@ public class DefaultScenarioTrack extends ScenarioTrack
 		/** The track for which this thread is responsible. */
 		private ScenarioTrack _track = null;
 		
-		private LoadProfile _currentProfile = null;
+		private volatile LoadProfile _currentProfile = null;
+		
+		/** Guards profile activations; waited on between load changes so an activation wakes us. */
+		private Object _profileLock = new Object();
 		
 		/** If true, this thread will stop advancing the load profile. */
 		private boolean _done = false;
@@ -329,6 +342,42 @@ public class DefaultScenarioTrack extends ScenarioTrack
 			}
 		}
 		
+		/**
+		 * Makes the given profile the current one right away rather than at
+		 * the end of the current interval. Its interval starts now.
+		 */
+		public void activateLoadProfile( LoadProfile profile )
+		{
+			synchronized( this._profileLock )
+			{
+				long now = System.currentTimeMillis();
+				this._currentProfile = profile;
+				this._track._currentLoadProfile = this._currentProfile;
+				this._track._currentLoadProfile._activeCount++;
+				this._track._currentLoadProfile.setTimeStarted( now );
+				System.out.println( this + " Load profile activated! Profile: " + profile.toString() );
+				this._profileLock.notifyAll();
+			}
+		}
+		
+		/**
+		 * Waits until the current profile's interval and transition are over.
+		 * A profile activated in the meantime restarts the wait.
+		 */
+		private void waitForIntervalEnd() throws InterruptedException
+		{
+			synchronized( this._profileLock )
+			{
+				long now = System.currentTimeMillis();
+				long end = 0;
+				while( ( end = this._currentProfile.getTimeStarted() + this._currentProfile.getInterval() + this._currentProfile.getTransitionTime() ) > now )
+				{
+					this._profileLock.wait( end - now );
+					now = System.currentTimeMillis();
+				}
+			}
+		}
+		
 		public void run()
 		{
 			long now = System.currentTimeMillis();
@@ -364,7 +413,7 @@ public class DefaultScenarioTrack extends ScenarioTrack
 				try
 				{
 					// Sleep until the next load/behavior change.
-					Thread.sleep( this._track._currentLoadProfile.getInterval() + this._track._currentLoadProfile.getTransitionTime() );
+					this.waitForIntervalEnd();
 					
 					// If time reading is even then push on a dynamic load profile. 
 					// Simple integration testing
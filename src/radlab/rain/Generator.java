@@ -31,9 +31,13 @@
 
 package radlab.rain;
 
+import java.util.Random;
+
 import org.json.JSONObject;
 import org.json.JSONException;
 
+import radlab.rain.util.RandomStreams;
+
 /**
  * The Generator abstract class provides a default constructor, required
  * properties, and specifies the methods that must be implemented in order
@@ -59,6 +63,11 @@ public abstract class Generator
 	/** A reference to the latest load profile used */
 	protected LoadProfile _latestLoadProfile = null;
 	
+	/** Workload-level seed override; negative means derive from the scenario's master seed. */
+	protected long _randomSeed = RandomStreams.NO_SEED;
+	/** This user's private random stream, created on first use. */
+	private Random _randomStream = null;
+	
 	public String getName() { return this._name; }
 	public void setName( String val ) { this._name = val; }
 	
@@ -70,6 +79,25 @@ public abstract class Generator
 	public void setLatestLoadProfile( LoadProfile val ) { this._latestLoadProfile = val; }
 	public LoadProfile getLatestLoadProfile() { return this._latestLoadProfile; }
 	
+	public long getRandomSeed() { return this._randomSeed; }
+	public void setRandomSeed( long val ) { this._randomSeed = val; this._randomStream = null; }
+	
+	/**
+	 * Returns this user's random stream. The stream is derived from the seed
+	 * (workload override or scenario master seed), the track name and this
+	 * generator's name, so it's reproducible across runs and never shared
+	 * with another user's thread.
+	 */
+	public Random getRandom()
+	{
+		if( this._randomStream == null )
+		{
+			String trackName = ( this._loadTrack != null ) ? this._loadTrack.getName() : "";
+			this._randomStream = RandomStreams.newStream( this._randomSeed, trackName, this._name );
+		}
+		return this._randomStream;
+	}
+	
 	/**
 	 * Creates a new Generator.
 	 * 
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A load controller adjusts a track's load while the run is going, based on
+ * the results it sees, instead of following a fixed load schedule. A load
+ * schedule creator that also implements this interface becomes the track's
+ * controller: its schedule covers the ramp up, the scoreboard feeds it every
+ * steady-state result and the benchmark starts it at the start of the
+ * steady state and stops it at the end of the run.
+ */
+public interface ILoadController 
+{
+	/**
+	 * Starts adjusting the track's load (via activateLoadProfile) on a
+	 * thread of its own.
+	 * 
+	 * @param track                 The track to control.
+	 * @param startSteadyState      When the steady state starts.
+	 * @param timeToQuit            When the run ends at the latest.
+	 */
+	void start( ScenarioTrack track, long startSteadyState, long timeToQuit );
+	
+	/** Stops adjusting the load. */
+	void stop();
+	
+	/**
+	 * Records a steady-state result; called by the scoreboard's worker thread.
+	 * 
+	 * @param timeFinished      When the operation finished (msecs).
+	 * @param responseTime      Its response time (nanosecs), or a negative value if it shouldn't be sampled.
+	 * @param failed            Whether the operation failed.
+	 */
+	void record( long timeFinished, long responseTime, boolean failed );
+	
+	/** Returns the controller's settings and the decisions it made, for the results. */
+	JSONObject getStatistics() throws JSONException;
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The IReplayableGenerator interface lets a generator take part in
+ * record-and-replay runs.<br />
+ * <br />
+ * While recording, the load generation thread asks the generator to write out
+ * the parameters (key, operation, value size, ...) of the request behind the
+ * operation it just returned from <code>nextRequest()</code>. During replay
+ * those bytes are handed back and the generator rebuilds the same operation
+ * without drawing any random numbers, so the target sees exactly the recorded
+ * stream.
+ */
+public interface IReplayableGenerator
+{
+	/**
+	 * Writes the parameters of the request behind the operation most recently
+	 * returned by <code>nextRequest()</code>.
+	 * 
+	 * @param out   Where to write the parameters.
+	 */
+	void writeLastRequest( DataOutput out ) throws IOException;
+	
+	/**
+	 * Rebuilds (and prepares) an operation from parameters written by
+	 * <code>writeLastRequest()</code>.
+	 * 
+	 * @param operationIndex    The recorded operation index.
+	 * @param in                The recorded parameters.
+	 * 
+	 * @return  The operation to run, or null to skip it.
+	 */
+	Operation replayRequest( int operationIndex, DataInput in ) throws IOException;
+}
@@ -34,6 +34,9 @@ package radlab.rain;
 import java.io.FileWriter;
 import java.io.PrintStream;
 
+import org.json.JSONObject;
+
+import radlab.rain.util.ConvergenceMonitor;
 import radlab.rain.util.MetricWriter;
 
 /**
@@ -156,7 +159,33 @@ public interface IScoreboard
 	
 	Scorecard getFinalScorecard();
 	
+	/**
+	 * Returns the results as JSON (see ResultsWriter), or null before the
+	 * statistics have been printed.
+	 */
+	JSONObject getStatistics();
+	
 	MetricWriter getMetricWriter();
 	void setMetricWriter( MetricWriter val );
 	
+	/** Sets the monitor that steady-state results are fed to, or null for none. */
+	ConvergenceMonitor getConvergenceMonitor();
+	void setConvergenceMonitor( ConvergenceMonitor val );
+	
+	/** If true, the results are also reported with the warm-up (found by MSER-5) cut off. */
+	boolean getWarmupAnalysis();
+	void setWarmupAnalysis( boolean val );
+	
+	/** Sets the load controller that steady-state results are fed to, or null for none. */
+	ILoadController getLoadController();
+	void setLoadController( ILoadController val );
+	
+	/** Sets the retention policy for the interval scorecards (see IntervalRetention), or null to keep them all. */
+	JSONObject getIntervalRetentionConfig();
+	void setIntervalRetentionConfig( JSONObject val );
+	
+	/** Sets the settings for rolling results up into a time series (see TimeSeriesRollup), or null for none. */
+	JSONObject getTimeSeriesConfig();
+	void setTimeSeriesConfig( JSONObject val );
+	
 }
@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import radlab.rain.util.NullSamplingStrategy;
+
+/**
+ * Holds a track's per-interval scorecards (one per load profile name) within
+ * a memory budget. Without a budget every scorecard stays in memory until
+ * the end of the run, as before. With one, we estimate the footprint of the
+ * scorecards (counters, operation summaries and their percentile samples)
+ * and, whenever it goes over the budget, evict the least recently updated
+ * scorecards. An evicted scorecard is spilled to a file as one line of JSON
+ * (the same fields as the "intervals" results), optionally after being
+ * rolled into a coarser window: the scorecards whose last result falls in
+ * the same window of rollupSecs are merged into one "[ROLLUP +&lt;secs&gt;s]"
+ * card, which is spilled once a later window starts. ResultsWriter adds the
+ * spilled cards to the interval and operation CSV files.<br />
+ * <br />
+ * A profile that becomes active again after its scorecard was spilled
+ * starts a new scorecard, so the same interval name can appear more than
+ * once in the spill file.
+ */
+public class IntervalRetention 
+{
+	public static String CFG_MEMORY_BUDGET_KB_KEY	= "memoryBudgetKB";
+	public static String CFG_SPILL_FILE_KEY			= "spillFile";
+	public static String CFG_ROLLUP_SECS_KEY		= "rollupSecs";
+	
+	/** Rough heap costs used to estimate the footprint of a scorecard. */
+	public static long SCORECARD_BYTES	= 512;
+	public static long OPERATION_BYTES	= 768;
+	public static long SAMPLE_BYTES		= 40;
+	
+	/** Results between footprint checks; a new scorecard always triggers one. */
+	public static int CHECK_EVERY		= 1000;
+	
+	private String _trackName = "";
+	private long _startTime = 0;
+	private long _budgetBytes = 0;
+	private String _spillFileName = null;
+	private long _rollupMsecs = 0;
+	
+	/** Live scorecards in access order, least recently updated first. */
+	private LinkedHashMap<String,Entry> _live = new LinkedHashMap<String,Entry>( 16, 0.75f, true );
+	private Entry _window = null;
+	private PrintWriter _spill = null;
+	
+	private long _estimatedBytes = 0;
+	private long _peakEstimatedBytes = 0;
+	private int _peakLive = 0;
+	private int _resultsSinceCheck = 0;
+	private long _evictions = 0;
+	private long _spilled = 0;
+	private long _spillErrors = 0;
+	
+	/** A scorecard and the span of completion times of the results it holds. */
+	private static class Entry
+	{
+		private Scorecard _card = null;
+		private long _firstTime = Long.MAX_VALUE;
+		private long _lastTime = Long.MIN_VALUE;
+		/** Only used by rollup windows: the sum of users times seconds rolled in. */
+		private double _userSecs = 0.0;
+		
+		private Entry( Scorecard card )
+		{
+			this._card = card;
+		}
+		
+		private void observe( long time )
+		{
+			this._firstTime = Math.min( this._firstTime, time );
+			this._lastTime = Math.max( this._lastTime, time );
+		}
+	}
+	
+	/**
+	 * Creates the retention policy for a track. A null config (or one
+	 * without a memory budget) keeps every scorecard in memory.
+	 */
+	public IntervalRetention( String trackName, long startTime, JSONObject config )
+	{
+		this._trackName = trackName;
+		this._startTime = startTime;
+		if( config != null )
+		{
+			this._budgetBytes = config.optLong( CFG_MEMORY_BUDGET_KB_KEY, 0 ) * 1024;
+			this._spillFileName = config.optString( CFG_SPILL_FILE_KEY, null );
+			this._rollupMsecs = config.optLong( CFG_ROLLUP_SECS_KEY, 0 ) * 1000;
+		}
+		if( this._spillFileName == null || this._spillFileName.length() == 0 )
+			this._spillFileName = "intervals-" + trackName + ".jsonl";
+	}
+	
+	public long getBudgetBytes() { return this._budgetBytes; }
+	public long getEstimatedBytes() { return this._estimatedBytes; }
+	public long getPeakEstimatedBytes() { return this._peakEstimatedBytes; }
+	public long getEvictions() { return this._evictions; }
+	public long getSpilled() { return this._spilled; }
+	public String getSpillFileName() { return this._spillFileName; }
+	
+	/** Returns the estimated heap footprint of a scorecard. */
+	public static long estimate( Scorecard card )
+	{
+		long bytes = SCORECARD_BYTES;
+		for( OperationSummary summary : card._operationMap.values() )
+			bytes += OPERATION_BYTES + SAMPLE_BYTES * summary.getSamplesCollected();
+		return bytes;
+	}
+	
+	/**
+	 * Returns the scorecard for a result of the given profile that completed
+	 * at the given time, creating it if need be. The scorecard returned is
+	 * never the one evicted to stay within the budget.
+	 */
+	public Scorecard getScorecard( LoadProfile profile, long time )
+	{
+		Entry entry = this._live.get( profile._name );
+		boolean created = false;
+		if( entry == null )
+		{
+			Scorecard card = new Scorecard( profile._name, profile._interval, this._trackName );
+			card._numberOfUsers = profile._numberOfUsers;
+			entry = new Entry( card );
+			this._live.put( profile._name, entry );
+			this._peakLive = Math.max( this._peakLive, this._live.size() );
+			created = true;
+		}
+		entry.observe( time );
+		
+		if( created || ++this._resultsSinceCheck >= CHECK_EVERY )
+			this.enforce();
+		return entry._card;
+	}
+	
+	/** Re-estimates the footprint and evicts scorecards until it's within the budget. */
+	public void enforce()
+	{
+		this._resultsSinceCheck = 0;
+		long bytes = this._window == null ? 0 : estimate( this._window._card );
+		for( Entry entry : this._live.values() )
+			bytes += estimate( entry._card );
+		this._estimatedBytes = bytes;
+		this._peakEstimatedBytes = Math.max( this._peakEstimatedBytes, bytes );
+		if( this._budgetBytes <= 0 )
+			return;
+		
+		// Keep the most recently updated scorecard, it's the one in use
+		Iterator<Entry> it = this._live.values().iterator();
+		while( this._estimatedBytes > this._budgetBytes && this._live.size() > 1 )
+		{
+			Entry eldest = it.next();
+			it.remove();
+			long before = this._window == null ? 0 : estimate( this._window._card );
+			this.evict( eldest );
+			long after = this._window == null ? 0 : estimate( this._window._card );
+			this._estimatedBytes += after - before - estimate( eldest._card );
+		}
+		// A window that outgrows the budget on its own is closed early
+		if( this._estimatedBytes > this._budgetBytes && this._window != null )
+		{
+			this._estimatedBytes -= estimate( this._window._card );
+			this.closeWindow();
+		}
+	}
+	
+	private void evict( Entry entry )
+	{
+		this._evictions++;
+		if( this._rollupMsecs <= 0 )
+		{
+			this.spill( entry );
+			return;
+		}
+		
+		long windowStart = this._startTime + ( ( entry._lastTime - this._startTime ) / this._rollupMsecs ) * this._rollupMsecs;
+		if( this._window != null && this._window._firstTime != windowStart )
+			this.closeWindow();
+		if( this._window == null )
+		{
+			String name = "[ROLLUP +" + ( ( windowStart - this._startTime ) / 1000 ) + "s]";
+			this._window = new Entry( new Scorecard( name, 0, this._trackName ) );
+			this._window._firstTime = windowStart;
+			this._window._lastTime = windowStart + this._rollupMsecs;
+			this._window._card._activeCount = 1;
+		}
+		rollIn( this._window, entry._card );
+	}
+	
+	/**
+	 * Merges an interval scorecard into a window. The window covers the sum
+	 * of the intervals' activations, so its per-activation loads are the
+	 * time-weighted averages of theirs.
+	 */
+	private static void rollIn( Entry window, Scorecard card )
+	{
+		Scorecard rollup = window._card;
+		double secs = card._intervalDuration * card._activeCount;
+		window._userSecs += card._numberOfUsers * secs;
+		rollup._intervalDuration += secs;
+		rollup._numberOfUsers = rollup._intervalDuration > 0 ? window._userSecs / rollup._intervalDuration : 0.0;
+		
+		rollup._totalOpsSuccessful += card._totalOpsSuccessful;
+		rollup._totalOpsFailed += card._totalOpsFailed;
+		rollup._totalActionsSuccessful += card._totalActionsSuccessful;
+		rollup._totalOpsAsync += card._totalOpsAsync;
+		rollup._totalOpsSync += card._totalOpsSync;
+		rollup._totalOpsInitiated += card._totalOpsInitiated;
+		rollup._totalOpsLate += card._totalOpsLate;
+		rollup._totalOpResponseTime += card._totalOpResponseTime;
+		
+		// The interval's samples were already thinned by its sampler, keep them all
+		for( String opName : card._operationMap.keySet() )
+		{
+			OperationSummary summary = rollup._operationMap.get( opName );
+			if( summary == null )
+			{
+				summary = new OperationSummary( new NullSamplingStrategy() );
+				rollup._operationMap.put( opName, summary );
+			}
+			summary.merge( card._operationMap.get( opName ) );
+		}
+	}
+	
+	private void closeWindow()
+	{
+		Entry window = this._window;
+		this._window = null;
+		this.spill( window );
+	}
+	
+	private void spill( Entry entry )
+	{
+		try
+		{
+			JSONObject stats = entry._card.getStatistics();
+			stats.put( "firstResultTime", entry._firstTime );
+			stats.put( "lastResultTime", entry._lastTime );
+			if( this._spill == null )
+				this._spill = new PrintWriter( new FileWriter( this._spillFileName ) );
+			this._spill.println( stats.toString() );
+			this._spilled++;
+		}
+		catch( JSONException e )
+		{
+			this._spillErrors++;
+			System.out.println( this + " Error spilling interval " + entry._card._name + ". Reason: " + e.toString() );
+		}
+		catch( IOException e )
+		{
+			this._spillErrors++;
+			System.out.println( this + " Error spilling interval " + entry._card._name + " to " + this._spillFileName + ". Reason: " + e.toString() );
+		}
+	}
+	
+	/** Returns the scorecards still in memory, sorted by interval name. */
+	public List<Scorecard> getLiveScorecards()
+	{
+		TreeMap<String,Scorecard> sorted = new TreeMap<String,Scorecard>();
+		for( Entry entry : this._live.values() )
+			sorted.put( entry._card._name, entry._card );
+		return new ArrayList<Scorecard>( sorted.values() );
+	}
+	
+	/** Checks the budget one last time, spills the last rollup window and closes the spill file. */
+	public void finish()
+	{
+		this.enforce();
+		if( this._window != null )
+			this.closeWindow();
+		if( this._spill != null )
+		{
+			this._spill.close();
+			this._spill = null;
+		}
+	}
+	
+	public JSONObject getStatistics() throws JSONException
+	{
+		JSONObject stats = new JSONObject();
+		stats.put( "memoryBudgetBytes", this._budgetBytes );
+		stats.put( "estimatedBytes", this._estimatedBytes );
+		stats.put( "peakEstimatedBytes", this._peakEstimatedBytes );
+		stats.put( "liveScorecards", this._live.size() );
+		stats.put( "peakLiveScorecards", this._peakLive );
+		stats.put( "evictions", this._evictions );
+		stats.put( "rollupSecs", this._rollupMsecs / 1000 );
+		stats.put( "spilledScorecards", this._spilled );
+		stats.put( "spillErrors", this._spillErrors );
+		if( this._spilled > 0 )
+			stats.put( "spillFile", this._spillFileName );
+		return stats;
+	}
+	
+	public String toString()
+	{
+		return "[INTERVAL RETENTION TRACK: " + this._trackName + "]";
+	}
+}
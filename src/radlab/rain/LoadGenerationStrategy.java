@@ -64,8 +64,9 @@ public abstract class LoadGenerationStrategy extends Thread
 	
 	protected long _timeStarted      = TIME_NOT_SET;
 	protected long _startSteadyState = TIME_NOT_SET;
-	protected long _endSteadyState   = TIME_NOT_SET;
-	protected long _timeToQuit       = TIME_NOT_SET;
+	/** The end of the steady state can be moved while the run is going (see setEndSteadyState). */
+	protected volatile long _endSteadyState = TIME_NOT_SET;
+	protected volatile long _timeToQuit     = TIME_NOT_SET;
 	
 	/** The unique ID of this thread. */
 	protected long _id = -1;
@@ -84,6 +85,44 @@ public abstract class LoadGenerationStrategy extends Thread
 	/** The shared pool of worker threads. */
 	protected ExecutorService _sharedWorkPool;
 	
+	/**
+	 * Returns the name the load generation thread with the given ID on the
+	 * given track will have.
+	 */
+	public static String getThreadName( ScenarioTrack track, long id )
+	{
+		StringBuffer trackName = new StringBuffer( track.getName() );
+		if( trackName.length() > 0 )
+		{
+			return trackName.append( ".Generator-" ).append( id ).toString();
+		}
+		else
+		{
+			return "NoTrack.Generator-" + id;
+		}
+	}
+	
+	/**
+	 * Returns the thread ID encoded in a name built by getThreadName(), or
+	 * -1 if the name doesn't have one.
+	 */
+	public static int getThreadId( String threadName )
+	{
+		if( threadName == null )
+			return -1;
+		int start = threadName.lastIndexOf( "Generator-" );
+		if( start < 0 )
+			return -1;
+		try
+		{
+			return Integer.parseInt( threadName.substring( start + "Generator-".length() ) );
+		}
+		catch( NumberFormatException nfe )
+		{
+			return -1;
+		}
+	}
+	
 	/**
 	 * Creates a new LoadGenerationStrategy thread.
 	 * 
@@ -95,15 +134,7 @@ public abstract class LoadGenerationStrategy extends Thread
 		this._generator = generator;
 		this._id = id;
 		
-		StringBuffer trackName = new StringBuffer( generator.getTrack().getName() );
-		if( trackName.length() > 0 )
-		{
-			this.setName( trackName.append( ".Generator-" ).append( this._id ).toString() );
-		}
-		else
-		{
-			this.setName( "NoTrack.Generator-" + this._id );
-		}
+		this.setName( getThreadName( generator.getTrack(), this._id ) );
 	}
 	
 	/**
@@ -118,15 +149,7 @@ public abstract class LoadGenerationStrategy extends Thread
 		this._generator = generator;
 		this._id = id;
 		
-		StringBuffer trackName = new StringBuffer( generator.getTrack().getName() );
-		if( trackName.length() > 0 )
-		{
-			this.setName( trackName.append( ".Generator-" ).append( this._id ).toString() );
-		}
-		else
-		{
-			this.setName( "NoTrack.Generator-" + this._id );
-		}
+		this.setName( getThreadName( generator.getTrack(), this._id ) );
 	}
 	
 	/**
@@ -144,6 +167,21 @@ public abstract class LoadGenerationStrategy extends Thread
 	
 	public long getStartSteadyState() { return this._startSteadyState; }
 	
+	public long getEndSteadyState() { return this._endSteadyState; }
+	
+	/**
+	 * Moves the end of the steady state, e.g. once the results have
+	 * converged. Set before the thread starts it replaces the end computed
+	 * from the configured duration; set later the ramp down keeps its length
+	 * and the thread quits accordingly.
+	 */
+	public void setEndSteadyState( long val )
+	{
+		if( this._timeToQuit != TIME_NOT_SET )
+			this._timeToQuit = val + ( this._timeToQuit - this._endSteadyState );
+		this._endSteadyState = val;
+	}
+	
 	public boolean getInteractive() { return this._interactive; }
 	public void setInteractive( boolean val ) { this._interactive = val; }
 	
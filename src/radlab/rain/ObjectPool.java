@@ -38,6 +38,11 @@ import java.util.Hashtable;
 import java.util.LinkedList;
 import java.io.PrintStream;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import radlab.rain.util.ResultsWriter;
+
 public class ObjectPool
 {
 	private long _maxPoolSize = 100000; // Upper-bound on number of pooled objects we keep around
@@ -62,6 +67,8 @@ public class ObjectPool
 	private long _totalOverflowDiscards = 0;
 
 	private String _trackName = "None";
+	// Stats as of the last shutdown, since shutdown resets the counters
+	private JSONObject _finalStatistics = null;
 	private NumberFormat _formatter = new DecimalFormat( "#0.0000" );
 	
 	public ObjectPool( long maxPoolSize )
@@ -95,6 +102,27 @@ public class ObjectPool
 	public String getTrackName() { return this._trackName; }
 	public void setTrackName( String val ) { this._trackName = val; }
 	
+	public JSONObject getFinalStatistics() { return this._finalStatistics; }
+	
+	/** Returns the pool counters as JSON, with times in milliseconds. */
+	public JSONObject getStatistics() throws JSONException
+	{
+		long returns = this._totalSuccessfulReturns + this._totalOverflowDiscards;
+		JSONObject stats = new JSONObject();
+		stats.put( "rentRequests", this._totalRentRequests );
+		stats.put( "hits", this._hits );
+		stats.put( "misses", this._misses );
+		stats.put( "averageRentQTimeMs", ResultsWriter.finite( (double)this._totalRentQTime/(double)this._totalRentRequests ) );
+		stats.put( "averageRentServiceTimeMs", ResultsWriter.finite( (double)this._totalRentServiceTime/(double)this._totalRentRequests ) );
+		stats.put( "returnRequests", this._totalReturnRequests );
+		stats.put( "successfulReturns", this._totalSuccessfulReturns );
+		stats.put( "overflowDiscards", this._totalOverflowDiscards );
+		stats.put( "cleanupDiscards", this._totalCleanupDiscards );
+		stats.put( "averageReturnQTimeMs", ResultsWriter.finite( (double)this._totalReturnQTime/(double)returns ) );
+		stats.put( "averageReturnServiceTimeMs", ResultsWriter.finite( (double)this._totalReturnServiceTime/(double)returns ) );
+		return stats;
+	}
+	
 	public void printStatistics( PrintStream out)
 	{
 		//String trackName = 
@@ -248,6 +276,14 @@ public class ObjectPool
 			this._pool.clear();
 		}
 		this.printStatistics( System.out );
+		try
+		{
+			this._finalStatistics = this.getStatistics();
+		}
+		catch( JSONException e )
+		{
+			System.out.println( "[OBJECTPOOL " + this._trackName + "] Error recording statistics. Reason: " + e.toString() );
+		}
 		this.resetStatistics();
 	}
 }
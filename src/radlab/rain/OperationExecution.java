@@ -52,6 +52,8 @@ public class OperationExecution implements Comparable<OperationExecution>
 	public long _actionsPerformed = 1;
 	public boolean _async = false;
 	public boolean _failed = true;
+	/** The class of the exception a failed operation threw, if any. */
+	public String _failureClass = null;
 	public Operation getOperation() { return this._owner; }
 	
 	public String getTraceLabel() { return this._traceLabel; }
@@ -72,6 +74,8 @@ public class OperationExecution implements Comparable<OperationExecution>
 		this._operationRequest = operation._operationRequest;
 		this._async = operation.getAsync();
 		this._failed = operation._failed;
+		if( operation.getFailureReason() != null )
+			this._failureClass = operation.getFailureReason().getClass().getName();
 		// Pull out any info on when this operation was created
 		this._generatedDuring = operation.getGeneratedDuringProfile();
 		this._profileStartTime = operation.getProfileStartTime();
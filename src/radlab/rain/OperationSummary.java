@@ -33,7 +33,11 @@ package radlab.rain;
 
 import java.util.LinkedList;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
 import radlab.rain.util.ISamplingStrategy;
+import radlab.rain.util.ResultsWriter;
 
 public class OperationSummary 
 {
@@ -100,6 +104,35 @@ public class OperationSummary
 		return this.responseTimeSampler.getTvalue( averageResponseTime );
 	}
 	
+	/**
+	 * Returns this summary as JSON, with times in seconds. The proportion is
+	 * relative to the given total number of operations.
+	 */
+	public JSONObject getStatistics( String opName, long totalOperations ) throws JSONException
+	{
+		JSONObject stats = new JSONObject();
+		stats.put( "operation", opName );
+		stats.put( "proportionPct", ResultsWriter.finite( ( (double) ( this.succeeded + this.failed ) / (double) totalOperations ) * 100 ) );
+		stats.put( "successes", this.succeeded );
+		stats.put( "failures", this.failed );
+		stats.put( "actions", this.totalActions );
+		stats.put( "asyncInvocations", this.totalAsyncInvocations );
+		stats.put( "syncInvocations", this.totalSyncInvocations );
+		stats.put( "averageResponseTimeSecs", this.getAverageResponseTime() / 1000000000.0 );
+		// If there were no successes the min and max response times were never set
+		stats.put( "minResponseTimeSecs", ( this.minResponseTime == Long.MAX_VALUE ? 0 : this.minResponseTime ) / 1000000000.0 );
+		stats.put( "maxResponseTimeSecs", ( this.maxResponseTime == Long.MIN_VALUE ? 0 : this.maxResponseTime ) / 1000000000.0 );
+		stats.put( "p50ResponseTimeSecs", this.getNthPercentileResponseTime( 50 ) / 1000000000.0 );
+		stats.put( "p90ResponseTimeSecs", this.getNthPercentileResponseTime( 90 ) / 1000000000.0 );
+		stats.put( "p95ResponseTimeSecs", this.getNthPercentileResponseTime( 95 ) / 1000000000.0 );
+		stats.put( "p99ResponseTimeSecs", this.getNthPercentileResponseTime( 99 ) / 1000000000.0 );
+		stats.put( "samplesCollected", this.getSamplesCollected() );
+		stats.put( "samplesSeen", this.getSamplesSeen() );
+		stats.put( "sampleMeanSecs", ResultsWriter.finite( this.getSampleMean() / 1000000000.0 ) );
+		stats.put( "sampleStandardDeviationSecs", ResultsWriter.finite( this.getSampleStandardDeviation() / 1000000000.0 ) );
+		return stats;
+	}
+	
 	protected ISamplingStrategy getResponseTimeSampler()
 	{ return this.responseTimeSampler; }
 	
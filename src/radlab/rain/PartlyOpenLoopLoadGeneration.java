@@ -38,6 +38,9 @@ import java.io.IOException;
 
 import org.json.JSONObject;
 
+import radlab.rain.util.OperationStreamWriter;
+import radlab.rain.util.RandomStreams;
+
 /**
  * The PartlyOpenLoopLoadGeneration class is a thread that supports partly
  * open loop load generation.
@@ -47,11 +50,14 @@ public class PartlyOpenLoopLoadGeneration extends LoadGenerationStrategy
 	/** Minimum increments of intervals of inactivity in seconds. */
 	public static int INACTIVE_DURATION = 1000;
 	
+	/** Directory to record each user's operation stream to (for ReplayLoadGeneration). */
+	public static String CFG_RECORD_DIRECTORY_KEY = "recordDirectory";
+	
 	/** The probability of using open loop vs. closed loop. */
 	protected double _openLoopProbability;
 	
 	/** The random number generator used to decide which loop to use. */
-	protected Random _random = new Random();
+	protected Random _random = null;
 	
 	/** Log writer registered to the scoreboard. */
 	protected FileWriter _logWriter;
@@ -65,6 +71,15 @@ public class PartlyOpenLoopLoadGeneration extends LoadGenerationStrategy
 	/** Statistic: number of asynchronous operations run. */
 	protected long _asynchOperations = 0;
 	
+	/** Where to record this user's operation stream; null if we're not recording. */
+	protected File _recordDirectory = null;
+	
+	/** Records this user's operation stream. */
+	protected OperationStreamWriter _recorder = null;
+	
+	/** System.nanoTime() at this thread's start time; offsets are recorded relative to it. */
+	protected long _runStartNanos = 0;
+	
 	/**
 	 * Creates a load generation thread that supports partly open loop.
 	 * 
@@ -74,6 +89,7 @@ public class PartlyOpenLoopLoadGeneration extends LoadGenerationStrategy
 	public PartlyOpenLoopLoadGeneration( Generator generator, long id )
 	{
 		super( generator, id );
+		this._random = RandomStreams.newStream( generator.getRandomSeed(), generator.getTrack().getName(), this.getName(), "openLoop" );
 		
 		// If a thread dies for some reason (e.g. the JVM runs out of heap
 		// space, which causes an Error not an Exception), use our uncaught
@@ -91,6 +107,10 @@ public class PartlyOpenLoopLoadGeneration extends LoadGenerationStrategy
 	public PartlyOpenLoopLoadGeneration( Generator generator, long id, JSONObject params )
 	{
 		super( generator, id, params );
+		this._random = RandomStreams.newStream( generator.getRandomSeed(), generator.getTrack().getName(), this.getName(), "openLoop" );
+		
+		if( params != null && params.has( CFG_RECORD_DIRECTORY_KEY ) )
+			this._recordDirectory = new File( params.optString( CFG_RECORD_DIRECTORY_KEY ) );
 		
 		// If a thread dies for some reason (e.g. the JVM runs out of heap
 		// space, which causes an Error not an Exception), use our uncaught
@@ -123,6 +143,8 @@ public class PartlyOpenLoopLoadGeneration extends LoadGenerationStrategy
 		try
 		{
 			this.sleepUntil( this._timeStarted );
+			this._runStartNanos = System.nanoTime() - ( System.currentTimeMillis() - this._timeStarted ) * 1000000;
+			this.createRecorder();
 			
 			int lastOperationIndex = NO_OPERATION_INDEX;
 			while ( System.currentTimeMillis() <= this._timeToQuit )
@@ -149,7 +171,11 @@ public class PartlyOpenLoopLoadGeneration extends LoadGenerationStrategy
 						
 						// Decide whether to do things open or closed
 						double randomDouble = this._random.nextDouble();
-						if ( randomDouble <= this._openLoopProbability )
+						boolean async = ( randomDouble <= this._openLoopProbability );
+						if( this._recorder != null )
+							this.recordOperation( nextOperation, async );
+						
+						if ( async )
 						{
 							this.doAsyncOperation( nextOperation );
 						}
@@ -172,10 +198,77 @@ public class PartlyOpenLoopLoadGeneration extends LoadGenerationStrategy
 		}
 		finally
 		{
+			this.closeRecorder();
 			this.closeLogWriters();
 		}
 	}
 	
+	/**
+	 * Opens this user's operation stream recording, if one was configured
+	 * and the generator knows how to serialize its requests.
+	 */
+	protected void createRecorder()
+	{
+		if( this._recordDirectory == null )
+			return;
+		
+		String threadName = this.getName();
+		if( !( this._generator instanceof IReplayableGenerator ) )
+		{
+			System.out.println( "[" + threadName + "] not recording: " + this._generator.getClass().getName() + " does not implement IReplayableGenerator." );
+			this._recordDirectory = null;
+			return;
+		}
+		
+		try
+		{
+			File file = OperationStreamWriter.getStreamFile( this._recordDirectory, threadName );
+			this._recorder = new OperationStreamWriter( file, this._generator.getTrack().getName(), this._generator.getClass().getName(), this._id, this._timeStarted );
+		}
+		catch( IOException ioe )
+		{
+			System.out.println( "[" + threadName + "] could not create operation recording. Reason: " + ioe.toString() );
+			this._recorder = null;
+		}
+	}
+	
+	/**
+	 * Appends an operation (and the request parameters behind it) to this
+	 * user's recording. Recording stops on the first I/O error.
+	 */
+	protected void recordOperation( Operation operation, boolean async )
+	{
+		long offsetMicros = ( System.nanoTime() - this._runStartNanos ) / 1000;
+		try
+		{
+			( (IReplayableGenerator) this._generator ).writeLastRequest( this._recorder.startRecord() );
+			this._recorder.endRecord( operation.getOperationIndex(), offsetMicros, async );
+		}
+		catch( IOException ioe )
+		{
+			System.out.println( "[" + this.getName() + "] operation recording failed, no longer recording. Reason: " + ioe.toString() );
+			this.closeRecorder();
+		}
+	}
+	
+	/** Closes this user's operation stream recording. */
+	protected void closeRecorder()
+	{
+		if( this._recorder == null )
+			return;
+		
+		try
+		{
+			this._recorder.close();
+			System.out.println( "[" + this.getName() + "] recorded " + this._recorder.getRecordCount() + " operations (" + this._recorder.getFileSize() + " bytes)." );
+		}
+		catch( IOException ioe )
+		{
+			System.out.println( "[" + this.getName() + "] failed to close operation recording. Reason: " + ioe.toString() );
+		}
+		this._recorder = null;
+	}
+	
 	/**
 	 * Runs the provided operation asynchronously and sleeps this thread on
 	 * the cycle time.
@@ -283,7 +376,8 @@ public class PartlyOpenLoopLoadGeneration extends LoadGenerationStrategy
 		long rampDown = track.getRampDown() * 1000;
 		
 		this._startSteadyState = this._timeStarted + rampUp;
-		this._endSteadyState   = this._startSteadyState + duration;
+		if( this._endSteadyState == TIME_NOT_SET )
+			this._endSteadyState = this._startSteadyState + duration;
 		this._timeToQuit       = this._endSteadyState + rampDown;
 	}
 	
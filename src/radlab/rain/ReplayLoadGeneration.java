@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+import org.json.JSONObject;
+
+import radlab.rain.util.OperationStreamReader;
+import radlab.rain.util.OperationStreamWriter;
+
+/**
+ * The ReplayLoadGeneration class reissues an operation stream recorded by
+ * <code>PartlyOpenLoopLoadGeneration</code> (see its "recordDirectory"
+ * parameter) so two runs against the target see exactly the same operations,
+ * keys and timing.<br />
+ * <br />
+ * Each thread replays the recording made by the thread with the same name,
+ * issuing every operation at its recorded start offset divided by the speed
+ * factor, synchronously or asynchronously as it was recorded. The generator
+ * must implement <code>IReplayableGenerator</code> and be compatible with the
+ * one that made the recording. The load profile's user counts are not
+ * consulted: inactive periods are already part of the recording.<br />
+ * <br />
+ * Offsets are scheduled against absolute time (not the previous operation)
+ * so lateness never accumulates; the thread parks until shortly before an
+ * operation is due and yields for the remainder, which keeps the issue error
+ * in the tens of microseconds.
+ */
+public class ReplayLoadGeneration extends PartlyOpenLoopLoadGeneration 
+{
+	/** Directory holding the recorded streams. */
+	public static String CFG_REPLAY_DIRECTORY_KEY	= "replayDirectory";
+	/** Replay speed relative to the recording, e.g. 2.0 issues everything twice as fast. */
+	public static String CFG_SPEED_FACTOR_KEY		= "speedFactor";
+	
+	/** Within this many nanoseconds of an operation's start we stop parking and yield instead. */
+	public static long SPIN_THRESHOLD_NANOS			= 100000;
+	
+	protected File _replayDirectory = null;
+	protected double _speedFactor = 1.0;
+	
+	/** Statistic: operations issued after their scheduled time (by more than 1 ms). */
+	protected long _lateOperations = 0;
+	/** Statistic: worst lateness seen, in nanoseconds. */
+	protected long _maxLatenessNanos = 0;
+	
+	public ReplayLoadGeneration( Generator generator, long id )
+	{
+		super( generator, id );
+	}
+	
+	public ReplayLoadGeneration( Generator generator, long id, JSONObject params )
+	{
+		super( generator, id, params );
+		
+		if( params != null )
+		{
+			if( params.has( CFG_REPLAY_DIRECTORY_KEY ) )
+				this._replayDirectory = new File( params.optString( CFG_REPLAY_DIRECTORY_KEY ) );
+			if( params.has( CFG_SPEED_FACTOR_KEY ) )
+				this._speedFactor = params.optDouble( CFG_SPEED_FACTOR_KEY, 1.0 );
+		}
+		
+		if( this._speedFactor <= 0.0 )
+			this._speedFactor = 1.0;
+		// Replaying while re-recording makes no sense
+		this._recordDirectory = null;
+	}
+	
+	@Override
+	public void resetStatistics()
+	{
+		super.resetStatistics();
+		this._lateOperations = 0;
+		this._maxLatenessNanos = 0;
+	}
+	
+	/** Replays this user's recorded operation stream. */
+	@Override
+	public void run()
+	{
+		String threadName = this.getName();
+		this.resetStatistics();
+		this.createLogWriters();
+		
+		this.loadTrackConfiguration( this._generator.getTrack() );
+		
+		OperationStreamReader reader = null;
+		long replayed = 0;
+		try
+		{
+			if( this._replayDirectory == null )
+			{
+				System.out.println( "[" + threadName + "] no " + CFG_REPLAY_DIRECTORY_KEY + " configured, nothing to replay." );
+				return;
+			}
+			if( !( this._generator instanceof IReplayableGenerator ) )
+			{
+				System.out.println( "[" + threadName + "] cannot replay: " + this._generator.getClass().getName() + " does not implement IReplayableGenerator." );
+				return;
+			}
+			
+			File file = OperationStreamWriter.getStreamFile( this._replayDirectory, threadName );
+			if( !file.exists() )
+			{
+				// This user never ran in the recorded run
+				return;
+			}
+			
+			reader = new OperationStreamReader( file );
+			if( !reader.getGeneratorClassName().equals( this._generator.getClass().getName() ) )
+				System.out.println( "[" + threadName + "] WARNING: replaying a recording made by " + reader.getGeneratorClassName() + " with " + this._generator.getClass().getName() );
+			
+			IReplayableGenerator replayable = (IReplayableGenerator) this._generator;
+			
+			this.sleepUntil( this._timeStarted );
+			this._lgState = LGState.Active;
+			long startNanos = System.nanoTime() - ( System.currentTimeMillis() - this._timeStarted ) * 1000000;
+			long quitNanos = startNanos + ( this._timeToQuit - this._timeStarted ) * 1000000;
+			long lastIssuedNanos = System.nanoTime();
+			
+			while( reader.next() )
+			{
+				// The steady state may be cut short (or extended) while we replay
+				quitNanos = startNanos + ( this._timeToQuit - this._timeStarted ) * 1000000;
+				long dueNanos = startNanos + (long) ( reader.getOffsetMicros() * 1000.0 / this._speedFactor );
+				if( dueNanos > quitNanos )
+					break;
+				
+				this.waitUntilNanos( dueNanos );
+				long issueNanos = System.nanoTime();
+				long lateness = issueNanos - dueNanos;
+				if( lateness > 1000000 )
+					this._lateOperations++;
+				if( lateness > this._maxLatenessNanos )
+					this._maxLatenessNanos = lateness;
+				
+				Operation operation = replayable.replayRequest( reader.getOperationIndex(), reader.getParameters() );
+				if( operation == null )
+					continue;
+				
+				operation.setGeneratedBy( threadName );
+				operation.setGeneratorThreadID( this._id );
+				operation.setAsync( reader.isAsync() );
+				if( reader.isAsync() )
+					this._asynchOperations++;
+				else this._synchOperations++;
+				
+				this.doOperation( operation );
+				replayed++;
+				
+				// The gap before this operation plays the role of the think/cycle time
+				this._generator.getScoreboard().dropOffWaitTime( System.currentTimeMillis(), operation._operationName, ( issueNanos - lastIssuedNanos ) / 1000000 );
+				lastIssuedNanos = issueNanos;
+			}
+			
+			if( !reader.isComplete() && System.nanoTime() < quitNanos )
+				System.out.println( "[" + threadName + "] recording ended early (truncated?) after " + replayed + " operations." );
+		}
+		catch( InterruptedException ie )
+		{
+			System.out.println( "[" + threadName + "] replay thread interrupted exiting!" );
+		}
+		catch( Exception e )
+		{
+			System.out.println( "[" + threadName + "] replay thread died by exception! Reason: " + e.toString() );
+			e.printStackTrace();
+		}
+		finally
+		{
+			if( reader != null )
+			{
+				try
+				{
+					reader.close();
+				}
+				catch( IOException ioe )
+				{}
+				System.out.println( "[" + threadName + "] replayed " + replayed + " operations at " + this._speedFactor + "x; " + this._lateOperations + " issued more than 1 ms late, worst " + ( this._maxLatenessNanos / 1000 ) + " us." );
+			}
+			this._lgState = LGState.Inactive;
+			this.closeLogWriters();
+		}
+	}
+	
+	/**
+	 * Waits until System.nanoTime() reaches the deadline: parks for most of
+	 * the wait and yields for the last SPIN_THRESHOLD_NANOS. Returns
+	 * immediately when not in interactive mode.
+	 */
+	protected void waitUntilNanos( long deadline ) throws InterruptedException
+	{
+		if( !this._interactive )
+			return;
+		
+		while( true )
+		{
+			long remaining = deadline - System.nanoTime();
+			if( remaining <= 0 )
+				return;
+			
+			if( remaining > SPIN_THRESHOLD_NANOS )
+				LockSupport.parkNanos( remaining - SPIN_THRESHOLD_NANOS );
+			else Thread.yield();
+			
+			if( Thread.interrupted() )
+				throw new InterruptedException();
+		}
+	}
+}
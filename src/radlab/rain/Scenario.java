@@ -43,6 +43,7 @@ import org.json.JSONObject;
 
 import radlab.rain.communication.RainPipe;
 import radlab.rain.util.ConfigUtil;
+import radlab.rain.util.RandomStreams;
 
 /**
  * The Scenario class contains the specifications for a benchmark scenario,
@@ -65,6 +66,10 @@ public class Scenario
 	public static String CFG_WAIT_FOR_START_SIGNAL				= "waitForStartSignal";
 	public static String CFG_MAX_SHARED_THREADS					= "maxSharedThreads";
 	public static String CFG_AGGREGATE_STATS					= "aggregateStats";
+	public static String CFG_RNG_SEED_KEY						= "rngSeed";
+	public static String CFG_RESULTS_FILE_KEY					= "resultsFile";
+	public static String CFG_CONVERGENCE_KEY					= "convergence";
+	public static String CFG_CAPACITY_SEARCH_KEY				= "capacitySearch";
 	
 	public static final int DEFAULT_MAX_SHARED_THREADS			= 10;
 	public static final boolean DEFAULT_AGGREGATE_STATS			= false;
@@ -83,6 +88,15 @@ public class Scenario
 	
 	private boolean _aggregateStats = DEFAULT_AGGREGATE_STATS;
 	
+	/** Path (prefix) of the machine-readable results files, or null to skip them. */
+	private String _resultsFile = null;
+	
+	/** Settings for ending the steady state once the results converge (see ConvergenceMonitor), or null. */
+	private JSONObject _convergence = null;
+	
+	/** Settings for searching for a track's maximum sustainable load (see CapacitySearch), or null. */
+	private JSONObject _capacitySearch = null;
+	
 	/** The instantiated tracks specified by the JSON configuration. */
 	// Use Hashtable instead of flat list
 	//private LinkedList<ScenarioTrack> _tracks = new LinkedList<ScenarioTrack>();
@@ -103,6 +117,15 @@ public class Scenario
 	public boolean getAggregateStats() { return this._aggregateStats; }
 	public void setAggregateStats( boolean val ) { this._aggregateStats = val; }
 	
+	public String getResultsFile() { return this._resultsFile; }
+	public void setResultsFile( String val ) { this._resultsFile = val; }
+	
+	public JSONObject getConvergence() { return this._convergence; }
+	public void setConvergence( JSONObject val ) { this._convergence = val; }
+	
+	public JSONObject getCapacitySearch() { return this._capacitySearch; }
+	public void setCapacitySearch( JSONObject val ) { this._capacitySearch = val; }
+	
 	public TreeMap<String,ScenarioTrack> getTracks() { return this._tracks; }
 	
 	/** Create a new and uninitialized <code>Scenario</code>. */
@@ -165,6 +188,11 @@ public class Scenario
 				boolean val = jsonConfig.getBoolean( Scenario.CFG_VERBOSE_ERRORS_KEY );
 				RainConfig.getInstance()._verboseErrors = val;
 			}
+			
+			// Seed every random stream from one master seed so runs can be repeated
+			if( jsonConfig.has( Scenario.CFG_RNG_SEED_KEY ) )
+				RandomStreams.setMasterSeed( jsonConfig.getLong( Scenario.CFG_RNG_SEED_KEY ) );
+			System.out.println( "[SCENARIO] Random master seed: " + RandomStreams.getMasterSeed() + ( RandomStreams.isMasterSeedSet() ? "" : " (set \"" + Scenario.CFG_RNG_SEED_KEY + "\" to repeat this run)" ) );
 			// Figure out whether we're using communication pipes
 			
 			// Figure out whether we're waiting for a start signal from an external controller
@@ -228,6 +256,15 @@ public class Scenario
 			
 			if( jsonConfig.has( CFG_AGGREGATE_STATS ) )
 				this._aggregateStats = jsonConfig.getBoolean( CFG_AGGREGATE_STATS );
+			
+			if( jsonConfig.has( CFG_RESULTS_FILE_KEY ) )
+				this._resultsFile = jsonConfig.getString( CFG_RESULTS_FILE_KEY );
+			
+			if( jsonConfig.has( CFG_CONVERGENCE_KEY ) )
+				this._convergence = jsonConfig.getJSONObject( CFG_CONVERGENCE_KEY );
+			
+			if( jsonConfig.has( CFG_CAPACITY_SEARCH_KEY ) )
+				this._capacitySearch = jsonConfig.getJSONObject( CFG_CAPACITY_SEARCH_KEY );
 		}
 		catch ( JSONException e )
 		{
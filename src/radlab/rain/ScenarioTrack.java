@@ -89,6 +89,9 @@ public abstract class ScenarioTrack
 	public static String CFG_OBJECT_POOL_MAX_SIZE               = "objectPoolMaxSize";
 	public static String CFG_MEAN_RESPONSE_TIME_SAMPLE_INTERVAL = "meanResponseTimeSamplingInterval";
 	public static String CFG_MAX_USERS							= "maxUsers";
+	public static String CFG_WARMUP_ANALYSIS					= "warmupAnalysis";
+	public static String CFG_INTERVAL_RETENTION					= "intervalRetention";
+	public static String CFG_TIME_SERIES						= "timeSeries";
 		
 	// Defaults
 	public static long DEFAULT_OBJECT_POOL_MAX_SIZE             		= 50000;
@@ -124,6 +127,10 @@ public abstract class ScenarioTrack
 	protected ObjectPool _objPool                               = null;
 	protected long _meanResponseTimeSamplingInterval            = DEFAULT_MEAN_RESPONSE_TIME_SAMPLE_INTERVAL;
 	protected int _maxUsersFromConfig							= 0;
+	protected boolean _warmupAnalysis							= false; // Also report the results with the warm-up (MSER-5) cut off
+	protected ILoadController _loadController					= null; // Set if the load schedule creator adjusts the load at run time
+	protected JSONObject _intervalRetentionConfig				= null; // Memory budget, spill file and rollup for the interval scorecards
+	protected JSONObject _timeSeriesConfig						= null; // Per-second (or so) rollups of the results, off if null
 	
 	/**
 	 * Create a new scenario track that will be benchmarked as part of the
@@ -141,6 +148,7 @@ public abstract class ScenarioTrack
 	public abstract LoadProfile getCurrentLoadProfile();
 	public abstract int validateLoadProfile( LoadProfile profile );
 	public abstract void submitDynamicLoadProfile( LoadProfile profile );
+	public abstract void activateLoadProfile( LoadProfile profile );
 	// public abstract LoadProfile getNextLoadProfile();
 	
 	public String getGeneratorClassName() { return this._generatorClassName; }
@@ -215,6 +223,9 @@ public abstract class ScenarioTrack
 	public double getMetricSnapshotInterval() { return this._metricSnapshotInterval; }
 	public void setMetricSnapshotInterval( double val ) { this._metricSnapshotInterval = val; }
 	
+	public ILoadController getLoadController() { return this._loadController; }
+	public void setLoadController( ILoadController val ) { this._loadController = val; }
+	
 	public MetricWriter getMetricWriter() { return this._metricWriter; }
 	public void setMetricWriter( MetricWriter val ) { this._metricWriter = val; }
 	
@@ -275,6 +286,10 @@ public abstract class ScenarioTrack
 			if( loadScheduler != null )
 				this._loadSchedule = loadScheduler.createSchedule( loadSchedulerParams );
 			else throw new Exception( "Error creating load scheduler class: " +  loadSchedulerClass );
+			
+			// A creator that's also a controller keeps adjusting the load during the run
+			if( loadScheduler instanceof ILoadController )
+				this._loadController = (ILoadController) loadScheduler;
 		}
 		else
 		{
@@ -391,6 +406,19 @@ public abstract class ScenarioTrack
 		{
 			this._resourcePath = config.getString(ScenarioTrack.CFG_RESOURCE_PATH);
 		}
+		// 16 Check whether to look for the end of the warm-up in the steady state
+		if( config.has( ScenarioTrack.CFG_WARMUP_ANALYSIS ) )
+			this._warmupAnalysis = config.getBoolean( ScenarioTrack.CFG_WARMUP_ANALYSIS );
+		// 17 Look for a memory budget for the interval scorecards
+		if( config.has( ScenarioTrack.CFG_INTERVAL_RETENTION ) )
+			this._intervalRetentionConfig = config.getJSONObject( ScenarioTrack.CFG_INTERVAL_RETENTION );
+		// 18 Look for time series rollups, either true (for the defaults) or their settings
+		if( config.has( ScenarioTrack.CFG_TIME_SERIES ) )
+		{
+			this._timeSeriesConfig = config.optJSONObject( ScenarioTrack.CFG_TIME_SERIES );
+			if( this._timeSeriesConfig == null && config.getBoolean( ScenarioTrack.CFG_TIME_SERIES ) )
+				this._timeSeriesConfig = new JSONObject();
+		}
 	}
 	
 	// Factory methods
@@ -404,13 +432,25 @@ public abstract class ScenarioTrack
 		return creator;
 	}
 	
-	@SuppressWarnings("unchecked")
 	public Generator createWorkloadGenerator( String name, JSONObject config ) throws Exception
+	{
+		return this.createWorkloadGenerator( name, config, null );
+	}
+	
+	/**
+	 * Creates a generator and names it before configure() runs, so anything
+	 * it sets up during configuration (e.g. its random stream) can already
+	 * tell which user it belongs to.
+	 */
+	@SuppressWarnings("unchecked")
+	public Generator createWorkloadGenerator( String name, JSONObject config, String generatorName ) throws Exception
 	{
 		Generator generator = null;
 		Class<Generator> generatorClass = (Class<Generator>) Class.forName( name );
 		Constructor<Generator> generatorCtor = generatorClass.getConstructor( new Class[]{ ScenarioTrack.class } );
 		generator = (Generator) generatorCtor.newInstance( new Object[] { this } );
+		if( generatorName != null )
+			generator.setName( generatorName );
 		if( config != null )
 			generator.configure( config );
 		return generator;
@@ -441,6 +481,10 @@ public abstract class ScenarioTrack
 		scoreboard.setScenarioTrack( this );
 		scoreboard.setUsingMetricSnapshots( this._useMetricSnapshots );
 		scoreboard.setMeanResponseTimeSamplingInterval( this._meanResponseTimeSamplingInterval );
+		scoreboard.setWarmupAnalysis( this._warmupAnalysis );
+		scoreboard.setLoadController( this._loadController );
+		scoreboard.setIntervalRetentionConfig( this._intervalRetentionConfig );
+		scoreboard.setTimeSeriesConfig( this._timeSeriesConfig );
 		return scoreboard;
 	}
 	
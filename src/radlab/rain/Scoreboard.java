@@ -32,6 +32,9 @@
 package radlab.rain;
 
 //import java.lang.Thread.State;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.LinkedList;
 import java.util.Hashtable;
 import java.util.TreeMap;
@@ -45,8 +48,15 @@ import java.lang.Thread.State;
 import java.text.NumberFormat;
 import java.text.DecimalFormat;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import radlab.rain.util.ConvergenceMonitor;
 import radlab.rain.util.MetricWriter;
 import radlab.rain.util.PoissonSamplingStrategy;
+import radlab.rain.util.ResultsWriter;
+import radlab.rain.util.RandomStreams;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
@@ -79,7 +89,7 @@ public class Scoreboard implements Runnable, IScoreboard
 	/** Time in seconds to wait for worker thread to exit before interrupt. */
 	public static int WORKER_EXIT_TIMEOUT 			= 60;
 	/* Random number generator */
-	private Random _random 							= new Random();
+	private Random _random 							= null;
 	/* Snapshot interval */
 	private long _metricSnapshotInterval			= (1 * 60 * 1000); // Every minute
 	/* Response time sampling interval */
@@ -88,16 +98,26 @@ public class Scoreboard implements Runnable, IScoreboard
 	
 	/* Time markers. */
 	private long _startTime 			= 0;
-	private long _endTime 				= 0;
+	/** Can be moved during the run when the steady state is ended early or extended. */
+	private volatile long _endTime 		= 0;
 	private long _totalDropOffWaitTime 	= 0;
 	private long _maxDropOffWaitTime 	= 0;
 	private long _totalDropoffs 		= 0;
 	private boolean _usingMetricSnapshots = false;
 	private MetricWriter _metricWriter	= null;
+	private volatile ConvergenceMonitor _convergenceMonitor = null;
+	private ILoadController _loadController = null;
+	private boolean _warmupAnalysis		= false;
+	private WarmupTruncation _warmup	= null;
 	
-	// Scorecards - per-interval scorecards plus the final scorecard
-	private TreeMap<String,Scorecard> _intervalScorecards = new TreeMap<String,Scorecard>();
+	// Scorecards - per-interval scorecards (kept within the retention policy's budget) plus the final scorecard
+	private JSONObject _intervalRetentionConfig				= null;
+	private IntervalRetention _intervals					= null;
+	private JSONObject _timeSeriesConfig					= null;
+	private TimeSeriesRollup _timeSeries					= null;
 	private Scorecard finalCard 							= null;
+	/** Machine-readable results, recorded when the statistics are printed. */
+	private JSONObject _statistics							= null;
 	// Interim stats support
 	ObjectPoolGeneric _statsObjPool 			= null;
 	LinkedList<ResponseTimeStat> _responseTimeQ = new LinkedList<ResponseTimeStat>();
@@ -172,7 +192,12 @@ public class Scoreboard implements Runnable, IScoreboard
 	public void setStartTimestamp( long val ) { this._startTime = val; }
 	
 	public long getEndTimestamp() { return this._endTime; }
-	public void setEndTimestamp( long val ) { this._endTime = val; }
+	public void setEndTimestamp( long val ) 
+	{ 
+		this._endTime = val;
+		if( this.finalCard != null )
+			this.finalCard._intervalDuration = (double) ( this._endTime - this._startTime ) / 1000.0;
+	}
 	
 	public String getTrackName() { return this._trackName; }
 	public void setTrackName( String val ) { this._trackName = val; }
@@ -192,11 +217,28 @@ public class Scoreboard implements Runnable, IScoreboard
 	public MetricWriter getMetricWriter() { return this._metricWriter; }
 	public void setMetricWriter( MetricWriter val ) { this._metricWriter = val; }
 	
+	public ConvergenceMonitor getConvergenceMonitor() { return this._convergenceMonitor; }
+	public void setConvergenceMonitor( ConvergenceMonitor val ) { this._convergenceMonitor = val; }
+	
+	public boolean getWarmupAnalysis() { return this._warmupAnalysis; }
+	public void setWarmupAnalysis( boolean val ) { this._warmupAnalysis = val; }
+	
+	public ILoadController getLoadController() { return this._loadController; }
+	public void setLoadController( ILoadController val ) { this._loadController = val; }
+	
+	public JSONObject getIntervalRetentionConfig() { return this._intervalRetentionConfig; }
+	public void setIntervalRetentionConfig( JSONObject val ) { this._intervalRetentionConfig = val; }
+	
+	public JSONObject getTimeSeriesConfig() { return this._timeSeriesConfig; }
+	public void setTimeSeriesConfig( JSONObject val ) { this._timeSeriesConfig = val; }
+	
 	public String getTargetHost() { return this._trackTargetHost; }
 	public void setTargetHost( String val ) { this._trackTargetHost = val; }
 	
 	public Scorecard getFinalScorecard() { return this.finalCard; }
 	
+	public JSONObject getStatistics() { return this._statistics; }
+	
 	public void registerErrorLogHandle( String owner, FileWriter logHandle )
 	{
 		synchronized( this._errorLogHandleMap )
@@ -256,8 +298,16 @@ public class Scoreboard implements Runnable, IScoreboard
 		
 		double runDuration = (double) ( this._endTime - this._startTime ) / 1000.0;
 		this.finalCard = new Scorecard( "final", runDuration, this._trackName );
+		// Trace-log sampling draws from a seeded stream so reruns log the same results
+		this._random = RandomStreams.newSharedStream( this._trackName, "scoreboard" );
 		
 		this.reset();
+		
+		this._intervals = new IntervalRetention( this._trackName, this._startTime, this._intervalRetentionConfig );
+		if( this._timeSeriesConfig != null )
+			this._timeSeries = new TimeSeriesRollup( this._trackName, this._startTime, this._timeSeriesConfig );
+		if( this._warmupAnalysis )
+			this._warmup = new WarmupTruncation( this._trackName, this._startTime, this._endTime, this._meanResponseTimeSamplingInterval );
 	}
 	
 	public void reset()
@@ -549,17 +599,31 @@ public class Scoreboard implements Runnable, IScoreboard
 		
 		double totalUsers = 0.0;
 		double totalIntervalActivations = 0.0;
+		JSONArray intervals = new JSONArray();
+		// Index the load schedule by profile name so long schedules don't
+		// make matching the scorecards to their profiles quadratic
+		HashMap<String,List<LoadProfile>> profilesByName = new HashMap<String,List<LoadProfile>>();
+		for( LoadProfile profile : this._owner._loadSchedule )
+		{
+			List<LoadProfile> profiles = profilesByName.get( profile._name );
+			if( profiles == null )
+			{
+				profiles = new ArrayList<LoadProfile>();
+				profilesByName.put( profile._name, profiles );
+			}
+			profiles.add( profile );
+		}
+		this._intervals.finish();
 		out.println( this + " Interval results-------------------: " );
 		// Print out per-interval stats?
-		for( Scorecard card : this._intervalScorecards.values() )
+		for( Scorecard card : this._intervals.getLiveScorecards() )
 		{
 			// Let's look at the load schedule to find the profile that
 			// matches the current score card
-			for( LoadProfile profile : this._owner._loadSchedule )
+			List<LoadProfile> profiles = profilesByName.get( card._name );
+			for( int i = 0; profiles != null && i < profiles.size(); i++ )
 			{
-				if( !card._name.equals( profile._name ) )
-					continue;
-								
+				LoadProfile profile = profiles.get( i );
 				// If the profile started after the end of a run then
 				// decrease the activation count accordingly
 				if( profile.getTimeStarted() > this._endTime )
@@ -588,8 +652,22 @@ public class Scoreboard implements Runnable, IScoreboard
 			
 			totalUsers += card._numberOfUsers * card._activeCount;
 			totalIntervalActivations += card._activeCount;
+			// Record the interval before printing it, printing discards the percentile samples
+			try
+			{
+				intervals.put( card.getStatistics() );
+			}
+			catch( JSONException e )
+			{
+				System.out.println( this + " Error recording interval results. Reason: " + e.toString() );
+			}
 			card.printStatistics( out );
 		}
+		if( this._intervals.getEvictions() > 0 )
+		{
+			out.println( this + " Intervals evicted to stay in budget: " + this._intervals.getEvictions() + " (" + this._intervals.getSpilled() + " scorecards spilled to " + this._intervals.getSpillFileName() + ")" );
+			out.println( this + " Interval memory budget/peak (KB)   : " + ( this._intervals.getBudgetBytes() / 1024 ) + "/" + ( this._intervals.getPeakEstimatedBytes() / 1024 ) );
+		}
 		
 		double averageOpResponseTimeSecs = 0.0;
 				
@@ -615,12 +693,14 @@ public class Scoreboard implements Runnable, IScoreboard
 		out.println( this + " Offered load (ops/sec)             : " + this._formatter.format( offeredLoadOps ) );
 		out.println( this + " Effective load (ops/sec)           : " + this._formatter.format( effectiveLoadOps ) );
 		// Still a rough estimate, need to compute the bounds on this estimate
+		double littlesEstimate = 0.0;
+		double littlesDelta = 0.0;
 		if( averageOpResponseTimeSecs > 0.0 )
 		{
 			//double opsPerUser = averageNumberOfUsers / this.finalCard._totalOpsSuccessful;
 						
-			double littlesEstimate = averageNumberOfUsers / (averageOpResponseTimeSecs + thinkTimeDeltaSecs);
-			double littlesDelta = Math.abs( (effectiveLoadOps - littlesEstimate)/ littlesEstimate ) * 100;
+			littlesEstimate = averageNumberOfUsers / (averageOpResponseTimeSecs + thinkTimeDeltaSecs);
+			littlesDelta = Math.abs( (effectiveLoadOps - littlesEstimate)/ littlesEstimate ) * 100;
 			out.println( this + " Little's Law Estimate (ops/sec)    : " + this._formatter.format( littlesEstimate ) );
 			out.println( this + " Variation from Little's Law (%)    : " + this._formatter.format( littlesDelta ) );
 		}
@@ -643,6 +723,132 @@ public class Scoreboard implements Runnable, IScoreboard
 		this.printErrorSummaryStatistics( out, false );
 		out.println( "" );
 		this.printWaitTimeStatistics( out, false );
+		
+		if( this._timeSeries != null )
+		{
+			this._timeSeries.finish( this._endTime );
+			out.println( "" );
+			out.println( this + " Time series buckets written        : " + this._timeSeries.getBucketsWritten() + " to " + this._timeSeries.getFileName() + " (" + this._timeSeries.getEmptyBuckets() + " without completions, longest stall: " + this._timeSeries.getLongestStallSecs() + " secs)" );
+		}
+		
+		if( this._usingMetricSnapshots && this._metricWriter != null )
+		{
+			try
+			{
+				JSONObject metricWriterStats = this._metricWriter.getStatistics();
+				JSONArray writers = metricWriterStats == null ? null : metricWriterStats.optJSONArray( "writers" );
+				if( writers != null )
+				{
+					// An async pipeline: one line per downstream writer
+					out.println( this + " Metric writer                      : " + this._metricWriter.getDetails() + " offered: " + metricWriterStats.getLong( "statsOffered" ) + " dropped: " + metricWriterStats.getLong( "statsDropped" ) );
+					for( int i = 0; i < writers.length(); i++ )
+					{
+						JSONObject writer = writers.getJSONObject( i );
+						out.println( this + "   writer " + i + " written: " + writer.getLong( "statsWritten" ) + " failed: " + writer.getLong( "statsFailed" ) + " dropped: " + writer.getLong( "statsDropped" ) + " peak queued: " + writer.getLong( "peakQueued" ) + " write latency avg/p99/max (msecs): " + this._formatter.format( writer.getDouble( "writeLatencyAvgMsecs" ) ) + "/" + this._formatter.format( writer.optDouble( "writeLatencyP99Msecs", 0.0 ) ) + "/" + this._formatter.format( writer.optDouble( "writeLatencyMaxMsecs", 0.0 ) ) );
+					}
+				}
+				else if( metricWriterStats != null )
+					out.println( this + " Metric writer                      : " + metricWriterStats.toString() );
+			}
+			catch( JSONException e )
+			{}
+		}
+		
+		// Score the run again without the warm-up
+		JSONObject trimmedStats = null;
+		if( this._warmup != null )
+		{
+			Scorecard trimmedCard = this._warmup.analyze( this._endTime );
+			trimmedCard._numberOfUsers = averageNumberOfUsers;
+			out.println( "" );
+			out.println( this + " Warm-up truncation (MSER-5)--------: " + this._warmup.getTruncationSecs() + " secs (throughput: " + this._warmup.getThroughputTruncationSecs() + " secs, response time: " + this._warmup.getResponseTimeTruncationSecs() + " secs)" );
+			try
+			{
+				trimmedStats = trimmedCard.getStatistics();
+			}
+			catch( JSONException e )
+			{
+				System.out.println( this + " Error recording trimmed results. Reason: " + e.toString() );
+			}
+			trimmedCard.printStatistics( out );
+		}
+		
+		try
+		{
+			JSONObject finalStats = new JSONObject();
+			finalStats.put( "track", this._trackName );
+			finalStats.put( "interval", ResultsWriter.FINAL_INTERVAL );
+			finalStats.put( "durationSecs", runDuration );
+			finalStats.put( "activeUsers", averageNumberOfUsers );
+			finalStats.put( "activationCount", totalIntervalActivations );
+			finalStats.put( "offeredLoadOpsPerSec", ResultsWriter.finite( offeredLoadOps ) );
+			finalStats.put( "effectiveLoadOpsPerSec", ResultsWriter.finite( effectiveLoadOps ) );
+			finalStats.put( "effectiveLoadRequestsPerSec", ResultsWriter.finite( effectiveLoadRequests ) );
+			finalStats.put( "littlesLawEstimateOpsPerSec", ResultsWriter.finite( littlesEstimate ) );
+			finalStats.put( "littlesLawVariationPct", ResultsWriter.finite( littlesDelta ) );
+			this.finalCard.putTotals( finalStats );
+			finalStats.put( "averageResponseTimeSecs", averageOpResponseTimeSecs );
+			finalStats.put( "operations", this.finalCard.getOperationStatistics() );
+			
+			JSONObject driver = new JSONObject();
+			driver.put( "dropOffs", this._totalDropoffs );
+			driver.put( "averageDropOffQTimeMs", ResultsWriter.finite( (double) this._totalDropOffWaitTime / (double) this._totalDropoffs ) );
+			driver.put( "maxDropOffQTimeMs", this._maxDropOffWaitTime );
+			driver.put( "meanResponseTimeSamplingInterval", this._meanResponseTimeSamplingInterval );
+			
+			JSONObject stats = new JSONObject();
+			stats.put( "track", this._trackName );
+			stats.put( "targetHost", this._trackTargetHost );
+			stats.put( "startTime", this._startTime );
+			stats.put( "endTime", this._endTime );
+			stats.put( "driver", driver );
+			stats.put( "intervals", intervals );
+			stats.put( "intervalRetention", this._intervals.getStatistics() );
+			if( this._timeSeries != null )
+				stats.put( "timeSeries", this._timeSeries.getStatistics() );
+			if( this._usingMetricSnapshots && this._metricWriter != null && this._metricWriter.getStatistics() != null )
+				stats.put( "metricWriter", this._metricWriter.getStatistics() );
+			stats.put( "final", finalStats );
+			if( trimmedStats != null )
+			{
+				stats.put( "warmup", this._warmup.getStatistics() );
+				stats.put( "trimmed", trimmedStats );
+			}
+			stats.put( "errors", this.getErrorStatistics() );
+			stats.put( "waitTimes", this.getWaitTimeStatistics() );
+			this._statistics = stats;
+		}
+		catch( JSONException e )
+		{
+			System.out.println( this + " Error recording final results. Reason: " + e.toString() );
+		}
+	}
+	
+	private JSONObject getErrorStatistics() throws JSONException
+	{
+		JSONObject errors = new JSONObject();
+		synchronized( this._errorSummaryDropOffLock )
+		{
+			for( ErrorSummary summary : this._errorMap.values() )
+				errors.put( summary._failureClass, summary._errorCount );
+		}
+		return errors;
+	}
+	
+	private JSONArray getWaitTimeStatistics() throws JSONException
+	{
+		JSONArray waits = new JSONArray();
+		synchronized( this.finalCard._operationMap )
+		{
+			for( String opName : this.finalCard._operationMap.keySet() )
+			{
+				// Operations sent in batches wait as a batch, not one by one
+				WaitTimeSummary summary = this._waitTimeMap.get( opName );
+				if( summary != null )
+					waits.put( summary.getStatistics( opName ) );
+			}
+		}
+		return waits;
 	}
 	
 	private void printErrorSummaryStatistics( PrintStream out, boolean purgeStats )
@@ -683,6 +889,9 @@ public class Scoreboard implements Runnable, IScoreboard
 				{
 					String opName = keys.next();
 					WaitTimeSummary summary = this._waitTimeMap.get( opName );
+					// Operations sent in batches wait as a batch, not one by one
+					if( summary == null )
+						continue;
 					
 					// If there were no values, then the min and max wait times would not have been set
 					// so make them to 0
@@ -907,11 +1116,15 @@ public class Scoreboard implements Runnable, IScoreboard
 					{
 						this.finalCard._totalOpsInitiated++;
 						this.processSteadyStateResult( result );
+						if( this._warmup != null )
+							this._warmup.record( result );
 					}
 					else if ( traceLabel.equals( Scoreboard.LATE_LABEL ) )
 					{
 						this.finalCard._totalOpsInitiated++;
 						this.finalCard._totalOpsLate++;
+						if( this._warmup != null )
+							this._warmup.recordLate( result );
 					}
 				}
 			}
@@ -943,18 +1156,20 @@ public class Scoreboard implements Runnable, IScoreboard
 	private void processSteadyStateResult( OperationExecution result )
 	{
 		String opName = result._operationName;
+		// The capacity search swaps monitors between steps
+		ConvergenceMonitor monitor = this._convergenceMonitor;
+		if( monitor != null )
+			monitor.record( result.getTimeFinished(), result.isInteractive() ? result.getExecutionTimeNanos() : -1, result.isFailed() );
+		if( this._loadController != null )
+			this._loadController.record( result.getTimeFinished(), result.isInteractive() ? result.getExecutionTimeNanos() : -1, result.isFailed() );
+		if( this._timeSeries != null )
+			this._timeSeries.record( result );
+		
 		// By default we don't save per-interval metrics
 		LoadProfile activeProfile = result._generatedDuring;
 		if( activeProfile != null && (activeProfile._name != null && activeProfile._name.length() > 0 ) )
 		{
-			String intervalName = activeProfile._name;
-			Scorecard intervalScorecard = this._intervalScorecards.get( intervalName );
-			if( intervalScorecard == null )
-			{
-				intervalScorecard = new Scorecard( intervalName, activeProfile._interval, this._trackName );
-				intervalScorecard._numberOfUsers = activeProfile._numberOfUsers;
-				this._intervalScorecards.put( intervalName, intervalScorecard );
-			}
+			Scorecard intervalScorecard = this._intervals.getScorecard( activeProfile, result.getTimeFinished() );
 			intervalScorecard._activeCount = activeProfile._activeCount;
 			intervalScorecard._totalOpsInitiated += 1;
 			
@@ -1147,6 +1362,17 @@ public class Scoreboard implements Runnable, IScoreboard
 			return "[SNAPSHOTWRITER TRACK: " + this._owner._trackName + "]";
 		}
 		
+		private void flushMetricWriter()
+		{
+			try
+			{
+				if( this._metricWriter != null )
+					this._metricWriter.flush();
+			}
+			catch( Exception e )
+			{}
+		}
+		
 		@SuppressWarnings("unused")
 		private void pushStatsToMetricDB() throws SQLException
 		{
@@ -1254,9 +1480,11 @@ public class Scoreboard implements Runnable, IScoreboard
 						}
 					}
 					//System.out.println( this + " todoQ empty, re-checking..." );
+					this.flushMetricWriter();
 				}
 				else
 				{
+					this.flushMetricWriter();
 					try
 					{
 						Thread.sleep( 1000 );
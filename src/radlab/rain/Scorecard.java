@@ -8,7 +8,12 @@ import java.util.Iterator;
 import java.util.TreeMap;
 //import java.util.Hashtable;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
 import radlab.rain.util.NullSamplingStrategy;
+import radlab.rain.util.ResultsWriter;
 
 // Not even going to try to make Scorecards thread-safe, the Scoreboard must do "the right thing"(tm)
 public class Scorecard 
@@ -69,27 +74,86 @@ public class Scorecard
 		this._numberOfUsers = 0.0;
 	}
 	
-	public void printStatistics( PrintStream out )
+	public double getOfferedLoadOps()
 	{
 		long totalOperations = this._totalOpsSuccessful + this._totalOpsFailed;
-			
-		double offeredLoadOps = 0.0;
 		if ( totalOperations > 0 )
-		{
-			offeredLoadOps = (double) this._totalOpsInitiated / this._intervalDuration;
-		}
-			
-		double effectiveLoadOps = 0.0;
+			return (double) this._totalOpsInitiated / this._intervalDuration;
+		return 0.0;
+	}
+	
+	public double getEffectiveLoadOps()
+	{
 		if ( this._totalOpsSuccessful > 0 )
-		{
-			effectiveLoadOps = (double) this._totalOpsSuccessful / this._intervalDuration;
-		}
-			
-		double effectiveLoadRequests = 0.0;
+			return (double) this._totalOpsSuccessful / this._intervalDuration;
+		return 0.0;
+	}
+	
+	public double getEffectiveLoadRequests()
+	{
 		if ( this._totalActionsSuccessful > 0 )
+			return (double) this._totalActionsSuccessful / this._intervalDuration;
+		return 0.0;
+	}
+	
+	public double getAverageResponseTimeSecs()
+	{
+		if( this._totalOpsSuccessful > 0 )
+			return ( (double)this._totalOpResponseTime/(double)this._totalOpsSuccessful)/1000000000.0;
+		return 0.0;
+	}
+	
+	/**
+	 * Returns the interval results as JSON, with the same per-activation loads
+	 * printStatistics shows. Call it before printStatistics, which discards the
+	 * percentile samples.
+	 */
+	public JSONObject getStatistics() throws JSONException
+	{
+		JSONObject stats = new JSONObject();
+		stats.put( "track", this._trackName );
+		stats.put( "interval", this._name );
+		stats.put( "durationSecs", this._intervalDuration );
+		stats.put( "activeUsers", this._numberOfUsers );
+		stats.put( "activationCount", this._activeCount );
+		stats.put( "offeredLoadOpsPerSec", ResultsWriter.finite( this.getOfferedLoadOps()/this._activeCount ) );
+		stats.put( "effectiveLoadOpsPerSec", ResultsWriter.finite( this.getEffectiveLoadOps()/this._activeCount ) );
+		stats.put( "effectiveLoadRequestsPerSec", ResultsWriter.finite( this.getEffectiveLoadRequests()/this._activeCount ) );
+		this.putTotals( stats );
+		stats.put( "averageResponseTimeSecs", this.getAverageResponseTimeSecs() );
+		stats.put( "operations", this.getOperationStatistics() );
+		return stats;
+	}
+	
+	/** Adds the operation counters shared by interval and final results. */
+	public void putTotals( JSONObject stats ) throws JSONException
+	{
+		stats.put( "opsInitiated", this._totalOpsInitiated );
+		stats.put( "opsSuccessful", this._totalOpsSuccessful );
+		stats.put( "opsFailed", this._totalOpsFailed );
+		stats.put( "opsLate", this._totalOpsLate );
+		stats.put( "opsAsync", this._totalOpsAsync );
+		stats.put( "opsSync", this._totalOpsSync );
+	}
+	
+	public JSONArray getOperationStatistics() throws JSONException
+	{
+		long totalOperations = this._totalOpsSuccessful + this._totalOpsFailed;
+		JSONArray operations = new JSONArray();
+		synchronized( this._operationMap )
 		{
-			effectiveLoadRequests = (double) this._totalActionsSuccessful / this._intervalDuration;
+			for( String opName : this._operationMap.keySet() )
+				operations.put( this._operationMap.get( opName ).getStatistics( opName, totalOperations ) );
 		}
+		return operations;
+	}
+	
+	public void printStatistics( PrintStream out )
+	{
+		long totalOperations = this._totalOpsSuccessful + this._totalOpsFailed;
+		double offeredLoadOps = this.getOfferedLoadOps();
+		double effectiveLoadOps = this.getEffectiveLoadOps();
+		double effectiveLoadRequests = this.getEffectiveLoadRequests();
 			
 		/* Show...
 		 * - average ops per second generated (load offered) - total ops/duration
@@ -106,9 +170,7 @@ public class Scorecard
 		out.println( this + " Operations initiated               : " + this._totalOpsInitiated );
 		out.println( this + " Operations successfully completed  : " + this._totalOpsSuccessful );
 		// Avg response time per operation
-		if( this._totalOpsSuccessful > 0 )
-			out.println( this + " Average operation response time (s): " + this._formatter.format( ( (double)this._totalOpResponseTime/(double)this._totalOpsSuccessful)/1000000000.0 ) );
-		else out.println( this + " Average operation response time (s): 0.0000" );
+		out.println( this + " Average operation response time (s): " + this._formatter.format( this.getAverageResponseTimeSecs() ) );
 		out.println( this + " Operations late                    : " + this._totalOpsLate );
 		out.println( this + " Operations failed                  : " + this._totalOpsFailed );
 		out.println( this + " Async Ops                          : " + this._totalOpsAsync + " " + this._formatter.format( ( ( (double) this._totalOpsAsync / (double) totalOperations) * 100) ) + "%" );
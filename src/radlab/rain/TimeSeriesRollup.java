@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.TreeMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import radlab.rain.util.LatencyHistogram;
+
+/**
+ * Rolls a track's steady-state results up into fixed time buckets (one
+ * second by default), so short stalls on the target show up instead of
+ * vanishing into the interval and whole-run averages. For every bucket and
+ * operation, plus "[ALL]" for the whole track, we keep the completions, the
+ * errors, the average number of operations in flight (the time the results
+ * spent executing inside the bucket divided by its length) and a
+ * LatencyHistogram for the p50/p99/max response times. Per bucket we also
+ * keep the errors by exception class and the users of the load profile in
+ * effect.<br />
+ * <br />
+ * A bucket is written to the time series file, as one line of JSON, once a
+ * result finishing settleSecs past its end has come in; results for a
+ * bucket already written are only counted as late. Buckets without results
+ * are written too, since that's what a stall looks like.
+ */
+public class TimeSeriesRollup 
+{
+	public static String CFG_BUCKET_SECS_KEY	= "bucketSecs";
+	public static String CFG_SETTLE_SECS_KEY	= "settleSecs";
+	public static String CFG_FILE_KEY			= "file";
+	
+	/** The operation name of the track-wide rows. */
+	public static String ALL_OPERATIONS			= "[ALL]";
+	
+	private String _trackName = "";
+	private long _startTime = 0;
+	private long _bucketMsecs = 1000;
+	private long _settleMsecs = 5000;
+	private String _fileName = null;
+	private PrintWriter _out = null;
+	
+	/** Buckets not written yet, by index. */
+	private TreeMap<Long,Bucket> _buckets = new TreeMap<Long,Bucket>();
+	private long _nextIndex = 0;
+	private long _watermark = 0;
+	private double _activeUsers = 0.0;
+	
+	private long _written = 0;
+	private long _lateResults = 0;
+	private long _emptyBuckets = 0;
+	private long _stall = 0;
+	private long _longestStall = 0;
+	private long _maxP99Nanos = 0;
+	private double _peakInFlight = 0.0;
+	private long _writeErrors = 0;
+	
+	/** The results of one operation (or the whole track) in a bucket. */
+	private static class Series
+	{
+		private long _completions = 0;
+		private long _errors = 0;
+		private double _busyMsecs = 0.0;
+		private LatencyHistogram _histogram = new LatencyHistogram();
+	}
+	
+	private static class Bucket
+	{
+		private TreeMap<String,Series> _operations = new TreeMap<String,Series>();
+		private TreeMap<String,Long> _errors = new TreeMap<String,Long>();
+		private double _activeUsers = -1;
+		
+		private Series getSeries( String opName )
+		{
+			Series series = this._operations.get( opName );
+			if( series == null )
+			{
+				series = new Series();
+				this._operations.put( opName, series );
+			}
+			return series;
+		}
+	}
+	
+	public TimeSeriesRollup( String trackName, long startTime, JSONObject config )
+	{
+		this._trackName = trackName;
+		this._startTime = startTime;
+		if( config != null )
+		{
+			this._bucketMsecs = Math.max( 1, (long) ( config.optDouble( CFG_BUCKET_SECS_KEY, 1.0 ) * 1000 ) );
+			this._settleMsecs = Math.max( 0, (long) ( config.optDouble( CFG_SETTLE_SECS_KEY, 5.0 ) * 1000 ) );
+			this._fileName = config.optString( CFG_FILE_KEY, null );
+		}
+		if( this._fileName == null || this._fileName.length() == 0 )
+			this._fileName = "timeseries-" + trackName + ".jsonl";
+	}
+	
+	public String getFileName() { return this._fileName; }
+	public long getBucketsWritten() { return this._written; }
+	public long getLateResults() { return this._lateResults; }
+	public long getEmptyBuckets() { return this._emptyBuckets; }
+	public double getLongestStallSecs() { return this._longestStall * this._bucketMsecs / 1000.0; }
+	
+	private Bucket getBucket( long index )
+	{
+		Bucket bucket = this._buckets.get( index );
+		if( bucket == null )
+		{
+			bucket = new Bucket();
+			this._buckets.put( index, bucket );
+		}
+		return bucket;
+	}
+	
+	/** Adds a steady-state result and writes out the buckets that have settled. */
+	public void record( OperationExecution result )
+	{
+		long finished = result.getTimeFinished();
+		long index = Math.max( 0, finished - this._startTime ) / this._bucketMsecs;
+		if( index < this._nextIndex )
+		{
+			this._lateResults++;
+			return;
+		}
+		
+		Bucket bucket = this.getBucket( index );
+		Series series = bucket.getSeries( result._operationName );
+		if( result.isFailed() )
+		{
+			series._errors++;
+			String failureClass = result._failureClass != null ? result._failureClass : "unknown";
+			Long count = bucket._errors.get( failureClass );
+			bucket._errors.put( failureClass, count == null ? 1 : count + 1 );
+		}
+		else
+		{
+			series._completions++;
+			if( result.isInteractive() )
+				series._histogram.record( result.getExecutionTimeNanos() );
+		}
+		if( result._generatedDuring != null )
+			bucket._activeUsers = result._generatedDuring._numberOfUsers;
+		
+		// Spread the time the operation was in flight over the buckets it
+		// overlaps, as far back as the ones not written yet
+		long from = Math.max( result.getTimeStarted(), this._startTime + this._nextIndex * this._bucketMsecs );
+		for( long i = Math.max( 0, from - this._startTime ) / this._bucketMsecs; i <= index; i++ )
+		{
+			long bucketStart = this._startTime + i * this._bucketMsecs;
+			long overlap = Math.min( finished, bucketStart + this._bucketMsecs ) - Math.max( from, bucketStart );
+			if( overlap > 0 )
+				this.getBucket( i ).getSeries( result._operationName )._busyMsecs += overlap;
+		}
+		
+		this._watermark = Math.max( this._watermark, finished );
+		this.flush( this._watermark - this._settleMsecs );
+	}
+	
+	/** Writes out every bucket that ends by the given time. */
+	public void flush( long time )
+	{
+		while( this._startTime + ( this._nextIndex + 1 ) * this._bucketMsecs <= time )
+			this.write( this._nextIndex++ );
+	}
+	
+	/** Writes out the buckets up to the end of the steady state and closes the file. */
+	public void finish( long endTime )
+	{
+		while( this._startTime + this._nextIndex * this._bucketMsecs < endTime || !this._buckets.isEmpty() )
+			this.write( this._nextIndex++ );
+		if( this._out != null )
+		{
+			this._out.close();
+			this._out = null;
+		}
+	}
+	
+	private void write( long index )
+	{
+		Bucket bucket = this._buckets.remove( index );
+		if( bucket == null )
+			bucket = new Bucket();
+		if( bucket._activeUsers >= 0 )
+			this._activeUsers = bucket._activeUsers;
+		
+		Series all = new Series();
+		for( Series series : bucket._operations.values() )
+		{
+			all._completions += series._completions;
+			all._errors += series._errors;
+			all._busyMsecs += series._busyMsecs;
+			all._histogram.merge( series._histogram );
+		}
+		if( all._completions == 0 )
+		{
+			this._emptyBuckets++;
+			this._stall++;
+			this._longestStall = Math.max( this._longestStall, this._stall );
+		}
+		else this._stall = 0;
+		this._maxP99Nanos = Math.max( this._maxP99Nanos, all._histogram.getPercentileNanos( 99 ) );
+		this._peakInFlight = Math.max( this._peakInFlight, all._busyMsecs / this._bucketMsecs );
+		
+		try
+		{
+			long bucketStart = this._startTime + index * this._bucketMsecs;
+			JSONObject line = new JSONObject();
+			line.put( "track", this._trackName );
+			line.put( "time", bucketStart );
+			line.put( "offsetSecs", ( bucketStart - this._startTime ) / 1000.0 );
+			line.put( "activeUsers", this._activeUsers );
+			JSONArray operations = new JSONArray();
+			operations.put( this.getStatistics( ALL_OPERATIONS, all ) );
+			for( String opName : bucket._operations.keySet() )
+				operations.put( this.getStatistics( opName, bucket._operations.get( opName ) ) );
+			line.put( "operations", operations );
+			JSONObject errors = new JSONObject();
+			for( String failureClass : bucket._errors.keySet() )
+				errors.put( failureClass, bucket._errors.get( failureClass ) );
+			line.put( "errors", errors );
+			
+			if( this._out == null )
+				this._out = new PrintWriter( new FileWriter( this._fileName ) );
+			this._out.println( line.toString() );
+			// Keep the file current so it can be followed during the run
+			this._out.flush();
+			this._written++;
+		}
+		catch( JSONException e )
+		{
+			this._writeErrors++;
+			System.out.println( this + " Error writing time series bucket. Reason: " + e.toString() );
+		}
+		catch( IOException e )
+		{
+			this._writeErrors++;
+			System.out.println( this + " Error writing time series to " + this._fileName + ". Reason: " + e.toString() );
+		}
+	}
+	
+	private JSONObject getStatistics( String opName, Series series ) throws JSONException
+	{
+		JSONObject stats = new JSONObject();
+		stats.put( "operation", opName );
+		stats.put( "completions", series._completions );
+		stats.put( "errors", series._errors );
+		stats.put( "inFlight", series._busyMsecs / this._bucketMsecs );
+		stats.put( "p50ResponseTimeSecs", series._histogram.getPercentileNanos( 50 ) / 1000000000.0 );
+		stats.put( "p99ResponseTimeSecs", series._histogram.getPercentileNanos( 99 ) / 1000000000.0 );
+		stats.put( "maxResponseTimeSecs", series._histogram.getMaxNanos() / 1000000000.0 );
+		return stats;
+	}
+	
+	/** Returns a summary of the time series for the results. */
+	public JSONObject getStatistics() throws JSONException
+	{
+		JSONObject stats = new JSONObject();
+		stats.put( "bucketSecs", this._bucketMsecs / 1000.0 );
+		stats.put( "buckets", this._written );
+		stats.put( "lateResults", this._lateResults );
+		stats.put( "emptyBuckets", this._emptyBuckets );
+		stats.put( "longestStallSecs", this.getLongestStallSecs() );
+		stats.put( "maxP99ResponseTimeSecs", this._maxP99Nanos / 1000000000.0 );
+		stats.put( "peakInFlight", this._peakInFlight );
+		stats.put( "writeErrors", this._writeErrors );
+		if( this._written > 0 )
+			stats.put( "file", this._fileName );
+		return stats;
+	}
+	
+	public String toString()
+	{
+		return "[TIME SERIES TRACK: " + this._trackName + "]";
+	}
+}
@@ -31,7 +31,11 @@
 
 package radlab.rain;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
 import radlab.rain.util.ISamplingStrategy;
+import radlab.rain.util.ResultsWriter;
 
 public class WaitTimeSummary 
 {
@@ -95,4 +99,23 @@ public class WaitTimeSummary
 	{
 		return this.waitTimeSampler.getTvalue( averageWaitTime );
 	}
+	
+	/** Returns this summary as JSON, with times in seconds. */
+	public JSONObject getStatistics( String opName ) throws JSONException
+	{
+		JSONObject stats = new JSONObject();
+		stats.put( "operation", opName );
+		stats.put( "count", this.count );
+		stats.put( "averageWaitTimeSecs", this.getAverageWaitTime() / 1000000000.0 );
+		// If there were no values the min and max wait times were never set
+		stats.put( "minWaitTimeSecs", ( this.minWaitTime == Long.MAX_VALUE ? 0 : this.minWaitTime ) / 1000000000.0 );
+		stats.put( "maxWaitTimeSecs", ( this.maxWaitTime == Long.MIN_VALUE ? 0 : this.maxWaitTime ) / 1000000000.0 );
+		stats.put( "p90WaitTimeSecs", this.getNthPercentileResponseTime( 90 ) / 1000000000.0 );
+		stats.put( "p99WaitTimeSecs", this.getNthPercentileResponseTime( 99 ) / 1000000000.0 );
+		stats.put( "samplesCollected", this.getSamplesCollected() );
+		stats.put( "samplesSeen", this.getSamplesSeen() );
+		stats.put( "sampleMeanSecs", ResultsWriter.finite( this.getSampleMean() / 1000000000.0 ) );
+		stats.put( "sampleStandardDeviationSecs", ResultsWriter.finite( this.getSampleStandardDeviation() / 1000000000.0 ) );
+		return stats;
+	}
 }
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import radlab.rain.util.Mser;
+import radlab.rain.util.PoissonSamplingStrategy;
+import radlab.rain.util.ResultsWriter;
+
+/**
+ * Finds where the warm-up of the target ends inside a track's steady state
+ * and re-scores the run without it. The scoreboard hands over every
+ * steady-state result; we keep per-second throughput and response time
+ * series plus one small Scorecard per MSER-5 batch (5 seconds). At the end
+ * MSER-5 picks a truncation point on each series, the later of the two
+ * wins, and the batches after it are merged into the trimmed scorecard,
+ * which is reported next to the untrimmed final one.
+ * 
+ * MSER only looks for a truncation point in the first half of the run, so
+ * only that half needs per-batch scorecards; results in the second half go
+ * straight into one running tail scorecard. The per-batch scorecards keep
+ * their response time samples for a window of the most recent batches and
+ * are cut down to counters after that, so memory stays flat however long
+ * the run is. Percentiles of the trimmed scorecard therefore come from the
+ * tail and the batches in the window.
+ */
+public class WarmupTruncation 
+{
+	/** Length of a segment scorecard: one MSER-5 batch of one-second observations. */
+	public static final int SEGMENT_SECS = Mser.MSER_5;
+	/** Number of recent segment scorecards that keep their response time samples. */
+	public static final int SAMPLE_WINDOW_SEGMENTS = 12;
+	
+	private String _trackName = "";
+	private long _startTime = 0;
+	private long _meanResponseTimeSamplingInterval = 500;
+	
+	private long[] _successes = new long[64];
+	private long[] _responseTimeSum = new long[64];
+	private long[] _responses = new long[64];
+	private ArrayList<Scorecard> _segments = new ArrayList<Scorecard>();
+	// Segments from here on are past any truncation point MSER can pick
+	private int _candidateSegments = 0;
+	private Scorecard _tail = null;
+	
+	private int _observations = 0;
+	private int _throughputTruncation = 0;
+	private int _responseTimeTruncation = 0;
+	private int _truncation = 0;
+	
+	public WarmupTruncation( String trackName, long startTime, long endTime, long meanResponseTimeSamplingInterval )
+	{
+		this._trackName = trackName;
+		this._startTime = startTime;
+		this._meanResponseTimeSamplingInterval = meanResponseTimeSamplingInterval;
+		
+		// Mser.truncateBatches() drops at most half of the batches
+		int batches = (int) Math.max( 0, ( endTime - startTime ) / 1000 ) / SEGMENT_SECS;
+		this._candidateSegments = batches / 2;
+		this._tail = new Scorecard( "segment-tail", 0, this._trackName );
+	}
+	
+	/** Returns the number of seconds dropped from the start of the steady state. */
+	public int getTruncationSecs() { return this._truncation; }
+	public int getThroughputTruncationSecs() { return this._throughputTruncation; }
+	public int getResponseTimeTruncationSecs() { return this._responseTimeTruncation; }
+	
+	private int getSecond( long time )
+	{
+		int second = (int) Math.max( 0, ( time - this._startTime ) / 1000 );
+		this.ensureCapacity( second + 1 );
+		return second;
+	}
+	
+	private void ensureCapacity( int seconds )
+	{
+		if( seconds > this._successes.length )
+		{
+			int length = Math.max( seconds, this._successes.length * 2 );
+			this._successes = Arrays.copyOf( this._successes, length );
+			this._responseTimeSum = Arrays.copyOf( this._responseTimeSum, length );
+			this._responses = Arrays.copyOf( this._responses, length );
+		}
+	}
+	
+	private Scorecard getSegment( int second )
+	{
+		int index = second / SEGMENT_SECS;
+		if( index >= this._candidateSegments )
+			return this._tail;
+		
+		while( this._segments.size() <= index )
+		{
+			this._segments.add( new Scorecard( "segment-" + this._segments.size(), SEGMENT_SECS, this._trackName ) );
+			// Keep only the counters of segments that fell out of the sample window
+			int stale = this._segments.size() - 1 - SAMPLE_WINDOW_SEGMENTS;
+			if( stale >= 0 )
+			{
+				for( OperationSummary summary : this._segments.get( stale )._operationMap.values() )
+					summary.resetSamples();
+			}
+		}
+		return this._segments.get( index );
+	}
+	
+	/** Accounts for a result that finished in the steady state, as the final scorecard does. */
+	public void record( OperationExecution result )
+	{
+		int second = this.getSecond( result.getTimeFinished() );
+		Scorecard segment = this.getSegment( second );
+		segment._totalOpsInitiated++;
+		
+		OperationSummary summary = segment._operationMap.get( result._operationName );
+		if( summary == null )
+		{
+			summary = new OperationSummary( new PoissonSamplingStrategy( this._meanResponseTimeSamplingInterval ) );
+			segment._operationMap.put( result._operationName, summary );
+		}
+		
+		if( result.isAsynchronous() )
+			segment._totalOpsAsync++;
+		else segment._totalOpsSync++;
+		
+		if( result.isFailed() )
+		{
+			summary.failed++;
+			segment._totalOpsFailed++;
+			return;
+		}
+		
+		this._successes[second]++;
+		segment._totalOpsSuccessful++;
+		segment._totalActionsSuccessful += result.getActionsPerformed();
+		summary.succeeded++;
+		summary.totalActions += result.getActionsPerformed();
+		if( result.isAsynchronous() )
+			summary.totalAsyncInvocations++;
+		else summary.totalSyncInvocations++;
+		
+		if( result.isInteractive() )
+		{
+			long responseTime = result.getExecutionTimeNanos();
+			this._responseTimeSum[second] += responseTime;
+			this._responses[second]++;
+			
+			summary.acceptSample( responseTime );
+			summary.totalResponseTime += responseTime;
+			segment._totalOpResponseTime += responseTime;
+			if( responseTime > summary.maxResponseTime )
+				summary.maxResponseTime = responseTime;
+			if( responseTime < summary.minResponseTime )
+				summary.minResponseTime = responseTime;
+		}
+	}
+	
+	/** Accounts for a result that started in the steady state but finished after it. */
+	public void recordLate( OperationExecution result )
+	{
+		Scorecard segment = this.getSegment( this.getSecond( result.getTimeStarted() ) );
+		segment._totalOpsInitiated++;
+		segment._totalOpsLate++;
+	}
+	
+	/**
+	 * Picks the truncation point for a steady state that ended at the given
+	 * time and returns the trimmed scorecard.
+	 */
+	public Scorecard analyze( long endTime )
+	{
+		this._observations = (int) ( ( endTime - this._startTime ) / 1000 );
+		this.ensureCapacity( this._observations );
+		
+		double[] throughput = new double[this._observations];
+		double[] responseTime = new double[this._observations];
+		double last = -1.0;
+		for( int i = 0; i < this._observations; i++ )
+		{
+			throughput[i] = this._successes[i];
+			// Seconds without a response carry the last mean forward
+			if( this._responses[i] > 0 )
+				last = (double) this._responseTimeSum[i] / (double) this._responses[i];
+			responseTime[i] = last;
+		}
+		// ...and leading ones take the first mean there is
+		int first = 0;
+		while( first < this._observations && responseTime[first] < 0 )
+			first++;
+		for( int i = 0; i < first; i++ )
+			responseTime[i] = first < this._observations ? responseTime[first] : 0.0;
+		
+		this._throughputTruncation = Mser.truncate( throughput, this._observations, Mser.MSER_5 );
+		this._responseTimeTruncation = Mser.truncate( responseTime, this._observations, Mser.MSER_5 );
+		this._truncation = Math.max( this._throughputTruncation, this._responseTimeTruncation );
+		
+		double duration = ( endTime - this._startTime ) / 1000.0 - this._truncation;
+		Scorecard trimmed = new Scorecard( ResultsWriter.TRIMMED_INTERVAL, duration, this._trackName );
+		for( int i = this._truncation / SEGMENT_SECS; i < this._segments.size(); i++ )
+			trimmed.merge( this._segments.get( i ) );
+		trimmed.merge( this._tail );
+		trimmed._activeCount = 1;
+		return trimmed;
+	}
+	
+	public JSONObject getStatistics() throws JSONException
+	{
+		JSONObject stats = new JSONObject();
+		stats.put( "method", "MSER-" + Mser.MSER_5 );
+		stats.put( "observationSecs", this._observations );
+		stats.put( "truncationSecs", this._truncation );
+		stats.put( "throughputTruncationSecs", this._throughputTruncation );
+		stats.put( "responseTimeTruncationSecs", this._responseTimeTruncation );
+		return stats;
+	}
+}
@@ -0,0 +1,165 @@
+package radlab.rain.hotspots;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Multinomial backed by primitive arrays and Vose's alias method: sampleOne() is
+ * O(1) (one uniform int, one uniform double, no boxing) regardless of the number
+ * of objects, and the table can be rebuilt in place in O(n) when the weights
+ * change (e.g. when a new LoadProfile draws fresh Dirichlet hotspot weights).
+ */
+public class AliasMultinomial implements IMultinomial {
+	private double[] probabilities;
+	private double[] prob;
+	private int[] alias;
+	// Scratch worklists reused across rebuilds
+	private int[] small;
+	private int[] large;
+	private Random rnd = new Random();
+	
+	public AliasMultinomial(double[] weights) {
+		rebuild(weights);
+	}
+	
+	public AliasMultinomial(double[] weights, Random rnd) {
+		this.rnd = rnd;
+		rebuild(weights);
+	}
+	
+	public AliasMultinomial(ArrayList<Double> weights) {
+		rebuild(weights);
+	}
+	
+	public void setRandom(Random rnd) { this.rnd = rnd; }
+	
+	public void rebuild(ArrayList<Double> weights) {
+		double[] w = new double[weights.size()];
+		for (int i=0; i<w.length; i++) w[i] = weights.get(i);
+		rebuild(w);
+	}
+	
+	/**
+	 * Rebuilds the alias table for a new set of (unnormalized) weights. The arrays
+	 * are reused if the number of objects hasn't changed.
+	 */
+	public void rebuild(double[] weights) {
+		int n = weights.length;
+		assert n>0 : "need at least one weight";
+		
+		if (prob==null || prob.length!=n) {
+			probabilities = new double[n];
+			prob = new double[n];
+			alias = new int[n];
+			small = new int[n];
+			large = new int[n];
+		}
+		
+		double sum = 0.0;
+		for (int i=0; i<n; i++) {
+			assert weights[i]>=0 : "weights can't be negative";
+			sum += weights[i];
+		}
+		assert sum>0 : "weights must not all be zero";
+		
+		// Scale so that the average bucket holds exactly 1.0
+		int numSmall = 0;
+		int numLarge = 0;
+		for (int i=0; i<n; i++) {
+			probabilities[i] = weights[i]/sum;
+			prob[i] = probabilities[i]*n;
+			alias[i] = i;
+			if (prob[i]<1.0) small[numSmall++] = i;
+			else large[numLarge++] = i;
+		}
+		
+		while (numSmall>0 && numLarge>0) {
+			int s = small[--numSmall];
+			int l = large[--numLarge];
+			alias[s] = l;
+			prob[l] = (prob[l]+prob[s])-1.0;
+			if (prob[l]<1.0) small[numSmall++] = l;
+			else large[numLarge++] = l;
+		}
+		
+		// Whatever is left over is 1.0 up to rounding error
+		while (numLarge>0) prob[large[--numLarge]] = 1.0;
+		while (numSmall>0) prob[small[--numSmall]] = 1.0;
+	}
+	
+	public Integer size() { return(prob.length); }
+	
+	public double probability(int i) { return(probabilities[i]); }
+	
+	public Integer sampleOne() {
+		return(sample());
+	}
+	
+	/** Unboxed variant of sampleOne() */
+	public int sample() {
+		int i = rnd.nextInt(prob.length);
+		return( rnd.nextDouble()<prob[i] ? i : alias[i] );
+	}
+	
+	public ArrayList<Integer> sampleWithReplacement(Integer n) {
+		ArrayList<Integer> samples = new ArrayList<Integer>(n);
+		for (int i=0; i<n; i++) samples.add(sample());
+		return(samples);
+	}
+	
+	/**
+	 * Sampling without replacement. We try cheap rejection first (fine as long as
+	 * n is small compared to the number of objects with non-trivial mass), and if
+	 * that takes too many draws we keep what we have and draw the rest from the
+	 * remaining objects with the Efraimidis-Spirakis weighted reservoir, which is
+	 * exact and bounded at O(size * log n).
+	 * 
+	 * @param n Number of samples to draw (n should be less or equal to the number of objects with non-zero probability).
+	 */
+	public ArrayList<Integer> sampleWithoutReplacement(Integer n) {
+		assert n<=size() : "can't sample that many values without replacement";
+		
+		HashSet<Integer> samples = new HashSet<Integer>();
+		int maxDraws = 4*n + 16;
+		for (int draws=0; draws<maxDraws && samples.size()<n; draws++)
+			samples.add(sample());
+		
+		if (samples.size()<n) completeWithoutReplacement(probabilities, samples, n, rnd);
+		return(new ArrayList<Integer>(samples));
+	}
+	
+	/**
+	 * Adds objects to samples until it holds n of them, drawing without replacement
+	 * from the objects not in it yet (as if their weights were zeroed). Given the
+	 * values already drawn, the rest of a sequential draw without replacement has
+	 * exactly this distribution, so finishing a partial rejection sample this way
+	 * doesn't bias it.
+	 */
+	static void completeWithoutReplacement(double[] probabilities, HashSet<Integer> samples, int n, Random rnd) {
+		int needed = n-samples.size();
+		// Keep the largest keys u^(1/w); the head of the queue is the smallest kept key
+		PriorityQueue<double[]> reservoir = new PriorityQueue<double[]>(needed+1, new java.util.Comparator<double[]>() {
+			public int compare(double[] a, double[] b) { return Double.compare(a[0], b[0]); }
+		});
+		for (int i=0; i<probabilities.length; i++) {
+			if (probabilities[i]<=0.0 || samples.contains(i)) continue;
+			double key = Math.log(rnd.nextDouble())/probabilities[i];
+			if (reservoir.size()<needed) reservoir.add(new double[] {key, i});
+			else if (key>reservoir.peek()[0]) {
+				reservoir.poll();
+				reservoir.add(new double[] {key, i});
+			}
+		}
+		for (double[] entry: reservoir) samples.add((int) entry[1]);
+	}
+	
+	public String toString() {
+		StringBuffer sb = new StringBuffer();
+		sb.append("probabilities: (");
+		for (double d: probabilities) sb.append(d+",");
+		sb.append(")");
+		return(sb.toString());
+	}
+}
@@ -22,6 +22,22 @@ public class Dirichlet {
 		for (Integer i=0; i<n; i++) samples.set(i, samples.get(i)/sum);
 		return(samples);
 	}
+	
+	/**
+	 * Unboxed variant of sample() that writes into a caller-supplied array so
+	 * hotspot weights can be redrawn (and an AliasMultinomial rebuilt) without
+	 * allocating per object.
+	 */
+	public static double[] sample(double[] alpha, double[] out) {
+		if (out==null || out.length!=alpha.length) out = new double[alpha.length];
+		double sum = 0.0;
+		for (int i=0; i<alpha.length; i++) {
+			out[i] = gamma.nextDouble(alpha[i],1.0);
+			sum += out[i];
+		}
+		for (int i=0; i<out.length; i++) out[i] /= sum;
+		return(out);
+	}
 	@SuppressWarnings("unused")
 	public static void main( String[] args )
 	{
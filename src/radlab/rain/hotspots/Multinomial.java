@@ -1,13 +1,14 @@
 package radlab.rain.hotspots;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Random;
 
 public class Multinomial implements IMultinomial {
 	private ArrayList<Double> probabilities;
-	private ArrayList<Double> cdf;
+	private double[] cdf;
 	private Random rnd = new Random();
 	
 	/*public void shrink( int targetSize )
@@ -72,12 +73,12 @@ public class Multinomial implements IMultinomial {
 		return(normalized);
 	}
 	
-	private ArrayList<Double> computeCDF(ArrayList<Double> p) {
-		ArrayList<Double> cdf = new ArrayList<Double>();
-		Double sum = 0.0;
-		for (Double d: p) {
-			sum += d;
-			cdf.add(sum);
+	private double[] computeCDF(ArrayList<Double> p) {
+		double[] cdf = new double[p.size()];
+		double sum = 0.0;
+		for (int i=0; i<cdf.length; i++) {
+			sum += p.get(i);
+			cdf[i] = sum;
 		}
 		return(cdf);
 	}
@@ -102,11 +103,15 @@ public class Multinomial implements IMultinomial {
 		return(new Multinomial(sorted));
 	}
 	
+	public void setRandom(Random rnd) { this.rnd = rnd; }
+	
 	public Integer size() { return(probabilities.size()); }
 	
 	/**
-	 * Sampling from the multinomial distribution without replacement. This is a rejection method so
-	 * it could be really slow when taking too many samples.
+	 * Sampling from the multinomial distribution without replacement. Rejection is tried first
+	 * but only for a bounded number of draws; if that doesn't produce n distinct values (e.g. when
+	 * n is close to the number of objects with non-trivial mass) we keep the values drawn so far
+	 * and draw the rest from the remaining objects with AliasMultinomial's exact weighted reservoir.
 	 * 
 	 * @param n Number of samples to draw (n should be less or equal to size of the Multinomial).
 	 * @return
@@ -115,15 +120,14 @@ public class Multinomial implements IMultinomial {
 		assert n<=size() : "can't sample that many values without replacement";
 		
 		HashSet<Integer> samples = new HashSet<Integer>();
-		while (samples.size()<n) {
-			Boolean haveNew = false;
-			while (!haveNew) {
-				Integer s = sampleOne();
-				if (!samples.contains(s)) {
-					haveNew=true;
-					samples.add(s);
-				}
-			}
+		int maxDraws = 4*n + 16;
+		for (int draws=0; draws<maxDraws && samples.size()<n; draws++)
+			samples.add(sampleOne());
+		
+		if (samples.size()<n) {
+			double[] p = new double[probabilities.size()];
+			for (int i=0; i<p.length; i++) p[i] = probabilities.get(i);
+			AliasMultinomial.completeWithoutReplacement(p, samples, n, rnd);
 		}
 		return(new ArrayList<Integer>(samples));
 	}
@@ -135,22 +139,19 @@ public class Multinomial implements IMultinomial {
 	}
 	
 	public Integer sampleOne() {
-		Integer i0 = -1;
-		Integer i1 = cdf.size();
-		Integer i = 0;
-		Double r = rnd.nextDouble() * cdf.get(cdf.size()-1);
-		Boolean found = false;
-		
-		while (!found) {
-			i = (i0+i1)/2;
-//			System.out.println(r+" "+i0+" "+i+" "+i1);
-			if ( (i==0&&r<=cdf.get(0)) || (i>0&&cdf.get(i-1)<r&&r<=cdf.get(i)) ) found = true;
-			else if (i>0&&r<=cdf.get(i-1)) i1=i;
-			else i0=i;			
-		}
+		double r = rnd.nextDouble() * cdf[cdf.length-1];
+		// We want the first i with r <= cdf[i]
+		int i = Arrays.binarySearch(cdf, r);
+		if (i<0) i = -(i+1);
+		else while (i>0 && cdf[i-1]==r) i--;
 		return(i);
 	}
 	
+	/** Returns an O(1) alias-table sampler with the same probabilities. */
+	public AliasMultinomial toAlias() {
+		return(new AliasMultinomial(probabilities));
+	}
+	
 	public String toString() {
 		StringBuffer sb = new StringBuffer();
 		sb.append("probabilities: (");
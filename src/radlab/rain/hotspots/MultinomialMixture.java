@@ -4,10 +4,10 @@ import java.util.ArrayList;
 
 public class MultinomialMixture implements IMultinomial {
 
-	private Multinomial mix;
-	private ArrayList<Multinomial> multinomials;
+	private IMultinomial mix;
+	private ArrayList<IMultinomial> multinomials;
 	
-	public MultinomialMixture(ArrayList<Multinomial> multinomials, ArrayList<Double> weights) {
+	public MultinomialMixture(ArrayList<? extends IMultinomial> multinomials, ArrayList<Double> weights) {
 		assert multinomials.size()>0 : "need as least one Multinomial";
 		assert multinomials.size()==weights.size() : "multinomials has to be the same length as weights";
 		
@@ -15,8 +15,11 @@ public class MultinomialMixture implements IMultinomial {
 		for (Integer i=0; i<size; i++)
 			assert multinomials.get(i).size()==size : "all multinomials need to have the same size";
 		
-		this.mix = new Multinomial(weights);
-		this.multinomials = multinomials;
+		// Sample through O(1) alias tables rather than binary searches over the CDFs
+		this.mix = new AliasMultinomial(weights);
+		this.multinomials = new ArrayList<IMultinomial>(multinomials.size());
+		for (IMultinomial m: multinomials)
+			this.multinomials.add( m instanceof Multinomial ? ((Multinomial) m).toAlias() : m );
 	}
 
 	public Integer sampleOne() { 
@@ -6,7 +6,7 @@ public class PopularityProfile<O> {
 	@SuppressWarnings("unused")
 	private ArrayList<IObjectGenerator<O>> profile;
 	
-	public PopularityProfile(Multinomial m) {
+	public PopularityProfile(IMultinomial m) {
 		
 	}
 	
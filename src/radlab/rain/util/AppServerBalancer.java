@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Spreads requests across a list of web/app servers by sampling a few servers
+ * at random and picking the one with the fewest outstanding requests
+ * (power-of-d-choices, JSQ(d)). With d = 2 this keeps the load nearly as even
+ * as always joining the shortest queue, but each pick only reads two atomic
+ * counters instead of sorting the whole list under a lock.<br />
+ * <br />
+ * The server list is copy-on-write: a new list is built off to the side and
+ * published with a single volatile write, so pickers never block on an update
+ * and servers that survive the update keep their counters.
+ */
+public class AppServerBalancer 
+{
+	public static int DEFAULT_CHOICES = 2;
+	
+	private volatile AppServerStats[] _servers = new AppServerStats[0];
+	private volatile Map<String, AppServerStats> _serversByName = Collections.emptyMap();
+	private volatile int _choices = DEFAULT_CHOICES;
+	
+	/** Returns the number of servers sampled per pick. */
+	public int getChoices()
+	{ return this._choices; }
+	
+	/** 
+	 * Sets the number of servers sampled per pick. 1 is random assignment and
+	 * anything at least as large as the list is join-the-shortest-queue.
+	 */
+	public void setChoices( int val )
+	{ this._choices = Math.max( 1, val ); }
+	
+	/** Returns the current servers. The array must not be modified. */
+	public AppServerStats[] getServers()
+	{ return this._servers; }
+	
+	public int size()
+	{ return this._servers.length; }
+	
+	/** Returns the stats for the named server, or null if it isn't in the current list. */
+	public AppServerStats get( String appServer )
+	{ return this._serversByName.get( appServer ); }
+	
+	/**
+	 * Replaces the server list. Servers already in the list keep their stats
+	 * so in-flight requests retire against the same counters; blank names and
+	 * duplicates are dropped.
+	 */
+	public synchronized void setServers( String[] appServers )
+	{
+		Map<String, AppServerStats> current = this._serversByName;
+		HashMap<String, AppServerStats> byName = new HashMap<String, AppServerStats>();
+		AppServerStats[] servers = new AppServerStats[appServers.length];
+		int count = 0;
+		for( String name : appServers )
+		{
+			name = name.trim();
+			if( name.length() == 0 || byName.containsKey( name ) )
+				continue;
+			
+			AppServerStats stats = current.get( name );
+			if( stats == null )
+				stats = new AppServerStats( name, 0L );
+			byName.put( name, stats );
+			servers[count++] = stats;
+		}
+		
+		AppServerStats[] trimmed = new AppServerStats[count];
+		System.arraycopy( servers, 0, trimmed, 0, count );
+		// Publish the lookup table before the list so a picked server can always be found
+		this._serversByName = Collections.unmodifiableMap( byName );
+		this._servers = trimmed;
+	}
+	
+	/** Picks the less loaded of d randomly sampled servers, or null if there are none. */
+	public AppServerStats pick( Random random )
+	{
+		AppServerStats[] servers = this._servers;
+		int n = servers.length;
+		if( n == 0 )
+			return null;
+		if( n == 1 )
+			return servers[0];
+		
+		int choices = this._choices;
+		if( choices >= n )
+		{
+			// Join the shortest queue; start the scan at a random server so ties
+			// don't all land on the first one
+			int start = random.nextInt( n );
+			AppServerStats best = servers[start];
+			long bestOutstanding = best.getOutstandingRequests();
+			for( int i = 1; i < n && bestOutstanding > 0; i++ )
+			{
+				AppServerStats candidate = servers[(start + i) % n];
+				long outstanding = candidate.getOutstandingRequests();
+				if( outstanding < bestOutstanding )
+				{
+					best = candidate;
+					bestOutstanding = outstanding;
+				}
+			}
+			return best;
+		}
+		
+		AppServerStats best = servers[random.nextInt( n )];
+		long bestOutstanding = best.getOutstandingRequests();
+		for( int i = 1; i < choices; i++ )
+		{
+			AppServerStats candidate = servers[random.nextInt( n )];
+			long outstanding = candidate.getOutstandingRequests();
+			if( outstanding < bestOutstanding )
+			{
+				best = candidate;
+				bestOutstanding = outstanding;
+			}
+		}
+		return best;
+	}
+	
+	/** Returns the total number of requests issued to the current servers. */
+	public long getIssuedRequests()
+	{
+		long total = 0;
+		for( AppServerStats stats : this._servers )
+			total += stats.getIssuedRequests();
+		return total;
+	}
+	
+	/**
+	 * Returns the most requests issued to any one current server divided by
+	 * the mean, so 1.0 is a perfectly even spread.
+	 */
+	public double getImbalance()
+	{
+		AppServerStats[] servers = this._servers;
+		if( servers.length == 0 )
+			return 0.0;
+		
+		long total = 0;
+		long max = 0;
+		for( AppServerStats stats : servers )
+		{
+			long issued = stats.getIssuedRequests();
+			total += issued;
+			max = Math.max( max, issued );
+		}
+		if( total == 0 )
+			return 0.0;
+		return (double) max / ( (double) total / servers.length );
+	}
+}
@@ -31,13 +31,21 @@
 
 package radlab.rain.util;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /** 
- * Class stores the number of requests outstanding at a specific web/application server. 
+ * Class stores the number of requests outstanding at a specific web/application server.
+ * The counters are atomic so operations can issue and retire requests against a server
+ * without holding a track-wide lock.
  */
 public class AppServerStats implements Comparable<AppServerStats> 
 {
+	public static final String HOSTNAME_PORT_SEPARATOR	= ":";
+	
 	public String _appServer 			= "";
-	public long _outstandingRequests 	= 0;
+	private final AtomicLong _outstandingRequests 	= new AtomicLong();
+	private final AtomicLong _issuedRequests 		= new AtomicLong();
+	private final AtomicLong _maxOutstandingRequests = new AtomicLong();
 	
 	public AppServerStats()
 	{}
@@ -45,15 +53,57 @@ public class AppServerStats implements Comparable<AppServerStats>
 	public AppServerStats( String appServer, long outstandingRequests )
 	{
 		this._appServer = appServer;
-		this._outstandingRequests = outstandingRequests;
+		this._outstandingRequests.set( outstandingRequests );
+	}
+	
+	/** Counts a request sent to this server. */
+	public void requestIssue()
+	{
+		this._issuedRequests.incrementAndGet();
+		long outstanding = this._outstandingRequests.incrementAndGet();
+		// Track the high-water mark, only retrying while we're still the max
+		long max = this._maxOutstandingRequests.get();
+		while( outstanding > max && !this._maxOutstandingRequests.compareAndSet( max, outstanding ) )
+			max = this._maxOutstandingRequests.get();
+	}
+	
+	/** Counts a request to this server that has finished. */
+	public void requestRetire()
+	{
+		this._outstandingRequests.decrementAndGet();
+	}
+	
+	public long getOutstandingRequests()
+	{ return this._outstandingRequests.get(); }
+	
+	public long getIssuedRequests()
+	{ return this._issuedRequests.get(); }
+	
+	public long getMaxOutstandingRequests()
+	{ return this._maxOutstandingRequests.get(); }
+	
+	/** Returns the host part of a "host:port" server name. */
+	public String getHost()
+	{
+		int separator = this._appServer.lastIndexOf( HOSTNAME_PORT_SEPARATOR );
+		return separator < 0 ? this._appServer : this._appServer.substring( 0, separator );
+	}
+	
+	/** Returns the port part of a "host:port" server name, or defaultPort if there isn't one. */
+	public int getPort( int defaultPort )
+	{
+		int separator = this._appServer.lastIndexOf( HOSTNAME_PORT_SEPARATOR );
+		return separator < 0 ? defaultPort : Integer.parseInt( this._appServer.substring( separator + 1 ).trim() );
 	}
 
 	@Override
 	public int compareTo( AppServerStats rhs ) 
 	{
-		if( this._outstandingRequests == rhs._outstandingRequests )
+		long lhsOutstanding = this.getOutstandingRequests();
+		long rhsOutstanding = rhs.getOutstandingRequests();
+		if( lhsOutstanding == rhsOutstanding )
 			return 0;
-		else if( this._outstandingRequests < rhs._outstandingRequests )
+		else if( lhsOutstanding < rhsOutstanding )
 			return -1;
 		else return 1;
 	}
@@ -62,7 +112,7 @@ public class AppServerStats implements Comparable<AppServerStats>
 	public String toString()
 	{
 		StringBuffer buf = new StringBuffer();
-		buf.append( this._outstandingRequests ).append( " " ).append( this._appServer );
+		buf.append( this.getOutstandingRequests() ).append( " " ).append( this._appServer );
 		return buf.toString();
 	}
 }
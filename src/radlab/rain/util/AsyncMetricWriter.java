@@ -0,0 +1,440 @@
+package radlab.rain.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import radlab.rain.ResponseTimeStat;
+
+/**
+ * Decouples the snapshot thread from the metric sinks. Every stat written is
+ * copied into a bounded queue per downstream writer (fan-out: the "writers"
+ * array holds one metric writer config each), and each downstream writer is
+ * fed by its own thread, so a slow or stalled sink only ever backs up its
+ * own queue - write() never blocks and never throws.<br />
+ * <br />
+ * When a queue is full the overflowPolicy decides which stat is lost:
+ * dropNewest discards the stat being written, dropOldest discards the head
+ * of the queue, and sample keeps a uniform random sample of everything
+ * offered since the queue filled up (reservoir sampling over the backlog).
+ * Each policy drops exactly one stat per overflow, so for every writer
+ * offered = written + failed + dropped once the pipeline is closed. Those
+ * counters, the peak queue length and the time each downstream write took
+ * are reported in the track's results.
+ */
+public class AsyncMetricWriter extends MetricWriter
+{
+	public static String CFG_WRITERS_KEY				= "writers";
+	public static String CFG_QUEUE_SIZE_KEY			= "queueSize";
+	public static String CFG_OVERFLOW_POLICY_KEY		= "overflowPolicy";
+	public static String CFG_FLUSH_MSECS_KEY			= "flushMsecs";
+	public static String CFG_CLOSE_TIMEOUT_MSECS_KEY	= "closeTimeoutMsecs";
+	
+	/** What to do with a stat written while a writer's queue is full. */
+	public enum OverflowPolicy
+	{
+		/** Discard the stat being written. */
+		DropNewest,
+		/** Discard the oldest queued stat to make room. */
+		DropOldest,
+		/** Keep a uniform random sample of the stats offered while the queue is full. */
+		Sample;
+		
+		public static OverflowPolicy parse( String val ) throws JSONException
+		{
+			for( OverflowPolicy policy : OverflowPolicy.values() )
+			{
+				if( policy.name().equalsIgnoreCase( val ) )
+					return policy;
+			}
+			throw new JSONException( "Unknown metric writer overflow policy: " + val + " (expected dropNewest, dropOldest or sample)" );
+		}
+	}
+	
+	private int _queueSize = 10000;
+	private OverflowPolicy _policy = OverflowPolicy.DropOldest;
+	private long _flushMsecs = 1000;
+	private long _closeTimeoutMsecs = 10000;
+	private boolean _closed = false;
+	private List<Lane> _lanes = new ArrayList<Lane>();
+	
+	public AsyncMetricWriter( JSONObject config ) throws Exception
+	{
+		this( config, createWriters( config ) );
+	}
+	
+	/**
+	 * Creates a pipeline in front of writers created elsewhere; the writers
+	 * in the config (if any) are ignored.
+	 */
+	public AsyncMetricWriter( JSONObject config, List<MetricWriter> writers ) throws Exception
+	{
+		super( config );
+		if( config.has( CFG_QUEUE_SIZE_KEY ) )
+			this._queueSize = Math.max( 1, config.getInt( CFG_QUEUE_SIZE_KEY ) );
+		if( config.has( CFG_OVERFLOW_POLICY_KEY ) )
+			this._policy = OverflowPolicy.parse( config.getString( CFG_OVERFLOW_POLICY_KEY ) );
+		if( config.has( CFG_FLUSH_MSECS_KEY ) )
+			this._flushMsecs = Math.max( 1, config.getLong( CFG_FLUSH_MSECS_KEY ) );
+		if( config.has( CFG_CLOSE_TIMEOUT_MSECS_KEY ) )
+			this._closeTimeoutMsecs = config.getLong( CFG_CLOSE_TIMEOUT_MSECS_KEY );
+		
+		for( MetricWriter writer : writers )
+			this._lanes.add( new Lane( writer, this._lanes.size() ) );
+		if( this._lanes.size() == 0 )
+			throw new JSONException( "No writers provided in async MetricWriter configuration" );
+		
+		for( Lane lane : this._lanes )
+			lane.start();
+	}
+	
+	private static List<MetricWriter> createWriters( JSONObject config ) throws Exception
+	{
+		List<MetricWriter> writers = new ArrayList<MetricWriter>();
+		JSONArray writerConfigs = config.getJSONArray( CFG_WRITERS_KEY );
+		for( int i = 0; i < writerConfigs.length(); i++ )
+		{
+			JSONObject writerConfig = writerConfigs.getJSONObject( i );
+			MetricWriter writer = MetricWriterFactory.createMetricWriter( writerConfig.getString( MetricWriter.CFG_TYPE_KEY ), writerConfig );
+			if( writer == null )
+				throw new JSONException( "Unknown metric writer type: " + writerConfig.getString( MetricWriter.CFG_TYPE_KEY ) );
+			writers.add( writer );
+		}
+		return writers;
+	}
+	
+	public OverflowPolicy getOverflowPolicy() { return this._policy; }
+	public int getQueueSize() { return this._queueSize; }
+	
+	/** Returns the number of downstream writers. */
+	public int getWriterCount() { return this._lanes.size(); }
+	
+	/** Returns the index-th downstream writer. */
+	public MetricWriter getWriter( int index ) { return this._lanes.get( index )._writer; }
+	
+	public long getStatsOffered( int index ) { return this._lanes.get( index ).getOffered(); }
+	public long getStatsWritten( int index ) { return this._lanes.get( index ).getWritten(); }
+	public long getStatsDropped( int index ) { return this._lanes.get( index ).getDropped(); }
+	public long getStatsQueued( int index ) { return this._lanes.get( index ).getQueued(); }
+	
+	/** Returns the stats dropped across all the downstream writers. */
+	public long getStatsDropped()
+	{
+		long dropped = 0;
+		for( Lane lane : this._lanes )
+			dropped += lane.getDropped();
+		return dropped;
+	}
+	
+	private static void copy( ResponseTimeStat from, ResponseTimeStat to )
+	{
+		to._timestamp = from._timestamp;
+		to._responseTime = from._responseTime;
+		to._totalResponseTime = from._totalResponseTime;
+		to._numObservations = from._numObservations;
+		to._operationName = from._operationName;
+		to._operationRequest = from._operationRequest;
+		to._generatedDuring = from._generatedDuring;
+	}
+	
+	/**
+	 * Queues a copy of the stat for every downstream writer (the caller is
+	 * free to reuse the stat once this returns). Returns false if any of
+	 * the queues had to drop a stat to take it.
+	 */
+	@Override
+	public boolean write( ResponseTimeStat stat ) throws Exception
+	{
+		boolean queuedAll = true;
+		for( Lane lane : this._lanes )
+			queuedAll &= lane.offer( stat );
+		return queuedAll;
+	}
+	
+	/** Nothing to do: each downstream writer is flushed by its own thread whenever its queue runs dry. */
+	@Override
+	public void flush() throws Exception
+	{}
+	
+	/**
+	 * Lets every downstream writer drain its queue and close, waiting at
+	 * most closeTimeoutMsecs overall. Stats still queued after that are
+	 * counted as dropped and the stuck writer's thread is abandoned.
+	 */
+	@Override
+	public void close() throws Exception
+	{
+		if( this._closed )
+			return;
+		this._closed = true;
+		
+		for( Lane lane : this._lanes )
+			lane.finish();
+		long deadline = System.currentTimeMillis() + this._closeTimeoutMsecs;
+		for( Lane lane : this._lanes )
+		{
+			long wait = deadline - System.currentTimeMillis();
+			if( wait > 0 )
+				lane.join( wait );
+			if( lane.isAlive() )
+			{
+				System.out.println( "[ASYNCMETRICWRITER] Writer " + lane._index + " (" + lane._writer.getDetails() + ") did not finish within " + this._closeTimeoutMsecs + " msecs, dropping " + lane.getQueued() + " queued stats." );
+				lane.abandon();
+			}
+		}
+	}
+	
+	@Override
+	public JSONObject getStatistics() throws JSONException
+	{
+		JSONObject stats = new JSONObject();
+		stats.put( "type", MetricWriterFactory.ASYNC_WRITER_TYPE );
+		stats.put( "overflowPolicy", this._policy.name() );
+		stats.put( "queueSize", this._queueSize );
+		long offered = 0;
+		long dropped = 0;
+		JSONArray writers = new JSONArray();
+		for( Lane lane : this._lanes )
+		{
+			JSONObject writer = lane.getStatistics();
+			offered += writer.getLong( "statsOffered" );
+			dropped += writer.getLong( "statsDropped" );
+			writers.put( writer );
+		}
+		stats.put( "statsOffered", offered );
+		stats.put( "statsDropped", dropped );
+		stats.put( "writers", writers );
+		return stats;
+	}
+	
+	@Override
+	public String getDetails()
+	{
+		StringBuffer buf = new StringBuffer();
+		buf.append( "ASYNC [" ).append( this._policy.name() ).append( ", queue: " ).append( this._queueSize ).append( "]" );
+		for( Lane lane : this._lanes )
+			buf.append( " " ).append( lane._writer.getDetails() );
+		return buf.toString();
+	}
+	
+	/**
+	 * One downstream writer, the ring of stats queued for it and the thread
+	 * that feeds it. The ring's slots are allocated up front and stats are
+	 * copied in and out, so queueing doesn't allocate. Counters are guarded
+	 * by the lane's lock; the write latencies are only touched by the lane's
+	 * own thread until it has finished.
+	 */
+	private class Lane extends Thread
+	{
+		private MetricWriter _writer;
+		private int _index;
+		private ResponseTimeStat[] _ring;
+		private int _head = 0;
+		private int _size = 0;
+		private boolean _finishing = false;
+		private boolean _abandoned = false;
+		/** Seeded so a run drops the same stats given the same timing. */
+		private Random _random;
+		/** Stats offered to a full queue since it last had room (for sampling). */
+		private long _overflowSeen = 0;
+		
+		private long _offered = 0;
+		private long _written = 0;
+		private long _failed = 0;
+		private long _dropped = 0;
+		private int _peakQueued = 0;
+		private long _totalWriteNanos = 0;
+		private LatencyHistogram _writeLatency = new LatencyHistogram();
+		
+		private Lane( MetricWriter writer, int index )
+		{
+			this._writer = writer;
+			this._index = index;
+			this._random = new Random( index + 1 );
+			this._ring = new ResponseTimeStat[AsyncMetricWriter.this._queueSize];
+			for( int i = 0; i < this._ring.length; i++ )
+				this._ring[i] = new ResponseTimeStat();
+			this.setName( "Metric-Writer-" + index );
+			this.setDaemon( true );
+		}
+		
+		private synchronized long getOffered() { return this._offered; }
+		private synchronized long getWritten() { return this._written; }
+		private synchronized long getDropped() { return this._dropped; }
+		private synchronized long getQueued() { return this._size; }
+		
+		private synchronized boolean offer( ResponseTimeStat stat )
+		{
+			this._offered++;
+			if( this._abandoned )
+			{
+				this._dropped++;
+				return false;
+			}
+			
+			if( this._size < this._ring.length )
+			{
+				copy( stat, this._ring[( this._head + this._size ) % this._ring.length] );
+				this._size++;
+				this._overflowSeen = 0;
+				if( this._size > this._peakQueued )
+					this._peakQueued = this._size;
+				if( this._size == 1 )
+					this.notifyAll();
+				return true;
+			}
+			
+			// Full: exactly one stat gets dropped, the policy decides which
+			this._dropped++;
+			switch( AsyncMetricWriter.this._policy )
+			{
+				case DropOldest:
+				{
+					copy( stat, this._ring[this._head] );
+					this._head = ( this._head + 1 ) % this._ring.length;
+					return true;
+				}
+				case Sample:
+				{
+					// Each of the stats queued or offered since the queue filled up stays with equal probability
+					this._overflowSeen++;
+					long slot = (long) ( this._random.nextDouble() * ( this._ring.length + this._overflowSeen ) );
+					if( slot < this._ring.length )
+					{
+						copy( stat, this._ring[( this._head + (int) slot ) % this._ring.length] );
+						return true;
+					}
+					return false;
+				}
+				default:
+					return false;
+			}
+		}
+		
+		private synchronized void finish()
+		{
+			this._finishing = true;
+			this.notifyAll();
+		}
+		
+		private synchronized void abandon()
+		{
+			this._abandoned = true;
+			this._dropped += this._size;
+			this._size = 0;
+			this.notifyAll();
+			this.interrupt();
+		}
+		
+		/**
+		 * Waits for the next queued stat and copies it into next. Returns
+		 * false once the lane is finishing and the queue is empty, or it
+		 * has been abandoned. Flushes the writer whenever the queue is
+		 * empty, at most every flushMsecs while it stays empty.
+		 */
+		private boolean take( ResponseTimeStat next )
+		{
+			boolean flushed = false;
+			while( true )
+			{
+				synchronized( this )
+				{
+					if( this._abandoned )
+						return false;
+					if( this._size > 0 )
+					{
+						copy( this._ring[this._head], next );
+						this._head = ( this._head + 1 ) % this._ring.length;
+						this._size--;
+						return true;
+					}
+					if( this._finishing )
+						return false;
+					if( flushed )
+					{
+						try
+						{
+							this.wait( AsyncMetricWriter.this._flushMsecs );
+						}
+						catch( InterruptedException ie )
+						{
+							return false;
+						}
+						flushed = false;
+						continue;
+					}
+				}
+				
+				try
+				{
+					this._writer.flush();
+				}
+				catch( Exception e )
+				{}
+				flushed = true;
+			}
+		}
+		
+		public void run()
+		{
+			ResponseTimeStat next = new ResponseTimeStat();
+			while( this.take( next ) )
+			{
+				long start = System.nanoTime();
+				boolean written = false;
+				try
+				{
+					written = this._writer.write( next );
+				}
+				catch( Exception e )
+				{}
+				long nanos = System.nanoTime() - start;
+				this._writeLatency.record( nanos );
+				synchronized( this )
+				{
+					this._totalWriteNanos += nanos;
+					if( written )
+						this._written++;
+					else this._failed++;
+				}
+			}
+			
+			try
+			{
+				this._writer.close();
+			}
+			catch( Exception e )
+			{}
+		}
+		
+		private synchronized JSONObject getStatistics() throws JSONException
+		{
+			JSONObject stats = new JSONObject();
+			stats.put( "writer", this._index );
+			stats.put( "details", this._writer.getDetails() );
+			stats.put( "statsOffered", this._offered );
+			stats.put( "statsWritten", this._written );
+			stats.put( "statsFailed", this._failed );
+			stats.put( "statsDropped", this._dropped );
+			stats.put( "statsQueued", this._size );
+			stats.put( "peakQueued", this._peakQueued );
+			long writes = this._written + this._failed;
+			stats.put( "writeLatencyAvgMsecs", writes == 0 ? 0.0 : ( this._totalWriteNanos / (double) writes ) / 1000000.0 );
+			// The histogram belongs to the lane's thread; only read it once that's done
+			if( !this.isAlive() )
+			{
+				stats.put( "writeLatencyP99Msecs", this._writeLatency.getPercentileNanos( 99 ) / 1000000.0 );
+				stats.put( "writeLatencyMaxMsecs", this._writeLatency.getMaxNanos() / 1000000.0 );
+			}
+			stats.put( "abandoned", this._abandoned );
+			JSONObject writerStats = this._writer.getStatistics();
+			if( writerStats != null )
+				stats.put( "writerStatistics", writerStats );
+			return stats;
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package radlab.rain.util;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import radlab.rain.ResponseTimeStat;
+
+/**
+ * A small reference receiver for the frames BinaryMetricWriter sends: it
+ * accepts connections on a port, decodes every frame and queues the stats
+ * for the caller (tests, or main() which prints them). A connection that
+ * sends a malformed frame is dropped.
+ */
+public class BinaryMetricReceiver implements Runnable 
+{
+	/** Frames bigger than this are taken as garbage. */
+	public static int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+	
+	private ServerSocket _server = null;
+	private Thread _acceptThread = null;
+	private volatile boolean _done = false;
+	private List<Socket> _connections = new LinkedList<Socket>();
+	private LinkedBlockingQueue<ResponseTimeStat> _received = new LinkedBlockingQueue<ResponseTimeStat>();
+	
+	private volatile long _accepted = 0;
+	private volatile long _frames = 0;
+	private volatile long _badFrames = 0;
+	
+	/** Listens on the given port, or on any free port if 0 (see getPort()). */
+	public BinaryMetricReceiver( int port ) throws IOException
+	{
+		this._server = new ServerSocket( port );
+	}
+	
+	public int getPort() { return this._server.getLocalPort(); }
+	public long getConnectionsAccepted() { return this._accepted; }
+	public long getFrames() { return this._frames; }
+	public long getBadFrames() { return this._badFrames; }
+	
+	public void start()
+	{
+		this._acceptThread = new Thread( this );
+		this._acceptThread.setName( "Binary-Metric-Receiver" );
+		this._acceptThread.setDaemon( true );
+		this._acceptThread.start();
+	}
+	
+	/** Stops accepting and closes every open connection. */
+	public void stop()
+	{
+		this._done = true;
+		try
+		{
+			this._server.close();
+		}
+		catch( IOException e )
+		{}
+		this.dropConnections();
+	}
+	
+	/** Closes the open connections (but keeps accepting new ones), e.g. to test reconnects. */
+	public void dropConnections()
+	{
+		synchronized( this._connections )
+		{
+			for( Socket socket : this._connections )
+			{
+				try
+				{
+					socket.close();
+				}
+				catch( IOException e )
+				{}
+			}
+			this._connections.clear();
+		}
+	}
+	
+	/** Returns the next stat received, waiting up to the given time; null if none came. */
+	public ResponseTimeStat poll( long timeoutMsecs ) throws InterruptedException
+	{
+		return this._received.poll( timeoutMsecs, TimeUnit.MILLISECONDS );
+	}
+	
+	/** Waits up to the given time for the given number of stats and returns those received. */
+	public List<ResponseTimeStat> take( int count, long timeoutMsecs ) throws InterruptedException
+	{
+		List<ResponseTimeStat> stats = new LinkedList<ResponseTimeStat>();
+		long deadline = System.currentTimeMillis() + timeoutMsecs;
+		while( stats.size() < count )
+		{
+			long left = deadline - System.currentTimeMillis();
+			if( left <= 0 )
+				break;
+			ResponseTimeStat stat = this.poll( left );
+			if( stat != null )
+				stats.add( stat );
+		}
+		return stats;
+	}
+	
+	public void run()
+	{
+		while( !this._done )
+		{
+			try
+			{
+				final Socket socket = this._server.accept();
+				this._accepted++;
+				synchronized( this._connections )
+				{
+					this._connections.add( socket );
+				}
+				Thread reader = new Thread( new Runnable()
+				{
+					public void run()
+					{
+						read( socket );
+					}
+				} );
+				reader.setName( "Binary-Metric-Receiver-" + this._accepted );
+				reader.setDaemon( true );
+				reader.start();
+			}
+			catch( IOException e )
+			{
+				if( !this._done )
+					System.out.println( "[BINARY METRIC RECEIVER] Error accepting a connection. Reason: " + e.toString() );
+			}
+		}
+	}
+	
+	private void read( Socket socket )
+	{
+		try
+		{
+			DataInputStream in = new DataInputStream( socket.getInputStream() );
+			while( true )
+			{
+				int length = in.readInt();
+				if( length < BinaryMetricWriter.HEADER_BYTES - 4 || length > MAX_FRAME_BYTES )
+					throw new IOException( "Bad metric frame length: " + length );
+				byte[] body = new byte[length];
+				in.readFully( body );
+				List<ResponseTimeStat> stats = BinaryMetricWriter.decode( ByteBuffer.wrap( body ) );
+				this._frames++;
+				this._received.addAll( stats );
+			}
+		}
+		catch( EOFException e )
+		{
+			// The writer closed the connection
+		}
+		catch( IOException e )
+		{
+			if( !this._done && !socket.isClosed() )
+			{
+				this._badFrames++;
+				System.out.println( "[BINARY METRIC RECEIVER] Dropping connection. Reason: " + e.toString() );
+			}
+		}
+		finally
+		{
+			try
+			{
+				socket.close();
+			}
+			catch( IOException e )
+			{}
+			synchronized( this._connections )
+			{
+				this._connections.remove( socket );
+			}
+		}
+	}
+	
+	/** Prints the stats received on the given port. */
+	public static void main( String[] args ) throws Exception
+	{
+		if( args.length < 1 )
+		{
+			System.out.println( "Usage: BinaryMetricReceiver <port>" );
+			return;
+		}
+		BinaryMetricReceiver receiver = new BinaryMetricReceiver( Integer.parseInt( args[0] ) );
+		receiver.start();
+		System.out.println( "[BINARY METRIC RECEIVER] Listening on port " + receiver.getPort() );
+		while( true )
+		{
+			ResponseTimeStat stat = receiver.poll( 1000 );
+			if( stat != null )
+				System.out.println( stat );
+		}
+	}
+}
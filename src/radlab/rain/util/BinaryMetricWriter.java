@@ -0,0 +1,406 @@
+package radlab.rain.util;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import radlab.rain.ResponseTimeStat;
+
+/**
+ * Streams response time stats to a receiver (see BinaryMetricReceiver) as
+ * length-prefixed binary frames over a single non-blocking NIO channel.
+ * Stats are encoded into the current frame as they're written; the frame is
+ * sent once it holds batchBytes or is batchMsecs old (checked on every write
+ * and flush), so there is one send per batch rather than per operation.<br />
+ * <br />
+ * Frame layout (big endian): int length of the rest of the frame, short
+ * magic (0x524D, "RM"), byte version, int number of stats, then per stat
+ * the long timestamp, response time, total response time and number of
+ * observations, followed by the operation name, request and interval name
+ * as short-length-prefixed UTF-8 strings.<br />
+ * <br />
+ * Frames the receiver can't take yet wait in a backlog of at most
+ * maxBacklogBytes; beyond that the oldest frames are dropped so the
+ * snapshot thread never blocks. If the connection fails we reconnect after
+ * reconnectMsecs, keeping the backlog. Sent, dropped and backlogged stats
+ * are reported in the track's results.
+ */
+public class BinaryMetricWriter extends MetricWriter 
+{
+	public static String CFG_BATCH_BYTES_KEY		= "batchBytes";
+	public static String CFG_BATCH_MSECS_KEY		= "batchMsecs";
+	public static String CFG_MAX_BACKLOG_BYTES_KEY	= "maxBacklogBytes";
+	public static String CFG_RECONNECT_MSECS_KEY	= "reconnectMsecs";
+	public static String CFG_CLOSE_TIMEOUT_MSECS_KEY= "closeTimeoutMsecs";
+	
+	public static final short MAGIC				= 0x524D;
+	public static final byte VERSION			= 1;
+	/** Length, magic, version and count. */
+	public static final int HEADER_BYTES		= 4 + 2 + 1 + 4;
+	/** Longest string written; longer ones are cut. */
+	public static final int MAX_STRING_BYTES	= 4096;
+	
+	protected String _ipAddress = "";
+	protected int _port = -1;
+	private int _batchBytes = 64 * 1024;
+	private long _batchMsecs = 1000;
+	private long _maxBacklogBytes = 4 * 1024 * 1024;
+	private long _reconnectMsecs = 1000;
+	private long _closeTimeoutMsecs = 5000;
+	
+	private SocketChannel _channel = null;
+	private long _nextConnect = 0;
+	private boolean _closed = false;
+	
+	/** The frame being filled. */
+	private ByteBuffer _frame = null;
+	private int _frameStats = 0;
+	private long _frameStarted = 0;
+	
+	/** Finished frames waiting to be sent, the first one possibly partly sent. */
+	private LinkedList<Frame> _backlog = new LinkedList<Frame>();
+	private long _backlogBytes = 0;
+	
+	private long _statsWritten = 0;
+	private long _statsSent = 0;
+	private long _statsDropped = 0;
+	private long _framesSent = 0;
+	private long _bytesSent = 0;
+	private long _peakBacklogBytes = 0;
+	private long _connects = 0;
+	private long _connectionFailures = 0;
+	
+	private static class Frame
+	{
+		private ByteBuffer _buffer;
+		private int _stats;
+		
+		private Frame( ByteBuffer buffer, int stats )
+		{
+			this._buffer = buffer;
+			this._stats = stats;
+		}
+	}
+	
+	public BinaryMetricWriter( JSONObject config ) throws Exception 
+	{
+		super( config );
+		this._ipAddress = config.getString( MetricWriter.CFG_IP_ADDRESS_KEY );
+		this._port = config.getInt( MetricWriter.CFG_PORT_KEY );
+		if( config.has( CFG_BATCH_BYTES_KEY ) )
+			this._batchBytes = Math.max( 1024, config.getInt( CFG_BATCH_BYTES_KEY ) );
+		if( config.has( CFG_BATCH_MSECS_KEY ) )
+			this._batchMsecs = config.getLong( CFG_BATCH_MSECS_KEY );
+		if( config.has( CFG_MAX_BACKLOG_BYTES_KEY ) )
+			this._maxBacklogBytes = config.getLong( CFG_MAX_BACKLOG_BYTES_KEY );
+		if( config.has( CFG_RECONNECT_MSECS_KEY ) )
+			this._reconnectMsecs = config.getLong( CFG_RECONNECT_MSECS_KEY );
+		if( config.has( CFG_CLOSE_TIMEOUT_MSECS_KEY ) )
+			this._closeTimeoutMsecs = config.getLong( CFG_CLOSE_TIMEOUT_MSECS_KEY );
+	}
+	
+	public long getStatsWritten() { return this._statsWritten; }
+	public long getStatsSent() { return this._statsSent; }
+	public long getStatsDropped() { return this._statsDropped; }
+	public long getBacklogBytes() { return this._backlogBytes; }
+	
+	/** Returns the number of stats waiting to be sent, in the backlog or the current frame. */
+	public long getStatsBacklogged()
+	{
+		long stats = this._frameStats;
+		for( Frame frame : this._backlog )
+			stats += frame._stats;
+		return stats;
+	}
+	
+	private static void putString( ByteBuffer buffer, String val )
+	{
+		byte[] bytes = null;
+		try
+		{
+			bytes = ( val == null ? "" : val ).getBytes( "UTF-8" );
+		}
+		catch( UnsupportedEncodingException e )
+		{
+			bytes = new byte[0];
+		}
+		int length = Math.min( bytes.length, MAX_STRING_BYTES );
+		buffer.putShort( (short) length );
+		buffer.put( bytes, 0, length );
+	}
+	
+	private static String getString( ByteBuffer buffer ) throws IOException
+	{
+		int length = buffer.getShort() & 0xFFFF;
+		byte[] bytes = new byte[length];
+		buffer.get( bytes );
+		return new String( bytes, "UTF-8" );
+	}
+	
+	/** Returns an upper bound on the encoded size of a stat. */
+	public static int maxEncodedSize( ResponseTimeStat stat )
+	{
+		int strings = 0;
+		strings += stat._operationName == null ? 0 : Math.min( stat._operationName.length() * 3, MAX_STRING_BYTES );
+		strings += stat._operationRequest == null ? 0 : Math.min( stat._operationRequest.length() * 3, MAX_STRING_BYTES );
+		strings += stat._generatedDuring == null ? 0 : Math.min( stat._generatedDuring.length() * 3, MAX_STRING_BYTES );
+		return 4 * 8 + 3 * 2 + strings;
+	}
+	
+	/** Appends a stat to a frame. */
+	public static void encode( ResponseTimeStat stat, ByteBuffer buffer )
+	{
+		buffer.putLong( stat._timestamp );
+		buffer.putLong( stat._responseTime );
+		buffer.putLong( stat._totalResponseTime );
+		buffer.putLong( stat._numObservations );
+		putString( buffer, stat._operationName );
+		putString( buffer, stat._operationRequest );
+		putString( buffer, stat._generatedDuring );
+	}
+	
+	/**
+	 * Decodes the body of a frame (everything after the length) into stats.
+	 * Throws an IOException if the frame isn't well formed.
+	 */
+	public static List<ResponseTimeStat> decode( ByteBuffer body ) throws IOException
+	{
+		try
+		{
+			if( body.getShort() != MAGIC )
+				throw new IOException( "Not a metric frame" );
+			byte version = body.get();
+			if( version != VERSION )
+				throw new IOException( "Unsupported metric frame version: " + version );
+			int count = body.getInt();
+			List<ResponseTimeStat> stats = new LinkedList<ResponseTimeStat>();
+			for( int i = 0; i < count; i++ )
+			{
+				ResponseTimeStat stat = new ResponseTimeStat();
+				stat._timestamp = body.getLong();
+				stat._responseTime = body.getLong();
+				stat._totalResponseTime = body.getLong();
+				stat._numObservations = body.getLong();
+				stat._operationName = getString( body );
+				stat._operationRequest = getString( body );
+				stat._generatedDuring = getString( body );
+				stats.add( stat );
+			}
+			if( body.hasRemaining() )
+				throw new IOException( "Metric frame has " + body.remaining() + " bytes left over" );
+			return stats;
+		}
+		catch( BufferUnderflowException e )
+		{
+			throw new IOException( "Truncated metric frame" );
+		}
+	}
+	
+	@Override
+	public boolean write( ResponseTimeStat stat ) throws Exception 
+	{
+		if( this._closed )
+			return false;
+		
+		long now = System.currentTimeMillis();
+		int size = maxEncodedSize( stat );
+		if( this._frame != null && this._frame.remaining() < size )
+			this.finishFrame();
+		if( this._frame == null )
+		{
+			this._frame = ByteBuffer.allocate( Math.max( this._batchBytes, HEADER_BYTES + size ) );
+			this._frame.position( HEADER_BYTES );
+			this._frameStats = 0;
+			this._frameStarted = now;
+		}
+		encode( stat, this._frame );
+		this._frameStats++;
+		this._statsWritten++;
+		
+		if( this._frame.position() >= this._batchBytes || now - this._frameStarted >= this._batchMsecs )
+			this.finishFrame();
+		this.send( now );
+		return true;
+	}
+	
+	/** Sends the current frame if it's old enough, and as much of the backlog as the channel takes. */
+	@Override
+	public void flush() throws Exception
+	{
+		long now = System.currentTimeMillis();
+		if( this._frame != null && now - this._frameStarted >= this._batchMsecs )
+			this.finishFrame();
+		this.send( now );
+	}
+	
+	private void finishFrame()
+	{
+		if( this._frame == null || this._frameStats == 0 )
+			return;
+		ByteBuffer frame = this._frame;
+		int length = frame.position();
+		frame.putInt( 0, length - 4 );
+		frame.putShort( 4, MAGIC );
+		frame.put( 6, VERSION );
+		frame.putInt( 7, this._frameStats );
+		frame.flip();
+		this._backlog.add( new Frame( frame, this._frameStats ) );
+		this._backlogBytes += length;
+		this._frame = null;
+		this._frameStats = 0;
+		
+		// Drop the oldest frames (but not one that's partly sent) to stay within the backlog limit
+		while( this._backlogBytes > this._maxBacklogBytes && this._backlog.size() > 1 )
+		{
+			int index = this._backlog.getFirst()._buffer.position() > 0 ? 1 : 0;
+			Frame dropped = this._backlog.remove( index );
+			this._backlogBytes -= dropped._buffer.remaining();
+			this._statsDropped += dropped._stats;
+		}
+		this._peakBacklogBytes = Math.max( this._peakBacklogBytes, this._backlogBytes );
+	}
+	
+	/** Returns true once connected; never blocks. */
+	private boolean connect( long now )
+	{
+		try
+		{
+			if( this._channel == null )
+			{
+				if( now < this._nextConnect )
+					return false;
+				this._channel = SocketChannel.open();
+				this._channel.configureBlocking( false );
+				this._channel.connect( new InetSocketAddress( this._ipAddress, this._port ) );
+			}
+			if( this._channel.isConnectionPending() && !this._channel.finishConnect() )
+				return false;
+			if( this._channel.isConnected() && this._nextConnect >= 0 )
+			{
+				this._connects++;
+				this._nextConnect = -1;
+			}
+			return this._channel.isConnected();
+		}
+		catch( IOException e )
+		{
+			this.disconnect( now, e );
+			return false;
+		}
+	}
+	
+	private void disconnect( long now, IOException reason )
+	{
+		this._connectionFailures++;
+		if( this._connectionFailures == 1 || this._connectionFailures % 100 == 0 )
+			System.out.println( "[BINARY METRIC WRITER] Connection to " + this._ipAddress + ":" + this._port + " failed (" + this._connectionFailures + " so far), reconnecting in " + this._reconnectMsecs + " msecs. Reason: " + reason.toString() );
+		try
+		{
+			if( this._channel != null )
+				this._channel.close();
+		}
+		catch( IOException e )
+		{}
+		this._channel = null;
+		this._nextConnect = now + this._reconnectMsecs;
+		// A partly sent frame can't be resumed on a new connection
+		if( !this._backlog.isEmpty() && this._backlog.getFirst()._buffer.position() > 0 )
+		{
+			Frame partial = this._backlog.removeFirst();
+			this._backlogBytes -= partial._buffer.remaining();
+			this._statsDropped += partial._stats;
+		}
+	}
+	
+	private void send( long now )
+	{
+		if( this._backlog.isEmpty() || !this.connect( now ) )
+			return;
+		try
+		{
+			while( !this._backlog.isEmpty() )
+			{
+				Frame frame = this._backlog.getFirst();
+				int written = this._channel.write( frame._buffer );
+				this._bytesSent += written;
+				this._backlogBytes -= written;
+				if( frame._buffer.hasRemaining() )
+					return;
+				this._backlog.removeFirst();
+				this._framesSent++;
+				this._statsSent += frame._stats;
+			}
+		}
+		catch( IOException e )
+		{
+			this.disconnect( now, e );
+		}
+	}
+	
+	/**
+	 * Sends what's left, waiting up to closeTimeoutMsecs for the receiver,
+	 * and closes the channel. Whatever couldn't be sent counts as dropped.
+	 */
+	@Override
+	public void close() throws Exception 
+	{
+		if( this._closed )
+			return;
+		this.finishFrame();
+		long deadline = System.currentTimeMillis() + this._closeTimeoutMsecs;
+		while( !this._backlog.isEmpty() && System.currentTimeMillis() < deadline )
+		{
+			this.send( System.currentTimeMillis() );
+			if( !this._backlog.isEmpty() )
+				Thread.sleep( 10 );
+		}
+		for( Frame frame : this._backlog )
+			this._statsDropped += frame._stats;
+		this._backlog.clear();
+		this._backlogBytes = 0;
+		this._closed = true;
+		if( this._channel != null )
+		{
+			try
+			{
+				this._channel.close();
+			}
+			catch( IOException e )
+			{}
+			this._channel = null;
+		}
+	}
+	
+	@Override
+	public JSONObject getStatistics() throws JSONException
+	{
+		JSONObject stats = new JSONObject();
+		stats.put( "type", MetricWriterFactory.SOCKET_BINARY_WRITER_TYPE );
+		stats.put( "statsWritten", this._statsWritten );
+		stats.put( "statsSent", this._statsSent );
+		stats.put( "statsDropped", this._statsDropped );
+		stats.put( "statsBacklogged", this.getStatsBacklogged() );
+		stats.put( "framesSent", this._framesSent );
+		stats.put( "bytesSent", this._bytesSent );
+		stats.put( "peakBacklogBytes", this._peakBacklogBytes );
+		stats.put( "connects", this._connects );
+		stats.put( "connectionFailures", this._connectionFailures );
+		return stats;
+	}
+	
+	@Override
+	public String getDetails() 
+	{
+		StringBuffer buf = new StringBuffer();
+		buf.append( "SOCKET [binary writer]" ).append( this._ipAddress ).append( ":" ).append( this._port );
+		return buf.toString();
+	}
+}
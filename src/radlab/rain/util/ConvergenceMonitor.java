@@ -0,0 +1,489 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import cern.jet.stat.Probability;
+
+/**
+ * Decides online whether a track's steady state has run long enough, using
+ * the method of batch means. The steady state is cut into fixed-length
+ * batches; the throughput and the chosen response time percentiles of each
+ * batch are treated as (roughly) independent observations of the long-run
+ * value, which gives a Student-t confidence interval for each metric. The
+ * track has converged once every interval's half-width is within the target
+ * fraction of its mean.<br />
+ * <br />
+ * Results are fed in by the scoreboard's worker thread as they're processed
+ * and the benchmark thread polls check(). A batch is only closed (and its
+ * percentiles computed) once it ended a few seconds ago, so results still
+ * sitting in the scoreboard's drop-off queue aren't missed. Each open batch
+ * keeps a bounded reservoir of response times; closed batches keep only
+ * their summary numbers.<br />
+ * <br />
+ * With truncateWarmup set, MSER is run over the batch means at every check
+ * and the leading batches it flags as warm-up are left out of the
+ * intervals, so a too-short ramp up doesn't hold off convergence.
+ */
+public class ConvergenceMonitor 
+{
+	public static String CFG_RELATIVE_PRECISION_KEY		= "relativePrecision";
+	public static String CFG_CONFIDENCE_KEY				= "confidence";
+	public static String CFG_BATCH_SECS_KEY				= "batchSecs";
+	public static String CFG_MIN_BATCHES_KEY			= "minBatches";
+	public static String CFG_MAX_DURATION_KEY			= "maxDuration";
+	public static String CFG_PERCENTILES_KEY			= "percentiles";
+	public static String CFG_BATCH_SAMPLES_KEY			= "batchSamples";
+	public static String CFG_TRUNCATE_WARMUP_KEY		= "truncateWarmup";
+	
+	public static final double DEFAULT_RELATIVE_PRECISION	= 0.05;
+	public static final double DEFAULT_CONFIDENCE			= 0.95;
+	public static final long DEFAULT_BATCH_SECS				= 30;
+	public static final int DEFAULT_MIN_BATCHES				= 10;
+	public static final int DEFAULT_BATCH_SAMPLES			= 10000;
+	public static final int[] DEFAULT_PERCENTILES			= { 99 };
+	
+	/** How long after a batch ends before it's closed (the scoreboard drains its queue every second). */
+	public static long SETTLE_MSECS						= 3000;
+	
+	public static String THROUGHPUT_METRIC				= "throughput";
+	
+	private String _name = "";
+	private double _relativePrecision = DEFAULT_RELATIVE_PRECISION;
+	private double _confidence = DEFAULT_CONFIDENCE;
+	private long _batchMsecs = DEFAULT_BATCH_SECS * 1000;
+	private int _minBatches = DEFAULT_MIN_BATCHES;
+	private int _batchSamples = DEFAULT_BATCH_SAMPLES;
+	private int[] _percentiles = DEFAULT_PERCENTILES;
+	private boolean _truncateWarmup = false;
+	
+	private long _startTime = -1;
+	private ArrayList<Batch> _batches = new ArrayList<Batch>();
+	/** Batches [0, _closed) are closed. */
+	private int _closed = 0;
+	/** Results that arrived after their batch was closed. */
+	private long _lateResults = 0;
+	private Random _random = null;
+	private Estimate[] _estimates = new Estimate[0];
+	private boolean _converged = false;
+	/** Leading batches left out as warm-up. */
+	private int _warmupBatches = 0;
+	/** Results counted in the closed batches past the warm-up. */
+	private long _successes = 0;
+	private long _failures = 0;
+	
+	/**
+	 * Creates a monitor from the scenario's "convergence" settings; any
+	 * setting left out takes its default.
+	 */
+	public ConvergenceMonitor( String name, JSONObject config ) throws JSONException
+	{
+		this._name = name;
+		this._relativePrecision = config.optDouble( CFG_RELATIVE_PRECISION_KEY, DEFAULT_RELATIVE_PRECISION );
+		this._confidence = config.optDouble( CFG_CONFIDENCE_KEY, DEFAULT_CONFIDENCE );
+		this._batchMsecs = config.optLong( CFG_BATCH_SECS_KEY, DEFAULT_BATCH_SECS ) * 1000;
+		this._minBatches = config.optInt( CFG_MIN_BATCHES_KEY, DEFAULT_MIN_BATCHES );
+		this._batchSamples = config.optInt( CFG_BATCH_SAMPLES_KEY, DEFAULT_BATCH_SAMPLES );
+		this._truncateWarmup = config.optBoolean( CFG_TRUNCATE_WARMUP_KEY, false );
+		
+		JSONArray percentiles = config.optJSONArray( CFG_PERCENTILES_KEY );
+		if( percentiles != null )
+		{
+			this._percentiles = new int[percentiles.length()];
+			for( int i = 0; i < percentiles.length(); i++ )
+				this._percentiles[i] = percentiles.getInt( i );
+		}
+		this.validate();
+	}
+	
+	public ConvergenceMonitor( String name, double relativePrecision, double confidence, long batchSecs, int minBatches, int[] percentiles )
+	{
+		this._name = name;
+		this._relativePrecision = relativePrecision;
+		this._confidence = confidence;
+		this._batchMsecs = batchSecs * 1000;
+		this._minBatches = minBatches;
+		this._percentiles = percentiles;
+		this.validate();
+	}
+	
+	private void validate()
+	{
+		if( this._relativePrecision <= 0.0 )
+			throw new IllegalArgumentException( CFG_RELATIVE_PRECISION_KEY + " must be positive: " + this._relativePrecision );
+		if( this._confidence <= 0.0 || this._confidence >= 1.0 )
+			throw new IllegalArgumentException( CFG_CONFIDENCE_KEY + " must be between 0 and 1: " + this._confidence );
+		if( this._batchMsecs <= 0 )
+			throw new IllegalArgumentException( CFG_BATCH_SECS_KEY + " must be positive: " + this._batchMsecs/1000 );
+		// A confidence interval needs at least two batches
+		if( this._minBatches < 2 )
+			this._minBatches = 2;
+		if( this._batchSamples < 1 )
+			this._batchSamples = 1;
+		for( int pct : this._percentiles )
+		{
+			if( pct <= 0 || pct >= 100 )
+				throw new IllegalArgumentException( CFG_PERCENTILES_KEY + " must be between 0 and 100: " + pct );
+		}
+	}
+	
+	public String getName() { return this._name; }
+	public long getStartTime() { return this._startTime; }
+	public long getBatchMsecs() { return this._batchMsecs; }
+	public int getMinBatches() { return this._minBatches; }
+	public double getRelativePrecision() { return this._relativePrecision; }
+	
+	public boolean getTruncateWarmup() { return this._truncateWarmup; }
+	public void setTruncateWarmup( boolean val ) { this._truncateWarmup = val; }
+	
+	/** Returns the earliest time at which check() could report convergence. */
+	public long getEarliestDecision()
+	{ return this._startTime + this._minBatches * this._batchMsecs + SETTLE_MSECS; }
+	
+	public synchronized boolean isConverged() { return this._converged; }
+	public synchronized int getBatchCount() { return this._closed; }
+	public synchronized Estimate[] getEstimates() { return this._estimates; }
+	public synchronized int getWarmupBatches() { return this._warmupBatches; }
+	public synchronized long getSuccesses() { return this._successes; }
+	public synchronized long getFailures() { return this._failures; }
+	
+	/** Returns the throughput (ops/sec) of a closed batch. */
+	public synchronized double getBatchThroughput( int index )
+	{ return this._batches.get( index )._successes / ( this._batchMsecs / 1000.0 ); }
+	
+	/** Returns a closed batch's response time percentiles (secs), or null if it had no response times. */
+	public synchronized double[] getBatchPercentiles( int index )
+	{ return this._batches.get( index )._percentileSecs; }
+	
+	public synchronized long getBatchSuccesses( int index ) { return this._batches.get( index )._successes; }
+	public synchronized long getBatchFailures( int index ) { return this._batches.get( index )._failures; }
+	
+	/** Sets the start of the steady state; batches are counted from here. */
+	public synchronized void start( long startTime )
+	{
+		this._startTime = startTime;
+		this._batches.clear();
+		this._closed = 0;
+		this._lateResults = 0;
+		this._estimates = new Estimate[0];
+		this._converged = false;
+		this._warmupBatches = 0;
+		this._successes = 0;
+		this._failures = 0;
+		this._random = RandomStreams.newStream( "convergence", this._name );
+	}
+	
+	/**
+	 * Records a steady-state result.
+	 * 
+	 * @param timeFinished      When the operation finished (msecs).
+	 * @param responseTime      Its response time (nanosecs), or a negative value if it shouldn't be sampled.
+	 * @param failed            Whether the operation failed.
+	 */
+	public synchronized void record( long timeFinished, long responseTime, boolean failed )
+	{
+		if( this._startTime < 0 || timeFinished < this._startTime )
+			return;
+		
+		int index = (int) ( ( timeFinished - this._startTime ) / this._batchMsecs );
+		if( index < this._closed )
+		{
+			this._lateResults++;
+			return;
+		}
+		
+		Batch batch = this.getBatch( index );
+		if( failed )
+		{
+			batch._failures++;
+			return;
+		}
+		batch._successes++;
+		if( responseTime >= 0 )
+			batch.sample( responseTime, this._batchSamples, this._random );
+	}
+	
+	private Batch getBatch( int index )
+	{
+		while( this._batches.size() <= index )
+			this._batches.add( new Batch() );
+		return this._batches.get( index );
+	}
+	
+	/**
+	 * Closes the batches that have settled by the given time and recomputes
+	 * the confidence intervals.
+	 * 
+	 * @return  True if there are enough batches and every metric meets the target precision.
+	 */
+	public synchronized boolean check( long now )
+	{
+		if( this._startTime < 0 )
+			return false;
+		
+		// Batches with no results at all still count (as zero throughput)
+		while( this._startTime + ( this._closed + 1 ) * this._batchMsecs + SETTLE_MSECS <= now )
+		{
+			this.getBatch( this._closed ).close( this._percentiles );
+			this._closed++;
+		}
+		
+		// One series per metric; batches without response time samples say nothing about the percentiles
+		int metrics = 1 + this._percentiles.length;
+		double[][] values = new double[metrics][this._closed];
+		int[][] batchIndex = new int[metrics][this._closed];
+		int[] counts = new int[metrics];
+		double batchSecs = this._batchMsecs / 1000.0;
+		for( int i = 0; i < this._closed; i++ )
+		{
+			Batch batch = this._batches.get( i );
+			for( int j = 0; j < metrics; j++ )
+			{
+				if( j > 0 && batch._percentileSecs == null )
+					continue;
+				values[j][counts[j]] = j == 0 ? batch._successes / batchSecs : batch._percentileSecs[j - 1];
+				batchIndex[j][counts[j]++] = i;
+			}
+		}
+		
+		// Drop the warm-up the most affected metric shows, from all of them
+		this._warmupBatches = 0;
+		if( this._truncateWarmup )
+		{
+			for( int j = 0; j < metrics; j++ )
+			{
+				int d = Mser.truncateBatches( values[j], counts[j] );
+				if( d > 0 )
+					this._warmupBatches = Math.max( this._warmupBatches, batchIndex[j][d] );
+			}
+		}
+		
+		this._successes = 0;
+		this._failures = 0;
+		for( int i = this._warmupBatches; i < this._closed; i++ )
+		{
+			this._successes += this._batches.get( i )._successes;
+			this._failures += this._batches.get( i )._failures;
+		}
+		
+		Estimate[] estimates = new Estimate[metrics];
+		for( int j = 0; j < metrics; j++ )
+		{
+			int skip = 0;
+			while( skip < counts[j] && batchIndex[j][skip] < this._warmupBatches )
+				skip++;
+			double[] kept = Arrays.copyOfRange( values[j], skip, counts[j] );
+			String name = j == 0 ? THROUGHPUT_METRIC : "p" + this._percentiles[j - 1];
+			estimates[j] = new Estimate( name, kept, kept.length, this._confidence );
+		}
+		this._estimates = estimates;
+		
+		boolean converged = this._closed >= this._minBatches;
+		for( Estimate estimate : estimates )
+		{
+			if( estimate._count < this._minBatches || !( estimate.getRelativeHalfWidth() <= this._relativePrecision ) )
+				converged = false;
+		}
+		this._converged = converged;
+		return converged;
+	}
+	
+	/** Returns a one-line summary of the current intervals. */
+	public synchronized String getSummary()
+	{
+		StringBuffer buf = new StringBuffer();
+		buf.append( this._closed ).append( " batches" );
+		if( this._warmupBatches > 0 )
+			buf.append( " (" ).append( this._warmupBatches ).append( " warm-up)" );
+		for( Estimate estimate : this._estimates )
+			buf.append( ", " ).append( estimate );
+		return buf.toString();
+	}
+	
+	public synchronized JSONObject getStatistics() throws JSONException
+	{
+		JSONObject stats = new JSONObject();
+		stats.put( "track", this._name );
+		stats.put( "converged", this._converged );
+		stats.put( "batches", this._closed );
+		stats.put( "batchSecs", this._batchMsecs / 1000.0 );
+		stats.put( "minBatches", this._minBatches );
+		stats.put( "confidence", this._confidence );
+		stats.put( "targetRelativePrecision", this._relativePrecision );
+		stats.put( "lateResults", this._lateResults );
+		stats.put( "truncateWarmup", this._truncateWarmup );
+		stats.put( "warmupBatches", this._warmupBatches );
+		stats.put( "successes", this._successes );
+		stats.put( "failures", this._failures );
+		JSONArray metrics = new JSONArray();
+		for( Estimate estimate : this._estimates )
+			metrics.put( estimate.getStatistics() );
+		stats.put( "metrics", metrics );
+		return stats;
+	}
+	
+	/** The counts and response time reservoir of one batch. */
+	private static class Batch
+	{
+		private long _successes = 0;
+		private long _failures = 0;
+		private long[] _samples = null;
+		private int _sampleCount = 0;
+		private long _samplesSeen = 0;
+		private double[] _percentileSecs = null;
+		
+		/** Reservoir sampling, so every response time in the batch is equally likely to be kept. */
+		private void sample( long responseTime, int maxSamples, Random random )
+		{
+			this._samplesSeen++;
+			if( this._samples == null )
+				this._samples = new long[Math.min( maxSamples, 1024 )];
+			
+			if( this._sampleCount < maxSamples )
+			{
+				if( this._sampleCount == this._samples.length )
+					this._samples = Arrays.copyOf( this._samples, Math.min( maxSamples, this._samples.length * 2 ) );
+				this._samples[this._sampleCount++] = responseTime;
+			}
+			else
+			{
+				long slot = (long) ( random.nextDouble() * this._samplesSeen );
+				if( slot < maxSamples )
+					this._samples[(int) slot] = responseTime;
+			}
+		}
+		
+		private void close( int[] percentiles )
+		{
+			if( this._sampleCount > 0 )
+			{
+				Arrays.sort( this._samples, 0, this._sampleCount );
+				this._percentileSecs = new double[percentiles.length];
+				for( int i = 0; i < percentiles.length; i++ )
+				{
+					// Same rank rule as PoissonSamplingStrategy.getNthPercentile
+					int index = (int) Math.round( (double) ( percentiles[i] * ( this._sampleCount + 1 ) ) / 100.0 );
+					if( index >= this._sampleCount )
+						index = this._sampleCount - 1;
+					this._percentileSecs[i] = this._samples[index] / 1000000000.0;
+				}
+			}
+			this._samples = null;
+		}
+	}
+	
+	/** A batch-means confidence interval for one metric. */
+	public static class Estimate
+	{
+		private String _metric;
+		private int _count;
+		private double _mean = 0.0;
+		private double _halfWidth = Double.POSITIVE_INFINITY;
+		private double _lag1 = 0.0;
+		
+		public Estimate( String metric, double[] values, int count, double confidence )
+		{
+			this._metric = metric;
+			this._count = count;
+			if( count == 0 )
+				return;
+			
+			double sum = 0.0;
+			for( int i = 0; i < count; i++ )
+				sum += values[i];
+			this._mean = sum / count;
+			if( count < 2 )
+				return;
+			
+			double sqSum = 0.0;
+			double lagSum = 0.0;
+			for( int i = 0; i < count; i++ )
+			{
+				double dev = values[i] - this._mean;
+				sqSum += dev * dev;
+				if( i > 0 )
+					lagSum += dev * ( values[i - 1] - this._mean );
+			}
+			double variance = sqSum / ( count - 1 );
+			double t = Probability.studentTInverse( 1.0 - confidence, count - 1 );
+			this._halfWidth = t * Math.sqrt( variance / count );
+			// Strongly correlated batch means make the interval too narrow; report it so it can be checked
+			if( sqSum > 0.0 )
+				this._lag1 = lagSum / sqSum;
+		}
+		
+		public String getMetric() { return this._metric; }
+		public int getCount() { return this._count; }
+		public double getMean() { return this._mean; }
+		public double getHalfWidth() { return this._halfWidth; }
+		public double getLag1Autocorrelation() { return this._lag1; }
+		
+		/** Returns the half-width as a fraction of the mean (infinite while it can't be computed). */
+		public double getRelativeHalfWidth()
+		{
+			if( this._mean == 0.0 )
+				return Double.POSITIVE_INFINITY;
+			return this._halfWidth / Math.abs( this._mean );
+		}
+		
+		public JSONObject getStatistics() throws JSONException
+		{
+			JSONObject stats = new JSONObject();
+			stats.put( "metric", this._metric );
+			stats.put( "batches", this._count );
+			stats.put( "mean", this._mean );
+			// JSON can't hold infinity; leave the interval out until there is one
+			if( !Double.isInfinite( this.getRelativeHalfWidth() ) )
+			{
+				stats.put( "halfWidth", this._halfWidth );
+				stats.put( "relativeHalfWidth", this.getRelativeHalfWidth() );
+			}
+			stats.put( "lag1Autocorrelation", this._lag1 );
+			return stats;
+		}
+		
+		public String toString()
+		{
+			String units = this._metric.equals( THROUGHPUT_METRIC ) ? " ops/sec" : " secs";
+			String precision = Double.isInfinite( this.getRelativeHalfWidth() ) ? "n/a" : String.format( "%.1f%%", this.getRelativeHalfWidth() * 100.0 );
+			return String.format( "%s %.4f%s +/- %s", this._metric, this._mean, units, precision );
+		}
+	}
+}
@@ -31,6 +31,7 @@
 
 package radlab.rain.util;
 
+import java.util.Map;
 import java.util.TreeMap;
 import java.util.Random;
 
@@ -38,19 +39,21 @@ public class EmpiricalCDF
 {
 	// <cdf summary> = [<pctilemark,value>,...,<pctilemark,value>]
 	private TreeMap<Double,Double> _cdfSummary = null;
+	// The cdf summary unpacked into sorted parallel arrays so we can binary
+	// search it without boxing or copying the key set on every draw
+	private double[] _pctileMarks = null;
+	private double[] _pctileValues = null;
 	private double[] _rawCdf = null;
 	private Random _random;
 	
 	public EmpiricalCDF( double[] rawCdf )
 	{
-		this._rawCdf = rawCdf;
-		this._random = new Random();
+		this( rawCdf, new Random() );
 	}
 	
 	public EmpiricalCDF( TreeMap<Double,Double> cdfSummary )
 	{
-		this._cdfSummary = cdfSummary;
-		this._random = new Random();
+		this( cdfSummary, new Random() );
 	}
 	
 	public EmpiricalCDF( double[] rawCdf, Random rng )
@@ -63,6 +66,31 @@ public class EmpiricalCDF
 	{
 		this._cdfSummary = cdfSummary;
 		this._random = rng;
+		this.rebuild( cdfSummary );
+	}
+	
+	/**
+	 * Re-reads the cdf summary, e.g., after the percentile marks/values in the
+	 * map have been changed.
+	 */
+	public void rebuild( TreeMap<Double,Double> cdfSummary )
+	{
+		this._cdfSummary = cdfSummary;
+		int size = cdfSummary.size();
+		if( this._pctileMarks == null || this._pctileMarks.length != size )
+		{
+			this._pctileMarks = new double[size];
+			this._pctileValues = new double[size];
+		}
+		
+		// TreeMap iterates in ascending key order so the marks come out sorted
+		int i = 0;
+		for( Map.Entry<Double,Double> entry : cdfSummary.entrySet() )
+		{
+			this._pctileMarks[i] = entry.getKey();
+			this._pctileValues[i] = entry.getValue();
+			i++;
+		}
 	}
 	
 	public double nextDouble()
@@ -71,36 +99,35 @@ public class EmpiricalCDF
 		// Use either the rawcdf or cdf summary
 		if( this._cdfSummary != null )
 		{
-			// Look at where this random number puts us on the cdf (percentile wise)
-			// then interpolate between percentiles if necessary
-			Object[] keys = this._cdfSummary.keySet().toArray();
-			Double prevPctileMark = (Double) keys[0];
+			double[] marks = this._pctileMarks;
+			double[] values = this._pctileValues;
 			
 			// Return the value at the first percentile mark
-			if( rndValU < ((Double) keys[0]).doubleValue() )
-				return this._cdfSummary.get( (Double) keys[0] );
+			if( rndValU < marks[0] )
+				return values[0];
 			
-			// Start from the second percentile marker
-			for( int i = 1; i < keys.length; i++ )
+			// Look at where this random number puts us on the cdf (percentile wise),
+			// i.e., find the first mark that's strictly greater than rndValU
+			int lo = 1;
+			int hi = marks.length;
+			while( lo < hi )
 			{
-				// Save the current percentile mark
-				Double currentPctileMark = (Double) keys[i];
-				// Get the previous and current percentile values
-				Double prevPctileVal = this._cdfSummary.get( prevPctileMark );
-				Double currentPctileVal = this._cdfSummary.get( currentPctileMark );
-				
-				// Are we somewhere between the previous percentile mark and the current one?
-				if( rndValU < currentPctileMark )
-				{
-					// Interpolate between percentile marks and their associated values
-					return (prevPctileVal  + (currentPctileVal - prevPctileVal )/(currentPctileMark - prevPctileMark)*(rndValU - prevPctileMark));
-				}
-				// Save where we were before the next iteration kicks in
-				prevPctileMark = (Double) keys[i];
+				int mid = ( lo + hi ) >>> 1;
+				if( rndValU < marks[mid] )
+					hi = mid;
+				else lo = mid + 1;
 			}
 			
 			// If we get here then return the upper bound of the cdf
-			return this._cdfSummary.get( keys[keys.length-1] );
+			if( lo == marks.length )
+				return values[marks.length-1];
+			
+			// Interpolate between percentile marks and their associated values
+			double prevPctileMark = marks[lo-1];
+			double currentPctileMark = marks[lo];
+			double prevPctileVal = values[lo-1];
+			double currentPctileVal = values[lo];
+			return (prevPctileVal  + (currentPctileVal - prevPctileVal )/(currentPctileMark - prevPctileMark)*(rndValU - prevPctileMark));
 		}
 		else if( this._rawCdf != null )
 		{
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain.util;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size histogram of response times with log-linear buckets: each
+ * power of two (in microseconds) is split into 16 equal sub-buckets, so any
+ * percentile read back is within about 6% of the true value, while the
+ * histogram itself stays a few KB no matter how many values it holds.
+ * Values up to about 12 days fit, longer ones land in the last bucket. The
+ * maximum is kept exactly.
+ */
+public class LatencyHistogram 
+{
+	public static final int SUB_BUCKET_BITS	= 4;
+	public static final int SUB_BUCKETS		= 1 << SUB_BUCKET_BITS;
+	public static final int MAX_EXPONENT	= 40;
+	public static final int BUCKETS			= ( MAX_EXPONENT - SUB_BUCKET_BITS + 2 ) * SUB_BUCKETS;
+	
+	private long[] _counts = new long[BUCKETS];
+	private long _count = 0;
+	private long _maxNanos = 0;
+	
+	/** Returns the bucket holding the given number of microseconds. */
+	public static int index( long micros )
+	{
+		if( micros < SUB_BUCKETS )
+			return (int) Math.max( micros, 0 );
+		int exponent = 63 - Long.numberOfLeadingZeros( micros );
+		if( exponent > MAX_EXPONENT )
+			return BUCKETS - 1;
+		int mantissa = (int) ( ( micros >>> ( exponent - SUB_BUCKET_BITS ) ) & ( SUB_BUCKETS - 1 ) );
+		return ( exponent - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS + mantissa;
+	}
+	
+	/** Returns the smallest number of microseconds in the given bucket. */
+	public static long lowerBound( int index )
+	{
+		if( index < SUB_BUCKETS )
+			return index;
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long mantissa = index % SUB_BUCKETS;
+		return ( SUB_BUCKETS + mantissa ) << ( exponent - SUB_BUCKET_BITS );
+	}
+	
+	/** Returns the width of the given bucket, in microseconds. */
+	public static long width( int index )
+	{
+		if( index < SUB_BUCKETS )
+			return 1;
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		return 1L << ( exponent - SUB_BUCKET_BITS );
+	}
+	
+	public void record( long nanos )
+	{
+		this._counts[index( nanos / 1000 )]++;
+		this._count++;
+		if( nanos > this._maxNanos )
+			this._maxNanos = nanos;
+	}
+	
+	public void merge( LatencyHistogram rhs )
+	{
+		for( int i = 0; i < BUCKETS; i++ )
+			this._counts[i] += rhs._counts[i];
+		this._count += rhs._count;
+		this._maxNanos = Math.max( this._maxNanos, rhs._maxNanos );
+	}
+	
+	public void reset()
+	{
+		Arrays.fill( this._counts, 0 );
+		this._count = 0;
+		this._maxNanos = 0;
+	}
+	
+	public long getCount() { return this._count; }
+	public long getMaxNanos() { return this._maxNanos; }
+	
+	/**
+	 * Returns the given percentile in nanoseconds: the middle of the bucket
+	 * holding it, but never more than the maximum. Returns 0 when empty.
+	 */
+	public long getPercentileNanos( double pct )
+	{
+		if( this._count == 0 )
+			return 0;
+		long rank = Math.max( 1, (long) Math.ceil( ( pct / 100.0 ) * this._count ) );
+		long seen = 0;
+		for( int i = 0; i < BUCKETS; i++ )
+		{
+			seen += this._counts[i];
+			if( seen >= rank )
+				return Math.min( ( lowerBound( i ) * 1000 ) + ( width( i ) * 1000 ) / 2, this._maxNanos );
+		}
+		return this._maxNanos;
+	}
+}
@@ -21,4 +21,14 @@ public abstract class MetricWriter
 	public abstract String getDetails();
 	public abstract boolean write( ResponseTimeStat stat ) throws Exception;
 	public abstract void close() throws Exception;
+	
+	/** Called when the snapshot thread has nothing more to write for now; writers that batch can send what they have. */
+	public void flush() throws Exception
+	{}
+	
+	/** Returns counters worth reporting with the results (e.g. stats sent and dropped), or null if there are none. */
+	public JSONObject getStatistics() throws JSONException
+	{
+		return null;
+	}
 }
@@ -7,6 +7,8 @@ public class MetricWriterFactory
 	public final static String FILE_WRITER_TYPE = "file";
 	public final static String SOCKET_WRITER_TYPE = "socket";
 	public final static String SOCKET_OBJECT_WRITER_TYPE = "socketObj";
+	public final static String SOCKET_BINARY_WRITER_TYPE = "socketBinary";
+	public final static String ASYNC_WRITER_TYPE = "async";
 	//public final static String DATABASE_WRITER_TYPE = "database";
 	
 	private MetricWriterFactory()
@@ -20,6 +22,10 @@ public class MetricWriterFactory
 			return new SocketMetricWriter( config );
 		else if( writerType.equalsIgnoreCase( SOCKET_OBJECT_WRITER_TYPE ) )
 			return new SocketMetricObjectWriter( config );
+		else if( writerType.equalsIgnoreCase( SOCKET_BINARY_WRITER_TYPE ) )
+			return new BinaryMetricWriter( config );
+		else if( writerType.equalsIgnoreCase( ASYNC_WRITER_TYPE ) )
+			return new AsyncMetricWriter( config );
 		else return null;
 	}
 }
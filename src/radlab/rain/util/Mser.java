@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain.util;
+
+/**
+ * The MSER (Marginal Standard Error Rule) warm-up truncation heuristic
+ * (White, 1997). Given an output series it picks the number of leading
+ * observations d to drop so that the standard error of the mean of what's
+ * left, sum( (x_i - mean_d)^2 ) / (n - d)^2, is smallest. MSER-5 applies the
+ * rule to the means of consecutive batches of 5 observations, which smooths
+ * out the noise in per-second series. As usual the search is limited to the
+ * first half of the series: a minimum any later than that means the run was
+ * too short to tell.
+ */
+public class Mser 
+{
+	public static final int MSER_5 = 5;
+	
+	/**
+	 * Returns the number of leading observations to drop from the first n
+	 * values of the series, a multiple of the batch size. Trailing values
+	 * that don't fill a batch are ignored.
+	 */
+	public static int truncate( double[] series, int n, int batchSize )
+	{
+		int m = n / batchSize;
+		double[] means = new double[m];
+		for( int j = 0; j < m; j++ )
+		{
+			double sum = 0.0;
+			for( int i = j * batchSize; i < ( j + 1 ) * batchSize; i++ )
+				sum += series[i];
+			means[j] = sum / batchSize;
+		}
+		return truncateBatches( means, m ) * batchSize;
+	}
+	
+	/**
+	 * Returns the number of leading batches to drop from the first m batch
+	 * means (MSER-1 over the means).
+	 */
+	public static int truncateBatches( double[] means, int m )
+	{
+		if( m < 2 )
+			return 0;
+		
+		// Shift by the overall mean so the running sums don't lose precision
+		double shift = 0.0;
+		for( int j = 0; j < m; j++ )
+			shift += means[j];
+		shift /= m;
+		
+		// Walk back from the end so each candidate d sees the suffix [d, m)
+		double[] stat = new double[m];
+		double sum = 0.0;
+		double sumSq = 0.0;
+		for( int d = m - 1; d >= 0; d-- )
+		{
+			double x = means[d] - shift;
+			sum += x;
+			sumSq += x * x;
+			double k = m - d;
+			stat[d] = Math.max( 0.0, sumSq - sum * sum / k ) / ( k * k );
+		}
+		
+		int best = 0;
+		for( int d = 1; d <= m / 2; d++ )
+		{
+			if( stat[d] < stat[best] )
+				best = d;
+		}
+		return best;
+	}
+}
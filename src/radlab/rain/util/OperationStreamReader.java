@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads an operation stream recorded by <code>OperationStreamWriter</code>,
+ * one record at a time, so arbitrarily long recordings can be replayed
+ * without loading them into memory.
+ */
+public class OperationStreamReader 
+{
+	private DataInputStream _in = null;
+	
+	private String _trackName = "";
+	private String _generatorClassName = "";
+	private long _userId = -1;
+	private long _startTime = -1;
+	
+	// Current record
+	private int _operationIndex = -1;
+	private long _offsetMicros = 0;
+	private boolean _async = false;
+	private byte[] _params = new byte[256];
+	private int _paramLength = 0;
+	private boolean _complete = false;
+	
+	public OperationStreamReader( File file ) throws IOException
+	{
+		this._in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), 64 * 1024 ) );
+		
+		int magic = this._in.readInt();
+		if( magic != OperationStreamWriter.MAGIC )
+		{
+			this._in.close();
+			throw new IOException( "Not an operation stream: " + file );
+		}
+		short version = this._in.readShort();
+		if( version != OperationStreamWriter.VERSION )
+		{
+			this._in.close();
+			throw new IOException( "Unsupported operation stream version " + version + ": " + file );
+		}
+		this._trackName = this._in.readUTF();
+		this._generatorClassName = this._in.readUTF();
+		this._userId = this._in.readLong();
+		this._startTime = this._in.readLong();
+	}
+	
+	public String getTrackName() { return this._trackName; }
+	public String getGeneratorClassName() { return this._generatorClassName; }
+	public long getUserId() { return this._userId; }
+	public long getStartTime() { return this._startTime; }
+	
+	public int getOperationIndex() { return this._operationIndex; }
+	/** Intended start of the current record, in microseconds since the recorded run started. */
+	public long getOffsetMicros() { return this._offsetMicros; }
+	public boolean isAsync() { return this._async; }
+	/** True once the end-of-stream marker has been read (i.e. the recording wasn't truncated). */
+	public boolean isComplete() { return this._complete; }
+	
+	/** Returns the parameters of the current record. */
+	public DataInput getParameters()
+	{
+		return new DataInputStream( new ByteArrayInputStream( this._params, 0, this._paramLength ) );
+	}
+	
+	/**
+	 * Advances to the next record.
+	 * 
+	 * @return  False at the end of the stream.
+	 */
+	public boolean next() throws IOException
+	{
+		if( this._in == null )
+			return false;
+		
+		try
+		{
+			long index = readVarLong( this._in );
+			if( index == 0 )
+			{
+				this._complete = true;
+				return false;
+			}
+			this._operationIndex = (int) ( index - 2 );
+			this._offsetMicros += readVarLong( this._in );
+			this._async = ( this._in.readByte() & OperationStreamWriter.FLAG_ASYNC ) != 0;
+			
+			this._paramLength = (int) readVarLong( this._in );
+			if( this._paramLength > this._params.length )
+				this._params = new byte[Math.max( this._paramLength, this._params.length * 2 )];
+			this._in.readFully( this._params, 0, this._paramLength );
+			return true;
+		}
+		catch( EOFException eof )
+		{
+			// Recording was cut short (e.g. the run was killed); replay what we have
+			return false;
+		}
+	}
+	
+	public void close() throws IOException
+	{
+		if( this._in != null )
+		{
+			this._in.close();
+			this._in = null;
+		}
+	}
+	
+	public static long readVarLong( DataInput in ) throws IOException
+	{
+		long value = 0;
+		int shift = 0;
+		while( true )
+		{
+			int b = in.readByte();
+			value |= (long) ( b & 0x7F ) << shift;
+			if( ( b & 0x80 ) == 0 )
+				return value;
+			shift += 7;
+			if( shift > 63 )
+				throw new IOException( "Malformed varint in operation stream" );
+		}
+	}
+}
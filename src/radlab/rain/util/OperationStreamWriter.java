@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes one user's operation stream to a compact binary file so that it can
+ * be replayed later by <code>ReplayLoadGeneration</code>.<br />
+ * <br />
+ * File layout (all multi-byte values are big-endian, "varint" values are
+ * unsigned LEB128):
+ * <pre>
+ * header : int magic, short version, UTF track name, UTF generator class, long user id, long start time (ms)
+ * record : varint operation index + 2 (0 marks the end of the stream)
+ *          varint microseconds since the previous record's intended start
+ *          byte flags (bit 0: asynchronous)
+ *          varint parameter length, parameter bytes
+ * </pre>
+ * Offsets are deltas in microseconds, so a typical storage operation (small
+ * index, sub-second gap, short key) takes well under 20 bytes.<br />
+ * <br />
+ * A writer belongs to one load generation thread and is not thread-safe.
+ */
+public class OperationStreamWriter 
+{
+	public static final int MAGIC			= 0x5241494E; // "RAIN"
+	public static final short VERSION		= 1;
+	public static final int FLAG_ASYNC		= 0x01;
+	public static final String FILE_SUFFIX	= ".ops";
+	
+	private DataOutputStream _out = null;
+	private ByteArrayOutputStream _paramBuffer = new ByteArrayOutputStream( 256 );
+	private DataOutputStream _params = new DataOutputStream( this._paramBuffer );
+	private long _lastOffsetMicros = 0;
+	private long _records = 0;
+	private long _bytes = 0;
+	
+	/**
+	 * Returns the file a user's stream is recorded to in the given directory.
+	 */
+	public static File getStreamFile( File directory, String threadName )
+	{
+		return new File( directory, threadName + FILE_SUFFIX );
+	}
+	
+	public OperationStreamWriter( File file, String trackName, String generatorClassName, long userId, long startTime ) throws IOException
+	{
+		File parent = file.getAbsoluteFile().getParentFile();
+		if( parent != null && !parent.exists() )
+			parent.mkdirs();
+		
+		this._out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ), 64 * 1024 ) );
+		this._out.writeInt( MAGIC );
+		this._out.writeShort( VERSION );
+		this._out.writeUTF( trackName );
+		this._out.writeUTF( generatorClassName );
+		this._out.writeLong( userId );
+		this._out.writeLong( startTime );
+	}
+	
+	public long getRecordCount() { return this._records; }
+	
+	/**
+	 * Starts a new record and returns the buffer its parameters should be
+	 * written to.
+	 */
+	public DataOutput startRecord()
+	{
+		this._paramBuffer.reset();
+		return this._params;
+	}
+	
+	/**
+	 * Finishes the record started by the last call to startRecord().
+	 * 
+	 * @param operationIndex    The operation index (>= -1).
+	 * @param offsetMicros      Intended start, in microseconds since the run started.
+	 * @param async             Whether the operation was run asynchronously.
+	 */
+	public void endRecord( int operationIndex, long offsetMicros, boolean async ) throws IOException
+	{
+		// Offsets are monotonic per user; clamp in case the clock reading was out of order
+		long delta = offsetMicros - this._lastOffsetMicros;
+		if( delta < 0 )
+			delta = 0;
+		this._lastOffsetMicros += delta;
+		
+		writeVarLong( this._out, (long) operationIndex + 2 );
+		writeVarLong( this._out, delta );
+		this._out.writeByte( async ? FLAG_ASYNC : 0 );
+		writeVarLong( this._out, this._paramBuffer.size() );
+		this._paramBuffer.writeTo( this._out );
+		this._records++;
+	}
+	
+	public void close() throws IOException
+	{
+		if( this._out == null )
+			return;
+		
+		// End-of-stream marker so readers can tell a complete recording from a truncated one
+		writeVarLong( this._out, 0 );
+		this._out.close();
+		this._bytes = this._out.size();
+		this._out = null;
+	}
+	
+	public long getFileSize() { return this._bytes; }
+	
+	public static void writeVarLong( DataOutput out, long value ) throws IOException
+	{
+		while( ( value & ~0x7FL ) != 0 )
+		{
+			out.writeByte( (int) ( ( value & 0x7F ) | 0x80 ) );
+			value >>>= 7;
+		}
+		out.writeByte( (int) value );
+	}
+}
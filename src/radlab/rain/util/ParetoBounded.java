@@ -39,13 +39,15 @@ public class ParetoBounded
 	private double _lowerBound = 0.0;
 	private double _upperBound = 0.0;
 	private Random _random;
+	// The parts of the inverse cdf that don't depend on the uniform variate,
+	// computed once so that a sample costs a single pow()
+	private double _upperPow = 0.0;
+	private double _lowerPow = 0.0;
+	private double _denominator = 0.0;
 	
 	public ParetoBounded( double alpha, double L, double H )
 	{
-		this._alpha = alpha;
-		this._lowerBound = L;
-		this._upperBound = H;
-		this._random = new Random();
+		this( alpha, L, H, new Random() );
 	}
 
 	public ParetoBounded( double alpha, double L, double H, Random rng )
@@ -54,15 +56,27 @@ public class ParetoBounded
 		this._lowerBound = L;
 		this._upperBound = H;
 		this._random = rng;
+		
+		this._upperPow = Math.pow( this._upperBound, this._alpha );
+		this._lowerPow = Math.pow( this._lowerBound, this._alpha );
+		this._denominator = this._upperPow * this._lowerPow;
 	}
 
 	// Courtesy: http://en.wikipedia.org/wiki/Pareto_distribution
 	public double nextDouble()
 	{
-		double rndValU = this._random.nextDouble();
-		double numerator = (rndValU * Math.pow( this._upperBound,this._alpha )) - (rndValU * Math.pow( this._lowerBound,this._alpha )) - Math.pow( this._upperBound, this._alpha );  
-		double denominator = Math.pow( this._upperBound,this._alpha ) * Math.pow( this._lowerBound,this._alpha );
-		double next = Math.pow( (-1 * (numerator/denominator)), -1.0/this._alpha );
+		return this.nextDouble( this._random );
+	}
+	
+	/**
+	 * Samples using the caller's random stream, so one distribution can be
+	 * shared by users that each draw from their own stream.
+	 */
+	public double nextDouble( Random rng )
+	{
+		double rndValU = rng.nextDouble();
+		double numerator = (rndValU * this._upperPow) - (rndValU * this._lowerPow) - this._upperPow;  
+		double next = Math.pow( (-1 * (numerator/this._denominator)), -1.0/this._alpha );
 		return next;
 	}
 	
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain.util;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Single place where Rain hands out random number streams.<br />
+ * <br />
+ * Every stream is derived from the scenario's master seed (the top-level
+ * "rngSeed" setting, or a seed picked at startup and printed so the run can
+ * be repeated) and a path of names, e.g. { track, generator } for a user's
+ * generator or { track, generator, "openLoop" } for its load generation
+ * thread. Because the derivation only depends on the seed and the names, the
+ * same configuration reproduces the same per-user streams regardless of
+ * thread scheduling, and since each user owns its stream there is no shared
+ * seed for threads to contend on.
+ */
+public class RandomStreams 
+{
+	/** Seed value meaning "no explicit seed, derive from the master seed". */
+	public static final long NO_SEED = -1;
+	
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+	
+	private static volatile long _masterSeed = mix64( System.nanoTime() ^ System.currentTimeMillis() ) >>> 1;
+	private static volatile boolean _masterSeedSet = false;
+	
+	public static long getMasterSeed() { return _masterSeed; }
+	public static boolean isMasterSeedSet() { return _masterSeedSet; }
+	
+	public static void setMasterSeed( long seed )
+	{
+		_masterSeed = seed;
+		_masterSeedSet = true;
+	}
+	
+	/**
+	 * Creates a new stream derived from the master seed and the given names.
+	 */
+	public static Random newStream( String... names )
+	{
+		return new XoshiroRandom( deriveSeed( _masterSeed, names ) );
+	}
+	
+	/**
+	 * Creates a new stream derived from an explicit (workload-level) seed and
+	 * the given names; falls back to the master seed if seed is negative,
+	 * which is how workloads have always said "no seed".
+	 */
+	public static Random newStream( long seed, String... names )
+	{
+		if( seed < 0 )
+			return newStream( names );
+		return new XoshiroRandom( deriveSeed( seed, names ) );
+	}
+	
+	/**
+	 * Creates a thread-safe java.util.Random with a derived seed, for the few
+	 * places where one generator really is shared by many threads.
+	 */
+	public static Random newSharedStream( String... names )
+	{
+		return new Random( deriveSeed( _masterSeed, names ) );
+	}
+	
+	/**
+	 * Mixes a seed with a path of names. Uses String.hashCode-style char
+	 * folding (which is specified, so it's stable across JVMs) pushed through
+	 * the SplitMix64 finalizer at every step.
+	 */
+	public static long deriveSeed( long seed, String... names )
+	{
+		long h = mix64( seed + GOLDEN_GAMMA );
+		for( String name : names )
+		{
+			if( name == null )
+				name = "";
+			for( int i = 0; i < name.length(); i++ )
+				h = h * 31 + name.charAt( i );
+			// Separator so that {"ab","c"} and {"a","bc"} differ
+			h = mix64( h + GOLDEN_GAMMA );
+		}
+		return h;
+	}
+	
+	/** SplitMix64 finalizer (Stafford variant 13). */
+	public static long mix64( long z )
+	{
+		z = ( z ^ ( z >>> 30 ) ) * 0xBF58476D1CE4E5B9L;
+		z = ( z ^ ( z >>> 27 ) ) * 0x94D049BB133111EBL;
+		return z ^ ( z >>> 31 );
+	}
+	
+	/**
+	 * Measures the cost of drawing from one shared java.util.Random versus
+	 * per-thread streams. Usage: RandomStreams [threads] [drawsPerThread]
+	 */
+	public static void main( String[] args ) throws Exception
+	{
+		int threads = 5000;
+		int draws = 20000;
+		if( args.length > 0 )
+			threads = Integer.parseInt( args[0] );
+		if( args.length > 1 )
+			draws = Integer.parseInt( args[1] );
+		
+		final Random shared = new Random( 1 );
+		Random[] perThread = new Random[threads];
+		for( int i = 0; i < threads; i++ )
+			perThread[i] = RandomStreams.newStream( "bench", String.valueOf( i ) );
+		
+		// Warm up both paths once before timing
+		runDraws( threads, draws / 10, shared, null );
+		runDraws( threads, draws / 10, null, perThread );
+		
+		long sharedNanos = runDraws( threads, draws, shared, null );
+		long streamNanos = runDraws( threads, draws, null, perThread );
+		double total = (double) threads * draws;
+		System.out.println( "Threads: " + threads + " draws/thread: " + draws );
+		System.out.println( "Shared java.util.Random : " + ( sharedNanos / 1000000 ) + " ms (" + ( total / ( sharedNanos / 1e9 ) ) + " draws/sec)" );
+		System.out.println( "Per-thread streams      : " + ( streamNanos / 1000000 ) + " ms (" + ( total / ( streamNanos / 1e9 ) ) + " draws/sec)" );
+	}
+	
+	private static long runDraws( int threads, final int draws, final Random shared, final Random[] perThread ) throws InterruptedException
+	{
+		final CountDownLatch start = new CountDownLatch( 1 );
+		final CountDownLatch done = new CountDownLatch( threads );
+		final double[] sink = new double[threads];
+		for( int i = 0; i < threads; i++ )
+		{
+			final int id = i;
+			Thread t = new Thread()
+			{
+				public void run()
+				{
+					Random rng = ( shared != null ) ? shared : perThread[id];
+					double sum = 0.0;
+					try
+					{
+						start.await();
+						for( int j = 0; j < draws; j++ )
+							sum += rng.nextDouble();
+					}
+					catch( InterruptedException ie )
+					{}
+					sink[id] = sum;
+					done.countDown();
+				}
+			};
+			t.setDaemon( true );
+			t.start();
+		}
+		
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		return System.nanoTime() - begin;
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain.util;
+
+/**
+ * Thread-safe rate limiter that spaces out permits evenly at a fixed rate.
+ * Each acquire() reserves the next free slot(s) on a shared schedule and
+ * sleeps until its slot comes up, so N threads sharing a limiter together
+ * never exceed the configured rate. Idle time isn't banked, i.e. there are
+ * no bursts after a pause.
+ */
+public class RateLimiter 
+{
+	private final double _permitsPerSecond;
+	private final double _nanosPerPermit;
+	private long _nextFreeNanos = 0;
+	
+	/**
+	 * @param permitsPerSecond   The rate to enforce; a value <= 0 means unlimited.
+	 */
+	public RateLimiter( double permitsPerSecond )
+	{
+		this._permitsPerSecond = permitsPerSecond;
+		this._nanosPerPermit = ( permitsPerSecond > 0 ) ? 1000000000.0 / permitsPerSecond : 0.0;
+		this._nextFreeNanos = System.nanoTime();
+	}
+	
+	public double getRate() { return this._permitsPerSecond; }
+	public boolean isLimited() { return this._permitsPerSecond > 0; }
+	
+	/**
+	 * Blocks until <i>permits</i> more permits are allowed under the rate.
+	 */
+	public void acquire( int permits ) throws InterruptedException
+	{
+		if( this._permitsPerSecond <= 0 )
+			return;
+		
+		long waitNanos = 0;
+		synchronized( this )
+		{
+			long now = System.nanoTime();
+			if( this._nextFreeNanos < now )
+				this._nextFreeNanos = now;
+			waitNanos = this._nextFreeNanos - now;
+			this._nextFreeNanos += (long) ( permits * this._nanosPerPermit );
+		}
+		
+		if( waitNanos > 0 )
+			Thread.sleep( waitNanos / 1000000, (int) ( waitNanos % 1000000 ) );
+	}
+}
@@ -0,0 +1,489 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Writes the results of a run in machine-readable form so scripts don't have
+ * to scrape the text printed by the scoreboards. One JSON document holds the
+ * whole result model (each track with its per-interval and final scorecards,
+ * per-operation summaries, errors, wait times and driver stats), and a set of
+ * tidy CSV files, one row per observation, flatten the same model:<br />
+ * <br />
+ * &lt;prefix&gt;.json             - the complete model<br />
+ * &lt;prefix&gt;-tracks.csv       - one row per track (driver, object pool and warm-up stats)<br />
+ * &lt;prefix&gt;-intervals.csv    - one row per track and interval (including the ones spilled during the run), plus the final, trimmed and aggregated cards<br />
+ * &lt;prefix&gt;-operations.csv   - one row per track, interval and operation<br />
+ * &lt;prefix&gt;-errors.csv       - one row per track and failure class<br />
+ * &lt;prefix&gt;-waits.csv        - one row per track and operation wait/cycle time summary<br />
+ * &lt;prefix&gt;-capacity.csv     - one row per capacity search step (only written for a capacity search)<br />
+ * &lt;prefix&gt;-timeseries.csv   - one row per track, time bucket and operation (only written for tracks with time series)<br />
+ * &lt;prefix&gt;-timeseries-errors.csv - one row per track, time bucket and failure class<br />
+ * &lt;prefix&gt;-metricwriters.csv - one row per track and metric writer: stats written and dropped, write latency (only written for tracks with metric snapshots)<br />
+ */
+public class ResultsWriter 
+{
+	public static String FINAL_INTERVAL			= "[FINAL]";
+	public static String TRIMMED_INTERVAL		= "[TRIMMED]";
+	
+	public static String[] TRACK_COLUMNS = { "track", "targetHost", "startTime", "endTime", 
+		"dropOffs", "averageDropOffQTimeMs", "maxDropOffQTimeMs", "meanResponseTimeSamplingInterval",
+		"poolRentRequests", "poolHits", "poolMisses", "poolAverageRentQTimeMs", "poolAverageRentServiceTimeMs",
+		"poolReturnRequests", "poolSuccessfulReturns", "poolOverflowDiscards", "poolCleanupDiscards",
+		"poolAverageReturnQTimeMs", "poolAverageReturnServiceTimeMs", "warmupTruncationSecs", 
+		"warmupThroughputTruncationSecs", "warmupResponseTimeTruncationSecs" };
+	
+	public static String[] INTERVAL_COLUMNS = { "track", "interval", "durationSecs", "activeUsers", "activationCount", 
+		"offeredLoadOpsPerSec", "effectiveLoadOpsPerSec", "effectiveLoadRequestsPerSec", "littlesLawEstimateOpsPerSec", 
+		"littlesLawVariationPct", "opsInitiated", "opsSuccessful", "opsFailed", "opsLate", "opsAsync", "opsSync", 
+		"averageResponseTimeSecs" };
+	
+	public static String[] OPERATION_COLUMNS = { "track", "interval", "operation", "proportionPct", "successes", "failures", 
+		"actions", "asyncInvocations", "syncInvocations", "averageResponseTimeSecs", "minResponseTimeSecs", 
+		"maxResponseTimeSecs", "p50ResponseTimeSecs", "p90ResponseTimeSecs", "p95ResponseTimeSecs", "p99ResponseTimeSecs", 
+		"samplesCollected", "samplesSeen", "sampleMeanSecs", "sampleStandardDeviationSecs" };
+	
+	public static String[] ERROR_COLUMNS = { "track", "failureClass", "count" };
+	
+	public static String[] WAIT_COLUMNS = { "track", "operation", "count", "averageWaitTimeSecs", "minWaitTimeSecs", 
+		"maxWaitTimeSecs", "p90WaitTimeSecs", "p99WaitTimeSecs", "samplesCollected", "samplesSeen", "sampleMeanSecs", 
+		"sampleStandardDeviationSecs" };
+	
+	public static String[] CAPACITY_COLUMNS = { "track", "variable", "step", "level", "users", "rateOpsPerSec", 
+		"batches", "converged", "offeredLoadOpsPerSec", "throughputOpsPerSec", "throughputHalfWidth", "effectiveLoadPct", 
+		"responseTimePercentile", "responseTimeSecs", "opsSuccessful", "opsFailed", "errorPct", "passed", "knee", "violations" };
+	
+	public static String[] TIME_SERIES_COLUMNS = { "track", "time", "offsetSecs", "operation", "activeUsers", "completions", 
+		"errors", "inFlight", "p50ResponseTimeSecs", "p99ResponseTimeSecs", "maxResponseTimeSecs" };
+	
+	public static String[] TIME_SERIES_ERROR_COLUMNS = { "track", "time", "offsetSecs", "failureClass", "count" };
+	
+	public static String[] METRIC_WRITER_COLUMNS = { "track", "writer", "type", "details", "statsOffered", "statsWritten", 
+		"statsFailed", "statsDropped", "statsQueued", "peakQueued", "writeLatencyAvgMsecs", "writeLatencyP99Msecs", 
+		"writeLatencyMaxMsecs" };
+	
+	private String _prefix = "";
+	private JSONObject _run = new JSONObject();
+	private JSONArray _tracks = new JSONArray();
+	private JSONArray _aggregated = new JSONArray();
+	
+	/**
+	 * Creates a writer for the given path prefix; a trailing ".json" is
+	 * dropped so "results.json" and "results" name the same set of files.
+	 */
+	public ResultsWriter( String prefix )
+	{
+		if( prefix.endsWith( ".json" ) )
+			prefix = prefix.substring( 0, prefix.length() - ".json".length() );
+		this._prefix = prefix;
+	}
+	
+	/** JSON can't hold NaN or infinity, which the load math produces for empty intervals. */
+	public static double finite( double val )
+	{
+		if( Double.isNaN( val ) || Double.isInfinite( val ) )
+			return 0.0;
+		return val;
+	}
+	
+	/** Returns the run-wide section (timings, seed, etc.) for the caller to fill in. */
+	public JSONObject getRun()
+	{ return this._run; }
+	
+	/** Adds a track's results, as built by Scoreboard.getStatistics(). */
+	public void addTrack( JSONObject track )
+	{ this._tracks.put( track ); }
+	
+	/** Adds a scorecard aggregated across tracks that use the same generator. */
+	public void addAggregate( JSONObject card )
+	{ this._aggregated.put( card ); }
+	
+	public JSONObject getResults() throws JSONException
+	{
+		JSONObject results = new JSONObject();
+		results.put( "run", this._run );
+		results.put( "tracks", this._tracks );
+		results.put( "aggregated", this._aggregated );
+		return results;
+	}
+	
+	public File getFile( String suffix )
+	{ return new File( this._prefix + suffix ); }
+	
+	public void write() throws IOException, JSONException
+	{
+		File parent = this.getFile( ".json" ).getAbsoluteFile().getParentFile();
+		if( parent != null && !parent.exists() )
+			parent.mkdirs();
+		
+		FileWriter json = new FileWriter( this.getFile( ".json" ) );
+		try
+		{
+			json.write( this.getResults().toString( 2 ) );
+			json.write( "\n" );
+		}
+		finally
+		{
+			json.close();
+		}
+		
+		List<JSONObject> tracks = new ArrayList<JSONObject>();
+		List<JSONObject> intervals = new ArrayList<JSONObject>();
+		List<JSONObject> operations = new ArrayList<JSONObject>();
+		List<JSONObject> errors = new ArrayList<JSONObject>();
+		List<JSONObject> waits = new ArrayList<JSONObject>();
+		
+		for( int i = 0; i < this._tracks.length(); i++ )
+		{
+			JSONObject track = this._tracks.getJSONObject( i );
+			String trackName = track.getString( "track" );
+			
+			JSONObject row = copy( track, "track", trackName );
+			JSONObject driver = track.optJSONObject( "driver" );
+			if( driver != null )
+				merge( row, driver, "" );
+			JSONObject pool = track.optJSONObject( "objectPool" );
+			if( pool != null )
+				merge( row, pool, "pool" );
+			JSONObject warmup = track.optJSONObject( "warmup" );
+			if( warmup != null )
+				merge( row, warmup, "warmup" );
+			tracks.add( row );
+			
+			JSONArray cards = track.optJSONArray( "intervals" );
+			for( int j = 0; cards != null && j < cards.length(); j++ )
+				addCard( cards.getJSONObject( j ), trackName, intervals, operations );
+			JSONObject finalCard = track.optJSONObject( "final" );
+			if( finalCard != null )
+				addCard( finalCard, trackName, intervals, operations );
+			JSONObject trimmedCard = track.optJSONObject( "trimmed" );
+			if( trimmedCard != null )
+				addCard( trimmedCard, trackName, intervals, operations );
+			
+			JSONObject errorCounts = track.optJSONObject( "errors" );
+			if( errorCounts != null )
+			{
+				for( String failureClass : sortedKeys( errorCounts ) )
+				{
+					JSONObject error = new JSONObject();
+					error.put( "track", trackName );
+					error.put( "failureClass", failureClass );
+					error.put( "count", errorCounts.getLong( failureClass ) );
+					errors.add( error );
+				}
+			}
+			
+			JSONArray waitTimes = track.optJSONArray( "waitTimes" );
+			for( int j = 0; waitTimes != null && j < waitTimes.length(); j++ )
+				waits.add( copy( waitTimes.getJSONObject( j ), "track", trackName ) );
+		}
+		
+		for( int i = 0; i < this._aggregated.length(); i++ )
+		{
+			JSONObject card = this._aggregated.getJSONObject( i );
+			addCard( card, card.getString( "track" ), intervals, operations );
+		}
+		
+		writeCsv( this.getFile( "-tracks.csv" ), TRACK_COLUMNS, tracks );
+		writeCsv( this.getFile( "-intervals.csv" ), INTERVAL_COLUMNS, intervals );
+		writeCsv( this.getFile( "-operations.csv" ), OPERATION_COLUMNS, operations );
+		writeCsv( this.getFile( "-errors.csv" ), ERROR_COLUMNS, errors );
+		writeCsv( this.getFile( "-waits.csv" ), WAIT_COLUMNS, waits );
+		
+		// Interval scorecards evicted to stay within a memory budget went to a
+		// spill file during the run; stream them in rather than loading them all
+		for( int i = 0; i < this._tracks.length(); i++ )
+		{
+			JSONObject track = this._tracks.getJSONObject( i );
+			JSONObject retention = track.optJSONObject( "intervalRetention" );
+			if( retention != null && retention.has( "spillFile" ) )
+				this.appendSpilledIntervals( new File( retention.getString( "spillFile" ) ), track.getString( "track" ) );
+		}
+		
+		this.writeTimeSeries();
+		
+		// What the metric snapshot writers sent and lost; an async pipeline
+		// reports each of its downstream writers
+		List<JSONObject> metricWriters = new ArrayList<JSONObject>();
+		for( int i = 0; i < this._tracks.length(); i++ )
+		{
+			JSONObject track = this._tracks.getJSONObject( i );
+			JSONObject metricWriter = track.optJSONObject( "metricWriter" );
+			if( metricWriter == null )
+				continue;
+			JSONArray writers = metricWriter.optJSONArray( "writers" );
+			if( writers == null )
+				metricWriters.add( copy( metricWriter, "track", track.getString( "track" ) ) );
+			for( int j = 0; writers != null && j < writers.length(); j++ )
+			{
+				JSONObject writer = writers.getJSONObject( j );
+				JSONObject row = copy( writer, "track", track.getString( "track" ) );
+				JSONObject writerStats = writer.optJSONObject( "writerStatistics" );
+				if( writerStats != null && writerStats.has( "type" ) )
+					row.put( "type", writerStats.getString( "type" ) );
+				metricWriters.add( row );
+			}
+		}
+		if( metricWriters.size() > 0 )
+			writeCsv( this.getFile( "-metricwriters.csv" ), METRIC_WRITER_COLUMNS, metricWriters );
+		
+		// The throughput-latency curve of a capacity search
+		JSONObject search = this._run.optJSONObject( "capacitySearch" );
+		if( search != null )
+		{
+			List<JSONObject> steps = new ArrayList<JSONObject>();
+			JSONArray stepResults = search.optJSONArray( "steps" );
+			int percentile = search.getJSONObject( "slo" ).getInt( "percentile" );
+			for( int i = 0; stepResults != null && i < stepResults.length(); i++ )
+			{
+				JSONObject step = copy( stepResults.getJSONObject( i ), "track", search.getString( "track" ) );
+				step.put( "variable", search.getString( "variable" ) );
+				step.put( "responseTimePercentile", percentile );
+				steps.add( step );
+			}
+			writeCsv( this.getFile( "-capacity.csv" ), CAPACITY_COLUMNS, steps );
+		}
+	}
+	
+	/**
+	 * Flattens the time series files the tracks wrote during the run, one
+	 * bucket at a time, into the time series CSV files.
+	 */
+	private void writeTimeSeries() throws IOException, JSONException
+	{
+		List<File> files = new ArrayList<File>();
+		for( int i = 0; i < this._tracks.length(); i++ )
+		{
+			JSONObject timeSeries = this._tracks.getJSONObject( i ).optJSONObject( "timeSeries" );
+			if( timeSeries != null && timeSeries.has( "file" ) )
+				files.add( new File( timeSeries.getString( "file" ) ) );
+		}
+		if( files.size() == 0 )
+			return;
+		
+		List<JSONObject> rows = new ArrayList<JSONObject>();
+		List<JSONObject> errorRows = new ArrayList<JSONObject>();
+		writeCsv( this.getFile( "-timeseries.csv" ), TIME_SERIES_COLUMNS, rows );
+		writeCsv( this.getFile( "-timeseries-errors.csv" ), TIME_SERIES_ERROR_COLUMNS, errorRows );
+		PrintWriter out = new PrintWriter( new FileWriter( this.getFile( "-timeseries.csv" ), true ) );
+		PrintWriter errorsOut = new PrintWriter( new FileWriter( this.getFile( "-timeseries-errors.csv" ), true ) );
+		try
+		{
+			for( File file : files )
+			{
+				if( !file.exists() )
+				{
+					System.out.println( "[RESULTS] Time series not found: " + file );
+					continue;
+				}
+				BufferedReader in = new BufferedReader( new FileReader( file ) );
+				try
+				{
+					String line = null;
+					while( ( line = in.readLine() ) != null )
+					{
+						if( line.trim().length() == 0 )
+							continue;
+						JSONObject bucket = new JSONObject( line );
+						JSONArray ops = bucket.getJSONArray( "operations" );
+						for( int i = 0; i < ops.length(); i++ )
+						{
+							JSONObject row = ops.getJSONObject( i );
+							merge( row, bucket, "" );
+							rows.add( row );
+						}
+						JSONObject errors = bucket.getJSONObject( "errors" );
+						for( String failureClass : sortedKeys( errors ) )
+						{
+							JSONObject row = new JSONObject();
+							merge( row, bucket, "" );
+							row.put( "failureClass", failureClass );
+							row.put( "count", errors.getLong( failureClass ) );
+							errorRows.add( row );
+						}
+						writeRows( out, TIME_SERIES_COLUMNS, rows );
+						writeRows( errorsOut, TIME_SERIES_ERROR_COLUMNS, errorRows );
+						rows.clear();
+						errorRows.clear();
+					}
+				}
+				finally
+				{
+					in.close();
+				}
+			}
+		}
+		finally
+		{
+			out.close();
+			errorsOut.close();
+		}
+	}
+	
+	private void appendSpilledIntervals( File spillFile, String trackName ) throws IOException, JSONException
+	{
+		if( !spillFile.exists() )
+		{
+			System.out.println( "[RESULTS] Spilled intervals of track " + trackName + " not found: " + spillFile );
+			return;
+		}
+		
+		BufferedReader in = new BufferedReader( new FileReader( spillFile ) );
+		PrintWriter intervalsOut = new PrintWriter( new FileWriter( this.getFile( "-intervals.csv" ), true ) );
+		PrintWriter operationsOut = new PrintWriter( new FileWriter( this.getFile( "-operations.csv" ), true ) );
+		try
+		{
+			List<JSONObject> intervals = new ArrayList<JSONObject>();
+			List<JSONObject> operations = new ArrayList<JSONObject>();
+			String line = null;
+			while( ( line = in.readLine() ) != null )
+			{
+				if( line.trim().length() == 0 )
+					continue;
+				addCard( new JSONObject( line ), trackName, intervals, operations );
+				writeRows( intervalsOut, INTERVAL_COLUMNS, intervals );
+				writeRows( operationsOut, OPERATION_COLUMNS, operations );
+				intervals.clear();
+				operations.clear();
+			}
+		}
+		finally
+		{
+			in.close();
+			intervalsOut.close();
+			operationsOut.close();
+		}
+	}
+	
+	private static void addCard( JSONObject card, String trackName, List<JSONObject> intervals, List<JSONObject> operations ) throws JSONException
+	{
+		JSONObject row = copy( card, "track", trackName );
+		intervals.add( row );
+		JSONArray ops = card.optJSONArray( "operations" );
+		for( int i = 0; ops != null && i < ops.length(); i++ )
+		{
+			JSONObject op = copy( ops.getJSONObject( i ), "track", trackName );
+			op.put( "interval", row.optString( "interval" ) );
+			operations.add( op );
+		}
+	}
+	
+	private static JSONObject copy( JSONObject src, String key, Object value ) throws JSONException
+	{
+		JSONObject dest = new JSONObject();
+		merge( dest, src, "" );
+		dest.put( key, value );
+		return dest;
+	}
+	
+	/** Copies the scalar fields of src into dest, prefixing (and camel-casing) the keys. */
+	private static void merge( JSONObject dest, JSONObject src, String prefix ) throws JSONException
+	{
+		for( String key : sortedKeys( src ) )
+		{
+			Object value = src.get( key );
+			if( value instanceof JSONObject || value instanceof JSONArray )
+				continue;
+			String name = prefix.length() == 0 ? key : prefix + Character.toUpperCase( key.charAt( 0 ) ) + key.substring( 1 );
+			dest.put( name, value );
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static List<String> sortedKeys( JSONObject obj )
+	{
+		List<String> keys = new ArrayList<String>();
+		Iterator<String> it = obj.keys();
+		while( it.hasNext() )
+			keys.add( it.next() );
+		Collections.sort( keys );
+		return keys;
+	}
+	
+	public static void writeCsv( File file, String[] columns, List<JSONObject> rows ) throws IOException
+	{
+		PrintWriter out = new PrintWriter( new FileWriter( file ) );
+		try
+		{
+			for( int i = 0; i < columns.length; i++ )
+			{
+				if( i > 0 )
+					out.print( ',' );
+				out.print( columns[i] );
+			}
+			out.print( '\n' );
+			writeRows( out, columns, rows );
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+	
+	private static void writeRows( PrintWriter out, String[] columns, List<JSONObject> rows )
+	{
+		for( JSONObject row : rows )
+		{
+			for( int i = 0; i < columns.length; i++ )
+			{
+				if( i > 0 )
+					out.print( ',' );
+				Object value = row.opt( columns[i] );
+				if( value != null && value != JSONObject.NULL )
+					out.print( csvField( value.toString() ) );
+			}
+			out.print( '\n' );
+		}
+	}
+	
+	private static String csvField( String value )
+	{
+		if( value.indexOf( ',' ) < 0 && value.indexOf( '"' ) < 0 && value.indexOf( '\n' ) < 0 && value.indexOf( '\r' ) < 0 )
+			return value;
+		return "\"" + value.replace( "\"", "\"\"" ) + "\"";
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain.util;
+
+import java.util.Random;
+
+/**
+ * A xoshiro256** generator (Blackman and Vigna) exposed through the
+ * <code>java.util.Random</code> API so it can be handed to every distribution
+ * and workload class that already takes a Random.<br />
+ * <br />
+ * Unlike java.util.Random there's no shared AtomicLong seed to CAS on, so a
+ * stream that's confined to one thread (e.g. one per user) costs a handful of
+ * shifts and xors per draw. Streams are NOT meant to be shared between
+ * threads; concurrent use won't fail, but the sequence stops being
+ * reproducible.
+ */
+public class XoshiroRandom extends Random
+{
+	private static final long serialVersionUID = 1L;
+	
+	// No field initializers: Random's constructor calls setSeed() before they would run
+	private long _s0;
+	private long _s1;
+	private long _s2;
+	private long _s3;
+	
+	public XoshiroRandom( long seed )
+	{
+		super( seed );
+	}
+	
+	/**
+	 * (Re)seeds the state by expanding the 64-bit seed with SplitMix64, as
+	 * recommended by the xoshiro authors.
+	 */
+	@Override
+	public void setSeed( long seed )
+	{
+		// Lets Random drop a cached nextGaussian() drawn from the old seed
+		super.setSeed( seed );
+		
+		long x = seed;
+		x += 0x9E3779B97F4A7C15L;
+		this._s0 = RandomStreams.mix64( x );
+		x += 0x9E3779B97F4A7C15L;
+		this._s1 = RandomStreams.mix64( x );
+		x += 0x9E3779B97F4A7C15L;
+		this._s2 = RandomStreams.mix64( x );
+		x += 0x9E3779B97F4A7C15L;
+		this._s3 = RandomStreams.mix64( x );
+		
+		// The all-zero state is the one state xoshiro can't leave
+		if( ( this._s0 | this._s1 | this._s2 | this._s3 ) == 0 )
+			this._s0 = 0x9E3779B97F4A7C15L;
+	}
+	
+	@Override
+	public long nextLong()
+	{
+		long result = Long.rotateLeft( this._s1 * 5, 7 ) * 9;
+		long t = this._s1 << 17;
+		
+		this._s2 ^= this._s0;
+		this._s3 ^= this._s1;
+		this._s1 ^= this._s2;
+		this._s0 ^= this._s3;
+		this._s2 ^= t;
+		this._s3 = Long.rotateLeft( this._s3, 45 );
+		
+		return result;
+	}
+	
+	@Override
+	protected int next( int bits )
+	{
+		return (int) ( this.nextLong() >>> ( 64 - bits ) );
+	}
+	
+	@Override
+	public int nextInt()
+	{
+		return (int) ( this.nextLong() >>> 32 );
+	}
+	
+	@Override
+	public double nextDouble()
+	{
+		return ( this.nextLong() >>> 11 ) * 0x1.0p-53;
+	}
+	
+	@Override
+	public boolean nextBoolean()
+	{
+		return this.nextLong() < 0;
+	}
+}
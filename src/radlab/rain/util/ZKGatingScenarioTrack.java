@@ -33,8 +33,8 @@ package radlab.rain.util;
 
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
-import java.util.Hashtable;
-import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.ZooKeeper;
@@ -52,8 +52,8 @@ import radlab.rain.util.ZKAppServerWatcher;
  * This is the pre-cursor to more sophisticated request-gating where we could limit 
  * the outstanding requests to a server, e.g., to construct a workload that has a
  * constant number of outstanding requests to a target throughout a run.
- * For now we just expect generators that use this track to pick the least loaded server
- * to avoid being backed up behind a slow server.
+ * Generators that use this track ask it to pick a lightly loaded server (see
+ * AppServerBalancer) to avoid being backed up behind a slow server.
  */
 public abstract class ZKGatingScenarioTrack extends DefaultScenarioTrack 
 {
@@ -65,84 +65,79 @@ public abstract class ZKGatingScenarioTrack extends DefaultScenarioTrack
 	private NumberFormat _formatter 				 = new DecimalFormat( "#0.0000" );
 	private boolean _isConfigured 					 = false;
 	private ZooKeeper _zconn 						 = null;
-	private boolean _appServerListChanged 			 = false;
-	private String[] _appServers 					 = null;
+	private volatile boolean _appServerListChanged 	 = false;
 	
 	// Mechanisms associated with keeping traffic stats for request-gating.
-	// We want to get the generators to send requests to least loaded server
-	private long _totalTrafficLockWaitTime 				= 0;
-	private long _totalTrafficLockRequestCount			= 0;
-	private long _maxTrafficLockWaitTime 				= 0;
-	private Object _trafficLock 					 	= new Object();
-	private Hashtable<String, AppServerStats> _appServerTraffic = new Hashtable<String, AppServerStats>();
+	// We want to get the generators to send requests to lightly loaded servers
+	private AppServerBalancer _balancer 			 = new AppServerBalancer();
+	// Requests issued against servers that weren't on the list
+	private AtomicLong _unknownTargetCount			 = new AtomicLong();
 		
 	// Accessor methods such that operations can indicate that they're targeting a 
-	// specific server (based on the base url in the generator that created the operation)
+	// specific server (based on the server the generator picked when it created the operation)
+	public void requestIssue( AppServerStats appServer )
+	{
+		appServer.requestIssue();
+	}
+	
+	public void requestRetire( AppServerStats appServer )
+	{
+		// The server may have been dropped from the ZooKeeper list while the request
+		// was in flight; its stats object is no longer on the list so this is harmless
+		appServer.requestRetire();
+	}
+	
 	public void requestIssue( String appServer )
 	{
-		long start = System.currentTimeMillis();
-		synchronized( this._trafficLock )
-		{
-			long end = System.currentTimeMillis();
-			// How long did we wait for the lock?
-			long lockWaitTime = end - start;
-			// Keep track of the total time waiting on the traffic lock
-			this._totalTrafficLockWaitTime += lockWaitTime; 
-			// Keep counting the lock requests
-			this._totalTrafficLockRequestCount++;
-			// Track the worst case lock wait time seen so far
-			if( lockWaitTime >  this._maxTrafficLockWaitTime )
-				this._maxTrafficLockWaitTime = lockWaitTime;
-			
-			// Get the request counter for this server
-			//Long outstandingRequests = this._appServerTraffic.get( appServer );
-			AppServerStats stats = this._appServerTraffic.get( appServer );
-			if( stats == null )
-			{
-				// We might want to know whether requests are coming in for servers
-				// not in the Hashtable, that would mean that we're messing up somewhere
-				// re: keeping the Hashtable up-to-date with the latest info from
-				// ZooKeeper, e.g., the list changes before we get a chance to update the
-				// Hashtable
-				this._appServerTraffic.put( appServer, new AppServerStats(appServer, 0L ) );
-			}
-			else stats._outstandingRequests++;
-		}
+		AppServerStats stats = this._balancer.get( appServer );
+		// Requests for servers not on the list would mean that we're messing up
+		// somewhere re: keeping the list up-to-date with the latest info from ZooKeeper
+		if( stats == null )
+			this._unknownTargetCount.incrementAndGet();
+		else stats.requestIssue();
 	}
 	
 	public void requestRetire( String appServer )
 	{
-		long start = System.currentTimeMillis();
-		synchronized( this._trafficLock )
-		{
-			long end = System.currentTimeMillis();
-			// How long did we wait for the lock?
-			long lockWaitTime = end - start;
-			// Keep track of the total time waiting on the traffic lock
-			this._totalTrafficLockWaitTime += lockWaitTime; 
-			// Keep counting the lock requests
-			this._totalTrafficLockRequestCount++;
-			// Track the worst case lock wait time seen so far
-			if( lockWaitTime >  this._maxTrafficLockWaitTime )
-				this._maxTrafficLockWaitTime = lockWaitTime;
-			
-			// Get the request counter for this server
-			//Long outstandingRequests = this._appServerTraffic.get( appServer );
-			AppServerStats stats = this._appServerTraffic.get( appServer );
-			
-			// outstandingRequests should never be null on request retire (frequently) - 
-			// a request can't be retired from a server that's not in the traffic stats hashtable 
-			// unless a request was sent to a slow app server and by the time the request 
-			// finished the slow server was purged from a recent ZooKeeper list. In that
-			// eventuality it's safe to ignore the retire message
-			if( stats != null )
-				stats._outstandingRequests--;	
-		}
+		AppServerStats stats = this._balancer.get( appServer );
+		if( stats != null )
+			stats.requestRetire();
+	}
+	
+	/** 
+	 * Picks the server the next request should go to, or null if the list is empty.
+	 * Refreshes the list from ZooKeeper first if it changed.
+	 */
+	public AppServerStats pickAppServer( Random random )
+	{
+		if( this._appServerListChanged )
+			this.refreshAppServerList();
+		return this._balancer.pick( random );
+	}
+	
+	private synchronized void refreshAppServerList()
+	{
+		// Only the first generator to notice the change goes to ZooKeeper, the rest
+		// find the flag already cleared once they get the monitor
+		if( this._appServerListChanged )
+			this.updateAppServerList();
 	}
 	
+	/** Sets the number of servers sampled per pick (the d in JSQ(d)). */
+	public void setAppServerChoices( int val )
+	{ this._balancer.setChoices( val ); }
+	
+	public AppServerBalancer getBalancer()
+	{ return this._balancer; }
+	
 	private String _zkConnString = "";
 	private String _zkPath = "";
 
+	public ZKGatingScenarioTrack(Scenario parent) 
+	{
+		super(parent);
+	}
+	
 	public ZKGatingScenarioTrack(String name, Scenario scenario) 
 	{
 		super(name, scenario);
@@ -162,8 +157,8 @@ public abstract class ZKGatingScenarioTrack extends DefaultScenarioTrack
 	public boolean getAppServerListChanged()
 	{ return this._appServerListChanged; }
 	
-	public Hashtable<String, AppServerStats> getAppServers()
-	{ return this._appServerTraffic; }
+	public AppServerStats[] getAppServers()
+	{ return this._balancer.getServers(); }
 	
 	public synchronized boolean configureZooKeeper( String zkConnString, String zkPath )
 	{
@@ -208,14 +203,9 @@ public abstract class ZKGatingScenarioTrack extends DefaultScenarioTrack
 			
 			if( list.trim().length() > 0 )
 			{
-				this._appServers = list.split( APP_SERVER_LIST_SEPARATOR );
-				//System.out.println( this + " Appserver list initialized, " + this._appServers.length + " app servers found." );
-				for( String s : this._appServers )
-				{
-					// Set up empty stats
-					this._appServerTraffic.put( s, new AppServerStats( s, 0L ) );
-					//System.out.println( this + " Appserver: " + s );
-				}
+				// Set up empty stats
+				this._balancer.setServers( list.split( APP_SERVER_LIST_SEPARATOR ) );
+				//System.out.println( this + " Appserver list initialized, " + this._balancer.size() + " app servers found." );
 				return true; // Signal that we've initialized the app server list
 			}
 			else return false;
@@ -230,6 +220,9 @@ public abstract class ZKGatingScenarioTrack extends DefaultScenarioTrack
 	
 	public synchronized boolean updateAppServerList()
 	{
+		// Clear the flag before reading so a change that lands during the read
+		// triggers another refresh
+		this._appServerListChanged = false;
 		try
 		{
 			int retries = DEFAULT_RETRIES;
@@ -243,52 +236,23 @@ public abstract class ZKGatingScenarioTrack extends DefaultScenarioTrack
 			
 			if( list.trim().length() > 0 )
 			{
-				this._appServers = list.split( APP_SERVER_LIST_SEPARATOR );
-				//System.out.println( this + " Appserver list updated, " + this._appServers.length + " app servers found." );
-								
-				// Here's where we'd want to purge the traffic table of entries that are not in
-				// this list - we need to purge so that non-existent servers don't get
-				// picked as the least loaded
-				
-				Hashtable<String,AppServerStats> newTrafficSnapshot = new Hashtable<String,AppServerStats>();
-				for( String s : this._appServers )
-				{
-					//System.out.println( this + " Appserver: " + s );
-					// Create a stats snapshot with just the server names, 
-					// but null stats values
-					newTrafficSnapshot.put( s, new AppServerStats( s, 0L ) );
-				}
-				// Now we that we have the latest list of server names, but no stats
-				// copy over the latest stats from traffic stats table
-				synchronized( this._trafficLock )
-				{
-					// Go through the current stats, if that server is in the new snapshot
-					// then copy its stats otherwise ignore it
-					Iterator<String> appIt = this._appServerTraffic.keySet().iterator();
-					while( appIt.hasNext() )
-					{
-						AppServerStats currentServerStats = this._appServerTraffic.get( appIt.next() );
-						// If an existing server is still on the latest list of servers
-						// then copy over its stats
-						if( newTrafficSnapshot.containsKey( currentServerStats._appServer ) )
-						{
-							// Copy over the latest stats for this server
-							newTrafficSnapshot.put( currentServerStats._appServer, currentServerStats );
-						}
-					}
-					// Replace the current appServerTraffic table with the new version
-					this._appServerTraffic = newTrafficSnapshot;
-				}
-							
-				this._appServerListChanged = false; // Now that we have the new list of appservers squelch the change
+				// Swap in the new list; servers that are still on it keep their stats
+				// and servers that aren't can no longer be picked
+				this._balancer.setServers( list.split( APP_SERVER_LIST_SEPARATOR ) );
+				//System.out.println( this + " Appserver list updated, " + this._balancer.size() + " app servers found." );
 				return true; // Signal that we've updated the app server list
 			}
-			else return false;
+			else
+			{
+				this._appServerListChanged = true; // Keep the old list and try again on the next request
+				return false;
+			}
 		}
 		catch( Exception e )
 		{
 			System.out.println( this + " Error updating app server list. Reason: " + e.toString() );
 			e.printStackTrace();
+			this._appServerListChanged = true;
 			return false;
 		}
 	}
@@ -350,13 +314,14 @@ public abstract class ZKGatingScenarioTrack extends DefaultScenarioTrack
 	@Override
 	public void end()
 	{
-		// Dump traffic lock stats
-		if( this._totalTrafficLockRequestCount > 0 )
-			System.out.println( this + " Gating stats - Average traffic lock wait time (ms) : " + this._formatter.format( (double) this._totalTrafficLockWaitTime / (double) this._totalTrafficLockRequestCount ) );
-		else System.out.println( this + " Gating stats - Average traffic lock wait time (ms) : " + this._formatter.format( 0.0 ) );
+		// Dump per-server traffic stats
+		for( AppServerStats stats : this._balancer.getServers() )
+			System.out.println( this + " Gating stats - Server " + stats._appServer + " requests issued: " + stats.getIssuedRequests() + " max outstanding: " + stats.getMaxOutstandingRequests() );
 		
-		System.out.println( this + " Gating stats - Total traffic lock requests         : " + this._totalTrafficLockRequestCount );
-		System.out.println( this + " Gating stats - Max traffic lock wait time (ms)     : " + this._formatter.format( this._maxTrafficLockWaitTime ) );
+		System.out.println( this + " Gating stats - Total requests issued              : " + this._balancer.getIssuedRequests() );
+		System.out.println( this + " Gating stats - Server choices per request         : " + this._balancer.getChoices() );
+		System.out.println( this + " Gating stats - Imbalance (max/mean issued)        : " + this._formatter.format( this._balancer.getImbalance() ) );
+		System.out.println( this + " Gating stats - Requests to unknown servers        : " + this._unknownTargetCount.get() );
 		// Let the base class finish its regular cleanup
 		super.end();
 	}
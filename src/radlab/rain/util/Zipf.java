@@ -43,6 +43,7 @@ public class Zipf
 	
 	private boolean _first = true;
 	private double _c = 0; // Normalization constant
+	private ZipfRejectionInversion _rejectionInversion = null; // Lazily created constant-time sampler
 	
 	public Zipf( double a, double r, long L, long H )
 	{
@@ -95,6 +96,16 @@ public class Zipf
 		return 0;
 	}
 	
+	// Same distribution as nextDouble2 but in O(1) memory and expected O(1) time
+	// using rejection-inversion instead of a linear walk over the pmf.
+	public double nextDouble3()
+	{
+		if( this._rejectionInversion == null )
+			this._rejectionInversion = new ZipfRejectionInversion( this._upperBound - this._lowerBound, this._a, this._random );
+		
+		return this._rejectionInversion.nextLong() + this._lowerBound;
+	}
+	
 	public double nextDouble()
 	{
 		double k = -1;
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain.util;
+
+import java.util.Random;
+
+/**
+ * Samples ranks 1..N from a Zipf distribution with P(k) proportional to
+ * k^-exponent using the rejection-inversion method of Hoermann and Derflinger
+ * ("Rejection-inversion to generate variates from monotone discrete
+ * distributions", ACM TOMACS 6(3), 1996).<br />
+ * <br />
+ * Unlike the direct method (which needs an N-entry cdf and an O(N) search) or
+ * the Devroye rejection method (which only works for exponents > 1 and loops
+ * until a rank &lt;= N shows up), this sampler needs O(1) memory and expected
+ * O(1) time for any N and any exponent > 0.
+ */
+public class ZipfRejectionInversion 
+{
+	/** Number of ranks. */
+	private long _numberOfElements = 0;
+	/** Exponent of the distribution. */
+	private double _exponent = 0.0;
+	private Random _random;
+	
+	// Constants derived from the parameters (see the paper for the notation)
+	private double _hIntegralX1 = 0.0;
+	private double _hIntegralNumberOfElements = 0.0;
+	private double _s = 0.0;
+	
+	public ZipfRejectionInversion( long numberOfElements, double exponent )
+	{
+		this( numberOfElements, exponent, new Random() );
+	}
+	
+	public ZipfRejectionInversion( long numberOfElements, double exponent, Random rng )
+	{
+		if( numberOfElements <= 0 )
+			throw new IllegalArgumentException( "Zipf distribution requires at least one element: N = " + numberOfElements );
+		if( exponent <= 0 )
+			throw new IllegalArgumentException( "Zipf distribution requires exponent > 0: exponent = " + exponent );
+		
+		this._numberOfElements = numberOfElements;
+		this._exponent = exponent;
+		this._random = rng;
+		
+		this._hIntegralX1 = this.hIntegral( 1.5 ) - 1.0;
+		this._hIntegralNumberOfElements = this.hIntegral( numberOfElements + 0.5 );
+		this._s = 2.0 - this.hIntegralInverse( this.hIntegral( 2.5 ) - this.h( 2.0 ) );
+	}
+	
+	public long getNumberOfElements() { return this._numberOfElements; }
+	public double getExponent() { return this._exponent; }
+	
+	/**
+	 * Returns the next rank, a value in [1, N]. Rank 1 is the most popular.
+	 */
+	public long nextLong()
+	{
+		return this.nextLong( this._random );
+	}
+	
+	/**
+	 * Same as nextLong() but draws from the caller's random stream, so one
+	 * (immutable) sampler can be shared by many users.
+	 */
+	public long nextLong( Random rng )
+	{
+		while( true )
+		{
+			double u = this._hIntegralNumberOfElements + rng.nextDouble() * ( this._hIntegralX1 - this._hIntegralNumberOfElements );
+			// u is uniformly distributed in (hIntegralX1, hIntegralNumberOfElements]
+			double x = this.hIntegralInverse( u );
+			long k = (long) ( x + 0.5 );
+			
+			// Guard against rounding at the edges of the support
+			if( k < 1 )
+				k = 1;
+			else if( k > this._numberOfElements )
+				k = this._numberOfElements;
+			
+			// The first test is a cheap squeeze that accepts most samples
+			// without having to evaluate hIntegral.
+			if( k - x <= this._s || u >= this.hIntegral( k + 0.5 ) - this.h( k ) )
+				return k;
+		}
+	}
+	
+	/**
+	 * Exact probability of a rank; O(N) since it has to compute the
+	 * normalization constant. Only intended for tests and diagnostics.
+	 */
+	public double probability( long rank )
+	{
+		if( rank < 1 || rank > this._numberOfElements )
+			return 0.0;
+		
+		double norm = 0.0;
+		for( long i = 1; i <= this._numberOfElements; i++ )
+			norm += this.h( i );
+		return this.h( rank ) / norm;
+	}
+	
+	// H(x) = integral of h(x) = (x^(1-exponent) - 1)/(1 - exponent), or log(x) if exponent == 1
+	private double hIntegral( double x )
+	{
+		double logX = Math.log( x );
+		return helper2( ( 1.0 - this._exponent ) * logX ) * logX;
+	}
+	
+	// h(x) = 1/x^exponent
+	private double h( double x )
+	{
+		return Math.exp( -this._exponent * Math.log( x ) );
+	}
+	
+	// Inverse of hIntegral
+	private double hIntegralInverse( double x )
+	{
+		double t = x * ( 1.0 - this._exponent );
+		if( t < -1.0 )
+		{
+			// Limit the value to the range [-1, +inf). t can only be smaller
+			// than -1 because of numerical inaccuracies.
+			t = -1.0;
+		}
+		return Math.exp( helper1( t ) * x );
+	}
+	
+	// log(1+x)/x, with a Taylor expansion for small x to avoid cancellation
+	private static double helper1( double x )
+	{
+		if( Math.abs( x ) > 1e-8 )
+			return Math.log1p( x ) / x;
+		else return 1.0 - x * ( 0.5 - x * ( 1.0/3.0 - 0.25 * x ) );
+	}
+	
+	// (exp(x)-1)/x, with a Taylor expansion for small x to avoid cancellation
+	private static double helper2( double x )
+	{
+		if( Math.abs( x ) > 1e-8 )
+			return Math.expm1( x ) / x;
+		else return 1.0 + x * 0.5 * ( 1.0 + x * 1.0/3.0 * ( 1.0 + 0.25 * x ) );
+	}
+	
+	/**
+	 * Micro-benchmark comparing the per-sample cost of this sampler against
+	 * the existing Zipf samplers. Usage: ZipfRejectionInversion [N] [exponent] [samples]
+	 */
+	public static void main( String[] args ) 
+	{
+		long n = 100000;
+		double exponent = 1.001;
+		int iterations = 1000000;
+		
+		if( args.length > 0 )
+			n = Long.parseLong( args[0] );
+		if( args.length > 1 )
+			exponent = Double.parseDouble( args[1] );
+		if( args.length > 2 )
+			iterations = Integer.parseInt( args[2] );
+		
+		ZipfRejectionInversion dist = new ZipfRejectionInversion( n, exponent, new Random( 1 ) );
+		// Warm up
+		long checksum = 0;
+		for( int i = 0; i < iterations; i++ )
+			checksum += dist.nextLong();
+		
+		long start = System.nanoTime();
+		for( int i = 0; i < iterations; i++ )
+			checksum += dist.nextLong();
+		long end = System.nanoTime();
+		System.out.println( "Rejection-inversion: " + ( (end - start) / (double) iterations ) + " ns/sample" );
+		
+		// The O(N)-per-sample walk gets too slow very quickly so cap its iterations
+		if( n <= Integer.MAX_VALUE )
+		{
+			Zipf walk = new Zipf( exponent, 3.456, 1, n, new Random( 1 ) );
+			int walkIterations = (int) Math.max( 1, Math.min( iterations, 100000000L / n ) );
+			start = System.nanoTime();
+			for( int i = 0; i < walkIterations; i++ )
+				checksum += (long) walk.nextDouble2();
+			end = System.nanoTime();
+			System.out.println( "Zipf.nextDouble2 (linear walk): " + ( (end - start) / (double) walkIterations ) + " ns/sample" );
+			
+			if( exponent > 1.0 )
+			{
+				radlab.rain.util.storage.ZipfKeyGenerator direct = new radlab.rain.util.storage.ZipfKeyGenerator( exponent, 3.456, 1, (int) n, 1, radlab.rain.util.storage.ZipfKeyGenerator.DIRECT_SAMPLING_METHOD );
+				start = System.nanoTime();
+				for( int i = 0; i < walkIterations; i++ )
+					checksum += direct.generateKey();
+				end = System.nanoTime();
+				System.out.println( "ZipfKeyGenerator direct (incl. cdf setup): " + ( (end - start) / (double) walkIterations ) + " ns/sample" );
+			}
+		}
+		
+		System.out.println( "Checksum: " + checksum );
+	}
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain.util.storage;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import radlab.rain.util.RandomStreams;
+import radlab.rain.util.RateLimiter;
+
+/**
+ * Parallel, resumable bulk loader shared by the storage workloads' *Util
+ * loaders.<br />
+ * <br />
+ * The key range [minKey, maxKey] is split into one contiguous slice per
+ * worker. Each worker writes its slice in batches through its own
+ * IBulkLoadSink (the store's native batch API), with values cut from the
+ * shared PayloadSlab and sized by a ValueSizeDistribution. All workers share
+ * one RateLimiter so the target isn't overrun.<br />
+ * <br />
+ * Progress (keys/sec, MB/sec, ETA) is printed every report interval, and if
+ * a checkpoint file is set, each worker's position is saved at the same
+ * time. A worker only moves past a batch once its sink has acknowledged it,
+ * so re-running an interrupted (or failed) load with the same range,
+ * worker count and checkpoint file picks up where it left off; at worst
+ * the batches in flight are written twice, which is harmless for puts.
+ */
+public class BulkLoader 
+{
+	public static String OPTIONS_USAGE				= "[<workers> <batch size> <max keys/sec> <checkpoint file>]";
+	
+	public static int DEFAULT_WORKERS				= 10;
+	public static int DEFAULT_BATCH_SIZE			= 100;
+	public static int DEFAULT_REPORT_INTERVAL_SECS	= 10;
+	public static int DEFAULT_MAX_RETRIES			= 3;
+	
+	private static final String CHECKPOINT_HEADER	= "# Rain bulk load checkpoint: range <min key> <max key> <workers>, then worker <id> <start> <end> <next key>";
+	
+	private final long _minKey;
+	private final long _maxKey;
+	private int _workers							= DEFAULT_WORKERS;
+	private int _batchSize							= DEFAULT_BATCH_SIZE;
+	private double _maxKeysPerSecond				= 0.0;
+	private File _checkpointFile					= null;
+	private int _reportIntervalSecs					= DEFAULT_REPORT_INTERVAL_SECS;
+	private int _maxRetries							= DEFAULT_MAX_RETRIES;
+	private ValueSizeDistribution _valueSizes		= null;
+	private PayloadSlab _payloads					= PayloadSlab.getSharedSlab();
+	
+	private final AtomicLong _keysLoaded			= new AtomicLong( 0 );
+	private final AtomicLong _bytesLoaded			= new AtomicLong( 0 );
+	
+	public BulkLoader( long minKey, long maxKey, int valueSize )
+	{
+		this( minKey, maxKey, ValueSizeDistribution.fixed( valueSize ) );
+	}
+	
+	public BulkLoader( long minKey, long maxKey, ValueSizeDistribution valueSizes )
+	{
+		if( maxKey < minKey )
+			throw new IllegalArgumentException( "Invalid key range: [" + minKey + ", " + maxKey + "]" );
+		this._minKey = minKey;
+		this._maxKey = maxKey;
+		this._valueSizes = valueSizes;
+	}
+	
+	public int getWorkers() { return this._workers; }
+	public void setWorkers( int val ) { this._workers = Math.max( 1, val ); }
+	
+	public int getBatchSize() { return this._batchSize; }
+	public void setBatchSize( int val ) { this._batchSize = Math.max( 1, val ); }
+	
+	public double getMaxKeysPerSecond() { return this._maxKeysPerSecond; }
+	public void setMaxKeysPerSecond( double val ) { this._maxKeysPerSecond = val; }
+	
+	public File getCheckpointFile() { return this._checkpointFile; }
+	public void setCheckpointFile( File val ) { this._checkpointFile = val; }
+	
+	public int getReportIntervalSecs() { return this._reportIntervalSecs; }
+	public void setReportIntervalSecs( int val ) { this._reportIntervalSecs = Math.max( 1, val ); }
+	
+	public int getMaxRetries() { return this._maxRetries; }
+	public void setMaxRetries( int val ) { this._maxRetries = val; }
+	
+	public PayloadSlab getPayloads() { return this._payloads; }
+	public void setPayloads( PayloadSlab val ) { this._payloads = val; }
+	
+	/** Keys written by the last load() (not counting keys skipped thanks to a checkpoint). */
+	public long getKeysLoaded() { return this._keysLoaded.get(); }
+	public long getBytesLoaded() { return this._bytesLoaded.get(); }
+	
+	/**
+	 * Reads the optional trailing command line arguments described by
+	 * OPTIONS_USAGE, starting at <i>offset</i>; missing ones keep their
+	 * defaults. A max rate <= 0 means unlimited.
+	 */
+	public void setOptions( String[] args, int offset )
+	{
+		if( args.length > offset )
+			this.setWorkers( Integer.parseInt( args[offset] ) );
+		if( args.length > offset + 1 )
+			this.setBatchSize( Integer.parseInt( args[offset + 1] ) );
+		if( args.length > offset + 2 )
+			this.setMaxKeysPerSecond( Double.parseDouble( args[offset + 2] ) );
+		if( args.length > offset + 3 )
+			this.setCheckpointFile( new File( args[offset + 3] ) );
+	}
+	
+	/**
+	 * Loads the key range, blocking until every worker is done.
+	 * 
+	 * @throws Exception    If a worker gave up on a batch after its retries; the
+	 *                      checkpoint (if any) lets a re-run resume the load.
+	 */
+	public void load( IBulkLoadSinkFactory sinkFactory ) throws Exception
+	{
+		long keyCount = ( this._maxKey - this._minKey ) + 1;
+		int workers = (int) Math.min( this._workers, keyCount );
+		this._keysLoaded.set( 0 );
+		this._bytesLoaded.set( 0 );
+		
+		// Split the range into contiguous slices, then fast-forward them from the checkpoint
+		LoaderWorker[] threads = new LoaderWorker[workers];
+		long sliceSize = keyCount / workers;
+		long remainder = keyCount % workers;
+		long start = this._minKey;
+		RateLimiter limiter = new RateLimiter( this._maxKeysPerSecond );
+		for( int i = 0; i < workers; i++ )
+		{
+			long end = start + sliceSize - 1 + ( i < remainder ? 1 : 0 );
+			threads[i] = new LoaderWorker( i, start, end, limiter );
+			start = end + 1;
+		}
+		
+		long alreadyLoaded = this.readCheckpoint( threads );
+		if( alreadyLoaded == keyCount )
+		{
+			System.out.println( "[LOADER] Checkpoint " + this._checkpointFile + " says all " + keyCount + " keys are loaded, nothing to do" );
+			return;
+		}
+		else if( alreadyLoaded > 0 )
+			System.out.println( "[LOADER] Resuming from checkpoint " + this._checkpointFile + ": " + alreadyLoaded + " of " + keyCount + " keys already loaded" );
+		
+		System.out.println( "[LOADER] Loading keys [" + this._minKey + ", " + this._maxKey + "] with " + workers + " worker(s), batches of " + this._batchSize 
+				+ ", values: " + this._valueSizes + ( limiter.isLimited() ? ", max " + this._maxKeysPerSecond + " keys/sec" : "" ) );
+		
+		// Workers open their own sinks so a slow connect doesn't hold up the others
+		for( LoaderWorker thread : threads )
+		{
+			thread._sinkFactory = sinkFactory;
+			thread.start();
+		}
+		
+		long startNanos = System.nanoTime();
+		long lastNanos = startNanos;
+		long lastKeys = 0;
+		long lastBytes = 0;
+		for( LoaderWorker thread : threads )
+		{
+			while( thread.isAlive() )
+			{
+				thread.join( this._reportIntervalSecs * 1000L );
+				long now = System.nanoTime();
+				if( now - lastNanos >= this._reportIntervalSecs * 1000000000L )
+				{
+					long keys = this._keysLoaded.get();
+					long bytes = this._bytesLoaded.get();
+					this.report( keys - lastKeys, bytes - lastBytes, now - lastNanos, keys, bytes, now - startNanos, keyCount - alreadyLoaded );
+					this.writeCheckpoint( threads );
+					lastNanos = now;
+					lastKeys = keys;
+					lastBytes = bytes;
+				}
+			}
+		}
+		
+		long durationNanos = System.nanoTime() - startNanos;
+		this.writeCheckpoint( threads );
+		
+		long keys = this._keysLoaded.get();
+		long bytes = this._bytesLoaded.get();
+		double durationSecs = durationNanos / 1e9;
+		NumberFormat formatter = new DecimalFormat( "#0.00" );
+		System.out.println( "[LOADER] Load finished: " + formatter.format( durationSecs ) + " seconds, " + keys + " keys, " + formatter.format( bytes / 1048576.0 ) + " MB" );
+		System.out.println( "[LOADER] Rate: " + formatter.format( keys / durationSecs ) + " keys/sec, " + formatter.format( ( bytes / 1048576.0 ) / durationSecs ) + " MB/sec" );
+		
+		int failedWorkers = 0;
+		for( LoaderWorker thread : threads )
+		{
+			if( thread._error != null )
+			{
+				failedWorkers++;
+				System.out.println( "[LOADER] Worker " + thread._workerId + " stopped at key " + thread._nextKey + " of [" + thread._startKey + ", " + thread._endKey + "]: " + thread._error );
+			}
+		}
+		if( failedWorkers > 0 )
+			throw new Exception( failedWorkers + " loader worker(s) failed, " + ( this._checkpointFile != null ? "re-run with checkpoint " + this._checkpointFile + " to resume" : "set a checkpoint file to make loads resumable" ) );
+	}
+	
+	private void report( long intervalKeys, long intervalBytes, long intervalNanos, long totalKeys, long totalBytes, long totalNanos, long keysToLoad )
+	{
+		NumberFormat formatter = new DecimalFormat( "#0.0" );
+		double intervalSecs = intervalNanos / 1e9;
+		double totalSecs = totalNanos / 1e9;
+		double avgKeysPerSec = totalKeys / totalSecs;
+		long etaSecs = ( avgKeysPerSec > 0 ) ? (long) ( ( keysToLoad - totalKeys ) / avgKeysPerSec ) : -1;
+		
+		System.out.println( "[LOADER] " + totalKeys + "/" + keysToLoad + " keys (" + formatter.format( 100.0 * totalKeys / keysToLoad ) + "%) "
+				+ formatter.format( intervalKeys / intervalSecs ) + " keys/sec " + formatter.format( ( intervalBytes / 1048576.0 ) / intervalSecs ) + " MB/sec"
+				+ " (avg " + formatter.format( avgKeysPerSec ) + " keys/sec " + formatter.format( ( totalBytes / 1048576.0 ) / totalSecs ) + " MB/sec) eta " + etaSecs + "s" );
+	}
+	
+	/**
+	 * Fast-forwards the workers to the positions saved in the checkpoint file
+	 * (if there is one) and returns how many keys that skips.
+	 */
+	private long readCheckpoint( LoaderWorker[] threads ) throws IOException
+	{
+		if( this._checkpointFile == null || !this._checkpointFile.exists() )
+			return 0;
+		
+		long skipped = 0;
+		BufferedReader reader = new BufferedReader( new FileReader( this._checkpointFile ) );
+		try
+		{
+			String line = null;
+			while( ( line = reader.readLine() ) != null )
+			{
+				line = line.trim();
+				if( line.length() == 0 || line.startsWith( "#" ) )
+					continue;
+				
+				String[] fields = line.split( "\\s+" );
+				if( fields[0].equals( "range" ) )
+				{
+					if( Long.parseLong( fields[1] ) != this._minKey || Long.parseLong( fields[2] ) != this._maxKey || Integer.parseInt( fields[3] ) != threads.length )
+						throw new IOException( "Checkpoint " + this._checkpointFile + " is for keys [" + fields[1] + ", " + fields[2] + "] with " + fields[3] 
+								+ " worker(s), not [" + this._minKey + ", " + this._maxKey + "] with " + threads.length + "; delete it to start over" );
+				}
+				else if( fields[0].equals( "worker" ) )
+				{
+					LoaderWorker thread = threads[Integer.parseInt( fields[1] )];
+					if( Long.parseLong( fields[2] ) != thread._startKey || Long.parseLong( fields[3] ) != thread._endKey )
+						throw new IOException( "Checkpoint " + this._checkpointFile + " has a different slice for worker " + thread._workerId );
+					thread._nextKey = Long.parseLong( fields[4] );
+					skipped += thread._nextKey - thread._startKey;
+				}
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return skipped;
+	}
+	
+	// Write-then-rename so an interrupted write never leaves a truncated checkpoint behind
+	private void writeCheckpoint( LoaderWorker[] threads ) throws IOException
+	{
+		if( this._checkpointFile == null )
+			return;
+		
+		File temp = new File( this._checkpointFile.getPath() + ".tmp" );
+		PrintWriter writer = new PrintWriter( new FileWriter( temp ) );
+		try
+		{
+			writer.println( CHECKPOINT_HEADER );
+			writer.println( "range " + this._minKey + " " + this._maxKey + " " + threads.length );
+			for( LoaderWorker thread : threads )
+				writer.println( "worker " + thread._workerId + " " + thread._startKey + " " + thread._endKey + " " + thread._nextKey );
+		}
+		finally
+		{
+			writer.close();
+		}
+		
+		if( !temp.renameTo( this._checkpointFile ) )
+		{
+			// Some platforms won't rename over an existing file
+			this._checkpointFile.delete();
+			if( !temp.renameTo( this._checkpointFile ) )
+				throw new IOException( "Unable to write checkpoint: " + this._checkpointFile );
+		}
+	}
+	
+	private class LoaderWorker extends Thread
+	{
+		private final int _workerId;
+		private final long _startKey;
+		private final long _endKey;
+		private final RateLimiter _limiter;
+		private IBulkLoadSinkFactory _sinkFactory = null;
+		// Next key to write, everything before it has been acknowledged by the store
+		private volatile long _nextKey;
+		private volatile Throwable _error = null;
+		
+		public LoaderWorker( int workerId, long startKey, long endKey, RateLimiter limiter )
+		{
+			super( "BulkLoader-" + workerId );
+			this._workerId = workerId;
+			this._startKey = startKey;
+			this._endKey = endKey;
+			this._nextKey = startKey;
+			this._limiter = limiter;
+		}
+		
+		public void run()
+		{
+			Random random = RandomStreams.newStream( "bulkLoader", String.valueOf( this._workerId ) );
+			long[] keys = new long[_batchSize];
+			byte[][] values = new byte[_batchSize][];
+			IBulkLoadSink sink = null;
+			
+			try
+			{
+				sink = this._sinkFactory.createSink( this._workerId );
+				while( this._nextKey <= this._endKey )
+				{
+					int count = (int) Math.min( _batchSize, ( this._endKey - this._nextKey ) + 1 );
+					long batchBytes = 0;
+					for( int i = 0; i < count; i++ )
+					{
+						keys[i] = this._nextKey + i;
+						values[i] = _payloads.nextValue( random, _valueSizes.nextSize( random ) );
+						batchBytes += values[i].length;
+					}
+					
+					this._limiter.acquire( count );
+					this.writeWithRetries( sink, keys, values, count );
+					
+					this._nextKey += count;
+					_keysLoaded.addAndGet( count );
+					_bytesLoaded.addAndGet( batchBytes );
+				}
+			}
+			catch( Throwable e )
+			{
+				this._error = e;
+			}
+			finally
+			{
+				if( sink != null )
+				{
+					try
+					{
+						sink.close();
+					}
+					catch( Exception e )
+					{
+						System.out.println( "[LOADER] Worker " + this._workerId + " error closing sink: " + e );
+					}
+				}
+			}
+		}
+		
+		private void writeWithRetries( IBulkLoadSink sink, long[] keys, byte[][] values, int count ) throws Exception
+		{
+			for( int attempt = 0; ; attempt++ )
+			{
+				try
+				{
+					sink.writeBatch( keys, values, count );
+					return;
+				}
+				catch( Exception e )
+				{
+					if( attempt >= _maxRetries )
+						throw e;
+					long backoffMsecs = 100L << attempt;
+					System.out.println( "[LOADER] Worker " + this._workerId + " batch at key " + keys[0] + " failed (" + e + "), retrying in " + backoffMsecs + " msecs" );
+					Thread.sleep( backoffMsecs );
+				}
+			}
+		}
+	}
+}
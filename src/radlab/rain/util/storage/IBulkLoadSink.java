@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain.util.storage;
+
+/**
+ * Where a BulkLoader worker writes its batches, e.g. a Redis pipeline, a
+ * list of HBase Puts or a Mongo multi-document insert. Each worker gets its
+ * own sink, so sinks don't have to be thread-safe.
+ */
+public interface IBulkLoadSink 
+{
+	/**
+	 * Writes the first <i>count</i> keys and values using the store's native
+	 * batch API. Must not return until the store has acknowledged every
+	 * write (e.g. flush buffered puts), because the loader checkpoints past
+	 * the batch as soon as this returns. Throw to have the batch retried.
+	 * 
+	 * @param keys      Raw keys; the sink encodes them the way its workload does.
+	 * @param values    Values, one per key. Arrays may be shared, never write to them.
+	 * @param count     Number of entries in use.
+	 */
+	void writeBatch( long[] keys, byte[][] values, int count ) throws Exception;
+	
+	void close() throws Exception;
+}
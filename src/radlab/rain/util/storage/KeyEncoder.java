@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain.util.storage;
+
+import java.nio.ByteBuffer;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import radlab.rain.util.RandomStreams;
+
+/**
+ * Encodes integral keys as fixed-width, zero-padded decimal ASCII (optionally
+ * hashed and/or prefixed) without going through DecimalFormat or String.<br />
+ * <br />
+ * Encoders are immutable and safe to share between threads. Each thread gets
+ * its own scratch buffers, so <code>encode( key )</code> (a ByteBuffer) and
+ * <code>toScratchBytes( key )</code> (an exactly sized byte[]) allocate
+ * nothing; what they return is only valid until the same thread encodes its
+ * next key.
+ * Use <code>toBytes()</code> when the client keeps a reference to the key
+ * (e.g. an HBase Put sitting in the write buffer, or an operation that may
+ * run asynchronously), and <code>toString()</code> for clients that only take
+ * String keys.<br />
+ * <br />
+ * Output matches <code>new DecimalFormat( "000...0" ).format( key )</code>
+ * with <i>width</i> zeros: keys needing more digits than the width are
+ * written in full and negative keys get a leading '-'. A width of 0 gives
+ * the same keys as <code>String.valueOf( key )</code>.
+ */
+public class KeyEncoder 
+{
+	/** The "000000000" key format used by the HBase and Cassandra workloads. */
+	public static final int DEFAULT_WIDTH = 9;
+	
+	/** Longest decimal representation of an unsigned 64-bit value. */
+	private static final int MAX_DIGITS = 20;
+	
+	private final int _width;
+	private final byte[] _prefix;
+	private final boolean _hashed;
+	private final int _maxLength;
+	
+	private final ThreadLocal<ByteBuffer> _scratch = new ThreadLocal<ByteBuffer>()
+	{
+		@Override
+		protected ByteBuffer initialValue()
+		{
+			return ByteBuffer.wrap( new byte[_maxLength] );
+		}
+	};
+	
+	// Per-thread arrays of exactly the encoded length (indexed by length), for
+	// clients that take a whole byte[] rather than an offset and length
+	private final ThreadLocal<byte[][]> _scratchExact = new ThreadLocal<byte[][]>()
+	{
+		@Override
+		protected byte[][] initialValue()
+		{
+			return new byte[_maxLength + 1][];
+		}
+	};
+	
+	private final ThreadLocal<char[]> _scratchChars = new ThreadLocal<char[]>()
+	{
+		@Override
+		protected char[] initialValue()
+		{
+			return new char[_maxLength];
+		}
+	};
+	
+	public KeyEncoder( int width )
+	{
+		this( width, "", false );
+	}
+	
+	public KeyEncoder( int width, String prefix )
+	{
+		this( width, prefix, false );
+	}
+	
+	/**
+	 * @param width     Minimum number of digits; shorter keys are zero-padded.
+	 * @param prefix    ASCII prefix written before the digits (may be empty).
+	 * @param hashed    If true, keys are scrambled with a 64-bit bijective mix
+	 *                  before encoding (unsigned), which spreads sequential
+	 *                  keys across the key space without ever colliding.
+	 */
+	public KeyEncoder( int width, String prefix, boolean hashed )
+	{
+		if( width < 0 || width > MAX_DIGITS )
+			throw new IllegalArgumentException( "Key width must be between 0 and " + MAX_DIGITS + ": " + width );
+		
+		this._width = width;
+		this._prefix = new byte[prefix == null ? 0 : prefix.length()];
+		for( int i = 0; i < this._prefix.length; i++ )
+		{
+			char c = prefix.charAt( i );
+			if( c > 0x7F )
+				throw new IllegalArgumentException( "Key prefix must be ASCII: " + prefix );
+			this._prefix[i] = (byte) c;
+		}
+		this._hashed = hashed;
+		// Prefix, optional sign, digits
+		this._maxLength = this._prefix.length + 1 + MAX_DIGITS;
+	}
+	
+	public int getWidth() { return this._width; }
+	public boolean isHashed() { return this._hashed; }
+	/** Upper bound on the encoded length of any key. */
+	public int getMaxLength() { return this._maxLength; }
+	
+	/**
+	 * Writes the encoded key into dest starting at offset.
+	 * 
+	 * @return  The number of bytes written.
+	 */
+	public int encode( long key, byte[] dest, int offset )
+	{
+		int pos = offset;
+		for( int i = 0; i < this._prefix.length; i++ )
+			dest[pos++] = this._prefix[i];
+		
+		if( this._hashed )
+			return ( pos - offset ) + writeUnsigned( RandomStreams.mix64( key ), this._width, dest, pos );
+		
+		// Work with the negated magnitude so Long.MIN_VALUE needs no special case
+		long negative = key;
+		if( key < 0 )
+			dest[pos++] = '-';
+		else negative = -key;
+		
+		int digits = 1;
+		for( long q = negative / 10; q != 0; q /= 10 )
+			digits++;
+		
+		for( int i = digits; i < this._width; i++ )
+			dest[pos++] = '0';
+		
+		int end = pos + digits;
+		for( int i = end - 1; i >= pos; i-- )
+		{
+			long q = negative / 10;
+			dest[i] = (byte) ( '0' + ( q * 10 - negative ) );
+			negative = q;
+		}
+		return end - offset;
+	}
+	
+	/**
+	 * Encodes the key into this thread's scratch buffer.
+	 * 
+	 * @return  The scratch buffer with position 0 and limit at the end of the
+	 *          key. Valid until this thread's next call to encode().
+	 */
+	public ByteBuffer encode( long key )
+	{
+		ByteBuffer buffer = this._scratch.get();
+		int length = this.encode( key, buffer.array(), 0 );
+		buffer.clear();
+		buffer.limit( length );
+		return buffer;
+	}
+	
+	/**
+	 * Encodes the key into a per-thread array of exactly the key's length.
+	 * Since keys are fixed-width this is normally the same array on every
+	 * call, so it suits synchronous client calls that take a plain byte[]
+	 * key. Valid until this thread's next call to toScratchBytes().
+	 */
+	public byte[] toScratchBytes( long key )
+	{
+		ByteBuffer buffer = this.encode( key );
+		int length = buffer.limit();
+		byte[][] arrays = this._scratchExact.get();
+		byte[] bytes = arrays[length];
+		if( bytes == null )
+		{
+			bytes = new byte[length];
+			arrays[length] = bytes;
+		}
+		System.arraycopy( buffer.array(), 0, bytes, 0, length );
+		return bytes;
+	}
+	
+	/** Returns the encoded key in a new, exactly sized array the caller owns. */
+	public byte[] toBytes( long key )
+	{
+		ByteBuffer buffer = this.encode( key );
+		byte[] bytes = new byte[buffer.limit()];
+		System.arraycopy( buffer.array(), 0, bytes, 0, bytes.length );
+		return bytes;
+	}
+	
+	/** Returns the encoded key as a String (one allocation, no formatting). */
+	public String toString( long key )
+	{
+		ByteBuffer buffer = this.encode( key );
+		byte[] bytes = buffer.array();
+		int length = buffer.limit();
+		char[] chars = this._scratchChars.get();
+		for( int i = 0; i < length; i++ )
+			chars[i] = (char) bytes[i];
+		return new String( chars, 0, length );
+	}
+	
+	private static int writeUnsigned( long value, int width, byte[] dest, int offset )
+	{
+		// Split off the last digit with unsigned arithmetic, then the rest is non-negative
+		long high = ( value >>> 1 ) / 5;
+		int low = (int) ( value - high * 10 );
+		
+		int digits = 1;
+		for( long q = high; q != 0; q /= 10 )
+			digits++;
+		
+		int pos = offset;
+		for( int i = digits; i < width; i++ )
+			dest[pos++] = '0';
+		
+		int end = pos + digits;
+		dest[end - 1] = (byte) ( '0' + low );
+		for( int i = end - 2; i >= pos; i-- )
+		{
+			dest[i] = (byte) ( '0' + ( high % 10 ) );
+			high /= 10;
+		}
+		return end - offset;
+	}
+	
+	/**
+	 * Compares a shared DecimalFormat (synchronized, since it isn't
+	 * thread-safe), per-thread DecimalFormats and KeyEncoder under contention.
+	 * Usage: KeyEncoder [threads] [keysPerThread]
+	 */
+	public static void main( String[] args ) throws Exception
+	{
+		int threads = 8;
+		int keys = 2000000;
+		if( args.length > 0 )
+			threads = Integer.parseInt( args[0] );
+		if( args.length > 1 )
+			keys = Integer.parseInt( args[1] );
+		
+		final KeyEncoder encoder = new KeyEncoder( DEFAULT_WIDTH );
+		final NumberFormat shared = new DecimalFormat( "000000000" );
+		
+		for( int round = 0; round < 2; round++ )
+		{
+			// The first round is warm-up. Each run adds up what it encoded so
+			// the work can't be optimized away; the sums are printed below.
+			AtomicLong sharedSum = new AtomicLong();
+			AtomicLong perThreadSum = new AtomicLong();
+			AtomicLong stringSum = new AtomicLong();
+			AtomicLong scratchSum = new AtomicLong();
+			long sharedNanos = run( threads, keys, sharedSum, new KeyTask()
+			{
+				public long encode( long key ) 
+				{
+					synchronized( shared )
+					{
+						return shared.format( key ).getBytes().length;
+					}
+				}
+			} );
+			long perThreadNanos = run( threads, keys, perThreadSum, new KeyTask()
+			{
+				private final ThreadLocal<NumberFormat> formats = new ThreadLocal<NumberFormat>()
+				{
+					@Override
+					protected NumberFormat initialValue() { return new DecimalFormat( "000000000" ); }
+				};
+				public long encode( long key ) { return this.formats.get().format( key ).getBytes().length; }
+			} );
+			long stringNanos = run( threads, keys, stringSum, new KeyTask()
+			{
+				public long encode( long key ) { return encoder.toString( key ).length(); }
+			} );
+			long scratchNanos = run( threads, keys, scratchSum, new KeyTask()
+			{
+				public long encode( long key ) { return encoder.encode( key ).limit(); }
+			} );
+			
+			if( round == 0 )
+				continue;
+			
+			double total = (double) threads * keys;
+			System.out.println( "Threads: " + threads + " keys/thread: " + keys );
+			System.out.println( "Shared DecimalFormat (synchronized) : " + rate( total, sharedNanos ) + " keys/sec (checksum " + sharedSum.get() + ")" );
+			System.out.println( "Per-thread DecimalFormat            : " + rate( total, perThreadNanos ) + " keys/sec (checksum " + perThreadSum.get() + ")" );
+			System.out.println( "KeyEncoder.toString()               : " + rate( total, stringNanos ) + " keys/sec (checksum " + stringSum.get() + ")" );
+			System.out.println( "KeyEncoder.encode() (scratch)       : " + rate( total, scratchNanos ) + " keys/sec (checksum " + scratchSum.get() + ")" );
+		}
+	}
+	
+	private interface KeyTask
+	{
+		long encode( long key );
+	}
+	
+	private static long rate( double total, long nanos )
+	{
+		return (long) ( total / ( nanos / 1e9 ) );
+	}
+	
+	private static long run( int threads, final int keys, final AtomicLong checksum, final KeyTask task ) throws InterruptedException
+	{
+		final CountDownLatch start = new CountDownLatch( 1 );
+		final CountDownLatch done = new CountDownLatch( threads );
+		for( int t = 0; t < threads; t++ )
+		{
+			final long base = (long) t * keys;
+			Thread thread = new Thread()
+			{
+				public void run()
+				{
+					long sum = 0;
+					try
+					{
+						start.await();
+						for( int i = 0; i < keys; i++ )
+							sum += task.encode( base + i );
+					}
+					catch( InterruptedException ie )
+					{}
+					checksum.addAndGet( sum );
+					done.countDown();
+				}
+			};
+			thread.setDaemon( true );
+			thread.start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		return System.nanoTime() - begin;
+	}
+}
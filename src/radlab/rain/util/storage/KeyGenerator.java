@@ -32,6 +32,7 @@
 package radlab.rain.util.storage;
 
 import java.lang.reflect.Constructor;
+import java.util.Random;
 
 import org.json.JSONObject;
 
@@ -74,6 +75,21 @@ public abstract class KeyGenerator
 	 */
 	public abstract int generateKey();
 	
+	/**
+	 * Generates a key using the caller's random stream instead of the
+	 * generator's own. Key generators are shared by every user of a load
+	 * profile, so this lets each user draw from its own (reproducible,
+	 * uncontended) stream. Generators that can't do that fall back to
+	 * generateKey().
+	 * 
+	 * @param rng   The random stream to draw from.
+	 * @return  An integral key.
+	 */
+	public int generateKey( Random rng )
+	{
+		return this.generateKey();
+	}
+	
 	/**
 	 * Returns the name of this generator.
 	 * 
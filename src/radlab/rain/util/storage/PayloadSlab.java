@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain.util.storage;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import radlab.rain.util.XoshiroRandom;
+
+/**
+ * A large, pre-generated, read-only block of payload bytes that writes draw
+ * their values from, so the driver doesn't pay for a fresh array plus a
+ * Random.nextBytes() call (one RNG step per 4 bytes) on every operation.<br />
+ * <br />
+ * Compressibility is controlled per 4K block: the first (1 - c) of each block
+ * is random and the rest is zeros, so block-compressing stores see roughly a
+ * fraction c of savings. A compressibility of 0 gives incompressible data,
+ * which is what the workloads generated before.<br />
+ * <br />
+ * There are three ways to get a value, from cheapest to most "honest":
+ * <ul>
+ * <li><code>nextView()</code>: a zero-copy ByteBuffer over a random window of
+ * the slab, for clients that can send from a buffer/stream (e.g. S3).</li>
+ * <li><code>sharedValue()</code>: one of a small pool of pre-cut arrays of the
+ * requested size; nothing is allocated, but values repeat.</li>
+ * <li><code>nextValue()</code>: a fresh array copied from a random window of
+ * the slab; allocates, but the copy runs at memcpy speed and values stay
+ * distinct.</li>
+ * </ul>
+ * Views and shared arrays are handed to many operations at once, so callers
+ * must never write to them. Slabs are thread-safe.
+ */
+public class PayloadSlab 
+{
+	public static String CFG_PAYLOAD_COMPRESSIBILITY_KEY	= "payloadCompressibility";
+	public static String CFG_SHARED_PAYLOADS_KEY			= "sharedPayloads";
+	
+	public static final int DEFAULT_SLAB_SIZE				= 8 * 1024 * 1024;
+	public static final int BLOCK_SIZE						= 4096;
+	/** Number of distinct arrays kept per size by sharedValue(). */
+	public static final int VARIANTS_PER_SIZE				= 16;
+	/** Upper bound on the bytes held by sharedValue()'s pools. */
+	public static final long DEFAULT_VARIANT_BUDGET			= 64L * 1024 * 1024;
+	
+	private static final long SLAB_SEED						= 0x5241494E;
+	
+	// One slab per compressibility, shared by every generator and loader in the JVM
+	private static HashMap<Double,PayloadSlab> _sharedSlabs = new HashMap<Double,PayloadSlab>();
+	
+	private final byte[] _slab;
+	private final double _compressibility;
+	private final ConcurrentHashMap<Integer,byte[][]> _variants = new ConcurrentHashMap<Integer,byte[][]>();
+	private final AtomicLong _variantBudget;
+	
+	public PayloadSlab( int size, double compressibility )
+	{
+		this( size, compressibility, DEFAULT_VARIANT_BUDGET );
+	}
+	
+	public PayloadSlab( int size, double compressibility, long variantBudget )
+	{
+		if( compressibility < 0.0 || compressibility > 1.0 )
+			throw new IllegalArgumentException( "Invalid payload compressibility: " + compressibility + " expected a value between 0 and 1" );
+		
+		this._slab = new byte[size];
+		this._compressibility = compressibility;
+		this._variantBudget = new AtomicLong( variantBudget );
+		
+		Random random = new XoshiroRandom( SLAB_SEED );
+		int randomBytesPerBlock = (int) Math.round( BLOCK_SIZE * ( 1.0 - compressibility ) );
+		byte[] block = new byte[BLOCK_SIZE];
+		for( int offset = 0; offset < size; offset += BLOCK_SIZE )
+		{
+			int length = Math.min( BLOCK_SIZE, size - offset );
+			random.nextBytes( block );
+			System.arraycopy( block, 0, this._slab, offset, Math.min( length, randomBytesPerBlock ) );
+		}
+	}
+	
+	/**
+	 * Returns the JVM-wide slab with the given compressibility, creating it
+	 * on first use.
+	 */
+	public static synchronized PayloadSlab getSharedSlab( double compressibility )
+	{
+		PayloadSlab slab = _sharedSlabs.get( compressibility );
+		if( slab == null )
+		{
+			slab = new PayloadSlab( DEFAULT_SLAB_SIZE, compressibility );
+			_sharedSlabs.put( compressibility, slab );
+		}
+		return slab;
+	}
+	
+	/** Returns the shared incompressible slab. */
+	public static PayloadSlab getSharedSlab()
+	{
+		return getSharedSlab( 0.0 );
+	}
+	
+	/**
+	 * Returns the shared slab for a generator's configuration, i.e. the
+	 * optional <code>payloadCompressibility</code> setting.
+	 */
+	public static PayloadSlab getSharedSlab( JSONObject config ) throws JSONException
+	{
+		if( config.has( CFG_PAYLOAD_COMPRESSIBILITY_KEY ) )
+		{
+			double compressibility = config.getDouble( CFG_PAYLOAD_COMPRESSIBILITY_KEY );
+			if( compressibility < 0.0 || compressibility > 1.0 )
+				throw new JSONException( "Invalid payload compressibility: " + compressibility + " expected a value between 0 and 1" );
+			return getSharedSlab( compressibility );
+		}
+		return getSharedSlab();
+	}
+	
+	public int getSize() { return this._slab.length; }
+	public double getCompressibility() { return this._compressibility; }
+	
+	/**
+	 * Returns a zero-copy view of <i>size</i> bytes at a random offset. The
+	 * view shares the slab's backing array (so stream-based clients can send
+	 * straight from it) and must not be written to. Values larger than the
+	 * slab are copied into a new buffer.
+	 */
+	public ByteBuffer nextView( Random rng, int size )
+	{
+		if( size > this._slab.length )
+			return ByteBuffer.wrap( this.nextValue( rng, size ) );
+		
+		int offset = this.nextOffset( rng, size );
+		return ByteBuffer.wrap( this._slab, offset, size ).slice();
+	}
+	
+	/**
+	 * Returns a new array holding <i>size</i> bytes copied from a random
+	 * offset in the slab.
+	 */
+	public byte[] nextValue( Random rng, int size )
+	{
+		byte[] value = new byte[size];
+		this.fill( rng, value, 0, size );
+		return value;
+	}
+	
+	/**
+	 * Returns one of up to VARIANTS_PER_SIZE pre-cut arrays of exactly
+	 * <i>size</i> bytes. Nothing is allocated once a size has been seen, but
+	 * the same contents come back repeatedly, which a deduplicating or
+	 * compressing store may notice. Falls back to nextValue() once the
+	 * variant budget is used up.
+	 */
+	public byte[] sharedValue( Random rng, int size )
+	{
+		byte[][] variants = this._variants.get( size );
+		if( variants == null )
+		{
+			variants = this.createVariants( size );
+			if( variants == null )
+				return this.nextValue( rng, size );
+		}
+		return variants[rng.nextInt( variants.length )];
+	}
+	
+	/**
+	 * Copies <i>length</i> bytes from a random offset in the slab into
+	 * <i>dest</i>, wrapping around the end of the slab if need be.
+	 */
+	public void fill( Random rng, byte[] dest, int offset, int length )
+	{
+		int source = this.nextOffset( rng, Math.min( length, this._slab.length ) );
+		while( length > 0 )
+		{
+			int chunk = Math.min( length, this._slab.length - source );
+			System.arraycopy( this._slab, source, dest, offset, chunk );
+			offset += chunk;
+			length -= chunk;
+			source = 0;
+		}
+	}
+	
+	private int nextOffset( Random rng, int size )
+	{
+		return rng.nextInt( this._slab.length - size + 1 );
+	}
+	
+	private byte[][] createVariants( int size )
+	{
+		// Claim the bytes up front; racing threads that both miss may each build a pool, but only one is kept
+		long remaining = this._variantBudget.get();
+		int count = (int) Math.min( VARIANTS_PER_SIZE, remaining / Math.max( size, 1 ) );
+		if( count < 1 || !this._variantBudget.compareAndSet( remaining, remaining - ( (long) count * size ) ) )
+			return null;
+		
+		Random random = new XoshiroRandom( SLAB_SEED + size );
+		byte[][] variants = new byte[count][];
+		for( int i = 0; i < count; i++ )
+			variants[i] = this.nextValue( random, size );
+		
+		byte[][] existing = this._variants.putIfAbsent( size, variants );
+		if( existing != null )
+		{
+			this._variantBudget.addAndGet( (long) count * size );
+			return existing;
+		}
+		return variants;
+	}
+	
+	// Quick check of what a write costs the driver: fresh random bytes vs. the slab
+	public static void main( String[] args ) throws Exception
+	{
+		int[] sizes = new int[]{ 1024, 4096, 65536, 1048576, 8388608 };
+		long bytesPerRun = 512L * 1024 * 1024;
+		PayloadSlab slab = PayloadSlab.getSharedSlab();
+		Random random = new XoshiroRandom( 1 );
+		long sink = 0;
+		
+		for( int pass = 0; pass < 2; pass++ )
+		{
+			for( int size : sizes )
+			{
+				int iterations = (int) ( bytesPerRun / size );
+				
+				long start = System.nanoTime();
+				for( int i = 0; i < iterations; i++ )
+				{
+					byte[] value = new byte[size];
+					random.nextBytes( value );
+					sink += value[size - 1];
+				}
+				long randomNanos = System.nanoTime() - start;
+				
+				start = System.nanoTime();
+				for( int i = 0; i < iterations; i++ )
+					sink += slab.nextValue( random, size )[size - 1];
+				long copyNanos = System.nanoTime() - start;
+				
+				start = System.nanoTime();
+				for( int i = 0; i < iterations; i++ )
+					sink += slab.sharedValue( random, size )[size - 1];
+				long sharedNanos = System.nanoTime() - start;
+				
+				start = System.nanoTime();
+				for( int i = 0; i < iterations; i++ )
+					sink += slab.nextView( random, size ).get( size - 1 );
+				long viewNanos = System.nanoTime() - start;
+				
+				if( pass == 0 )
+					continue; // warm-up
+				
+				System.out.println( "[PAYLOAD] size " + size + " values/s - nextBytes: " + rate( iterations, randomNanos ) 
+						+ " copy: " + rate( iterations, copyNanos ) + " shared: " + rate( iterations, sharedNanos ) + " view: " + rate( iterations, viewNanos ) );
+			}
+		}
+		System.out.println( "[PAYLOAD] (ignore) " + sink );
+	}
+	
+	private static long rate( int iterations, long nanos )
+	{
+		return (long) ( iterations / ( nanos / 1e9 ) );
+	}
+}
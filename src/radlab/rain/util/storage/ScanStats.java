@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain.util.storage;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Row-level stats for operations that return many rows (multi-gets and
+ * scans), which the scoreboard's per-operation latency can't show: rows/sec
+ * while rows are flowing and the time to the first row. Operations fill in
+ * a <code>Tally</code> as rows arrive (without keeping them) and
+ * <code>record()</code> it when they finish.<br />
+ * <br />
+ * Stats are shared JVM-wide by name, so all generators of a track add to
+ * the same counters. Each generator that uses a set retains it and releases
+ * it when disposed; the last release prints the summary and resets it for
+ * the next run. Stats are thread-safe; tallies belong to one operation.
+ */
+public class ScanStats 
+{
+	private static HashMap<String,ScanStats> _sharedStats = new HashMap<String,ScanStats>();
+	
+	private final String _name;
+	private int _users = 0;
+	private final AtomicLong _operations		= new AtomicLong();
+	private final AtomicLong _emptyOperations	= new AtomicLong();
+	private final AtomicLong _rows				= new AtomicLong();
+	private final AtomicLong _bytes				= new AtomicLong();
+	private final AtomicLong _totalNanos		= new AtomicLong();
+	private final AtomicLong _firstRowNanos		= new AtomicLong();
+	private final AtomicLong _maxFirstRowNanos	= new AtomicLong();
+	
+	/**
+	 * Rows seen by one operation. The clock starts at <code>start()</code>;
+	 * the first <code>row()</code> stops the time-to-first-row clock.
+	 */
+	public static class Tally
+	{
+		private long _startNanos		= 0;
+		private long _firstRowNanos		= -1;
+		private long _rows				= 0;
+		private long _bytes				= 0;
+		
+		public void start()
+		{
+			this._startNanos = System.nanoTime();
+			this._firstRowNanos = -1;
+			this._rows = 0;
+			this._bytes = 0;
+		}
+		
+		public void row( int size )
+		{
+			if( this._rows == 0 )
+				this._firstRowNanos = System.nanoTime() - this._startNanos;
+			this._rows++;
+			this._bytes += size;
+		}
+		
+		public long getStartNanos() { return this._startNanos; }
+		/** Nanoseconds from start() to the first row, or -1 if no rows came back. */
+		public long getFirstRowNanos() { return this._firstRowNanos; }
+		public long getRows() { return this._rows; }
+		public long getBytes() { return this._bytes; }
+	}
+	
+	public ScanStats( String name )
+	{
+		this._name = name;
+	}
+	
+	/**
+	 * Returns the JVM-wide stats with the given name, creating them on first
+	 * use, and counts the caller as a user until it calls release().
+	 */
+	public static synchronized ScanStats retain( String name )
+	{
+		ScanStats stats = _sharedStats.get( name );
+		if( stats == null )
+		{
+			stats = new ScanStats( name );
+			_sharedStats.put( name, stats );
+		}
+		stats._users++;
+		return stats;
+	}
+	
+	/**
+	 * Drops one user; the last one prints the summary (if anything was
+	 * recorded) and resets the counters.
+	 */
+	public void release()
+	{
+		synchronized( ScanStats.class )
+		{
+			if( --this._users > 0 )
+				return;
+			this._users = 0;
+		}
+		if( this.getOperations() > 0 )
+			System.out.println( this.toString() );
+		this.reset();
+	}
+	
+	/** Adds a finished operation; its elapsed time runs from the tally's start() until now. */
+	public void record( Tally tally )
+	{
+		this.record( tally.getRows(), tally.getBytes(), tally.getFirstRowNanos(), System.nanoTime() - tally.getStartNanos() );
+	}
+	
+	public void record( long rows, long bytes, long firstRowNanos, long totalNanos )
+	{
+		this._operations.incrementAndGet();
+		this._totalNanos.addAndGet( totalNanos );
+		if( rows == 0 )
+		{
+			this._emptyOperations.incrementAndGet();
+			return;
+		}
+		
+		this._rows.addAndGet( rows );
+		this._bytes.addAndGet( bytes );
+		this._firstRowNanos.addAndGet( firstRowNanos );
+		long max = this._maxFirstRowNanos.get();
+		while( firstRowNanos > max && !this._maxFirstRowNanos.compareAndSet( max, firstRowNanos ) )
+			max = this._maxFirstRowNanos.get();
+	}
+	
+	public void reset()
+	{
+		this._operations.set( 0 );
+		this._emptyOperations.set( 0 );
+		this._rows.set( 0 );
+		this._bytes.set( 0 );
+		this._totalNanos.set( 0 );
+		this._firstRowNanos.set( 0 );
+		this._maxFirstRowNanos.set( 0 );
+	}
+	
+	public String getName() { return this._name; }
+	public long getOperations() { return this._operations.get(); }
+	public long getEmptyOperations() { return this._emptyOperations.get(); }
+	public long getRows() { return this._rows.get(); }
+	public long getBytes() { return this._bytes.get(); }
+	
+	/** Rows per second of operation time, i.e. how fast a single operation streams rows. */
+	public double getRowsPerSecond()
+	{
+		long nanos = this._totalNanos.get();
+		return ( nanos > 0 ) ? this._rows.get() / ( nanos / 1e9 ) : 0.0;
+	}
+	
+	public double getAverageRowsPerOperation()
+	{
+		long operations = this._operations.get();
+		return ( operations > 0 ) ? this._rows.get() / (double) operations : 0.0;
+	}
+	
+	/** Mean time to the first row in milliseconds, over operations that returned rows. */
+	public double getAverageFirstRowMillis()
+	{
+		long operations = this._operations.get() - this._emptyOperations.get();
+		return ( operations > 0 ) ? ( this._firstRowNanos.get() / (double) operations ) / 1e6 : 0.0;
+	}
+	
+	public double getMaxFirstRowMillis() { return this._maxFirstRowNanos.get() / 1e6; }
+	
+	public String toString()
+	{
+		return String.format( "[SCAN STATS] %s: %d ops (%d empty), %d rows (%.1f rows/op), %.1f rows/sec, %.2f MB, time to first row avg %.3f ms max %.3f ms",
+				this._name, this.getOperations(), this.getEmptyOperations(), this.getRows(), this.getAverageRowsPerOperation(), 
+				this.getRowsPerSecond(), this.getBytes() / ( 1024.0 * 1024.0 ), this.getAverageFirstRowMillis(), this.getMaxFirstRowMillis() );
+	}
+}
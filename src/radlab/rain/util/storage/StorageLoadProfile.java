@@ -25,6 +25,7 @@ public class StorageLoadProfile extends LoadProfile
 	public static String CFG_HOT_TRAFFIC_FRACTION_KEY				= "hotTrafficFraction";
 	
 	public static String CFG_LOAD_PROFILE_REQUEST_SIZE_KEY			= "size";
+	public static String CFG_LOAD_PROFILE_VALUE_SIZE_KEY			= "valueSize";
 	public static String CFG_LOAD_PROFILE_READ_PCT_KEY				= "readPct";
 	public static String CFG_LOAD_PROFILE_WRITE_PCT_KEY				= "writePct";
 	public static String CFG_LOAD_PROFILE_UPDATE_PCT_KEY			= "updatePct";
@@ -42,6 +43,8 @@ public class StorageLoadProfile extends LoadProfile
 	// will be equally popular, later we'll let some be more popular than others
 	
 	protected int _size					= 4096;
+	// Optional, if not given every write uses _size bytes
+	protected ValueSizeDistribution _valueSizes	= null;
 	protected double _readPct 			= 0.9;
 	protected double _writePct 			= 0.1;
 	protected double _updatePct 		= 0.0;
@@ -51,7 +54,13 @@ public class StorageLoadProfile extends LoadProfile
 	{
 		super(profileObj);
 		
-		this._size = profileObj.getInt( CFG_LOAD_PROFILE_REQUEST_SIZE_KEY );
+		// Either a fixed size or a value size distribution must be given
+		if( profileObj.has( CFG_LOAD_PROFILE_VALUE_SIZE_KEY ) )
+		{
+			this._valueSizes = ValueSizeDistribution.fromConfig( profileObj.getJSONObject( CFG_LOAD_PROFILE_VALUE_SIZE_KEY ) );
+			this._size = profileObj.optInt( CFG_LOAD_PROFILE_REQUEST_SIZE_KEY, this._valueSizes.getMaxSize() );
+		}
+		else this._size = profileObj.getInt( CFG_LOAD_PROFILE_REQUEST_SIZE_KEY );
 		// Read and write must be specified (even if 0)
 		this._readPct = profileObj.getDouble( CFG_LOAD_PROFILE_READ_PCT_KEY );
 		this._writePct = profileObj.getDouble( CFG_LOAD_PROFILE_WRITE_PCT_KEY );
@@ -167,6 +176,23 @@ public class StorageLoadProfile extends LoadProfile
 	public int getSize() { return this._size; }
 	public void setSize( int value ) { this._size = value; };
 	
+	public ValueSizeDistribution getValueSizeDistribution() { return this._valueSizes; }
+	public void setValueSizeDistribution( ValueSizeDistribution value ) { this._valueSizes = value; }
+	
+	/**
+	 * Picks the size of the next value to write: a draw from the value size
+	 * distribution if the profile has one, the fixed size otherwise.
+	 * 
+	 * @param rng   The (per-user) random stream to draw from.
+	 * @return  The value size in bytes.
+	 */
+	public int nextSize( Random rng )
+	{
+		if( this._valueSizes == null )
+			return this._size;
+		return this._valueSizes.nextSize( rng );
+	}
+	
 	public double getReadPct() { return this._readPct; }
 	public void setReadPct( double value ) { this._readPct = value; }
 	
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain.util.storage;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput stats for operations that move whole objects, possibly split
+ * into parts sent or fetched concurrently: per-object MB/s (the rate one
+ * operation achieved, which is what parallel transfers try to raise) and
+ * per-part latency. The scoreboard's response times only show the whole
+ * operation.<br />
+ * <br />
+ * Like <code>ScanStats</code>, stats are shared JVM-wide by name; each
+ * generator retains them and the last one to release them prints the
+ * summary and resets them. Stats are thread-safe, so the threads moving the
+ * parts of an object can record into them directly.
+ */
+public class TransferStats 
+{
+	private static HashMap<String,TransferStats> _sharedStats = new HashMap<String,TransferStats>();
+	
+	private final String _name;
+	private int _users = 0;
+	private final AtomicLong _objects			= new AtomicLong();
+	private final AtomicLong _bytes				= new AtomicLong();
+	private final AtomicLong _objectNanos		= new AtomicLong();
+	// Sum of each object's MB/s in millionths, so the average weighs objects equally
+	private final AtomicLong _objectRateMicros	= new AtomicLong();
+	private final AtomicLong _maxObjectRateMicros = new AtomicLong();
+	private final AtomicLong _parts				= new AtomicLong();
+	private final AtomicLong _partNanos			= new AtomicLong();
+	private final AtomicLong _maxPartNanos		= new AtomicLong();
+	
+	public TransferStats( String name )
+	{
+		this._name = name;
+	}
+	
+	/**
+	 * Returns the JVM-wide stats with the given name, creating them on first
+	 * use, and counts the caller as a user until it calls release().
+	 */
+	public static synchronized TransferStats retain( String name )
+	{
+		TransferStats stats = _sharedStats.get( name );
+		if( stats == null )
+		{
+			stats = new TransferStats( name );
+			_sharedStats.put( name, stats );
+		}
+		stats._users++;
+		return stats;
+	}
+	
+	/**
+	 * Drops one user; the last one prints the summary (if anything was
+	 * recorded) and resets the counters.
+	 */
+	public void release()
+	{
+		synchronized( TransferStats.class )
+		{
+			if( --this._users > 0 )
+				return;
+			this._users = 0;
+		}
+		if( this.getObjects() > 0 )
+			System.out.println( this.toString() );
+		this.reset();
+	}
+	
+	/** Adds a whole object that took nanos to move. */
+	public void recordObject( long bytes, long nanos )
+	{
+		this._objects.incrementAndGet();
+		this._bytes.addAndGet( bytes );
+		this._objectNanos.addAndGet( nanos );
+		
+		long rateMicros = ( nanos > 0 ) ? (long) ( megabytesPerSecond( bytes, nanos ) * 1e6 ) : 0;
+		this._objectRateMicros.addAndGet( rateMicros );
+		updateMax( this._maxObjectRateMicros, rateMicros );
+	}
+	
+	/** Adds one part (range) of an object that took nanos to move. */
+	public void recordPart( long nanos )
+	{
+		this._parts.incrementAndGet();
+		this._partNanos.addAndGet( nanos );
+		updateMax( this._maxPartNanos, nanos );
+	}
+	
+	private static void updateMax( AtomicLong max, long value )
+	{
+		long current = max.get();
+		while( value > current && !max.compareAndSet( current, value ) )
+			current = max.get();
+	}
+	
+	public static double megabytesPerSecond( long bytes, long nanos )
+	{
+		return ( bytes / ( 1024.0 * 1024.0 ) ) / ( nanos / 1e9 );
+	}
+	
+	public void reset()
+	{
+		this._objects.set( 0 );
+		this._bytes.set( 0 );
+		this._objectNanos.set( 0 );
+		this._objectRateMicros.set( 0 );
+		this._maxObjectRateMicros.set( 0 );
+		this._parts.set( 0 );
+		this._partNanos.set( 0 );
+		this._maxPartNanos.set( 0 );
+	}
+	
+	public String getName() { return this._name; }
+	public long getObjects() { return this._objects.get(); }
+	public long getBytes() { return this._bytes.get(); }
+	public long getParts() { return this._parts.get(); }
+	
+	/** Mean of the per-object transfer rates in MB/s. */
+	public double getAverageObjectMegabytesPerSecond()
+	{
+		long objects = this._objects.get();
+		return ( objects > 0 ) ? ( this._objectRateMicros.get() / 1e6 ) / objects : 0.0;
+	}
+	
+	public double getMaxObjectMegabytesPerSecond() { return this._maxObjectRateMicros.get() / 1e6; }
+	
+	/** Mean part latency in milliseconds. */
+	public double getAveragePartMillis()
+	{
+		long parts = this._parts.get();
+		return ( parts > 0 ) ? ( this._partNanos.get() / (double) parts ) / 1e6 : 0.0;
+	}
+	
+	public double getMaxPartMillis() { return this._maxPartNanos.get() / 1e6; }
+	
+	public String toString()
+	{
+		return String.format( "[TRANSFER STATS] %s: %d objects, %.2f MB, per-object MB/s avg %.2f max %.2f, %d parts, part latency avg %.3f ms max %.3f ms",
+				this._name, this.getObjects(), this.getBytes() / ( 1024.0 * 1024.0 ), this.getAverageObjectMegabytesPerSecond(), 
+				this.getMaxObjectMegabytesPerSecond(), this.getParts(), this.getAveragePartMillis(), this.getMaxPartMillis() );
+	}
+}
@@ -60,6 +60,12 @@ public class UniformKeyGenerator extends KeyGenerator
 	@Override
 	public int generateKey()
 	{
-		return random.nextInt( upperBound - lowerBound ) + lowerBound;
+		return this.generateKey( this.random );
+	}
+	
+	@Override
+	public int generateKey( Random rng )
+	{
+		return rng.nextInt( upperBound - lowerBound ) + lowerBound;
 	}
 }
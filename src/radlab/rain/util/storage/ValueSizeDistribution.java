@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain.util.storage;
+
+import java.util.Random;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import radlab.rain.util.ParetoBounded;
+
+/**
+ * Distribution of value (payload) sizes for a storage load profile. Sizes
+ * are either fixed, uniform over [minSize, maxSize] or bounded Pareto over
+ * [minSize, maxSize] with shape alpha, e.g.:<br />
+ * <br />
+ * <code>"valueSize": { "type": "pareto", "minSize": 1024, "maxSize": 1048576, "alpha": 1.2 }</code><br />
+ * <br />
+ * Distributions are immutable and shared by every user of a profile; each
+ * user samples with its own random stream.
+ */
+public class ValueSizeDistribution 
+{
+	public static final String CFG_TYPE_KEY				= "type";
+	public static final String CFG_SIZE_KEY				= "size";
+	public static final String CFG_MIN_SIZE_KEY			= "minSize";
+	public static final String CFG_MAX_SIZE_KEY			= "maxSize";
+	public static final String CFG_ALPHA_KEY			= "alpha";
+	
+	public static final String FIXED					= "fixed";
+	public static final String UNIFORM					= "uniform";
+	public static final String PARETO					= "pareto";
+	
+	private final String _type;
+	private final int _minSize;
+	private final int _maxSize;
+	private final ParetoBounded _pareto;
+	
+	private ValueSizeDistribution( String type, int minSize, int maxSize, double alpha )
+	{
+		this._type = type;
+		this._minSize = minSize;
+		this._maxSize = maxSize;
+		if( type.equals( PARETO ) )
+			this._pareto = new ParetoBounded( alpha, minSize, maxSize, null );
+		else this._pareto = null;
+	}
+	
+	public static ValueSizeDistribution fixed( int size )
+	{
+		return new ValueSizeDistribution( FIXED, size, size, 0.0 );
+	}
+	
+	public static ValueSizeDistribution uniform( int minSize, int maxSize )
+	{
+		return new ValueSizeDistribution( UNIFORM, minSize, maxSize, 0.0 );
+	}
+	
+	public static ValueSizeDistribution pareto( int minSize, int maxSize, double alpha )
+	{
+		return new ValueSizeDistribution( PARETO, minSize, maxSize, alpha );
+	}
+	
+	public static ValueSizeDistribution fromConfig( JSONObject config ) throws JSONException
+	{
+		String type = config.optString( CFG_TYPE_KEY, FIXED );
+		ValueSizeDistribution dist = null;
+		if( type.equalsIgnoreCase( FIXED ) )
+			dist = fixed( config.getInt( CFG_SIZE_KEY ) );
+		else if( type.equalsIgnoreCase( UNIFORM ) )
+			dist = uniform( config.getInt( CFG_MIN_SIZE_KEY ), config.getInt( CFG_MAX_SIZE_KEY ) );
+		else if( type.equalsIgnoreCase( PARETO ) )
+		{
+			double alpha = config.getDouble( CFG_ALPHA_KEY );
+			if( alpha <= 0.0 )
+				throw new JSONException( "Invalid Pareto shape: " + alpha + " expected a value > 0" );
+			dist = pareto( config.getInt( CFG_MIN_SIZE_KEY ), config.getInt( CFG_MAX_SIZE_KEY ), alpha );
+		}
+		else throw new JSONException( "Unknown value size distribution: " + type + " expected one of: " + FIXED + ", " + UNIFORM + ", " + PARETO );
+		
+		if( dist._minSize < 0 || dist._maxSize < dist._minSize )
+			throw new JSONException( "Invalid value size range: [" + dist._minSize + ", " + dist._maxSize + "]" );
+		if( dist._pareto != null && dist._minSize == 0 )
+			throw new JSONException( "Pareto value sizes need a " + CFG_MIN_SIZE_KEY + " > 0" );
+		return dist;
+	}
+	
+	/**
+	 * Draws the next value size in bytes.
+	 * 
+	 * @param rng   The (per-user) random stream to draw from.
+	 * @return  A size between getMinSize() and getMaxSize(), inclusive.
+	 */
+	public int nextSize( Random rng )
+	{
+		if( this._pareto != null )
+			return (int) Math.min( this._maxSize, Math.round( this._pareto.nextDouble( rng ) ) );
+		else if( this._maxSize == this._minSize )
+			return this._minSize;
+		else return this._minSize + rng.nextInt( this._maxSize - this._minSize + 1 );
+	}
+	
+	public String getType() { return this._type; }
+	public int getMinSize() { return this._minSize; }
+	public int getMaxSize() { return this._maxSize; }
+	
+	public String toString()
+	{
+		if( this._type.equals( FIXED ) )
+			return FIXED + "(" + this._minSize + ")";
+		return this._type + "[" + this._minSize + ", " + this._maxSize + "]";
+	}
+}
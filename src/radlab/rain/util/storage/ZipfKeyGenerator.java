@@ -37,6 +37,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import radlab.rain.util.Histogram;
+import radlab.rain.util.ZipfRejectionInversion;
 
 public class ZipfKeyGenerator extends KeyGenerator 
 {
@@ -44,12 +45,16 @@ public class ZipfKeyGenerator extends KeyGenerator
 	public static final String SAMPLING_METHOD_CONFIG_KEY = "zipf.method";
 	/** Value for the SAMPLING_METHOD_CONFIG_KEY used to specify the direct sampling method. */
 	public static final String DIRECT_SAMPLING_METHOD_CONFIG_VALUE = "direct";
-	/** Value for the SAMPLING_METHOD_CONFIG_KEY used to specify the rejection inversion sampling method. */
+	/** Value for the SAMPLING_METHOD_CONFIG_KEY used to specify the (Devroye) rejection sampling method. */
 	public static final String REJECTION_SAMPLING_METHOD_CONFIG_VALUE = "rejection";
+	/** Value for the SAMPLING_METHOD_CONFIG_KEY used to specify the (Hoermann-Derflinger) rejection-inversion sampling method. */
+	public static final String REJECTION_INVERSION_SAMPLING_METHOD_CONFIG_VALUE = "rejection-inversion";
 	/** Constant to specify the direct sampling method. */
 	public static final int DIRECT_SAMPLING_METHOD = 0;
-	/** Constant to specify the rejection inversion sampling method. */
+	/** Constant to specify the (Devroye) rejection sampling method. */
 	public static final int REJECTION_SAMPLING_METHOD = 1;
+	/** Constant to specify the rejection-inversion sampling method; O(1) memory and expected O(1) time for any key space. */
+	public static final int REJECTION_INVERSION_SAMPLING_METHOD = 2;
 	/** Constant to specify the default sampling method. */
 	private static final int DEFAULT_SAMPLING_METHOD = DIRECT_SAMPLING_METHOD;
 
@@ -65,7 +70,10 @@ public class ZipfKeyGenerator extends KeyGenerator
 
 	protected double[] cdf;
 	
-	/** The sampling method (either direct or rejection sampling). */
+	/** Rank sampler used by the rejection-inversion method. */
+	protected ZipfRejectionInversion rejectionInversion = null;
+	
+	/** The sampling method (direct, rejection or rejection-inversion sampling). */
 	protected int _method = DIRECT_SAMPLING_METHOD;
 
 	public ZipfKeyGenerator( JSONObject configObj ) throws JSONException
@@ -85,7 +93,13 @@ public class ZipfKeyGenerator extends KeyGenerator
 
 	public ZipfKeyGenerator( double a, double r, int minKey, int maxKey, long seed, int method )
 	{
-		if ( a <= 1 ) {
+		// Only rejection-inversion copes with exponents <= 1
+		if ( method == REJECTION_INVERSION_SAMPLING_METHOD ) {
+			if ( a <= 0 ) {
+				throw new RuntimeException( "Zipf distribution requires a > 0: a = " + a );
+			}
+		}
+		else if ( a <= 1 ) {
 			throw new RuntimeException( "Zipf distribution requires a > 1: a = " + a );
 		}
 
@@ -97,9 +111,18 @@ public class ZipfKeyGenerator extends KeyGenerator
 		this.seed = seed;
 		this.random = new Random( this.seed );
 		this._method = method;
+		
+		if( this._method == REJECTION_INVERSION_SAMPLING_METHOD )
+			this.rejectionInversion = new ZipfRejectionInversion( this.upperBound - this.lowerBound, this.a, this.random );
 	}
 
 	public int generateKey()
+	{
+		return this.generateKey( this.random );
+	}
+	
+	@Override
+	public int generateKey( Random rng )
 	{
 		int key = -1;
 
@@ -107,11 +130,14 @@ public class ZipfKeyGenerator extends KeyGenerator
 		{
 			case DIRECT_SAMPLING_METHOD:
 				// Generate zipf numbers directly
-				key = this.generateKeyDirect();
+				key = this.generateKeyDirect( rng );
 				break;
 			case REJECTION_SAMPLING_METHOD:
 				// Generate zipf numbers directly
-				key = this.generateKeyReject();
+				key = this.generateKeyReject( rng );
+				break;
+			case REJECTION_INVERSION_SAMPLING_METHOD:
+				key = this.generateKeyRejectionInversion( rng );
 				break;
 		}
 
@@ -119,17 +145,42 @@ public class ZipfKeyGenerator extends KeyGenerator
 	}
 	
 	public int generateKeyReject()
+	{
+		return this.generateKeyReject( this.random );
+	}
+	
+	public int generateKeyReject( Random rng )
 	{
 		int k = -1;
 		do {
-			k = sampleZipfReject();
+			k = sampleZipfReject( rng );
 		} while ( k > upperBound );
 		return Math.abs( (Double.valueOf( ( k + 1 ) * r ) ).hashCode() ) % ( upperBound - lowerBound ) + lowerBound;
 	}
 
+	public int generateKeyRejectionInversion()
+	{
+		return this.generateKeyRejectionInversion( this.random );
+	}
+	
+	public int generateKeyRejectionInversion( Random rng )
+	{
+		if( this.rejectionInversion == null )
+			this.rejectionInversion = new ZipfRejectionInversion( this.upperBound - this.lowerBound, this.a, this.random );
+		
+		// Ranks are in [1, N] so we never go out of bounds
+		int k = (int) this.rejectionInversion.nextLong( rng );
+		return Math.abs( (Double.valueOf( ( k + 1 ) * r ) ).hashCode() ) % ( upperBound - lowerBound ) + lowerBound;
+	}
+
 	public int generateKeyDirect()
 	{
-		int k = this.sampleZipfDirect();
+		return this.generateKeyDirect( this.random );
+	}
+	
+	public int generateKeyDirect( Random rng )
+	{
+		int k = this.sampleZipfDirect( rng );
 		// Unlike the rejection method, we won't get values out of bounds
 		return Math.abs( (Double.valueOf( ( k + 1 ) * r ) ).hashCode() ) % ( upperBound - lowerBound ) + lowerBound;
 	}
@@ -168,13 +219,13 @@ public class ZipfKeyGenerator extends KeyGenerator
 		return cdf;
 	}
 	
-	private int sampleZipfDirect()
+	private int sampleZipfDirect( Random rng )
 	{
 		if( this.cdf == null )
 			this.cdf = this.computeZipfCdf();
 				
 		// Generate a random number
-		double rndVal = this.random.nextDouble();
+		double rndVal = rng.nextDouble();
 		int i = 0;
 		for( i = 0; i < cdf.length; i++ )
 		{
@@ -188,13 +239,13 @@ public class ZipfKeyGenerator extends KeyGenerator
 	// Rejection method for generating Zipfian numbers
 	// See: Non-Uniform Random Variate Generation, Chapter 10: Discrete Univariate Distributions,  
 	// Luc Devroye (http://luc.devroye.org/rnbookindex.html)
-	private int sampleZipfReject()
+	private int sampleZipfReject( Random rng )
 	{
 		double b = Math.pow( 2, a - 1 );
 		double u, v, x, t = 0.0;
 		do {
-			u = random.nextDouble();
-			v = random.nextDouble();
+			u = rng.nextDouble();
+			v = rng.nextDouble();
 			x = Math.floor( Math.pow( u, -1.0 / ( a - 1.0 ) ) );
 			t = Math.pow( 1.0 + 1.0 / x, a - 1.0 );
 		} while ( v * x * ( t - 1.0 ) / ( b - 1.0 ) > t / b );
@@ -212,6 +263,10 @@ public class ZipfKeyGenerator extends KeyGenerator
 		{
 			method = REJECTION_SAMPLING_METHOD;
 		}
+		else if (methodStr.equalsIgnoreCase(REJECTION_INVERSION_SAMPLING_METHOD_CONFIG_VALUE))
+		{
+			method = REJECTION_INVERSION_SAMPLING_METHOD;
+		}
 		return method;
 	}
 
@@ -161,6 +161,7 @@ public class BookingGenerator extends Generator
 	 */
 	public void initialize()
 	{
+		this._randomNumberGenerator = this.getRandom();
 		this._http = new HttpTransport();
 	}
 
@@ -180,9 +181,9 @@ public class BookingGenerator extends Generator
         //System.out.println("** printDebugToTrace is: " + printDebugToTraceLog);
 
     	// If a seed for the random number generator is passed in then use it
+    	// instead of the scenario's master seed
     	if( config.has( CFG_RNG_SEED_KEY ) )
-    		this._randomNumberGenerator = new java.util.Random( config.getLong( CFG_RNG_SEED_KEY ) );
-    	else this._randomNumberGenerator = new java.util.Random();
+    		this.setRandomSeed( config.getLong( CFG_RNG_SEED_KEY ) );
     	
     	if( config.has(CFG_USE_POOLING_KEY) )
 			this._usePooling = config.getBoolean( CFG_USE_POOLING_KEY );
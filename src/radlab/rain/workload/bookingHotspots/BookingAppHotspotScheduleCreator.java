@@ -8,6 +8,7 @@ import org.json.JSONObject;
 
 import radlab.rain.LoadProfile;
 import radlab.rain.LoadScheduleCreator;
+import radlab.rain.hotspots.IMultinomial;
 import radlab.rain.hotspots.IObjectGenerator;
 import radlab.rain.hotspots.Multinomial;
 import radlab.rain.hotspots.SimpleObjectGenerator;
@@ -26,7 +27,7 @@ public class BookingAppHotspotScheduleCreator extends LoadScheduleCreator
         	hotels.add( new Hotel(hotelSearchArray[i], expectHotelFoundArray[i] ));
         
         // create popularity distribution of hotels (Zipfian with shape of 1.5)
-        Multinomial m = Multinomial.zipf(hotels.size(), 1.5);
+        IMultinomial m = Multinomial.zipf(hotels.size(), 1.5).toAlias();
         
         // create hotel generator with the zipfian distribution
         IObjectGenerator<Hotel> hotelGenerator = new SimpleObjectGenerator<Hotel>(hotels, m);
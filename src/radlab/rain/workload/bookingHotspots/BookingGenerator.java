@@ -166,7 +166,7 @@ public class BookingGenerator extends Generator
 	 */
 	public void initialize()
 	{
-		this._randomNumberGenerator = new java.util.Random();
+		this._randomNumberGenerator = this.getRandom();
 		this._http = new HttpTransport();
 	}
 	
@@ -0,0 +1,34 @@
+package radlab.rain.workload.cassandra;
+
+import radlab.rain.util.storage.IBulkLoadSink;
+
+/**
+ * Loads batches into Cassandra as one batch mutation per batch.
+ */
+public class CassandraBulkLoadSink implements IBulkLoadSink 
+{
+	private CassandraTransport _cassandra = null;
+	private String _columnFamilyName = "";
+	private String[] _keys = new String[0];
+	
+	public CassandraBulkLoadSink( CassandraTransport cassandra, String columnFamilyName )
+	{
+		this._cassandra = cassandra;
+		this._columnFamilyName = columnFamilyName;
+	}
+	
+	public void writeBatch( long[] keys, byte[][] values, int count ) throws Exception
+	{
+		if( this._keys.length < count )
+			this._keys = new String[keys.length];
+		for( int i = 0; i < count; i++ )
+			this._keys[i] = CassandraUtil.KEY_ENCODER.toString( keys[i] );
+		
+		this._cassandra.putMany( this._columnFamilyName, this._keys, values, count );
+	}
+	
+	public void close() throws Exception
+	{
+		this._cassandra.dispose();
+	}
+}
@@ -1,6 +1,8 @@
 package radlab.rain.workload.cassandra;
 
-//import java.io.IOException;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.logging.Logger;
 import java.util.HashSet;
@@ -10,6 +12,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import radlab.rain.Generator;
+import radlab.rain.IReplayableGenerator;
 import radlab.rain.LoadProfile;
 import radlab.rain.ObjectPool;
 import radlab.rain.Operation;
@@ -17,8 +20,10 @@ import radlab.rain.ScenarioTrack;
 import radlab.rain.util.Histogram;
 import radlab.rain.util.NegativeExponential;
 import radlab.rain.util.storage.KeyGenerator;
+import radlab.rain.util.storage.PayloadSlab;
+import radlab.rain.util.storage.ScanStats;
 
-public class CassandraGenerator extends Generator 
+public class CassandraGenerator extends Generator implements IReplayableGenerator
 {
 	public static String CFG_USE_POOLING_KEY 		= "usePooling";
 	public static String CFG_DEBUG_KEY		 		= "debug";
@@ -34,16 +39,21 @@ public class CassandraGenerator extends Generator
 	public static int READ 					= CassandraLoadProfile.READ;
 	public static int WRITE 				= CassandraLoadProfile.WRITE;
 	public static int SCAN					= CassandraLoadProfile.SCAN;
+	public static int MULTI_GET				= CassandraLoadProfile.MULTI_GET;
 	public static int DELETE 				= CassandraLoadProfile.DELETE;
 	public static int DEFAULT_OBJECT_SIZE	= 4096;
 	
-	@SuppressWarnings("unused")
 	private CassandraRequest<String> _lastRequest 	= null;
 	private CassandraTransport _cassandraClient		= null;
 	private boolean _usePooling						= true;
 	private boolean _debug 							= false;
+	private PayloadSlab _payloads					= null;
+	private boolean _sharedPayloads				= false;
+	// Rows/sec and time to first row, shared by all Cassandra generators
+	private ScanStats _scanStats				= null;
+	private ScanStats _multiGetStats			= null;
 	
-	private static Random _random				= null; ///< The Random Number Generator
+	private Random _random				= null; ///< The Random Number Generator
 	String _clusterName							= DEFAULT_CLUSTER_NAME;
 	String _keyspaceName						= DEFAULT_KEYSPACE_NAME;
 	String _columnFamilyName					= DEFAULT_COLUMN_FAMILY_NAME;
@@ -63,9 +73,9 @@ public class CassandraGenerator extends Generator
 	 * 
 	 * @return A Random object.
 	 */
-	public static Random getRandomGenerator()
+	public Random getRandomGenerator()
 	{
-		//NOTE: this method is not "synchronized" since java.util.Random is threadsafe.
+		//NOTE: each user has its own stream, so this is only meant to be used from this user's thread.
 		return _random;
 	}
 
@@ -74,27 +84,22 @@ public class CassandraGenerator extends Generator
 	 * 
 	 * @param value A Random object.
 	 */
-	protected static synchronized void setRandomGenerator(Random value)
+	protected void setRandomGenerator(Random value)
 	{
 		_random = value;
 	}
 
 	/**
-	 * Initialize the shared random number generator.
+	 * Initialize this user's random number generator; a non-negative seed
+	 * overrides the scenario's master seed.
 	 */
-	private static synchronized void initizializeRandomGenerator(long seed)
+	private void initizializeRandomGenerator(long seed)
 	{
-		if (_random == null)
+		if (seed >= 0)
 		{
-			if (seed >= 0)
-			{
-				_random = new Random(seed);
-			}
-			else
-			{
-				_random = new Random();
-			}
+			this.setRandomSeed(seed);
 		}
+		_random = this.getRandom();
 	}
 
 	public CassandraGenerator(ScenarioTrack track) 
@@ -105,6 +110,9 @@ public class CassandraGenerator extends Generator
 	public CassandraTransport getCassandraTransport()
 	{ return this._cassandraClient; }
 	
+	public ScanStats getScanStats() { return this._scanStats; }
+	public ScanStats getMultiGetStats() { return this._multiGetStats; }
+	
 	public void setUsePooling( boolean value ) { this._usePooling = value; }
 	public boolean getUsePooling() { return this._usePooling; }
 		
@@ -144,12 +152,20 @@ public class CassandraGenerator extends Generator
 		if( config.has( CFG_DEBUG_KEY) )
 			this._debug = config.getBoolean( CFG_DEBUG_KEY );
 		
+		// Values are cut from a shared, pre-generated slab
+		this._payloads = PayloadSlab.getSharedSlab( config );
+		if( config.has( PayloadSlab.CFG_SHARED_PAYLOADS_KEY ) )
+			this._sharedPayloads = config.getBoolean( PayloadSlab.CFG_SHARED_PAYLOADS_KEY );
+		
 		// Look for a random number seed
 		if( config.has( CFG_RNG_SEED_KEY ) )
 			this.initizializeRandomGenerator( config.getLong( CFG_RNG_SEED_KEY ) );
 		else
 			this.initizializeRandomGenerator(-1);
 	
+		this._scanStats = ScanStats.retain( "Cassandra " + CassandraScanOperation.NAME );
+		this._multiGetStats = ScanStats.retain( "Cassandra " + CassandraMultiGetOperation.NAME );
+	
 		if( config.has( CFG_CLUSTER_NAME_KEY ) )
 			this._clusterName = config.getString( CFG_CLUSTER_NAME_KEY );
 		
@@ -218,6 +234,15 @@ public class CassandraGenerator extends Generator
 			//System.out.println( this._hotObjHist.toString() );
 		}
 		
+		// The last generator out prints the row stats
+		if( this._scanStats != null )
+		{
+			this._scanStats.release();
+			this._multiGetStats.release();
+			this._scanStats = null;
+			this._multiGetStats = null;
+		}
+		
 		// Dispose of the client
 		this._cassandraClient.dispose();
 	}
@@ -227,59 +252,19 @@ public class CassandraGenerator extends Generator
 	{
 		LoadProfile currentLoad = this.getTrack().getCurrentLoadProfile();
 		this._latestLoadProfile = currentLoad;
-		int key = -1;
 		
 		CassandraLoadProfile cassandraProfile = (CassandraLoadProfile) this._latestLoadProfile; 
-		
-		// Check whether we're sending traffic to hot objects or not
-		double rndVal = this._random.nextDouble();
-		ArrayList<Integer> hotObjectList = cassandraProfile.getHotObjectList();
-		HashSet<Integer> hotObjectSet = cassandraProfile.getHotObjectSet();
-		
-		int numHotObjects = hotObjectList.size(); 
-		
-		/*
-		int minKey = cassandraProfile.getKeyGenerator().getMinKey();
-		int maxKey = cassandraProfile.getKeyGenerator().getMaxKey();
-		int keyCount = (maxKey - minKey) + 1;
-		int maxThreads = this.getTrack().getMaxUsers();
-		// Compute our block boundaries, e.g., our block size
-		int keyBlockSize = (int) Math.ceil( keyCount/maxThreads );
-		// Get our thread id and use that to determine where our block starts
-		int startKey = (int)((Thread.currentThread().getId()%maxThreads) * keyBlockSize) + 1;
-		int endKey = (startKey + keyBlockSize) - 1;
-		*/
-		if( rndVal < cassandraProfile.getHotTrafficFraction() &&  numHotObjects > 0 )
-		{
-			// Choose a key from the hot set uniformly at random.
-			// Later we can use add skew within the hot object set
-			key = hotObjectList.get( this._random.nextInt( numHotObjects ) );
-			if( this._debug )
-				this._hotObjHist.addObservation( String.valueOf( key ) );
-		}
-		else
-		{	
-			// Pick a key using the regular keygen strategy
-			KeyGenerator keyGen = cassandraProfile.getKeyGenerator();
-			key = keyGen.generateKey();
-			// Check whether we picked a key that's in the hot set - if we did, try again
-			while( hotObjectSet.contains( key ) ) 
-				key = keyGen.generateKey();
-			
-			// Do some stats checking for non-hot objects
-			if( this._debug )
-				this._keyHist.addObservation( String.valueOf( key ) );
-		}
+		int key = this.nextKey( cassandraProfile );
 		
 		// Assume raw keys for now - we could use this to index into some other structure
 		// to produce the "real" key
 				
-		// All requests have string keys
+		// All requests have string keys (Hector's StringSerializer)
 		CassandraRequest<String> nextRequest = new CassandraRequest<String>();
 		// Turn the integer key into a string
-		nextRequest.key = CassandraUtil.KEY_FORMATTER.format( key );
+		nextRequest.key = CassandraUtil.KEY_ENCODER.toString( key );
 		
-		rndVal = this._random.nextDouble();
+		double rndVal = this._random.nextDouble();
 		int i = 0;
 		
 		// If we cared about access sequences we could check whether we just did a read or write
@@ -322,23 +307,129 @@ public class CassandraGenerator extends Generator
 				nextRequest.key = String.valueOf( this._currentKeyToWrite );
 			*/
 			// We could also get the size cdf if we want to support size histograms
-			nextRequest.size = cassandraProfile.getSize();
+			nextRequest.size = cassandraProfile.nextSize( this._random );
 		}
 
 		if( nextRequest.op == CassandraLoadProfile.SCAN )
-			nextRequest.maxScanRows = 1000; // Use a fixed value for now, but expand it later with a distribution, randomized or deterministic value
+		{
+			nextRequest.maxScanRows = cassandraProfile.getScanRows();
+			nextRequest.pageSize = cassandraProfile.getScanPageSize();
+		}
+		else if( nextRequest.op == CassandraLoadProfile.MULTI_GET )
+		{
+			// The first key is the one picked above, the rest are drawn the same way
+			int count = cassandraProfile.getMultiGetSize();
+			nextRequest.keys = new ArrayList<String>( count );
+			nextRequest.keys.add( nextRequest.key );
+			for( int k = 1; k < count; k++ )
+				nextRequest.keys.add( CassandraUtil.KEY_ENCODER.toString( this.nextKey( cassandraProfile ) ) );
+		}
 		
 		// Update the last request
 		this._lastRequest = nextRequest;
 		return this.getCassandraOperation( nextRequest );
 	}
 
+	private int nextKey( CassandraLoadProfile cassandraProfile )
+	{
+		int key = -1;
+		
+		// Check whether we're sending traffic to hot objects or not
+		double rndVal = this._random.nextDouble();
+		ArrayList<Integer> hotObjectList = cassandraProfile.getHotObjectList();
+		HashSet<Integer> hotObjectSet = cassandraProfile.getHotObjectSet();
+		
+		int numHotObjects = hotObjectList.size(); 
+		
+		/*
+		int minKey = cassandraProfile.getKeyGenerator().getMinKey();
+		int maxKey = cassandraProfile.getKeyGenerator().getMaxKey();
+		int keyCount = (maxKey - minKey) + 1;
+		int maxThreads = this.getTrack().getMaxUsers();
+		// Compute our block boundaries, e.g., our block size
+		int keyBlockSize = (int) Math.ceil( keyCount/maxThreads );
+		// Get our thread id and use that to determine where our block starts
+		int startKey = (int)((Thread.currentThread().getId()%maxThreads) * keyBlockSize) + 1;
+		int endKey = (startKey + keyBlockSize) - 1;
+		*/
+		if( rndVal < cassandraProfile.getHotTrafficFraction() &&  numHotObjects > 0 )
+		{
+			// Choose a key from the hot set uniformly at random.
+			// Later we can use add skew within the hot object set
+			key = hotObjectList.get( this._random.nextInt( numHotObjects ) );
+			if( this._debug )
+				this._hotObjHist.addObservation( String.valueOf( key ) );
+		}
+		else
+		{	
+			// Pick a key using the regular keygen strategy
+			KeyGenerator keyGen = cassandraProfile.getKeyGenerator();
+			key = keyGen.generateKey( this._random );
+			// Check whether we picked a key that's in the hot set - if we did, try again
+			while( hotObjectSet.contains( key ) ) 
+				key = keyGen.generateKey( this._random );
+			
+			// Do some stats checking for non-hot objects
+			if( this._debug )
+				this._keyHist.addObservation( String.valueOf( key ) );
+		}
+		return key;
+	}
+	
+	/**
+	 * Records the last request's operation, key and value size; values are
+	 * regenerated on replay since only their size matters to the target.
+	 * Scans add their page size and multi-gets their other keys.
+	 */
+	public void writeLastRequest( DataOutput out ) throws IOException
+	{
+		CassandraRequest<String> request = this._lastRequest;
+		out.writeByte( request.op );
+		out.writeUTF( request.key );
+		out.writeInt( request.size );
+		out.writeInt( request.maxScanRows );
+		if( request.op == SCAN )
+			out.writeInt( request.pageSize );
+		else if( request.op == MULTI_GET )
+		{
+			out.writeShort( request.keys.size() - 1 );
+			for( int i = 1; i < request.keys.size(); i++ )
+				out.writeUTF( request.keys.get( i ) );
+		}
+	}
+	
+	public Operation replayRequest( int operationIndex, DataInput in ) throws IOException
+	{
+		this._latestLoadProfile = this.getTrack().getCurrentLoadProfile();
+		
+		CassandraRequest<String> request = new CassandraRequest<String>();
+		request.op = in.readByte();
+		request.key = in.readUTF();
+		request.size = in.readInt();
+		request.maxScanRows = in.readInt();
+		if( request.op == SCAN )
+			request.pageSize = in.readInt();
+		else if( request.op == MULTI_GET )
+		{
+			int count = in.readShort() + 1;
+			request.keys = new ArrayList<String>( count );
+			request.keys.add( request.key );
+			for( int i = 1; i < count; i++ )
+				request.keys.add( in.readUTF() );
+		}
+		
+		this._lastRequest = request;
+		return this.getCassandraOperation( request );
+	}
+	
 	private CassandraOperation getCassandraOperation( CassandraRequest<String> request )
 	{
 		if( request.op == READ )
 			return this.createGetOperation( request );
 		else if( request.op == SCAN )
 			return this.createScanOperation( request );
+		else if( request.op == MULTI_GET )
+			return this.createMultiGetOperation( request );
 		else if( request.op == WRITE )
 			return this.createPutOperation( request );
 		else if( request.op == DELETE )
@@ -382,6 +473,28 @@ public class CassandraGenerator extends Generator
 		// Set the specific fields
 		op._key = request.key;
 		op._maxScanRows = request.maxScanRows;
+		op._scanPageSize = ( request.pageSize > 0 ) ? request.pageSize : CassandraLoadProfile.DEFAULT_SCAN_PAGE_SIZE;
+		
+		op.prepare( this );
+		return op;
+	}
+	
+	public CassandraMultiGetOperation createMultiGetOperation( CassandraRequest<String> request )
+	{
+		CassandraMultiGetOperation op = null;
+		
+		if( this._usePooling )
+		{
+			ObjectPool pool = this.getTrack().getObjectPool();
+			op = (CassandraMultiGetOperation) pool.rentObject( CassandraMultiGetOperation.NAME );	
+		}
+		
+		if( op == null )
+			op = new CassandraMultiGetOperation( this.getTrack().getInteractive(), this.getScoreboard() );
+		
+		// Set the specific fields
+		op._key = request.key;
+		op._keys = request.keys;
 		
 		op.prepare( this );
 		return op;
@@ -403,15 +516,13 @@ public class CassandraGenerator extends Generator
 		// Set the specific fields
 		op._key = request.key;
 		
-		// Check whether a value has been pre-set, if not then fill in random bytes
+		// Check whether a value has been pre-set, if not then take one from the payload slab
 		if( request.value == null )
 		{
-			if( request.size < Integer.MAX_VALUE )
-			{
-				op._value = new byte[request.size];
-			}
-			else op._value = new byte[DEFAULT_OBJECT_SIZE];
-			this._random.nextBytes( op._value );
+			int size = ( request.size < Integer.MAX_VALUE ) ? request.size : DEFAULT_OBJECT_SIZE;
+			if( this._sharedPayloads )
+				op._value = this._payloads.sharedValue( this._random, size );
+			else op._value = this._payloads.nextValue( this._random, size );
 		}
 		else op._value = request.value;
 		op.prepare( this );
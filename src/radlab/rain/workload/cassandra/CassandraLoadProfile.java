@@ -12,12 +12,27 @@ public class CassandraLoadProfile extends StorageLoadProfile
 	public static final int UPDATE	= 2;
 	public static final int DELETE	= 3;
 	public static final int SCAN	= 4;
-	public static final int MAX_OPERATIONS = 5; // supporting core operations read, write, update and delete
+	public static final int MULTI_GET	= 5;
+	public static final int MAX_OPERATIONS = 6; // supporting core operations read, write, update and delete
+	
+	public static final int DEFAULT_MULTI_GET_SIZE	= 10;
+	public static final int DEFAULT_SCAN_ROWS		= 1000;
+	public static final int DEFAULT_SCAN_PAGE_SIZE	= 100;
 	
 	public static String CFG_LOAD_PROFILE_SCAN_PCT_KEY			= "scanPct";
+	public static String CFG_LOAD_PROFILE_MULTI_GET_PCT_KEY		= "multiGetPct";
+	// Rows fetched by one multi-get slice
+	public static String CFG_LOAD_PROFILE_MULTI_GET_SIZE_KEY	= "multiGetSize";
+	// Rows read by one scan and rows fetched per range slice
+	public static String CFG_LOAD_PROFILE_SCAN_ROWS_KEY			= "scanRows";
+	public static String CFG_LOAD_PROFILE_SCAN_PAGE_SIZE_KEY	= "scanPageSize";
 	
 	public double[] _opselect 	= new double[MAX_OPERATIONS];
 	protected double _scanPct = 0.0;
+	protected double _multiGetPct = 0.0;
+	protected int _multiGetSize = DEFAULT_MULTI_GET_SIZE;
+	protected int _scanRows = DEFAULT_SCAN_ROWS;
+	protected int _scanPageSize = DEFAULT_SCAN_PAGE_SIZE;
 
 	public CassandraLoadProfile(JSONObject profileObj) throws JSONException 
 	{
@@ -25,14 +40,26 @@ public class CassandraLoadProfile extends StorageLoadProfile
 		
 		if( profileObj.has( CFG_LOAD_PROFILE_SCAN_PCT_KEY) )
 			this._scanPct = profileObj.getDouble( CFG_LOAD_PROFILE_SCAN_PCT_KEY );
+		if( profileObj.has( CFG_LOAD_PROFILE_MULTI_GET_PCT_KEY ) )
+			this._multiGetPct = profileObj.getDouble( CFG_LOAD_PROFILE_MULTI_GET_PCT_KEY );
+		if( profileObj.has( CFG_LOAD_PROFILE_MULTI_GET_SIZE_KEY ) )
+			this._multiGetSize = profileObj.getInt( CFG_LOAD_PROFILE_MULTI_GET_SIZE_KEY );
+		if( profileObj.has( CFG_LOAD_PROFILE_SCAN_ROWS_KEY ) )
+			this._scanRows = profileObj.getInt( CFG_LOAD_PROFILE_SCAN_ROWS_KEY );
+		if( profileObj.has( CFG_LOAD_PROFILE_SCAN_PAGE_SIZE_KEY ) )
+			this._scanPageSize = profileObj.getInt( CFG_LOAD_PROFILE_SCAN_PAGE_SIZE_KEY );
+		
+		if( this._multiGetSize < 1 || this._scanRows < 1 || this._scanPageSize < 1 )
+			throw new JSONException( "Multi-get size, scan rows and scan page size must be at least 1: " + this._multiGetSize + ", " + this._scanRows + ", " + this._scanPageSize );
 		
-		double sum = this._readPct + this._writePct + this._updatePct + this._deletePct + this._scanPct;
+		double sum = this._readPct + this._writePct + this._updatePct + this._deletePct + this._scanPct + this._multiGetPct;
 		
 		this._readPct /= sum;
 		this._writePct /= sum;
 		this._updatePct /= sum;
 		this._deletePct /= sum;
 		this._scanPct /= sum;
+		this._multiGetPct /= sum;
 		
 		// Create the selection vector
 		this._opselect[READ] 	= this._readPct;
@@ -40,6 +67,7 @@ public class CassandraLoadProfile extends StorageLoadProfile
 		this._opselect[UPDATE]	= this._opselect[WRITE] + this._updatePct;
 		this._opselect[DELETE] 	= this._opselect[UPDATE] + this._deletePct;
 		this._opselect[SCAN]	= this._opselect[DELETE] + this._scanPct;
+		this._opselect[MULTI_GET]	= this._opselect[SCAN] + this._multiGetPct;
 	}
 
 	public CassandraLoadProfile(long interval, int numberOfUsers, String mixName) 
@@ -59,4 +87,16 @@ public class CassandraLoadProfile extends StorageLoadProfile
 
 	public double getScanPct() { return this._scanPct; }
 	public void setScanPct( double value ) { this._scanPct = value; }
+	
+	public double getMultiGetPct() { return this._multiGetPct; }
+	public void setMultiGetPct( double value ) { this._multiGetPct = value; }
+	
+	public int getMultiGetSize() { return this._multiGetSize; }
+	public void setMultiGetSize( int value ) { this._multiGetSize = value; }
+	
+	public int getScanRows() { return this._scanRows; }
+	public void setScanRows( int value ) { this._scanRows = value; }
+	
+	public int getScanPageSize() { return this._scanPageSize; }
+	public void setScanPageSize( int value ) { this._scanPageSize = value; }
 }
@@ -0,0 +1,50 @@
+package radlab.rain.workload.cassandra;
+
+import radlab.rain.IScoreboard;
+import radlab.rain.util.storage.ScanStats;
+
+/**
+ * Reads several rows with a single Hector multiget slice. Like a single get,
+ * missing rows are logged rather than failing the operation.
+ */
+public class CassandraMultiGetOperation extends CassandraOperation 
+{
+	public static String NAME = "MultiGet";
+	
+	// Reused across runs of this (pooled) operation
+	private ScanStats.Tally _tally = new ScanStats.Tally();
+	
+	public CassandraMultiGetOperation(boolean interactive, IScoreboard scoreboard) 
+	{
+		super(interactive, scoreboard);
+		this._operationName = NAME;
+		this._operationIndex = CassandraGenerator.MULTI_GET;
+	}
+
+	@Override
+	public void execute() throws Throwable
+	{
+		this._tally.start();
+		int missing = 0;
+		try
+		{
+			// The slice comes back all at once, so the first row arrives with the last
+			byte[][] values = this.doMultiGet( this._keys );
+			for( byte[] value : values )
+			{
+				if( value != null )
+					this._tally.row( value.length );
+				else missing++;
+			}
+		}
+		finally
+		{
+			this.getGenerator().getMultiGetStats().record( this._tally );
+		}
+		
+		if( missing > 0 )
+			this.getLogger().warning(NAME + "(" + this._key + ", " + this._keys.size() + ") is missing " + missing + " rows");
+		
+		this.setFailed( false );
+	}
+}
@@ -1,5 +1,6 @@
 package radlab.rain.workload.cassandra;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -7,6 +8,7 @@ import radlab.rain.Generator;
 import radlab.rain.IScoreboard;
 import radlab.rain.LoadProfile;
 import radlab.rain.Operation;
+import radlab.rain.util.storage.ScanStats;
 
 public abstract class CassandraOperation extends Operation 
 {
@@ -14,6 +16,8 @@ public abstract class CassandraOperation extends Operation
 	protected String _key = "";
 	protected byte[] _value = null;
 	protected int _maxScanRows = 1;
+	protected int _scanPageSize = 1;
+	protected ArrayList<String> _keys = null;
 	protected CassandraTransport _cassandraClient = null;
 	
 
@@ -44,6 +48,8 @@ public abstract class CassandraOperation extends Operation
 		this._key = "";
 		this._value = null;
 		this._maxScanRows = 1;
+		this._scanPageSize = 1;
+		this._keys = null;
 	}
 	
 	public byte[] doGet( String key ) throws Exception
@@ -56,6 +62,16 @@ public abstract class CassandraOperation extends Operation
 		return this._cassandraClient.scan( startKey, this._columnFamilyName, maxRows );
 	}
 	
+	public void doScan( String startKey, int maxRows, int pageSize, ScanStats.Tally tally ) throws Exception
+	{
+		this._cassandraClient.scan( startKey, this._columnFamilyName, maxRows, pageSize, tally );
+	}
+	
+	public byte[][] doMultiGet( ArrayList<String> keys ) throws Exception
+	{
+		return this._cassandraClient.getMany( this._columnFamilyName, keys, keys.size() );
+	}
+	
 	public void doPut( String key, byte[] value ) throws Exception
 	{
 		this._operationRequest = key;
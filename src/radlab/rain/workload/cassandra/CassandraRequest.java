@@ -1,5 +1,7 @@
 package radlab.rain.workload.cassandra;
 
+import java.util.ArrayList;
+
 public class CassandraRequest<T>
 {
 	public T key;
@@ -7,4 +9,6 @@ public class CassandraRequest<T>
 	public int size;
 	public byte[] value;
 	public int maxScanRows;
+	public int pageSize;
+	public ArrayList<T> keys;
 }
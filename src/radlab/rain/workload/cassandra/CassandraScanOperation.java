@@ -1,13 +1,15 @@
 package radlab.rain.workload.cassandra;
 
-import java.util.List;
-
 import radlab.rain.IScoreboard;
+import radlab.rain.util.storage.ScanStats;
 
 public class CassandraScanOperation extends CassandraOperation 
 {
 	public static String NAME = "Scan";
 	
+	// Reused across runs of this (pooled) operation
+	private ScanStats.Tally _tally = new ScanStats.Tally();
+	
 	public CassandraScanOperation(boolean interactive, IScoreboard scoreboard) 
 	{
 		super(interactive, scoreboard);
@@ -19,8 +21,18 @@ public class CassandraScanOperation extends CassandraOperation
 	@Override
 	public void execute() throws Throwable
 	{
-		List<byte[]> results = this.doScan( this._key, this._maxScanRows );
-		if( results.size() == 0 )
+		// Rows are streamed a page at a time and counted, not collected
+		this._tally.start();
+		try
+		{
+			this.doScan( this._key, this._maxScanRows, this._scanPageSize, this._tally );
+		}
+		finally
+		{
+			this.getGenerator().getScanStats().record( this._tally );
+		}
+		
+		if( this._tally.getRows() == 0 )
 		{
 			//throw new Exception( "Empty scan results for stsart key: " + this._key + " rows: " + this._maxScanRows );
 			this.getLogger().warning(NAME + "(" + this._key + ", " + this._maxScanRows + ") returned an empty result");
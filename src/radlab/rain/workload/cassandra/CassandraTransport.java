@@ -13,6 +13,7 @@ import me.prettyprint.cassandra.service.ThriftKsDef;
 import me.prettyprint.hector.api.Cluster;
 import me.prettyprint.hector.api.Keyspace;
 import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.beans.OrderedRows;
 import me.prettyprint.hector.api.beans.Row;
 import me.prettyprint.hector.api.beans.Rows;
 import me.prettyprint.hector.api.ddl.ColumnFamilyDefinition;
@@ -22,6 +23,9 @@ import me.prettyprint.hector.api.mutation.Mutator;
 import me.prettyprint.hector.api.query.ColumnQuery;
 import me.prettyprint.hector.api.query.MultigetSliceQuery;
 import me.prettyprint.hector.api.query.QueryResult;
+import me.prettyprint.hector.api.query.RangeSlicesQuery;
+
+import radlab.rain.util.storage.ScanStats;
 
 //[FIXME] Experimental: use templates instead of mutators
 //import me.prettyprint.cassandra.service.template.ColumnFamilyTemplate;
@@ -157,6 +161,15 @@ public class CassandraTransport
 		mutator.insert( key, columnFamily, HFactory.createColumn( DEFAULT_COLUMN_NAME, value, StringSerializer.get(), BytesArraySerializer.get() ) );
 	}
 	
+	// Writes the first count keys/values as a single batch mutation (one round trip)
+	public void putMany( String columnFamily, String[] keys, byte[][] values, int count )
+	{
+		Mutator<String> mutator = HFactory.createMutator( this._keyspace, StringSerializer.get() );
+		for( int i = 0; i < count; i++ )
+			mutator.addInsertion( keys[i], columnFamily, HFactory.createColumn( DEFAULT_COLUMN_NAME, values[i], StringSerializer.get(), BytesArraySerializer.get() ) );
+		mutator.execute();
+	}
+	
 //[FIXME] Experimental: use templates instead of mutators
 //	public void put( String columnFamily, String key, byte[] value )
 //	{	
@@ -205,6 +218,28 @@ public class CassandraTransport
 		}
 	}
 	
+	// Fetches the first count keys with one multiget slice (one round trip); missing rows come back as null
+	public byte[][] getMany( String columnFamilyName, List<String> keys, int count )
+	{
+		MultigetSliceQuery<String, String, byte[]> multigetSliceQuery = HFactory.createMultigetSliceQuery( this._keyspace, StringSerializer.get(), StringSerializer.get(), BytesArraySerializer.get() );
+		multigetSliceQuery.setColumnFamily( columnFamilyName );
+		multigetSliceQuery.setKeys( keys.subList( 0, count ) );
+		multigetSliceQuery.setColumnNames( DEFAULT_COLUMN_NAME );
+		Rows<String, String, byte[]> rows = multigetSliceQuery.execute().get();
+		
+		byte[][] values = new byte[count][];
+		for( int i = 0; i < count; i++ )
+		{
+			Row<String, String, byte[]> row = rows.getByKey( keys.get( i ) );
+			if( row == null )
+				continue;
+			HColumn<String, byte[]> column = row.getColumnSlice().getColumnByName( DEFAULT_COLUMN_NAME );
+			if( column != null )
+				values[i] = column.getValue();
+		}
+		return values;
+	}
+	
 //[FIXME] Experimental: use templates instead of mutators
 //	public byte[] get( String columnFamilyName, String key )
 //	{
@@ -274,6 +309,53 @@ public class CassandraTransport
 		return results;
 	}
 
+	/**
+	 * Streams up to maxRows rows starting at startKey with range slices of
+	 * pageSize rows, each page starting at the last key of the one before
+	 * (which is skipped, range slices include their start key). Rows are
+	 * counted into the tally as they arrive and then dropped; rows without
+	 * a value (e.g. range ghosts of deleted rows) don't count.
+	 */
+	public void scan( String startKey, String columnFamilyName, int maxRows, int pageSize, ScanStats.Tally tally )
+	{
+		RangeSlicesQuery<String, String, byte[]> rangeSlicesQuery = HFactory.createRangeSlicesQuery( this._keyspace, StringSerializer.get(), StringSerializer.get(), BytesArraySerializer.get() );
+		rangeSlicesQuery.setColumnFamily( columnFamilyName );
+		rangeSlicesQuery.setColumnNames( DEFAULT_COLUMN_NAME );
+		
+		String pageStart = startKey;
+		boolean skipFirst = false;
+		int rowCount = 0;
+		while( rowCount < maxRows )
+		{
+			int pageRows = Math.min( pageSize, maxRows - rowCount );
+			rangeSlicesQuery.setKeys( pageStart, "" );
+			// One extra row to make up for the repeated start key
+			rangeSlicesQuery.setRowCount( skipFirst ? pageRows + 1 : pageRows );
+			OrderedRows<String, String, byte[]> rows = rangeSlicesQuery.execute().get();
+			
+			List<Row<String, String, byte[]>> page = rows.getList();
+			for( int i = 0; i < page.size() && rowCount < maxRows; i++ )
+			{
+				Row<String, String, byte[]> row = page.get( i );
+				if( skipFirst && i == 0 && row.getKey().equals( pageStart ) )
+					continue;
+				
+				HColumn<String, byte[]> column = row.getColumnSlice().getColumnByName( DEFAULT_COLUMN_NAME );
+				if( column != null && column.getValue() != null )
+				{
+					tally.row( column.getValue().length );
+					rowCount++;
+				}
+			}
+			
+			// A short page means we ran off the end of the ring
+			if( page.size() < rangeSlicesQuery.getRowCount() )
+				break;
+			pageStart = rows.peekLast().getKey();
+			skipFirst = true;
+		}
+	}
+
 	//[FIXME] Experimental: use templates instead of mutators
 	//public List<byte[]> scan( String startKey, String columnFamilyName, int maxRows )// throws IOException
 	//{
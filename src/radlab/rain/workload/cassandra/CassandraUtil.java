@@ -1,12 +1,14 @@
 package radlab.rain.workload.cassandra;
 
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
-import java.util.ArrayList;
+import radlab.rain.util.storage.BulkLoader;
+import radlab.rain.util.storage.IBulkLoadSink;
+import radlab.rain.util.storage.IBulkLoadSinkFactory;
+import radlab.rain.util.storage.KeyEncoder;
 
 public class CassandraUtil 
 {
-	public static NumberFormat KEY_FORMATTER = new DecimalFormat( "000000000" );
+	/** Zero-padded 9-digit keys; thread-safe, unlike the DecimalFormat it replaces. */
+	public static KeyEncoder KEY_ENCODER = new KeyEncoder( KeyEncoder.DEFAULT_WIDTH );
 	
 	public static void main(String[] args) throws Exception
 	{
@@ -31,7 +33,7 @@ public class CassandraUtil
 			maxKey = Integer.parseInt( args[6] );
 			size = Integer.parseInt( args[7] );
 		}
-		else if( args.length == 9 )
+		else if( args.length >= 9 && args.length <= 13 )
 		{
 			host = args[0];
 			port = Integer.parseInt( args[1] );
@@ -50,56 +52,46 @@ public class CassandraUtil
 		else
 		{
 			System.out.println( "Usage   : CassandraUtil <host> <port> <clustername> <keyspace> <columnfamily> <min key> <max key> <size>" );
-			System.out.println( "Usage   : CassandraUtil <host> <port> <clustername> <keyspace> <columnfamily> <min key> <max key> <size> <replication factor>" );
+			System.out.println( "Usage   : CassandraUtil <host> <port> <clustername> <keyspace> <columnfamily> <min key> <max key> <size> <replication factor> " + BulkLoader.OPTIONS_USAGE );
 			System.out.println( "Example : CassandraUtil localhost 9160 rainclstr rainks raincf 1 100000 4096" );
 			System.out.println( "Example : CassandraUtil localhost 9160 rainclstr rainks raincf 1 100000 4096 2" );
+			System.out.println( "Example : CassandraUtil localhost 9160 rainclstr rainks raincf 1 500000000 4096 2 32 500 0 cassandra.checkpoint" );
 			System.exit( -1 );
 		}
 	
-		// Do data loads in parallel, shoot for using 10 threads
-		int keyCount = (maxKey - minKey) + 1;
-		int keyBlockSize = 10000;
-		int loaderThreads = new Double( Math.ceil( (double) keyCount / (double) keyBlockSize ) ).intValue();
-				
-		CassandraTransport adminClient = new CassandraTransport( clusterName, host, port, loaderThreads );
-		adminClient.deleteKeyspace( keyspaceName );
-		//if( true )
-		//	return;
+		final BulkLoader loader = new BulkLoader( minKey, maxKey, size );
+		loader.setOptions( args, 9 );
+		
+		CassandraTransport adminClient = new CassandraTransport( clusterName, host, port, loader.getWorkers() );
+		// A resumed load keeps the keyspace it already started filling
+		if( loader.getCheckpointFile() == null || !loader.getCheckpointFile().exists() )
+			adminClient.deleteKeyspace( keyspaceName );
 		
 		// Set the replication factor explicitly
 		adminClient.setReplicationFactor( replicationFactor );
 		adminClient.initialize( keyspaceName, true, columnFamilyName, true );
-				
-		ArrayList<CassandraLoaderThread> threads = new ArrayList<CassandraLoaderThread>();
-		for( int i = 0; i < loaderThreads; i++ )
+		
+		final String cassandraCluster = clusterName;
+		final String cassandraHost = host;
+		final int cassandraPort = port;
+		final String cassandraKeyspace = keyspaceName;
+		final String cassandraColumnFamily = columnFamilyName;
+		try
 		{
-			CassandraTransport client = new CassandraTransport( clusterName, host, port, loaderThreads );
-			// Set the timeouts
-			//client.setConnectionTimeout( 60000 );
-			//client.setSocketIdleTimeout( 60000 );
-			// Explicitly initialize
-			client.initialize( keyspaceName, false, columnFamilyName, false );
-			int startKey = (i * keyBlockSize) + 1;
-			int endKey = Math.min( (startKey + keyCount) - 1 , (startKey + keyBlockSize) - 1 );
-			System.out.println( "Start key: " + KEY_FORMATTER.format( startKey ) + " end key: " + KEY_FORMATTER.format( endKey ) );
-			CassandraLoaderThread thread = new CassandraLoaderThread(  columnFamilyName, startKey, endKey, size, client );
-			threads.add( thread );
+			loader.load( new IBulkLoadSinkFactory()
+			{
+				public IBulkLoadSink createSink( int workerId ) throws Exception
+				{
+					CassandraTransport client = new CassandraTransport( cassandraCluster, cassandraHost, cassandraPort, loader.getWorkers() );
+					// Explicitly initialize
+					client.initialize( cassandraKeyspace, false, cassandraColumnFamily, false );
+					return new CassandraBulkLoadSink( client, cassandraColumnFamily );
+				}
+			} );
+		}
+		finally
+		{
+			adminClient.dispose();
 		}
-		System.out.println( "Loading: " + ((maxKey - minKey)+1) + " keys with " + size + " byte(s) values each." );
-		long start = System.currentTimeMillis();
-		// Start all the loader threads
-		for( CassandraLoaderThread thread : threads )
-			thread.start();
-		
-		// Wait on them to finish
-		for( CassandraLoaderThread thread : threads )
-			thread.join();
-		
-		long end = System.currentTimeMillis();
-		double durationSecs = (end - start)/1000.0;
-		double rate = keyCount/durationSecs;
-		System.out.println( "Load finished: " + durationSecs + " seconds. Rate: " + rate + " requests/sec" );
-				
-		adminClient.dispose();
 	}
 }
@@ -75,9 +75,6 @@ public class CloudstoneNullGenerator extends Generator
 	public CloudstoneNullGenerator(ScenarioTrack trk) 
 	{
 		super(trk);
-		
-		// Initalize random utility generators and HttpTransport instances
-		this._rng = new java.util.Random();
 	}
 
 	@Override
@@ -108,11 +105,13 @@ public class CloudstoneNullGenerator extends Generator
 	public void initialize() 
 	{
 		this._logger = Logger.getLogger( this._name );
+		// The user's own stream; the generator is named by now
+		this._rng = this.getRandom();
 		// Initialize the cycle time and think time generators. If you want non-stop
 		// activity, then set mean cycle time, and mean think times to 0 and the
 		// number generators should just *always* return 0 for the think/cycle time
-		this._cycleTimeGenerator = new NegativeExponential( this._cycleTime );
-		this._thinkTimeGenerator = new NegativeExponential( this._thinkTime );
+		this._cycleTimeGenerator = new NegativeExponential( this._cycleTime, this.getRandom() );
+		this._thinkTimeGenerator = new NegativeExponential( this._thinkTime, this.getRandom() );
 	}
 
 	@Override
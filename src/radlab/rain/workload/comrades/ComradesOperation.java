@@ -49,6 +49,7 @@ import radlab.rain.IScoreboard;
 import radlab.rain.LoadProfile;
 import radlab.rain.Operation;
 import radlab.rain.ScenarioTrack;
+import radlab.rain.util.AppServerStats;
 import radlab.rain.util.HttpTransport;
 
 public abstract class ComradesOperation extends Operation 
@@ -64,10 +65,10 @@ public abstract class ComradesOperation extends Operation
 	// These references will be set by the Generator.
 	protected HttpTransport _http;
 	protected HashSet<String> _cachedURLs = new HashSet<String>();
-	private Random _random = new Random();
+	private Random _random = null;
 	// Keep track of where this operation is supposed to go so that
 	// we can update the app server traffic stats
-	private String _appServerTarget = "";
+	private AppServerStats _appServerTarget = null;
 		
 	public ComradesOperation(boolean interactive, IScoreboard scoreboard) 
 	{
@@ -82,7 +83,7 @@ public abstract class ComradesOperation extends Operation
 	@Override 
 	public void preExecute()
 	{
-		if( this._appServerTarget == null || this._appServerTarget.trim().length() == 0 )
+		if( this._appServerTarget == null )
 			return;
 		
 		ScenarioTrack track = this._generator.getTrack();
@@ -93,7 +94,7 @@ public abstract class ComradesOperation extends Operation
 	@Override
 	public void postExecute()
 	{
-		if( this._appServerTarget == null || this._appServerTarget.trim().length() == 0 )
+		if( this._appServerTarget == null )
 			return;
 		
 		ScenarioTrack track = this._generator.getTrack();
@@ -110,10 +111,12 @@ public abstract class ComradesOperation extends Operation
 	public void prepare(Generator generator) 
 	{
 		this._generator = generator;
+		// Draw from the user's own stream rather than a fresh unseeded Random per operation
+		this._random = generator.getRandom();
 		ComradesGenerator comradesGenerator = (ComradesGenerator) generator;
 		
 		// Save the appServer target that's currently in the generator
-		this._appServerTarget = comradesGenerator._appServerUrl;
+		this._appServerTarget = comradesGenerator._appServer;
 						
 		// Refresh the cache to simulate real-world browsing.
 		this.refreshCache();
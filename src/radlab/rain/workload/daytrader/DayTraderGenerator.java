@@ -109,9 +109,6 @@ public class DayTraderGenerator extends Generator
 		this._sellHoldingUrl = this._baseUrl + "/app?action=sell&holdingID="; //0
 		this._viewQuotesUrl = this._baseUrl + "/app?action=quotes&symbols="; //s:0,s:1,s:2,s:3,s:4"
 		this._buyStockUrl = this._baseUrl + "/app?action=buy&symbol="; //s%3A0&quantity=100";
-		
-		//System.out.println( "Track mean think time: " + track.getMeanThinkTime() ); 
-		this._thinkTimeGenerator = new NegativeExponential( track.getMeanThinkTime() * 1000 );
 	}
 	
 	/**
@@ -119,7 +116,10 @@ public class DayTraderGenerator extends Generator
 	 */
 	public void initialize()
 	{
-		this._randomNumberGenerator = new java.util.Random();
+		// Draw from the user's own stream; the generator is named by now
+		this._randomNumberGenerator = this.getRandom();
+		//System.out.println( "Track mean think time: " + this.getTrack().getMeanThinkTime() ); 
+		this._thinkTimeGenerator = new NegativeExponential( this.getTrack().getMeanThinkTime() * 1000, this._randomNumberGenerator );
 		this._http = new HttpTransport();
 	}
 	
@@ -200,7 +200,7 @@ public abstract class DayTraderOperation extends Operation
 		// In the generator we'll know how many stocks we have total
 		// Pick n out of total without replacement.
 		HashSet<Integer> symbolSearch = new HashSet<Integer>();
-		Random rnd = new Random();
+		Random rnd = this.getGenerator().getRandom();
 		
 		while( symbolSearch.size() < numSymbols )
 		{
@@ -265,7 +265,7 @@ public abstract class DayTraderOperation extends Operation
 		if( numStocksToBuy > numStocksToSearchFor )
 			numStocksToBuy = 1;
 		
-		Random rnd = new  Random();
+		Random rnd = this.getGenerator().getRandom();
 		HashSet<Integer> stocksBought = new HashSet<Integer>(); 
 		while( stocksBought.size() < numStocksToBuy )
 		{
@@ -81,7 +81,7 @@ public class SellHoldingOperation extends DayTraderOperation
 		// If we've got holdings then randomly pick one to sell
 		if( holdings.size() > 0 )
 		{
-			Random rnd = new Random();
+			Random rnd = this.getGenerator().getRandom();
 			// If we've got one, then sell it
 			if( holdings.size() == 1 )
 			{
@@ -41,12 +41,7 @@ import radlab.rain.util.AppServerStats;
 import radlab.rain.util.HttpTransport;
 import radlab.rain.util.NegativeExponential;
 
-import java.util.Collections;
-import java.util.Hashtable;
-import java.util.Iterator;
 import java.util.LinkedHashSet;
-import java.util.Random;
-import java.util.Vector;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -56,6 +51,7 @@ public class GraditGenerator extends Generator {
 	public static String CFG_DEBUG_KEY = "debug";
 	public static String CFG_ZOOKEEPER_CONN_STRING = "zookeeperConnString";
 	public static String CFG_ZOOKEEPER_APP_SERVER_PATH = "zookeeperAppServerPath";
+	public static String CFG_APP_SERVER_CHOICES = "appServerChoices";
 	public static int DEFAULT_APP_SERVER_PORT = 8080;
 
 	protected static final String[] HOMEPAGE_STATICS = {
@@ -124,11 +120,11 @@ public class GraditGenerator extends Generator {
 	private boolean _debug = false;
 
 	private HttpTransport _http;
-	private Random _rand;
 	private NegativeExponential _thinkTimeGenerator = null;
 	private NegativeExponential _cycleTimeGenerator = null;
 
 	// App urls
+	public AppServerStats _appServer = null;
 	public String _baseUrl;
 	public String _homeUrl;
 	public String _registerUserUrl;
@@ -141,7 +137,6 @@ public class GraditGenerator extends Generator {
 	// Application-specific variables
 	private boolean _isLoggedIn = false;
 	private boolean _usingZookeeper = false;
-	private Vector<AppServerStats> _appServers = new Vector<AppServerStats>();
 	
 	// public String _loginAuthToken;
 	public String _username;
@@ -149,7 +144,6 @@ public class GraditGenerator extends Generator {
 	
 	public GraditGenerator(ScenarioTrack track) {
 		super(track);
-		this._rand = new Random();
 		//System.out.println( "Think time ctor: " + track.getMeanThinkTime() );
 		this._thinkTime = (long)(track.getMeanThinkTime() * 1000);
 		this._cycleTime = (long)(track.getMeanCycleTime() * 1000);
@@ -236,35 +230,17 @@ public class GraditGenerator extends Generator {
 		}
 
 		if (this._usingZookeeper) {
-			// Get the servers
-			Hashtable<String, AppServerStats> appServerTraffic = graditTrack.getAppServers();
-			// Push them all into a list and sort them
-			if( appServerTraffic.size() > 0 )
-			{
-				this._appServers.clear();
-				// Purge the traffic stats list and then re-populate and sort so that we
-				// get the least loaded server
-				Iterator<AppServerStats> trafficIt = appServerTraffic.values().iterator();
-				while( trafficIt.hasNext() )
-					this._appServers.add( trafficIt.next() );
-				
-				// Sort the traffic stats so that we can find the least loaded server
-				Collections.sort( this._appServers );
-			}
-			
-			// Pick the first server, this should be the most lightly loaded server
-			// based on the sort
-			String[] appServerNamePort = this._appServers.firstElement()._appServer.split( HOSTNAME_PORT_SEPARATOR );//this._appServers[this._currentAppServer].split( HOSTNAME_PORT_SEPARATOR );
-		
-			if (appServerNamePort.length == 2)
-				this.initializeUrls(appServerNamePort[0], Integer
-						.parseInt(appServerNamePort[1]));
-			else if (appServerNamePort.length == 1)
-				this.initializeUrls(appServerNamePort[0],
-						DEFAULT_APP_SERVER_PORT);
+			if (config.has(CFG_APP_SERVER_CHOICES))
+				graditTrack.setAppServerChoices(config.getInt(CFG_APP_SERVER_CHOICES));
+
+			// Start out on a lightly loaded server
+			AppServerStats appServer = graditTrack.pickAppServer(this.getRandom());
+			if (appServer != null)
+				this.targetAppServer(appServer);
+			else
+				this.initializeUrls(this.getTrack().getTargetHostName(), this
+						.getTrack().getTargetHostPort());
 		} else {
-			String appServer = this.getTrack().getTargetHostName() + HOSTNAME_PORT_SEPARATOR + this.getTrack().getTargetHostPort();
-			this._appServers.add( new AppServerStats( appServer, 0L ) );
 			this.initializeUrls(this.getTrack().getTargetHostName(), this
 					.getTrack().getTargetHostPort());
 		}
@@ -272,8 +248,24 @@ public class GraditGenerator extends Generator {
 		// Initialize think/cycle time random number generators (if you
 		// need/want them)
 		//System.out.println("Think time: " + this._thinkTime);
-		this._cycleTimeGenerator = new NegativeExponential( this._cycleTime );
-		this._thinkTimeGenerator = new NegativeExponential( this._thinkTime );
+		this._cycleTimeGenerator = new NegativeExponential( this._cycleTime, this.getRandom() );
+		this._thinkTimeGenerator = new NegativeExponential( this._thinkTime, this.getRandom() );
+	}
+
+	/**
+	 * Points the urls at the given server. The urls are only rebuilt when the
+	 * server changes.
+	 */
+	private void targetAppServer(AppServerStats appServer) {
+		if (appServer == this._appServer)
+			return;
+
+		if (this._debug)
+			System.out.println(this + " targeting " + appServer.toString());
+
+		this._appServer = appServer;
+		this.initializeUrls(appServer.getHost(), appServer
+				.getPort(DEFAULT_APP_SERVER_PORT));
 	}
 
 	public void initializeStaticUrls() {
@@ -303,66 +295,22 @@ public class GraditGenerator extends Generator {
 			nextOperation = 0;
 		} else {
 			if (this._usingZookeeper) {
+				// Pick a lightly loaded server from the list cached in the track
+				// - this only goes to ZooKeeper if the list changed
 				GraditScenarioTrack graditTrack = (GraditScenarioTrack) this._loadTrack;
-				if( graditTrack.getAppServerListChanged() )
-					graditTrack.updateAppServerList();
-				
-				// Always get the list of app servers cached in the track - this doesn't cause a query to
-				// ZooKeeper
-				Hashtable<String, AppServerStats> appServerTraffic = graditTrack.getAppServers();
-				// Push them all into a list and sort them
-				if( appServerTraffic.size() > 0 )
-				{
-					this._appServers.clear();
-					// Purge the traffic stats list and then re-populate and sort so that we
-					// get the least loaded server
-					Iterator<AppServerStats> trafficIt = appServerTraffic.values().iterator();
-					while( trafficIt.hasNext() )
-						this._appServers.add( trafficIt.next() );
-					
-					// Sort the traffic stats so that we can find the least loaded server
-					if( appServerTraffic.size() > 1 )
-					{
-						Collections.sort( this._appServers );
-						if( this._debug )
-						{
-							// Print out the list of servers
-							for( AppServerStats stats :  this._appServers )
-								System.out.println( this + stats.toString() );
-						}
-					}
+				AppServerStats appServer = graditTrack.pickAppServer(this.getRandom());
+				if (appServer == null) {
+					System.out
+							.println("No app servers available to target. Executing no-op.");
+					return null; // no-op
 				}
+				this.targetAppServer(appServer);
 			}
 
-			if (this._appServers == null) {
-				String appServer = this.getTrack().getTargetHostName() + HOSTNAME_PORT_SEPARATOR + this.getTrack().getTargetHostPort();
-				this._appServers.add( new AppServerStats( appServer, 0L ) );
-				this.initializeUrls(this.getTrack().getTargetHostName(), this
-						.getTrack().getTargetHostPort());
-			}
-
-			// Pick the new target based on the current app server value
-			String nextAppServerHostPort[] = null;
-			
-			if (this._appServers.size() == 0) {
-				System.out
-						.println("No app servers available to target. Executing no-op.");
-				return null; // no-op
-			}
-
-			nextAppServerHostPort = this._appServers.firstElement()._appServer.split( HOSTNAME_PORT_SEPARATOR );
-
-			if (nextAppServerHostPort.length == 2)
-				this.initializeUrls(nextAppServerHostPort[0], Integer
-						.parseInt(nextAppServerHostPort[1]));
-			else if (nextAppServerHostPort.length == 1)
-				this.initializeUrls(nextAppServerHostPort[0],
-						DEFAULT_APP_SERVER_PORT);
-
 			// Get the selection matrix
 			double[][] selectionMix = this.getTrack().getMixMatrix(
 					currentLoad.getMixName()).getSelectionMix();
-			double rand = this._rand.nextDouble();
+			double rand = this.getRandom().nextDouble();
 
 			int j;
 			for (j = 0; j < selectionMix.length; j++) {
@@ -49,6 +49,8 @@ import radlab.rain.Generator;
 import radlab.rain.IScoreboard;
 import radlab.rain.LoadProfile;
 import radlab.rain.Operation;
+import radlab.rain.ScenarioTrack;
+import radlab.rain.util.AppServerStats;
 import radlab.rain.util.HttpTransport;
 
 public class GraditOperation extends Operation 
@@ -63,7 +65,10 @@ public class GraditOperation extends Operation
 	// These references will be set by the Generator.
 	protected HttpTransport _http;
 	protected HashSet<String> _cachedURLs = new HashSet<String>();
-	private Random _random = new Random();	
+	private Random _random = null;
+	// Keep track of where this operation is supposed to go so that
+	// we can update the app server traffic stats
+	private AppServerStats _appServerTarget = null;
 		
 	public GraditOperation(boolean interactive, IScoreboard scoreboard) 
 	{
@@ -78,6 +83,28 @@ public class GraditOperation extends Operation
 	@Override
 	public void cleanup()
 	{}
+	
+	@Override 
+	public void preExecute()
+	{
+		if( this._appServerTarget == null )
+			return;
+		
+		ScenarioTrack track = this._generator.getTrack();
+		if( track instanceof GraditScenarioTrack )
+			((GraditScenarioTrack) track).requestIssue( this._appServerTarget );
+	}
+	
+	@Override
+	public void postExecute()
+	{
+		if( this._appServerTarget == null )
+			return;
+		
+		ScenarioTrack track = this._generator.getTrack();
+		if( track instanceof GraditScenarioTrack )
+			((GraditScenarioTrack) track).requestRetire( this._appServerTarget );
+	}
 
 	@Override
 	public void execute() throws Throwable 
@@ -87,8 +114,13 @@ public class GraditOperation extends Operation
 	public void prepare(Generator generator) 
 	{
 		this._generator = generator;
+		// Draw from the user's own stream rather than a fresh unseeded Random per operation
+		this._random = generator.getRandom();
 		GraditGenerator graditGenerator = (GraditGenerator) generator;
 		
+		// Save the appServer target that's currently in the generator
+		this._appServerTarget = graditGenerator._appServer;
+		
 		// Refresh the cache to simulate real-world browsing.
 		this.refreshCache();
 		
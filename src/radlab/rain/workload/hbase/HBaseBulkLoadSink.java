@@ -0,0 +1,38 @@
+package radlab.rain.workload.hbase;
+
+import radlab.rain.util.storage.IBulkLoadSink;
+
+/**
+ * Loads batches into HBase as a list of Puts, flushed at the end of every
+ * batch so the loader's checkpoint never runs ahead of what's been written.
+ */
+public class HBaseBulkLoadSink implements IBulkLoadSink 
+{
+	private HBaseTransport _hbase = null;
+	private String _columnFamilyName = "";
+	private byte[][] _keys = new byte[0][];
+	
+	public HBaseBulkLoadSink( HBaseTransport hbase, String columnFamilyName )
+	{
+		this._hbase = hbase;
+		this._columnFamilyName = columnFamilyName;
+	}
+	
+	public void writeBatch( long[] keys, byte[][] values, int count ) throws Exception
+	{
+		if( this._keys.length < count )
+			this._keys = new byte[keys.length][];
+		// Puts keep a reference to their row key, so each one gets its own array
+		for( int i = 0; i < count; i++ )
+			this._keys[i] = HBaseUtil.KEY_ENCODER.toBytes( keys[i] );
+		
+		this._hbase.putMany( this._columnFamilyName, this._keys, values, count );
+		this._hbase.flushCommits();
+	}
+	
+	public void close() throws Exception
+	{
+		// Dispose flushes any outstanding commits and then closes the table
+		this._hbase.dispose();
+	}
+}
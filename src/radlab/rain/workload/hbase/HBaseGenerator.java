@@ -1,5 +1,7 @@
 package radlab.rain.workload.hbase;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -9,14 +11,17 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import radlab.rain.Generator;
+import radlab.rain.IReplayableGenerator;
 import radlab.rain.LoadProfile;
 import radlab.rain.ObjectPool;
 import radlab.rain.Operation;
 import radlab.rain.ScenarioTrack;
 import radlab.rain.util.Histogram;
 import radlab.rain.util.storage.KeyGenerator;
+import radlab.rain.util.storage.PayloadSlab;
+import radlab.rain.util.storage.ScanStats;
 
-public class HBaseGenerator extends Generator 
+public class HBaseGenerator extends Generator implements IReplayableGenerator
 {
 	public static String CFG_USE_POOLING_KEY 		= "usePooling";
 	public static String CFG_DEBUG_KEY		 		= "debug";
@@ -36,15 +41,20 @@ public class HBaseGenerator extends Generator
 	public static int READ 					= HBaseLoadProfile.READ;
 	public static int WRITE 				= HBaseLoadProfile.WRITE;
 	public static int SCAN					= HBaseLoadProfile.SCAN;
+	public static int MULTI_GET				= HBaseLoadProfile.MULTI_GET;
 	public static int DEFAULT_OBJECT_SIZE	= 4096;
 	public static int DEFAULT_WRITE_BUFFER_MB = 2; // 2MB write buffer per thread by default 
 		
-	@SuppressWarnings("unused")
-	private HBaseRequest<String> _lastRequest 	= null;
+	private HBaseRequest<byte[]> _lastRequest 	= null;
 	private HBaseTransport _hbaseClient 		= null;
 	private boolean _usePooling					= true;
 	private boolean _debug 						= false;
+	private PayloadSlab _payloads					= null;
+	private boolean _sharedPayloads				= false;
 	private int _writeBufferMB					= DEFAULT_WRITE_BUFFER_MB;
+	// Rows/sec and time to first row, shared by all HBase generators
+	private ScanStats _scanStats				= null;
+	private ScanStats _multiGetStats			= null;
 	// Fixed work per thread/generator debugging
 	//private boolean _writeSequentialBlock		= false;
 	//private boolean _done 						= false; // for block writes
@@ -69,6 +79,9 @@ public class HBaseGenerator extends Generator
 	public HBaseTransport getHBaseTransport()
 	{ return this._hbaseClient; }
 	
+	public ScanStats getScanStats() { return this._scanStats; }
+	public ScanStats getMultiGetStats() { return this._multiGetStats; }
+	
 	public void setUsePooling( boolean value ) { this._usePooling = value; }
 	public boolean getUsePooling() { return this._usePooling; }
 		
@@ -85,10 +98,19 @@ public class HBaseGenerator extends Generator
 		if( config.has( CFG_DEBUG_KEY) )
 			this._debug = config.getBoolean( CFG_DEBUG_KEY );
 		
+		// Values are cut from a shared, pre-generated slab
+		this._payloads = PayloadSlab.getSharedSlab( config );
+		if( config.has( PayloadSlab.CFG_SHARED_PAYLOADS_KEY ) )
+			this._sharedPayloads = config.getBoolean( PayloadSlab.CFG_SHARED_PAYLOADS_KEY );
+		
 		// Look for a random number seed
+		// Each user gets its own stream; a configured seed replaces the scenario's master seed
 		if( config.has( CFG_RNG_SEED_KEY ) )
-			this._random = new Random( config.getLong( CFG_RNG_SEED_KEY ) );
-		else this._random = new Random();
+			this.setRandomSeed( config.getLong( CFG_RNG_SEED_KEY ) );
+		this._random = this.getRandom();
+	
+		this._scanStats = ScanStats.retain( "HBase " + HBaseScanOperation.NAME );
+		this._multiGetStats = ScanStats.retain( "HBase " + HBaseMultiGetOperation.NAME );
 	
 		if( config.has( CFG_TABLE_NAME_KEY ) )
 			this._tableName = config.getString( CFG_TABLE_NAME_KEY );
@@ -166,6 +188,15 @@ public class HBaseGenerator extends Generator
 			//System.out.println( this._hotObjHist.toString() );
 		}
 		
+		// The last generator out prints the row stats
+		if( this._scanStats != null )
+		{
+			this._scanStats.release();
+			this._multiGetStats.release();
+			this._scanStats = null;
+			this._multiGetStats = null;
+		}
+		
 		// Dispose of the client
 		this._hbaseClient.dispose();
 	}
@@ -175,59 +206,18 @@ public class HBaseGenerator extends Generator
 	{
 		LoadProfile currentLoad = this.getTrack().getCurrentLoadProfile();
 		this._latestLoadProfile = currentLoad;
-		int key = -1;
 		
 		HBaseLoadProfile hbaseProfile = (HBaseLoadProfile) this._latestLoadProfile; 
-		
-		// Check whether we're sending traffic to hot objects or not
-		double rndVal = this._random.nextDouble();
-		ArrayList<Integer> hotObjectList = hbaseProfile.getHotObjectList();
-		HashSet<Integer> hotObjectSet = hbaseProfile.getHotObjectSet();
-		
-		int numHotObjects = hotObjectList.size(); 
-		
-		/*
-		int minKey = hbaseProfile.getKeyGenerator().getMinKey();
-		int maxKey = hbaseProfile.getKeyGenerator().getMaxKey();
-		int keyCount = (maxKey - minKey) + 1;
-		int maxThreads = this.getTrack().getMaxUsers();
-		// Compute our block boundaries, e.g., our block size
-		int keyBlockSize = (int) Math.ceil( keyCount/maxThreads );
-		// Get our thread id and use that to determine where our block starts
-		int startKey = (int)((Thread.currentThread().getId()%maxThreads) * keyBlockSize) + 1;
-		int endKey = (startKey + keyBlockSize) - 1;
-		*/
-		if( rndVal < hbaseProfile.getHotTrafficFraction() &&  numHotObjects > 0 )
-		{
-			// Choose a key from the hot set uniformly at random.
-			// Later we can use add skew within the hot object set
-			key = hotObjectList.get( this._random.nextInt( numHotObjects ) );
-			if( this._debug )
-				this._hotObjHist.addObservation( String.valueOf( key ) );
-		}
-		else
-		{	
-			// Pick a key using the regular keygen strategy
-			KeyGenerator keyGen = hbaseProfile.getKeyGenerator();
-			key = keyGen.generateKey();
-			// Check whether we picked a key that's in the hot set - if we did, try again
-			while( hotObjectSet.contains( key ) ) 
-				key = keyGen.generateKey();
-			
-			// Do some stats checking for non-hot objects
-			if( this._debug )
-				this._keyHist.addObservation( String.valueOf( key ) );
-		}
+		int key = this.nextKey( hbaseProfile );
 		
 		// Assume raw keys for now - we could use this to index into some other structure
 		// to produce the "real" key
 				
-		// All mongo requests have string keys (see Mongo's BasicDBObject)
-		HBaseRequest<String> nextRequest = new HBaseRequest<String>();
-		// Turn the integer key into a string
-		nextRequest.key = HBaseUtil.KEY_FORMATTER.format( key );
+		HBaseRequest<byte[]> nextRequest = new HBaseRequest<byte[]>();
+		// Encode the integer key; the operation may run asynchronously so it gets its own copy
+		nextRequest.key = HBaseUtil.KEY_ENCODER.toBytes( key );
 		
-		rndVal = this._random.nextDouble();
+		double rndVal = this._random.nextDouble();
 		int i = 0;
 		
 		// If we cared about access sequences we could check whether we just did a read or write
@@ -270,29 +260,145 @@ public class HBaseGenerator extends Generator
 				nextRequest.key = String.valueOf( this._currentKeyToWrite );
 			*/
 			// We could also get the size cdf if we want to support size histograms
-			nextRequest.size = hbaseProfile.getSize();
+			nextRequest.size = hbaseProfile.nextSize( this._random );
 		}
 
 		if( nextRequest.op == HBaseLoadProfile.SCAN )
-			nextRequest.maxScanRows = 1000; // Use a fixed value for now, but expand it later with a distribution, randomized or deterministic value
+		{
+			nextRequest.maxScanRows = hbaseProfile.getScanRows();
+			nextRequest.pageSize = hbaseProfile.getScanPageSize();
+		}
+		else if( nextRequest.op == HBaseLoadProfile.MULTI_GET )
+		{
+			// The first key is the one picked above, the rest are drawn the same way
+			int count = hbaseProfile.getMultiGetSize();
+			nextRequest.keys = new ArrayList<byte[]>( count );
+			nextRequest.keys.add( nextRequest.key );
+			for( int k = 1; k < count; k++ )
+				nextRequest.keys.add( HBaseUtil.KEY_ENCODER.toBytes( this.nextKey( hbaseProfile ) ) );
+		}
 		
 		// Update the last request
 		this._lastRequest = nextRequest;
 		return this.getHBaseOperation( nextRequest );
 	}
 	
-	private HBaseOperation getHBaseOperation( HBaseRequest<String> request )
+	private int nextKey( HBaseLoadProfile hbaseProfile )
+	{
+		int key = -1;
+		
+		// Check whether we're sending traffic to hot objects or not
+		double rndVal = this._random.nextDouble();
+		ArrayList<Integer> hotObjectList = hbaseProfile.getHotObjectList();
+		HashSet<Integer> hotObjectSet = hbaseProfile.getHotObjectSet();
+		
+		int numHotObjects = hotObjectList.size(); 
+		
+		/*
+		int minKey = hbaseProfile.getKeyGenerator().getMinKey();
+		int maxKey = hbaseProfile.getKeyGenerator().getMaxKey();
+		int keyCount = (maxKey - minKey) + 1;
+		int maxThreads = this.getTrack().getMaxUsers();
+		// Compute our block boundaries, e.g., our block size
+		int keyBlockSize = (int) Math.ceil( keyCount/maxThreads );
+		// Get our thread id and use that to determine where our block starts
+		int startKey = (int)((Thread.currentThread().getId()%maxThreads) * keyBlockSize) + 1;
+		int endKey = (startKey + keyBlockSize) - 1;
+		*/
+		if( rndVal < hbaseProfile.getHotTrafficFraction() &&  numHotObjects > 0 )
+		{
+			// Choose a key from the hot set uniformly at random.
+			// Later we can use add skew within the hot object set
+			key = hotObjectList.get( this._random.nextInt( numHotObjects ) );
+			if( this._debug )
+				this._hotObjHist.addObservation( String.valueOf( key ) );
+		}
+		else
+		{	
+			// Pick a key using the regular keygen strategy
+			KeyGenerator keyGen = hbaseProfile.getKeyGenerator();
+			key = keyGen.generateKey( this._random );
+			// Check whether we picked a key that's in the hot set - if we did, try again
+			while( hotObjectSet.contains( key ) ) 
+				key = keyGen.generateKey( this._random );
+			
+			// Do some stats checking for non-hot objects
+			if( this._debug )
+				this._keyHist.addObservation( String.valueOf( key ) );
+		}
+		return key;
+	}
+	
+	/**
+	 * Records the last request's operation, key and value size; values are
+	 * regenerated on replay since only their size matters to the target.
+	 * Scans add their page size and multi-gets their other keys.
+	 */
+	public void writeLastRequest( DataOutput out ) throws IOException
+	{
+		HBaseRequest<byte[]> request = this._lastRequest;
+		out.writeByte( request.op );
+		out.writeShort( request.key.length );
+		out.write( request.key );
+		out.writeInt( request.size );
+		out.writeInt( request.maxScanRows );
+		if( request.op == SCAN )
+			out.writeInt( request.pageSize );
+		else if( request.op == MULTI_GET )
+		{
+			out.writeShort( request.keys.size() - 1 );
+			for( int i = 1; i < request.keys.size(); i++ )
+			{
+				byte[] key = request.keys.get( i );
+				out.writeShort( key.length );
+				out.write( key );
+			}
+		}
+	}
+	
+	public Operation replayRequest( int operationIndex, DataInput in ) throws IOException
+	{
+		this._latestLoadProfile = this.getTrack().getCurrentLoadProfile();
+		
+		HBaseRequest<byte[]> request = new HBaseRequest<byte[]>();
+		request.op = in.readByte();
+		request.key = new byte[in.readShort()];
+		in.readFully( request.key );
+		request.size = in.readInt();
+		request.maxScanRows = in.readInt();
+		if( request.op == SCAN )
+			request.pageSize = in.readInt();
+		else if( request.op == MULTI_GET )
+		{
+			int count = in.readShort() + 1;
+			request.keys = new ArrayList<byte[]>( count );
+			request.keys.add( request.key );
+			for( int i = 1; i < count; i++ )
+			{
+				byte[] key = new byte[in.readShort()];
+				in.readFully( key );
+				request.keys.add( key );
+			}
+		}
+		
+		this._lastRequest = request;
+		return this.getHBaseOperation( request );
+	}
+	
+	private HBaseOperation getHBaseOperation( HBaseRequest<byte[]> request )
 	{
 		if( request.op == READ )
 			return this.createGetOperation( request );
 		else if( request.op == SCAN )
 			return this.createScanOperation( request );
+		else if( request.op == MULTI_GET )
+			return this.createMultiGetOperation( request );
 		else if( request.op == WRITE )
 			return this.createPutOperation( request );
 		else return null; // We don't support updates/deletes explicitly, if an existing key gets re-written then so be it
 	}
 	
-	public HBaseGetOperation createGetOperation( HBaseRequest<String> request )
+	public HBaseGetOperation createGetOperation( HBaseRequest<byte[]> request )
 	{
 		HBaseGetOperation op = null;
 		
@@ -312,7 +418,7 @@ public class HBaseGenerator extends Generator
 		return op;
 	}
 	
-	public HBaseScanOperation createScanOperation( HBaseRequest<String> request )
+	public HBaseScanOperation createScanOperation( HBaseRequest<byte[]> request )
 	{
 		HBaseScanOperation op = null;
 		
@@ -328,12 +434,34 @@ public class HBaseGenerator extends Generator
 		// Set the specific fields
 		op._key = request.key;
 		op._maxScanRows = request.maxScanRows;
+		op._scanPageSize = ( request.pageSize > 0 ) ? request.pageSize : HBaseLoadProfile.DEFAULT_SCAN_PAGE_SIZE;
 		
 		op.prepare( this );
 		return op;
 	}
+	
+	public HBaseMultiGetOperation createMultiGetOperation( HBaseRequest<byte[]> request )
+	{
+		HBaseMultiGetOperation op = null;
 		
-	public HBasePutOperation createPutOperation( HBaseRequest<String> request )
+		if( this._usePooling )
+		{
+			ObjectPool pool = this.getTrack().getObjectPool();
+			op = (HBaseMultiGetOperation) pool.rentObject( HBaseMultiGetOperation.NAME );	
+		}
+		
+		if( op == null )
+			op = new HBaseMultiGetOperation( this.getTrack().getInteractive(), this.getScoreboard() );
+		
+		// Set the specific fields
+		op._key = request.key;
+		op._keys = request.keys;
+		
+		op.prepare( this );
+		return op;
+	}
+		
+	public HBasePutOperation createPutOperation( HBaseRequest<byte[]> request )
 	{
 		HBasePutOperation op = null;
 		
@@ -349,15 +477,13 @@ public class HBaseGenerator extends Generator
 		// Set the specific fields
 		op._key = request.key;
 		
-		// Check whether a value has been pre-set, if not then fill in random bytes
+		// Check whether a value has been pre-set, if not then take one from the payload slab
 		if( request.value == null )
 		{
-			if( request.size < Integer.MAX_VALUE )
-			{
-				op._value = new byte[request.size];
-			}
-			else op._value = new byte[DEFAULT_OBJECT_SIZE];
-			this._random.nextBytes( op._value );
+			int size = ( request.size < Integer.MAX_VALUE ) ? request.size : DEFAULT_OBJECT_SIZE;
+			if( this._sharedPayloads )
+				op._value = this._payloads.sharedValue( this._random, size );
+			else op._value = this._payloads.nextValue( this._random, size );
 		}
 		else op._value = request.value;
 		op.prepare( this );
@@ -18,7 +18,7 @@ public class HBaseGetOperation extends HBaseOperation
 	{
 		byte[] result = this.doGet( this._key );
 		if( result == null || result.length == 0 )
-			throw new Exception( "Empty value for key: " + this._key );
+			throw new Exception( "Empty value for key: " + new String( this._key ) );
 		
 		this.setFailed( false );
 	}
@@ -0,0 +1,50 @@
+package radlab.rain.workload.hbase;
+
+import radlab.rain.IScoreboard;
+import radlab.rain.util.storage.ScanStats;
+
+/**
+ * Reads several rows with a single batched HTable.get(List&lt;Get&gt;). Like a
+ * single get, the operation fails if any of the rows is missing.
+ */
+public class HBaseMultiGetOperation extends HBaseOperation 
+{
+	public static String NAME = "MultiGet";
+	
+	// Reused across runs of this (pooled) operation
+	private ScanStats.Tally _tally = new ScanStats.Tally();
+	
+	public HBaseMultiGetOperation(boolean interactive, IScoreboard scoreboard) 
+	{
+		super(interactive, scoreboard);
+		this._operationName = NAME;
+		this._operationIndex = HBaseGenerator.MULTI_GET;
+	}
+	
+	@Override
+	public void execute() throws Throwable
+	{
+		this._tally.start();
+		int missing = 0;
+		try
+		{
+			// The batch comes back all at once, so the first row arrives with the last
+			byte[][] values = this.doMultiGet( this._keys );
+			for( byte[] value : values )
+			{
+				if( value != null )
+					this._tally.row( value.length );
+				else missing++;
+			}
+		}
+		finally
+		{
+			this.getGenerator().getMultiGetStats().record( this._tally );
+		}
+		
+		if( missing > 0 )
+			throw new Exception( "Missing " + missing + " of " + this._keys.size() + " rows for multi-get starting at key: " + new String( this._keys.get( 0 ) ) );
+		
+		this.setFailed( false );
+	}
+}
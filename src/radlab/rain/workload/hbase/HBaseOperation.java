@@ -6,15 +6,18 @@ import radlab.rain.Generator;
 import radlab.rain.IScoreboard;
 import radlab.rain.LoadProfile;
 import radlab.rain.Operation;
+import radlab.rain.util.storage.ScanStats;
 
 
 public abstract class HBaseOperation extends Operation 
 {
 	protected String _tableName = "";
 	protected String _columnFamilyName = "";
-	protected String _key = "";
+	protected byte[] _key = null;
 	protected byte[] _value = null;
 	protected int _maxScanRows = 1;
+	protected int _scanPageSize = 1;
+	protected ArrayList<byte[]> _keys = null;
 	protected HBaseTransport _hbaseClient = null;
 		
 	public HBaseOperation(boolean interactive, IScoreboard scoreboard) 
@@ -43,24 +46,41 @@ public abstract class HBaseOperation extends Operation
 	{
 		this._tableName = "";
 		this._columnFamilyName = "";
-		this._key = "";
+		this._key = null;
 		this._value = null;
 		this._maxScanRows = 1;
+		this._scanPageSize = 1;
+		this._keys = null;
 	}
 	
-	public byte[] doGet( String key ) throws Exception
+	public byte[] doGet( byte[] key ) throws Exception
 	{
 		return this._hbaseClient.get( this._columnFamilyName, key );
 	}
 	
-	public void doPut( String key, byte[] value ) throws Exception
+	public void doPut( byte[] key, byte[] value ) throws Exception
 	{
-		this._operationRequest = key;
+		this._operationRequest = new String( key );
 		this._hbaseClient.put( this._columnFamilyName, key, value );
 	}
 	
-	public ArrayList<byte[]> doScan( String startKey, int maxRows ) throws Exception
+	public ArrayList<byte[]> doScan( byte[] startKey, int maxRows ) throws Exception
 	{
 		return this._hbaseClient.scan( startKey, this._columnFamilyName, maxRows );
 	}
+	
+	public void doScan( byte[] startKey, int maxRows, int pageSize, ScanStats.Tally tally ) throws Exception
+	{
+		this._hbaseClient.scan( startKey, this._columnFamilyName, maxRows, pageSize, tally );
+	}
+	
+	public byte[][] doMultiGet( ArrayList<byte[]> keys ) throws Exception
+	{
+		return this._hbaseClient.getMany( this._columnFamilyName, keys, keys.size() );
+	}
+	
+	public HBaseGenerator getGenerator()
+	{
+		return (HBaseGenerator) this._generator;
+	}
 }
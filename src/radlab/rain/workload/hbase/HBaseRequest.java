@@ -1,5 +1,7 @@
 package radlab.rain.workload.hbase;
 
+import java.util.ArrayList;
+
 public class HBaseRequest<T>
 {
 	public T key;
@@ -7,4 +9,6 @@ public class HBaseRequest<T>
 	public int size;
 	public byte[] value;
 	public int maxScanRows;
+	public int pageSize;
+	public ArrayList<T> keys;
 }
@@ -1,13 +1,15 @@
 package radlab.rain.workload.hbase;
 
-import java.util.ArrayList;
-
 import radlab.rain.IScoreboard;
+import radlab.rain.util.storage.ScanStats;
 
 public class HBaseScanOperation extends HBaseOperation 
 {
 	public static String NAME = "Scan";
 	
+	// Reused across runs of this (pooled) operation
+	private ScanStats.Tally _tally = new ScanStats.Tally();
+	
 	public HBaseScanOperation(boolean interactive, IScoreboard scoreboard) 
 	{
 		super(interactive, scoreboard);
@@ -18,9 +20,19 @@ public class HBaseScanOperation extends HBaseOperation
 	@Override
 	public void execute() throws Throwable
 	{
-		ArrayList<byte[]> results = this.doScan( this._key, this._maxScanRows );
-		if( results.size() == 0 )
-			throw new Exception( "Empty scan results for stsart key: " + this._key + " rows: " + this._maxScanRows );
+		// Rows are streamed a page at a time and counted, not collected
+		this._tally.start();
+		try
+		{
+			this.doScan( this._key, this._maxScanRows, this._scanPageSize, this._tally );
+		}
+		finally
+		{
+			this.getGenerator().getScanStats().record( this._tally );
+		}
+		
+		if( this._tally.getRows() == 0 )
+			throw new Exception( "Empty scan results for start key: " + new String( this._key ) + " rows: " + this._maxScanRows );
 		
 		this.setFailed( false );
 	}
@@ -1,6 +1,7 @@
 package radlab.rain.workload.hbase;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 import java.io.IOException;
@@ -20,6 +21,8 @@ import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.HTableDescriptor;
 
+import radlab.rain.util.storage.ScanStats;
+
 
 public class HBaseTransport 
 {
@@ -145,19 +148,53 @@ public class HBaseTransport
 	}
 	
 	public byte[] get( String columnFamilyName, String key ) throws IOException
+	{
+		return this.get( columnFamilyName, key.getBytes() );
+	}
+	
+	public byte[] get( String columnFamilyName, byte[] key ) throws IOException
 	{
 		String qualifier = "";
-		Get get = new Get( key.getBytes() );
+		Get get = new Get( key );
 	    Result result = this._table.get( get );
 	    byte [] savedValue = result.getValue( columnFamilyName.getBytes(), qualifier.getBytes() );
 	    return savedValue;
 	}
 	
+	// Fetches the first count keys with one batched get (one RPC per region server); missing rows come back as null
+	public byte[][] getMany( String columnFamilyName, List<byte[]> keys, int count ) throws IOException
+	{
+		byte[] family = columnFamilyName.getBytes();
+		byte[] qualifier = "".getBytes();
+		ArrayList<Get> gets = new ArrayList<Get>( count );
+		for( int i = 0; i < count; i++ )
+		{
+			Get get = new Get( keys.get( i ) );
+			get.addColumn( family, qualifier );
+			gets.add( get );
+		}
+		
+		Result[] results = this._table.get( gets );
+		byte[][] values = new byte[count][];
+		for( int i = 0; i < count; i++ )
+		{
+			if( results[i] != null )
+				values[i] = results[i].getValue( family, qualifier );
+		}
+		return values;
+	}
+	
 	public void put( String columnFamilyName, String key, byte[] value ) throws IOException
+	{
+		this.put( columnFamilyName, key.getBytes(), value );
+	}
+	
+	// The Put keeps a reference to the key until it's flushed, so don't pass in a buffer that gets reused
+	public void put( String columnFamilyName, byte[] key, byte[] value ) throws IOException
 	{
 		String qualifier = "";
 		// Do write
-		Put put = new Put( key.getBytes() );
+		Put put = new Put( key );
 		put.add( columnFamilyName.getBytes(), qualifier.getBytes(), value );
 		// Check the heapsize
 		// System.out.println( put.heapSize() );
@@ -189,13 +226,35 @@ public class HBaseTransport
 		puts.clear();
 	}
 	
+	// Bulk loads: the first count keys/values go out as one list of puts; callers that need them durable flushCommits() afterwards
+	public void putMany( String columnFamilyName, byte[][] keys, byte[][] values, int count ) throws IOException
+	{
+		byte[] family = columnFamilyName.getBytes();
+		byte[] qualifier = "".getBytes();
+		ArrayList<Put> puts = new ArrayList<Put>( count );
+		for( int i = 0; i < count; i++ )
+		{
+			Put put = new Put( keys[i] );
+			put.add( family, qualifier, values[i] );
+			puts.add( put );
+		}
+		
+		this._table.put( puts );
+		puts.clear();
+	}
+	
 	public ArrayList<byte[]> scan( String startKey, String columnFamilyName, int maxRows ) throws IOException
+	{
+		return this.scan( startKey.getBytes(), columnFamilyName, maxRows );
+	}
+	
+	public ArrayList<byte[]> scan( byte[] startKey, String columnFamilyName, int maxRows ) throws IOException
 	{
 		ArrayList<byte[]> results = new ArrayList<byte[]>();
 		String qualifier = "";
 		
 		// Do scan
-		Scan scan = new Scan( startKey.getBytes() );
+		Scan scan = new Scan( startKey );
 	    // Try to cache the rows in the scan result (if maxRows is large this could be a problem)
 		scan.setCaching( maxRows );
 		scan.addColumn( columnFamilyName.getBytes(), qualifier.getBytes() );
@@ -223,6 +282,47 @@ public class HBaseTransport
 	    return results;
 	}
 	
+	/**
+	 * Streams up to maxRows rows starting at startKey, fetching pageSize rows
+	 * per scanner round trip. Rows are counted into the tally as they arrive
+	 * and then dropped, so the driver's memory use doesn't grow with the scan
+	 * and the tally's first row marks when the first page came back.
+	 */
+	public void scan( byte[] startKey, String columnFamilyName, int maxRows, int pageSize, ScanStats.Tally tally ) throws IOException
+	{
+		byte[] family = columnFamilyName.getBytes();
+		byte[] qualifier = "".getBytes();
+		
+		Scan scan = new Scan( startKey );
+		scan.setCaching( Math.min( pageSize, maxRows ) );
+		scan.addColumn( family, qualifier );
+		ResultScanner scanner = this._table.getScanner( scan );
+		try
+		{
+			int rowCount = 0;
+			while( rowCount < maxRows )
+			{
+				Result result = scanner.next();
+				if( result == null )
+					break;
+				
+				byte[] value = result.getValue( family, qualifier );
+				tally.row( ( value != null ) ? value.length : 0 );
+				rowCount++;
+			}
+		}
+		finally
+		{
+			// Close the scanner once we're done, this also releases it on the region server
+			try
+			{
+				scanner.close();
+			}
+			catch( Exception e )
+			{}
+		}
+	}
+	
 	public void flushCommits() throws IOException
 	{
 		this._table.flushCommits();
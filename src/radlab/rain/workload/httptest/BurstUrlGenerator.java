@@ -75,7 +75,7 @@ public class BurstUrlGenerator extends Generator
 	public void initialize()
 	{
 		this._http = new HttpTransport();
-		this._thinkTimeGenerator = new NegativeExponential( this._thinkTime );
+		this._thinkTimeGenerator = new NegativeExponential( this._thinkTime, this.getRandom() );
 	}
 	
 	/*
@@ -73,7 +73,7 @@ public class FixedUrlGenerator extends Generator
 	public void initialize()
 	{
 		this._http = new HttpTransport();
-		this._thinkTimeGenerator = new NegativeExponential( this._thinkTime );
+		this._thinkTimeGenerator = new NegativeExponential( this._thinkTime, this.getRandom() );
 	}
 
 	/*
@@ -32,7 +32,6 @@
 package radlab.rain.workload.httptest;
 
 import java.io.PrintStream;
-import java.util.Random;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -72,7 +71,6 @@ public class PredictableAppGenerator extends Generator
 	private HttpTransport _http;
 	private boolean _usePooling = false;
 	private boolean _debug = false;
-	private Random _random = new Random();
 	private NegativeExponential _thinkTimeGenerator  = null;
 	private int _connectionTimeoutMsecs = 1000;
 	private int _socketTimeoutMsecs = 1000;
@@ -106,7 +104,7 @@ public class PredictableAppGenerator extends Generator
 	public void initialize()
 	{
 		this._http = new HttpTransport();
-		this._thinkTimeGenerator = new NegativeExponential( this._thinkTime );
+		this._thinkTimeGenerator = new NegativeExponential( this._thinkTime, this.getRandom() );
 	}
 
 	/*
@@ -297,7 +295,7 @@ public class PredictableAppGenerator extends Generator
 		// 2) Pick server side activity
 		// 3) Pick memory size
 		
-		float workDoneRand = this._random.nextFloat();
+		float workDoneRand = this.getRandom().nextFloat();
 		
 		int i = 0;
 		for( i = 0; i < this._operationMix.length; i++ )
@@ -309,7 +307,7 @@ public class PredictableAppGenerator extends Generator
 		// Busy pct is linked to the amount of workDone
 		int busyPct = this._operationBusyPct[i];
 		
-		float memorySizeRand = this._random.nextFloat();
+		float memorySizeRand = this.getRandom().nextFloat();
 		i = 0;
 		for( i = 0; i < this._memoryMix.length; i++ )
 		{
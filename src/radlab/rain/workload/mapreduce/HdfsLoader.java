@@ -32,11 +32,18 @@
 package radlab.rain.workload.mapreduce;
 
 import java.io.IOException;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
  	
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
 import org.apache.hadoop.io.Text;
@@ -56,12 +63,110 @@ import org.apache.hadoop.mapred.Reporter;
 import org.apache.hadoop.mapred.SequenceFileOutputFormat;
 import org.apache.hadoop.examples.RandomWriter;
 
-/* Work-in-progress class for populating HDFS with x random bytes grouped into N 64mb files */
+import radlab.rain.util.RandomStreams;
+import radlab.rain.util.XoshiroRandom;
+import radlab.rain.util.storage.PayloadSlab;
+
+/**
+ * Populates HDFS with the input files replayed MapReduce jobs read:
+ * <code>&lt;input path&gt;/part-00000</code> on, each a SequenceFile of random
+ * BytesWritable key/value pairs holding exactly <i>file size</i> bytes of
+ * keys and values, which is the layout the MapReduce generators pick their
+ * inputs from.<br />
+ * <br />
+ * Files are written straight through the FileSystem API by a pool of
+ * writer threads (no MapReduce job needed), with the block size and
+ * replication given. Each file is written under a temporary name and
+ * renamed when complete, and records the data size it was written with in
+ * its SequenceFile metadata, so a re-run skips the files that are already
+ * there at the right size and only writes the missing ones. Record sizes
+ * follow Hadoop's RandomWriter and the bytes come from the shared
+ * PayloadSlab, seeded per file.<br />
+ * <br />
+ * The old MapReduce-based loader (randomWrite()) is still available.
+ */
 @SuppressWarnings("deprecation")
 public class HdfsLoader 
 {
+	public static String METADATA_BYTES_KEY			= "rain.hdfsLoader.bytes";
+	public static long DEFAULT_FILE_SIZE			= 64*1024*1024;
+	public static int DEFAULT_WRITERS				= 4;
+	public static int DEFAULT_REPORT_INTERVAL_SECS	= 10;
+	// Record sizes, as in RandomWriter
+	public static int MIN_KEY_SIZE					= 10;
+	public static int MAX_KEY_SIZE					= 1000;
+	public static int MIN_VALUE_SIZE				= 0;
+	public static int MAX_VALUE_SIZE				= 20000;
+	
 	static enum Counters { RECORDS_WRITTEN, BYTES_WRITTEN }
 	
+	private final String _inputPath;
+	private final int _files;
+	private final long _fileSize;
+	private Configuration _conf					= new Configuration();
+	private int _writers						= DEFAULT_WRITERS;
+	private long _blockSize						= 0; // 0 = the filesystem's default
+	private short _replication					= 0; // 0 = the filesystem's default
+	private long _seed							= RandomStreams.getMasterSeed();
+	private boolean _overwrite					= false;
+	private int _reportIntervalSecs				= DEFAULT_REPORT_INTERVAL_SECS;
+	
+	private final AtomicInteger _nextFile		= new AtomicInteger( 0 );
+	private final AtomicLong _bytesWritten		= new AtomicLong( 0 );
+	private final AtomicLong _filesWritten		= new AtomicLong( 0 );
+	private final AtomicLong _filesSkipped		= new AtomicLong( 0 );
+	private volatile Exception _failure			= null;
+	
+	/**
+	 * @param inputPath     Directory to write the part files into (fully qualified, e.g. hdfs://localhost:9000/user/rean/input_test).
+	 * @param totalBytes    Bytes of input to create; rounded down to whole files like the generators do (but at least one file).
+	 * @param fileSize      Bytes of keys and values per file.
+	 */
+	public HdfsLoader( String inputPath, long totalBytes, long fileSize )
+	{
+		if( fileSize <= 0 )
+			throw new IllegalArgumentException( "File size must be positive: " + fileSize );
+		if( totalBytes / fileSize > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( "Too many files: " + totalBytes + " bytes in " + fileSize + " byte files" );
+		this._inputPath = inputPath;
+		this._fileSize = fileSize;
+		this._files = (int) Math.max( 1, totalBytes / fileSize );
+	}
+	
+	public int getFiles() { return this._files; }
+	public long getFileSize() { return this._fileSize; }
+	
+	public Configuration getConfiguration() { return this._conf; }
+	public void setConfiguration( Configuration val ) { this._conf = val; }
+	
+	public int getWriters() { return this._writers; }
+	public void setWriters( int val ) { this._writers = Math.max( 1, val ); }
+	
+	public long getBlockSize() { return this._blockSize; }
+	public void setBlockSize( long val ) { this._blockSize = val; }
+	
+	public short getReplication() { return this._replication; }
+	public void setReplication( short val ) { this._replication = val; }
+	
+	public long getSeed() { return this._seed; }
+	public void setSeed( long val ) { this._seed = val; }
+	
+	public boolean getOverwrite() { return this._overwrite; }
+	public void setOverwrite( boolean val ) { this._overwrite = val; }
+	
+	public int getReportIntervalSecs() { return this._reportIntervalSecs; }
+	public void setReportIntervalSecs( int val ) { this._reportIntervalSecs = Math.max( 1, val ); }
+	
+	public long getBytesWritten() { return this._bytesWritten.get(); }
+	public long getFilesWritten() { return this._filesWritten.get(); }
+	public long getFilesSkipped() { return this._filesSkipped.get(); }
+	
+	/** Returns the name of a part file, as the generators build it. */
+	public static String getPartName( int part )
+	{
+		return "part-" + new DecimalFormat( "00000" ).format( part );
+	}
+	
 	static class RandomInputFormat implements InputFormat<Text, Text> 
 	{
 	    /** 
@@ -259,46 +364,263 @@ public class HdfsLoader
 	}
 	
 	
+	/**
+	 * Writes (or completes) the input data set and prints the throughput.
+	 * Throws the first writer failure, after the other writers stop.
+	 */
+	public void load() throws Exception
+	{
+		final Path dir = new Path( this._inputPath );
+		final FileSystem fs = dir.getFileSystem( this._conf );
+		fs.mkdirs( dir );
+		
+		System.out.println( "[HDFSLOADER] Loading " + this._files + " files of " + this._fileSize + " bytes into " + 
+				dir + " with " + this._writers + " writer(s)." );
+		long start = System.currentTimeMillis();
+		ArrayList<Thread> writers = new ArrayList<Thread>();
+		for( int i = 0; i < this._writers; i++ )
+		{
+			Thread writer = new Thread( "HdfsLoader-" + i )
+			{
+				public void run()
+				{
+					int part;
+					while( _failure == null && ( part = _nextFile.getAndIncrement() ) < _files )
+					{
+						try
+						{
+							loadFile( fs, dir, part );
+						}
+						catch( Exception e )
+						{
+							_failure = e;
+						}
+					}
+				}
+			};
+			writer.start();
+			writers.add( writer );
+		}
+		
+		long lastBytes = 0;
+		long lastReport = start;
+		for( Thread writer : writers )
+		{
+			while( writer.isAlive() )
+			{
+				writer.join( this._reportIntervalSecs * 1000L );
+				long now = System.currentTimeMillis();
+				if( writer.isAlive() && now - lastReport >= this._reportIntervalSecs * 1000L )
+				{
+					long bytes = this._bytesWritten.get();
+					long done = this._filesWritten.get() + this._filesSkipped.get();
+					System.out.println( String.format( "[HDFSLOADER] %d/%d files done, %.2f MB/sec", done, this._files, 
+							megabytesPerSecond( bytes - lastBytes, now - lastReport ) ) );
+					lastBytes = bytes;
+					lastReport = now;
+				}
+			}
+		}
+		
+		long elapsed = System.currentTimeMillis() - start;
+		System.out.println( String.format( "[HDFSLOADER] Wrote %d files (%.1f MB) in %.2f secs: %.2f MB/sec; %d files already loaded.", 
+				this._filesWritten.get(), this._bytesWritten.get() / ( 1024.0 * 1024.0 ), elapsed / 1000.0, 
+				megabytesPerSecond( this._bytesWritten.get(), elapsed ), this._filesSkipped.get() ) );
+		if( this._failure != null )
+			throw this._failure;
+	}
+	
+	private static double megabytesPerSecond( long bytes, long msecs )
+	{
+		return ( msecs > 0 ) ? ( bytes / ( 1024.0 * 1024.0 ) ) / ( msecs / 1000.0 ) : 0.0;
+	}
+	
+	/**
+	 * Checks whether a part file is complete and holds the data size this
+	 * loader writes.
+	 */
+	public boolean isLoaded( FileSystem fs, Path file ) throws IOException
+	{
+		if( !fs.exists( file ) )
+			return false;
+		try
+		{
+			SequenceFile.Reader reader = new SequenceFile.Reader( fs, file, this._conf );
+			try
+			{
+				Text bytes = reader.getMetadata().get( new Text( METADATA_BYTES_KEY ) );
+				return bytes != null && bytes.toString().equals( String.valueOf( this._fileSize ) );
+			}
+			finally
+			{
+				reader.close();
+			}
+		}
+		catch( IOException ioe )
+		{
+			// Not a (readable) sequence file, write it again
+			return false;
+		}
+	}
+	
+	private void loadFile( FileSystem fs, Path dir, int part ) throws IOException
+	{
+		String name = getPartName( part );
+		Path file = new Path( dir, name );
+		if( !this._overwrite && this.isLoaded( fs, file ) )
+		{
+			this._filesSkipped.incrementAndGet();
+			return;
+		}
+		
+		SequenceFile.Metadata metadata = new SequenceFile.Metadata();
+		metadata.set( new Text( METADATA_BYTES_KEY ), new Text( String.valueOf( this._fileSize ) ) );
+		short replication = ( this._replication > 0 ) ? this._replication : fs.getDefaultReplication();
+		long blockSize = ( this._blockSize > 0 ) ? this._blockSize : fs.getDefaultBlockSize();
+		// Jobs only name the part files, so the partial file can't be picked up by mistake
+		Path temp = new Path( dir, "_" + name + ".tmp" );
+		SequenceFile.Writer writer = SequenceFile.createWriter( fs, this._conf, temp, BytesWritable.class, BytesWritable.class, 
+				this._conf.getInt( "io.file.buffer.size", 4096 ), replication, blockSize, SequenceFile.CompressionType.NONE, null, null, metadata );
+		try
+		{
+			Random random = new XoshiroRandom( RandomStreams.deriveSeed( this._seed, "hdfsLoader", name ) );
+			PayloadSlab slab = PayloadSlab.getSharedSlab();
+			byte[] keyBytes = new byte[MAX_KEY_SIZE];
+			byte[] valueBytes = new byte[MAX_VALUE_SIZE];
+			BytesWritable key = new BytesWritable();
+			BytesWritable value = new BytesWritable();
+			long remaining = this._fileSize;
+			while( remaining > 0 )
+			{
+				int keyLength = MIN_KEY_SIZE + random.nextInt( MAX_KEY_SIZE - MIN_KEY_SIZE );
+				int valueLength = MIN_VALUE_SIZE + random.nextInt( MAX_VALUE_SIZE - MIN_VALUE_SIZE );
+				// Trim the last record so the file holds exactly the requested bytes
+				if( keyLength + valueLength > remaining )
+				{
+					keyLength = (int) Math.min( keyLength, remaining );
+					valueLength = (int) ( remaining - keyLength );
+				}
+				slab.fill( random, keyBytes, 0, keyLength );
+				slab.fill( random, valueBytes, 0, valueLength );
+				key.set( keyBytes, 0, keyLength );
+				value.set( valueBytes, 0, valueLength );
+				writer.append( key, value );
+				remaining -= keyLength + valueLength;
+				this._bytesWritten.addAndGet( keyLength + valueLength );
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+		
+		if( fs.exists( file ) )
+			fs.delete( file, false );
+		if( !fs.rename( temp, file ) )
+			throw new IOException( "Unable to rename " + temp + " to " + file );
+		this._filesWritten.incrementAndGet();
+	}
+	
 	public static void main( String[] args )
 	{
+		// Positional arguments first, then options
+		ArrayList<String> positional = new ArrayList<String>();
+		long fileSize = DEFAULT_FILE_SIZE;
+		int writers = DEFAULT_WRITERS;
+		long blockSize = 0;
+		short replication = 0;
+		long seed = -1;
+		boolean overwrite = false;
+		boolean mapReduce = false;
 		try 
 		{
-			if( args.length == 0 )
+			for( int i = 0; i < args.length; i++ )
 			{
-				long bytesToLoad = (long) 5*1024*1024*1024;
-				String hdfsPath = "hdfs://localhost:9000/user/rean/input_test";
-				String fsDefaultName = "hdfs://localhost:9000";
-				String jobTracker = "localhost:9001";
-				System.out.println( "[HDFSLOADER]" + " Loading: " + hdfsPath + " with " + bytesToLoad + " bytes of data." );
-				HdfsUtil.deletePath( hdfsPath );
-				HdfsLoader.randomWrite( bytesToLoad, hdfsPath, fsDefaultName, jobTracker );
+				if( args[i].equals( "-fileSize" ) )
+					fileSize = Long.parseLong( args[++i] );
+				else if( args[i].equals( "-writers" ) )
+					writers = Integer.parseInt( args[++i] );
+				else if( args[i].equals( "-blockSize" ) )
+					blockSize = Long.parseLong( args[++i] );
+				else if( args[i].equals( "-replication" ) )
+					replication = Short.parseShort( args[++i] );
+				else if( args[i].equals( "-seed" ) )
+					seed = Long.parseLong( args[++i] );
+				else if( args[i].equals( "-overwrite" ) )
+					overwrite = true;
+				else if( args[i].equals( "-mapreduce" ) )
+					mapReduce = true;
+				else positional.add( args[i] );
 			}
-			else if( args.length == 4 )
+			
+			if( positional.size() == 0 )
 			{
-				// Expect hdfs path and bytes to load
-				String hdfsPath = args[0];
-				long bytesToLoad = Long.parseLong( args[1] );
-				String fsDefaultName = args[2];
-				String jobTracker = args[3];
-				System.out.println( "[HDFSLOADER]" + " Loading: " + hdfsPath + " with " + bytesToLoad + " bytes of data." );
-				HdfsUtil.deletePath( hdfsPath );
-				HdfsLoader.randomWrite( bytesToLoad, hdfsPath, fsDefaultName, jobTracker );
+				positional.add( "hdfs://localhost:9000/user/rean/input_test" );
+				positional.add( String.valueOf( (long) 5*1024*1024*1024 ) );
+				positional.add( "hdfs://localhost:9000" );
+				positional.add( "localhost:9001" );
+			}
+			if( positional.size() < 3 || positional.size() > 4 )
+			{
+				printUsage();
+				return;
 			}
-			else
+			
+			String hdfsPath = positional.get( 0 );
+			String fsDefaultName = positional.get( 2 );
+			// Bytes to load, or a trace to work out how many bytes its jobs need
+			long bytesToLoad;
+			try
 			{
-				// Print usage
-				System.out.println( "Usage: 4 parameters required: " );
-				System.out.println( "<hdfs path, e.g., hdfs://localhost:9000/user/rean/input_test>" ); 
-				System.out.println( "<bytes to load, e.g., 5368709120>" );
-				System.out.println( "<fsdefaultname, e.g., hdfs://localhost:9000>" );
-				System.out.println( "<jobtracker, e.g., localhost:9001>" );
-				System.out.println( "" );
-				System.out.println( "Example: hdfs://localhost:9000/user/rean/input_test 5368709120 hdfs://localhost:9000 localhost:9001" );
+				bytesToLoad = Long.parseLong( positional.get( 1 ) );
 			}
+			catch( NumberFormatException nfe )
+			{
+				bytesToLoad = HdfsUtil.getRequiredInputBytes( positional.get( 1 ), fileSize );
+				System.out.println( "[HDFSLOADER] Trace: " + positional.get( 1 ) + " needs " + bytesToLoad + " bytes of input." );
+			}
+			
+			System.out.println( "[HDFSLOADER]" + " Loading: " + hdfsPath + " with " + bytesToLoad + " bytes of data." );
+			if( mapReduce )
+			{
+				String jobTracker = ( positional.size() > 3 ) ? positional.get( 3 ) : "localhost:9001";
+				HdfsUtil.deletePath( hdfsPath );
+				HdfsLoader.randomWrite( bytesToLoad, hdfsPath, fsDefaultName, jobTracker );
+				return;
+			}
+			
+			HdfsLoader loader = new HdfsLoader( hdfsPath, bytesToLoad, fileSize );
+			loader.getConfiguration().set( "fs.default.name", fsDefaultName );
+			loader.setWriters( writers );
+			loader.setBlockSize( blockSize );
+			loader.setReplication( replication );
+			loader.setOverwrite( overwrite );
+			if( seed >= 0 )
+				loader.setSeed( seed );
+			loader.load();
 		} 
 		catch (Exception e) 
 		{
 			e.printStackTrace();
 		}
 	}
+	
+	private static void printUsage()
+	{
+		System.out.println( "Usage: HdfsLoader <hdfs path> <bytes to load | trace file> <fsdefaultname> [<jobtracker>] [options]" );
+		System.out.println( "<hdfs path, e.g., hdfs://localhost:9000/user/rean/input_test>" ); 
+		System.out.println( "<bytes to load, e.g., 5368709120, or a replay trace to size the input from>" );
+		System.out.println( "<fsdefaultname, e.g., hdfs://localhost:9000>" );
+		System.out.println( "<jobtracker, e.g., localhost:9001; only used with -mapreduce>" );
+		System.out.println( "Options:" );
+		System.out.println( "-fileSize <bytes per file, default " + DEFAULT_FILE_SIZE + ">" );
+		System.out.println( "-writers <concurrent writers, default " + DEFAULT_WRITERS + ">" );
+		System.out.println( "-blockSize <HDFS block size, default: the filesystem's>" );
+		System.out.println( "-replication <HDFS replication, default: the filesystem's>" );
+		System.out.println( "-seed <seed for the data>" );
+		System.out.println( "-overwrite (rewrite files that are already loaded)" );
+		System.out.println( "-mapreduce (delete the path and load it with a RandomWriter-style MapReduce job instead)" );
+		System.out.println( "" );
+		System.out.println( "Example: hdfs://localhost:9000/user/rean/input_test 5368709120 hdfs://localhost:9000 -writers 8 -replication 2" );
+	}
 }
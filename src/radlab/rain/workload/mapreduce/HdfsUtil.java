@@ -82,6 +82,35 @@ public class HdfsUtil
 		return retVal;
 	}
 	
+	/**
+	 * Works out how many bytes of input a replay trace needs in HDFS. The
+	 * replay generator reads mapInputBytes/fileSize of the part files (at
+	 * least one) for each job, so the input has to hold as many files as the
+	 * biggest job reads.
+	 * 
+	 * @param traceFile     The trace to replay.
+	 * @param fileSize      Bytes per part file.
+	 */
+	public static long getRequiredInputBytes( String traceFile, long fileSize ) throws IOException
+	{
+		ReplayTraceIndex index = ReplayTraceIndex.retain( traceFile, null );
+		try
+		{
+			long maxFiles = 1;
+			for( int job = 0; job < index.size(); job++ )
+			{
+				long files = index.get( job, ReplayMapReduceGenerator.MAP_INPUT_BYTES_COL ) / fileSize;
+				if( files > maxFiles )
+					maxFiles = files;
+			}
+			return maxFiles * fileSize;
+		}
+		finally
+		{
+			index.release();
+		}
+	}
+	
 	public static void main( String[] args )
 	{
 		try
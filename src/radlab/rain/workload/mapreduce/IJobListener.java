@@ -29,26 +29,16 @@
  * OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
-package radlab.rain.workload.scadr;
 
-import org.apache.zookeeper.WatchedEvent;
-import org.apache.zookeeper.Watcher;
+package radlab.rain.workload.mapreduce;
 
-public class ZKAppServerWatcher implements Watcher 
-{
-	ScadrScenarioTrack _track = null;
-		
-	public ZKAppServerWatcher( ScadrScenarioTrack track ) 
-	{
-		this._track = track;
-	}
+import org.apache.hadoop.mapred.RunningJob;
 
-	@Override
-	public void process( WatchedEvent event ) 
-	{
-		// Get the new list of urls, and pass them to the generator
-		//this._generator.setAppServerList( )
-		if( event.getType() == Watcher.Event.EventType.NodeDataChanged )
-			this._track.setAppServerListChanged( true );
-	}
+/**
+ * Callback for jobs handed to the <code>JobMonitor</code>. It runs on the
+ * monitor thread, so it should be quick.
+ */
+public interface IJobListener 
+{
+	void jobCompleted( RunningJob job, JobTiming timing );
 }
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain.workload.mapreduce;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.TaskReport;
+
+/**
+ * A single daemon thread that polls the status of submitted MapReduce jobs,
+ * so the threads submitting them don't have to block in
+ * <code>JobClient.runJob()</code> (which polls once a second per job
+ * anyway). Each watched job gets a <code>JobTiming</code> with its queue,
+ * map, reduce and total times; when the job completes the timing is
+ * finished off (using the task reports, if the cluster provides them), the
+ * job's listener is called and then anyone waiting on the timing is woken.
+ */
+public class JobMonitor extends Thread 
+{
+	public static long DEFAULT_POLL_INTERVAL = 1000; // msecs
+	
+	private static JobMonitor _instance = null;
+	
+	private long _pollInterval = DEFAULT_POLL_INTERVAL;
+	private final ArrayList<WatchedJob> _jobs = new ArrayList<WatchedJob>();
+	
+	/**
+	 * Returns the JVM-wide monitor, starting its thread on first use.
+	 */
+	public static synchronized JobMonitor getInstance()
+	{
+		if( _instance == null )
+		{
+			_instance = new JobMonitor();
+			_instance.start();
+		}
+		return _instance;
+	}
+	
+	private JobMonitor()
+	{
+		this.setName( "MapReduce-JobMonitor" );
+		this.setDaemon( true );
+	}
+	
+	public synchronized long getPollInterval() { return this._pollInterval; }
+	
+	/**
+	 * Sets how often job status is polled. The monitor is shared, so the
+	 * shortest interval asked for wins.
+	 */
+	public synchronized void setPollInterval( long val )
+	{
+		if( val > 0 && val < this._pollInterval )
+		{
+			this._pollInterval = val;
+			this.notifyAll();
+		}
+	}
+	
+	/** Returns the number of jobs still being watched. */
+	public synchronized int getActiveJobs() { return this._jobs.size(); }
+	
+	/**
+	 * Starts watching a submitted job.
+	 * 
+	 * @param job           The job returned by <code>JobClient.submitJob()</code>.
+	 * @param client        The client that submitted it (used for task reports).
+	 * @param submitTime    When the job was submitted.
+	 * @param listener      Called once the job completes; may be null.
+	 * 
+	 * @return  The job's timing, completed by the monitor.
+	 */
+	public JobTiming watch( RunningJob job, JobClient client, long submitTime, IJobListener listener )
+	{
+		JobTiming timing = new JobTiming( job.getID().toString(), job.getJobName(), submitTime );
+		synchronized( this )
+		{
+			this._jobs.add( new WatchedJob( job, client, timing, listener ) );
+			this.notifyAll();
+		}
+		return timing;
+	}
+	
+	public void run()
+	{
+		ArrayList<WatchedJob> jobs = new ArrayList<WatchedJob>();
+		while( true )
+		{
+			synchronized( this )
+			{
+				try
+				{
+					if( this._jobs.isEmpty() )
+						this.wait();
+					else this.wait( this._pollInterval );
+				}
+				catch( InterruptedException ie )
+				{
+					return;
+				}
+				jobs.clear();
+				jobs.addAll( this._jobs );
+			}
+			
+			// Poll outside the lock, status calls may go over the network
+			Iterator<WatchedJob> it = jobs.iterator();
+			while( it.hasNext() )
+			{
+				WatchedJob watched = it.next();
+				if( !this.poll( watched ) )
+					it.remove();
+			}
+			
+			synchronized( this )
+			{
+				this._jobs.removeAll( jobs );
+			}
+			// Listeners run last, once the finished jobs no longer count as active
+			for( WatchedJob watched : jobs )
+				this.finish( watched );
+		}
+	}
+	
+	/**
+	 * Updates the phase boundaries of one job.
+	 * 
+	 * @return  True if the job has completed.
+	 */
+	private boolean poll( WatchedJob watched )
+	{
+		JobTiming timing = watched._timing;
+		long now = System.currentTimeMillis();
+		try
+		{
+			float mapProgress = watched._job.mapProgress();
+			if( mapProgress > 0.0f && timing.getMapStartTime() == 0 )
+				timing.setMapStartTime( now );
+			if( mapProgress >= 1.0f && timing.getMapFinishTime() == 0 )
+				timing.setMapFinishTime( now );
+			return watched._job.isComplete();
+		}
+		catch( IOException ioe )
+		{
+			// Lost track of the job, give up on it
+			System.out.println( this + " Error polling job: " + timing.getJobId() + " Reason: " + ioe.toString() );
+			watched._lost = true;
+			return true;
+		}
+	}
+	
+	private void finish( WatchedJob watched )
+	{
+		JobTiming timing = watched._timing;
+		long now = System.currentTimeMillis();
+		boolean successful = false;
+		if( !watched._lost )
+		{
+			try
+			{
+				successful = watched._job.isSuccessful();
+				this.applyTaskReports( watched, now );
+			}
+			catch( IOException ioe )
+			{
+				System.out.println( this + " Error getting results of job: " + timing.getJobId() + " Reason: " + ioe.toString() );
+			}
+		}
+		timing.setFinished( now, successful );
+		
+		if( watched._listener != null )
+		{
+			try
+			{
+				watched._listener.jobCompleted( watched._job, timing );
+			}
+			catch( Exception e )
+			{
+				System.out.println( this + " Job listener failed for job: " + timing.getJobId() + " Reason: " + e.toString() );
+			}
+		}
+		timing.complete();
+	}
+	
+	/**
+	 * Replaces the polled map phase boundaries with the ones the task reports
+	 * give, when there are any (the local job runner has none).
+	 */
+	private void applyTaskReports( WatchedJob watched, long now ) throws IOException
+	{
+		if( watched._client == null )
+			return;
+		
+		TaskReport[] maps = watched._client.getMapTaskReports( watched._job.getID() );
+		long firstStart = Long.MAX_VALUE;
+		long lastFinish = 0;
+		for( TaskReport report : maps )
+		{
+			if( report.getStartTime() > 0 )
+				firstStart = Math.min( firstStart, report.getStartTime() );
+			lastFinish = Math.max( lastFinish, report.getFinishTime() );
+		}
+		if( firstStart != Long.MAX_VALUE )
+			watched._timing.setMapStartTime( firstStart );
+		if( lastFinish > 0 && lastFinish <= now )
+			watched._timing.setMapFinishTime( lastFinish );
+	}
+	
+	public String toString()
+	{
+		return "[JobMonitor]";
+	}
+	
+	private static class WatchedJob
+	{
+		private final RunningJob _job;
+		private final JobClient _client;
+		private final JobTiming _timing;
+		private final IJobListener _listener;
+		private boolean _lost = false;
+		
+		public WatchedJob( RunningJob job, JobClient client, JobTiming timing, IJobListener listener )
+		{
+			this._job = job;
+			this._client = client;
+			this._timing = timing;
+			this._listener = listener;
+		}
+	}
+}
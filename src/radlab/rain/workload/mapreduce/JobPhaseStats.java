@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain.workload.mapreduce;
+
+import java.util.HashMap;
+
+/**
+ * Per-phase job times (queue, map, reduce and total) summed over the jobs a
+ * run submitted. The scoreboard only sees each job's total time as the
+ * operation's response time.<br />
+ * <br />
+ * Like <code>TransferStats</code>, stats are shared JVM-wide by name; each
+ * generator retains them and the last one to release them prints the
+ * summary and resets them.
+ */
+public class JobPhaseStats 
+{
+	public static int QUEUE		= 0;
+	public static int MAP		= 1;
+	public static int REDUCE	= 2;
+	public static int TOTAL		= 3;
+	public static String[] PHASES = { "queue", "map", "reduce", "total" };
+	
+	private static HashMap<String,JobPhaseStats> _sharedStats = new HashMap<String,JobPhaseStats>();
+	
+	private final String _name;
+	private int _users = 0;
+	private long _jobs = 0;
+	private long _failedJobs = 0;
+	private final long[] _totalTimes = new long[PHASES.length];
+	private final long[] _maxTimes = new long[PHASES.length];
+	
+	public JobPhaseStats( String name )
+	{
+		this._name = name;
+	}
+	
+	/**
+	 * Returns the JVM-wide stats with the given name, creating them on first
+	 * use, and counts the caller as a user until it calls release().
+	 */
+	public static synchronized JobPhaseStats retain( String name )
+	{
+		JobPhaseStats stats = _sharedStats.get( name );
+		if( stats == null )
+		{
+			stats = new JobPhaseStats( name );
+			_sharedStats.put( name, stats );
+		}
+		stats._users++;
+		return stats;
+	}
+	
+	/**
+	 * Drops one user; the last one prints the summary (if anything was
+	 * recorded) and resets the counters.
+	 */
+	public void release()
+	{
+		synchronized( JobPhaseStats.class )
+		{
+			if( --this._users > 0 )
+				return;
+			this._users = 0;
+		}
+		if( this.getJobs() + this.getFailedJobs() > 0 )
+			System.out.println( this.toString() );
+		this.reset();
+	}
+	
+	/** Adds a completed job; failed jobs are only counted. */
+	public synchronized void record( JobTiming timing )
+	{
+		if( !timing.isSuccessful() )
+		{
+			this._failedJobs++;
+			return;
+		}
+		
+		long[] times = { timing.getQueueTime(), timing.getMapTime(), timing.getReduceTime(), timing.getTotalTime() };
+		this._jobs++;
+		for( int i = 0; i < times.length; i++ )
+		{
+			this._totalTimes[i] += times[i];
+			if( times[i] > this._maxTimes[i] )
+				this._maxTimes[i] = times[i];
+		}
+	}
+	
+	public synchronized void reset()
+	{
+		this._jobs = 0;
+		this._failedJobs = 0;
+		for( int i = 0; i < PHASES.length; i++ )
+		{
+			this._totalTimes[i] = 0;
+			this._maxTimes[i] = 0;
+		}
+	}
+	
+	public String getName() { return this._name; }
+	public synchronized long getJobs() { return this._jobs; }
+	public synchronized long getFailedJobs() { return this._failedJobs; }
+	
+	/** Mean time (msecs) successful jobs spent in the given phase. */
+	public synchronized double getAverageTime( int phase )
+	{
+		return ( this._jobs > 0 ) ? this._totalTimes[phase] / (double) this._jobs : 0.0;
+	}
+	
+	public synchronized long getMaxTime( int phase ) { return this._maxTimes[phase]; }
+	
+	public synchronized String toString()
+	{
+		StringBuffer buf = new StringBuffer();
+		buf.append( String.format( "[JOB PHASE STATS] %s: %d jobs, %d failed", this._name, this._jobs, this._failedJobs ) );
+		for( int i = 0; i < PHASES.length; i++ )
+			buf.append( String.format( ", %s avg %.1f ms max %d ms", PHASES[i], this.getAverageTime( i ), this._maxTimes[i] ) );
+		return buf.toString();
+	}
+}
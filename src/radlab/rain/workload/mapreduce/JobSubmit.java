@@ -95,7 +95,17 @@ public class JobSubmit
 		FileInputFormat.setInputPaths(conf, new Path(args[0]));
 		FileOutputFormat.setOutputPath(conf, new Path(args[1]));
 		 	
-		JobClient.runJob(conf);
+		// Submit and let the job monitor follow the job rather than blocking in runJob(),
+		// so we get the queue/map/reduce breakdown as well
+		JobClient client = new JobClient(conf);
+		long submitTime = System.currentTimeMillis();
+		RunningJob job = client.submitJob(conf);
+		System.out.println( "Submitted job: " + job.getID() );
+		JobTiming timing = JobMonitor.getInstance().watch( job, client, submitTime, null );
+		timing.waitForCompletion( 0 );
+		System.out.println( timing );
+		if( !timing.isSuccessful() )
+			System.exit( 1 );
 	}
 }
 
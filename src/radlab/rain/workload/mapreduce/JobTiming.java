@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain.workload.mapreduce;
+
+/**
+ * Job-level timing breakdown of one submitted MapReduce job, filled in by
+ * the <code>JobMonitor</code>:<br />
+ * <br />
+ * - queue time: submission until the first map task starts<br />
+ * - map phase: first map start until the last map finishes<br />
+ * - reduce phase: last map finish until the job completes (shuffle,
+ * reduce and job cleanup)<br />
+ * - total time: submission until the job completes<br />
+ * <br />
+ * Times are wall-clock milliseconds. When the cluster has task reports the
+ * phase boundaries come from them; otherwise (e.g. the local job runner)
+ * they are the polls at which map progress was first seen above zero and
+ * at one, so they are only as fine as the poll interval.
+ */
+public class JobTiming 
+{
+	private final String _jobId;
+	private final String _jobName;
+	private final long _submitTime;
+	private long _mapStartTime		= 0;
+	private long _mapFinishTime		= 0;
+	private long _finishTime		= 0;
+	private boolean _complete		= false;
+	private boolean _successful		= false;
+	
+	public JobTiming( String jobId, String jobName, long submitTime )
+	{
+		this._jobId = jobId;
+		this._jobName = jobName;
+		this._submitTime = submitTime;
+	}
+	
+	public String getJobId() { return this._jobId; }
+	public String getJobName() { return this._jobName; }
+	public long getSubmitTime() { return this._submitTime; }
+	
+	public synchronized long getMapStartTime() { return this._mapStartTime; }
+	public synchronized void setMapStartTime( long val ) { this._mapStartTime = val; }
+	
+	public synchronized long getMapFinishTime() { return this._mapFinishTime; }
+	public synchronized void setMapFinishTime( long val ) { this._mapFinishTime = val; }
+	
+	public synchronized long getFinishTime() { return this._finishTime; }
+	public synchronized boolean isComplete() { return this._complete; }
+	public synchronized boolean isSuccessful() { return this._successful; }
+	
+	public synchronized long getQueueTime() { return this.getMapStart() - this._submitTime; }
+	public synchronized long getMapTime() { return this.getMapFinish() - this.getMapStart(); }
+	public synchronized long getReduceTime() { return this._finishTime - this.getMapFinish(); }
+	public synchronized long getTotalTime() { return this._finishTime - this._submitTime; }
+	
+	// Phases the monitor never saw start (the job finished between two polls)
+	// collapse onto the next boundary so the phases always add up to the total
+	private long getMapFinish()
+	{
+		long end = ( this._finishTime > 0 ) ? this._finishTime : System.currentTimeMillis();
+		return ( this._mapFinishTime > 0 ) ? Math.min( this._mapFinishTime, end ) : end;
+	}
+	
+	private long getMapStart()
+	{
+		long mapStart = ( this._mapStartTime > 0 ) ? this._mapStartTime : this.getMapFinish();
+		return Math.min( Math.max( mapStart, this._submitTime ), this.getMapFinish() );
+	}
+	
+	/** Records when and how the job finished. */
+	public synchronized void setFinished( long finishTime, boolean successful )
+	{
+		this._finishTime = finishTime;
+		this._successful = successful;
+	}
+	
+	/**
+	 * Marks the timing complete (after the job's listener has run) and wakes
+	 * up anyone waiting for it.
+	 */
+	public synchronized void complete()
+	{
+		this._complete = true;
+		this.notifyAll();
+	}
+	
+	/**
+	 * Blocks until the job completes or the timeout (in milliseconds, zero
+	 * waits forever) expires.
+	 * 
+	 * @return  True if the job completed.
+	 */
+	public synchronized boolean waitForCompletion( long timeout ) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + timeout;
+		while( !this._complete )
+		{
+			if( timeout <= 0 )
+				this.wait();
+			else
+			{
+				long remaining = deadline - System.currentTimeMillis();
+				if( remaining <= 0 )
+					break;
+				this.wait( remaining );
+			}
+		}
+		return this._complete;
+	}
+	
+	public synchronized String toString()
+	{
+		return "[JOB TIMING] " + this._jobId + " (" + this._jobName + ") " + ( this._successful ? "succeeded" : "failed" ) + 
+			" queue: " + this.getQueueTime() + " ms map: " + this.getMapTime() + " ms reduce: " + this.getReduceTime() + 
+			" ms total: " + this.getTotalTime() + " ms";
+	}
+}
@@ -31,12 +31,19 @@
 
 package radlab.rain.workload.mapreduce;
 
+import java.io.IOException;
+
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RunningJob;
+
 import radlab.rain.Generator;
 import radlab.rain.IScoreboard;
 import radlab.rain.LoadProfile;
 import radlab.rain.Operation;
+import radlab.rain.OperationExecution;
 
-public abstract class MapReduceOperation extends Operation 
+public abstract class MapReduceOperation extends Operation implements IJobListener 
 {
 	protected String _hdfsRoot = "";
 	protected String _inputPath = "";
@@ -46,6 +53,11 @@ public abstract class MapReduceOperation extends Operation
 	protected float _outputShuffleRatio = 1.0f;
 	protected long _interarrival = 0;
 	protected String _jobName = "";
+	// Submit the job and return instead of waiting for it; the job monitor
+	// scores the operation when the job completes
+	protected boolean _asyncSubmit = false;
+	protected JobPhaseStats _jobStats = null;
+	protected JobTiming _jobTiming = null;
 	
 	public String getJobName() { return this._jobName; }
 	public void setJobName( String val ) { this._jobName = val; }
@@ -68,11 +80,114 @@ public abstract class MapReduceOperation extends Operation
 	public String getJobTracker() { return this._jobTracker; }
 	public void setJobTracker( String val ){ this._jobTracker = val; }
 	
+	public boolean getAsyncSubmit() { return this._asyncSubmit; }
+	public void setAsyncSubmit( boolean val ) { this._asyncSubmit = val; }
+	
+	public JobPhaseStats getJobStats() { return this._jobStats; }
+	public void setJobStats( JobPhaseStats val ) { this._jobStats = val; }
+	
+	/** Returns the timing of the last job this operation submitted. */
+	public JobTiming getJobTiming() { return this._jobTiming; }
+	
 	public MapReduceOperation(boolean interactive, IScoreboard scoreboard) 
 	{
 		super(interactive, scoreboard);
 	}
 
+	/**
+	 * Runs the operation. With asynchronous submission the calling thread
+	 * only pays for setting up and submitting the job; the operation is
+	 * scored (response time = submission to completion) by jobCompleted(),
+	 * which the job monitor calls from its own thread.
+	 */
+	@Override
+	public void run()
+	{
+		if( !this._asyncSubmit )
+		{
+			super.run();
+			return;
+		}
+		
+		this._jobTiming = null;
+		this.preExecute();
+		this.setTimeStarted( System.currentTimeMillis() );
+		try
+		{
+			this.execute();
+		}
+		catch( Throwable e )
+		{
+			this.setFailed( true );
+			this.setFailureReason( e );
+		}
+		
+		// If the job never made it to the monitor, score the failure now
+		if( this._jobTiming == null )
+		{
+			if( !this.isFailed() )
+			{
+				this.setFailed( true );
+				this.setFailureReason( new IOException( "No job was submitted" ) );
+			}
+			this.finish( System.currentTimeMillis() );
+		}
+	}
+	
+	/**
+	 * Submits a job and hands it to the job monitor. Unless the operation
+	 * submits asynchronously this waits for the job and throws if it failed,
+	 * like <code>JobClient.runJob()</code>.
+	 */
+	protected void submitJob( JobClient client, JobConf jobConf ) throws IOException, InterruptedException
+	{
+		long submitTime = System.currentTimeMillis();
+		RunningJob job = client.submitJob( jobConf );
+		if( this._asyncSubmit )
+		{
+			this._jobTiming = JobMonitor.getInstance().watch( job, client, submitTime, this );
+			return;
+		}
+		
+		this._jobTiming = JobMonitor.getInstance().watch( job, client, submitTime, null );
+		this._jobTiming.waitForCompletion( 0 );
+		this.recordJobTiming( this._jobTiming );
+		if( !this._jobTiming.isSuccessful() )
+			throw new IOException( "Job failed: " + this._jobTiming.getJobId() );
+	}
+	
+	public void jobCompleted( RunningJob job, JobTiming timing )
+	{
+		this.recordJobTiming( timing );
+		if( timing.isSuccessful() )
+			this.setFailed( false );
+		else
+		{
+			this.setFailed( true );
+			this.setFailureReason( new IOException( "Job failed: " + timing.getJobId() ) );
+		}
+		this.finish( timing.getFinishTime() );
+	}
+	
+	private void recordJobTiming( JobTiming timing )
+	{
+		System.out.println( timing );
+		if( this._jobStats != null )
+			this._jobStats.record( timing );
+	}
+	
+	private void finish( long timeFinished )
+	{
+		this.setTimeFinished( timeFinished );
+		this.postExecute();
+		if( this._scoreboard != null )
+		{
+			OperationExecution result = new OperationExecution( this );
+			result.setExecutionTimeNanos( ( this.getTimeFinished() - this.getTimeStarted() ) * 1000000 );
+			this._scoreboard.dropOff( result );
+		}
+	}
+	
 	@Override
 	public void cleanup() 
 	{
@@ -31,12 +31,9 @@
 
 package radlab.rain.workload.mapreduce;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.Hashtable;
-import java.util.Random;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 
@@ -44,6 +41,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import radlab.rain.Generator;
+import radlab.rain.LoadGenerationStrategy;
 import radlab.rain.LoadProfile;
 import radlab.rain.Operation;
 import radlab.rain.ScenarioTrack;
@@ -62,6 +60,13 @@ public class ReplayMapReduceGenerator extends Generator
 	public static String CFG_DEBUG_MODE				= "debug";
 	public static String CFG_MAX_MAP_OUTPUT			= "maxMapOutput";
 	public static String CFG_MAX_HDFS_BYTES			= "maxHdfsBytes";
+	public static String CFG_ASYNC_SUBMIT			= "asyncSubmit";
+	public static String CFG_JOB_POLL_INTERVAL		= "jobPollInterval";
+	public static String CFG_TRACE_INDEX_FILE		= "traceIndexFile";
+	public static String CFG_TRACE_PARTITIONING		= "tracePartitioning";
+	public static String CFG_TRACE_PARTITIONS		= "tracePartitions";
+	public static String CFG_TRACE_START_OFFSET		= "traceStartOffset";
+	public static String CFG_TIME_COMPRESSION		= "timeCompression";
 	
 	// File parsing format constants
 	public static String COLUMN_SEPARATOR		= "\t";
@@ -87,11 +92,13 @@ public class ReplayMapReduceGenerator extends Generator
 	public static long UNLIMITED_SIZE = -1;
 	
 	public static int WORK_GEN = 0;
-	private Random _random = new Random();
 	private NumberFormat _formatter = new DecimalFormat( "00000" );
 	private boolean _debug = false;
 	private long _maxMapOutput = UNLIMITED_SIZE;
 	private long _maxHdfsBytes = UNLIMITED_SIZE;
+	// Submit jobs without waiting for them to finish (the job monitor scores them)
+	private boolean _asyncSubmit = false;
+	private JobPhaseStats _jobStats = null;
 	
 	// Generator parameters - all configurable
 	private String _hdfsRoot 			= "hdfs://localhost:9000";
@@ -101,7 +108,10 @@ public class ReplayMapReduceGenerator extends Generator
 	private long _bytesInHdfsInput 		= 1024*1024*1024; // Default to 1 gb
 	private long _hdfsFileSize 			= 64*1024*1024; // Default to 64 mb
 	private String _traceSummaryFile 	= "";
-	private BufferedReader _fileReader 	= null;
+	// The trace is parsed once into an index shared by all generators, each
+	// generator replays it through its own cursor
+	private ReplayTraceIndex _traceIndex	= null;
+	private ReplayTraceCursor _traceCursor	= null;
 	private long _nextThinkTime 		= 0;
 	private long _nextCycleTime			= 0;
 	
@@ -115,6 +125,15 @@ public class ReplayMapReduceGenerator extends Generator
 	{
 		// Close the trace summary file
 		this.closeTraceSummaryFile();
+		
+		if( this._jobStats != null )
+		{
+			int outstanding = JobMonitor.getInstance().getActiveJobs();
+			if( outstanding > 0 )
+				System.out.println( this + " " + outstanding + " submitted job(s) still running." );
+			this._jobStats.release();
+			this._jobStats = null;
+		}
 	}
 
 	@Override
@@ -139,7 +158,7 @@ public class ReplayMapReduceGenerator extends Generator
 		int count = 0;
 		while( count < length )
 		{
-			char rndChar = ReplayMapReduceGenerator.ALPHABET.charAt( this._random.nextInt( ReplayMapReduceGenerator.ALPHABET.length() ) );
+			char rndChar = ReplayMapReduceGenerator.ALPHABET.charAt( this.getRandom().nextInt( ReplayMapReduceGenerator.ALPHABET.length() ) );
 			buf.append( rndChar );
 			count++;
 		}
@@ -164,13 +183,32 @@ public class ReplayMapReduceGenerator extends Generator
 		// Parse/pre-process the traceSummary file
 		try
 		{
-			this.preprocessTraceSummary( this._traceSummaryFile );
+			this.preprocessTraceSummary( this._traceSummaryFile, config.optString( CFG_TRACE_INDEX_FILE, null ) );
 		}
 		catch( IOException ioe )
 		{
 			throw new JSONException( ioe );
 		}
 		
+		// By default every user replays the whole trace; the jobs can also be split
+		// among the users (round robin or by job name)
+		String partitioning = config.optString( CFG_TRACE_PARTITIONING, ReplayTraceCursor.PARTITION_NONE );
+		int partitions = config.optInt( CFG_TRACE_PARTITIONS, this.getTrack().getMaxUsers() );
+		int partition = Math.max( 0, LoadGenerationStrategy.getThreadId( this._name ) );
+		try
+		{
+			this._traceCursor = new ReplayTraceCursor( this._traceIndex, partitioning, partition % Math.max( 1, partitions ), partitions );
+			if( config.has( CFG_TIME_COMPRESSION ) )
+				this._traceCursor.setTimeCompression( config.getDouble( CFG_TIME_COMPRESSION ) );
+		}
+		catch( IllegalArgumentException iae )
+		{
+			throw new JSONException( iae.getMessage() );
+		}
+		// Start part way into the trace?
+		if( config.has( CFG_TRACE_START_OFFSET ) )
+			this._traceCursor.seekOffset( config.getLong( CFG_TRACE_START_OFFSET ) );
+		
 		// Look at whether we're in debug mode
 		if( config.has( CFG_DEBUG_MODE ) )
 			this._debug = config.getBoolean( CFG_DEBUG_MODE );
@@ -180,32 +218,37 @@ public class ReplayMapReduceGenerator extends Generator
 		// Any limits on hdfs bytes written specified?
 		if( config.has( CFG_MAX_HDFS_BYTES ) )
 			this._maxHdfsBytes = config.getLong( CFG_MAX_HDFS_BYTES );
+		// Submit jobs and move on instead of blocking until each one finishes?
+		if( config.has( CFG_ASYNC_SUBMIT ) )
+			this._asyncSubmit = config.getBoolean( CFG_ASYNC_SUBMIT );
+		if( config.has( CFG_JOB_POLL_INTERVAL ) )
+			JobMonitor.getInstance().setPollInterval( config.getLong( CFG_JOB_POLL_INTERVAL ) );
+		
+		if( this._jobStats == null )
+			this._jobStats = JobPhaseStats.retain( "MapReduce " + WorkGenMapReduceOperation.NAME );
     }
 	
-	private void preprocessTraceSummary( String traceSummaryFile ) throws IOException
+	private void preprocessTraceSummary( String traceSummaryFile, String traceIndexFile ) throws IOException
 	{
-		// Close the file if it's already open
-		if( this._fileReader != null )
+		// Release the index if we already have one
+		if( this._traceIndex != null )
 			this.closeTraceSummaryFile();
 		
-		this._fileReader = new BufferedReader( new FileReader( this._traceSummaryFile ) );
+		this._traceIndex = ReplayTraceIndex.retain( traceSummaryFile, traceIndexFile );
 	}
 	
 	private void closeTraceSummaryFile()
 	{
-		if( this._fileReader != null )
+		if( this._traceIndex != null )
 		{
-			try
-			{
-				this._fileReader.close();
-			}
-			catch( IOException ioe )
-			{
-				System.out.println( this + " error closing trace summary file: " + this._traceSummaryFile );
-			}
+			this._traceIndex.release();
+			this._traceIndex = null;
+			this._traceCursor = null;
 		}	
 	}
 	
+	public ReplayTraceCursor getTraceCursor() { return this._traceCursor; }
+	
 	public String getHdfsRoot() { return this._hdfsRoot; }
 	
 	@Override
@@ -214,177 +257,160 @@ public class ReplayMapReduceGenerator extends Generator
 		LoadProfile currentLoad = this.getTrack().getCurrentLoadProfile();
 		this._latestLoadProfile = currentLoad;
 		
-		try
+		int job = this._traceCursor.next();
+		if( job >= 0 )
 		{
-			String line = this._fileReader.readLine();
-			if( line != null )
+			// Create a new workgen MR operation from the next job in the trace
+			float shuffleInputRatio = 1.0f;
+			float outputShuffleRatio = 1.0f;
+			
+			String jobName = this._traceIndex.getJobName( job );
+			long mapInputSize = this._traceIndex.get( job, ReplayMapReduceGenerator.MAP_INPUT_BYTES_COL );
+			
+			if( mapInputSize > this._bytesInHdfsInput )
 			{
-				// Parse line and create a new workgen MR operation
-				String[] fields = line.split( COLUMN_SEPARATOR );
-				// Check on the number of columns we expect a certain number of them
-				if( fields.length == MAX_COLUMNS )
-				{
-					float shuffleInputRatio = 1.0f;
-					float outputShuffleRatio = 1.0f;
-					
-					String jobName = fields[ReplayMapReduceGenerator.JOB_NAME_COL];
-					long mapInputSize = Long.parseLong( fields[ReplayMapReduceGenerator.MAP_INPUT_BYTES_COL] );
-					
-					if( mapInputSize > this._bytesInHdfsInput )
-					{
-						System.out.println( this + " Configuration file limits map input to: " + this._bytesInHdfsInput + " bytes, which equals all the bytes in HDFS." );
-						// Don't reduce the mapInputSize from what was originally read in, instead keep it so that we 
-						// can calculate the original shuffle/input ratio and use that on less input data
-					}
-					// Figure out how many files we need to get this amount of input bytes
-					int filesNeeded = Math.round( mapInputSize/this._hdfsFileSize );
-					if( filesNeeded == 0 )
-						filesNeeded = 1;
-					
-					// Figure out how many files are in hdfs
-					int filesInHdfs = Math.round( this._bytesInHdfsInput/this._hdfsFileSize );
-					// Pick filesNeeded out of filesInHdfs part-xxxxx files without replacement as inputs
-					if( filesNeeded >= filesInHdfs )
-						filesNeeded = filesInHdfs;	 // read all the data
-					
-					int filesFound = 0;
-					Hashtable<Integer,Integer> fileParts = new Hashtable<Integer,Integer>();
-					if( filesNeeded == filesInHdfs )
-					{
-						// Add all
-						for( int i = 0; i < filesInHdfs; i++ )
-							fileParts.put( i, i );
-					}
-					else
-					{
-						while( filesFound < filesNeeded )
-						{
-							int partNum = this._random.nextInt( filesInHdfs );
-							if( !fileParts.contains( partNum ) )
-							{
-								fileParts.put( partNum, partNum );
-								filesFound++;
-							}	
-						}
-					}
-					
-					// Convert the fileParts hashtable into a comma separated list of file names
-					StringBuffer inputFiles = new StringBuffer();
-					Iterator<Integer> valIt = fileParts.values().iterator();
-					while( valIt.hasNext() )
-					{
-						inputFiles.append( this._hdfsInputPath );
-						inputFiles.append( "/" );
-						inputFiles.append( "part-" );
-						inputFiles.append( this._formatter.format( valIt.next() ) );
-						if( valIt.hasNext() )
-							inputFiles.append( "," );
-					}
-					
-					long mapOutputSize = Long.parseLong( fields[ReplayMapReduceGenerator.MAP_OUTPUT_BYTES_COL] );
-					long hdfsBytesWritten = Long.parseLong( fields[ReplayMapReduceGenerator.HDFS_BYTES_WRITTEN_COL] );
-					long interArrivalGap = Long.parseLong( fields[ReplayMapReduceGenerator.INTERARRIVAL_GAP_COL] ) * 1000; // convert secs to msecs
+				System.out.println( this + " Configuration file limits map input to: " + this._bytesInHdfsInput + " bytes, which equals all the bytes in HDFS." );
+				// Don't reduce the mapInputSize from what was originally read in, instead keep it so that we 
+				// can calculate the original shuffle/input ratio and use that on less input data
+			}
+			// Figure out how many files we need to get this amount of input bytes
+			int filesNeeded = Math.round( mapInputSize/this._hdfsFileSize );
+			if( filesNeeded == 0 )
+				filesNeeded = 1;
 			
-					if( this._debug )
-					{
-						System.out.println( this + " " + line );
-						System.out.println( 
-								this + " " + jobName + " (before adjustment) map input: " + mapInputSize + 
-								" map output: " + mapOutputSize + " hdfs bytes: " + hdfsBytesWritten );	
-					}
-					
-					// Make sure we have non-zero values
-					// If the mapInputSize is less than 1 block in hdfs,
-					// bump it up to 1 block at least.
-					if( mapInputSize < this._hdfsFileSize )
-						mapInputSize = this._hdfsFileSize;
-					
-					if( mapOutputSize < 1000 )
-						mapOutputSize = 1000;
-					//if( mapOutputSize < this._hdfsFileSize )
-						//mapOutputSize = this._hdfsFileSize;
-					
-					if( hdfsBytesWritten < 1000 )
-						hdfsBytesWritten = 1000;
-					//if( hdfsBytesWritten < this._hdfsFileSize )
-					//	hdfsBytesWritten = this._hdfsFileSize;
-					
-					
-					// Check whether there's a max shuffle limit specified in the configuration file
-					if( this._maxMapOutput != UNLIMITED_SIZE && mapOutputSize > this._maxMapOutput )
-					{
-						System.out.println( this + " Configuration file limits map output to: " + this._maxMapOutput );
-						mapOutputSize = this._maxMapOutput;
-					}
-					
-					// Check whether there's a max output limit specified in the configuration file
-					if( this._maxHdfsBytes != UNLIMITED_SIZE && hdfsBytesWritten > this._maxHdfsBytes )
-					{
-						System.out.println( this + " Configuration file limits bytes written to HDFS to: " + this._maxHdfsBytes );
-						hdfsBytesWritten = this._maxHdfsBytes;
-					}
-					
-					if( this._debug )
-					{
-						System.out.println( this + " " + jobName + " (after adjustment)  map input: " + mapInputSize + 
-								" map output: " + mapOutputSize + " hdfs bytes: " + hdfsBytesWritten );
-					}
-					
-					// Set the next think/cycle time using the interarrival gap
-					this._nextCycleTime = interArrivalGap;
-					this._nextThinkTime = interArrivalGap;
-					
-					if( this._debug )
-					{
-						System.out.println( this + " next cycle time: " + interArrivalGap );
-						System.out.println( this + " next think time: " + interArrivalGap );
-					}
-					
-					// Compute the ratios
-					shuffleInputRatio = (float) ( (double) mapOutputSize / (double) mapInputSize );
-					outputShuffleRatio = (float) ( (double) hdfsBytesWritten / (double) mapOutputSize );
-					
-					if( this._debug )
-						System.out.println( this + " " + jobName + " Shuffle input ratio: " + shuffleInputRatio + " output shuffle ratio: " + outputShuffleRatio );
-					
-					// Create A MapReduce Operation
-					MapReduceOperation op = new WorkGenMapReduceOperation( true, this._scoreboard );
-					// Set specific fields on the new operation
-					op.setJobName( jobName );
-					op.setJobTracker( this._jobTracker ); // Set the job tracker so we can get status updates
-					op.setInputPath( inputFiles.toString() );
-					// Give each job a unique output file/path to write gap
-					this._nextCycleTime = interArrivalGap;
-					this._nextThinkTime = interArrivalGap; // to, not the root output directory
-					op.setOutputPath( this._hdfsOutputPath + "/" + this._name + "." + this.getRandomString( 10 ) );
-					// We might have to create this output path before we start
-					op.setShuffleInputRatio( shuffleInputRatio );
-					op.setOutputShuffleRatio( outputShuffleRatio );
-					op.setInterarrival( interArrivalGap );
-					// Let the operation extract any specific info it needs from the generator
-					op.prepare( this );
-					// Delete the output file from hdfs (if it already exists)
-					op.cleanup();
-					return op;
-				}
-				else
+			// Figure out how many files are in hdfs
+			int filesInHdfs = Math.round( this._bytesInHdfsInput/this._hdfsFileSize );
+			// Pick filesNeeded out of filesInHdfs part-xxxxx files without replacement as inputs
+			if( filesNeeded >= filesInHdfs )
+				filesNeeded = filesInHdfs;	 // read all the data
+			
+			int filesFound = 0;
+			Hashtable<Integer,Integer> fileParts = new Hashtable<Integer,Integer>();
+			if( filesNeeded == filesInHdfs )
+			{
+				// Add all
+				for( int i = 0; i < filesInHdfs; i++ )
+					fileParts.put( i, i );
+			}
+			else
+			{
+				while( filesFound < filesNeeded )
 				{
-					// Do something appropriate if we get a line that's not 
-					// formatted the way we expect it
-					return null; // no-op
+					int partNum = this.getRandom().nextInt( filesInHdfs );
+					if( !fileParts.contains( partNum ) )
+					{
+						fileParts.put( partNum, partNum );
+						filesFound++;
+					}	
 				}
 			}
-			else
+			
+			// Convert the fileParts hashtable into a comma separated list of file names
+			StringBuffer inputFiles = new StringBuffer();
+			Iterator<Integer> valIt = fileParts.values().iterator();
+			while( valIt.hasNext() )
+			{
+				inputFiles.append( this._hdfsInputPath );
+				inputFiles.append( "/" );
+				inputFiles.append( "part-" );
+				inputFiles.append( this._formatter.format( valIt.next() ) );
+				if( valIt.hasNext() )
+					inputFiles.append( "," );
+			}
+			
+			long mapOutputSize = this._traceIndex.get( job, ReplayMapReduceGenerator.MAP_OUTPUT_BYTES_COL );
+			long hdfsBytesWritten = this._traceIndex.get( job, ReplayMapReduceGenerator.HDFS_BYTES_WRITTEN_COL );
+			long interArrivalGap = this._traceCursor.getGap(); // msecs, after any time compression
+			
+			if( this._debug )
 			{
-				// Return null or no-op MapReduce operation OR should we restart reading from the
-				// start of the file again?
-				return null; // no-op
+				System.out.println( this + " job " + job + ": " + jobName + " submitted at: " + this._traceIndex.getSubmitTime( job ) );
+				System.out.println( 
+						this + " " + jobName + " (before adjustment) map input: " + mapInputSize + 
+						" map output: " + mapOutputSize + " hdfs bytes: " + hdfsBytesWritten );	
 			}
+			
+			// Make sure we have non-zero values
+			// If the mapInputSize is less than 1 block in hdfs,
+			// bump it up to 1 block at least.
+			if( mapInputSize < this._hdfsFileSize )
+				mapInputSize = this._hdfsFileSize;
+			
+			if( mapOutputSize < 1000 )
+				mapOutputSize = 1000;
+			//if( mapOutputSize < this._hdfsFileSize )
+				//mapOutputSize = this._hdfsFileSize;
+			
+			if( hdfsBytesWritten < 1000 )
+				hdfsBytesWritten = 1000;
+			//if( hdfsBytesWritten < this._hdfsFileSize )
+			//	hdfsBytesWritten = this._hdfsFileSize;
+			
+			
+			// Check whether there's a max shuffle limit specified in the configuration file
+			if( this._maxMapOutput != UNLIMITED_SIZE && mapOutputSize > this._maxMapOutput )
+			{
+				System.out.println( this + " Configuration file limits map output to: " + this._maxMapOutput );
+				mapOutputSize = this._maxMapOutput;
+			}
+			
+			// Check whether there's a max output limit specified in the configuration file
+			if( this._maxHdfsBytes != UNLIMITED_SIZE && hdfsBytesWritten > this._maxHdfsBytes )
+			{
+				System.out.println( this + " Configuration file limits bytes written to HDFS to: " + this._maxHdfsBytes );
+				hdfsBytesWritten = this._maxHdfsBytes;
+			}
+			
+			if( this._debug )
+			{
+				System.out.println( this + " " + jobName + " (after adjustment)  map input: " + mapInputSize + 
+						" map output: " + mapOutputSize + " hdfs bytes: " + hdfsBytesWritten );
+			}
+			
+			// Set the next think/cycle time using the interarrival gap
+			this._nextCycleTime = interArrivalGap;
+			this._nextThinkTime = interArrivalGap;
+			
+			if( this._debug )
+			{
+				System.out.println( this + " next cycle time: " + interArrivalGap );
+				System.out.println( this + " next think time: " + interArrivalGap );
+			}
+			
+			// Compute the ratios
+			shuffleInputRatio = (float) ( (double) mapOutputSize / (double) mapInputSize );
+			outputShuffleRatio = (float) ( (double) hdfsBytesWritten / (double) mapOutputSize );
+			
+			if( this._debug )
+				System.out.println( this + " " + jobName + " Shuffle input ratio: " + shuffleInputRatio + " output shuffle ratio: " + outputShuffleRatio );
+			
+			// Create A MapReduce Operation
+			MapReduceOperation op = new WorkGenMapReduceOperation( true, this._scoreboard );
+			// Set specific fields on the new operation
+			op.setJobName( jobName );
+			op.setJobTracker( this._jobTracker ); // Set the job tracker so we can get status updates
+			op.setInputPath( inputFiles.toString() );
+			// Give each job a unique output file/path to write gap
+			this._nextCycleTime = interArrivalGap;
+			this._nextThinkTime = interArrivalGap; // to, not the root output directory
+			op.setOutputPath( this._hdfsOutputPath + "/" + this._name + "." + this.getRandomString( 10 ) );
+			// We might have to create this output path before we start
+			op.setShuffleInputRatio( shuffleInputRatio );
+			op.setOutputShuffleRatio( outputShuffleRatio );
+			op.setInterarrival( interArrivalGap );
+			op.setAsyncSubmit( this._asyncSubmit );
+			op.setJobStats( this._jobStats );
+			// Let the operation extract any specific info it needs from the generator
+			op.prepare( this );
+			// Delete the output file from hdfs (if it already exists)
+			op.cleanup();
+			return op;
 		}
-		catch( IOException ioe )
+		else
 		{
-			// Log the IO exception reading from the replay file
-			return null;
+			// Return null or no-op MapReduce operation OR should we restart reading from the
+			// start of the trace again?
+			return null; // no-op
 		}
 	}
 
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain.workload.mapreduce;
+
+/**
+ * One user's position in a shared <code>ReplayTraceIndex</code>. The jobs of
+ * the trace can be split across users:<br />
+ * <br />
+ * - none: every user replays every job (each user is a full copy of the
+ * trace, as when each generator read the trace file itself)<br />
+ * - roundRobin: job i goes to user i mod users<br />
+ * - hash: jobs go to users by the hash of the job name, so recurring jobs
+ * always come from the same user<br />
+ * <br />
+ * The gap before each job is scaled down by the time compression factor.
+ * Without partitioning it is the trace's interarrival gap; with it, it is
+ * the time between this user's consecutive jobs (the first one counts from
+ * where the replay started).
+ */
+public class ReplayTraceCursor 
+{
+	public static String PARTITION_NONE			= "none";
+	public static String PARTITION_ROUND_ROBIN	= "roundRobin";
+	public static String PARTITION_HASH			= "hash";
+	
+	private final ReplayTraceIndex _index;
+	private final String _partitioning;
+	private final int _partition;
+	private final int _partitions;
+	private double _timeCompression = 1.0;
+	private int _position = 0;
+	private long _lastSubmitTime = 0;
+	private long _gap = 0;
+	
+	/**
+	 * @param index         The trace to replay.
+	 * @param partitioning  One of the PARTITION_ constants.
+	 * @param partition     Which share of the jobs this cursor replays (e.g. the user's ID).
+	 * @param partitions    How many shares the jobs are split into (e.g. the number of users).
+	 */
+	public ReplayTraceCursor( ReplayTraceIndex index, String partitioning, int partition, int partitions )
+	{
+		if( !partitioning.equals( PARTITION_NONE ) && !partitioning.equals( PARTITION_ROUND_ROBIN ) && !partitioning.equals( PARTITION_HASH ) )
+			throw new IllegalArgumentException( "Unknown trace partitioning: " + partitioning );
+		if( partitioning.equals( PARTITION_NONE ) )
+		{
+			partition = 0;
+			partitions = 1;
+		}
+		if( partitions < 1 || partition < 0 || partition >= partitions )
+			throw new IllegalArgumentException( "Bad trace partition: " + partition + " of " + partitions );
+		
+		this._index = index;
+		this._partitioning = partitioning;
+		this._partition = partition;
+		this._partitions = partitions;
+		this.seekTo( 0 );
+	}
+	
+	public String getPartitioning() { return this._partitioning; }
+	public int getPartition() { return this._partition; }
+	public int getPartitions() { return this._partitions; }
+	
+	public double getTimeCompression() { return this._timeCompression; }
+	public void setTimeCompression( double val )
+	{
+		if( val <= 0 )
+			throw new IllegalArgumentException( "Time compression must be positive: " + val );
+		this._timeCompression = val;
+	}
+	
+	/**
+	 * Moves to the first job submitted at or after the given time (in the
+	 * trace's units, seconds).
+	 */
+	public void seek( long submitTime )
+	{
+		this.seekTo( this._index.seek( submitTime ) );
+	}
+	
+	/**
+	 * Moves to the first job submitted at least the given number of seconds
+	 * after the first job in the trace.
+	 */
+	public void seekOffset( long seconds )
+	{
+		if( this._index.size() > 0 )
+			this.seek( this._index.getSubmitTime( 0 ) + seconds );
+	}
+	
+	private void seekTo( int job )
+	{
+		this._position = job;
+		this._lastSubmitTime = ( job < this._index.size() ) ? this._index.getSubmitTime( job ) : 0;
+		this._gap = 0;
+		// Round robin owns every n-th job of the whole trace, wherever the replay starts
+		if( this._partitioning.equals( PARTITION_ROUND_ROBIN ) )
+		{
+			int offset = ( this._partition - job % this._partitions + this._partitions ) % this._partitions;
+			this._position = (int) Math.min( (long) job + offset, this._index.size() );
+		}
+	}
+	
+	/**
+	 * Returns the next job for this cursor, or -1 once the trace is done.
+	 */
+	public int next()
+	{
+		int size = this._index.size();
+		if( this._partitioning.equals( PARTITION_HASH ) )
+		{
+			while( this._position < size && ( this._index.getNameHash( this._position ) & 0x7fffffff ) % this._partitions != this._partition )
+				this._position++;
+		}
+		if( this._position >= size )
+			return -1;
+		
+		int job = this._position;
+		this._position = (int) Math.min( (long) job + ( this._partitioning.equals( PARTITION_ROUND_ROBIN ) ? this._partitions : 1 ), size );
+		
+		long gapSecs;
+		if( this._partitioning.equals( PARTITION_NONE ) )
+			gapSecs = this._index.getInterarrivalGap( job );
+		else
+		{
+			long submitTime = this._index.getSubmitTime( job );
+			gapSecs = Math.max( 0, submitTime - this._lastSubmitTime );
+			this._lastSubmitTime = submitTime;
+		}
+		this._gap = Math.round( gapSecs * 1000 / this._timeCompression );
+		return job;
+	}
+	
+	/** Returns the (compressed) gap before the last job next() returned, in msecs. */
+	public long getGap() { return this._gap; }
+}
@@ -0,0 +1,673 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package radlab.rain.workload.mapreduce;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Random;
+
+import radlab.rain.util.RandomStreams;
+
+/**
+ * A MapReduce replay trace (the tab-separated job summaries that
+ * <code>ReplayMapReduceGenerator</code> replays) parsed once into a columnar
+ * index file and memory-mapped read-only. The numeric columns are stored
+ * column by column as longs, job names as offsets into a byte heap, and
+ * each name's hash is kept so jobs can be partitioned without decoding
+ * names.<br />
+ * <br />
+ * Indexes are shared JVM-wide by trace file: every generator replaying the
+ * same trace retains the same mapping instead of re-reading and re-splitting
+ * the text, and the last one to release it closes it. The index file is
+ * reused across runs as long as the trace's length and modification time
+ * still match the ones recorded in its header. Lines that don't have
+ * exactly <code>MAX_COLUMNS</code> columns are left out.
+ */
+public class ReplayTraceIndex 
+{
+	public static long MAGIC					= 0x5241494E54524331L; // "RAINTRC1"
+	public static int VERSION					= 1;
+	public static String INDEX_SUFFIX			= ".idx";
+	// Every column from the map input bytes on is numeric
+	public static int FIRST_NUMERIC_COL			= ReplayMapReduceGenerator.MAP_INPUT_BYTES_COL;
+	public static int NUMERIC_COLUMNS			= ReplayMapReduceGenerator.MAX_COLUMNS - FIRST_NUMERIC_COL;
+	
+	private static int HEADER_SIZE				= 64;
+	private static int FLAG_SORTED				= 1;
+	
+	private static HashMap<String,ReplayTraceIndex> _sharedIndexes = new HashMap<String,ReplayTraceIndex>();
+	
+	private final String _key;
+	private final File _indexFile;
+	private int _users = 0;
+	private RandomAccessFile _file;
+	private final int _jobs;
+	private final boolean _sorted;
+	private final LongBuffer[] _columns = new LongBuffer[NUMERIC_COLUMNS];
+	private final IntBuffer _nameOffsets;
+	private final IntBuffer _nameHashes;
+	private final ByteBuffer _names;
+	
+	/**
+	 * Returns the shared index of the given trace, building or rebuilding
+	 * the index file first if needed, and counts the caller as a user until
+	 * it calls release().
+	 * 
+	 * @param traceFile     The trace to index.
+	 * @param indexFile     Where to keep the index; if null it goes next to the trace (or into a temp file if that directory isn't writable).
+	 */
+	public static synchronized ReplayTraceIndex retain( String traceFile, String indexFile ) throws IOException
+	{
+		File trace = new File( traceFile );
+		String key = trace.getCanonicalPath();
+		ReplayTraceIndex index = _sharedIndexes.get( key );
+		if( index == null )
+		{
+			File file = ( indexFile != null ) ? new File( indexFile ) : new File( trace.getPath() + INDEX_SUFFIX );
+			if( !isCurrent( file, trace ) )
+			{
+				try
+				{
+					build( trace, file );
+				}
+				catch( IOException ioe )
+				{
+					if( indexFile != null )
+						throw ioe;
+					// Can't write next to the trace, keep the index for this run only
+					file = File.createTempFile( trace.getName(), INDEX_SUFFIX );
+					file.deleteOnExit();
+					build( trace, file );
+				}
+			}
+			index = new ReplayTraceIndex( key, file );
+			_sharedIndexes.put( key, index );
+		}
+		index._users++;
+		return index;
+	}
+	
+	/**
+	 * Drops one user; the last one closes the index.
+	 */
+	public void release()
+	{
+		synchronized( ReplayTraceIndex.class )
+		{
+			if( --this._users > 0 )
+				return;
+			this._users = 0;
+			_sharedIndexes.remove( this._key );
+		}
+		this.close();
+	}
+	
+	/**
+	 * Opens an index file for reading.
+	 */
+	public ReplayTraceIndex( String key, File indexFile ) throws IOException
+	{
+		this._key = key;
+		this._indexFile = indexFile;
+		this._file = new RandomAccessFile( indexFile, "r" );
+		try
+		{
+			FileChannel channel = this._file.getChannel();
+			ByteBuffer header = channel.map( FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE );
+			if( header.getLong() != MAGIC || header.getInt() != VERSION )
+				throw new IOException( "Not a trace index: " + indexFile );
+			int flags = header.getInt();
+			header.getLong(); // trace length
+			header.getLong(); // trace modification time
+			this._jobs = header.getInt();
+			header.getInt();
+			long heapSize = header.getLong();
+			
+			this._sorted = ( flags & FLAG_SORTED ) != 0;
+			long position = HEADER_SIZE;
+			for( int i = 0; i < NUMERIC_COLUMNS; i++ )
+			{
+				this._columns[i] = channel.map( FileChannel.MapMode.READ_ONLY, position, this._jobs * 8L ).asLongBuffer();
+				position += this._jobs * 8L;
+			}
+			this._nameOffsets = channel.map( FileChannel.MapMode.READ_ONLY, position, ( this._jobs + 1 ) * 4L ).asIntBuffer();
+			position += ( this._jobs + 1 ) * 4L;
+			this._nameHashes = channel.map( FileChannel.MapMode.READ_ONLY, position, this._jobs * 4L ).asIntBuffer();
+			position += this._jobs * 4L;
+			this._names = channel.map( FileChannel.MapMode.READ_ONLY, position, heapSize );
+		}
+		catch( IOException ioe )
+		{
+			this.close();
+			throw ioe;
+		}
+	}
+	
+	private void close()
+	{
+		// The mappings stay valid after the file is closed, until they're collected
+		try
+		{
+			if( this._file != null )
+				this._file.close();
+		}
+		catch( IOException ioe )
+		{
+			System.out.println( this + " error closing trace index: " + this._indexFile );
+		}
+		this._file = null;
+	}
+	
+	public File getIndexFile() { return this._indexFile; }
+	
+	/** Returns the number of jobs in the trace. */
+	public int size() { return this._jobs; }
+	
+	/** True if the jobs are in submit time order, so seeks can binary search. */
+	public boolean isSortedBySubmitTime() { return this._sorted; }
+	
+	/**
+	 * Returns a numeric column of a job.
+	 * 
+	 * @param column    One of the <code>ReplayMapReduceGenerator</code> column constants from <code>MAP_INPUT_BYTES_COL</code> on.
+	 */
+	public long get( int job, int column )
+	{
+		return this._columns[column - FIRST_NUMERIC_COL].get( job );
+	}
+	
+	public long getSubmitTime( int job ) { return this.get( job, ReplayMapReduceGenerator.SUBMIT_TIME_COL ); }
+	public long getInterarrivalGap( int job ) { return this.get( job, ReplayMapReduceGenerator.INTERARRIVAL_GAP_COL ); }
+	public int getNameHash( int job ) { return this._nameHashes.get( job ); }
+	
+	public String getJobName( int job )
+	{
+		int start = this._nameOffsets.get( job );
+		byte[] name = new byte[this._nameOffsets.get( job + 1 ) - start];
+		// Absolute reads through a duplicate leave the shared buffer alone
+		ByteBuffer names = this._names.duplicate();
+		names.position( start );
+		names.get( name );
+		try
+		{
+			return new String( name, "UTF-8" );
+		}
+		catch( IOException ioe )
+		{
+			return new String( name );
+		}
+	}
+	
+	/**
+	 * Returns the first job submitted at or after the given time (in the
+	 * trace's units, seconds), or size() if there is none.
+	 */
+	public int seek( long submitTime )
+	{
+		if( !this._sorted )
+		{
+			for( int i = 0; i < this._jobs; i++ )
+			{
+				if( this.getSubmitTime( i ) >= submitTime )
+					return i;
+			}
+			return this._jobs;
+		}
+		
+		int low = 0;
+		int high = this._jobs;
+		while( low < high )
+		{
+			int mid = ( low + high ) >>> 1;
+			if( this.getSubmitTime( mid ) < submitTime )
+				low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+	
+	/**
+	 * Checks whether an index file exists and was built from the trace as it
+	 * is now.
+	 */
+	public static boolean isCurrent( File index, File trace )
+	{
+		if( !index.isFile() || index.length() < HEADER_SIZE )
+			return false;
+		try
+		{
+			RandomAccessFile file = new RandomAccessFile( index, "r" );
+			try
+			{
+				return file.readLong() == MAGIC && file.readInt() == VERSION && file.readInt() >= 0 && 
+					file.readLong() == trace.length() && file.readLong() == trace.lastModified();
+			}
+			finally
+			{
+				file.close();
+			}
+		}
+		catch( IOException ioe )
+		{
+			return false;
+		}
+	}
+	
+	/**
+	 * Parses a trace into an index file. The index is written to a temp file
+	 * next to the target and renamed into place once complete, so a reader
+	 * never sees half an index.
+	 */
+	public static void build( File trace, File index ) throws IOException
+	{
+		long traceLength = trace.length();
+		long traceModified = trace.lastModified();
+		
+		// Pass 1: count the well-formed jobs and the bytes their names need
+		int jobs = 0;
+		long heapSize = 0;
+		boolean sorted = true;
+		long lastSubmit = Long.MIN_VALUE;
+		TraceParser parser = new TraceParser( new FileInputStream( trace ) );
+		try
+		{
+			while( parser.next() )
+			{
+				jobs++;
+				heapSize += parser.length( ReplayMapReduceGenerator.JOB_NAME_COL );
+				long submit = parser.getLong( ReplayMapReduceGenerator.SUBMIT_TIME_COL );
+				if( submit < lastSubmit )
+					sorted = false;
+				lastSubmit = submit;
+			}
+		}
+		finally
+		{
+			parser.close();
+		}
+		if( jobs * 8L > Integer.MAX_VALUE || heapSize > Integer.MAX_VALUE )
+			throw new IOException( "Trace too large to index: " + trace + " (" + jobs + " jobs, " + heapSize + " bytes of job names)" );
+		
+		File temp = new File( index.getPath() + ".tmp" );
+		RandomAccessFile file = new RandomAccessFile( temp, "rw" );
+		try
+		{
+			long total = HEADER_SIZE + ( NUMERIC_COLUMNS * 8L + 8 ) * jobs + 4 + heapSize;
+			file.setLength( total );
+			FileChannel channel = file.getChannel();
+			
+			LongBuffer[] columns = new LongBuffer[NUMERIC_COLUMNS];
+			MappedByteBuffer[] mappings = new MappedByteBuffer[NUMERIC_COLUMNS + 3];
+			long position = HEADER_SIZE;
+			for( int i = 0; i < NUMERIC_COLUMNS; i++ )
+			{
+				mappings[i] = channel.map( FileChannel.MapMode.READ_WRITE, position, jobs * 8L );
+				columns[i] = mappings[i].asLongBuffer();
+				position += jobs * 8L;
+			}
+			mappings[NUMERIC_COLUMNS] = channel.map( FileChannel.MapMode.READ_WRITE, position, ( jobs + 1 ) * 4L );
+			IntBuffer nameOffsets = mappings[NUMERIC_COLUMNS].asIntBuffer();
+			position += ( jobs + 1 ) * 4L;
+			mappings[NUMERIC_COLUMNS + 1] = channel.map( FileChannel.MapMode.READ_WRITE, position, jobs * 4L );
+			IntBuffer nameHashes = mappings[NUMERIC_COLUMNS + 1].asIntBuffer();
+			position += jobs * 4L;
+			mappings[NUMERIC_COLUMNS + 2] = channel.map( FileChannel.MapMode.READ_WRITE, position, heapSize );
+			MappedByteBuffer names = mappings[NUMERIC_COLUMNS + 2];
+			
+			// Pass 2: fill in the columns
+			int job = 0;
+			parser = new TraceParser( new FileInputStream( trace ) );
+			try
+			{
+				while( parser.next() && job < jobs )
+				{
+					for( int i = 0; i < NUMERIC_COLUMNS; i++ )
+						columns[i].put( job, parser.getLong( FIRST_NUMERIC_COL + i ) );
+					nameOffsets.put( job, names.position() );
+					nameHashes.put( job, parser.hash( ReplayMapReduceGenerator.JOB_NAME_COL ) );
+					parser.copy( ReplayMapReduceGenerator.JOB_NAME_COL, names );
+					job++;
+				}
+			}
+			finally
+			{
+				parser.close();
+			}
+			if( job != jobs || trace.length() != traceLength || trace.lastModified() != traceModified )
+				throw new IOException( "Trace changed while it was being indexed: " + trace );
+			nameOffsets.put( jobs, names.position() );
+			
+			for( MappedByteBuffer mapping : mappings )
+				mapping.force();
+			// Header last, so an interrupted build is never mistaken for a complete one
+			MappedByteBuffer header = channel.map( FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE );
+			header.putLong( MAGIC );
+			header.putInt( VERSION );
+			header.putInt( sorted ? FLAG_SORTED : 0 );
+			header.putLong( traceLength );
+			header.putLong( traceModified );
+			header.putInt( jobs );
+			header.putInt( 0 );
+			header.putLong( heapSize );
+			header.force();
+		}
+		finally
+		{
+			file.close();
+		}
+		
+		index.delete();
+		if( !temp.renameTo( index ) )
+		{
+			temp.delete();
+			throw new IOException( "Unable to create trace index: " + index );
+		}
+	}
+	
+	public String toString()
+	{
+		return "[ReplayTraceIndex]";
+	}
+	
+	/**
+	 * Writes a synthetic trace of jobs with exponential interarrival gaps and
+	 * a few thousand recurring job names.
+	 */
+	public static void writeSyntheticTrace( File trace, int jobs, long seed ) throws IOException
+	{
+		Random random = new Random( seed );
+		FileWriter writer = new FileWriter( trace );
+		StringBuilder line = new StringBuilder();
+		long submitTime = 1248470700;
+		try
+		{
+			for( int i = 0; i < jobs; i++ )
+			{
+				long gap = (long) ( -Math.log( 1.0 - random.nextDouble() ) * 3 );
+				submitTime += gap;
+				long mapInput = (long) Math.pow( 10, 3 + random.nextDouble() * 8 );
+				long mapOutput = (long) ( mapInput * random.nextDouble() );
+				long duration = 10 + random.nextInt( 600 );
+				long mapTime = random.nextInt( (int) duration );
+				line.setLength( 0 );
+				line.append( "jobid-" ).append( i ).append( '\t' );
+				line.append( "jobname-" ).append( random.nextInt( 5000 ) ).append( '\t' );
+				line.append( mapInput ).append( '\t' ).append( mapOutput ).append( '\t' ).append( (long) ( mapOutput * random.nextDouble() ) ).append( '\t' );
+				line.append( submitTime ).append( '\t' ).append( gap ).append( '\t' ).append( duration ).append( '\t' );
+				line.append( mapTime ).append( '\t' ).append( duration - mapTime ).append( '\t' ).append( duration ).append( '\n' );
+				writer.write( line.toString() );
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+	
+	/**
+	 * Compares every user reading and splitting the trace text (what each
+	 * generator used to do) with building the index once and replaying it
+	 * through per-user cursors. Usage: ReplayTraceIndex [jobs] [users] [traceFile]
+	 */
+	public static void main( String[] args ) throws Exception
+	{
+		int jobs = 10000000;
+		int users = 100;
+		if( args.length > 0 )
+			jobs = Integer.parseInt( args[0] );
+		if( args.length > 1 )
+			users = Integer.parseInt( args[1] );
+		File trace = ( args.length > 2 ) ? new File( args[2] ) : File.createTempFile( "rain-trace", ".txt" );
+		File index = new File( trace.getPath() + INDEX_SUFFIX );
+		if( args.length <= 2 )
+		{
+			trace.deleteOnExit();
+			index.deleteOnExit();
+			long start = System.nanoTime();
+			writeSyntheticTrace( trace, jobs, 1 );
+			System.out.printf( "[TRACE INDEX] wrote %d-job trace (%.1f MB) in %.2f s%n", jobs, trace.length() / 1048576.0, ( System.nanoTime() - start ) / 1e9 );
+		}
+		
+		// Baseline: one user's pass over the text, every user pays this
+		long start = System.nanoTime();
+		BufferedReader reader = new BufferedReader( new FileReader( trace ) );
+		long lines = 0;
+		long checksum = 0;
+		String text;
+		while( ( text = reader.readLine() ) != null )
+		{
+			String[] fields = text.split( ReplayMapReduceGenerator.COLUMN_SEPARATOR );
+			if( fields.length != ReplayMapReduceGenerator.MAX_COLUMNS )
+				continue;
+			lines++;
+			checksum += Long.parseLong( fields[ReplayMapReduceGenerator.MAP_INPUT_BYTES_COL] ) + fields[ReplayMapReduceGenerator.JOB_NAME_COL].length();
+		}
+		reader.close();
+		double readSecs = ( System.nanoTime() - start ) / 1e9;
+		System.out.printf( "[TRACE INDEX] BufferedReader+split: %d jobs in %.2f s per user, %.1f s for %d users (checksum %d)%n", lines, readSecs, readSecs * users, users, checksum );
+		
+		index.delete();
+		start = System.nanoTime();
+		ReplayTraceIndex traceIndex = retain( trace.getPath(), index.getPath() );
+		double buildSecs = ( System.nanoTime() - start ) / 1e9;
+		System.out.printf( "[TRACE INDEX] built index: %d jobs, %.1f MB in %.2f s%n", traceIndex.size(), index.length() / 1048576.0, buildSecs );
+		traceIndex.release();
+		
+		start = System.nanoTime();
+		traceIndex = retain( trace.getPath(), index.getPath() );
+		System.out.printf( "[TRACE INDEX] reopened index in %.3f ms%n", ( System.nanoTime() - start ) / 1e6 );
+		
+		// Every user replays its round robin share of the trace
+		for( String partitioning : new String[] { ReplayTraceCursor.PARTITION_ROUND_ROBIN, ReplayTraceCursor.PARTITION_HASH } )
+		{
+			start = System.nanoTime();
+			checksum = 0;
+			long replayed = 0;
+			for( int user = 0; user < users; user++ )
+			{
+				ReplayTraceCursor cursor = new ReplayTraceCursor( traceIndex, partitioning, user, users );
+				int job;
+				while( ( job = cursor.next() ) >= 0 )
+				{
+					replayed++;
+					checksum += traceIndex.get( job, ReplayMapReduceGenerator.MAP_INPUT_BYTES_COL ) + traceIndex.getJobName( job ).length() + cursor.getGap();
+				}
+			}
+			System.out.printf( "[TRACE INDEX] %s replay over %d users: %d jobs in %.2f s (checksum %d)%n", partitioning, users, replayed, ( System.nanoTime() - start ) / 1e9, checksum );
+		}
+		
+		Random random = new Random( 2 );
+		long first = traceIndex.getSubmitTime( 0 );
+		long span = traceIndex.getSubmitTime( traceIndex.size() - 1 ) - first + 1;
+		int seeks = 1000000;
+		start = System.nanoTime();
+		checksum = 0;
+		for( int i = 0; i < seeks; i++ )
+			checksum += traceIndex.seek( first + (long) ( random.nextDouble() * span ) );
+		System.out.printf( "[TRACE INDEX] %d timestamp seeks (sorted: %s): %.3f us each (checksum %d)%n", seeks, traceIndex.isSortedBySubmitTime(), ( System.nanoTime() - start ) / 1e3 / seeks, checksum );
+		traceIndex.release();
+	}
+	
+	/**
+	 * Splits trace lines into tab-separated fields without creating a String
+	 * per line or per field.
+	 */
+	private static class TraceParser
+	{
+		private final InputStream _in;
+		private final byte[] _buffer = new byte[64 * 1024];
+		private int _bufferPos = 0;
+		private int _bufferEnd = 0;
+		private byte[] _line = new byte[1024];
+		private int _lineLength = 0;
+		private final int[] _starts = new int[ReplayMapReduceGenerator.MAX_COLUMNS];
+		private final int[] _ends = new int[ReplayMapReduceGenerator.MAX_COLUMNS];
+		private final long[] _values = new long[ReplayMapReduceGenerator.MAX_COLUMNS];
+		
+		public TraceParser( InputStream in )
+		{
+			this._in = in;
+		}
+		
+		/**
+		 * Moves to the next well-formed line.
+		 * 
+		 * @return  False at the end of the trace.
+		 */
+		public boolean next() throws IOException
+		{
+			while( this.readLine() )
+			{
+				if( this.split() )
+					return true;
+			}
+			return false;
+		}
+		
+		private boolean readLine() throws IOException
+		{
+			this._lineLength = 0;
+			boolean read = false;
+			while( true )
+			{
+				if( this._bufferPos == this._bufferEnd )
+				{
+					this._bufferEnd = this._in.read( this._buffer );
+					this._bufferPos = 0;
+					if( this._bufferEnd <= 0 )
+					{
+						this._bufferEnd = 0;
+						return read;
+					}
+				}
+				read = true;
+				byte b = this._buffer[this._bufferPos++];
+				if( b == '\n' )
+					break;
+				if( this._lineLength == this._line.length )
+				{
+					byte[] line = new byte[this._line.length * 2];
+					System.arraycopy( this._line, 0, line, 0, this._lineLength );
+					this._line = line;
+				}
+				this._line[this._lineLength++] = b;
+			}
+			if( this._lineLength > 0 && this._line[this._lineLength - 1] == '\r' )
+				this._lineLength--;
+			return true;
+		}
+		
+		private boolean split()
+		{
+			int column = 0;
+			int start = 0;
+			for( int i = 0; i <= this._lineLength; i++ )
+			{
+				if( i == this._lineLength || this._line[i] == '\t' )
+				{
+					if( column == this._starts.length )
+						return false;
+					this._starts[column] = start;
+					this._ends[column] = i;
+					column++;
+					start = i + 1;
+				}
+			}
+			if( column != this._starts.length )
+				return false;
+			for( int i = FIRST_NUMERIC_COL; i < column; i++ )
+			{
+				if( !this.parseLong( i ) )
+					return false;
+			}
+			return true;
+		}
+		
+		// Whole numbers, optionally signed; anything after a decimal point is dropped
+		private boolean parseLong( int column )
+		{
+			int i = this._starts[column];
+			int end = this._ends[column];
+			boolean negative = ( i < end && this._line[i] == '-' );
+			if( negative )
+				i++;
+			if( i == end )
+				return false;
+			long value = 0;
+			for( ; i < end; i++ )
+			{
+				byte b = this._line[i];
+				if( b == '.' )
+					break;
+				if( b < '0' || b > '9' )
+					return false;
+				value = value * 10 + ( b - '0' );
+			}
+			this._values[column] = negative ? -value : value;
+			return true;
+		}
+		
+		public long getLong( int column ) { return this._values[column]; }
+		public int length( int column ) { return this._ends[column] - this._starts[column]; }
+		
+		public void copy( int column, ByteBuffer target )
+		{
+			target.put( this._line, this._starts[column], this.length( column ) );
+		}
+		
+		public int hash( int column )
+		{
+			long h = 0;
+			for( int i = this._starts[column]; i < this._ends[column]; i++ )
+				h = h * 31 + this._line[i];
+			return (int) ( RandomStreams.mix64( h ) >>> 32 );
+		}
+		
+		public void close() throws IOException
+		{
+			this._in.close();
+		}
+	}
+}
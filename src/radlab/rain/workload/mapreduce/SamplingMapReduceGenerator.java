@@ -37,7 +37,6 @@ import java.io.IOException;
 import java.util.Iterator;
 import java.util.TreeMap;
 import java.util.Hashtable;
-import java.util.Random;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 
@@ -67,6 +66,8 @@ public class SamplingMapReduceGenerator extends Generator
 	public static String CFG_DEBUG_MODE				= "debug";
 	public static String CFG_MAX_MAP_OUTPUT			= "maxMapOutput";
 	public static String CFG_MAX_HDFS_BYTES			= "maxHdfsBytes";
+	public static String CFG_ASYNC_SUBMIT			= "asyncSubmit";
+	public static String CFG_JOB_POLL_INTERVAL		= "jobPollInterval";
 		
 	/*
 	 jobid, jobname, map_input_bytes, map_output_bytes, hdfs_bytes_written, submit_time, interarrival gap, duration, total_map_time, total_reduce_time, total_time
@@ -81,11 +82,13 @@ public class SamplingMapReduceGenerator extends Generator
 	private EmpiricalCDF _outputShuffleRatioCdf;
 	private EmpiricalCDF _runningTimeCdf;
 	
-	private Random _random = new Random();
 	private NumberFormat _formatter = new DecimalFormat( "00000" );
 	private boolean _debug = false;
 	private long _maxMapOutput = UNLIMITED_SIZE;
 	private long _maxHdfsBytes = UNLIMITED_SIZE;
+	// Submit jobs without waiting for them to finish (the job monitor scores them)
+	private boolean _asyncSubmit = false;
+	private JobPhaseStats _jobStats = null;
 		
 	// Generator parameters - all configurable
 	private String _hdfsRoot 			= "hdfs://localhost:9000";
@@ -109,6 +112,15 @@ public class SamplingMapReduceGenerator extends Generator
 	{
 		// Close the trace summary file
 		this.closeTraceSummaryFile();
+		
+		if( this._jobStats != null )
+		{
+			int outstanding = JobMonitor.getInstance().getActiveJobs();
+			if( outstanding > 0 )
+				System.out.println( this + " " + outstanding + " submitted job(s) still running." );
+			this._jobStats.release();
+			this._jobStats = null;
+		}
 	}
 
 	@Override
@@ -181,7 +193,7 @@ public class SamplingMapReduceGenerator extends Generator
 		int count = 0;
 		while( count < length )
 		{
-			char rndChar = SamplingMapReduceGenerator.ALPHABET.charAt( this._random.nextInt( SamplingMapReduceGenerator.ALPHABET.length() ) );
+			char rndChar = SamplingMapReduceGenerator.ALPHABET.charAt( this.getRandom().nextInt( SamplingMapReduceGenerator.ALPHABET.length() ) );
 			buf.append( rndChar );
 			count++;
 		}
@@ -222,6 +234,14 @@ public class SamplingMapReduceGenerator extends Generator
 		// Any limits on hdfs bytes written specified?
 		if( config.has( CFG_MAX_HDFS_BYTES ) )
 			this._maxHdfsBytes = config.getLong( CFG_MAX_HDFS_BYTES );
+		// Submit jobs and move on instead of blocking until each one finishes?
+		if( config.has( CFG_ASYNC_SUBMIT ) )
+			this._asyncSubmit = config.getBoolean( CFG_ASYNC_SUBMIT );
+		if( config.has( CFG_JOB_POLL_INTERVAL ) )
+			JobMonitor.getInstance().setPollInterval( config.getLong( CFG_JOB_POLL_INTERVAL ) );
+		
+		if( this._jobStats == null )
+			this._jobStats = JobPhaseStats.retain( "MapReduce " + WorkGenMapReduceOperation.NAME );
     }
 	
 	private void preprocessTraceSummary( String traceSummaryFile ) throws IOException
@@ -299,7 +319,7 @@ public class SamplingMapReduceGenerator extends Generator
 		{
 			while( filesFound < filesNeeded )
 			{
-				int partNum = this._random.nextInt( filesInHdfs );
+				int partNum = this.getRandom().nextInt( filesInHdfs );
 				if( !fileParts.contains( partNum ) )
 				{
 					fileParts.put( partNum, partNum );
@@ -401,6 +421,8 @@ public class SamplingMapReduceGenerator extends Generator
 		op.setShuffleInputRatio( shuffleInputRatio );
 		op.setOutputShuffleRatio( outputShuffleRatio );
 		op.setInterarrival( interArrivalTime );
+		op.setAsyncSubmit( this._asyncSubmit );
+		op.setJobStats( this._jobStats );
 		// Let the operation extract any specific info it needs from the generator
 		op.prepare( this );
 		// Delete the output file from hdfs (if it already exists)
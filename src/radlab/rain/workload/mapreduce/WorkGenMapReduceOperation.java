@@ -293,18 +293,10 @@ public class WorkGenMapReduceOperation extends MapReduceOperation
 	        cluster.getTaskTrackers() + " nodes with " + 
 	        num_maps + " maps and " +
 	        num_reduces + " reduces.");
-	    Date startTime = new Date();
-	    Random random = new Random();
-	    System.out.println(random.nextFloat());
-	    System.out.println(random.nextFloat());
-	    System.out.println("Job started: " + startTime);
-	    JobClient.runJob(jobConf);
-	    
-	    //client.submitJob( jobConf );
-	    Date end_time = new Date();
-	    System.out.println("Job ended: " + end_time);
-	    System.out.println("The job took " + 
-	       (end_time.getTime() - startTime.getTime()) /1000 + " seconds.");
+	    System.out.println("Job started: " + new Date());
+	    // Blocks until the job is done unless the operation is set to submit asynchronously,
+	    // in which case the job monitor scores it once it completes
+	    this.submitJob( client, jobConf );
 	    
 	    // Mark the operation as successful
 	    this.setFailed( false );
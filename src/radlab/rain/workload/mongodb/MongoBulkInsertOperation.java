@@ -0,0 +1,54 @@
+package radlab.rain.workload.mongodb;
+
+import java.util.ArrayList;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import radlab.rain.IScoreboard;
+
+/**
+ * Inserts a batch of new { _id: key, value: bytes } documents with one
+ * multi-document insert.
+ */
+public class MongoBulkInsertOperation extends MongoOperation 
+{
+	public static String NAME = "BulkInsert";
+	
+	protected ArrayList<String> _keys = new ArrayList<String>();
+	protected ArrayList<byte[]> _values = new ArrayList<byte[]>();
+	private ArrayList<DBObject> _docs = new ArrayList<DBObject>();
+	
+	public MongoBulkInsertOperation(boolean interactive, IScoreboard scoreboard) 
+	{
+		super(interactive, scoreboard);
+		this._operationName = NAME;
+		this._operationIndex = MongoGenerator.BULK_INSERT;
+	}
+	
+	@Override
+	public void cleanup() 
+	{
+		super.cleanup();
+		this._keys.clear();
+		this._values.clear();
+		this._docs.clear();
+	}
+	
+	@Override
+	public void execute() throws Throwable 
+	{
+		this._docs.clear();
+		for( int i = 0; i < this._keys.size(); i++ )
+		{
+			BasicDBObject doc = new BasicDBObject();
+			doc.put( "_id", this._keys.get( i ) );
+			doc.put( "value", this._values.get( i ) );
+			this._docs.add( doc );
+		}
+		this._operationRequest = this._keys.get( 0 ) + " (+" + ( this._keys.size() - 1 ) + ")";
+		
+		this._mongoClient.insertMany( this._dbName, this._collectionName, this._docs, this._writeConcern );
+		this.setFailed( false );
+	}
+}
@@ -0,0 +1,59 @@
+package radlab.rain.workload.mongodb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import radlab.rain.util.storage.IBulkLoadSink;
+
+/**
+ * Loads batches into a MongoDB collection as one multi-document insert per
+ * batch, using the same { _id: key, value: bytes } documents the workload reads.
+ */
+public class MongoBulkLoadSink implements IBulkLoadSink 
+{
+	private MongoTransport _mongo = null;
+	private String _dbName = "";
+	private String _collectionName = "";
+	private List<DBObject> _docs = new ArrayList<DBObject>();
+	// Set while a batch might already be (partly) in the collection: the first batch after a
+	// (re)start from a checkpoint and any batch being retried. Those are upserted, since
+	// inserting them again would fail on the duplicate _ids.
+	private boolean _mayExist = true;
+	
+	public MongoBulkLoadSink( MongoTransport mongo, String dbName, String collectionName )
+	{
+		this._mongo = mongo;
+		this._dbName = dbName;
+		this._collectionName = collectionName;
+	}
+	
+	public void writeBatch( long[] keys, byte[][] values, int count ) throws Exception
+	{
+		this._docs.clear();
+		for( int i = 0; i < count; i++ )
+		{
+			BasicDBObject kv = new BasicDBObject();
+			kv.put( "_id", String.valueOf( keys[i] ) );
+			kv.put( "value", values[i] );
+			this._docs.add( kv );
+		}
+		
+		if( this._mayExist )
+			this._mongo.saveMany( this._dbName, this._collectionName, this._docs );
+		else
+		{
+			this._mayExist = true;
+			this._mongo.insertMany( this._dbName, this._collectionName, this._docs );
+		}
+		this._mayExist = false;
+		this._docs.clear();
+	}
+	
+	public void close() throws Exception
+	{
+		this._mongo.close();
+	}
+}
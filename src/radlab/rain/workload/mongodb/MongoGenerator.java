@@ -1,45 +1,64 @@
 package radlab.rain.workload.mongodb;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Random;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import radlab.rain.Generator;
+import radlab.rain.IReplayableGenerator;
 import radlab.rain.LoadProfile;
 import radlab.rain.ObjectPool;
 import radlab.rain.Operation;
 import radlab.rain.ScenarioTrack;
 
 import radlab.rain.util.storage.KeyGenerator;
+import radlab.rain.util.storage.PayloadSlab;
 import radlab.rain.util.Histogram;
 
-public class MongoGenerator extends Generator 
+import com.mongodb.WriteConcern;
+
+public class MongoGenerator extends Generator implements IReplayableGenerator
 {
 	public static String CFG_USE_POOLING_KEY 		= "usePooling";
 	public static String CFG_DEBUG_KEY		 		= "debug";
 	public static String CFG_RNG_SEED_KEY	 		= "rngSeed";
 	public static String CFG_DB_NAME_KEY	 		= "dbName";
 	public static String CFG_COLLECTION_NAME_KEY 	= "collectionName";
+	public static String CFG_WRITE_CONCERN_KEY 		= "writeConcern";
 		
 	public static final String DEFAULT_DB_NAME 			= "test";
 	public static final String DEFAULT_COLLECTION_NAME 	= "test-ns";
 	
 	public static int READ 					= MongoLoadProfile.READ;
 	public static int WRITE 				= MongoLoadProfile.WRITE;
+	// What reads and writes become when the load profile's batch size is above 1
+	public static int MULTI_GET 			= MongoLoadProfile.MAX_OPERATIONS;
+	public static int BULK_INSERT 			= MongoLoadProfile.MAX_OPERATIONS + 1;
 	public static int DEFAULT_OBJECT_SIZE	= 4096;
 	
-	@SuppressWarnings("unused")
 	private MongoRequest<String> _lastRequest 	= null;
 	private MongoTransport _mongoClient 		= null;
 	private boolean _usePooling					= true;
 	private boolean _debug 						= false;
+	private PayloadSlab _payloads					= null;
+	private boolean _sharedPayloads				= false;
 	private Random _random						= null;
 	String _dbName								= DEFAULT_DB_NAME;
 	String _collectionName						= DEFAULT_COLLECTION_NAME;
+	private WriteConcern _writeConcern			= WriteConcern.SAFE;
+	private HashMap<String,WriteConcern> _writeConcerns = new HashMap<String,WriteConcern>();
+	// Bulk inserts write new documents: ids are unique to this user and run
+	private String _bulkKeyPrefix				= null;
+	private long _bulkKeySequence				= 0;
 	// Debug key popularity
 	Histogram<String> _keyHist					= new Histogram<String>();
 	// Debug hot object popularity
@@ -88,6 +107,16 @@ public class MongoGenerator extends Generator
 	public void setUsePooling( boolean value ) { this._usePooling = value; }
 	public boolean getUsePooling() { return this._usePooling; }
 	
+	/**
+	 * Returns the write concern for the named operation: its own if one was
+	 * configured, otherwise the generator-wide one (SAFE by default).
+	 */
+	public WriteConcern getWriteConcern( String operationName )
+	{
+		WriteConcern concern = this._writeConcerns.get( operationName );
+		return ( concern != null ) ? concern : this._writeConcern;
+	}
+	
 	@Override
 	public void configure( JSONObject config ) throws JSONException
 	{
@@ -97,10 +126,16 @@ public class MongoGenerator extends Generator
 		if( config.has( CFG_DEBUG_KEY) )
 			this._debug = config.getBoolean( CFG_DEBUG_KEY );
 		
+		// Values are cut from a shared, pre-generated slab
+		this._payloads = PayloadSlab.getSharedSlab( config );
+		if( config.has( PayloadSlab.CFG_SHARED_PAYLOADS_KEY ) )
+			this._sharedPayloads = config.getBoolean( PayloadSlab.CFG_SHARED_PAYLOADS_KEY );
+		
 		// Look for a random number seed
+		// Each user gets its own stream; a configured seed replaces the scenario's master seed
 		if( config.has( CFG_RNG_SEED_KEY ) )
-			this._random = new Random( config.getLong(CFG_RNG_SEED_KEY) );
-		else this._random = new Random();
+			this.setRandomSeed( config.getLong( CFG_RNG_SEED_KEY ) );
+		this._random = this.getRandom();
 	
 		if( config.has( CFG_DB_NAME_KEY ) )
 			this._dbName = config.getString( CFG_DB_NAME_KEY );
@@ -108,6 +143,23 @@ public class MongoGenerator extends Generator
 		if( config.has( CFG_COLLECTION_NAME_KEY ) )
 			this._collectionName = config.getString( CFG_COLLECTION_NAME_KEY );
 		
+		// Either one concern for every write, or one per operation name e.g., { "Put": "SAFE", "BulkInsert": "NORMAL" }
+		if( config.has( CFG_WRITE_CONCERN_KEY ) )
+		{
+			JSONObject concerns = config.optJSONObject( CFG_WRITE_CONCERN_KEY );
+			if( concerns == null )
+				this._writeConcern = MongoTransport.parseWriteConcern( config.getString( CFG_WRITE_CONCERN_KEY ) );
+			else
+			{
+				Iterator<?> names = concerns.keys();
+				while( names.hasNext() )
+				{
+					String name = (String) names.next();
+					this._writeConcerns.put( name, MongoTransport.parseWriteConcern( concerns.getString( name ) ) );
+				}
+			}
+		}
+		
 		// Look for a mongo connection string otherwise just use the target host and port info
 		try
 		{
@@ -124,10 +176,57 @@ public class MongoGenerator extends Generator
 	{
 		LoadProfile currentLoad = this.getTrack().getCurrentLoadProfile();
 		this._latestLoadProfile = currentLoad;
-		int key = -1;
 		
 		MongoLoadProfile mongoProfile = (MongoLoadProfile) this._latestLoadProfile; 
 		
+		// All mongo requests have string keys (see Mongo's BasicDBObject)
+		MongoRequest<String> nextRequest = new MongoRequest<String>();
+		nextRequest.key = this.nextKey( mongoProfile );
+		
+		double rndVal = this._random.nextDouble();
+		int i = 0;
+		
+		// If we cared about access sequences we could check whether we just did a read or write
+		// before picking the next operation
+		for( i = 0; i < MongoLoadProfile.MAX_OPERATIONS; i++ )
+		{
+			if( rndVal <= mongoProfile._opselect[i] )
+				break;
+		}
+		nextRequest.op = i;
+		
+		// If we're writing then we need to set the size
+		if( nextRequest.op == MongoLoadProfile.WRITE || nextRequest.op == MongoLoadProfile.UPDATE )
+			// We could also get the size cdf if we want to support size histograms
+			nextRequest.size = mongoProfile.nextSize( this._random );
+		
+		int batchSize = mongoProfile.getBatchSize();
+		if( batchSize > 1 && nextRequest.op == READ )
+		{
+			nextRequest.op = MULTI_GET;
+			nextRequest.keys = new ArrayList<String>( batchSize );
+			nextRequest.keys.add( nextRequest.key );
+			for( int k = 1; k < batchSize; k++ )
+				nextRequest.keys.add( this.nextKey( mongoProfile ) );
+		}
+		else if( batchSize > 1 && nextRequest.op == WRITE )
+		{
+			nextRequest.op = BULK_INSERT;
+			nextRequest.sizes = new int[batchSize];
+			nextRequest.sizes[0] = nextRequest.size;
+			for( int k = 1; k < batchSize; k++ )
+				nextRequest.sizes[k] = mongoProfile.nextSize( this._random );
+		}
+
+		// Update the last request
+		this._lastRequest = nextRequest;
+		return this.getMongoOperation( nextRequest );
+	}
+	
+	private String nextKey( MongoLoadProfile mongoProfile )
+	{
+		int key = -1;
+		
 		// Check whether we're sending traffic to hot objects or not
 		double rndVal = this._random.nextDouble();
 		ArrayList<Integer> hotObjectList = mongoProfile.getHotObjectList();
@@ -147,10 +246,10 @@ public class MongoGenerator extends Generator
 		{	
 			// Pick a key using the regular keygen strategy
 			KeyGenerator keyGen = mongoProfile.getKeyGenerator();
-			key = keyGen.generateKey();
+			key = keyGen.generateKey( this._random );
 			// Check whether we picked a key that's in the hot set - if we did, try again
 			while( hotObjectSet.contains( key ) ) 
-				key = keyGen.generateKey();
+				key = keyGen.generateKey( this._random );
 			
 			// Do some stats checking for non-hot objects
 			if( this._debug )
@@ -159,40 +258,77 @@ public class MongoGenerator extends Generator
 		
 		// Assume raw keys for now - we could use this to index into some other structure
 		// to produce the "real" key
-				
-		// All mongo requests have string keys (see Mongo's BasicDBObject)
-		MongoRequest<String> nextRequest = new MongoRequest<String>();
-		// Turn the integer key into a string
-		nextRequest.key = String.valueOf( key );
+		return String.valueOf( key );
+	}
 		
-		rndVal = this._random.nextDouble();
-		int i = 0;
+	/**
+	 * Records the last request's operation, key and value size; values are
+	 * regenerated on replay since only their size matters to the target.
+	 * Multi-gets record their keys, bulk inserts their value sizes (their
+	 * documents get fresh ids on replay).
+	 */
+	public void writeLastRequest( DataOutput out ) throws IOException
+	{
+		MongoRequest<String> request = this._lastRequest;
+		out.writeByte( request.op );
+		if( request.op == MULTI_GET )
+		{
+			out.writeShort( request.keys.size() );
+			for( String key : request.keys )
+				out.writeUTF( key );
+		}
+		else if( request.op == BULK_INSERT )
+		{
+			out.writeShort( request.sizes.length );
+			for( int size : request.sizes )
+				out.writeInt( size );
+		}
+		else
+		{
+			out.writeUTF( request.key );
+			out.writeInt( request.size );
+		}
+	}
+	
+	public Operation replayRequest( int operationIndex, DataInput in ) throws IOException
+	{
+		this._latestLoadProfile = this.getTrack().getCurrentLoadProfile();
 		
-		// If we cared about access sequences we could check whether we just did a read or write
-		// before picking the next operation
-		for( i = 0; i < MongoLoadProfile.MAX_OPERATIONS; i++ )
+		MongoRequest<String> request = new MongoRequest<String>();
+		request.op = in.readByte();
+		if( request.op == MULTI_GET )
 		{
-			if( rndVal <= mongoProfile._opselect[i] )
-				break;
+			int count = in.readShort();
+			request.keys = new ArrayList<String>( count );
+			for( int i = 0; i < count; i++ )
+				request.keys.add( in.readUTF() );
+		}
+		else if( request.op == BULK_INSERT )
+		{
+			request.sizes = new int[in.readShort()];
+			for( int i = 0; i < request.sizes.length; i++ )
+				request.sizes[i] = in.readInt();
+		}
+		else
+		{
+			request.key = in.readUTF();
+			request.size = in.readInt();
 		}
-		nextRequest.op = i;
 		
-		// If we're writing then we need to set the size
-		if( nextRequest.op == MongoLoadProfile.WRITE || nextRequest.op == MongoLoadProfile.UPDATE )
-			// We could also get the size cdf if we want to support size histograms
-			nextRequest.size = mongoProfile.getSize();
-
-		// Update the last request
-		this._lastRequest = nextRequest;
-		return this.getMongoOperation( nextRequest );
+		this._lastRequest = request;
+		return this.getMongoOperation( request );
 	}
-		
+	
 	private MongoOperation getMongoOperation( MongoRequest<String> request )
 	{
 		if( request.op == READ )
 			return this.createGetOperation( request );
 		else if( request.op == WRITE )
 			return this.createPutOperation( request );
+		else if( request.op == MULTI_GET )
+			return this.createMultiGetOperation( request );
+		else if( request.op == BULK_INSERT )
+			return this.createBulkInsertOperation( request );
 		else return null; // We don't support updates/deletes explicitly, if an existing key gets re-written then so be it
 	}
 	
@@ -232,18 +368,64 @@ public class MongoGenerator extends Generator
 		// Set the specific fields
 		op._key = request.key;
 		
-		// Check whether a value has been pre-set, if not then fill in random bytes
+		// Check whether a value has been pre-set, if not then take one from the payload slab
 		if( request.value == null )
 		{
-			if( request.size < Integer.MAX_VALUE )
-			{
-				op._value = new byte[request.size];
-			}
-			else op._value = new byte[DEFAULT_OBJECT_SIZE];
-			this._random.nextBytes( op._value );
+			int size = ( request.size < Integer.MAX_VALUE ) ? request.size : DEFAULT_OBJECT_SIZE;
+			if( this._sharedPayloads )
+				op._value = this._payloads.sharedValue( this._random, size );
+			else op._value = this._payloads.nextValue( this._random, size );
 		}
 		else op._value = request.value;
 		op.prepare( this );
 		return op;
 	}
+	
+	public MongoMultiGetOperation createMultiGetOperation( MongoRequest<String> request )
+	{
+		MongoMultiGetOperation op = null;
+		
+		if( this._usePooling )
+		{
+			ObjectPool pool = this.getTrack().getObjectPool();
+			op = (MongoMultiGetOperation) pool.rentObject( MongoMultiGetOperation.NAME );	
+		}
+		
+		if( op == null )
+			op = new MongoMultiGetOperation( this.getTrack().getInteractive(), this.getScoreboard() );
+		
+		// Set the specific fields
+		op._keys.addAll( request.keys );
+		
+		op.prepare( this );
+		return op;
+	}
+	
+	public MongoBulkInsertOperation createBulkInsertOperation( MongoRequest<String> request )
+	{
+		MongoBulkInsertOperation op = null;
+		
+		if( this._usePooling )
+		{
+			ObjectPool pool = this.getTrack().getObjectPool();
+			op = (MongoBulkInsertOperation) pool.rentObject( MongoBulkInsertOperation.NAME );	
+		}
+		
+		if( op == null )
+			op = new MongoBulkInsertOperation( this.getTrack().getInteractive(), this.getScoreboard() );
+		
+		// Set the specific fields
+		if( this._bulkKeyPrefix == null )
+			this._bulkKeyPrefix = "bulk-" + Long.toString( System.currentTimeMillis(), 36 ) + "-" + this._name + "-";
+		for( int size : request.sizes )
+		{
+			op._keys.add( this._bulkKeyPrefix + ( this._bulkKeySequence++ ) );
+			if( this._sharedPayloads )
+				op._values.add( this._payloads.sharedValue( this._random, size ) );
+			else op._values.add( this._payloads.nextValue( this._random, size ) );
+		}
+		
+		op.prepare( this );
+		return op;
+	}
 }
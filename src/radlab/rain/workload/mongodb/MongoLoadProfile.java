@@ -13,6 +13,9 @@ public class MongoLoadProfile extends StorageLoadProfile
 	public static final int DELETE	= 3;
 	public static final int MAX_OPERATIONS = 4; // supporting core operations read, write, update and delete
 	
+	// Documents per read/write: above 1, reads become $in multi-gets and writes bulk inserts
+	public static String CFG_LOAD_PROFILE_BATCH_SIZE_KEY			= "batchSize";
+	
 	/*
 	public static String CFG_LOAD_PROFILE_REQUEST_SIZE_KEY			= "size";
 	public static String CFG_LOAD_PROFILE_READ_PCT_KEY				= "readPct";
@@ -29,11 +32,19 @@ public class MongoLoadProfile extends StorageLoadProfile
 	private double _deletePct 	= 0.0;
 	*/
 	public double[] _opselect 	= new double[MAX_OPERATIONS];
+	private int _batchSize		= 1;
 	
 	
 	public MongoLoadProfile(JSONObject profileObj) throws JSONException 
 	{
 		super(profileObj);
+		
+		if( profileObj.has( CFG_LOAD_PROFILE_BATCH_SIZE_KEY ) )
+		{
+			this._batchSize = profileObj.getInt( CFG_LOAD_PROFILE_BATCH_SIZE_KEY );
+			if( this._batchSize < 1 )
+				throw new JSONException( "Batch size must be at least 1: " + this._batchSize );
+		}
 		/*
 		this._size = profileObj.getInt( CFG_LOAD_PROFILE_REQUEST_SIZE_KEY );
 		// Read and write must be specified (even if 0)
@@ -77,6 +88,9 @@ public class MongoLoadProfile extends StorageLoadProfile
 		super(interval, numberOfUsers, mixName, transitionTime, name);
 	}
 
+	public int getBatchSize() { return this._batchSize; }
+	public void setBatchSize( int value ) { this._batchSize = value; }
+	
 	/*
 	public int getSize() { return this._size; }
 	public void setSize( int value ) { this._size = value; };
@@ -0,0 +1,62 @@
+package radlab.rain.workload.mongodb;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+import radlab.rain.IScoreboard;
+
+/**
+ * Reads several documents with one $in query on _id. Like a single Get, it
+ * fails if any requested key is missing.
+ */
+public class MongoMultiGetOperation extends MongoOperation 
+{
+	public static String NAME = "MultiGet";
+	
+	protected ArrayList<String> _keys = new ArrayList<String>();
+	
+	public MongoMultiGetOperation(boolean interactive, IScoreboard scoreboard) 
+	{
+		super(interactive, scoreboard);
+		this._operationName = NAME;
+		this._operationIndex = MongoGenerator.MULTI_GET;
+	}
+	
+	@Override
+	public void cleanup() 
+	{
+		super.cleanup();
+		this._keys.clear();
+	}
+	
+	@Override
+	public void execute() throws Throwable
+	{
+		// Key generators can repeat a key within a batch, $in returns it once
+		HashSet<String> missing = new HashSet<String>( this._keys );
+		this._operationRequest = this._keys.get( 0 ) + " (+" + ( this._keys.size() - 1 ) + ")";
+		DBCursor cursor = this._mongoClient.getMany( this._dbName, this._collectionName, this._keys );
+		try
+		{
+			while( cursor.hasNext() )
+			{
+				DBObject o = cursor.next();
+				@SuppressWarnings("unused")
+				byte[] value = (byte[]) o.get( "value" );
+				missing.remove( o.get( "_id" ) );
+			}
+		}
+		finally
+		{
+			cursor.close();
+		}
+		
+		if( !missing.isEmpty() )
+			throw new Exception( missing.size() + " of " + this._keys.size() + " keys not found, e.g.: " + missing.iterator().next() );
+		
+		this.setFailed( false );
+	}
+}
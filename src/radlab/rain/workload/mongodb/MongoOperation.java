@@ -8,6 +8,7 @@ import radlab.rain.Operation;
 import com.mongodb.BasicDBObject;
 import com.mongodb.CommandResult;
 import com.mongodb.DBCursor;
+import com.mongodb.WriteConcern;
 import com.mongodb.WriteResult;
 
 public abstract class MongoOperation extends Operation 
@@ -17,6 +18,7 @@ public abstract class MongoOperation extends Operation
 	protected String _key = "";
 	protected byte[] _value = null;
 	protected MongoTransport _mongoClient = null;
+	protected WriteConcern _writeConcern = WriteConcern.SAFE;
 	
 	public MongoOperation(boolean interactive, IScoreboard scoreboard) 
 	{
@@ -46,6 +48,7 @@ public abstract class MongoOperation extends Operation
 		
 		this._dbName = mongoGenerator._dbName;
 		this._collectionName = mongoGenerator._collectionName;
+		this._writeConcern = mongoGenerator.getWriteConcern( this._operationName );
 	}
 
 	public DBCursor doGet( String key ) throws Exception
@@ -72,7 +75,14 @@ public abstract class MongoOperation extends Operation
 		//query.put( "key", key );
 		query.put( "_id", key );
 		
-		WriteResult res = this._mongoClient.updateOne( this._dbName, this._collectionName, query, obj );
+		WriteResult res = this._mongoClient.updateOne( this._dbName, this._collectionName, query, obj, this._writeConcern );
+		if( res == null )
+			throw new Exception( "Write failed!" );
+		
+		// Unacknowledged writes have nothing to check (and asking would make them acknowledged)
+		if( !this._writeConcern.callGetLastError() )
+			return;
+		
 		CommandResult cmdRes = res.getLastError();
 		if( cmdRes == null )
 			throw new Exception( "Error getting command result after write." );
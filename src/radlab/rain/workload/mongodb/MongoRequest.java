@@ -1,9 +1,14 @@
 package radlab.rain.workload.mongodb;
 
+import java.util.ArrayList;
+
 public class MongoRequest<T> 
 {
 	public T key;
 	public int op;
 	public int size;
 	public byte[] value;
+	// Multi-document requests: the keys to read, or the value sizes of the documents to insert
+	public ArrayList<T> keys;
+	public int[] sizes;
 }
@@ -2,9 +2,11 @@ package radlab.rain.workload.mongodb;
 
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.List;
 //import java.util.Hashtable;
 
 import com.mongodb.BasicDBObject;
+import com.mongodb.CommandResult;
 import com.mongodb.DBAddress;
 import com.mongodb.DBCursor;
 import com.mongodb.Mongo;
@@ -34,6 +36,7 @@ public class MongoTransport
 	private int _maxConnectionsPerServer = DEFAULT_MAX_CONNECTIONS_PER_HOST;
 	private String _host			= "";
 	private int _port				= DEFAULT_MONGO_PORT;
+	private WriteConcern _writeConcern = WriteConcern.SAFE; // Used by the bulk writes unless they're given one
 	
 	
 	//private ArrayList<ServerAddress> _servers = new ArrayList<ServerAddress>();
@@ -118,6 +121,41 @@ public class MongoTransport
 		
 	}
 	
+	/**
+	 * Parses a write concern: one of the driver's named concerns (NONE,
+	 * NORMAL, SAFE, FSYNC_SAFE, REPLICAS_SAFE, in any case) or a number of
+	 * servers that must acknowledge each write (the "w" option).
+	 */
+	public static WriteConcern parseWriteConcern( String name )
+	{
+		WriteConcern concern = WriteConcern.valueOf( name.toLowerCase() );
+		if( concern != null )
+			return concern;
+		
+		try
+		{
+			return new WriteConcern( Integer.parseInt( name ) );
+		}
+		catch( NumberFormatException nfe )
+		{
+			throw new IllegalArgumentException( "Unknown write concern: " + name + " (expected NONE, NORMAL, SAFE, FSYNC_SAFE, REPLICAS_SAFE or a number of servers)" );
+		}
+	}
+	
+	public WriteConcern getWriteConcern() { return this._writeConcern; }
+	public void setWriteConcern( WriteConcern val ) { this._writeConcern = val; }
+	
+	// Throws the server's error for a write, if the write concern asked for an acknowledgement at all
+	private static void checkWrite( WriteResult result, WriteConcern concern )
+	{
+		if( !concern.callGetLastError() )
+			return;
+		
+		CommandResult cmdRes = result.getLastError();
+		if( !cmdRes.ok() )
+			throw cmdRes.getException();
+	}
+	
 	public DBCursor get( String dbName, String collectionName, DBObject query )
 	{
 		if( !this._initialized )
@@ -169,7 +207,89 @@ public class MongoTransport
 		return result;
 	}	
 	
+	/**
+	 * Finds the documents whose _id is any of the given keys with a single
+	 * $in query. The caller closes the cursor.
+	 */
+	public DBCursor getMany( String dbName, String collectionName, List<String> keys )
+	{
+		if( !this._initialized )
+			this.initialize();
+		
+		// Make any per-request changes
+		this.configure();
+		DB db = this._conn.getDB( dbName );
+		DBCollection collection = db.getCollection( collectionName );
+		BasicDBObject query = new BasicDBObject( "_id", new BasicDBObject( "$in", keys ) );
+		// Ask for the whole result in the first reply rather than the driver's default batch
+		return collection.find( query ).batchSize( keys.size() );
+	}
+	
+	// Bulk loads: one multi-document insert, errors are thrown rather than swallowed so the loader can retry
+	public WriteResult insertMany( String dbName, String collectionName, List<DBObject> objs )
+	{
+		return this.insertMany( dbName, collectionName, objs, this._writeConcern );
+	}
+	
+	/**
+	 * Inserts the documents with one insert message (split only where the
+	 * driver's maximum message size forces it) rather than a round trip per
+	 * document. Errors are thrown rather than swallowed.
+	 */
+	public WriteResult insertMany( String dbName, String collectionName, List<DBObject> objs, WriteConcern concern )
+	{
+		if( !this._initialized )
+			this.initialize();
+		
+		// Make any per-request changes
+		this.configure();
+		
+		DB db = null;
+		try
+		{
+			db = this._conn.getDB( dbName );
+			DBCollection collection = db.getCollection( collectionName );
+			WriteResult result = collection.insert( objs, concern );
+			checkWrite( result, concern );
+			return result;
+		}
+		finally
+		{
+			if( db != null )
+				db.requestDone();
+		}
+	}
+	
+	// Like insertMany, but upserts document by document, so re-writing documents that may already exist is fine
+	public void saveMany( String dbName, String collectionName, List<DBObject> objs )
+	{
+		if( !this._initialized )
+			this.initialize();
+		
+		// Make any per-request changes
+		this.configure();
+		
+		DB db = null;
+		try
+		{
+			db = this._conn.getDB( dbName );
+			DBCollection collection = db.getCollection( collectionName );
+			for( DBObject obj : objs )
+				checkWrite( collection.save( obj, this._writeConcern ), this._writeConcern );
+		}
+		finally
+		{
+			if( db != null )
+				db.requestDone();
+		}
+	}
+	
 	public WriteResult updateOne( String dbName, String collectionName, DBObject query, DBObject obj )
+	{
+		return this.updateOne( dbName, collectionName, query, obj, WriteConcern.SAFE );
+	}
+	
+	public WriteResult updateOne( String dbName, String collectionName, DBObject query, DBObject obj, WriteConcern concern )
 	{
 		if( !this._initialized )
 			this.initialize();
@@ -185,7 +305,7 @@ public class MongoTransport
 			DBCollection collection = db.getCollection( collectionName );
 			//result = collection.update( query, obj, true, false, WriteConcern.SAFE );
 			// No upsert, no multi
-			result = collection.update( query, obj, false, false, WriteConcern.SAFE );
+			result = collection.update( query, obj, false, false, concern );
 		}
 		catch( Exception e )
 		{}
@@ -1,14 +1,17 @@
 package radlab.rain.workload.mongodb;
 
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
-import java.util.ArrayList;
 import java.util.Random;
 
 import com.mongodb.CommandResult;
 import com.mongodb.BasicDBObject;
+import com.mongodb.WriteConcern;
 import com.mongodb.WriteResult;
 
+import radlab.rain.util.storage.BulkLoader;
+import radlab.rain.util.storage.IBulkLoadSink;
+import radlab.rain.util.storage.IBulkLoadSinkFactory;
+import radlab.rain.util.storage.PayloadSlab;
+
 public class MongoUtil 
 {
 	public static void createIndex( MongoTransport mongoClient, String dbName, String collectionName, int keyField )
@@ -24,13 +27,13 @@ public class MongoUtil
 	public static long loadDbCollection( MongoTransport mongoClient, String dbName, String collectionName, int minKey, int maxKey, int size )
 	{
 		Random random = new Random();
+		PayloadSlab payloads = PayloadSlab.getSharedSlab();
 		int count = (maxKey - minKey) + 1;
 		
 		for( int i = 0; i < count; i++ )
 		{
-			byte[] arrBytes = new byte[size];
+			byte[] arrBytes = payloads.nextValue( random, size );
 			BasicDBObject kv = new BasicDBObject();
-			random.nextBytes( arrBytes );
 			
 			kv.put( "key", String.valueOf( i + minKey ) );
 			kv.put( "value", arrBytes );
@@ -54,8 +57,8 @@ public class MongoUtil
 		int maxKey = 100000;
 		int size = 1024;
 		
-		// MongoUtil <host> <port> <db> <col>
-		if( args.length == 7 )
+		// MongoUtil <host> <port> <db> <col> <min key> <max key> <size> [<workers> <batch size> <max keys/sec> <checkpoint file> [<write concern>]]
+		if( args.length >= 7 && args.length <= 12 )
 		{
 			host = args[0];
 			port = Integer.parseInt( args[1] );
@@ -71,32 +74,15 @@ public class MongoUtil
 		}
 		else
 		{
-			System.out.println( "Usage   : MongoUtil <host> <port> <dbName> <collection name> <min key> <max key> <size>" );
+			System.out.println( "Usage   : MongoUtil <host> <port> <dbName> <collection name> <min key> <max key> <size> " + BulkLoader.OPTIONS_USAGE + " [<write concern>]" );
 			System.out.println( "Example : MongoUtil localhost 27017 test test-ns 1 100000 4096" );
+			System.out.println( "Example : MongoUtil localhost 27017 test test-ns 1 500000000 4096 32 1000 0 mongo.checkpoint" );
+			System.out.println( "Example : MongoUtil localhost 27017 test test-ns 1 500000000 4096 32 1000 0 mongo.checkpoint NORMAL" );
 			System.exit( -1 );
 		}
 	
-		// Do data loads in parallel, shoot for using 10 threads
-		int keyCount = (maxKey - minKey) + 1;
-		int keyBlockSize = 10000;
-		int loaderThreads = new Double( Math.ceil( (double) keyCount / (double) keyBlockSize ) ).intValue();
-				
-		ArrayList<MongoLoaderThread> threads = new ArrayList<MongoLoaderThread>();
-		for( int i = 0; i < loaderThreads; i++ )
-		{
-			MongoTransport client = new MongoTransport( host, port );
-			// String dbName, String collectionName, int minKey, int maxKey, int size, MongoTransport client )
-			// Set the timeouts
-			client.setConnectionTimeout( 60000 );
-			client.setSocketIdleTimeout( 60000 );
-			// Explicitly initialize
-			client.initialize();
-			int startKey = (i * keyBlockSize) + 1;
-			int endKey = Math.min( (startKey + keyCount) -1 , (startKey + keyBlockSize) - 1 );//(startKey + keyBlockSize) - 1;
-			System.out.println( "Start key: " + startKey + " end key: " + endKey );
-			MongoLoaderThread thread = new MongoLoaderThread( dbName, dbCollection, startKey, endKey, size, client );
-			threads.add( thread );
-		}
+		BulkLoader loader = new BulkLoader( minKey, maxKey, size );
+		loader.setOptions( args, 7 );
 		
 		MongoTransport mongoClient = new MongoTransport( host, port );
 		// Set the timeouts
@@ -105,30 +91,36 @@ public class MongoUtil
 		// Explicitly initialize
 		mongoClient.initialize();
 		int indexField = 1; // create an index on the "first" field of the preloaded key-value pairs i.e., our integer keys
-		System.out.println( "Dropping index on collection: " + dbCollection + " index field: " + indexField );
-		mongoClient.dropIndex( dbName, dbCollection, indexField );
-		// Drop the database first (if it exists)
-		System.out.println( "Dropping collection: " + dbCollection );
-		mongoClient.dropCollection( dbName, dbCollection );
-		System.out.println( "Loading: " + ((maxKey - minKey)+1) + " keys with " + size + " byte(s) values each." );
-		long start = System.currentTimeMillis();
-		// Start all the loader threads
-		for( MongoLoaderThread thread : threads )
-			thread.start();
-		
-		// Wait on them to finish
-		for( MongoLoaderThread thread : threads )
-			thread.join();
-		
-		//MongoUtil.loadDbCollection( mongoClient, dbName, dbCollection, minKey, maxKey, size );
-		long end = System.currentTimeMillis();
-		double durationSecs = (end-start)/1000.0; 
-		double avgResponseTimeSecs = durationSecs/keyCount;
+		// A resumed load keeps the collection it already started filling
+		if( loader.getCheckpointFile() == null || !loader.getCheckpointFile().exists() )
+		{
+			System.out.println( "Dropping index on collection: " + dbCollection + " index field: " + indexField );
+			mongoClient.dropIndex( dbName, dbCollection, indexField );
+			// Drop the database first (if it exists)
+			System.out.println( "Dropping collection: " + dbCollection );
+			mongoClient.dropCollection( dbName, dbCollection );
+		}
 		
-		System.out.println( "Load finished: " + (end-start)/1000.0 + " seconds" );
-		System.out.println( "Rate [" + size + "]    : " +  keyCount/durationSecs + " puts/sec" );
-		NumberFormat formatter = new DecimalFormat( "#0.0000" );
-		System.out.println( "Avg resp time [" + size + "]: " +  formatter.format( avgResponseTimeSecs ) + "secs" );
+		final String mongoHost = host;
+		final int mongoPort = port;
+		final String mongoDbName = dbName;
+		final String mongoCollection = dbCollection;
+		// SAFE unless asked otherwise: an unacknowledged load can't tell which batches to retry
+		final WriteConcern writeConcern = ( args.length > 11 ) ? MongoTransport.parseWriteConcern( args[11] ) : WriteConcern.SAFE;
+		loader.load( new IBulkLoadSinkFactory()
+		{
+			public IBulkLoadSink createSink( int workerId ) throws Exception
+			{
+				MongoTransport client = new MongoTransport( mongoHost, mongoPort );
+				// Set the timeouts
+				client.setConnectionTimeout( 60000 );
+				client.setSocketIdleTimeout( 60000 );
+				// Explicitly initialize
+				client.initialize();
+				client.setWriteConcern( writeConcern );
+				return new MongoBulkLoadSink( client, mongoDbName, mongoCollection );
+			}
+		} );
 		
 		//System.out.println( "Creating index on collection: " + dbCollection + " index field: " + indexField );
 		// Create the index
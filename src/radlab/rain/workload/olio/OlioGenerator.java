@@ -326,7 +326,7 @@ public class OlioGenerator extends Generator
 	public static final String ADD_EVENT_OP_NAME     = "AddEvent";
 
 
-	private static Random _rng; ///< The Random Number Generator
+	private Random _rng; ///< The Random Number Generator (one stream per user)
 	private static OlioConfiguration _conf; ///< The Olio-related configuration found in JSON profile file
 	private HttpTransport _http;
 	private Logger _logger;
@@ -375,9 +375,9 @@ public class OlioGenerator extends Generator
 	 * 
 	 * @return A Random object.
 	 */
-	public static Random getRandomGenerator()
+	public Random getRandomGenerator()
 	{
-		//NOTE: this method is not "synchronized" since java.util.Random is threadsafe.
+		//NOTE: each user has its own stream, so this is only meant to be used from this user's thread.
 		return _rng;
 	}
 
@@ -386,7 +386,7 @@ public class OlioGenerator extends Generator
 	 * 
 	 * @param value A Random object.
 	 */
-	protected static synchronized void setRandomGenerator(Random value)
+	protected void setRandomGenerator(Random value)
 	{
 		_rng = value;
 	}
@@ -423,21 +423,16 @@ public class OlioGenerator extends Generator
 	}
 
 	/**
-	 * Initialize the shared random number generator.
+	 * Initialize this user's random number generator; a non-negative seed in
+	 * the configuration overrides the scenario's master seed.
 	 */
-	private static synchronized void initializeRandomGenerator()
+	private void initializeRandomGenerator()
 	{
-		if (_rng == null)
+		if (getConfiguration().getRngSeed() >= 0)
 		{
-			if (getConfiguration().getRngSeed() >= 0)
-			{
-				_rng = new Random(getConfiguration().getRngSeed());
-			}
-			else
-			{
-				_rng = new Random();
-			}
+			this.setRandomSeed(getConfiguration().getRngSeed());
 		}
+		this._rng = this.getRandom();
 	}
 
 	/**
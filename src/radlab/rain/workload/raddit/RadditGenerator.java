@@ -92,7 +92,7 @@ public class RadditGenerator extends Generator
 	 */
 	public void initialize()
 	{
-		this._randomNumberGenerator = new java.util.Random();
+		this._randomNumberGenerator = this.getRandom();
 		this._http = new HttpTransport();
 	}
 	
@@ -0,0 +1,220 @@
+package radlab.rain.workload.redis;
+
+import java.util.Random;
+
+import radlab.rain.IScoreboard;
+import radlab.rain.OperationExecution;
+import radlab.rain.util.storage.PayloadSlab;
+
+/**
+ * Sends several logical GET/SET/DEL operations to Redis together, either
+ * pipelined or as multi-key MGET/MSET/DEL commands. The batch itself is
+ * never reported; each operation in it is dropped off at the scoreboard on
+ * its own, with its own outcome and the batch's round trip as its response
+ * time, so the per-operation stats stay comparable with unbatched runs.
+ */
+public class RedisBatchOperation extends RedisOperation
+{
+	public static final String NAME = "Batch";
+
+	public static final int PIPELINE	= 1;
+	public static final int MULTI_KEY	= 2;
+
+	private int _batchMode				= PIPELINE;
+	private RedisOperation[] _operations	= null;
+	private int[] _ops					= null;
+	private byte[][] _keys				= null;
+	private byte[][] _values			= null;
+	private Object[] _results			= null;
+	private int _count					= 0;
+
+	public RedisBatchOperation( boolean interactive, IScoreboard scoreboard, int batchMode, int capacity )
+	{
+		super( interactive, scoreboard );
+		this._operationName = NAME;
+		this._operationIndex = RedisGenerator.BATCH;
+		this._batchMode = batchMode;
+		this._operations = new RedisOperation[capacity];
+		this._ops = new int[capacity];
+		this._keys = new byte[capacity][];
+		this._values = new byte[capacity][];
+		this._results = new Object[capacity];
+	}
+
+	public int getBatchMode() { return this._batchMode; }
+	public int size() { return this._count; }
+	public RedisOperation getOperation( int i ) { return this._operations[i]; }
+
+	public void add( RedisOperation operation )
+	{
+		this._operations[this._count] = operation;
+		this._ops[this._count] = operation.getOperationIndex();
+		this._keys[this._count] = operation._key;
+		this._values[this._count] = operation._value;
+		this._count++;
+	}
+
+	@Override
+	public void execute() throws Throwable
+	{
+		if( this._batchMode == MULTI_KEY )
+			this._redis.multiKey( this._ops, this._keys, this._values, this._results, this._count );
+		else this._redis.pipeline( this._ops, this._keys, this._values, this._results, this._count );
+
+		this.setFailed( false );
+		for( int i = 0; i < this._count; i++ )
+		{
+			RedisOperation operation = this._operations[i];
+			Object result = this._results[i];
+			if( result instanceof Throwable )
+			{
+				operation.setFailed( true );
+				operation.setFailureReason( (Throwable) result );
+				this.setFailed( true );
+			}
+			else if( this._ops[i] == RedisGenerator.GET )
+				operation.setFailed( result == null ); // Same as a single GET: a miss counts as a failure
+			else if( this._ops[i] == RedisGenerator.SET )
+				operation.setFailed( !"OK".equalsIgnoreCase( String.valueOf( result ) ) );
+			else operation.setFailed( false );
+		}
+	}
+
+	@Override
+	public void run()
+	{
+		this.preExecute();
+		this.setTimeStarted( System.currentTimeMillis() );
+		long startNanos = System.nanoTime();
+		try
+		{
+			this.execute();
+		}
+		catch( Throwable e )
+		{
+			this.setFailed( true );
+			this.setFailureReason( e );
+			for( int i = 0; i < this._count; i++ )
+			{
+				this._operations[i].setFailed( true );
+				this._operations[i].setFailureReason( e );
+			}
+		}
+		finally
+		{
+			long endNanos = System.nanoTime();
+			this.setTimeFinished( System.currentTimeMillis() );
+			this.postExecute();
+
+			// Every operation in the batch waited for the whole round trip
+			for( int i = 0; i < this._count; i++ )
+			{
+				RedisOperation operation = this._operations[i];
+				operation.setGeneratedBy( this.getGeneratedBy() );
+				operation.setGeneratorThreadID( this.getGeneratorThreadID() );
+				operation.setAsync( this.getAsync() );
+				operation.setTimeQueued( this.getTimeQueued() );
+				operation.setTimeStarted( this.getTimeStarted() );
+				operation.setTimeFinished( this.getTimeFinished() );
+
+				if( this._scoreboard != null )
+				{
+					OperationExecution result = new OperationExecution( operation );
+					result.setExecutionTimeNanos( endNanos - startNanos );
+					this._scoreboard.dropOff( result );
+				}
+			}
+			// The scoreboard owns the operations now (it returns them to the pool)
+			if( this._scoreboard != null )
+				this.cleanup();
+		}
+	}
+
+	@Override
+	public void cleanup()
+	{
+		super.cleanup();
+		for( int i = 0; i < this._count; i++ )
+		{
+			this._operations[i] = null;
+			this._keys[i] = null;
+			this._values[i] = null;
+			this._results[i] = null;
+		}
+		this._count = 0;
+	}
+
+	/**
+	 * Compares one-at-a-time, pipelined and multi-key throughput for a
+	 * 90/10 GET/SET mix. Without a host it starts a RedisStandInServer,
+	 * which measures the client side and round trips, not Redis.
+	 *
+	 * Usage: RedisBatchOperation [<pipeline depth> [<operations> [<host> <port>]]]
+	 */
+	public static void main( String[] args ) throws Exception
+	{
+		int depth = ( args.length > 0 ) ? Integer.parseInt( args[0] ) : RedisGenerator.DEFAULT_PIPELINE_DEPTH;
+		int operations = ( args.length > 1 ) ? Integer.parseInt( args[1] ) : 200000;
+		RedisStandInServer server = null;
+		String host = "127.0.0.1";
+		int port = 0;
+		if( args.length > 3 )
+		{
+			host = args[2];
+			port = Integer.parseInt( args[3] );
+		}
+		else
+		{
+			server = new RedisStandInServer( host, 0 );
+			server.start();
+			port = server.getPort();
+		}
+		
+		RedisTransport redis = new RedisTransport( host, port );
+		Random random = new Random( 1 );
+		int[] ops = new int[depth];
+		byte[][] keys = new byte[depth][];
+		byte[][] values = new byte[depth][];
+		Object[] results = new Object[depth];
+		byte[] value = PayloadSlab.getSharedSlab().nextValue( random, 1024 );
+		
+		String[] modes = { "none", "pipeline", "multi" };
+		for( int round = 0; round < 2; round++ ) // The first round warms up
+		{
+			for( String mode : modes )
+			{
+				long start = System.nanoTime();
+				for( int done = 0; done < operations; done += depth )
+				{
+					for( int i = 0; i < depth; i++ )
+					{
+						ops[i] = ( random.nextInt( 10 ) == 0 ) ? RedisGenerator.SET : RedisGenerator.GET;
+						keys[i] = RedisUtil.KEY_ENCODER.toBytes( random.nextInt( 100000 ) );
+						values[i] = value;
+					}
+					
+					if( mode.equals( "pipeline" ) )
+						redis.pipeline( ops, keys, values, results, depth );
+					else if( mode.equals( "multi" ) )
+						redis.multiKey( ops, keys, values, results, depth );
+					else
+					{
+						for( int i = 0; i < depth; i++ )
+						{
+							if( ops[i] == RedisGenerator.SET )
+								redis.set( keys[i], values[i] );
+							else redis.get( keys[i] );
+						}
+					}
+				}
+				double seconds = ( System.nanoTime() - start ) / 1e9;
+				if( round > 0 )
+					System.out.println( String.format( "[REDIS BATCH] %-8s depth %4d: %10.0f ops/s", mode, depth, operations / seconds ) );
+			}
+		}
+		
+		redis.close();
+		if( server != null )
+			server.stop();
+	}
+}
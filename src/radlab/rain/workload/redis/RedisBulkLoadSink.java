@@ -0,0 +1,35 @@
+package radlab.rain.workload.redis;
+
+import radlab.rain.util.storage.IBulkLoadSink;
+
+/**
+ * Loads batches into Redis as one pipelined round trip of SETs per batch.
+ */
+public class RedisBulkLoadSink implements IBulkLoadSink 
+{
+	private RedisTransport _redis = null;
+	private byte[][] _keys = new byte[0][];
+	
+	public RedisBulkLoadSink( RedisTransport redis )
+	{
+		this._redis = redis;
+	}
+	
+	public void writeBatch( long[] keys, byte[][] values, int count ) throws Exception
+	{
+		// The pipeline is synced before we return, so each key array is only needed until then
+		if( this._keys.length < count )
+			this._keys = new byte[keys.length][];
+		for( int i = 0; i < count; i++ )
+			this._keys[i] = RedisUtil.KEY_ENCODER.toBytes( keys[i] );
+		
+		int failures = this._redis.setMany( this._keys, values, count );
+		if( failures > 0 )
+			throw new Exception( failures + " of " + count + " SETs failed" );
+	}
+	
+	public void close() throws Exception
+	{
+		this._redis.close();
+	}
+}
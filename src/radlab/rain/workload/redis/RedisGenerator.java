@@ -1,5 +1,8 @@
 package radlab.rain.workload.redis;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Random;
@@ -8,6 +11,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import radlab.rain.Generator;
+import radlab.rain.IReplayableGenerator;
 import radlab.rain.LoadProfile;
 import radlab.rain.ObjectPool;
 import radlab.rain.Operation;
@@ -15,26 +19,38 @@ import radlab.rain.ScenarioTrack;
 import radlab.rain.util.Histogram;
 import radlab.rain.util.NegativeExponential;
 import radlab.rain.util.storage.KeyGenerator;
+import radlab.rain.util.storage.PayloadSlab;
 
-public class RedisGenerator extends Generator 
+public class RedisGenerator extends Generator implements IReplayableGenerator
 {
 	public static final String CFG_USE_POOLING_KEY 			= "usePooling";
 	public static final String CFG_DEBUG_KEY		 		= "debug";
 	public static final String CFG_RNG_SEED_KEY	 			= "rngSeed";
+	public static final String CFG_BATCH_MODE_KEY			= "batchMode";
+	public static final String CFG_PIPELINE_DEPTH_KEY		= "pipelineDepth";
 	
 	public static int DEFAULT_OBJECT_SIZE		= 4096;
+	public static int DEFAULT_PIPELINE_DEPTH	= 10;
 	
 	// Main operations GET/SET
 	public static final int GET 			= RedisLoadProfile.GET; // Read
 	public static final int SET 			= RedisLoadProfile.SET; // Write
 	public static final int DEL 			= RedisLoadProfile.DEL; // Delete
+	// Several of the above sent together, see RedisBatchOperation. Also the
+	// record code for a batch, so it must never be a valid op index.
+	public static final int BATCH 			= 0x7F;
 	
-	@SuppressWarnings("unused")
-	private RedisRequest<String> _lastRequest 	= null;
+	private RedisRequest<byte[]> _lastRequest 	= null;
+	private int _batchMode						= 0; // 0 = no batching, else RedisBatchOperation.PIPELINE or MULTI_KEY
+	private int _pipelineDepth					= DEFAULT_PIPELINE_DEPTH;
+	private RedisRequest<byte[]>[] _lastBatch	= null;
+	private int _lastBatchSize					= 0;
 	private RedisTransport _redis 				= null;
 	private boolean _usePooling					= true;
 	private boolean _debug 						= false;
-	private static Random _random				= null; ///< The Random Number Generator
+	private PayloadSlab _payloads					= null;
+	private boolean _sharedPayloads				= false;
+	private Random _random				= null; ///< The Random Number Generator
 	// Debug key popularity
 	Histogram<String> _keyHist					= new Histogram<String>();
 	// Debug hot object popularity
@@ -49,9 +65,9 @@ public class RedisGenerator extends Generator
 	 * 
 	 * @return A Random object.
 	 */
-	public static Random getRandomGenerator()
+	public Random getRandomGenerator()
 	{
-		//NOTE: this method is not "synchronized" since java.util.Random is threadsafe.
+		//NOTE: each user has its own stream, so this is only meant to be used from this user's thread.
 		return _random;
 	}
 
@@ -60,27 +76,22 @@ public class RedisGenerator extends Generator
 	 * 
 	 * @param value A Random object.
 	 */
-	protected static synchronized void setRandomGenerator(Random value)
+	protected void setRandomGenerator(Random value)
 	{
 		_random = value;
 	}
 
 	/**
-	 * Initialize the shared random number generator.
+	 * Initialize this user's random number generator; a non-negative seed
+	 * overrides the scenario's master seed.
 	 */
-	private static synchronized void initizializeRandomGenerator(long seed)
+	private void initizializeRandomGenerator(long seed)
 	{
-		if (_random == null)
+		if (seed >= 0)
 		{
-			if (seed >= 0)
-			{
-				_random = new Random(seed);
-			}
-			else
-			{
-				_random = new Random();
-			}
+			this.setRandomSeed(seed);
 		}
+		_random = this.getRandom();
 	}
 
 	public RedisGenerator(ScenarioTrack track) 
@@ -158,6 +169,31 @@ public class RedisGenerator extends Generator
 
 	public void setUsePooling( boolean value ) { this._usePooling = value; }
 	public boolean getUsePooling() { return this._usePooling; }
+	
+	public int getBatchMode() { return this._batchMode; }
+	public int getPipelineDepth() { return this._pipelineDepth; }
+	
+	/**
+	 * Sets how operations are sent: one at a time ("none"), or grouped
+	 * pipelineDepth at a time and either pipelined ("pipeline") or folded
+	 * into multi-key commands ("multi").
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void setBatchMode( String mode, int pipelineDepth )
+	{
+		if( mode.equalsIgnoreCase( "none" ) )
+			this._batchMode = 0;
+		else if( mode.equalsIgnoreCase( "pipeline" ) )
+			this._batchMode = RedisBatchOperation.PIPELINE;
+		else if( mode.equalsIgnoreCase( "multi" ) )
+			this._batchMode = RedisBatchOperation.MULTI_KEY;
+		else throw new IllegalArgumentException( "Unknown batch mode: " + mode + " (expected none, pipeline or multi)" );
+		
+		if( pipelineDepth < 1 )
+			throw new IllegalArgumentException( "Pipeline depth must be at least 1: " + pipelineDepth );
+		this._pipelineDepth = pipelineDepth;
+		this._lastBatch = new RedisRequest[pipelineDepth];
+	}
 		
 	@Override
 	public void configure( JSONObject config ) throws JSONException
@@ -168,6 +204,14 @@ public class RedisGenerator extends Generator
 		if( config.has( CFG_DEBUG_KEY) )
 			this._debug = config.getBoolean( CFG_DEBUG_KEY );
 		
+		// Values are cut from a shared, pre-generated slab
+		this._payloads = PayloadSlab.getSharedSlab( config );
+		if( config.has( PayloadSlab.CFG_SHARED_PAYLOADS_KEY ) )
+			this._sharedPayloads = config.getBoolean( PayloadSlab.CFG_SHARED_PAYLOADS_KEY );
+		
+		if( config.has( CFG_BATCH_MODE_KEY ) )
+			this.setBatchMode( config.getString( CFG_BATCH_MODE_KEY ), config.optInt( CFG_PIPELINE_DEPTH_KEY, DEFAULT_PIPELINE_DEPTH ) );
+		
 		// Look for a random number seed
 		if( config.has( CFG_RNG_SEED_KEY ) )
 			this.initizializeRandomGenerator( config.getLong( CFG_RNG_SEED_KEY ) );
@@ -182,10 +226,27 @@ public class RedisGenerator extends Generator
 	{
 		LoadProfile currentLoad = this.getTrack().getCurrentLoadProfile();
 		this._latestLoadProfile = currentLoad;
-		int key = -1;
 		
 		RedisLoadProfile redisProfile = (RedisLoadProfile) this._latestLoadProfile;
 		
+		if( this._batchMode == 0 )
+		{
+			// Update the last request
+			this._lastRequest = this.nextRedisRequest( redisProfile );
+			this._lastBatchSize = 0;
+			return this.getRedisOperation( this._lastRequest );
+		}
+		
+		for( int i = 0; i < this._pipelineDepth; i++ )
+			this._lastBatch[i] = this.nextRedisRequest( redisProfile );
+		this._lastBatchSize = this._pipelineDepth;
+		return this.createBatchOperation( this._lastBatch, this._lastBatchSize );
+	}
+	
+	private RedisRequest<byte[]> nextRedisRequest( RedisLoadProfile redisProfile )
+	{
+		int key = -1;
+		
 		// Check whether we're sending traffic to hot objects or not
 		double rndVal = this._random.nextDouble();
 		ArrayList<Integer> hotObjectList = redisProfile.getHotObjectList();
@@ -206,10 +267,10 @@ public class RedisGenerator extends Generator
 		{	
 			// Pick a key using the regular keygen strategy
 			KeyGenerator keyGen = redisProfile.getKeyGenerator();
-			key = keyGen.generateKey();
+			key = keyGen.generateKey( this._random );
 			// Check whether we picked a key that's in the hot set - if we did, try again
 			while( hotObjectSet.contains( key ) ) 
-				key = keyGen.generateKey();
+				key = keyGen.generateKey( this._random );
 			
 			// Make collection of non-hot object stats configurable/optional
 			// Do some stats checking for non-hot objects
@@ -219,10 +280,9 @@ public class RedisGenerator extends Generator
 		// Assume raw keys for now - here's where we could use the raw key to index into some 
 		// other structure to produce the "real" key
 		
-		// All redis requests have string keys
-		RedisRequest<String> nextRequest = new RedisRequest<String>();
-		// Turn the integer key into a string
-		nextRequest.key = String.valueOf( key );
+		// Redis keys are binary-safe, so hand the client the encoded bytes directly
+		RedisRequest<byte[]> nextRequest = new RedisRequest<byte[]>();
+		nextRequest.key = RedisUtil.KEY_ENCODER.toBytes( key );
 		
 		rndVal = this._random.nextDouble();
 		int i = 0;
@@ -234,19 +294,86 @@ public class RedisGenerator extends Generator
 			if( rndVal <= redisProfile._opselect[i] )
 				break;
 		}
+		// Rounding (or a mix that doesn't add up to 1) can leave rndVal past the
+		// end of the selection vector; give it to the last operation with a share
+		if( i == RedisLoadProfile.MAX_OPERATIONS )
+		{
+			i = RedisLoadProfile.MAX_OPERATIONS - 1;
+			while( i > 0 && redisProfile._opselect[i] == redisProfile._opselect[i - 1] )
+				i--;
+		}
 		nextRequest.op = i;
 		
 		// If we're writing then we need to set the size
 		if( nextRequest.op == RedisLoadProfile.SET )
 			// We could also get the size cdf if we want to support size histograms
-			nextRequest.size = redisProfile.getSize();
+			nextRequest.size = redisProfile.nextSize( this._random );
 
-		// Update the last request
-		this._lastRequest = nextRequest;
-		return this.getRedisOperation( nextRequest );
+		return nextRequest;
 	}
 
-	private RedisOperation getRedisOperation( RedisRequest<String> request )
+	/**
+	 * Records the last request's operation, key and value size; values are
+	 * regenerated on replay since only their size matters to the target.
+	 * A batch is recorded as the BATCH op code and a count followed by its
+	 * requests.
+	 */
+	public void writeLastRequest( DataOutput out ) throws IOException
+	{
+		if( this._lastBatchSize == 0 )
+		{
+			writeRequest( out, this._lastRequest );
+			return;
+		}
+		
+		out.writeByte( BATCH );
+		out.writeShort( this._lastBatchSize );
+		for( int i = 0; i < this._lastBatchSize; i++ )
+			writeRequest( out, this._lastBatch[i] );
+	}
+	
+	private static void writeRequest( DataOutput out, RedisRequest<byte[]> request ) throws IOException
+	{
+		out.writeByte( request.op );
+		out.writeShort( request.key.length );
+		out.write( request.key );
+		out.writeInt( request.size );
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public Operation replayRequest( int operationIndex, DataInput in ) throws IOException
+	{
+		this._latestLoadProfile = this.getTrack().getCurrentLoadProfile();
+		
+		int op = in.readByte();
+		if( op != BATCH )
+		{
+			this._lastRequest = readRequest( op, in );
+			this._lastBatchSize = 0;
+			return this.getRedisOperation( this._lastRequest );
+		}
+		
+		// Batches replay as batches, pipelined unless the replaying track asks for multi-key commands
+		int count = in.readShort();
+		if( this._lastBatch == null || this._lastBatch.length < count )
+			this._lastBatch = new RedisRequest[count];
+		for( int i = 0; i < count; i++ )
+			this._lastBatch[i] = readRequest( in.readByte(), in );
+		this._lastBatchSize = count;
+		return this.createBatchOperation( this._lastBatch, count );
+	}
+	
+	private static RedisRequest<byte[]> readRequest( int op, DataInput in ) throws IOException
+	{
+		RedisRequest<byte[]> request = new RedisRequest<byte[]>();
+		request.op = op;
+		request.key = new byte[in.readShort()];
+		in.readFully( request.key );
+		request.size = in.readInt();
+		return request;
+	}
+	
+	private RedisOperation getRedisOperation( RedisRequest<byte[]> request )
 	{
 		if( request.op == GET )
 			return this.createGetOperation( request );
@@ -257,7 +384,22 @@ public class RedisGenerator extends Generator
 		else return null; // We don't support updates/deletes explicitly, if an existing key gets re-written then so be it
 	}
 	
-	public RedisGetOperation createGetOperation( RedisRequest<String> request )
+	public RedisBatchOperation createBatchOperation( RedisRequest<byte[]>[] requests, int count )
+	{
+		int batchMode = ( this._batchMode == 0 ) ? RedisBatchOperation.PIPELINE : this._batchMode;
+		RedisBatchOperation batch = new RedisBatchOperation( this.getTrack().getInteractive(), this.getScoreboard(), batchMode, count );
+		for( int i = 0; i < count; i++ )
+		{
+			RedisOperation op = this.getRedisOperation( requests[i] );
+			if( op != null )
+				batch.add( op );
+		}
+		
+		batch.prepare( this );
+		return batch;
+	}
+	
+	public RedisGetOperation createGetOperation( RedisRequest<byte[]> request )
 	{
 		RedisGetOperation op = null;
 		
@@ -277,7 +419,7 @@ public class RedisGenerator extends Generator
 		return op;
 	}
 		
-	public RedisSetOperation createSetOperation( RedisRequest<String> request )
+	public RedisSetOperation createSetOperation( RedisRequest<byte[]> request )
 	{
 		RedisSetOperation op = null;
 		
@@ -294,16 +436,13 @@ public class RedisGenerator extends Generator
 		// Set the specific fields
 		op._key = request.key;
 		
-		// Check whether a value has been pre-set, if not then fill in random bytes
+		// Check whether a value has been pre-set, if not then take one from the payload slab
 		if( request.value == null )
 		{
-			if( request.size < Integer.MAX_VALUE )
-			{
-				op._value = new byte[request.size];
-			}
-			else op._value = new byte[DEFAULT_OBJECT_SIZE];
-			
-			this._random.nextBytes( op._value );
+			int size = ( request.size < Integer.MAX_VALUE ) ? request.size : DEFAULT_OBJECT_SIZE;
+			if( this._sharedPayloads )
+				op._value = this._payloads.sharedValue( this._random, size );
+			else op._value = this._payloads.nextValue( this._random, size );
 		}
 		else op._value = request.value;
 		
@@ -311,7 +450,7 @@ public class RedisGenerator extends Generator
 		return op;
 	}
 
-	public RedisDelOperation createDelOperation( RedisRequest<String> request )
+	public RedisDelOperation createDelOperation( RedisRequest<byte[]> request )
 	{
 		RedisDelOperation op = null;
 		
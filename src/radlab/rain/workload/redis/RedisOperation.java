@@ -7,7 +7,7 @@ import radlab.rain.Operation;
 
 public abstract class RedisOperation extends Operation 
 {
-	protected String _key = "";
+	protected byte[] _key = null;
 	protected byte[] _value = null;
 	protected RedisTransport _redis = null;
 
@@ -19,7 +19,7 @@ public abstract class RedisOperation extends Operation
 	@Override
 	public void cleanup() 
 	{
-		this._key = "";
+		this._key = null;
 		this._value = null;	
 	}
 
@@ -36,17 +36,17 @@ public abstract class RedisOperation extends Operation
 			this.setGeneratedDuringProfile( currentLoadProfile );
 	}
 	
-	public byte[] doGet( String key )
+	public byte[] doGet( byte[] key )
 	{
 		return this._redis.get( key );
 	}
 	
-	public String doSet( String key, byte[] value )
+	public String doSet( byte[] key, byte[] value )
 	{
 		return this._redis.set( key, value );
 	}
 	
-	public void doDel( String key )
+	public void doDel( byte[] key )
 	{
 		this._redis.del( key );
 	}
@@ -0,0 +1,332 @@
+package radlab.rain.workload.redis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A small in-memory server speaking enough of the Redis protocol (RESP) for
+ * the Redis workload: PING, GET, SET, DEL, EXISTS, MGET, MSET, DBSIZE,
+ * FLUSHALL/FLUSHDB, SELECT, QUIT and the CLUSTER NODES/SLOTS replies of a
+ * one-node cluster owning every slot. Pipelined commands are answered in
+ * order with one flush per burst. It lets the unit tests and the batching
+ * benchmark run without a Redis installation; it is not meant to say
+ * anything about how fast Redis itself is.
+ *
+ * Usage: RedisStandInServer [port] (defaults to 6379)
+ */
+public class RedisStandInServer implements Runnable
+{
+	private static final byte[] CRLF 		= { '\r', '\n' };
+
+	private String _host					= "127.0.0.1";
+	private ServerSocket _serverSocket		= null;
+	private Thread _acceptThread			= null;
+	private volatile boolean _done			= false;
+	// Keys and values are kept as ISO-8859-1 strings, which round-trip any bytes
+	private ConcurrentHashMap<String,byte[]> _data = new ConcurrentHashMap<String,byte[]>();
+	private ArrayList<Socket> _connections	= new ArrayList<Socket>();
+
+	/**
+	 * Listens on the given port (0 picks a free one) of all interfaces,
+	 * advertising host to cluster clients.
+	 */
+	public RedisStandInServer( String host, int port ) throws IOException
+	{
+		this._host = host;
+		this._serverSocket = new ServerSocket( port );
+	}
+
+	public int getPort() { return this._serverSocket.getLocalPort(); }
+	public String getHost() { return this._host; }
+	public int size() { return this._data.size(); }
+
+	public void start()
+	{
+		this._acceptThread = new Thread( this, "RedisStandIn-" + this.getPort() );
+		this._acceptThread.setDaemon( true );
+		this._acceptThread.start();
+	}
+
+	public void stop()
+	{
+		this._done = true;
+		try
+		{
+			this._serverSocket.close();
+			synchronized( this._connections )
+			{
+				for( Socket socket : this._connections )
+					socket.close();
+				this._connections.clear();
+			}
+		}
+		catch( IOException ioe )
+		{
+			// We're shutting down anyway
+		}
+	}
+
+	public void run()
+	{
+		while( !this._done )
+		{
+			try
+			{
+				final Socket socket = this._serverSocket.accept();
+				socket.setTcpNoDelay( true );
+				synchronized( this._connections )
+				{
+					this._connections.add( socket );
+				}
+
+				Thread connection = new Thread( new Runnable()
+				{
+					public void run()
+					{
+						serve( socket );
+					}
+				}, "RedisStandIn-" + this.getPort() + "-" + socket.getPort() );
+				connection.setDaemon( true );
+				connection.start();
+			}
+			catch( IOException ioe )
+			{
+				if( !this._done )
+					System.out.println( "[REDIS STAND-IN] Error accepting connection: " + ioe.toString() );
+			}
+		}
+	}
+
+	private void serve( Socket socket )
+	{
+		try
+		{
+			InputStream in = new BufferedInputStream( socket.getInputStream(), 65536 );
+			OutputStream out = new BufferedOutputStream( socket.getOutputStream(), 65536 );
+			while( true )
+			{
+				byte[][] command = readCommand( in );
+				if( command == null )
+					break;
+
+				boolean quit = this.execute( command, out );
+				// Answer a whole pipelined burst with one write
+				if( quit || in.available() == 0 )
+					out.flush();
+				if( quit )
+					break;
+			}
+		}
+		catch( SocketException se )
+		{
+			// Client went away
+		}
+		catch( IOException ioe )
+		{
+			if( !this._done )
+				System.out.println( "[REDIS STAND-IN] Error serving connection: " + ioe.toString() );
+		}
+		finally
+		{
+			try
+			{
+				socket.close();
+			}
+			catch( IOException ioe )
+			{}
+			synchronized( this._connections )
+			{
+				this._connections.remove( socket );
+			}
+		}
+	}
+
+	// Returns true if the client asked to close the connection
+	private boolean execute( byte[][] command, OutputStream out ) throws IOException
+	{
+		String name = new String( command[0], "ISO-8859-1" ).toUpperCase();
+		int args = command.length - 1;
+
+		if( name.equals( "PING" ) )
+			writeStatus( out, "PONG" );
+		else if( name.equals( "GET" ) && args == 1 )
+			writeBulk( out, this._data.get( key( command[1] ) ) );
+		else if( name.equals( "SET" ) && args >= 2 )
+		{
+			this._data.put( key( command[1] ), command[2] );
+			writeStatus( out, "OK" );
+		}
+		else if( ( name.equals( "DEL" ) || name.equals( "EXISTS" ) ) && args >= 1 )
+		{
+			boolean delete = name.equals( "DEL" );
+			long found = 0;
+			for( int i = 1; i <= args; i++ )
+			{
+				String key = key( command[i] );
+				if( delete ? this._data.remove( key ) != null : this._data.containsKey( key ) )
+					found++;
+			}
+			writeInteger( out, found );
+		}
+		else if( name.equals( "MGET" ) && args >= 1 )
+		{
+			writeArrayHeader( out, args );
+			for( int i = 1; i <= args; i++ )
+				writeBulk( out, this._data.get( key( command[i] ) ) );
+		}
+		else if( name.equals( "MSET" ) && args >= 2 && args % 2 == 0 )
+		{
+			for( int i = 1; i < args; i += 2 )
+				this._data.put( key( command[i] ), command[i + 1] );
+			writeStatus( out, "OK" );
+		}
+		else if( name.equals( "DBSIZE" ) )
+			writeInteger( out, this._data.size() );
+		else if( name.equals( "FLUSHALL" ) || name.equals( "FLUSHDB" ) )
+		{
+			this._data.clear();
+			writeStatus( out, "OK" );
+		}
+		else if( name.equals( "SELECT" ) )
+			writeStatus( out, "OK" );
+		else if( name.equals( "QUIT" ) )
+		{
+			writeStatus( out, "OK" );
+			return true;
+		}
+		else if( name.equals( "CLUSTER" ) && args == 1 )
+		{
+			String subcommand = new String( command[1], "ISO-8859-1" ).toUpperCase();
+			if( subcommand.equals( "NODES" ) )
+			{
+				String node = "0000000000000000000000000000000000000001 " + this._host + ":" + this.getPort() + " myself,master - 0 0 1 connected 0-" + ( RedisTransport.CLUSTER_SLOTS - 1 ) + "\n";
+				writeBulk( out, node.getBytes( "ISO-8859-1" ) );
+			}
+			else if( subcommand.equals( "SLOTS" ) )
+			{
+				writeArrayHeader( out, 1 );
+				writeArrayHeader( out, 3 );
+				writeInteger( out, 0 );
+				writeInteger( out, RedisTransport.CLUSTER_SLOTS - 1 );
+				writeArrayHeader( out, 2 );
+				writeBulk( out, this._host.getBytes( "ISO-8859-1" ) );
+				writeInteger( out, this.getPort() );
+			}
+			else writeError( out, "ERR unknown CLUSTER subcommand '" + subcommand + "'" );
+		}
+		else writeError( out, "ERR unknown command or wrong number of arguments for '" + name + "'" );
+		return false;
+	}
+
+	private static String key( byte[] bytes ) throws IOException
+	{
+		return new String( bytes, "ISO-8859-1" );
+	}
+
+	// Reads one multi-bulk command; returns null at end of stream
+	private static byte[][] readCommand( InputStream in ) throws IOException
+	{
+		int first = in.read();
+		if( first == -1 )
+			return null;
+		if( first != '*' )
+			throw new IOException( "Expected a multi-bulk command, got: " + (char) first );
+
+		byte[][] command = new byte[(int) readNumber( in )][];
+		for( int i = 0; i < command.length; i++ )
+		{
+			if( in.read() != '$' )
+				throw new IOException( "Expected a bulk string" );
+			byte[] arg = new byte[(int) readNumber( in )];
+			int read = 0;
+			while( read < arg.length )
+			{
+				int n = in.read( arg, read, arg.length - read );
+				if( n == -1 )
+					throw new EOFException();
+				read += n;
+			}
+			in.read(); // \r
+			in.read(); // \n
+			command[i] = arg;
+		}
+		return command;
+	}
+
+	// Reads a decimal number terminated by \r\n
+	private static long readNumber( InputStream in ) throws IOException
+	{
+		long value = 0;
+		boolean negative = false;
+		int c;
+		while( ( c = in.read() ) != '\r' )
+		{
+			if( c == -1 )
+				throw new EOFException();
+			if( c == '-' )
+				negative = true;
+			else value = value * 10 + ( c - '0' );
+		}
+		in.read(); // \n
+		return negative ? -value : value;
+	}
+
+	private static void writeStatus( OutputStream out, String status ) throws IOException
+	{
+		out.write( '+' );
+		out.write( status.getBytes( "ISO-8859-1" ) );
+		out.write( CRLF );
+	}
+
+	private static void writeError( OutputStream out, String message ) throws IOException
+	{
+		out.write( '-' );
+		out.write( message.getBytes( "ISO-8859-1" ) );
+		out.write( CRLF );
+	}
+
+	private static void writeInteger( OutputStream out, long value ) throws IOException
+	{
+		out.write( ':' );
+		out.write( Long.toString( value ).getBytes( "ISO-8859-1" ) );
+		out.write( CRLF );
+	}
+
+	private static void writeArrayHeader( OutputStream out, int size ) throws IOException
+	{
+		out.write( '*' );
+		out.write( Integer.toString( size ).getBytes( "ISO-8859-1" ) );
+		out.write( CRLF );
+	}
+
+	private static void writeBulk( OutputStream out, byte[] value ) throws IOException
+	{
+		if( value == null )
+		{
+			out.write( "$-1\r\n".getBytes( "ISO-8859-1" ) );
+			return;
+		}
+		out.write( '$' );
+		out.write( Integer.toString( value.length ).getBytes( "ISO-8859-1" ) );
+		out.write( CRLF );
+		out.write( value );
+		out.write( CRLF );
+	}
+
+	public static void main( String[] args ) throws Exception
+	{
+		int port = ( args.length > 0 ) ? Integer.parseInt( args[0] ) : RedisTransport.DEFAULT_REDIS_PORT;
+		RedisStandInServer server = new RedisStandInServer( "127.0.0.1", port );
+		System.out.println( "[REDIS STAND-IN] Listening on port " + server.getPort() );
+		server.run();
+	}
+}
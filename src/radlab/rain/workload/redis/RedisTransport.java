@@ -1,19 +1,32 @@
 package radlab.rain.workload.redis;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+
 import redis.clients.jedis.HostAndPort;
 import redis.clients.jedis.Jedis;
 // We'll use the pool later, for now just use the non-threadsafe Jedis (no open-loop/partly-open loop workloads)
 //import org.apache.commons.pool.impl.GenericObjectPool.Config;
 import redis.clients.jedis.JedisCluster;
 import redis.clients.jedis.JedisCommands;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.util.JedisClusterCRC16;
 
 public class RedisTransport 
 {
 	public static final int DEFAULT_REDIS_PORT = 6379;
+	public static final int CLUSTER_SLOTS		= 16384;
 
 	private int _timeout					= 10000;
 	private boolean _debug					= false;
@@ -21,6 +34,9 @@ public class RedisTransport
 	
 	private Jedis _redis 					= null;
 	private JedisCluster _redisCluster 		= null;
+	// Slot -> node map used to route batches in cluster mode, filled in lazily from CLUSTER SLOTS
+	private JedisPool[] _slotOwners			= null;
+	private HashMap<String,JedisPool> _nodePools = new HashMap<String,JedisPool>();
 		
 	public RedisTransport( String host, int port )
 	{
@@ -101,25 +117,390 @@ public class RedisTransport
 			value = null;
 			return retVal;
 		}
-		else 
-		{
-			String retVal = this._redis.set( key.getBytes(), value );
-			value = null;
-			return retVal;
-		}
+		else return this.set( key.getBytes(), value );
+	}
+	
+	public String set( byte[] key, byte[] value )
+	{
+		// JedisCluster only speaks String keys, so the binary path is for single-node setups
+		if( this._usingCluster )
+			return this._redisCluster.set( new String(key), new String(value) );
+		else return this._redis.set( key, value );
 	}
 	
 	public byte[] get( String key )
 	{
 		if( this._usingCluster )
-			return this._redisCluster.get( key ).getBytes();
+		{
+			String value = this._redisCluster.get( key );
+			return ( value != null ) ? value.getBytes() : null;
+		}
 		else return this._redis.get( key.getBytes() );
 	}	
 	
+	public byte[] get( byte[] key )
+	{
+		if( this._usingCluster )
+			return this.get( new String(key) );
+		else return this._redis.get( key );
+	}
+	
 	public void del( String key )
 	{
 		if( this._usingCluster )
 			this._redisCluster.del( key );
 		else this._redis.del( key.getBytes() );
 	}	
+	
+	public void del( byte[] key )
+	{
+		if( this._usingCluster )
+			this._redisCluster.del( new String(key) );
+		else this._redis.del( key );
+	}
+	
+	/**
+	 * Writes a batch of keys in one round trip by pipelining the SETs. The
+	 * cluster client can't pipeline across nodes, so there it's one SET at a
+	 * time. Returns the number of writes Redis didn't acknowledge with OK.
+	 */
+	public int setMany( byte[][] keys, byte[][] values, int count )
+	{
+		int failures = 0;
+		if( this._usingCluster )
+		{
+			for( int i = 0; i < count; i++ )
+			{
+				if( !"OK".equalsIgnoreCase( this.set( keys[i], values[i] ) ) )
+					failures++;
+			}
+			return failures;
+		}
+		
+		Pipeline pipeline = this._redis.pipelined();
+		for( int i = 0; i < count; i++ )
+			pipeline.set( keys[i], values[i] );
+		List<Object> responses = pipeline.syncAndReturnAll();
+		for( Object response : responses )
+		{
+			if( !"OK".equalsIgnoreCase( String.valueOf( response ) ) )
+				failures++;
+		}
+		return failures;
+	}
+	
+	/**
+	 * Sends a batch of GET/SET/DEL commands (op codes as in RedisGenerator)
+	 * pipelined, i.e. in one round trip per node. results[i] receives the
+	 * reply to command i: a byte[] (null on a miss) for GET, the status
+	 * string for SET, a Long for DEL, or the exception the command failed
+	 * with.
+	 */
+	public void pipeline( int[] ops, byte[][] keys, byte[][] values, Object[] results, int count )
+	{
+		if( this._usingCluster )
+			this.runOnCluster( false, ops, keys, values, results, count );
+		else this.pipeline( this._redis, ops, keys, values, results, null, 0, count );
+	}
+	
+	/**
+	 * Sends a batch as multi-key commands: all the GETs as one MGET, the SETs
+	 * as one MSET and the DELs as one DEL, pipelined together. Results are
+	 * reported per command as for pipeline(). Multi-key commands must not
+	 * span hash slots, so in cluster mode there is one MGET/MSET/DEL per slot.
+	 */
+	public void multiKey( int[] ops, byte[][] keys, byte[][] values, Object[] results, int count )
+	{
+		if( this._usingCluster )
+			this.runOnCluster( true, ops, keys, values, results, count );
+		else this.multiKey( this._redis, ops, keys, values, results, null, 0, count );
+	}
+	
+	/**
+	 * Returns the cluster hash slot of a key: CRC16 of the key (or of its
+	 * {hash tag}, if it has a non-empty one) mod 16384.
+	 */
+	public static int slot( byte[] key )
+	{
+		for( int start = 0; start < key.length; start++ )
+		{
+			if( key[start] != '{' )
+				continue;
+			
+			for( int end = start + 1; end < key.length; end++ )
+			{
+				if( key[end] == '}' )
+				{
+					if( end > start + 1 )
+						return JedisClusterCRC16.getCRC16( Arrays.copyOfRange( key, start + 1, end ) ) & ( CLUSTER_SLOTS - 1 );
+					break;
+				}
+			}
+			break;
+		}
+		return JedisClusterCRC16.getCRC16( key ) & ( CLUSTER_SLOTS - 1 );
+	}
+	
+	// Commands which[from]..which[from + count - 1] (or from..from + count - 1 if which is null), one pipeline
+	private void pipeline( Jedis jedis, int[] ops, byte[][] keys, byte[][] values, Object[] results, int[] which, int from, int count )
+	{
+		Pipeline pipeline = jedis.pipelined();
+		for( int j = from; j < from + count; j++ )
+		{
+			int i = ( which == null ) ? j : which[j];
+			if( ops[i] == RedisGenerator.GET )
+				pipeline.get( keys[i] );
+			else if( ops[i] == RedisGenerator.SET )
+				pipeline.set( keys[i], values[i] );
+			else pipeline.del( keys[i] );
+		}
+		
+		// Error replies come back in the list as exceptions rather than being thrown
+		List<Object> responses = pipeline.syncAndReturnAll();
+		for( int j = from; j < from + count; j++ )
+			results[( which == null ) ? j : which[j]] = responses.get( j - from );
+	}
+	
+	private void multiKey( Jedis jedis, int[] ops, byte[][] keys, byte[][] values, Object[] results, int[] which, int from, int count )
+	{
+		int gets = 0;
+		int sets = 0;
+		int dels = 0;
+		for( int j = from; j < from + count; j++ )
+		{
+			int op = ops[( which == null ) ? j : which[j]];
+			if( op == RedisGenerator.GET )
+				gets++;
+			else if( op == RedisGenerator.SET )
+				sets++;
+			else dels++;
+		}
+		
+		byte[][] getKeys = new byte[gets][];
+		byte[][] setArgs = new byte[2 * sets][];
+		byte[][] delKeys = new byte[dels][];
+		gets = sets = dels = 0;
+		for( int j = from; j < from + count; j++ )
+		{
+			int i = ( which == null ) ? j : which[j];
+			if( ops[i] == RedisGenerator.GET )
+				getKeys[gets++] = keys[i];
+			else if( ops[i] == RedisGenerator.SET )
+			{
+				setArgs[sets++] = keys[i];
+				setArgs[sets++] = values[i];
+			}
+			else delKeys[dels++] = keys[i];
+		}
+		
+		Pipeline pipeline = jedis.pipelined();
+		Response<List<byte[]>> getResponse = ( gets > 0 ) ? pipeline.mget( getKeys ) : null;
+		Response<String> setResponse = ( sets > 0 ) ? pipeline.mset( setArgs ) : null;
+		Response<Long> delResponse = ( dels > 0 ) ? pipeline.del( delKeys ) : null;
+		pipeline.sync();
+		
+		// MSET and DEL reply once for all their keys, so every key shares that reply
+		Object getReply = reply( getResponse );
+		Object setReply = reply( setResponse );
+		Object delReply = reply( delResponse );
+		gets = 0;
+		for( int j = from; j < from + count; j++ )
+		{
+			int i = ( which == null ) ? j : which[j];
+			if( ops[i] == RedisGenerator.GET )
+			{
+				if( getReply instanceof List<?> )
+					results[i] = ( (List<?>) getReply ).get( gets++ );
+				else results[i] = getReply;
+			}
+			else if( ops[i] == RedisGenerator.SET )
+				results[i] = setReply;
+			else results[i] = delReply;
+		}
+	}
+	
+	private static Object reply( Response<?> response )
+	{
+		if( response == null )
+			return null;
+		
+		try
+		{
+			return response.get();
+		}
+		catch( JedisException e )
+		{
+			return e;
+		}
+	}
+	
+	/**
+	 * Routes a batch across the cluster: pipelines are grouped by the node
+	 * owning each key's slot, multi-key commands by slot. Commands that come
+	 * back redirected (the slot map moved under us) are retried one at a
+	 * time through JedisCluster, which follows redirections, and the slot map
+	 * is reloaded before the next batch.
+	 */
+	private void runOnCluster( boolean multiKey, int[] ops, byte[][] keys, byte[][] values, Object[] results, int count )
+	{
+		JedisPool[] owners = this.getSlotOwners();
+		
+		// Bucket the commands by group, keeping their order within a group
+		HashMap<Object,Integer> groupIds = new HashMap<Object,Integer>();
+		ArrayList<JedisPool> groupPools = new ArrayList<JedisPool>();
+		int[] groupOf = new int[count];
+		for( int i = 0; i < count; i++ )
+		{
+			int slot = slot( keys[i] );
+			Object group = multiKey ? Integer.valueOf( slot ) : owners[slot];
+			Integer id = groupIds.get( group );
+			if( id == null )
+			{
+				id = groupPools.size();
+				groupIds.put( group, id );
+				groupPools.add( owners[slot] );
+			}
+			groupOf[i] = id;
+		}
+		
+		int groups = groupPools.size();
+		int[] start = new int[groups + 1];
+		for( int i = 0; i < count; i++ )
+			start[groupOf[i] + 1]++;
+		for( int g = 0; g < groups; g++ )
+			start[g + 1] += start[g];
+		int[] fill = Arrays.copyOf( start, groups );
+		int[] which = new int[count];
+		for( int i = 0; i < count; i++ )
+			which[fill[groupOf[i]]++] = i;
+		
+		for( int g = 0; g < groups; g++ )
+		{
+			JedisPool pool = groupPools.get( g );
+			int from = start[g];
+			int size = start[g + 1] - from;
+			if( pool == null )
+			{
+				// No owner known for this slot, let the cluster client find it
+				this.runOneAtATime( ops, keys, values, results, which, from, size );
+				continue;
+			}
+			
+			Jedis jedis = null;
+			try
+			{
+				jedis = pool.getResource();
+				if( multiKey )
+					this.multiKey( jedis, ops, keys, values, results, which, from, size );
+				else this.pipeline( jedis, ops, keys, values, results, which, from, size );
+			}
+			catch( JedisException e )
+			{
+				for( int j = from; j < from + size; j++ )
+					results[which[j]] = e;
+			}
+			finally
+			{
+				if( jedis != null )
+					jedis.close();
+			}
+		}
+		
+		boolean redirected = false;
+		for( int i = 0; i < count; i++ )
+		{
+			if( results[i] instanceof JedisRedirectionException )
+			{
+				redirected = true;
+				this.runOneAtATime( ops, keys, values, results, null, i, 1 );
+			}
+		}
+		if( redirected )
+			this._slotOwners = null;
+	}
+	
+	private void runOneAtATime( int[] ops, byte[][] keys, byte[][] values, Object[] results, int[] which, int from, int count )
+	{
+		for( int j = from; j < from + count; j++ )
+		{
+			int i = ( which == null ) ? j : which[j];
+			try
+			{
+				if( ops[i] == RedisGenerator.GET )
+					results[i] = this.get( keys[i] );
+				else if( ops[i] == RedisGenerator.SET )
+					results[i] = this.set( keys[i], values[i] );
+				else results[i] = this._redisCluster.del( new String( keys[i] ) );
+			}
+			catch( JedisException e )
+			{
+				results[i] = e;
+			}
+		}
+	}
+	
+	// Loads the slot -> node map from the first node that answers CLUSTER SLOTS
+	private JedisPool[] getSlotOwners()
+	{
+		if( this._slotOwners != null )
+			return this._slotOwners;
+		
+		JedisPool[] owners = new JedisPool[CLUSTER_SLOTS];
+		Map<String,JedisPool> clusterNodes = this._redisCluster.getClusterNodes();
+		for( JedisPool node : clusterNodes.values() )
+		{
+			Jedis jedis = null;
+			List<Object> slots = null;
+			try
+			{
+				jedis = node.getResource();
+				slots = jedis.clusterSlots();
+			}
+			catch( JedisException e )
+			{
+				continue;
+			}
+			finally
+			{
+				if( jedis != null )
+					jedis.close();
+			}
+			
+			// Each entry is [first slot, last slot, [master host, master port], replicas...]
+			for( Object entry : slots )
+			{
+				List<?> range = (List<?>) entry;
+				List<?> master = (List<?>) range.get( 2 );
+				String address = new String( (byte[]) master.get( 0 ) ) + ":" + master.get( 1 );
+				JedisPool pool = clusterNodes.get( address );
+				if( pool == null )
+					pool = this._nodePools.get( address );
+				if( pool == null )
+				{
+					pool = new JedisPool( new GenericObjectPoolConfig(), new String( (byte[]) master.get( 0 ) ), ( (Long) master.get( 1 ) ).intValue(), this._timeout );
+					this._nodePools.put( address, pool );
+				}
+				
+				int last = ( (Long) range.get( 1 ) ).intValue();
+				for( int slot = ( (Long) range.get( 0 ) ).intValue(); slot <= last; slot++ )
+					owners[slot] = pool;
+			}
+			
+			// Keep the map; if no node answered, every command falls back to the cluster client and we try again next batch
+			this._slotOwners = owners;
+			break;
+		}
+		return owners;
+	}
+	
+	public void close()
+	{
+		if( this._usingCluster )
+		{
+			for( JedisPool pool : this._nodePools.values() )
+				pool.destroy();
+			this._redisCluster.close();
+		}
+		else this._redis.disconnect();
+	}
 }
@@ -1,24 +1,30 @@
 package radlab.rain.workload.redis;
 
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
-import java.util.ArrayList;
 import java.util.Random;
 
+import radlab.rain.util.storage.BulkLoader;
+import radlab.rain.util.storage.IBulkLoadSink;
+import radlab.rain.util.storage.IBulkLoadSinkFactory;
+import radlab.rain.util.storage.KeyEncoder;
+import radlab.rain.util.storage.PayloadSlab;
+
 public class RedisUtil 
 {
+	// Unpadded, so keys stay identical to String.valueOf()
+	public static KeyEncoder KEY_ENCODER = new KeyEncoder( 0 );
+	
 	public static long loadDbCollection( RedisTransport redisClient, int minKey, int maxKey, int size )
 	{
 		Random random = new Random();
+		PayloadSlab payloads = PayloadSlab.getSharedSlab();
 		int successes = 0;
 		int failures = 0;
 		int count = (maxKey - minKey) + 1;
 		
 		for( int i = 0; i < count; i++ )
 		{
-			String key = String.valueOf( i + minKey );
-			byte[] value = new byte[size];
-			random.nextBytes( value );
+			byte[] key = KEY_ENCODER.toScratchBytes( i + minKey );
+			byte[] value = payloads.nextValue( random, size );
 			
 			String response = redisClient.set( key, value );
 			//System.out.println( "Set response: " + response );
@@ -52,8 +58,8 @@ public class RedisUtil
 		int maxKey = 100000;
 		int size = 1024;//16384;//32768;//16384;//4096;
 		
-		// RiakUtil <host> <port> <min key> <max key>
-		if( args.length == 5 )
+		// RedisUtil <host> <port> <min key> <max key> <size> [<workers> <batch size> <max keys/sec> <checkpoint file>]
+		if( args.length >= 5 && args.length <= 9 )
 		{
 			host = args[0];
 			port = Integer.parseInt( args[1] );
@@ -67,45 +73,24 @@ public class RedisUtil
 		}
 		else
 		{
-			System.out.println( "Usage   : RedisUtil <host> <port> <min key> <max key> <size>" );
+			System.out.println( "Usage   : RedisUtil <host> <port> <min key> <max key> <size> " + BulkLoader.OPTIONS_USAGE );
 			System.out.println( "Example : RedisUtil localhost 6379 1 100000 4096" );
+			System.out.println( "Example : RedisUtil localhost 6379 1 500000000 4096 32 1000 200000 redis.checkpoint" );
 			System.exit( -1 );
 		}
 	
-		// Do data loads in parallel, shoot for using 10 threads
-		int keyCount = (maxKey - minKey) + 1;
-		int keyBlockSize = 10000;
-		int loaderThreads = new Double( Math.ceil( (double) keyCount / (double) keyBlockSize ) ).intValue();
+		BulkLoader loader = new BulkLoader( minKey, maxKey, size );
+		loader.setOptions( args, 5 );
 		
-		ArrayList<RedisLoaderThread> threads = new ArrayList<RedisLoaderThread>();
-		for( int i = 0; i < loaderThreads; i++ )
+		final String redisHost = host;
+		final int redisPort = port;
+		loader.load( new IBulkLoadSinkFactory()
 		{
-			RedisTransport client = new RedisTransport( host, port );
-			int startKey = (i * keyBlockSize) + 1;
-			int endKey = Math.min( (startKey + keyCount) -1 , (startKey + keyBlockSize) - 1 );//(startKey + keyBlockSize) - 1;
-			System.out.println( "Start key: " + startKey + " end key: " + endKey );
-			RedisLoaderThread thread = new RedisLoaderThread( client, startKey, endKey, size );
-			threads.add( thread );
-		}
-		
-		long start = System.currentTimeMillis();
-		// Start all the loader threads
-		for( RedisLoaderThread thread : threads )
-			thread.start();
-		
-		// Wait on them to finish
-		for( RedisLoaderThread thread : threads )
-			thread.join();
-		
-		//MongoUtil.loadDbCollection( mongoClient, dbName, dbCollection, minKey, maxKey, size );
-		long end = System.currentTimeMillis();
-		double durationSecs = (end-start)/1000.0; 
-		double avgResponseTimeSecs = durationSecs/keyCount;
-		
-		System.out.println( "Load finished: " + (end-start)/1000.0 + " seconds" );
-		System.out.println( "Rate [" + size + "]    : " +  keyCount/durationSecs + " puts/sec" );
-		NumberFormat formatter = new DecimalFormat( "#0.0000" );
-		System.out.println( "Avg resp time [" + size + "]: " +  formatter.format( avgResponseTimeSecs ) + "secs" );
+			public IBulkLoadSink createSink( int workerId ) throws Exception
+			{
+				return new RedisBulkLoadSink( new RedisTransport( redisHost, redisPort ) );
+			}
+		} );
 		
 		/*
 		RedisTransport redisClient = new RedisTransport( host, port );
@@ -1,5 +1,8 @@
 package radlab.rain.workload.riak;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Random;
@@ -10,14 +13,16 @@ import org.json.JSONObject;
 import com.basho.riak.client.RiakException;
 
 import radlab.rain.Generator;
+import radlab.rain.IReplayableGenerator;
 import radlab.rain.LoadProfile;
 import radlab.rain.ObjectPool;
 import radlab.rain.Operation;
 import radlab.rain.ScenarioTrack;
 import radlab.rain.util.Histogram;
 import radlab.rain.util.storage.KeyGenerator;
+import radlab.rain.util.storage.PayloadSlab;
 
-public class RiakGenerator extends Generator 
+public class RiakGenerator extends Generator implements IReplayableGenerator
 {
 	public static final String CFG_USE_POOLING_KEY 			= "usePooling";
 	public static final String CFG_DEBUG_KEY		 		= "debug";
@@ -36,11 +41,12 @@ public class RiakGenerator extends Generator
 	public static final int LIST_BUCKET		= RiakLoadProfile.LIST_BUCKET; // Read
 	public static final int FETCH_STREAM 	= RiakLoadProfile.FETCH_STREAM; // Read
 	
-	@SuppressWarnings("unused")
 	private RiakRequest<String> _lastRequest 	= null;
 	private RiakTransport _riak 				= null;
 	private boolean _usePooling					= true;
 	private boolean _debug 						= false;
+	private PayloadSlab _payloads					= null;
+	private boolean _sharedPayloads				= false;
 	private Random _random						= null;
 	// Debug key popularity
 	Histogram<String> _keyHist					= new Histogram<String>();
@@ -105,10 +111,16 @@ public class RiakGenerator extends Generator
 		if( config.has( CFG_DEBUG_KEY) )
 			this._debug = config.getBoolean( CFG_DEBUG_KEY );
 		
+		// Values are cut from a shared, pre-generated slab
+		this._payloads = PayloadSlab.getSharedSlab( config );
+		if( config.has( PayloadSlab.CFG_SHARED_PAYLOADS_KEY ) )
+			this._sharedPayloads = config.getBoolean( PayloadSlab.CFG_SHARED_PAYLOADS_KEY );
+		
 		// Look for a random number seed
+		// Each user gets its own stream; a configured seed replaces the scenario's master seed
 		if( config.has( CFG_RNG_SEED_KEY ) )
-			this._random = new Random( config.getLong( CFG_RNG_SEED_KEY ) );
-		else this._random = new Random();
+			this.setRandomSeed( config.getLong( CFG_RNG_SEED_KEY ) );
+		this._random = this.getRandom();
 		
 		// Get the bucket to use - we can support a list of buckets at some later point
 		if( config.has( CFG_BUCKET_KEY ) )
@@ -151,10 +163,10 @@ public class RiakGenerator extends Generator
 		{	
 			// Pick a key using the regular keygen strategy
 			KeyGenerator keyGen = riakProfile.getKeyGenerator();
-			key = keyGen.generateKey();
+			key = keyGen.generateKey( this._random );
 			// Check whether we picked a key that's in the hot set - if we did, try again
 			while( hotObjectSet.contains( key ) ) 
-				key = keyGen.generateKey();
+				key = keyGen.generateKey( this._random );
 			
 			// Do some stats checking for non-hot objects
 			this._keyHist.addObservation( String.valueOf( key ) );
@@ -183,13 +195,38 @@ public class RiakGenerator extends Generator
 		// If we're writing then we need to set the size
 		if( nextRequest.op == RiakLoadProfile.STORE || nextRequest.op == RiakLoadProfile.UPDATE )
 			// We could also get the size cdf if we want to support size histograms
-			nextRequest.size = riakProfile.getSize();
+			nextRequest.size = riakProfile.nextSize( this._random );
 
 		// Update the last request
 		this._lastRequest = nextRequest;
 		return this.getRiakOperation( nextRequest );
 	}
 	
+	/**
+	 * Records the last request's operation, key and value size; values are
+	 * regenerated on replay since only their size matters to the target.
+	 */
+	public void writeLastRequest( DataOutput out ) throws IOException
+	{
+		RiakRequest<String> request = this._lastRequest;
+		out.writeByte( request.op );
+		out.writeUTF( request.key );
+		out.writeInt( request.size );
+	}
+	
+	public Operation replayRequest( int operationIndex, DataInput in ) throws IOException
+	{
+		this._latestLoadProfile = this.getTrack().getCurrentLoadProfile();
+		
+		RiakRequest<String> request = new RiakRequest<String>();
+		request.op = in.readByte();
+		request.key = in.readUTF();
+		request.size = in.readInt();
+		
+		this._lastRequest = request;
+		return this.getRiakOperation( request );
+	}
+	
 	private RiakOperation getRiakOperation( RiakRequest<String> request )
 	{
 		if( request.op == FETCH )
@@ -235,16 +272,13 @@ public class RiakGenerator extends Generator
 		// Set the specific fields
 		op._key = request.key;
 		
-		// Check whether a value has been pre-set, if not then fill in random bytes
+		// Check whether a value has been pre-set, if not then take one from the payload slab
 		if( request.value == null )
 		{
-			if( request.size < Integer.MAX_VALUE )
-			{
-				op._value = new byte[request.size];
-			}
-			else op._value = new byte[DEFAULT_OBJECT_SIZE];
-			
-			this._random.nextBytes( op._value );
+			int size = ( request.size < Integer.MAX_VALUE ) ? request.size : DEFAULT_OBJECT_SIZE;
+			if( this._sharedPayloads )
+				op._value = this._payloads.sharedValue( this._random, size );
+			else op._value = this._payloads.nextValue( this._random, size );
 		}
 		else op._value = request.value;
 		
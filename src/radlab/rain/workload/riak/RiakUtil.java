@@ -6,19 +6,21 @@ import java.util.Set;
 
 import com.basho.riak.client.IRiakObject;
 
+import radlab.rain.util.storage.PayloadSlab;
+
 public class RiakUtil 
 {
 	public static long loadDbCollection( RiakTransport riakClient, String bucket, int minKey, int maxKey, int size ) throws Exception
 	{
 		Random random = new Random();
+		PayloadSlab payloads = PayloadSlab.getSharedSlab();
 		int count = (maxKey - minKey) + 1;
 		//System.out.println( "Key count: " + count );
 		
 		for( int i = 0; i < count; i++ )
 		{
 			String key = String.valueOf( i + minKey );
-			byte[] value = new byte[size];
-			random.nextBytes( value );
+			byte[] value = payloads.nextValue( random, size );
 			
 			//if( key.equals( "79899" ) )
 			//	System.out.println( "\nVal written: " + new sun.misc.BASE64Encoder().encode( value ) );
@@ -85,8 +85,9 @@ public class RubbosGenerator extends Generator
 	public static final int BACK_SPECIAL_OP = 24; ///< Emulate a click on the "Back" button of the browser
 	public static final int EOS_SPECIAL_OP = 25; ///< Terminate the current user session
 
+	private Random _rng; ///< The Random Number Generator (one stream per user)
+
 	// Static members shared among all instances
-	private static Random _rng; ///< The Random Number Generator
 	private static RubbosConfiguration _conf; ///< The RUBBoS-related configuration found in the JSON profile file
 
 
@@ -131,9 +132,9 @@ public class RubbosGenerator extends Generator
 	 * 
 	 * @return A Random object.
 	 */
-	public static Random getRandomGenerator()
+	public Random getRandomGenerator()
 	{
-		//NOTE: this method is not "synchronized" since java.util.Random is threadsafe.
+		//NOTE: each user has its own stream, so this is only meant to be used from this user's thread.
 		return _rng;
 	}
 
@@ -142,7 +143,7 @@ public class RubbosGenerator extends Generator
 	 * 
 	 * @param value A Random object.
 	 */
-	protected static synchronized void setRandomGenerator(Random value)
+	protected void setRandomGenerator(Random value)
 	{
 		_rng = value;
 	}
@@ -179,21 +180,16 @@ public class RubbosGenerator extends Generator
 	}
 
 	/**
-	 * Initialize the shared random number generator.
+	 * Initialize this user's random number generator; a non-negative seed in
+	 * the configuration overrides the scenario's master seed.
 	 */
-	private static synchronized void initizializeRandomGenerator()
+	private void initizializeRandomGenerator()
 	{
-		if (_rng == null)
+		if (getConfiguration().getRngSeed() >= 0)
 		{
-			if (getConfiguration().getRngSeed() >= 0)
-			{
-				_rng = new Random(getConfiguration().getRngSeed());
-			}
-			else
-			{
-				_rng = new Random();
-			}
+			this.setRandomSeed(getConfiguration().getRngSeed());
 		}
+		this._rng = this.getRandom();
 	}
 
 
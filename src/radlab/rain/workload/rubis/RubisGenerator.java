@@ -96,8 +96,9 @@ public class RubisGenerator extends Generator
 	public static final int BACK_SPECIAL_OP = 27; ///< Emulate a click on the "Back" button of the browser
 	public static final int EOS_SPECIAL_OP = 28; ///< Terminate the current user session
 
+	private Random _rng; ///< The Random Number Generator (one stream per user)
+
 	// Static members shared among all instances
-	private static Random _rng; ///< The Random Number Generator
 	private static RubisConfiguration _conf; ///< The RUBiS-related configuration found in the JSON profile file
 
 
@@ -145,9 +146,9 @@ public class RubisGenerator extends Generator
 	 * 
 	 * @return A Random object.
 	 */
-	public static Random getRandomGenerator()
+	public Random getRandomGenerator()
 	{
-		//NOTE: this method is not "synchronized" since java.util.Random is threadsafe.
+		//NOTE: each user has its own stream, so this is only meant to be used from this user's thread.
 		return _rng;
 	}
 
@@ -156,7 +157,7 @@ public class RubisGenerator extends Generator
 	 * 
 	 * @param value A Random object.
 	 */
-	protected static synchronized void setRandomGenerator(Random value)
+	protected void setRandomGenerator(Random value)
 	{
 		_rng = value;
 	}
@@ -193,21 +194,16 @@ public class RubisGenerator extends Generator
 	}
 
 	/**
-	 * Initialize the shared random number generator.
+	 * Initialize this user's random number generator; a non-negative seed in
+	 * the configuration overrides the scenario's master seed.
 	 */
-	private static synchronized void initizializeRandomGenerator()
+	private void initizializeRandomGenerator()
 	{
-		if (_rng == null)
+		if (getConfiguration().getRngSeed() >= 0)
 		{
-			if (getConfiguration().getRngSeed() >= 0)
-			{
-				_rng = new Random(getConfiguration().getRngSeed());
-			}
-			else
-			{
-				_rng = new Random();
-			}
+			this.setRandomSeed(getConfiguration().getRngSeed());
 		}
+		this._rng = this.getRandom();
 	}
 
 
@@ -48,12 +48,12 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 import org.json.JSONObject;
 import org.json.JSONException;
 import radlab.rain.ScenarioTrack;
+import radlab.rain.util.RandomStreams;
+import radlab.rain.util.XoshiroRandom;
 import radlab.rain.workload.rubis.model.RubisCategory;
 import radlab.rain.workload.rubis.model.RubisComment;
 import radlab.rain.workload.rubis.model.RubisItem;
@@ -87,36 +87,128 @@ final class InitDb
 	private static final String SQL_DELETE_USERS = "DELETE FROM users";
 	private static final String SQL_INSERT_USER = "INSERT INTO users (id,firstname,lastname,nickname,password,email,rating,balance,creation_date,region) VALUES (?,?,?,?,?,?,?,?,?,?)";
 
+	// Tables we insert into, indexed by the *_TABLE constants
+	private static final String[] TABLES = {"regions", "categories", "users", "items", "old_items", "bids", "comments"};
+	private static final int REGIONS_TABLE = 0;
+	private static final int CATEGORIES_TABLE = 1;
+	private static final int USERS_TABLE = 2;
+	private static final int ITEMS_TABLE = 3;
+	private static final int OLD_ITEMS_TABLE = 4;
+	private static final int BIDS_TABLE = 5;
+	private static final int COMMENTS_TABLE = 6;
+
+	private static final int REGIONS_PHASE = 0;
+	private static final int CATEGORIES_PHASE = 1;
+	private static final int USERS_PHASE = 2;
+	private static final int ITEMS_PHASE = 3;
+	private static final int BIDS_PHASE = 4;
+	private static final int COMMENTS_PHASE = 5;
+
 
 	private RubisConfiguration _conf;
-	private RubisUtility _util;
+	private long _seed;
 	private Connection _dbConn;
+	private String _dbUrl;
+	private String _dbUser;
+	private String _dbPassword;
 	private PrintWriter _pwr;
-	private List<RubisItem> _items;
+	private RubisItem[] _items; ///< Items by id, kept from the items phase for the bids and comments ones
+	private AtomicLong[] _rowCounts; ///< Rows inserted so far, by table
 	private boolean _verboseFlag;
 	private boolean _testFlag;
 	private boolean _transFlag;
+	private int _numConns;
+	private int _batchSize;
+	private int _commitSize;
 
 
 	public InitDb(RubisConfiguration conf, Connection dbConn)
 	{
 		this._conf = conf;
-		Random rand = null;
-		if (conf.getRngSeed() <= 0)
-		{
-			rand = new Random(conf.getRngSeed());
-		}
-		else
-		{
-			rand = new Random();
-		}
-		this._util = new RubisUtility(rand, conf);
+		// Without a seed of its own the load is only repeatable if the master seed is
+		this._seed = (conf.getRngSeed() > 0) ? conf.getRngSeed() : RandomStreams.getMasterSeed();
 		this._dbConn = dbConn;
+		this._dbUrl = null;
+		this._dbUser = null;
+		this._dbPassword = null;
 		this._verboseFlag = false;
 		this._testFlag = false;
 		this._transFlag = false;
+		this._numConns = 1;
+		this._batchSize = 1;
+		this._commitSize = 0;
 		this._pwr = null;
-		this._items = new ArrayList<RubisItem>();
+		this._items = null;
+		this._rowCounts = new AtomicLong[TABLES.length];
+		for (int i = 0; i < TABLES.length; ++i)
+		{
+			this._rowCounts[i] = new AtomicLong(0);
+		}
+	}
+
+	/**
+	 * Sets how to open the extra connections used when loading over more than
+	 * one connection.
+	 */
+	public void setConnectionParams(String dbUrl, String dbUser, String dbPassword)
+	{
+		this._dbUrl = dbUrl;
+		this._dbUser = dbUser;
+		this._dbPassword = dbPassword;
+	}
+
+	public void setNumOfConnections(int value)
+	{
+		this._numConns = Math.max(1, value);
+	}
+
+	public int getNumOfConnections()
+	{
+		return this._numConns;
+	}
+
+	/**
+	 * Sets the number of rows sent per executeBatch (1 sends every row with
+	 * its own executeUpdate).
+	 */
+	public void setBatchSize(int value)
+	{
+		this._batchSize = Math.max(1, value);
+	}
+
+	public int getBatchSize()
+	{
+		return this._batchSize;
+	}
+
+	/**
+	 * Sets the number of rows per transaction and per connection (0 commits
+	 * each table at once when transactions are enabled).
+	 * A positive value implies the use of transactions.
+	 */
+	public void setCommitSize(int value)
+	{
+		this._commitSize = Math.max(0, value);
+	}
+
+	public int getCommitSize()
+	{
+		return this._commitSize;
+	}
+
+	/**
+	 * Returns the number of rows inserted so far in the given table.
+	 */
+	public long getRowCount(String table)
+	{
+		for (int i = 0; i < TABLES.length; ++i)
+		{
+			if (TABLES[i].equals(table))
+			{
+				return this._rowCounts[i].get();
+			}
+		}
+		return 0;
 	}
 
 	public void setVerboseFlag(boolean value)
@@ -364,842 +456,548 @@ final class InitDb
 		// - REGIONS has no dependencies
 		// - IDS has no dependencies
 
-		this.initializeRegions();
-		this.initializeCategories();
-		this.initializeUsers();
-		this.initializeItems();
-		this.initializeBids();
-		this.initializeComments();
+		this.initializeTable("Regions", REGIONS_PHASE, 1, this._conf.getRegions().size());
+		this.initializeTable("Categories", CATEGORIES_PHASE, 1, this._conf.getCategories().size());
+		this.initializeTable("Users", USERS_PHASE, 1, this._conf.getNumOfPreloadedUsers());
+		this._items = new RubisItem[this.getMaxActiveItemId()-this.getMinItemId()+1];
+		try
+		{
+			this.initializeTable("Items", ITEMS_PHASE, this.getMinItemId(), this.getMaxActiveItemId());
+			// Bids and comments are generated item by item
+			this.initializeTable("Bids", BIDS_PHASE, this.getMinItemId(), this.getMaxActiveItemId());
+			this.initializeTable("Comments", COMMENTS_PHASE, this.getMinItemId(), this.getMaxActiveItemId());
+		}
+		finally
+		{
+			this._items = null;
+		}
 	}
 
-	private void initializeRegions() throws Exception
+	/**
+	 * Generates the rows of the given phase for the ids in [minId, maxId].
+	 *
+	 * The id range is split into contiguous slices, one per connection (up to
+	 * the configured number of connections), each loaded by its own thread.
+	 * With a single connection the rows are loaded in this thread on the
+	 * connection the object was built with.
+	 * Since every row draws from its own random stream (seeded from the RNG
+	 * seed, the table and the row id) the generated data does not depend on
+	 * how the range is split; only the timestamps differ between two loads.
+	 */
+	private void initializeTable(String name, int phase, int minId, int maxId) throws Exception
 	{
-		PreparedStatement prepStmt = null;
-
-		double nextProgress = 0;
-		double stepProgress = 0.1;
+		final int numIds = maxId-minId+1;
+		if (numIds <= 0)
+		{
+			return;
+		}
 
 		if (this._verboseFlag)
 		{
-			System.err.print("[INFO] Initialize Regions: ");
+			System.err.print("[INFO] Initialize " + name + ": ");
 			System.err.flush();
 		}
 
-		try
+		final int numSlices = Math.max(1, Math.min(this._numConns, numIds));
+		long[] rowsBefore = this.getRowCounts();
+		long startNanos = System.nanoTime();
+		if (numSlices == 1)
 		{
-			if (!this._testFlag && this._transFlag)
+			Loader loader = new Loader(this._dbConn, false, true);
+			loader.load(phase, minId, maxId);
+		}
+		else
+		{
+			LoaderThread[] threads = new LoaderThread[numSlices];
+			final int sliceSize = numIds/numSlices;
+			final int remainder = numIds%numSlices;
+			int start = minId;
+			for (int i = 0; i < numSlices; ++i)
 			{
-				this._dbConn.setAutoCommit(false);
-
+				int end = start+sliceSize-1+(i < remainder ? 1 : 0);
+				threads[i] = new LoaderThread(name, i, phase, start, end);
+				start = end+1;
 			}
-
-			// Generate regions
-			final int minId = 1;
-			final int maxId = this._conf.getRegions().size()+minId-1;
-			prepStmt = this._dbConn.prepareStatement(SQL_INSERT_REGION, Statement.RETURN_GENERATED_KEYS);
-			for (int id = minId; id <= maxId; ++id)
+			for (LoaderThread thread : threads)
 			{
-				RubisRegion region = this._util.getRegion(id);
-
-				prepStmt.clearParameters();
-				prepStmt.setInt(1, region.id);
-				prepStmt.setString(2, region.name);
-
-				if (!this._testFlag)
-				{
-					int affectedRows = prepStmt.executeUpdate();
-
-					// Experimental: use batches instead of execute one query at a time
-					//prepStmt.addBatch();
-					//if ((id % 1000) == 0)
-					//{
-					//	prepStmt.executeBatch();
-					//}
-
-					if (affectedRows == 0)
-					{
-						throw new SQLException("During region insertion: No rows affected");
-					}
-
-					ResultSet rs = prepStmt.getGeneratedKeys();
-					if (rs.last())
-					{
-						int genId = rs.getInt(1);
-
-						if (id != genId)
-						{
-							System.err.println("[WARNING] Expected region ID (" + id + ") is different from the one that has been generated (" + genId + ")");
-						}
-					}
-					rs.close();
-				}
-				if (this._pwr != null)
+				thread.start();
+			}
+			Exception error = null;
+			for (LoaderThread thread : threads)
+			{
+				thread.join();
+				if (error == null)
 				{
-					this._pwr.println(prepStmt);
-				}
-
-				if (this._verboseFlag)
-				{
-					double currentProgress = (id-minId)/((double) (maxId-minId));
-					if (currentProgress >= nextProgress)
-					{
-						System.err.print(".");
-						System.err.flush();
-						nextProgress += stepProgress;
-					}
+					error = thread.getError();
 				}
 			}
-
-			if (!this._testFlag && this._transFlag)
+			if (error != null)
 			{
-				this._dbConn.commit();
+				throw error;
 			}
 		}
-		catch (SQLException se)
-		{
-			if (!this._testFlag && this._transFlag)
-			{
-				this._dbConn.rollback();
-			}
+		long elapsedNanos = System.nanoTime()-startNanos;
 
-			throw se;
+		if (this._verboseFlag)
+		{
+			System.err.println();
 		}
-		finally
+
+		// Report the insertion rate of every table this phase has filled
+		long[] rowsAfter = this.getRowCounts();
+		double elapsedSecs = elapsedNanos/1e9;
+		for (int i = 0; i < TABLES.length; ++i)
 		{
-			if (!this._testFlag)
+			long rows = rowsAfter[i]-rowsBefore[i];
+			if (rows > 0)
 			{
-				if (prepStmt != null)
-				{
-					prepStmt.close();
-				}
-
-				if (this._transFlag)
-				{
-					this._dbConn.setAutoCommit(true);
-				}
+				System.err.println("[INFO] Table " + TABLES[i] + ": " + rows + " rows in " + String.format("%.2f", elapsedSecs) + " secs (" + String.format("%.1f", rows/elapsedSecs) + " rows/sec, " + numSlices + " connection(s))");
 			}
 		}
+	}
 
-		if (this._verboseFlag)
+	private long[] getRowCounts()
+	{
+		long[] counts = new long[TABLES.length];
+		for (int i = 0; i < TABLES.length; ++i)
 		{
-			System.err.println();
+			counts[i] = this._rowCounts[i].get();
 		}
+		return counts;
 	}
 
-	private void initializeCategories() throws Exception
+	private Connection openConnection() throws SQLException
 	{
-		PreparedStatement prepStmt = null;
-
-		double nextProgress = 0;
-		double stepProgress = 0.1;
-
-		if (this._verboseFlag)
+		if (this._dbUrl == null)
 		{
-			System.err.print("[INFO] Initialize Categories: ");
-			System.err.flush();
+			throw new SQLException("No database URL to open more connections with");
 		}
-
-		try
+		if (this._dbUser == null || this._dbUser.isEmpty())
 		{
-			if (!this._testFlag && this._transFlag)
-			{
-				this._dbConn.setAutoCommit(false);
-
-			}
-
-			// Generate categories
-			final int minId = 1;
-			final int maxId = this._conf.getCategories().size()+minId-1;
-			prepStmt = this._dbConn.prepareStatement(SQL_INSERT_CATEGORY, Statement.RETURN_GENERATED_KEYS);
-			for (int id = minId; id <= maxId; ++id)
-			{
-				RubisCategory category = this._util.getCategory(id);
-
-				prepStmt.clearParameters();
-				prepStmt.setInt(1, category.id);
-				prepStmt.setString(2, category.name);
-
-				if (!this._testFlag)
-				{
-					int affectedRows = prepStmt.executeUpdate();
-
-					// Experimental: use batches instead of execute one query at a time
-					//prepStmt.addBatch();
-					//if ((id % 1000) == 0)
-					//{
-					//	prepStmt.executeBatch();
-					//}
-
-					if (affectedRows == 0)
-					{
-						throw new SQLException("During category insertion: No rows affected");
-					}
-
-					ResultSet rs = prepStmt.getGeneratedKeys();
-					if (rs.last())
-					{
-						int genId = rs.getInt(1);
+			return DriverManager.getConnection(this._dbUrl);
+		}
+		return DriverManager.getConnection(this._dbUrl, this._dbUser, this._dbPassword);
+	}
 
-						if (id != genId)
-						{
-							System.err.println("[WARNING] Expected category ID (" + id + ") is different from the one that has been generated (" + genId + ")");
-						}
-					}
-					rs.close();
-				}
-				if (this._pwr != null)
-				{
-					this._pwr.println(prepStmt);
-				}
+	/**
+	 * Loads one slice of a phase on its own connection.
+	 */
+	private final class LoaderThread extends Thread
+	{
+		private final int _slice;
+		private final int _phase;
+		private final int _minId;
+		private final int _maxId;
+		private volatile Exception _error = null;
 
-				if (this._verboseFlag)
-				{
-					double currentProgress = (id-minId)/((double) (maxId-minId));
-					if (currentProgress >= nextProgress)
-					{
-						System.err.print(".");
-						System.err.flush();
-						nextProgress += stepProgress;
-					}
-				}
-			}
+		public LoaderThread(String name, int slice, int phase, int minId, int maxId)
+		{
+			super("InitDb-" + name + "-" + slice);
+			this._slice = slice;
+			this._phase = phase;
+			this._minId = minId;
+			this._maxId = maxId;
+		}
 
-			if (!this._testFlag && this._transFlag)
-			{
-				this._dbConn.commit();
-			}
+		public Exception getError()
+		{
+			return this._error;
 		}
-		catch (SQLException se)
+
+		public void run()
 		{
-			if (!this._testFlag && this._transFlag)
+			try
 			{
-				this._dbConn.rollback();
+				// Only the first slice prints the progress dots
+				Loader loader = new Loader(openConnection(), true, this._slice == 0);
+				loader.load(this._phase, this._minId, this._maxId);
 			}
-
-			throw se;
-		}
-		finally
-		{
-			if (!this._testFlag)
+			catch (Exception e)
 			{
-				if (prepStmt != null)
-				{
-					prepStmt.close();
-				}
-
-				if (this._transFlag)
-				{
-					this._dbConn.setAutoCommit(true);
-				}
+				this._error = e;
 			}
 		}
-
-		if (this._verboseFlag)
-		{
-			System.err.println();
-		}
 	}
 
-	private void initializeUsers() throws Exception
+	/**
+	 * Inserts the rows of a phase through one connection.
+	 *
+	 * With a batch size greater than one, rows are queued with addBatch and
+	 * sent with executeBatch every batch-size rows of the same table.
+	 * With a commit size greater than zero the connection works in a
+	 * transaction that is committed every commit-size rows; otherwise, if
+	 * transactions are enabled, the whole slice is committed at once.
+	 */
+	private final class Loader
 	{
-		PreparedStatement prepStmt = null;
-
-		double nextProgress = 0;
-		double stepProgress = 0.1;
-
-		if (this._verboseFlag)
+		private final Connection _conn;
+		private final boolean _ownConn;
+		private final boolean _progress;
+		private final XoshiroRandom _rng = new XoshiroRandom(0);
+		private final RubisUtility _util;
+		private final PreparedStatement[] _stmts = new PreparedStatement[TABLES.length];
+		private final int[] _batched = new int[TABLES.length];
+		private int _uncommitted = 0;
+
+		public Loader(Connection conn, boolean ownConn, boolean progress)
 		{
-			System.err.print("[INFO] Initialize Users: ");
-			System.err.flush();
+			this._conn = conn;
+			this._ownConn = ownConn;
+			this._progress = progress;
+			this._util = new RubisUtility(this._rng, _conf);
 		}
 
-		try
+		public void load(int phase, int minId, int maxId) throws Exception
 		{
-			if (!this._testFlag && this._transFlag)
-			{
-				this._dbConn.setAutoCommit(false);
+			final boolean trans = !_testFlag && (_transFlag || _commitSize > 0);
 
-			}
+			double nextProgress = 0;
+			double stepProgress = 0.1;
 
-			// Generate users
-			final int minId = 1;
-			final int maxId = this._conf.getNumOfPreloadedUsers()+minId-1;
-			prepStmt = this._dbConn.prepareStatement(SQL_INSERT_USER, Statement.RETURN_GENERATED_KEYS);
-			for (int id = minId; id <= maxId; ++id)
+			try
 			{
-				RubisUser user = this._util.getUser(id);
-
-				prepStmt.clearParameters();
-				prepStmt.setInt(1, user.id);
-				prepStmt.setString(2, user.firstname);
-				prepStmt.setString(3, user.lastname);
-				prepStmt.setString(4, user.nickname);
-				prepStmt.setString(5, user.password);
-				prepStmt.setString(6, user.email);
-				prepStmt.setInt(7, user.rating);
-				prepStmt.setDouble(8, user.balance);
-				prepStmt.setDate(9, new Date(user.creationDate.getTime()));
-				prepStmt.setInt(10, user.region);
-
-				if (!this._testFlag)
+				if (trans)
 				{
-					int affectedRows = prepStmt.executeUpdate();
-
-					// Experimental: use batches instead of execute one query at a time
-					//prepStmt.addBatch();
-					//if ((id % 1000) == 0)
-					//{
-					//	prepStmt.executeBatch();
-					//}
+					this._conn.setAutoCommit(false);
+				}
 
-					if (affectedRows == 0)
+				for (int id = minId; id <= maxId; ++id)
+				{
+					switch (phase)
 					{
-						throw new SQLException("During user insertion: No rows affected");
+						case REGIONS_PHASE:
+							this.insertRegion(id);
+							break;
+						case CATEGORIES_PHASE:
+							this.insertCategory(id);
+							break;
+						case USERS_PHASE:
+							this.insertUser(id);
+							break;
+						case ITEMS_PHASE:
+							this.insertItem(id);
+							break;
+						case BIDS_PHASE:
+							this.insertBids(id);
+							break;
+						case COMMENTS_PHASE:
+							this.insertComment(id);
+							break;
 					}
 
-					ResultSet rs = prepStmt.getGeneratedKeys();
-					if (rs.last())
+					if (_verboseFlag && this._progress)
 					{
-						int genId = rs.getInt(1);
-
-						if (id != genId)
+						double currentProgress = (id-minId)/((double) Math.max(1, maxId-minId));
+						if (currentProgress >= nextProgress)
 						{
-							System.err.println("[WARNING] Expected user ID (" + id + ") is different from the one that has been generated (" + genId + ")");
+							System.err.print(".");
+							System.err.flush();
+							nextProgress += stepProgress;
 						}
 					}
-					rs.close();
-				}
-				if (this._pwr != null)
-				{
-					this._pwr.println(prepStmt);
 				}
 
-				if (this._verboseFlag)
+				this.executeBatches();
+				if (trans)
 				{
-					double currentProgress = (id-minId)/((double) (maxId-minId));
-					if (currentProgress >= nextProgress)
-					{
-						System.err.print(".");
-						System.err.flush();
-						nextProgress += stepProgress;
-					}
+					this._conn.commit();
 				}
 			}
-
-			if (!this._testFlag && this._transFlag)
-			{
-				this._dbConn.commit();
-			}
-		}
-		catch (SQLException se)
-		{
-			if (!this._testFlag && this._transFlag)
+			catch (SQLException se)
 			{
-				this._dbConn.rollback();
-			}
-
-			throw se;
-		}
-		finally
-		{
-			if (!this._testFlag)
-			{
-				if (prepStmt != null)
+				if (trans)
 				{
-					prepStmt.close();
+					this._conn.rollback();
 				}
 
-				if (this._transFlag)
-				{
-					this._dbConn.setAutoCommit(true);
-				}
+				throw se;
 			}
-		}
-
-		if (this._verboseFlag)
-		{
-			System.err.println();
-		}
-	}
-
-	private void initializeItems() throws Exception
-	{
-		PreparedStatement oldItemStmt = null;
-		PreparedStatement itemStmt = null;
-
-		double nextProgress = 0;
-		double stepProgress = 0.1;
-
-		if (this._verboseFlag)
-		{
-			System.err.print("[INFO] Initialize Items: ");
-			System.err.flush();
-		}
-
-		this._items.clear();
-
-		try
-		{
-			if (!this._testFlag && this._transFlag)
+			finally
 			{
-				this._dbConn.setAutoCommit(false);
-
-			}
-
-			// Generate item
-			final int minId = this.getMinItemId();
-			final int maxId = this.getMaxActiveItemId();
-			final int maxOldItemId = this.getMaxOldItemId();
-			int count = 0;
-			oldItemStmt = this._dbConn.prepareStatement(SQL_INSERT_OLD_ITEM, Statement.RETURN_GENERATED_KEYS);
-			itemStmt = this._dbConn.prepareStatement(SQL_INSERT_ITEM, Statement.RETURN_GENERATED_KEYS);
-			for (int id = minId; id <= maxId; ++id)
-			{
-				++count;
-
-				RubisUser seller = this._util.generateUser();
-				RubisItem item = this._util.getItem(id, seller.id);
-
-				int duration = this._util.getDaysBetween(item.startDate, item.endDate);
-				if (id <= maxOldItemId)
+				for (PreparedStatement stmt : this._stmts)
 				{
-					// Generate an old item whereby auction date is over
-
-					// Add a negative duration so that the auctio will be over
-					item.endDate = this._util.addDays(item.startDate, -duration);
-
-					if (count < (this._conf.getPercentageOfItemsReserve()*this._conf.getNumOfOldItems()/100.0))
-					{
-						item.reservePrice = this._util.getRandomGenerator().nextInt(Math.round(this._conf.getMaxItemBaseReservePrice())) + item.initialPrice;
-					}
-					else
-					{
-						item.reservePrice = 0;
-					}
-					if (count < (this._conf.getPercentageOfItemsBuyNow()*this._conf.getNumOfOldItems()/100.0))
-					{
-						item.buyNow = this._util.getRandomGenerator().nextInt(Math.round(this._conf.getMaxItemBaseBuyNowPrice())) + item.initialPrice + item.reservePrice;
-					}
-					else
-					{
-						item.buyNow = 0;
-					}
-					if (count < (this._conf.getPercentageOfUniqueItems()*this._conf.getNumOfOldItems()/100.0))
+					if (stmt != null)
 					{
-						item.quantity = 1;
-					}
-					else
-					{
-						item.quantity = this._util.getRandomGenerator().nextInt(Math.round(this._conf.getMaxItemQuantity())) + 1;
-					}
-
-					oldItemStmt.clearParameters();
-					oldItemStmt.setInt(1, item.id);
-					oldItemStmt.setString(2, item.name);
-					oldItemStmt.setString(3, item.description);
-					oldItemStmt.setFloat(4, item.initialPrice);
-					oldItemStmt.setInt(5, item.quantity);
-					oldItemStmt.setFloat(6, item.reservePrice);
-					oldItemStmt.setFloat(7, item.buyNow);
-					oldItemStmt.setInt(8, item.nbOfBids);
-					oldItemStmt.setFloat(9, item.maxBid);
-					oldItemStmt.setDate(10, new Date(item.startDate.getTime()));
-					oldItemStmt.setDate(11, new Date(item.endDate.getTime()));
-					oldItemStmt.setInt(12, item.seller);
-					oldItemStmt.setInt(13, item.category);
-
-					if (!this._testFlag)
-					{
-						int affectedRows = oldItemStmt.executeUpdate();
-
-						// Experimental: use batches instead of execute one query at a time
-						//oldItemStmt.addBatch();
-						//if ((id % 1000) == 0)
-						//{
-						//	itemStmt.executeBatch();
-						//}
-
-						if (affectedRows == 0)
-						{
-							throw new SQLException("During old_item insertion: No rows affected");
-						}
-
-						ResultSet rs = oldItemStmt.getGeneratedKeys();
-						if (rs.last())
-						{
-							int genId = rs.getInt(1);
-
-							if (id != genId)
-							{
-								System.err.println("[WARNING] Expected item ID (" + id + ") is different from the one that has been generated (" + genId + ")");
-							}
-						}
-						rs.close();
-					}
-					if (this._pwr != null)
-					{
-						this._pwr.println(oldItemStmt);
+						stmt.close();
 					}
 				}
-				else
+				if (trans)
 				{
-					// This is a regular item
-
-					item.endDate = this._util.addDays(item.startDate, duration);
-
-					if (count < (this._conf.getPercentageOfItemsReserve()*this._conf.getTotalActiveItems()/100.0))
-					{
-						item.reservePrice = this._util.getRandomGenerator().nextInt(Math.round(this._conf.getMaxItemBaseReservePrice())) + item.initialPrice;
-					}
-					else
-					{
-						item.reservePrice = 0;
-					}
-					if (count < (this._conf.getPercentageOfItemsBuyNow()*this._conf.getTotalActiveItems()/100.0))
-					{
-						item.buyNow = this._util.getRandomGenerator().nextInt(Math.round(this._conf.getMaxItemBaseBuyNowPrice())) + item.initialPrice + item.reservePrice;
-					}
-					else
-					{
-						item.buyNow = 0;
-					}
-					if (count < (this._conf.getPercentageOfUniqueItems()*this._conf.getTotalActiveItems()/100.0))
-					{
-						item.quantity = 1;
-					}
-					else
-					{
-						item.quantity = this._util.getRandomGenerator().nextInt(Math.round(this._conf.getMaxItemQuantity())) + 1;
-					}
-
-					itemStmt.clearParameters();
-					itemStmt.setInt(1, item.id);
-					itemStmt.setString(2, item.name);
-					itemStmt.setString(3, item.description);
-					itemStmt.setFloat(4, item.initialPrice);
-					itemStmt.setInt(5, item.quantity);
-					itemStmt.setFloat(6, item.reservePrice);
-					itemStmt.setFloat(7, item.buyNow);
-					itemStmt.setInt(8, item.nbOfBids);
-					itemStmt.setFloat(9, item.maxBid);
-					itemStmt.setDate(10, new Date(item.startDate.getTime()));
-					itemStmt.setDate(11, new Date(item.endDate.getTime()));
-					itemStmt.setInt(12, item.seller);
-					itemStmt.setInt(13, item.category);
-
-					if (!this._testFlag)
-					{
-						int affectedRows = itemStmt.executeUpdate();
-
-						// Experimental: use batches instead of execute one query at a time
-						//itemStmt.addBatch();
-						//if ((id % 1000) == 0)
-						//{
-						//	itemStmt.executeBatch();
-						//}
-
-						if (affectedRows == 0)
-						{
-							throw new SQLException("During item insertion: No rows affected");
-						}
-
-						ResultSet rs = itemStmt.getGeneratedKeys();
-						if (rs.last())
-						{
-							int genId = rs.getInt(1);
-
-							if (id != genId)
-							{
-								System.err.println("[WARNING] Expected item ID (" + id + ") is different from the one that has been generated (" + genId + ")");
-							}
-						}
-						rs.close();
-					}
-					if (this._pwr != null)
-					{
-						this._pwr.println(itemStmt);
-					}
+					this._conn.setAutoCommit(true);
 				}
-
-				this._items.add(item);
-
-				if (this._verboseFlag)
+				if (this._ownConn)
 				{
-					double currentProgress = (id-minId)/((double) (maxId-minId));
-					if (currentProgress >= nextProgress)
-					{
-						System.err.print(".");
-						System.err.flush();
-						nextProgress += stepProgress;
-					}
+					this._conn.close();
 				}
 			}
-
-			if (!this._testFlag && this._transFlag)
-			{
-				this._dbConn.commit();
-			}
 		}
-		catch (SQLException se)
+
+		private void insertRegion(int id) throws SQLException
 		{
-			if (!this._testFlag && this._transFlag)
-			{
-				this._dbConn.rollback();
-			}
-			this._items.clear();
+			RubisRegion region = this._util.getRegion(id);
 
-			throw se;
+			PreparedStatement prepStmt = this.getStatement(REGIONS_TABLE, SQL_INSERT_REGION);
+			prepStmt.clearParameters();
+			prepStmt.setInt(1, region.id);
+			prepStmt.setString(2, region.name);
+			this.addRow(REGIONS_TABLE, prepStmt, id);
 		}
-		finally
+
+		private void insertCategory(int id) throws SQLException
 		{
-			if (!this._testFlag)
-			{
-				if (oldItemStmt != null)
-				{
-					oldItemStmt.close();
-				}
-				if (itemStmt != null)
-				{
-					itemStmt.close();
-				}
+			RubisCategory category = this._util.getCategory(id);
 
-				if (this._transFlag)
-				{
-					this._dbConn.setAutoCommit(true);
-				}
-			}
+			PreparedStatement prepStmt = this.getStatement(CATEGORIES_TABLE, SQL_INSERT_CATEGORY);
+			prepStmt.clearParameters();
+			prepStmt.setInt(1, category.id);
+			prepStmt.setString(2, category.name);
+			this.addRow(CATEGORIES_TABLE, prepStmt, id);
 		}
 
-		if (this._verboseFlag)
+		private void insertUser(int id) throws SQLException
 		{
-			System.err.println();
+			this.seed(USERS_TABLE, id);
+			RubisUser user = this._util.getUser(id);
+
+			PreparedStatement prepStmt = this.getStatement(USERS_TABLE, SQL_INSERT_USER);
+			prepStmt.clearParameters();
+			prepStmt.setInt(1, user.id);
+			prepStmt.setString(2, user.firstname);
+			prepStmt.setString(3, user.lastname);
+			prepStmt.setString(4, user.nickname);
+			prepStmt.setString(5, user.password);
+			prepStmt.setString(6, user.email);
+			prepStmt.setInt(7, user.rating);
+			prepStmt.setDouble(8, user.balance);
+			prepStmt.setDate(9, new Date(user.creationDate.getTime()));
+			prepStmt.setInt(10, user.region);
+			this.addRow(USERS_TABLE, prepStmt, id);
 		}
-	}
 
-	private void initializeBids() throws Exception
-	{
-		PreparedStatement bidStmt = null;
+		private void insertItem(int id) throws SQLException
+		{
+			this.seed(ITEMS_TABLE, id);
 
-		double nextProgress = 0;
-		double stepProgress = 0.1;
+			RubisUser seller = this._util.generateUser();
+			RubisItem item = this._util.getItem(id, seller.id);
 
-		if (this._verboseFlag)
-		{
-			System.err.print("[INFO] Initialize Bids: ");
-			System.err.flush();
-		}
+			// Position of the item in the id range (1-based)
+			final int count = id-getMinItemId()+1;
+			final boolean old = id <= getMaxOldItemId();
+			final int numItems = old ? _conf.getNumOfOldItems() : _conf.getTotalActiveItems();
 
-		try
-		{
-			if (!this._testFlag && this._transFlag)
+			int duration = this._util.getDaysBetween(item.startDate, item.endDate);
+			if (old)
 			{
-				this._dbConn.setAutoCommit(false);
+				// Generate an old item whereby auction date is over
 
+				// Add a negative duration so that the auctio will be over
+				item.endDate = this._util.addDays(item.startDate, -duration);
 			}
-
-			bidStmt = this._dbConn.prepareStatement(SQL_INSERT_BID, Statement.RETURN_GENERATED_KEYS);
-
-			int n = 0;
-			for (RubisItem item : this._items)
+			else
 			{
-				this.initializeBids(item, bidStmt);
+				// This is a regular item
 
-				if (this._verboseFlag)
-				{
-					double currentProgress = n/((double) this._items.size());
-					++n;
-					if (currentProgress >= nextProgress)
-					{
-						System.err.print(".");
-						System.err.flush();
-						nextProgress += stepProgress;
-					}
-				}
+				item.endDate = this._util.addDays(item.startDate, duration);
 			}
 
-			if (!this._testFlag && this._transFlag)
+			if (count < (_conf.getPercentageOfItemsReserve()*numItems/100.0))
 			{
-				this._dbConn.commit();
+				item.reservePrice = this._rng.nextInt(Math.round(_conf.getMaxItemBaseReservePrice())) + item.initialPrice;
 			}
-		}
-		catch (SQLException se)
-		{
-			if (!this._testFlag && this._transFlag)
+			else
 			{
-				this._dbConn.rollback();
+				item.reservePrice = 0;
 			}
-			this._items.clear();
-
-			throw se;
-		}
-		finally
-		{
-			if (!this._testFlag)
+			if (count < (_conf.getPercentageOfItemsBuyNow()*numItems/100.0))
 			{
-				if (bidStmt != null)
-				{
-					bidStmt.close();
-				}
-
-				if (this._transFlag)
-				{
-					this._dbConn.setAutoCommit(true);
-				}
+				item.buyNow = this._rng.nextInt(Math.round(_conf.getMaxItemBaseBuyNowPrice())) + item.initialPrice + item.reservePrice;
 			}
-		}
-
-		if (this._verboseFlag)
-		{
-			System.err.println();
-		}
-	}
-
-	private void initializeBids(RubisItem item, PreparedStatement bidStmt) throws SQLException
-	{
-		// Generate bids
-		final int nbids = this._conf.getMaxBidsPerItem();
-		float minBid = item.initialPrice;
-		for (int j = 0; j < nbids; ++j)
-		{
-			final int userId = this._util.generateUser().id;
-			final int addBid = this._util.getRandomGenerator().nextInt(Math.round(this._conf.getMaxItemBaseBidPrice()))+1;
-			final int qty = this._util.getRandomGenerator().nextInt(item.quantity)+1;
-			final float bid = minBid + addBid;
-			final float maxBid = minBid + addBid * 2;
-			final Date dtNow = new Date(System.currentTimeMillis());
-
-			bidStmt.clearParameters();
-			bidStmt.setInt(1, userId);
-			bidStmt.setInt(2, item.id);
-			bidStmt.setInt(3, qty);
-			bidStmt.setFloat(4, bid);
-			bidStmt.setFloat(5, maxBid);
-			bidStmt.setDate(6, dtNow);
-
-			if (!this._testFlag)
+			else
 			{
-				int affectedRows = bidStmt.executeUpdate();
-
-				if (affectedRows == 0)
-				{
-					throw new SQLException("During bid insertion: No rows affected");
-				}
+				item.buyNow = 0;
 			}
-			if (this._pwr != null)
+			if (count < (_conf.getPercentageOfUniqueItems()*numItems/100.0))
 			{
-				this._pwr.println(bidStmt);
+				item.quantity = 1;
 			}
-
-			minBid += addBid;
+			else
+			{
+				item.quantity = this._rng.nextInt(Math.round(_conf.getMaxItemQuantity())) + 1;
+			}
+
+			final int table = old ? OLD_ITEMS_TABLE : ITEMS_TABLE;
+			PreparedStatement prepStmt = this.getStatement(table, old ? SQL_INSERT_OLD_ITEM : SQL_INSERT_ITEM);
+			prepStmt.clearParameters();
+			prepStmt.setInt(1, item.id);
+			prepStmt.setString(2, item.name);
+			prepStmt.setString(3, item.description);
+			prepStmt.setFloat(4, item.initialPrice);
+			prepStmt.setInt(5, item.quantity);
+			prepStmt.setFloat(6, item.reservePrice);
+			prepStmt.setFloat(7, item.buyNow);
+			prepStmt.setInt(8, item.nbOfBids);
+			prepStmt.setFloat(9, item.maxBid);
+			prepStmt.setDate(10, new Date(item.startDate.getTime()));
+			prepStmt.setDate(11, new Date(item.endDate.getTime()));
+			prepStmt.setInt(12, item.seller);
+			prepStmt.setInt(13, item.category);
+			this.addRow(table, prepStmt, id);
+
+			_items[id-getMinItemId()] = item;
 		}
-	}
 
-	private void initializeComments() throws Exception
-	{
-		PreparedStatement comStmt = null;
+		private void insertBids(int itemId) throws SQLException
+		{
+			this.seed(BIDS_TABLE, itemId);
+			RubisItem item = _items[itemId-getMinItemId()];
+
+			// Generate bids
+			final int nbids = _conf.getMaxBidsPerItem();
+			float minBid = item.initialPrice;
+			PreparedStatement bidStmt = this.getStatement(BIDS_TABLE, SQL_INSERT_BID);
+			for (int j = 0; j < nbids; ++j)
+			{
+				final int userId = this._util.generateUser().id;
+				final int addBid = this._rng.nextInt(Math.round(_conf.getMaxItemBaseBidPrice()))+1;
+				final int qty = this._rng.nextInt(item.quantity)+1;
+				final float bid = minBid + addBid;
+				final float maxBid = minBid + addBid * 2;
+				final Date dtNow = new Date(System.currentTimeMillis());
+
+				bidStmt.clearParameters();
+				bidStmt.setInt(1, userId);
+				bidStmt.setInt(2, item.id);
+				bidStmt.setInt(3, qty);
+				bidStmt.setFloat(4, bid);
+				bidStmt.setFloat(5, maxBid);
+				bidStmt.setDate(6, dtNow);
+				this.addRow(BIDS_TABLE, bidStmt, -1);
+
+				minBid += addBid;
+			}
+		}
 
-		double nextProgress = 0;
-		double stepProgress = 0.1;
+		private void insertComment(int itemId) throws SQLException
+		{
+			this.seed(COMMENTS_TABLE, itemId);
+			RubisItem item = _items[itemId-getMinItemId()];
+
+			RubisComment comment = this._util.generateComment(this._util.generateUser().id,
+															  item.seller,
+															  item.id);
+
+			PreparedStatement comStmt = this.getStatement(COMMENTS_TABLE, SQL_INSERT_COMMENT);
+			comStmt.clearParameters();
+			comStmt.setInt(1, comment.fromUserId);
+			comStmt.setInt(2, comment.toUserId);
+			comStmt.setInt(3, comment.itemId);
+			comStmt.setInt(4, comment.rating);
+			comStmt.setDate(5, new Date(comment.date.getTime()));
+			comStmt.setString(6, comment.comment);
+			this.addRow(COMMENTS_TABLE, comStmt, -1);
+		}
 
-		if (this._verboseFlag)
+		/**
+		 * Positions the random stream at the start of the given row's
+		 * sequence.
+		 */
+		private void seed(int table, int id)
 		{
-			System.err.print("[INFO] Initialize Comments: ");
-			System.err.flush();
+			this._rng.setSeed(RandomStreams.deriveSeed(_seed, "rubis.initDb", TABLES[table], Integer.toString(id)));
 		}
 
-		try
+		private PreparedStatement getStatement(int table, String sql) throws SQLException
 		{
-			if (!this._testFlag && this._transFlag)
+			if (this._stmts[table] == null)
 			{
-				this._dbConn.setAutoCommit(false);
-
+				this._stmts[table] = this._conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
 			}
+			return this._stmts[table];
+		}
 
-			comStmt = this._dbConn.prepareStatement(SQL_INSERT_COMMENT, Statement.RETURN_GENERATED_KEYS);
-
-
-			int n = 0;
-			for (RubisItem item : this._items)
+		/**
+		 * Sends (or queues) the row currently set in the given statement.
+		 * A positive expected id is checked against the generated key when
+		 * rows are sent one at a time.
+		 */
+		private void addRow(int table, PreparedStatement prepStmt, int expectedId) throws SQLException
+		{
+			if (!_testFlag)
 			{
-				this.initializeComments(item, comStmt);
-
-				if (this._verboseFlag)
+				if (_batchSize > 1)
 				{
-					double currentProgress = n/((double) this._items.size());
-					++n;
-					if (currentProgress >= nextProgress)
+					prepStmt.addBatch();
+					if (++this._batched[table] >= _batchSize)
 					{
-						System.err.print(".");
-						System.err.flush();
-						nextProgress += stepProgress;
+						this.executeBatch(table);
 					}
 				}
-			}
+				else
+				{
+					int affectedRows = prepStmt.executeUpdate();
+					if (affectedRows == 0)
+					{
+						throw new SQLException("During " + TABLES[table] + " insertion: No rows affected");
+					}
 
-			if (!this._testFlag && this._transFlag)
-			{
-				this._dbConn.commit();
+					if (expectedId > 0)
+					{
+						ResultSet rs = prepStmt.getGeneratedKeys();
+						if (rs.last())
+						{
+							int genId = rs.getInt(1);
+
+							if (expectedId != genId)
+							{
+								System.err.println("[WARNING] Expected " + TABLES[table] + " ID (" + expectedId + ") is different from the one that has been generated (" + genId + ")");
+							}
+						}
+						rs.close();
+					}
+				}
+
+				if (_commitSize > 0 && ++this._uncommitted >= _commitSize)
+				{
+					this.executeBatches();
+					this._conn.commit();
+					this._uncommitted = 0;
+				}
 			}
-		}
-		catch (SQLException se)
-		{
-			if (!this._testFlag && this._transFlag)
+			if (_pwr != null)
 			{
-				this._dbConn.rollback();
+				synchronized (_pwr)
+				{
+					_pwr.println(prepStmt);
+				}
 			}
-			this._items.clear();
 
-			throw se;
+			_rowCounts[table].incrementAndGet();
 		}
-		finally
+
+		private void executeBatches() throws SQLException
 		{
-			if (!this._testFlag)
+			for (int table = 0; table < TABLES.length; ++table)
 			{
-				if (comStmt != null)
-				{
-					comStmt.close();
-				}
-
-				if (this._transFlag)
+				if (this._batched[table] > 0)
 				{
-					this._dbConn.setAutoCommit(true);
+					this.executeBatch(table);
 				}
 			}
 		}
 
-		if (this._verboseFlag)
+		private void executeBatch(int table) throws SQLException
 		{
-			System.err.println();
-		}
-	}
-
-	private void initializeComments(RubisItem item, PreparedStatement comStmt) throws SQLException
-	{
-		RubisComment comment = this._util.generateComment(this._util.generateUser().id,
-														  item.seller,
-														  item.id);
-
-		comStmt.clearParameters();
-		comStmt.setInt(1, comment.fromUserId);
-		comStmt.setInt(2, comment.toUserId);
-		comStmt.setInt(3, comment.itemId);
-		comStmt.setInt(4, comment.rating);
-		comStmt.setDate(5, new Date(comment.date.getTime()));
-		comStmt.setString(6, comment.comment);
-
-		if (!this._testFlag)
-		{
-			int affectedRows = comStmt.executeUpdate();
-
-			if (affectedRows == 0)
+			int[] affectedRows = this._stmts[table].executeBatch();
+			this._batched[table] = 0;
+			for (int rows : affectedRows)
 			{
-				throw new SQLException("During comment insertion: No rows affected");
+				if (rows == 0 || rows == Statement.EXECUTE_FAILED)
+				{
+					throw new SQLException("During " + TABLES[table] + " insertion: No rows affected");
+				}
 			}
 		}
-		if (this._pwr != null)
-		{
-			this._pwr.println(comStmt);
-		}
 	}
 
 	private int getMinItemId()
@@ -1225,6 +1023,9 @@ public final class InitDbDriver
 	private static String DEFAULT_OPT_DB_USER = "";
 	private static String DEFAULT_OPT_DB_PASSWORD = "";
 	private static boolean DEFAULT_OPT_DB_TRANSACTION = false;
+	private static int DEFAULT_OPT_DB_CONNECTIONS = 1;
+	private static int DEFAULT_OPT_DB_BATCH_SIZE = 1;
+	private static int DEFAULT_OPT_DB_COMMIT_SIZE = 0;
 	private static boolean DEFAULT_OPT_VERBOSE = false;
 	private static boolean DEFAULT_OPT_TEST = false;
 	private static boolean DEFAULT_OPT_DUMP = false;
@@ -1238,6 +1039,9 @@ public final class InitDbDriver
 		String optDbUser = DEFAULT_OPT_DB_USER;
 		String optDbPassword = DEFAULT_OPT_DB_PASSWORD;
 		boolean optDbTrans = DEFAULT_OPT_DB_TRANSACTION;
+		int optDbConns = DEFAULT_OPT_DB_CONNECTIONS;
+		int optDbBatchSize = DEFAULT_OPT_DB_BATCH_SIZE;
+		int optDbCommitSize = DEFAULT_OPT_DB_COMMIT_SIZE;
 		boolean optVerbose = DEFAULT_OPT_VERBOSE;
 		boolean optTest = DEFAULT_OPT_TEST;
 		boolean optDump = DEFAULT_OPT_DUMP;
@@ -1266,6 +1070,25 @@ public final class InitDbDriver
 				optDbPassword = args[i+1];
 				++i;
 			}
+			else if (args[i].equals("-dbtrx"))
+			{
+				optDbTrans = true;
+			}
+			else if (args[i].equals("-dbconns"))
+			{
+				optDbConns = Integer.parseInt(args[i+1]);
+				++i;
+			}
+			else if (args[i].equals("-dbbatch"))
+			{
+				optDbBatchSize = Integer.parseInt(args[i+1]);
+				++i;
+			}
+			else if (args[i].equals("-dbcommit"))
+			{
+				optDbCommitSize = Integer.parseInt(args[i+1]);
+				++i;
+			}
 			else if (args[i].equals("-verbose"))
 			{
 				optVerbose = true;
@@ -1299,6 +1122,9 @@ public final class InitDbDriver
 			System.err.println("[INFO]   Database User:" + optDbUser);
 			System.err.println("[INFO]   Database Password:" + optDbPassword);
 			System.err.println("[INFO]   Database Transactions:" + optDbTrans);
+			System.err.println("[INFO]   Database Connections:" + optDbConns);
+			System.err.println("[INFO]   Database Batch Size:" + optDbBatchSize);
+			System.err.println("[INFO]   Database Commit Size:" + optDbCommitSize);
 			System.err.println("[INFO]   Verbose:" + optVerbose);
 			System.err.println("[INFO]   Dump:" + optDump);
 			System.err.println("[INFO]   Dump File:" + optDumpFile);
@@ -1383,6 +1209,10 @@ public final class InitDbDriver
 		initDb.setVerboseFlag(optVerbose);
 		initDb.setTestOnlyFlag(optTest);
 		initDb.setUseTransactionsFlag(optDbTrans);
+		initDb.setConnectionParams(optDbUrl, optDbUser, optDbPassword);
+		initDb.setNumOfConnections(optDbConns);
+		initDb.setBatchSize(optDbBatchSize);
+		initDb.setCommitSize(optDbCommitSize);
 		PrintWriter dumpWr = null;
 		if (optDump)
 		{
@@ -1438,6 +1268,16 @@ public final class InitDbDriver
 		System.err.println("  [Default='" + DEFAULT_OPT_DB_PASSWORD + "']");
 		System.err.println(" -dbtrx: Enable the use of database transactions.");
 		System.err.println("  [Default='" + DEFAULT_OPT_DB_TRANSACTION + "']");
+		System.err.println(" -dbconns <n>: Number of connections (and loader threads) each table is loaded with.");
+		System.err.println("  The id range of each table is split among the connections, and the generated data");
+		System.err.println("  does not depend on the number of connections.");
+		System.err.println("  [Default='" + DEFAULT_OPT_DB_CONNECTIONS + "']");
+		System.err.println(" -dbbatch <n>: Number of rows sent per JDBC batch (1 sends one row at a time).");
+		System.err.println("  With MySQL, add rewriteBatchedStatements=true to the database url to get multi-row inserts.");
+		System.err.println("  [Default='" + DEFAULT_OPT_DB_BATCH_SIZE + "']");
+		System.err.println(" -dbcommit <n>: Number of rows per transaction and per connection (0 means one transaction per table when");
+		System.err.println("  '-dbtrx' is given). A positive value implies the '-dbtrx' option.");
+		System.err.println("  [Default='" + DEFAULT_OPT_DB_COMMIT_SIZE + "']");
 		System.err.println(" -verbose: Print messages that can be useful for debugging purpose.");
 		System.err.println("  [Default='" + DEFAULT_OPT_VERBOSE + "']");
 		System.err.println(" -dump: Dump the generated SQL on the <dumpfile> (if specified) or on standard output.");
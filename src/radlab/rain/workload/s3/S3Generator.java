@@ -1,8 +1,10 @@
 package radlab.rain.workload.s3;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.InputStream;
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Properties;
 import java.util.Random;
@@ -12,12 +14,16 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import radlab.rain.Generator;
+import radlab.rain.IReplayableGenerator;
 import radlab.rain.LoadProfile;
 import radlab.rain.ObjectPool;
 import radlab.rain.Operation;
 import radlab.rain.ScenarioTrack;
+import radlab.rain.util.storage.KeyEncoder;
+import radlab.rain.util.storage.PayloadSlab;
+import radlab.rain.util.storage.TransferStats;
 
-public class S3Generator extends Generator 
+public class S3Generator extends Generator implements IReplayableGenerator
 {
 	public static String AWS_PROPERTIES_FILE			= "aws.properties";
 	public static final String AWS_ACCESS_KEY_PROPERTY 	= "awsAccessKey";
@@ -28,6 +34,8 @@ public class S3Generator extends Generator
 	public static String CFG_RNG_SEED_KEY	 		= "rngSeed";
 	public static String CFG_OBJECT_KEYS			= "objectKeys";
 	public static String CFG_OBJECT_KEY_PREFIXES	= "objectKeyPrefixes";
+	// Use an S3-compatible endpoint (host:port, plain HTTP, path-style buckets) instead of Amazon S3
+	public static String CFG_ENDPOINT_KEY			= "endpoint";
 	
 	public static final int GET 					= 0;
 	public static final int PUT 					= 1;
@@ -60,13 +68,16 @@ public class S3Generator extends Generator
 	private boolean _usePooling							= true;
 	
 	private boolean _debug 								= false;
+	private PayloadSlab _payloads						= null;
 	private Random _random								= null;
 	private S3Transport _s3Client						= null;
 	private int[] _objectKeys							= null;						
 	private HashMap<Integer,String> _objectKeyPrefixes 	= null;
-	private NumberFormat _formatter 					= new DecimalFormat( "00000" );
+	private KeyEncoder _keyEncoder 						= new KeyEncoder( 5 );
+	// Per-object MB/s and per-part latency, shared by all S3 generators
+	private TransferStats _getStats						= null;
+	private TransferStats _putStats						= null;
 	
-	@SuppressWarnings("unused")
 	private S3Request<String> _lastRequest 	= null;
 	
 	public S3Generator(ScenarioTrack track) 
@@ -75,7 +86,20 @@ public class S3Generator extends Generator
 	}
 
 	@Override
-	public void dispose() {}
+	public void dispose() 
+	{
+		// The last generator out prints the transfer stats
+		if( this._getStats != null )
+		{
+			this._getStats.release();
+			this._putStats.release();
+			this._getStats = null;
+			this._putStats = null;
+		}
+		
+		if( this._s3Client != null )
+			this._s3Client.dispose();
+	}
 
 	@Override
 	public long getCycleTime() 
@@ -97,6 +121,9 @@ public class S3Generator extends Generator
 	
 	public S3Transport getS3Transport() { return this._s3Client; }
 	
+	public TransferStats getGetStats() { return this._getStats; }
+	public TransferStats getPutStats() { return this._putStats; }
+	
 	@Override
 	public void configure( JSONObject config ) throws JSONException
 	{
@@ -106,26 +133,43 @@ public class S3Generator extends Generator
 		if( config.has( CFG_DEBUG_KEY) )
 			this._debug = config.getBoolean( CFG_DEBUG_KEY );
 		
+		// Object contents are views of a shared, pre-generated slab
+		this._payloads = PayloadSlab.getSharedSlab( config );
+		
 		// Look for a random number seed
+		// Each user gets its own stream; a configured seed replaces the scenario's master seed
 		if( config.has( CFG_RNG_SEED_KEY ) )
-			this._random = new Random( config.getLong(CFG_RNG_SEED_KEY) );
-		else this._random = new Random();
+			this.setRandomSeed( config.getLong( CFG_RNG_SEED_KEY ) );
+		this._random = this.getRandom();
 		
 		// Configure the s3 transport with the credentials we need to connect etc. 
 		// - load from a local properties file.
 		// If we don't find any credentials then throw a JSONException to that effect
+		// An S3-compatible endpoint may not check credentials, so they're optional there
 		Properties aws = new Properties();
+		String endpoint = config.has( CFG_ENDPOINT_KEY ) ? config.getString( CFG_ENDPOINT_KEY ) : null;
 		try
 		{
 			InputStream stream = ClassLoader.getSystemClassLoader().getResourceAsStream( AWS_PROPERTIES_FILE ); 
-			aws.load( stream );			
-			this._s3Client = new S3Transport( aws.getProperty( AWS_ACCESS_KEY_PROPERTY ), aws.getProperty( AWS_SECRET_KEY_PROPERTY ) );
+			if( stream != null || endpoint == null )
+				aws.load( stream );
+			String accessKey = aws.getProperty( AWS_ACCESS_KEY_PROPERTY, "rain" );
+			String secretKey = aws.getProperty( AWS_SECRET_KEY_PROPERTY, "rain" );
+			if( endpoint != null )
+			{
+				int colon = endpoint.lastIndexOf( ':' );
+				this._s3Client = new S3Transport( accessKey, secretKey, endpoint.substring( 0, colon ), Integer.parseInt( endpoint.substring( colon + 1 ) ) );
+			}
+			else this._s3Client = new S3Transport( accessKey, secretKey );
 		}
 		catch( Exception e )
 		{
 			throw new JSONException( "Error initializing S3Transport. Make sure the properties file: " + AWS_PROPERTIES_FILE + " is on the classpath!" );
 		}
 		
+		this._getStats = TransferStats.retain( "S3 " + S3GetOperation.NAME );
+		this._putStats = TransferStats.retain( "S3 " + S3PutOperation.NAME );
+		
 		if( config.has( CFG_OBJECT_KEYS ) )
 		{
 			// Copy the object key hierarchy information from the JSON array
@@ -184,7 +228,7 @@ public class S3Generator extends Generator
 			{
 				bucketVal = val;
 				bucket.append( this._objectKeyPrefixes.get( i ) );
-				bucket.append( this._formatter.format( bucketVal ) );
+				bucket.append( this._keyEncoder.toString( bucketVal ) );
 				nextRequest.bucket = bucket.toString();
 			}
 			else 
@@ -196,7 +240,7 @@ public class S3Generator extends Generator
 				
 				key.append( this._objectKeyPrefixes.get( i ) );
 				// Add the suffix - the formatted random number we generated
-				key.append( this._formatter.format( val + offset ) );
+				key.append( this._keyEncoder.toString( val + offset ) );
 				if( i+1 < this._objectKeys.length )
 					key.append( DEFAULT_LEVEL_SEPARATOR );
 			}
@@ -216,6 +260,8 @@ public class S3Generator extends Generator
 				break;
 		}
 		nextRequest.op = i;
+		nextRequest.partSize = s3Profile.getPartSize();
+		nextRequest.partConcurrency = s3Profile.getPartConcurrency();
 		
 		// If we're writing then we need to set the size
 		if( nextRequest.op == PUT )
@@ -239,7 +285,7 @@ public class S3Generator extends Generator
 				StringBuffer buf = new StringBuffer();
 				int val = this._random.nextInt( this._objectKeys[0] );
 				buf.append( this._objectKeyPrefixes.get( 0 ) );
-				buf.append( this._formatter.format( val ) );
+				buf.append( this._keyEncoder.toString( val ) );
 				newBucket = buf.toString();
 			}
 			// Keep the same name, just change the bucket
@@ -258,7 +304,7 @@ public class S3Generator extends Generator
 					int val = this._random.nextInt( this._objectKeys[j] );
 					buf.append( this._objectKeyPrefixes.get( j ) );
 					// Add the suffix - the formatted random number we generated
-					buf.append( this._formatter.format( val ) );
+					buf.append( this._keyEncoder.toString( val ) );
 					if( j+1 < this._objectKeys.length )
 						buf.append( DEFAULT_LEVEL_SEPARATOR );
 				}
@@ -277,6 +323,61 @@ public class S3Generator extends Generator
 		return this.getS3Operation( nextRequest );
 	}
 	
+	/**
+	 * Records the last request's operation, bucket/key names (including the
+	 * targets of moves and renames) and object size; values are regenerated
+	 * on replay since only their size matters to the target. The part size
+	 * and concurrency of GETs and PUTs come last.
+	 */
+	public void writeLastRequest( DataOutput out ) throws IOException
+	{
+		S3Request<String> request = this._lastRequest;
+		out.writeByte( request.op );
+		writeNullableString( out, request.bucket );
+		writeNullableString( out, request.key );
+		writeNullableString( out, request.newBucket );
+		writeNullableString( out, request.newKey );
+		out.writeInt( request.size );
+		if( request.op == GET || request.op == PUT )
+		{
+			out.writeInt( request.partSize );
+			out.writeShort( request.partConcurrency );
+		}
+	}
+	
+	public Operation replayRequest( int operationIndex, DataInput in ) throws IOException
+	{
+		this._latestLoadProfile = this.getTrack().getCurrentLoadProfile();
+		
+		S3Request<String> request = new S3Request<String>();
+		request.op = in.readByte();
+		request.bucket = readNullableString( in );
+		request.key = readNullableString( in );
+		request.newBucket = readNullableString( in );
+		request.newKey = readNullableString( in );
+		request.size = in.readInt();
+		if( request.op == GET || request.op == PUT )
+		{
+			request.partSize = in.readInt();
+			request.partConcurrency = in.readShort();
+		}
+		
+		this._lastRequest = request;
+		return this.getS3Operation( request );
+	}
+	
+	private static void writeNullableString( DataOutput out, String value ) throws IOException
+	{
+		out.writeBoolean( value != null );
+		if( value != null )
+			out.writeUTF( value );
+	}
+	
+	private static String readNullableString( DataInput in ) throws IOException
+	{
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+	
 	private S3Operation getS3Operation( S3Request<String> request )
 	{
 		//if( true )
@@ -321,11 +422,20 @@ public class S3Generator extends Generator
 		// Set the specific fields
 		op._bucket = request.bucket;
 		op._key = request.key;
+		setParts( op, request );
 		
 		op.prepare( this );
 		return op;
 	}
 	
+	private static void setParts( S3Operation op, S3Request<String> request )
+	{
+		if( request.partSize > 0 )
+			op._partSize = request.partSize;
+		if( request.partConcurrency > 0 )
+			op._partConcurrency = request.partConcurrency;
+	}
+	
 	public S3PutOperation createPutOperation( S3Request<String> request )
 	{
 		S3PutOperation op = null;
@@ -343,17 +453,14 @@ public class S3Generator extends Generator
 		op._bucket = request.bucket;
 		op._key = request.key;
 		
-		// Check whether a value has been pre-set, if not then fill in random bytes
+		// Check whether a value has been pre-set, if not then send a view of the payload slab (no copy)
 		if( request.value == null )
 		{
-			if( request.size < Integer.MAX_VALUE )
-			{
-				op._value = new byte[request.size];
-			}
-			else op._value = new byte[DEFAULT_OBJECT_SIZE];
-			this._random.nextBytes( op._value );
+			int size = ( request.size < Integer.MAX_VALUE ) ? request.size : DEFAULT_OBJECT_SIZE;
+			op._value = this._payloads.nextView( this._random, size );
 		}
-		else op._value = request.value;
+		else op._value = ByteBuffer.wrap( request.value );
+		setParts( op, request );
 		
 		op.prepare( this );
 		return op;
@@ -1,16 +1,16 @@
 package radlab.rain.workload.s3;
 
-import java.io.IOException;
-import java.io.InputStream;
-
 import org.jets3t.service.model.S3Object;
 
 import radlab.rain.IScoreboard;
+import radlab.rain.util.storage.TransferStats;
 
 public class S3GetOperation extends S3Operation 
 {
 	public static String NAME = "Get";
 	
+	private byte[] _buf = new byte[S3Transport.BUF_SIZE];
+	
 	public S3GetOperation(boolean interactive, IScoreboard scoreboard) 
 	{
 		super(interactive, scoreboard);
@@ -21,35 +21,21 @@ public class S3GetOperation extends S3Operation
 	@Override
 	public void execute() throws Throwable
 	{
-		S3Object object = this.doGet( this._bucket, this._key );
-		byte[] buf = new byte[BUF_SIZE];
+		TransferStats stats = this.getGenerator().getGetStats();
+		long start = System.nanoTime();
+		long totalBytesRead = 0;
 		
-		InputStream input = object.getDataInputStream();
-		try
-		{
-			int bytesRead = 0;
-			int totalBytesRead = 0;
-			
-			while( ( bytesRead = input.read( buf ) ) != -1 )
-			{
-				totalBytesRead += bytesRead;
-				bytesRead = input.read( buf );
-				if( bytesRead != -1)
-					totalBytesRead += bytesRead;
-			}
-			
-			// Append the bytes read to the operation name
-			this._operationName = NAME + "_" + totalBytesRead;
-		}
-		catch( IOException ioe )
+		if( this._partConcurrency > 1 )
+			totalBytesRead = this.doRangedGet( this._bucket, this._key, this._partSize, this._partConcurrency, stats );
+		else
 		{
-			throw ioe;
-		}
-		finally
-		{
-			if( input != null )
-				input.close();
+			S3Object object = this.doGet( this._bucket, this._key );
+			totalBytesRead = S3Transport.drain( object.getDataInputStream(), this._buf );
 		}
+		stats.recordObject( totalBytesRead, System.nanoTime() - start );
+		
+		// Append the bytes read to the operation name
+		this._operationName = NAME + "_" + totalBytesRead;
 		this.setFailed( false );
 	}
 }
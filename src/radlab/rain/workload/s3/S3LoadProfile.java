@@ -24,6 +24,12 @@ public class S3LoadProfile extends LoadProfile
 	public static String CFG_LOAD_PROFILE_RENAME_PCT_KEY			= "renamePct";
 	public static String CFG_LOAD_PROFILE_MOVE_PCT_KEY 				= "movePct";
 	
+	// Objects larger than a part move as parts (multipart PUTs, ranged GETs) when more than one may be in flight
+	public static String CFG_LOAD_PROFILE_PART_SIZE_KEY				= "partSize";
+	public static String CFG_LOAD_PROFILE_PART_CONCURRENCY_KEY		= "partConcurrency";
+	
+	public static int DEFAULT_PART_SIZE								= 8 * 1024 * 1024;
+	
 	public int[] _sizes					= { 4096 };
 	public double[] _sizeMix			= { 1.0 };
 	
@@ -40,6 +46,9 @@ public class S3LoadProfile extends LoadProfile
 	protected double _renamePct			= 0.0;
 	protected double _movePct			= 0.0;
 	
+	protected int _partSize				= DEFAULT_PART_SIZE;
+	protected int _partConcurrency		= 1; // One stream per object
+	
 	public double[] _opselect 	= new double[S3Generator.MAX_OPERATIONS];
 	
 	public S3LoadProfile(JSONObject profileObj) throws JSONException 
@@ -103,6 +112,16 @@ public class S3LoadProfile extends LoadProfile
 		if( profileObj.has( CFG_LOAD_PROFILE_MOVE_PCT_KEY) )
 			this._movePct = profileObj.getDouble( CFG_LOAD_PROFILE_MOVE_PCT_KEY );
 		
+		if( profileObj.has( CFG_LOAD_PROFILE_PART_SIZE_KEY ) )
+			this._partSize = profileObj.getInt( CFG_LOAD_PROFILE_PART_SIZE_KEY );
+		if( profileObj.has( CFG_LOAD_PROFILE_PART_CONCURRENCY_KEY ) )
+			this._partConcurrency = profileObj.getInt( CFG_LOAD_PROFILE_PART_CONCURRENCY_KEY );
+		
+		if( this._partSize < 1 || this._partConcurrency < 1 )
+			throw new JSONException( "Part size and part concurrency must be at least 1: " + this._partSize + ", " + this._partConcurrency );
+		if( this._partConcurrency > 1 && this._partSize < S3Transport.MIN_PART_SIZE )
+			System.out.println( "[S3] Warning: part size " + this._partSize + " is below the S3 minimum of " + S3Transport.MIN_PART_SIZE + " bytes, multipart uploads to S3 itself will fail" );
+		
 		double sum = this._readPct + this._writePct + this._headPct + this._deletePct + this._createBucketPct + this._listBucketPct + this._deleteBucketPct + this._listAllBucketsPct + this._renamePct + this._movePct;
 		
 		this._readPct /= sum;
@@ -133,6 +152,12 @@ public class S3LoadProfile extends LoadProfile
 		this._opselect[S3Generator.MOVE] = this._opselect[S3Generator.RENAME] + this._movePct;
 	}
 
+	public int getPartSize() { return this._partSize; }
+	public void setPartSize( int value ) { this._partSize = value; }
+	
+	public int getPartConcurrency() { return this._partConcurrency; }
+	public void setPartConcurrency( int value ) { this._partConcurrency = value; }
+	
 	public S3LoadProfile(long interval, int numberOfUsers, String mixName) 
 	{
 		super(interval, numberOfUsers, mixName);
@@ -1,5 +1,6 @@
 package radlab.rain.workload.s3;
 
+import java.nio.ByteBuffer;
 import java.util.Map;
 
 import org.jets3t.service.model.S3Bucket;
@@ -9,6 +10,7 @@ import radlab.rain.Generator;
 import radlab.rain.IScoreboard;
 import radlab.rain.LoadProfile;
 import radlab.rain.Operation;
+import radlab.rain.util.storage.TransferStats;
 
 public abstract class S3Operation extends Operation 
 {
@@ -18,7 +20,9 @@ public abstract class S3Operation extends Operation
 	public String _key;
 	public String _newBucket; // To support moves
 	public String _newKey; // To support renames
-	public byte[] _value;
+	public ByteBuffer _value; // May be a view of a shared payload slab, never written to
+	public int _partSize = S3LoadProfile.DEFAULT_PART_SIZE;
+	public int _partConcurrency = 1;
 	protected S3Transport _s3Client = null;
 	
 	public S3Operation(boolean interactive, IScoreboard scoreboard) 
@@ -34,6 +38,8 @@ public abstract class S3Operation extends Operation
 		this._newBucket = "";
 		this._newKey = "";
 		this._value = null;
+		this._partSize = S3LoadProfile.DEFAULT_PART_SIZE;
+		this._partConcurrency = 1;
 	}
 
 	@Override
@@ -61,6 +67,30 @@ public abstract class S3Operation extends Operation
 		this._s3Client.putObject( bucketName, key, value );	
 	}
 	
+	public void doPut( String bucketName, String key, ByteBuffer value ) throws Throwable
+	{ 
+		this._s3Client.putObject( bucketName, key, value.array(), value.arrayOffset() + value.position(), value.remaining() );	
+	}
+	
+	// Uploads the value as concurrent parts if it's larger than a part and parts may overlap
+	public void doPut( String bucketName, String key, ByteBuffer value, int partSize, int concurrency, TransferStats stats ) throws Throwable
+	{
+		if( concurrency > 1 && value.remaining() > partSize )
+			this._s3Client.putObjectMultipart( bucketName, key, value.array(), value.arrayOffset() + value.position(), value.remaining(), partSize, concurrency, stats );
+		else this.doPut( bucketName, key, value );
+	}
+	
+	// Downloads the object as concurrent ranges, returning the bytes read
+	public long doRangedGet( String bucketName, String key, int partSize, int concurrency, TransferStats stats ) throws Throwable
+	{
+		return this._s3Client.getObjectRanged( bucketName, key, partSize, concurrency, stats );
+	}
+	
+	public S3Generator getGenerator()
+	{
+		return (S3Generator) this._generator;
+	}
+	
 	public void doDelete( String bucketName, String key ) throws Throwable
 	{ 
 		this._s3Client.deleteObject( bucketName, key ); 	
@@ -1,6 +1,7 @@
 package radlab.rain.workload.s3;
 
 import radlab.rain.IScoreboard;
+import radlab.rain.util.storage.TransferStats;
 
 public class S3PutOperation extends S3Operation 
 {
@@ -17,9 +18,13 @@ public class S3PutOperation extends S3Operation
 	public void execute() throws Throwable
 	{
 		// Append the bytes to write to the operation name
-		this._operationName = NAME + "_" + this._value.length;
+		int size = this._value.remaining();
+		this._operationName = NAME + "_" + size;
 		
-		this.doPut( this._bucket, this._key, this._value );
+		TransferStats stats = this.getGenerator().getPutStats();
+		long start = System.nanoTime();
+		this.doPut( this._bucket, this._key, this._value, this._partSize, this._partConcurrency, stats );
+		stats.recordObject( size, System.nanoTime() - start );
 		this.setFailed( false );
 	}
 }
@@ -9,6 +9,8 @@ public class S3Request<T>
 	public int op;
 	public int size;
 	public byte[] value;
+	public int partSize;
+	public int partConcurrency;
 	
 	@Override
 	public String toString()
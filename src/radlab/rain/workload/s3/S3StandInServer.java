@@ -0,0 +1,473 @@
+package radlab.rain.workload.s3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small in-memory server speaking enough of the S3 REST API (path-style,
+ * plain HTTP, no authentication) for the S3 workload's object operations:
+ * bucket creation, PUT/GET/HEAD/DELETE of objects, ranged GETs and
+ * multipart uploads (initiate, upload part, complete, abort). It lets the
+ * unit tests and the transfer benchmark run without AWS credentials; it is
+ * not meant to say anything about how fast S3 itself is. Point a generator
+ * at it with the "endpoint" parameter. Connections are kept alive and each
+ * is served by its own thread.
+ *
+ * Usage: S3StandInServer [port] (defaults to 9000)
+ */
+public class S3StandInServer implements Runnable
+{
+	public static final int DEFAULT_PORT	= 9000;
+	private static final String LAST_MODIFIED = "Thu, 01 Jan 2015 00:00:00 GMT";
+
+	private ServerSocket _serverSocket		= null;
+	private Thread _acceptThread			= null;
+	private volatile boolean _done			= false;
+	private ArrayList<Socket> _connections	= new ArrayList<Socket>();
+	// Objects by "bucket/key"; multipart uploads by id, their parts by number
+	private ConcurrentHashMap<String,byte[]> _objects = new ConcurrentHashMap<String,byte[]>();
+	private ConcurrentHashMap<String,Boolean> _buckets = new ConcurrentHashMap<String,Boolean>();
+	private ConcurrentHashMap<String,TreeMap<Integer,byte[]>> _uploads = new ConcurrentHashMap<String,TreeMap<Integer,byte[]>>();
+	private AtomicInteger _nextUploadId		= new AtomicInteger();
+	private AtomicInteger _rangedGets		= new AtomicInteger();
+	private AtomicInteger _partsUploaded	= new AtomicInteger();
+
+	/** Listens on the given port (0 picks a free one) of all interfaces. */
+	public S3StandInServer( int port ) throws IOException
+	{
+		this._serverSocket = new ServerSocket( port );
+	}
+
+	public int getPort() { return this._serverSocket.getLocalPort(); }
+	public int size() { return this._objects.size(); }
+	public byte[] getObject( String bucket, String key ) { return this._objects.get( bucket + "/" + key ); }
+	/** Ranged GETs served so far. */
+	public int getRangedGets() { return this._rangedGets.get(); }
+	/** Multipart parts received so far. */
+	public int getPartsUploaded() { return this._partsUploaded.get(); }
+	/** Multipart uploads started but neither completed nor aborted. */
+	public int getOpenUploads() { return this._uploads.size(); }
+
+	public void start()
+	{
+		this._acceptThread = new Thread( this, "S3StandIn-" + this.getPort() );
+		this._acceptThread.setDaemon( true );
+		this._acceptThread.start();
+	}
+
+	public void stop()
+	{
+		this._done = true;
+		try
+		{
+			this._serverSocket.close();
+			synchronized( this._connections )
+			{
+				for( Socket socket : this._connections )
+					socket.close();
+				this._connections.clear();
+			}
+		}
+		catch( IOException ioe )
+		{
+			// We're shutting down anyway
+		}
+	}
+
+	public void run()
+	{
+		while( !this._done )
+		{
+			try
+			{
+				final Socket socket = this._serverSocket.accept();
+				socket.setTcpNoDelay( true );
+				synchronized( this._connections )
+				{
+					this._connections.add( socket );
+				}
+
+				Thread connection = new Thread( new Runnable()
+				{
+					public void run()
+					{
+						serve( socket );
+					}
+				}, "S3StandIn-" + this.getPort() + "-" + socket.getPort() );
+				connection.setDaemon( true );
+				connection.start();
+			}
+			catch( IOException ioe )
+			{
+				if( !this._done )
+					System.out.println( "[S3 STAND-IN] Error accepting connection: " + ioe.toString() );
+			}
+		}
+	}
+
+	private void serve( Socket socket )
+	{
+		try
+		{
+			InputStream in = new BufferedInputStream( socket.getInputStream(), 65536 );
+			OutputStream out = new BufferedOutputStream( socket.getOutputStream(), 65536 );
+			while( true )
+			{
+				Exchange exchange = Exchange.read( in, out );
+				if( exchange == null )
+					break;
+
+				try
+				{
+					this.serve( exchange );
+				}
+				catch( Exception e )
+				{
+					System.out.println( "[S3 STAND-IN] Error serving " + exchange.method + " " + exchange.path + ": " + e.toString() );
+					sendError( exchange, 500, "InternalError", e.toString() );
+				}
+				out.flush();
+				if( exchange.close )
+					break;
+			}
+		}
+		catch( SocketException se )
+		{
+			// Client went away
+		}
+		catch( IOException ioe )
+		{
+			if( !this._done )
+				System.out.println( "[S3 STAND-IN] Error serving connection: " + ioe.toString() );
+		}
+		finally
+		{
+			try
+			{
+				socket.close();
+			}
+			catch( IOException ioe )
+			{}
+			synchronized( this._connections )
+			{
+				this._connections.remove( socket );
+			}
+		}
+	}
+
+	private void serve( Exchange exchange ) throws IOException
+	{
+		String method = exchange.method;
+		String path = exchange.path;
+		Map<String,String> query = parseQuery( exchange.query );
+
+		// Path-style: /<bucket>[/<key>]
+		String name = path.startsWith( "/" ) ? path.substring( 1 ) : path;
+		int slash = name.indexOf( '/' );
+		String bucket = ( slash < 0 ) ? name : name.substring( 0, slash );
+		String key = ( slash < 0 ) ? "" : name.substring( slash + 1 );
+
+		if( bucket.length() == 0 )
+		{
+			sendError( exchange, 501, "NotImplemented", "Listing buckets is not supported" );
+			return;
+		}
+		if( key.length() == 0 )
+		{
+			if( method.equals( "PUT" ) )
+			{
+				this._buckets.put( bucket, Boolean.TRUE );
+				send( exchange, 200, null, null );
+			}
+			else if( method.equals( "DELETE" ) )
+			{
+				this._buckets.remove( bucket );
+				send( exchange, 204, null, null );
+			}
+			else sendError( exchange, 501, "NotImplemented", method + " on a bucket is not supported" );
+			return;
+		}
+
+		String objectName = bucket + "/" + key;
+		String uploadId = query.get( "uploadId" );
+		if( method.equals( "POST" ) && query.containsKey( "uploads" ) )
+		{
+			String id = "upload-" + this._nextUploadId.incrementAndGet();
+			this._uploads.put( id, new TreeMap<Integer,byte[]>() );
+			String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<InitiateMultipartUploadResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\"><Bucket>"
+				+ bucket + "</Bucket><Key>" + escape( key ) + "</Key><UploadId>" + id + "</UploadId></InitiateMultipartUploadResult>";
+			sendXml( exchange, 200, xml );
+		}
+		else if( uploadId != null )
+		{
+			TreeMap<Integer,byte[]> parts = this._uploads.get( uploadId );
+			if( parts == null )
+				sendError( exchange, 404, "NoSuchUpload", "No such upload: " + uploadId );
+			else if( method.equals( "PUT" ) )
+			{
+				byte[] part = exchange.body;
+				synchronized( parts )
+				{
+					parts.put( Integer.parseInt( query.get( "partNumber" ) ), part );
+				}
+				this._partsUploaded.incrementAndGet();
+				exchange.setHeader( "ETag", etag( part ) );
+				send( exchange, 200, null, null );
+			}
+			else if( method.equals( "POST" ) )
+			{
+				// The parts list in the body must match what we have; we assemble in part number order
+				ByteArrayOutputStream object = new ByteArrayOutputStream();
+				synchronized( parts )
+				{
+					for( byte[] part : parts.values() )
+						object.write( part );
+				}
+				byte[] value = object.toByteArray();
+				this._objects.put( objectName, value );
+				this._uploads.remove( uploadId );
+				String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<CompleteMultipartUploadResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\"><Location>http://localhost/"
+					+ escape( objectName ) + "</Location><Bucket>" + bucket + "</Bucket><Key>" + escape( key ) + "</Key><ETag>" + escape( etag( value ) ) + "</ETag></CompleteMultipartUploadResult>";
+				sendXml( exchange, 200, xml );
+			}
+			else if( method.equals( "DELETE" ) )
+			{
+				this._uploads.remove( uploadId );
+				send( exchange, 204, null, null );
+			}
+			else sendError( exchange, 501, "NotImplemented", method + " on an upload is not supported" );
+		}
+		else if( method.equals( "PUT" ) )
+		{
+			byte[] value = exchange.body;
+			this._objects.put( objectName, value );
+			exchange.setHeader( "ETag", etag( value ) );
+			send( exchange, 200, null, null );
+		}
+		else if( method.equals( "GET" ) || method.equals( "HEAD" ) )
+		{
+			byte[] value = this._objects.get( objectName );
+			if( value == null )
+			{
+				sendError( exchange, 404, "NoSuchKey", "The specified key does not exist." );
+				return;
+			}
+
+			exchange.setHeader( "Content-Type", "application/binary" );
+			exchange.setHeader( "ETag", etag( value ) );
+			if( method.equals( "HEAD" ) )
+			{
+				// No body, but the length of the one a GET would send
+				exchange.sendHeaders( 200, value.length );
+				return;
+			}
+
+			String range = exchange.requestHeaders.get( "range" );
+			if( range != null && range.startsWith( "bytes=" ) )
+			{
+				// Only the single "bytes=<start>-[<end>]" form
+				String[] bounds = range.substring( "bytes=".length() ).split( "-", -1 );
+				int start = Integer.parseInt( bounds[0].trim() );
+				int end = ( bounds[1].trim().length() > 0 ) ? Math.min( Integer.parseInt( bounds[1].trim() ), value.length - 1 ) : value.length - 1;
+				if( start >= value.length )
+				{
+					exchange.setHeader( "Content-Range", "bytes */" + value.length );
+					sendError( exchange, 416, "InvalidRange", "The requested range is not satisfiable" );
+					return;
+				}
+				this._rangedGets.incrementAndGet();
+				exchange.setHeader( "Content-Range", "bytes " + start + "-" + end + "/" + value.length );
+				send( exchange, 206, value, new int[] { start, end - start + 1 } );
+			}
+			else send( exchange, 200, value, null );
+		}
+		else if( method.equals( "DELETE" ) )
+		{
+			this._objects.remove( objectName );
+			send( exchange, 204, null, null );
+		}
+		else sendError( exchange, 501, "NotImplemented", method + " on an object is not supported" );
+	}
+
+	private static Map<String,String> parseQuery( String query )
+	{
+		TreeMap<String,String> params = new TreeMap<String,String>();
+		if( query == null )
+			return params;
+		for( String param : query.split( "&" ) )
+		{
+			int equals = param.indexOf( '=' );
+			if( equals < 0 )
+				params.put( param, "" );
+			else params.put( param.substring( 0, equals ), param.substring( equals + 1 ) );
+		}
+		return params;
+	}
+
+	// Sends the whole value, or range[1] bytes of it from range[0]
+	private static void send( Exchange exchange, int status, byte[] value, int[] range ) throws IOException
+	{
+		int offset = ( range != null ) ? range[0] : 0;
+		int length = ( value == null ) ? 0 : ( range != null ) ? range[1] : value.length;
+		exchange.sendHeaders( status, length );
+		if( value != null && !exchange.method.equals( "HEAD" ) )
+			exchange.out.write( value, offset, length );
+	}
+
+	private static void sendXml( Exchange exchange, int status, String xml ) throws IOException
+	{
+		exchange.setHeader( "Content-Type", "application/xml" );
+		send( exchange, status, xml.getBytes( "UTF-8" ), null );
+	}
+
+	private static void sendError( Exchange exchange, int status, String code, String message ) throws IOException
+	{
+		sendXml( exchange, status, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Error><Code>" + code + "</Code><Message>" + escape( message ) + "</Message></Error>" );
+	}
+
+	private static String escape( String text )
+	{
+		return text.replace( "&", "&amp;" ).replace( "<", "&lt;" ).replace( ">", "&gt;" ).replace( "\"", "&quot;" );
+	}
+
+	private static String etag( byte[] value )
+	{
+		try
+		{
+			byte[] digest = MessageDigest.getInstance( "MD5" ).digest( value );
+			StringBuffer buf = new StringBuffer( "\"" );
+			for( byte b : digest )
+				buf.append( String.format( "%02x", b & 0xff ) );
+			return buf.append( "\"" ).toString();
+		}
+		catch( NoSuchAlgorithmException nsae )
+		{
+			return "\"0\"";
+		}
+	}
+
+	// One HTTP/1.1 request and its response
+	private static class Exchange
+	{
+		String method;
+		String path;
+		String query;
+		Map<String,String> requestHeaders = new TreeMap<String,String>(); // Lower-case names
+		byte[] body;
+		boolean close = false;
+		OutputStream out;
+		// Names are sent as given: clients such as jets3t look for "ETag", not "Etag"
+		LinkedHashMap<String,String> responseHeaders = new LinkedHashMap<String,String>();
+
+		// Reads the next request; returns null at end of stream
+		static Exchange read( InputStream in, OutputStream out ) throws IOException
+		{
+			String requestLine = readLine( in );
+			while( requestLine != null && requestLine.length() == 0 )
+				requestLine = readLine( in );
+			if( requestLine == null )
+				return null;
+
+			Exchange exchange = new Exchange();
+			exchange.out = out;
+			String[] parts = requestLine.split( " " );
+			if( parts.length < 3 )
+				throw new IOException( "Bad request line: " + requestLine );
+			exchange.method = parts[0];
+			String target = parts[1];
+			int question = target.indexOf( '?' );
+			exchange.path = URLDecoder.decode( ( question < 0 ) ? target : target.substring( 0, question ), "UTF-8" );
+			exchange.query = ( question < 0 ) ? null : target.substring( question + 1 );
+
+			String line;
+			while( ( line = readLine( in ) ) != null && line.length() > 0 )
+			{
+				int colon = line.indexOf( ':' );
+				if( colon > 0 )
+					exchange.requestHeaders.put( line.substring( 0, colon ).trim().toLowerCase(), line.substring( colon + 1 ).trim() );
+			}
+			exchange.close = "close".equalsIgnoreCase( exchange.requestHeaders.get( "connection" ) ) || parts[2].equals( "HTTP/1.0" );
+
+			if( "100-continue".equalsIgnoreCase( exchange.requestHeaders.get( "expect" ) ) )
+			{
+				out.write( "HTTP/1.1 100 Continue\r\n\r\n".getBytes( "ISO-8859-1" ) );
+				out.flush();
+			}
+
+			String contentLength = exchange.requestHeaders.get( "content-length" );
+			exchange.body = new byte[( contentLength != null ) ? Integer.parseInt( contentLength ) : 0];
+			int read = 0;
+			while( read < exchange.body.length )
+			{
+				int n = in.read( exchange.body, read, exchange.body.length - read );
+				if( n == -1 )
+					throw new EOFException();
+				read += n;
+			}
+			return exchange;
+		}
+
+		private static String readLine( InputStream in ) throws IOException
+		{
+			StringBuffer line = new StringBuffer();
+			int c;
+			while( ( c = in.read() ) != '\n' )
+			{
+				if( c == -1 )
+					return ( line.length() > 0 ) ? line.toString() : null;
+				if( c != '\r' )
+					line.append( (char) c );
+			}
+			return line.toString();
+		}
+
+		void setHeader( String name, String value )
+		{
+			this.responseHeaders.put( name, value );
+		}
+
+		void sendHeaders( int status, long contentLength ) throws IOException
+		{
+			StringBuffer head = new StringBuffer();
+			head.append( "HTTP/1.1 " ).append( status ).append( status < 300 ? " OK" : " Error" ).append( "\r\n" );
+			head.append( "Server: RainS3StandIn\r\n" );
+			head.append( "x-amz-request-id: 0\r\n" );
+			// jets3t wants these on part uploads too
+			head.append( "Date: " ).append( LAST_MODIFIED ).append( "\r\n" );
+			head.append( "Last-Modified: " ).append( LAST_MODIFIED ).append( "\r\n" );
+			for( Map.Entry<String,String> header : this.responseHeaders.entrySet() )
+				head.append( header.getKey() ).append( ": " ).append( header.getValue() ).append( "\r\n" );
+			if( status != 204 )
+				head.append( "Content-Length: " ).append( contentLength ).append( "\r\n" );
+			if( this.close )
+				head.append( "Connection: close\r\n" );
+			head.append( "\r\n" );
+			this.out.write( head.toString().getBytes( "ISO-8859-1" ) );
+		}
+	}
+
+	public static void main( String[] args ) throws Exception
+	{
+		int port = ( args.length > 0 ) ? Integer.parseInt( args[0] ) : DEFAULT_PORT;
+		S3StandInServer server = new S3StandInServer( port );
+		System.out.println( "[S3 STAND-IN] Listening on port " + server.getPort() );
+		server.run();
+	}
+}
@@ -3,31 +3,87 @@ package radlab.rain.workload.s3;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpConnectionManager;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.jets3t.service.Constants;
 import org.jets3t.service.S3Service;
 import org.jets3t.service.S3ServiceException;
+import org.jets3t.service.Jets3tProperties;
 import org.jets3t.service.ServiceException;
+import org.jets3t.service.impl.rest.XmlResponsesSaxParser;
 import org.jets3t.service.impl.rest.httpclient.RestS3Service;
+import org.jets3t.service.model.MultipartCompleted;
+import org.jets3t.service.model.MultipartPart;
+import org.jets3t.service.model.MultipartUpload;
 import org.jets3t.service.model.S3Bucket;
 import org.jets3t.service.model.S3Object;
 import org.jets3t.service.security.AWSCredentials;
 
+import radlab.rain.util.storage.TransferStats;
+
 public class S3Transport 
 {
+	// S3 rejects parts smaller than this (except the last one)
+	public static final int MIN_PART_SIZE	= 5 * 1024 * 1024;
+	public static int BUF_SIZE				= 64 * 1024;
+	
 	private String _awsAccessKey 	= null;
 	private String _awsSecretKey 	= null;
 	private S3Service _s3 			= null;
+	// Moves the parts of multipart uploads and ranged downloads; grows to the largest concurrency asked for
+	private ThreadPoolExecutor _partPool	= null;
 		
 	public S3Transport( String awsAccessKey, String awsSecretKey ) throws S3ServiceException 
 	{
 		this._awsAccessKey = awsAccessKey;
 		this._awsSecretKey = awsSecretKey;
 		AWSCredentials credentials = new AWSCredentials( this._awsAccessKey, this._awsSecretKey );
-		this._s3 = new RestS3Service( credentials );
+		this._s3 = new MultipartS3Service( credentials, Jets3tProperties.getInstance( Constants.JETS3T_PROPERTIES_FILENAME ) );
+	}
+	
+	/**
+	 * Talks plain HTTP to an S3-compatible endpoint (e.g. a local stand-in
+	 * or a private object store) with path-style bucket names.
+	 */
+	public S3Transport( String awsAccessKey, String awsSecretKey, String endpointHost, int endpointPort ) throws S3ServiceException 
+	{
+		this._awsAccessKey = awsAccessKey;
+		this._awsSecretKey = awsSecretKey;
+		AWSCredentials credentials = new AWSCredentials( this._awsAccessKey, this._awsSecretKey );
+		Jets3tProperties properties = new Jets3tProperties();
+		properties.setProperty( "s3service.s3-endpoint", endpointHost );
+		properties.setProperty( "s3service.s3-endpoint-http-port", String.valueOf( endpointPort ) );
+		properties.setProperty( "s3service.https-only", "false" );
+		properties.setProperty( "s3service.disable-dns-buckets", "true" );
+		this._s3 = new MultipartS3Service( credentials, properties );
+	}
+	
+	public synchronized void dispose()
+	{
+		if( this._partPool != null )
+		{
+			this._partPool.shutdownNow();
+			this._partPool = null;
+		}
 	}
 	
 	public S3Service getS3Client()
@@ -75,15 +131,316 @@ public class S3Transport
 	}
 	
 	public S3Object putObject( String bucketName, String key, byte[] value ) throws S3ServiceException
+	{
+		return this.putObject( bucketName, key, value, 0, value.length );
+	}
+	
+	// Sends a window of a (possibly shared) array without copying it
+	public S3Object putObject( String bucketName, String key, byte[] value, int offset, int length ) throws S3ServiceException
 	{
 		S3Object obj = new S3Object( key );
-		ByteArrayInputStream input = new ByteArrayInputStream( value );
+		ByteArrayInputStream input = new ByteArrayInputStream( value, offset, length );
 		obj.setDataInputStream( input );
-		obj.setContentLength( value.length );
+		obj.setContentLength( length );
 		obj.setContentType( "application/binary" );
 		return this._s3.putObject( bucketName, obj );
 	}
 	
+	/**
+	 * Uploads a window of a (possibly shared) array as a multipart upload,
+	 * with up to concurrency parts of partSize bytes in flight at once. Each
+	 * part's latency goes to stats (if not null). If any part fails the
+	 * upload is aborted and the failure rethrown.
+	 */
+	public void putObjectMultipart( String bucketName, String key, final byte[] value, final int offset, final int length, final int partSize, int concurrency, final TransferStats stats ) throws Exception
+	{
+		final MultipartUpload upload = this._s3.multipartStartUpload( bucketName, new S3Object( key ) );
+		final int partCount = Math.max( 1, ( length + partSize - 1 ) / partSize );
+		final List<MultipartPart> parts = Collections.synchronizedList( new ArrayList<MultipartPart>( partCount ) );
+		try
+		{
+			this.runParts( partCount, concurrency, new PartTask()
+			{
+				public void run( int part ) throws Exception
+				{
+					int partOffset = part * partSize;
+					int partLength = Math.min( partSize, length - partOffset );
+					S3Object obj = new S3Object( upload.getObjectKey() );
+					obj.setDataInputStream( new ByteArrayInputStream( value, offset + partOffset, partLength ) );
+					obj.setContentLength( partLength );
+					obj.setContentType( "application/binary" );
+					
+					long start = System.nanoTime();
+					// Part numbers start at 1
+					parts.add( _s3.multipartUploadPart( upload, part + 1, obj ) );
+					if( stats != null )
+						stats.recordPart( System.nanoTime() - start );
+				}
+			} );
+			
+			ArrayList<MultipartPart> sortedParts = new ArrayList<MultipartPart>( parts );
+			Collections.sort( sortedParts, new Comparator<MultipartPart>()
+			{
+				public int compare( MultipartPart a, MultipartPart b )
+				{
+					return a.getPartNumber().compareTo( b.getPartNumber() );
+				}
+			} );
+			this._s3.multipartCompleteUpload( upload, sortedParts );
+		}
+		catch( Exception e )
+		{
+			try
+			{
+				this._s3.multipartAbortUpload( upload );
+			}
+			catch( Exception ae )
+			{ /* Report the original failure */ }
+			throw e;
+		}
+	}
+	
+	/**
+	 * Downloads an object as ranged GETs of partSize bytes, with up to
+	 * concurrency ranges in flight at once. The first range is fetched on its
+	 * own and tells us the object's length, so small objects cost a single
+	 * request. Bytes are read and dropped, like a streaming consumer would;
+	 * returns the number of bytes read. Each range's latency goes to stats
+	 * (if not null).
+	 */
+	public long getObjectRanged( final String bucketName, final String key, final int partSize, int concurrency, final TransferStats stats ) throws Exception
+	{
+		long start = System.nanoTime();
+		S3Object first = this._s3.getObject( bucketName, key, null, null, null, null, Long.valueOf( 0 ), Long.valueOf( partSize - 1 ) );
+		long firstBytes = drain( first.getDataInputStream(), getPartBuffer() );
+		if( stats != null )
+			stats.recordPart( System.nanoTime() - start );
+		
+		long objectLength = getObjectLength( first );
+		if( objectLength < 0 )
+			objectLength = this.headObject( bucketName, key ).getContentLength();
+		if( objectLength <= partSize )
+			return firstBytes;
+		
+		final long length = objectLength;
+		final AtomicLong bytesRead = new AtomicLong( firstBytes );
+		int partCount = (int) ( ( length + partSize - 1 ) / partSize );
+		this.runParts( partCount - 1, concurrency, new PartTask()
+		{
+			public void run( int part ) throws Exception
+			{
+				// The first range is done already
+				long rangeStart = (long) ( part + 1 ) * partSize;
+				long rangeEnd = Math.min( rangeStart + partSize, length ) - 1;
+				
+				long start = System.nanoTime();
+				S3Object range = _s3.getObject( bucketName, key, null, null, null, null, Long.valueOf( rangeStart ), Long.valueOf( rangeEnd ) );
+				bytesRead.addAndGet( drain( range.getDataInputStream(), getPartBuffer() ) );
+				if( stats != null )
+					stats.recordPart( System.nanoTime() - start );
+			}
+		} );
+		return bytesRead.get();
+	}
+	
+	// Reads a stream to the end, returning the byte count
+	public static long drain( InputStream input, byte[] buf ) throws IOException
+	{
+		long total = 0;
+		try
+		{
+			int bytesRead;
+			while( ( bytesRead = input.read( buf ) ) != -1 )
+				total += bytesRead;
+		}
+		finally
+		{
+			input.close();
+		}
+		return total;
+	}
+	
+	// The total length from a ranged response's Content-Range: bytes <start>-<end>/<total>, or -1
+	private static long getObjectLength( S3Object range )
+	{
+		for( Map.Entry<String, Object> header : range.getMetadataMap().entrySet() )
+		{
+			if( header.getKey().equalsIgnoreCase( "Content-Range" ) )
+			{
+				String value = String.valueOf( header.getValue() );
+				int slash = value.lastIndexOf( '/' );
+				if( slash >= 0 && !value.endsWith( "*" ) )
+					return Long.parseLong( value.substring( slash + 1 ).trim() );
+			}
+		}
+		return -1;
+	}
+	
+	private interface PartTask
+	{
+		void run( int part ) throws Exception;
+	}
+	
+	private static final ThreadLocal<byte[]> _partBuffers = new ThreadLocal<byte[]>()
+	{
+		@Override
+		protected byte[] initialValue()
+		{
+			return new byte[BUF_SIZE];
+		}
+	};
+	
+	private static byte[] getPartBuffer()
+	{
+		return _partBuffers.get();
+	}
+	
+	/**
+	 * Runs parts 0..partCount-1 with up to concurrency of them in flight: the
+	 * calling thread and concurrency - 1 pool threads each take the next
+	 * part until none are left. Stops handing out parts after the first
+	 * failure, waits for the parts in flight and rethrows it.
+	 */
+	private void runParts( final int partCount, int concurrency, final PartTask task ) throws Exception
+	{
+		final AtomicInteger nextPart = new AtomicInteger();
+		final AtomicInteger failed = new AtomicInteger();
+		Runnable worker = new Runnable()
+		{
+			public void run()
+			{
+				int part;
+				while( failed.get() == 0 && ( part = nextPart.getAndIncrement() ) < partCount )
+				{
+					try
+					{
+						task.run( part );
+					}
+					catch( Exception e )
+					{
+						failed.incrementAndGet();
+						throw new PartFailedException( e );
+					}
+				}
+			}
+		};
+		
+		int helpers = Math.min( concurrency, partCount ) - 1;
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>( helpers );
+		if( helpers > 0 )
+		{
+			ThreadPoolExecutor pool = this.getPartPool( helpers );
+			for( int i = 0; i < helpers; i++ )
+				futures.add( pool.submit( worker ) );
+		}
+		
+		Exception failure = null;
+		try
+		{
+			worker.run();
+		}
+		catch( PartFailedException pfe )
+		{
+			failure = (Exception) pfe.getCause();
+		}
+		for( Future<?> future : futures )
+		{
+			try
+			{
+				future.get();
+			}
+			catch( ExecutionException ee )
+			{
+				if( failure == null )
+					failure = ( ee.getCause() instanceof PartFailedException ) ? (Exception) ee.getCause().getCause() : ee;
+			}
+		}
+		if( failure != null )
+			throw failure;
+	}
+	
+	/**
+	 * jets3t builds the CompleteMultipartUpload request with java-xmlbuilder,
+	 * which we don't ship; this writes the (small, fixed) document by hand.
+	 */
+	private static class MultipartS3Service extends RestS3Service
+	{
+		public MultipartS3Service( AWSCredentials credentials, Jets3tProperties properties ) throws S3ServiceException
+		{
+			super( credentials, null, null, properties );
+		}
+		
+		@Override
+		protected MultipartCompleted multipartCompleteUploadImpl( String uploadId, String bucketName, String objectKey, List<MultipartPart> parts ) throws S3ServiceException
+		{
+			StringBuffer xml = new StringBuffer( "<CompleteMultipartUpload>" );
+			for( MultipartPart part : parts )
+				xml.append( "<Part><PartNumber>" ).append( part.getPartNumber() ).append( "</PartNumber><ETag>" ).append( part.getEtag() ).append( "</ETag></Part>" );
+			xml.append( "</CompleteMultipartUpload>" );
+			
+			HashMap<String,String> parameters = new HashMap<String,String>();
+			parameters.put( "uploadId", uploadId );
+			PostMethod post = null;
+			try
+			{
+				post = this.performRestPost( bucketName, objectKey, new HashMap<String,Object>(), parameters, new StringRequestEntity( xml.toString(), "text/plain", "UTF-8" ), false );
+				// S3 may report a failure in a 200 response's body
+				XmlResponsesSaxParser.CompleteMultipartUploadResultHandler handler = new XmlResponsesSaxParser( this.getJetS3tProperties(), false ).parseCompleteMultipartUploadResult( post.getResponseBodyAsStream() );
+				if( handler.getServiceException() != null )
+					throw new S3ServiceException( handler.getServiceException() );
+				return handler.getMultipartCompleted();
+			}
+			catch( S3ServiceException se )
+			{
+				throw se;
+			}
+			catch( Exception e )
+			{
+				throw new S3ServiceException( e );
+			}
+			finally
+			{
+				if( post != null )
+					post.releaseConnection();
+			}
+		}
+	}
+	
+	private static class PartFailedException extends RuntimeException
+	{
+		private static final long serialVersionUID = 1L;
+		
+		public PartFailedException( Exception cause )
+		{
+			super( cause );
+		}
+	}
+	
+	private synchronized ThreadPoolExecutor getPartPool( int threads )
+	{
+		if( this._partPool == null )
+		{
+			this._partPool = new ThreadPoolExecutor( threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+			{
+				private int _count = 0;
+				
+				public Thread newThread( Runnable r )
+				{
+					Thread thread = new Thread( r, "S3Part-" + ( ++this._count ) );
+					thread.setDaemon( true );
+					return thread;
+				}
+			} );
+			this._partPool.allowCoreThreadTimeOut( true );
+		}
+		else if( this._partPool.getMaximumPoolSize() < threads )
+		{
+			this._partPool.setMaximumPoolSize( threads );
+			this._partPool.setCorePoolSize( threads );
+		}
+		return this._partPool;
+	}
+	
 	public S3Object putObject( String bucketName, File file ) throws NoSuchAlgorithmException, IOException, S3ServiceException
 	{
 		S3Object obj = new S3Object( file );
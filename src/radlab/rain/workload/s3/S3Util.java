@@ -1,8 +1,7 @@
 package radlab.rain.workload.s3;
 
 import java.io.InputStream;
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Properties;
 import java.util.Random;
@@ -10,6 +9,9 @@ import java.util.Random;
 import org.jets3t.service.model.S3Bucket;
 import org.jets3t.service.model.S3Object;
 
+import radlab.rain.util.storage.KeyEncoder;
+import radlab.rain.util.storage.PayloadSlab;
+
 public class S3Util 
 {
 
@@ -61,7 +63,8 @@ public class S3Util
 		System.out.println( "Loading: " + numBuckets + " bucket(s) with: " + keyCount + " key(s) of size: " + size + " bytes" );
 		
 		Random rnd = new Random();
-		NumberFormat formatter = new DecimalFormat( "00000" );
+		PayloadSlab payloads = PayloadSlab.getSharedSlab();
+		KeyEncoder formatter = new KeyEncoder( 5 );
 		HashMap<Integer,String> objectKeyPrefixes = new HashMap<Integer,String>();
 		objectKeyPrefixes.put( 0, S3Generator.DEFAULT_LEVEL1_PREFIX );
 		objectKeyPrefixes.put( 1, S3Generator.DEFAULT_LEVEL2_PREFIX );
@@ -76,7 +79,7 @@ public class S3Util
 			// Get the level 1 prefix
 			bucketName.append( objectKeyPrefixes.get( 0 ) );
 			// Add the suffix - the formatted random number we generated
-			bucketName.append( formatter.format( i ) );
+			bucketName.append( formatter.toString( i ) );
 						
 			// Create bucket
 			System.out.println( "Creating level1 bucket: " + bucketName.toString() );
@@ -90,13 +93,12 @@ public class S3Util
 				// Get the level2 prefix
 				level2.append( objectKeyPrefixes.get( 1 ) );
 				// Add the suffix - the formatted random number we generated
-				level2.append( formatter.format( (i * keysPerBucket) + j ) );
+				level2.append( formatter.toString( (i * keysPerBucket) + j ) );
 				
 				String key = level2.toString();
 				System.out.println( "Bucket: " + bucketName.toString() + " key: " + key );
-				byte[] value = new byte[size];
-				rnd.nextBytes( value );
-				S3Object obj = s3Client.putObject( bucketName.toString(), key, value );
+				ByteBuffer value = payloads.nextView( rnd, size );
+				S3Object obj = s3Client.putObject( bucketName.toString(), key, value.array(), value.arrayOffset(), value.remaining() );
 			}
 		}
 	}
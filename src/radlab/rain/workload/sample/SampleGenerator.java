@@ -68,7 +68,7 @@ public class SampleGenerator extends Generator
 	 */
 	public void initialize()
 	{
-		this._randomNumberGenerator = new java.util.Random();
+		this._randomNumberGenerator = this.getRandom();
 		this._http = new HttpTransport();
 	}
 	
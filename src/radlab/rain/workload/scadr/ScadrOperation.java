@@ -54,6 +54,7 @@ import radlab.rain.LoadProfile;
 import radlab.rain.IScoreboard;
 import radlab.rain.Operation;
 import radlab.rain.ScenarioTrack;
+import radlab.rain.util.AppServerStats;
 import radlab.rain.util.HttpTransport;
 
 import java.security.MessageDigest;
@@ -68,10 +69,10 @@ public abstract class ScadrOperation extends Operation
 	// These references will be set by the Generator.
 	protected HttpTransport _http;
 	protected HashSet<String> _cachedURLs = new HashSet<String>();
-	private Random _random = new Random();
+	private Random _random = null;
 	// Keep track of where this operation is supposed to go so that
 	// we can update the app server traffic stats
-	private String _appServerTarget = "";
+	private AppServerStats _appServerTarget = null;
 	
 	public ScadrOperation(boolean interactive, IScoreboard scoreboard) 
 	{
@@ -90,7 +91,7 @@ public abstract class ScadrOperation extends Operation
 	@Override 
 	public void preExecute()
 	{
-		if( this._appServerTarget == null || this._appServerTarget.trim().length() == 0 )
+		if( this._appServerTarget == null )
 			return;
 		
 		ScenarioTrack track = this._generator.getTrack();
@@ -101,7 +102,7 @@ public abstract class ScadrOperation extends Operation
 	@Override
 	public void postExecute()
 	{
-		if( this._appServerTarget == null || this._appServerTarget.trim().length() == 0 )
+		if( this._appServerTarget == null )
 			return;
 		
 		ScenarioTrack track = this._generator.getTrack();
@@ -112,10 +113,12 @@ public abstract class ScadrOperation extends Operation
 	@Override
 	public void prepare(Generator generator) {
 		this._generator = generator;
+		// Draw from the user's own stream rather than a fresh unseeded Random per operation
+		this._random = generator.getRandom();
 		ScadrGenerator scadrGenerator = (ScadrGenerator) generator;
 		
 		// Save the appServer target that's currently in the generator
-		this._appServerTarget = scadrGenerator._appServerUrl;
+		this._appServerTarget = scadrGenerator._appServer;
 						
 		// Refresh the cache to simulate real-world browsing.
 		this.refreshCache();
@@ -69,7 +69,7 @@ public class ScadsGenerator extends Generator
 	 */
 	public void initialize()
 	{
-		this._randomNumberGenerator = new java.util.Random();
+		this._randomNumberGenerator = this.getRandom();
 	}
 
 	/**
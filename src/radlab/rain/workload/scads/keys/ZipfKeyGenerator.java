@@ -36,8 +36,15 @@ import java.util.Random;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import radlab.rain.util.ZipfRejectionInversion;
+
 public class ZipfKeyGenerator extends KeyGenerator
 {
+	/** Configuration property for selecting the sampling method. */
+	public static final String SAMPLING_METHOD_CONFIG_KEY = "zipf.method";
+	/** Value for the SAMPLING_METHOD_CONFIG_KEY used to select rejection-inversion sampling. */
+	public static final String REJECTION_INVERSION_SAMPLING_METHOD_CONFIG_VALUE = "rejection-inversion";
+
 	protected String name = "Zipf";
 
 	protected Random random = new Random();
@@ -54,17 +61,31 @@ public class ZipfKeyGenerator extends KeyGenerator
 	/** Random number used to shuffle keys around. */
 	protected double r;
 
+	/** Constant-time rank sampler; null if we're using the (default) rejection method. */
+	protected ZipfRejectionInversion rejectionInversion = null;
+
 	public ZipfKeyGenerator( JSONObject configObj ) throws JSONException
 	{
 		this( configObj.getDouble( A_CONFIG_KEY ),
 			  configObj.getDouble( R_CONFIG_KEY ),
 			  configObj.getInt( MIN_KEY_CONFIG_KEY ),
-			  configObj.getInt( MAX_KEY_CONFIG_KEY ) );
+			  configObj.getInt( MAX_KEY_CONFIG_KEY ),
+			  configObj.has( SAMPLING_METHOD_CONFIG_KEY ) && configObj.getString( SAMPLING_METHOD_CONFIG_KEY ).equalsIgnoreCase( REJECTION_INVERSION_SAMPLING_METHOD_CONFIG_VALUE ) );
 	}
 
 	public ZipfKeyGenerator( double a, double r, int minKey, int maxKey )
 	{
-		if ( a <= 1 ) {
+		this( a, r, minKey, maxKey, false );
+	}
+
+	public ZipfKeyGenerator( double a, double r, int minKey, int maxKey, boolean useRejectionInversion )
+	{
+		if ( useRejectionInversion ) {
+			if ( a <= 0 ) {
+				throw new RuntimeException( "Zipf distribution requires a > 0: a = " + a );
+			}
+		}
+		else if ( a <= 1 ) {
 			throw new RuntimeException( "Zipf distribution requires a > 1: a = " + a );
 		}
 
@@ -73,12 +94,20 @@ public class ZipfKeyGenerator extends KeyGenerator
 		this.lowerBound = minKey;
 		// maxKey is inclusive, upperBound is exclusive.
 		this.upperBound = maxKey + 1;
+		
+		if ( useRejectionInversion ) {
+			this.rejectionInversion = new ZipfRejectionInversion( this.upperBound - this.lowerBound, this.a, this.random );
+		}
 	}
 
 	public int generateKey()
 	{
 		int k = -1;
-		do {
+		if ( this.rejectionInversion != null ) {
+			// Ranks are always in [1, N], no need to loop
+			k = (int) this.rejectionInversion.nextLong();
+		}
+		else do {
 			k = sampleZipf();
 		} while ( k > upperBound );
 		return Math.abs( (Double.valueOf( ( k + 1 ) * r ) ).hashCode() ) % ( upperBound - lowerBound ) + lowerBound;
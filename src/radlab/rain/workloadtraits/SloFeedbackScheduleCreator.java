@@ -0,0 +1,385 @@
+package radlab.rain.workloadtraits;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import radlab.rain.ILoadController;
+import radlab.rain.LoadProfile;
+import radlab.rain.LoadScheduleCreator;
+import radlab.rain.ScenarioTrack;
+import radlab.rain.util.ConvergenceMonitor;
+
+/**
+ * A closed-loop load schedule: rather than a fixed list of load profiles,
+ * the load is adjusted once per control interval to hold either a response
+ * time percentile or a utilization (throughput as a share of a known
+ * capacity, e.g. from a capacity search) at its target. The controlled
+ * variable is either the number of users or the open-loop rate.<br />
+ * <br />
+ * The schedule this creates only covers the ramp up. During the steady
+ * state the scoreboard feeds every result into per-interval batches; when
+ * an interval closes, the normalized error (target - measured) / target,
+ * clipped to [-1, 1], drives either a PID controller (in velocity form, so
+ * the load itself is the integrator and there's no windup) or AIMD
+ * (additive increase while at or under the target, multiplicative decrease
+ * above it). An interval with too many errors or no completions counts as
+ * fully overloaded. Every decision is logged and kept for the results.
+ */
+public class SloFeedbackScheduleCreator extends LoadScheduleCreator implements ILoadController, Runnable
+{
+	public static String CFG_VARIABLE = "variable";
+	public static String CFG_INITIAL = "initial";
+	public static String CFG_MIN = "min";
+	public static String CFG_MAX = "max";
+	public static String CFG_USERS = "users";
+	public static String CFG_MIX = "mix";
+	public static String CFG_CONTROL_INTERVAL = "controlInterval";
+	public static String CFG_TARGET = "target";
+	public static String CFG_PERCENTILE = "percentile";
+	public static String CFG_TARGET_RESPONSE_TIME = "targetResponseTimeMsecs";
+	public static String CFG_CAPACITY = "capacityOpsPerSec";
+	public static String CFG_TARGET_UTILIZATION = "targetUtilizationPct";
+	public static String CFG_MAX_ERROR_PCT = "maxErrorPct";
+	public static String CFG_ALGORITHM = "algorithm";
+	public static String CFG_KP = "kp";
+	public static String CFG_KI = "ki";
+	public static String CFG_KD = "kd";
+	public static String CFG_MAX_STEP_PCT = "maxStepPct";
+	public static String CFG_ADDITIVE_INCREASE = "additiveIncrease";
+	public static String CFG_MULTIPLICATIVE_DECREASE = "multiplicativeDecrease";
+	
+	public static String VARIABLE_USERS = "users";
+	public static String VARIABLE_RATE = "rate";
+	public static String TARGET_LATENCY = "latency";
+	public static String TARGET_UTILIZATION = "utilization";
+	public static String ALGORITHM_PID = "pid";
+	public static String ALGORITHM_AIMD = "aimd";
+	
+	private String _variable = VARIABLE_USERS;
+	private int _min = 1;
+	private int _max = Integer.MAX_VALUE;
+	private int _users = 10;
+	private String _mix = "default";
+	private long _controlInterval = 30;
+	private String _target = TARGET_LATENCY;
+	private int _percentile = 99;
+	private double _targetResponseTimeMsecs = 500.0;
+	private double _capacity = 0.0;
+	private double _targetUtilizationPct = 80.0;
+	private double _maxErrorPct = 5.0;
+	private String _algorithm = ALGORITHM_PID;
+	private double _kp = 0.3;
+	private double _ki = 0.5;
+	private double _kd = 0.0;
+	private double _maxStepPct = 50.0;
+	private double _additiveIncrease = 1.0;
+	private double _multiplicativeDecrease = 0.8;
+	
+	/** The controller output, kept unrounded so small adjustments add up. */
+	private double _level = 10.0;
+	private double _lastError = 0.0;
+	private double _previousError = 0.0;
+	private ArrayList<JSONObject> _decisions = new ArrayList<JSONObject>();
+	
+	private ScenarioTrack _track = null;
+	private ConvergenceMonitor _meter = null;
+	private long _startSteadyState = 0;
+	private long _timeToQuit = 0;
+	private Thread _thread = null;
+	private volatile boolean _done = false;
+	
+	public SloFeedbackScheduleCreator() 
+	{}
+	
+	public String getVariable() { return this._variable; }
+	public String getAlgorithm() { return this._algorithm; }
+	public long getControlInterval() { return this._controlInterval; }
+	public int getLevel() { return (int) Math.round( this._level ); }
+	
+	@Override
+	public LinkedList<LoadProfile> createSchedule( JSONObject config ) throws JSONException 
+	{
+		this._variable = config.optString( CFG_VARIABLE, VARIABLE_USERS );
+		this._min = config.optInt( CFG_MIN, 1 );
+		this._max = config.optInt( CFG_MAX, Integer.MAX_VALUE );
+		this._users = config.optInt( CFG_USERS, this._users );
+		this._mix = config.optString( CFG_MIX, this._mix );
+		this._controlInterval = config.optLong( CFG_CONTROL_INTERVAL, this._controlInterval );
+		this._target = config.optString( CFG_TARGET, TARGET_LATENCY );
+		this._percentile = config.optInt( CFG_PERCENTILE, this._percentile );
+		this._targetResponseTimeMsecs = config.optDouble( CFG_TARGET_RESPONSE_TIME, this._targetResponseTimeMsecs );
+		this._capacity = config.optDouble( CFG_CAPACITY, this._capacity );
+		this._targetUtilizationPct = config.optDouble( CFG_TARGET_UTILIZATION, this._targetUtilizationPct );
+		this._maxErrorPct = config.optDouble( CFG_MAX_ERROR_PCT, this._maxErrorPct );
+		this._algorithm = config.optString( CFG_ALGORITHM, ALGORITHM_PID );
+		this._kp = config.optDouble( CFG_KP, this._kp );
+		this._ki = config.optDouble( CFG_KI, this._ki );
+		this._kd = config.optDouble( CFG_KD, this._kd );
+		this._maxStepPct = config.optDouble( CFG_MAX_STEP_PCT, this._maxStepPct );
+		this._additiveIncrease = config.optDouble( CFG_ADDITIVE_INCREASE, this._additiveIncrease );
+		this._multiplicativeDecrease = config.optDouble( CFG_MULTIPLICATIVE_DECREASE, this._multiplicativeDecrease );
+		
+		if( !this._variable.equals( VARIABLE_USERS ) && !this._variable.equals( VARIABLE_RATE ) )
+			throw new IllegalArgumentException( CFG_VARIABLE + " must be \"" + VARIABLE_USERS + "\" or \"" + VARIABLE_RATE + "\": " + this._variable );
+		if( !this._target.equals( TARGET_LATENCY ) && !this._target.equals( TARGET_UTILIZATION ) )
+			throw new IllegalArgumentException( CFG_TARGET + " must be \"" + TARGET_LATENCY + "\" or \"" + TARGET_UTILIZATION + "\": " + this._target );
+		if( !this._algorithm.equals( ALGORITHM_PID ) && !this._algorithm.equals( ALGORITHM_AIMD ) )
+			throw new IllegalArgumentException( CFG_ALGORITHM + " must be \"" + ALGORITHM_PID + "\" or \"" + ALGORITHM_AIMD + "\": " + this._algorithm );
+		if( this._target.equals( TARGET_UTILIZATION ) && this._capacity <= 0.0 )
+			throw new IllegalArgumentException( CFG_CAPACITY + " must be set to target a utilization" );
+		if( this._min < 1 || this._max < this._min || this._controlInterval < 1 )
+			throw new IllegalArgumentException( "Bad limits: " + CFG_MIN + " " + this._min + ", " + CFG_MAX + " " + this._max + ", " + CFG_CONTROL_INTERVAL + " " + this._controlInterval );
+		if( this._multiplicativeDecrease <= 0.0 || this._multiplicativeDecrease >= 1.0 )
+			throw new IllegalArgumentException( CFG_MULTIPLICATIVE_DECREASE + " must be between 0 and 1: " + this._multiplicativeDecrease );
+		
+		this._level = this.clamp( config.optDouble( CFG_INITIAL, 10.0 ) );
+		this._lastError = 0.0;
+		this._previousError = 0.0;
+		this._decisions.clear();
+		
+		LinkedList<LoadProfile> schedule = new LinkedList<LoadProfile>();
+		schedule.add( this.createProfile( this._controlInterval ) );
+		return schedule;
+	}
+	
+	private double clamp( double level )
+	{
+		return Math.max( this._min, Math.min( this._max, level ) );
+	}
+	
+	private LoadProfile createProfile( long intervalSecs )
+	{
+		boolean users = this._variable.equals( VARIABLE_USERS );
+		LoadProfile profile = new LoadProfile( intervalSecs, users ? this.getLevel() : this._users, this._mix, 0 );
+		if( !users )
+			profile.setOpenLoopMaxOpsPerSec( this.getLevel() );
+		return profile;
+	}
+	
+	public void start( ScenarioTrack track, long startSteadyState, long timeToQuit )
+	{
+		this._track = track;
+		this._startSteadyState = startSteadyState;
+		this._timeToQuit = timeToQuit;
+		// One thread per user
+		if( this._variable.equals( VARIABLE_USERS ) && this._max > track.getMaxUsers() )
+		{
+			if( this._max < Integer.MAX_VALUE )
+				System.out.println( this + " Capping the users at the track's " + track.getMaxUsers() + " (set the track's maxUsers to go higher)." );
+			this._max = track.getMaxUsers();
+		}
+		
+		try
+		{
+			JSONObject meter = new JSONObject();
+			meter.put( ConvergenceMonitor.CFG_BATCH_SECS_KEY, this._controlInterval );
+			meter.put( ConvergenceMonitor.CFG_PERCENTILES_KEY, new JSONArray().put( this._percentile ) );
+			ConvergenceMonitor monitor = new ConvergenceMonitor( track.getName() + ".controller", meter );
+			monitor.start( startSteadyState );
+			this._meter = monitor;
+		}
+		catch( JSONException e )
+		{
+			System.out.println( this + " ERROR setting up the controller. Reason: " + e.toString() );
+			return;
+		}
+		
+		System.out.println( this + " Holding " + this.describeTarget() + " with " + this._algorithm.toUpperCase() + " on the " + ( this._variable.equals( VARIABLE_USERS ) ? "number of users" : "open-loop rate" ) + " every " + this._controlInterval + " secs." );
+		this._done = false;
+		this._thread = new Thread( this, "SloFeedback-" + track.getName() );
+		this._thread.setDaemon( true );
+		this._thread.start();
+	}
+	
+	public void stop()
+	{
+		this._done = true;
+		if( this._thread != null )
+		{
+			this._thread.interrupt();
+			try
+			{
+				this._thread.join( 1000 );
+			}
+			catch( InterruptedException ie )
+			{}
+		}
+	}
+	
+	public void record( long timeFinished, long responseTime, boolean failed )
+	{
+		ConvergenceMonitor meter = this._meter;
+		if( meter != null )
+			meter.record( timeFinished, responseTime, failed );
+	}
+	
+	/**
+	 * Closes each control interval (a little after it ends, so the
+	 * scoreboard has passed its results on) and applies the new load, until
+	 * the steady state is over.
+	 */
+	public void run()
+	{
+		int closed = 0;
+		long intervalMsecs = this._controlInterval * 1000;
+		try
+		{
+			while( !this._done )
+			{
+				long now = System.currentTimeMillis();
+				long tick = this._startSteadyState + ( closed + 1 ) * intervalMsecs + ConvergenceMonitor.SETTLE_MSECS;
+				long endSteadyState = this._track.getScoreboard() != null ? this._track.getScoreboard().getEndTimestamp() : this._timeToQuit;
+				if( tick - ConvergenceMonitor.SETTLE_MSECS > endSteadyState )
+					break;
+				if( now < tick )
+				{
+					Thread.sleep( tick - now );
+					continue;
+				}
+				
+				this._meter.check( now );
+				closed = this._meter.getBatchCount();
+				int index = closed - 1;
+				double[] percentiles = this._meter.getBatchPercentiles( index );
+				this.control( now, this._meter.getBatchThroughput( index ), percentiles != null ? percentiles[0] : -1.0, this._meter.getBatchSuccesses( index ), this._meter.getBatchFailures( index ) );
+				
+				LoadProfile profile = this.createProfile( Math.max( 1, ( this._timeToQuit - now ) / 1000 + 1 ) );
+				if( this._track.validateLoadProfile( profile ) == ScenarioTrack.VALID_LOAD_PROFILE )
+					this._track.activateLoadProfile( profile );
+			}
+		}
+		catch( InterruptedException ie )
+		{}
+		catch( Exception e )
+		{
+			System.out.println( this + " died... exiting. Reason: " + e.toString() );
+		}
+	}
+	
+	/**
+	 * Takes one control interval's measurements and moves the load.
+	 * 
+	 * @param time                  When the decision is made.
+	 * @param throughput            Successful operations per second in the interval.
+	 * @param responseTimeSecs      The response time percentile in the interval, or a negative value if there were no samples.
+	 * @param successes             Operations that succeeded in the interval.
+	 * @param failures              Operations that failed in the interval.
+	 * @return  The new level (users or ops/sec).
+	 */
+	public int control( long time, double throughput, double responseTimeSecs, long successes, long failures )
+	{
+		double errorPct = ( successes + failures ) > 0 ? 100.0 * failures / ( successes + failures ) : 0.0;
+		boolean latency = this._target.equals( TARGET_LATENCY );
+		double setpoint = latency ? this._targetResponseTimeMsecs / 1000.0 : this._capacity * this._targetUtilizationPct / 100.0;
+		
+		double error = 0.0;
+		String reason = "";
+		if( successes == 0 || ( latency && responseTimeSecs < 0.0 ) )
+		{
+			error = -1.0;
+			reason = "no completions";
+		}
+		else if( errorPct > this._maxErrorPct )
+		{
+			error = -1.0;
+			reason = String.format( "errors %.2f%% > %.2f%%", errorPct, this._maxErrorPct );
+		}
+		else
+		{
+			double measured = latency ? responseTimeSecs : throughput;
+			error = Math.max( -1.0, Math.min( 1.0, ( setpoint - measured ) / setpoint ) );
+		}
+		
+		int before = this.getLevel();
+		if( this._algorithm.equals( ALGORITHM_PID ) )
+		{
+			double step = this._kp * ( error - this._lastError ) + this._ki * error + this._kd * ( error - 2 * this._lastError + this._previousError );
+			double maxStep = this._maxStepPct / 100.0;
+			step = Math.max( -maxStep, Math.min( maxStep, step ) );
+			this._level = this.clamp( this._level * ( 1.0 + step ) );
+		}
+		else
+		{
+			if( error >= 0.0 )
+				this._level = this.clamp( this._level + this._additiveIncrease );
+			else this._level = this.clamp( this._level * this._multiplicativeDecrease );
+		}
+		this._previousError = this._lastError;
+		this._lastError = error;
+		
+		try
+		{
+			JSONObject decision = new JSONObject();
+			decision.put( "time", time );
+			decision.put( "level", before );
+			decision.put( "throughputOpsPerSec", throughput );
+			if( responseTimeSecs >= 0.0 )
+				decision.put( "responseTimeSecs", responseTimeSecs );
+			decision.put( "errorPct", errorPct );
+			decision.put( "error", error );
+			decision.put( "nextLevel", this.getLevel() );
+			decision.put( "reason", reason );
+			this._decisions.add( decision );
+		}
+		catch( JSONException e )
+		{
+			System.out.println( this + " Error recording decision. Reason: " + e.toString() );
+		}
+		
+		String units = this._variable.equals( VARIABLE_USERS ) ? " users" : " ops/sec";
+		System.out.println( this + String.format( " %.2f ops/sec, p%d %.4f secs, %.2f%% errors: error %.3f%s, %d%s -> %d%s", 
+				throughput, this._percentile, Math.max( 0.0, responseTimeSecs ), errorPct, error, reason.length() > 0 ? " (" + reason + ")" : "", before, units, this.getLevel(), units ) );
+		return this.getLevel();
+	}
+	
+	private String describeTarget()
+	{
+		if( this._target.equals( TARGET_LATENCY ) )
+			return "p" + this._percentile + " at " + this._targetResponseTimeMsecs + " msecs";
+		return this._targetUtilizationPct + "% of " + this._capacity + " ops/sec";
+	}
+	
+	public JSONObject getStatistics() throws JSONException
+	{
+		JSONObject stats = new JSONObject();
+		stats.put( "variable", this._variable );
+		stats.put( "target", this._target );
+		if( this._target.equals( TARGET_LATENCY ) )
+		{
+			stats.put( "percentile", this._percentile );
+			stats.put( "targetResponseTimeMsecs", this._targetResponseTimeMsecs );
+		}
+		else
+		{
+			stats.put( "capacityOpsPerSec", this._capacity );
+			stats.put( "targetUtilizationPct", this._targetUtilizationPct );
+		}
+		stats.put( "algorithm", this._algorithm );
+		if( this._algorithm.equals( ALGORITHM_PID ) )
+		{
+			stats.put( "kp", this._kp );
+			stats.put( "ki", this._ki );
+			stats.put( "kd", this._kd );
+			stats.put( "maxStepPct", this._maxStepPct );
+		}
+		else
+		{
+			stats.put( "additiveIncrease", this._additiveIncrease );
+			stats.put( "multiplicativeDecrease", this._multiplicativeDecrease );
+		}
+		stats.put( "min", this._min );
+		stats.put( "max", this._max );
+		stats.put( "controlIntervalSecs", this._controlInterval );
+		stats.put( "decisions", new JSONArray( this._decisions ) );
+		return stats;
+	}
+	
+	public String toString()
+	{
+		return "[SLO CONTROLLER" + ( this._track != null ? " TRACK: " + this._track.getName() : "" ) + "]";
+	}
+}
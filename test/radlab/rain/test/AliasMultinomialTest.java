@@ -0,0 +1,226 @@
+package radlab.rain.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import radlab.rain.hotspots.AliasMultinomial;
+import radlab.rain.hotspots.Dirichlet;
+import radlab.rain.hotspots.Multinomial;
+import radlab.rain.util.EmpiricalCDF;
+
+public class AliasMultinomialTest 
+{
+	private static final int SAMPLES = 400000;
+	
+	private static double chiSquareCritical( int df )
+	{
+		// p = 0.001 (Wilson-Hilferty approximation)
+		double t = 2.0 / ( 9.0 * df );
+		return df * Math.pow( 1.0 - t + 3.09 * Math.sqrt( t ), 3 );
+	}
+	
+	private static double chiSquare( long[] observed, double[] probabilities, long samples )
+	{
+		double chiSquare = 0.0;
+		for( int i = 0; i < observed.length; i++ )
+		{
+			double expected = probabilities[i] * samples;
+			if( expected == 0.0 )
+			{
+				assertEquals( "Sampled an object with zero probability: " + i, 0, observed[i] );
+				continue;
+			}
+			chiSquare += ( observed[i] - expected ) * ( observed[i] - expected ) / expected;
+		}
+		return chiSquare;
+	}
+	
+	@Test
+	public void testAliasMatchesWeights()
+	{
+		double[] weights = new double[200];
+		for( int i = 0; i < weights.length; i++ )
+			weights[i] = Math.pow( 1.0 / ( i + 1 ), 0.9 );
+		weights[17] = 0.0;
+		
+		AliasMultinomial alias = new AliasMultinomial( weights, new Random( 1 ) );
+		double[] p = new double[weights.length];
+		for( int i = 0; i < p.length; i++ )
+			p[i] = alias.probability( i );
+		
+		long[] observed = new long[weights.length];
+		for( int i = 0; i < SAMPLES; i++ )
+			observed[alias.sample()]++;
+		
+		double critical = chiSquareCritical( weights.length - 2 );
+		double stat = chiSquare( observed, p, SAMPLES );
+		assertTrue( "Chi-square " + stat + " exceeds " + critical, stat < critical );
+	}
+	
+	@Test
+	public void testAliasEquivalentToMultinomial()
+	{
+		// Both samplers should produce the same distribution (two-sample chi-square)
+		Multinomial cdfSampler = Multinomial.zipf( 50, 1.2 );
+		AliasMultinomial aliasSampler = cdfSampler.toAlias();
+		aliasSampler.setRandom( new Random( 2 ) );
+		
+		long[] a = new long[50];
+		long[] b = new long[50];
+		for( int i = 0; i < SAMPLES; i++ )
+		{
+			a[cdfSampler.sampleOne()]++;
+			b[aliasSampler.sampleOne()]++;
+		}
+		
+		double stat = 0.0;
+		for( int i = 0; i < a.length; i++ )
+		{
+			if( a[i] + b[i] > 0 )
+				stat += ( a[i] - b[i] ) * (double) ( a[i] - b[i] ) / ( a[i] + b[i] );
+		}
+		double critical = chiSquareCritical( a.length - 1 );
+		assertTrue( "Two-sample chi-square " + stat + " exceeds " + critical, stat < critical );
+	}
+	
+	@Test
+	public void testRebuildWithDirichletWeights()
+	{
+		double[] alpha = new double[1000];
+		java.util.Arrays.fill( alpha, 0.05 );
+		double[] weights = Dirichlet.sample( alpha, null );
+		AliasMultinomial alias = new AliasMultinomial( weights, new Random( 3 ) );
+		
+		// Redraw the hotspot weights as if a new LoadProfile became active
+		weights = Dirichlet.sample( alpha, weights );
+		alias.rebuild( weights );
+		
+		long[] observed = new long[weights.length];
+		for( int i = 0; i < SAMPLES; i++ )
+			observed[alias.sample()]++;
+		
+		// Compare the heaviest objects directly
+		for( int i = 0; i < weights.length; i++ )
+		{
+			if( weights[i] > 0.05 )
+				assertEquals( weights[i], observed[i] / (double) SAMPLES, 0.01 );
+		}
+	}
+	
+	@Test
+	public void testSampleWithoutReplacementTerminates()
+	{
+		// One object dominates so plain rejection would (practically) never finish
+		double[] weights = new double[10000];
+		java.util.Arrays.fill( weights, 1e-12 );
+		weights[0] = 1.0;
+		AliasMultinomial alias = new AliasMultinomial( weights, new Random( 4 ) );
+		
+		ArrayList<Integer> samples = alias.sampleWithoutReplacement( 100 );
+		assertEquals( 100, samples.size() );
+		assertEquals( 100, new HashSet<Integer>( samples ).size() );
+		assertTrue( samples.contains( 0 ) );
+	}
+	
+	// Probability that successive draws without replacement of all but one object leave out each object
+	private static void leftOutProbabilities( double[] p, boolean[] drawn, int remaining, double prob, double[] leftOut )
+	{
+		double mass = 0.0;
+		for( int i = 0; i < p.length; i++ )
+			if( !drawn[i] ) mass += p[i];
+		if( remaining == 0 )
+		{
+			for( int i = 0; i < p.length; i++ )
+				if( !drawn[i] ) leftOut[i] += prob;
+			return;
+		}
+		for( int i = 0; i < p.length; i++ )
+		{
+			if( drawn[i] ) continue;
+			drawn[i] = true;
+			leftOutProbabilities( p, drawn, remaining - 1, prob * p[i] / mass, leftOut );
+			drawn[i] = false;
+		}
+	}
+	
+	@Test
+	public void testSampleWithoutReplacementFallbackIsUnbiased()
+	{
+		// Skewed enough that rejection often runs out of draws before it has 5 of the 6
+		double[] p = { 0.6, 0.2, 0.1, 0.05, 0.03, 0.02 };
+		ArrayList<Double> weights = new ArrayList<Double>();
+		for( double d : p ) weights.add( d );
+		Multinomial cdfSampler = new Multinomial( weights );
+		cdfSampler.setRandom( new Random( 7 ) );
+		AliasMultinomial aliasSampler = new AliasMultinomial( p, new Random( 8 ) );
+		
+		double[] expected = new double[p.length];
+		leftOutProbabilities( p, new boolean[p.length], p.length - 1, 1.0, expected );
+		
+		int trials = 100000;
+		long[] cdfLeftOut = new long[p.length];
+		long[] aliasLeftOut = new long[p.length];
+		for( int t = 0; t < trials; t++ )
+		{
+			HashSet<Integer> a = new HashSet<Integer>( cdfSampler.sampleWithoutReplacement( p.length - 1 ) );
+			HashSet<Integer> b = new HashSet<Integer>( aliasSampler.sampleWithoutReplacement( p.length - 1 ) );
+			assertEquals( p.length - 1, a.size() );
+			assertEquals( p.length - 1, b.size() );
+			for( int i = 0; i < p.length; i++ )
+			{
+				if( !a.contains( i ) ) cdfLeftOut[i]++;
+				if( !b.contains( i ) ) aliasLeftOut[i]++;
+			}
+		}
+		
+		double critical = chiSquareCritical( p.length - 1 );
+		double stat = chiSquare( cdfLeftOut, expected, trials );
+		assertTrue( "Multinomial chi-square " + stat + " exceeds " + critical, stat < critical );
+		stat = chiSquare( aliasLeftOut, expected, trials );
+		assertTrue( "AliasMultinomial chi-square " + stat + " exceeds " + critical, stat < critical );
+	}
+	
+	// The previous linear scan of EmpiricalCDF.nextDouble, kept here as the reference
+	private static double referenceNextDouble( TreeMap<Double,Double> cdfSummary, double rndValU )
+	{
+		Object[] keys = cdfSummary.keySet().toArray();
+		Double prevPctileMark = (Double) keys[0];
+		if( rndValU < ((Double) keys[0]).doubleValue() )
+			return cdfSummary.get( (Double) keys[0] );
+		for( int i = 1; i < keys.length; i++ )
+		{
+			Double currentPctileMark = (Double) keys[i];
+			Double prevPctileVal = cdfSummary.get( prevPctileMark );
+			Double currentPctileVal = cdfSummary.get( currentPctileMark );
+			if( rndValU < currentPctileMark )
+				return (prevPctileVal  + (currentPctileVal - prevPctileVal )/(currentPctileMark - prevPctileMark)*(rndValU - prevPctileMark));
+			prevPctileMark = (Double) keys[i];
+		}
+		return cdfSummary.get( keys[keys.length-1] );
+	}
+	
+	@Test
+	public void testEmpiricalCdfMatchesLinearScan()
+	{
+		TreeMap<Double,Double> cdfSummary = new TreeMap<Double,Double>();
+		Random marks = new Random( 5 );
+		double value = 0.0;
+		for( int i = 0; i < 97; i++ )
+		{
+			value += marks.nextDouble() * 10;
+			cdfSummary.put( marks.nextDouble(), value );
+		}
+		
+		EmpiricalCDF cdf = new EmpiricalCDF( cdfSummary, new Random( 6 ) );
+		Random reference = new Random( 6 );
+		for( int i = 0; i < 100000; i++ )
+			assertEquals( referenceNextDouble( cdfSummary, reference.nextDouble() ), cdf.nextDouble(), 0.0 );
+	}
+}
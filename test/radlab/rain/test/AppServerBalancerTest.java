@@ -0,0 +1,150 @@
+package radlab.rain.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import radlab.rain.util.AppServerBalancer;
+import radlab.rain.util.AppServerStats;
+
+public class AppServerBalancerTest
+{
+	private static String[] servers( int count )
+	{
+		String[] names = new String[count];
+		for( int i = 0; i < count; i++ )
+			names[i] = "app" + i + ":80" + i;
+		return names;
+	}
+
+	@Test
+	public void testPicksLessLoadedServer()
+	{
+		AppServerBalancer balancer = new AppServerBalancer();
+		assertNull( balancer.pick( new Random( 1 ) ) );
+
+		balancer.setServers( servers( 2 ) );
+		AppServerStats busy = balancer.get( "app0:800" );
+		busy.requestIssue();
+		busy.requestIssue();
+		Random random = new Random( 1 );
+		for( int i = 0; i < 100; i++ )
+			assertSame( balancer.get( "app1:801" ), balancer.pick( random ) );
+
+		busy.requestRetire();
+		busy.requestRetire();
+		assertEquals( 0, busy.getOutstandingRequests() );
+		assertEquals( 2, busy.getIssuedRequests() );
+		assertEquals( 2, busy.getMaxOutstandingRequests() );
+	}
+
+	@Test
+	public void testUpdateKeepsSurvivingStats()
+	{
+		AppServerBalancer balancer = new AppServerBalancer();
+		balancer.setServers( "a:8080\nb:8081\n".split( "\n" ) );
+		AppServerStats a = balancer.get( "a:8080" );
+		a.requestIssue();
+
+		balancer.setServers( new String[] { "a:8080", " c ", "", "c" } );
+		assertEquals( 2, balancer.size() );
+		assertSame( a, balancer.get( "a:8080" ) );
+		assertEquals( 1, a.getOutstandingRequests() );
+		assertNull( balancer.get( "b:8081" ) );
+
+		AppServerStats c = balancer.get( "c" );
+		assertEquals( "c", c.getHost() );
+		assertEquals( 8080, c.getPort( 8080 ) );
+		assertEquals( "a", a.getHost() );
+		assertEquals( 8080, a.getPort( 9999 ) );
+	}
+
+	/**
+	 * Keeps a fixed number of requests in flight, retiring a random one
+	 * before each new pick, and returns how far the busiest server runs ahead
+	 * of the mean on average.
+	 */
+	private static double meanExcess( AppServerBalancer balancer, long seed )
+	{
+		Random random = new Random( seed );
+		List<AppServerStats> inFlight = new ArrayList<AppServerStats>();
+		double total = 0;
+		for( int i = 0; i < 20000; i++ )
+		{
+			if( inFlight.size() >= 100 )
+				inFlight.remove( random.nextInt( inFlight.size() ) ).requestRetire();
+			AppServerStats server = balancer.pick( random );
+			server.requestIssue();
+			inFlight.add( server );
+
+			long max = 0;
+			for( AppServerStats stats : balancer.getServers() )
+				max = Math.max( max, stats.getOutstandingRequests() );
+			total += max - (double) inFlight.size() / balancer.size();
+		}
+		return total / 20000.0;
+	}
+
+	@Test
+	public void testTwoChoicesBalanceBetterThanRandom()
+	{
+		AppServerBalancer random = new AppServerBalancer();
+		random.setChoices( 1 );
+		random.setServers( servers( 20 ) );
+		AppServerBalancer twoChoices = new AppServerBalancer();
+		twoChoices.setServers( servers( 20 ) );
+		AppServerBalancer shortestQueue = new AppServerBalancer();
+		shortestQueue.setChoices( 20 );
+		shortestQueue.setServers( servers( 20 ) );
+
+		double randomExcess = meanExcess( random, 7 );
+		double twoChoicesExcess = meanExcess( twoChoices, 7 );
+		double shortestQueueExcess = meanExcess( shortestQueue, 7 );
+		assertTrue( randomExcess + " vs " + twoChoicesExcess, twoChoicesExcess < 0.6 * randomExcess );
+		assertTrue( "" + shortestQueueExcess, shortestQueueExcess <= 1 );
+		assertEquals( 20000, twoChoices.getIssuedRequests() );
+		assertTrue( "" + twoChoices.getImbalance(), twoChoices.getImbalance() < 1.1 );
+	}
+
+	@Test
+	public void testConcurrentIssueAndRetire() throws InterruptedException
+	{
+		final AppServerBalancer balancer = new AppServerBalancer();
+		balancer.setServers( servers( 4 ) );
+		Thread[] threads = new Thread[8];
+		for( int t = 0; t < threads.length; t++ )
+		{
+			final long seed = t;
+			threads[t] = new Thread()
+			{
+				public void run()
+				{
+					Random random = new Random( seed );
+					for( int i = 0; i < 50000; i++ )
+					{
+						AppServerStats server = balancer.pick( random );
+						server.requestIssue();
+						server.requestRetire();
+						// Swap the list now and then while the others keep going
+						if( seed == 0 && i % 5000 == 0 )
+							balancer.setServers( servers( 4 ) );
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for( Thread thread : threads )
+			thread.join();
+
+		assertEquals( 8 * 50000, balancer.getIssuedRequests() );
+		for( AppServerStats stats : balancer.getServers() )
+			assertEquals( 0, stats.getOutstandingRequests() );
+	}
+}
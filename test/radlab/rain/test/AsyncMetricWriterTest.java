@@ -0,0 +1,241 @@
+package radlab.rain.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import radlab.rain.ResponseTimeStat;
+import radlab.rain.util.AsyncMetricWriter;
+import radlab.rain.util.BinaryMetricReceiver;
+import radlab.rain.util.MetricWriter;
+import radlab.rain.util.MetricWriterFactory;
+import radlab.rain.util.ResultsWriter;
+
+public class AsyncMetricWriterTest
+{
+	/** A writer that blocks until released, remembering what it was given. */
+	private static class GatedWriter extends MetricWriter
+	{
+		private List<Long> _written = new ArrayList<Long>();
+		private boolean _entered = false;
+		private boolean _open = false;
+
+		public GatedWriter() throws Exception
+		{
+			super( new JSONObject( "{ \"type\": \"gated\" }" ) );
+		}
+
+		public synchronized boolean write( ResponseTimeStat stat ) throws Exception
+		{
+			this._entered = true;
+			this.notifyAll();
+			while( !this._open )
+				this.wait();
+			this._written.add( stat._timestamp );
+			return true;
+		}
+
+		public synchronized void awaitEntered() throws InterruptedException
+		{
+			while( !this._entered )
+				this.wait();
+		}
+
+		public synchronized void release()
+		{
+			this._open = true;
+			this.notifyAll();
+		}
+
+		public synchronized List<Long> getWritten() { return new ArrayList<Long>( this._written ); }
+
+		public void close() {}
+		public String getDetails() { return "GATED"; }
+	}
+
+	private static ResponseTimeStat stat( long i )
+	{
+		ResponseTimeStat stat = new ResponseTimeStat();
+		stat._timestamp = i;
+		stat._responseTime = 10;
+		stat._operationName = "Browse";
+		stat._operationRequest = "/item?id=" + i;
+		return stat;
+	}
+
+	private static JSONObject config( String policy, int queueSize ) throws Exception
+	{
+		JSONObject config = new JSONObject();
+		config.put( MetricWriter.CFG_TYPE_KEY, MetricWriterFactory.ASYNC_WRITER_TYPE );
+		config.put( AsyncMetricWriter.CFG_OVERFLOW_POLICY_KEY, policy );
+		config.put( AsyncMetricWriter.CFG_QUEUE_SIZE_KEY, queueSize );
+		return config;
+	}
+
+	/**
+	 * Writes stat 0, waits for the gated writer to block on it, writes
+	 * 1..count with the queue full and returns what got through.
+	 */
+	private static List<Long> overflow( String policy, int queueSize, int count ) throws Exception
+	{
+		GatedWriter gated = new GatedWriter();
+		AsyncMetricWriter writer = new AsyncMetricWriter( config( policy, queueSize ), Collections.<MetricWriter>singletonList( gated ) );
+		writer.write( stat( 0 ) );
+		gated.awaitEntered();
+		for( int i = 1; i <= count; i++ )
+			writer.write( stat( i ) );
+		assertEquals( queueSize, writer.getStatsQueued( 0 ) );
+		gated.release();
+		writer.close();
+
+		assertEquals( count + 1, writer.getStatsOffered( 0 ) );
+		assertEquals( count - queueSize, writer.getStatsDropped( 0 ) );
+		assertEquals( queueSize + 1, writer.getStatsWritten( 0 ) );
+		assertEquals( 0, gated.getWritten().get( 0 ).longValue() );
+		return gated.getWritten().subList( 1, queueSize + 1 );
+	}
+
+	@Test
+	public void testOverflowPolicies() throws Exception
+	{
+		List<Long> expected = new ArrayList<Long>();
+		for( long i = 1; i <= 10; i++ )
+			expected.add( i );
+		assertEquals( expected, overflow( "dropNewest", 10, 100 ) );
+
+		expected.clear();
+		for( long i = 91; i <= 100; i++ )
+			expected.add( i );
+		assertEquals( expected, overflow( "DROPOLDEST", 10, 100 ) );
+
+		// A sample of everything offered, not just the first or last few
+		List<Long> sample = new ArrayList<Long>( overflow( "sample", 10, 1000 ) );
+		Collections.sort( sample );
+		assertEquals( 10, new java.util.HashSet<Long>( sample ).size() );
+		assertTrue( sample.toString(), sample.get( 0 ) < 500 && sample.get( 9 ) > 500 );
+		assertTrue( sample.toString(), sample.get( 9 ) - sample.get( 0 ) > 100 );
+	}
+
+	@Test
+	public void testStalledWriterDoesNotBlock() throws Exception
+	{
+		GatedWriter stalled = new GatedWriter();
+		GatedWriter flowing = new GatedWriter();
+		flowing.release();
+		List<MetricWriter> writers = new ArrayList<MetricWriter>();
+		writers.add( flowing );
+		writers.add( stalled );
+		JSONObject config = config( "dropOldest", 100 );
+		config.put( AsyncMetricWriter.CFG_CLOSE_TIMEOUT_MSECS_KEY, 200 );
+		AsyncMetricWriter writer = new AsyncMetricWriter( config, writers );
+
+		long start = System.currentTimeMillis();
+		for( int i = 0; i < 5000; i++ )
+		{
+			writer.write( stat( i ) );
+			// Let the flowing writer keep up
+			while( writer.getStatsQueued( 0 ) > 50 )
+				Thread.sleep( 1 );
+		}
+		writer.close();
+		assertTrue( System.currentTimeMillis() - start < 5000 );
+
+		assertEquals( 5000, flowing.getWritten().size() );
+		assertEquals( 0, writer.getStatsDropped( 0 ) );
+		// The stalled writer never finished its first write, the rest was dropped
+		assertEquals( 0, writer.getStatsWritten( 1 ) );
+		assertEquals( 4999, writer.getStatsDropped( 1 ) );
+		assertEquals( 0, writer.getStatsQueued( 1 ) );
+
+		JSONObject stats = writer.getStatistics();
+		assertEquals( "DropOldest", stats.getString( "overflowPolicy" ) );
+		assertEquals( 10000, stats.getLong( "statsOffered" ) );
+		assertEquals( 4999, stats.getLong( "statsDropped" ) );
+		JSONArray lanes = stats.getJSONArray( "writers" );
+		assertFalse( lanes.getJSONObject( 0 ).getBoolean( "abandoned" ) );
+		assertTrue( lanes.getJSONObject( 0 ).has( "writeLatencyP99Msecs" ) );
+		assertTrue( lanes.getJSONObject( 1 ).getBoolean( "abandoned" ) );
+		assertEquals( 100, lanes.getJSONObject( 1 ).getLong( "peakQueued" ) );
+		stalled.release();
+	}
+
+	@Test
+	public void testFanOutToConfiguredWriters() throws Exception
+	{
+		BinaryMetricReceiver receiver = new BinaryMetricReceiver( 0 );
+		receiver.start();
+		File dir = File.createTempFile( "rain-async", "" );
+		dir.delete();
+		dir.mkdirs();
+		File snapshots = new File( dir, "snapshots.log" );
+		try
+		{
+			JSONObject config = new JSONObject( "{ \"type\": \"async\", \"queueSize\": 5000, \"writers\": ["
+					+ " { \"type\": \"file\", \"filename\": \"" + snapshots.getPath() + "\" },"
+					+ " { \"type\": \"socketBinary\", \"ipaddress\": \"127.0.0.1\", \"port\": " + receiver.getPort() + " } ] }" );
+			MetricWriter writer = MetricWriterFactory.createMetricWriter( config.getString( MetricWriter.CFG_TYPE_KEY ), config );
+			assertTrue( writer instanceof AsyncMetricWriter );
+			for( int i = 0; i < 1000; i++ )
+			{
+				ResponseTimeStat stat = stat( i );
+				writer.write( stat );
+				// Callers reuse their stats as soon as write returns
+				stat._timestamp = -1;
+			}
+			writer.close();
+
+			assertEquals( 1000, receiver.take( 1000, 10000 ).size() );
+			BufferedReader in = new BufferedReader( new FileReader( snapshots ) );
+			int lines = 0;
+			while( in.readLine() != null )
+				lines++;
+			in.close();
+			assertEquals( 1000, lines );
+
+			JSONObject stats = writer.getStatistics();
+			assertEquals( 0, stats.getLong( "statsDropped" ) );
+			JSONObject binary = stats.getJSONArray( "writers" ).getJSONObject( 1 );
+			assertEquals( 1000, binary.getLong( "statsWritten" ) );
+			assertEquals( 1000, binary.getJSONObject( "writerStatistics" ).getLong( "statsSent" ) );
+
+			ResultsWriter results = new ResultsWriter( new File( dir, "run.json" ).getPath() );
+			JSONObject track = new JSONObject();
+			track.put( "track", "track-1" );
+			track.put( "metricWriter", stats );
+			results.addTrack( track );
+			results.write();
+			BufferedReader csv = new BufferedReader( new FileReader( results.getFile( "-metricwriters.csv" ) ) );
+			assertTrue( csv.readLine().startsWith( "track,writer,type,details,statsOffered,statsWritten," ) );
+			assertTrue( csv.readLine().startsWith( "track-1,0,,FILE" ) );
+			assertTrue( csv.readLine().startsWith( "track-1,1,socketBinary," ) );
+			csv.close();
+		}
+		finally
+		{
+			receiver.stop();
+			File[] files = dir.listFiles();
+			for( int i = 0; files != null && i < files.length; i++ )
+				files[i].delete();
+			dir.delete();
+		}
+	}
+
+	@Test( expected = org.json.JSONException.class )
+	public void testUnknownPolicy() throws Exception
+	{
+		JSONObject config = config( "dropSome", 10 );
+		config.put( AsyncMetricWriter.CFG_WRITERS_KEY, new JSONArray() );
+		new AsyncMetricWriter( config );
+	}
+}
@@ -0,0 +1,175 @@
+package radlab.rain.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import radlab.rain.ResponseTimeStat;
+import radlab.rain.util.BinaryMetricReceiver;
+import radlab.rain.util.BinaryMetricWriter;
+import radlab.rain.util.MetricWriter;
+import radlab.rain.util.MetricWriterFactory;
+
+public class BinaryMetricWriterTest
+{
+	private BinaryMetricReceiver receiver;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		receiver = new BinaryMetricReceiver( 0 );
+		receiver.start();
+	}
+
+	@After
+	public void tearDown()
+	{
+		receiver.stop();
+	}
+
+	private static ResponseTimeStat stat( long i )
+	{
+		ResponseTimeStat stat = new ResponseTimeStat();
+		stat._timestamp = 1000000L + i;
+		stat._responseTime = i * 3;
+		stat._totalResponseTime = i * 30;
+		stat._numObservations = i;
+		stat._operationName = i % 2 == 0 ? "Browse" : "\u00c4ndern";
+		stat._operationRequest = "/item?id=" + i;
+		stat._generatedDuring = "peak";
+		return stat;
+	}
+
+	private static JSONObject config( int port ) throws Exception
+	{
+		JSONObject config = new JSONObject();
+		config.put( MetricWriter.CFG_TYPE_KEY, MetricWriterFactory.SOCKET_BINARY_WRITER_TYPE );
+		config.put( MetricWriter.CFG_IP_ADDRESS_KEY, "127.0.0.1" );
+		config.put( MetricWriter.CFG_PORT_KEY, port );
+		return config;
+	}
+
+	@Test
+	public void testFrameRoundTrip() throws Exception
+	{
+		ByteBuffer body = ByteBuffer.allocate( 1024 );
+		body.putShort( BinaryMetricWriter.MAGIC );
+		body.put( BinaryMetricWriter.VERSION );
+		body.putInt( 2 );
+		BinaryMetricWriter.encode( stat( 1 ), body );
+		BinaryMetricWriter.encode( stat( 2 ), body );
+		body.flip();
+		List<ResponseTimeStat> stats = BinaryMetricWriter.decode( body );
+		assertEquals( 2, stats.size() );
+		assertEquals( stat( 1 ).toString(), stats.get( 0 ).toString() );
+		assertEquals( "\u00c4ndern", stats.get( 0 )._operationName );
+		assertEquals( stat( 2 ).toString(), stats.get( 1 ).toString() );
+
+		body.rewind();
+		body.limit( body.limit() - 3 );
+		try
+		{
+			BinaryMetricWriter.decode( body );
+			assertTrue( "truncated frame decoded", false );
+		}
+		catch( java.io.IOException e )
+		{
+		}
+	}
+
+	@Test
+	public void testStatsArriveInBatches() throws Exception
+	{
+		JSONObject config = config( receiver.getPort() );
+		config.put( BinaryMetricWriter.CFG_BATCH_BYTES_KEY, 4096 );
+		MetricWriter writer = MetricWriterFactory.createMetricWriter( MetricWriterFactory.SOCKET_BINARY_WRITER_TYPE, config );
+		assertTrue( writer instanceof BinaryMetricWriter );
+		for( int i = 0; i < 1000; i++ )
+			writer.write( stat( i ) );
+		writer.close();
+
+		List<ResponseTimeStat> received = receiver.take( 1000, 10000 );
+		assertEquals( 1000, received.size() );
+		for( int i = 0; i < 1000; i++ )
+			assertEquals( stat( i ).toString(), received.get( i ).toString() );
+
+		JSONObject stats = writer.getStatistics();
+		assertEquals( 1000, stats.getLong( "statsSent" ) );
+		assertEquals( 0, stats.getLong( "statsDropped" ) );
+		assertEquals( 0, stats.getLong( "statsBacklogged" ) );
+		// About 60 bytes a stat, so far fewer frames than stats
+		assertTrue( stats.toString(), stats.getLong( "framesSent" ) > 5 && stats.getLong( "framesSent" ) < 50 );
+		assertEquals( stats.getLong( "framesSent" ), receiver.getFrames() );
+		assertEquals( 1, stats.getLong( "connects" ) );
+	}
+
+	@Test
+	public void testReconnects() throws Exception
+	{
+		JSONObject config = config( receiver.getPort() );
+		config.put( BinaryMetricWriter.CFG_BATCH_MSECS_KEY, 0 );
+		config.put( BinaryMetricWriter.CFG_RECONNECT_MSECS_KEY, 0 );
+		BinaryMetricWriter writer = new BinaryMetricWriter( config );
+		for( int i = 0; i < 200; i++ )
+		{
+			if( i == 50 )
+				receiver.dropConnections();
+			writer.write( stat( i ) );
+			writer.flush();
+			Thread.sleep( 2 );
+		}
+		writer.close();
+
+		// Stats in flight when the connection went away may be lost, the rest arrive
+		long last = -1;
+		ResponseTimeStat stat = null;
+		while( ( stat = receiver.poll( 2000 ) ) != null )
+		{
+			assertTrue( stat._timestamp > last );
+			last = stat._timestamp;
+			if( last == stat( 199 )._timestamp )
+				break;
+		}
+		assertEquals( stat( 199 )._timestamp, last );
+		assertTrue( writer.getStatistics().toString(), writer.getStatistics().getLong( "connects" ) >= 2 );
+		assertEquals( 200, writer.getStatsSent() + writer.getStatsDropped() );
+	}
+
+	@Test
+	public void testBacklogIsBoundedWithoutReceiver() throws Exception
+	{
+		ServerSocket unused = new ServerSocket( 0 );
+		int port = unused.getLocalPort();
+		unused.close();
+
+		JSONObject config = config( port );
+		config.put( BinaryMetricWriter.CFG_BATCH_BYTES_KEY, 1024 );
+		config.put( BinaryMetricWriter.CFG_MAX_BACKLOG_BYTES_KEY, 8192 );
+		config.put( BinaryMetricWriter.CFG_CLOSE_TIMEOUT_MSECS_KEY, 0 );
+		BinaryMetricWriter writer = new BinaryMetricWriter( config );
+		for( int i = 0; i < 2000; i++ )
+		{
+			writer.write( stat( i ) );
+			assertTrue( writer.getBacklogBytes() <= 8192 + 1024 );
+		}
+		assertTrue( writer.getStatsDropped() > 0 );
+		assertTrue( writer.getStatsBacklogged() > 0 );
+		writer.close();
+		// Closing twice is fine
+		writer.close();
+
+		JSONObject stats = writer.getStatistics();
+		assertEquals( 0, stats.getLong( "statsSent" ) );
+		assertEquals( 2000, stats.getLong( "statsDropped" ) );
+		assertTrue( stats.getLong( "connectionFailures" ) > 0 );
+		assertEquals( 0, receiver.getConnectionsAccepted() );
+	}
+}
@@ -0,0 +1,147 @@
+package radlab.rain.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import radlab.rain.util.RateLimiter;
+import radlab.rain.util.storage.BulkLoader;
+import radlab.rain.util.storage.IBulkLoadSink;
+import radlab.rain.util.storage.IBulkLoadSinkFactory;
+
+public class BulkLoaderTest 
+{
+	// In-memory store: key -> number of times written
+	private static class MemorySinkFactory implements IBulkLoadSinkFactory
+	{
+		final ConcurrentHashMap<Long,Integer> writes = new ConcurrentHashMap<Long,Integer>();
+		final AtomicInteger batches = new AtomicInteger( 0 );
+		final AtomicInteger maxBatch = new AtomicInteger( 0 );
+		// Batches allowed before every write fails, < 0 means never fail
+		volatile int failAfterBatches = -1;
+		
+		public IBulkLoadSink createSink( int workerId )
+		{
+			return new IBulkLoadSink()
+			{
+				public void writeBatch( long[] keys, byte[][] values, int count ) throws Exception
+				{
+					synchronized( MemorySinkFactory.this )
+					{
+						if( failAfterBatches >= 0 && batches.get() >= failAfterBatches )
+							throw new Exception( "store unavailable" );
+						batches.incrementAndGet();
+					}
+					maxBatch.set( Math.max( maxBatch.get(), count ) );
+					for( int i = 0; i < count; i++ )
+					{
+						assertEquals( 100, values[i].length );
+						Integer previous = writes.putIfAbsent( keys[i], 1 );
+						if( previous != null )
+							writes.put( keys[i], previous + 1 );
+					}
+				}
+				
+				public void close() {}
+			};
+		}
+	}
+	
+	@Test
+	public void testLoadsEveryKeyOnce() throws Exception
+	{
+		BulkLoader loader = new BulkLoader( 7, 10006, 100 );
+		loader.setOptions( new String[]{ "7", "64" }, 0 );
+		MemorySinkFactory sinks = new MemorySinkFactory();
+		loader.load( sinks );
+		
+		assertEquals( 10000, sinks.writes.size() );
+		for( long key = 7; key <= 10006; key++ )
+			assertEquals( Integer.valueOf( 1 ), sinks.writes.get( key ) );
+		assertEquals( 64, sinks.maxBatch.get() );
+		assertEquals( 10000, loader.getKeysLoaded() );
+		assertEquals( 10000 * 100, loader.getBytesLoaded() );
+	}
+	
+	@Test
+	public void testResumesFromCheckpoint() throws Exception
+	{
+		File checkpoint = File.createTempFile( "bulkload", ".checkpoint" );
+		checkpoint.delete();
+		try
+		{
+			BulkLoader loader = new BulkLoader( 1, 50000, 100 );
+			loader.setOptions( new String[]{ "4", "100", "0", checkpoint.getPath() }, 0 );
+			loader.setMaxRetries( 1 );
+			
+			// The store goes away part way through the load
+			MemorySinkFactory sinks = new MemorySinkFactory();
+			sinks.failAfterBatches = 120;
+			try
+			{
+				loader.load( sinks );
+				fail( "Expected the load to fail" );
+			}
+			catch( Exception e )
+			{
+				// expected
+			}
+			assertTrue( checkpoint.exists() );
+			int loadedBeforeFailure = sinks.writes.size();
+			assertEquals( 12000, loadedBeforeFailure );
+			
+			// Re-running picks up where the first attempt stopped
+			sinks.failAfterBatches = -1;
+			loader.load( sinks );
+			assertEquals( 50000, sinks.writes.size() );
+			assertEquals( 50000 - loadedBeforeFailure, loader.getKeysLoaded() );
+			for( Integer count : sinks.writes.values() )
+				assertEquals( Integer.valueOf( 1 ), count );
+			
+			// A finished load has nothing left to do
+			loader.load( sinks );
+			assertEquals( 0, loader.getKeysLoaded() );
+			
+			// A checkpoint for a different range is refused
+			BulkLoader other = new BulkLoader( 1, 60000, 100 );
+			other.setOptions( new String[]{ "4", "100", "0", checkpoint.getPath() }, 0 );
+			try
+			{
+				other.load( sinks );
+				fail( "Expected a checkpoint mismatch" );
+			}
+			catch( Exception e )
+			{
+				assertTrue( e.getMessage().contains( "Checkpoint" ) );
+			}
+		}
+		finally
+		{
+			checkpoint.delete();
+		}
+	}
+	
+	@Test
+	public void testRateLimit() throws Exception
+	{
+		BulkLoader loader = new BulkLoader( 1, 3000, 100 );
+		loader.setOptions( new String[]{ "4", "50", "6000" }, 0 );
+		long start = System.nanoTime();
+		loader.load( new MemorySinkFactory() );
+		double secs = ( System.nanoTime() - start ) / 1e9;
+		// 3000 keys at 6000 keys/sec; the first batch is free
+		assertTrue( "took " + secs, secs >= 0.45 && secs < 2.0 );
+		
+		RateLimiter unlimited = new RateLimiter( 0 );
+		start = System.nanoTime();
+		for( int i = 0; i < 100000; i++ )
+			unlimited.acquire( 1 );
+		assertTrue( System.nanoTime() - start < 1000000000L );
+	}
+}
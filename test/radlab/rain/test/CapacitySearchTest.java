@@ -0,0 +1,138 @@
+package radlab.rain.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import radlab.rain.CapacitySearch;
+import radlab.rain.util.ResultsWriter;
+
+public class CapacitySearchTest
+{
+	/** A target that scales to 60 users (10 ops/sec each) and then only queues. */
+	private static CapacitySearch.Step usersStep( int users )
+	{
+		double throughput = 10.0 * Math.min( users, 60 );
+		double p99 = 0.05 * Math.pow( Math.max( users, 60 ) / 60.0, 3 );
+		return new CapacitySearch.Step( users, users, 0, 6, true, throughput, p99, (long) ( throughput * 30 ), 0 );
+	}
+
+	/** A target that tops out at 500 ops/sec and starts failing above 400. */
+	private static CapacitySearch.Step rateStep( int rate )
+	{
+		double throughput = Math.min( rate, 500 );
+		long successes = (long) ( throughput * 30 );
+		long failures = rate > 400 ? successes / 19 : 0;
+		return new CapacitySearch.Step( rate, 50, rate, 6, true, throughput, 0.02, successes, failures );
+	}
+
+	private static List<Integer> search( CapacitySearch search, boolean users )
+	{
+		List<Integer> levels = new ArrayList<Integer>();
+		while( search.getNextLevel() > 0 && levels.size() < 50 )
+		{
+			int level = search.getNextLevel();
+			levels.add( level );
+			search.addStep( users ? usersStep( level ) : rateStep( level ) );
+		}
+		return levels;
+	}
+
+	@Test
+	public void testUsersSearchFindsKnee() throws Exception
+	{
+		JSONObject config = new JSONObject( "{ \"initial\": 5, \"maxResponseTimeMsecs\": 100 }" );
+		CapacitySearch search = new CapacitySearch( "track", config, 200, 300 );
+
+		List<Integer> levels = search( search, true );
+		// Doubles until 80 users fail, then halves the gap down to 5%
+		assertEquals( "[5, 10, 20, 40, 80, 60, 70, 65, 67]", levels.toString() );
+		assertEquals( CapacitySearch.DECISION_KNEE_FOUND, search.getDecision() );
+		assertEquals( 65, search.getMaxSustainableLevel() );
+		assertEquals( 650.0, search.getKnee().getOfferedLoad(), 1e-9 );
+
+		// 70 users kept the response time but not the throughput
+		CapacitySearch.Step seventy = search.getSteps().get( 6 );
+		assertFalse( seventy.getPassed() );
+		assertTrue( seventy.getViolations(), seventy.getViolations().startsWith( "effective load" ) );
+		assertTrue( search.getSteps().get( 4 ).getViolations().contains( "p99" ) );
+
+		JSONObject stats = search.getStatistics();
+		assertEquals( 65, stats.getInt( "maxSustainableLevel" ) );
+		assertEquals( 65, stats.getJSONObject( "knee" ).getInt( "users" ) );
+		assertEquals( 9, stats.getJSONArray( "steps" ).length() );
+		assertTrue( stats.getJSONArray( "steps" ).getJSONObject( 7 ).getBoolean( "knee" ) );
+	}
+
+	@Test
+	public void testRateSearchChecksErrors() throws Exception
+	{
+		JSONObject config = new JSONObject( "{ \"variable\": \"rate\", \"initial\": 100, \"max\": 1000 }" );
+		CapacitySearch search = new CapacitySearch( "track", config, 50, 300 );
+
+		List<Integer> levels = search( search, false );
+		assertEquals( "[100, 200, 400, 800, 600, 500, 450, 425, 412]", levels.toString() );
+		assertEquals( 400, search.getMaxSustainableLevel() );
+		assertEquals( 5.0, search.getSteps().get( 6 ).getErrorPct(), 0.01 );
+		assertTrue( search.getSteps().get( 6 ).getViolations().startsWith( "errors" ) );
+	}
+
+	@Test
+	public void testSearchLimits() throws Exception
+	{
+		// Everything up to the maximum passes
+		CapacitySearch search = new CapacitySearch( "track", new JSONObject( "{ \"initial\": 10, \"max\": 30 }" ), 30, 300 );
+		assertEquals( "[10, 20, 30]", search( search, true ).toString() );
+		assertEquals( CapacitySearch.DECISION_MAX_SUSTAINED, search.getDecision() );
+
+		// Nothing passes
+		search = new CapacitySearch( "track", new JSONObject( "{ \"initial\": 4, \"maxResponseTimeMsecs\": 1 }" ), 100, 300 );
+		assertEquals( "[4, 2, 1]", search( search, true ).toString() );
+		assertEquals( CapacitySearch.DECISION_NONE_PASSED, search.getDecision() );
+		assertEquals( 0, search.getMaxSustainableLevel() );
+		assertNull( search.getKnee() );
+
+		// The users can't exceed the track's threads
+		search = new CapacitySearch( "track", new JSONObject( "{ \"max\": 500 }" ), 80, 300 );
+		assertEquals( 10, search.getNextLevel() );
+		assertEquals( 300, search.getMaxDuration() );
+	}
+
+	@Test
+	public void testCurveIsWritten() throws Exception
+	{
+		CapacitySearch search = new CapacitySearch( "track", new JSONObject( "{ \"initial\": 5, \"maxResponseTimeMsecs\": 100 }" ), 200, 300 );
+		search( search, true );
+
+		File dir = File.createTempFile( "rain-capacity", "" );
+		dir.delete();
+		ResultsWriter writer = new ResultsWriter( new File( dir, "run" ).getPath() );
+		writer.getRun().put( "capacitySearch", search.getStatistics() );
+		writer.write();
+
+		List<String> rows = new ArrayList<String>();
+		BufferedReader in = new BufferedReader( new FileReader( writer.getFile( "-capacity.csv" ) ) );
+		String line = null;
+		while( ( line = in.readLine() ) != null )
+			rows.add( line );
+		in.close();
+		assertEquals( 10, rows.size() );
+		assertTrue( rows.get( 1 ).startsWith( "track,users,1,5,5,0," ) );
+		assertEquals( ResultsWriter.CAPACITY_COLUMNS.length, rows.get( 8 ).split( ",", -1 ).length );
+
+		File[] files = dir.listFiles();
+		for( int i = 0; files != null && i < files.length; i++ )
+			files[i].delete();
+		dir.delete();
+	}
+}
@@ -0,0 +1,135 @@
+package radlab.rain.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import radlab.rain.util.ConvergenceMonitor;
+
+public class ConvergenceMonitorTest
+{
+	private static final long START = 1000000L;
+
+	/**
+	 * Feeds the monitor one second's worth of results per step: the given
+	 * number of operations with exponential response times of the given mean.
+	 */
+	private static void feed( ConvergenceMonitor monitor, Random random, int fromSec, int toSec, int opsPerSec, double meanMsecs )
+	{
+		for( int sec = fromSec; sec < toSec; sec++ )
+		{
+			for( int i = 0; i < opsPerSec; i++ )
+			{
+				long finished = START + sec * 1000L + ( i * 1000L ) / opsPerSec;
+				long nanos = (long) ( -Math.log( 1.0 - random.nextDouble() ) * meanMsecs * 1000000.0 );
+				monitor.record( finished, nanos, false );
+			}
+		}
+	}
+
+	@Test
+	public void testStationaryLoadConverges()
+	{
+		ConvergenceMonitor monitor = new ConvergenceMonitor( "stationary", 0.05, 0.95, 10, 10, new int[] { 90, 99 } );
+		monitor.start( START );
+		Random random = new Random( 1 );
+
+		feed( monitor, random, 0, 50, 200, 20.0 );
+		// Only five batches so far
+		assertFalse( monitor.check( START + 60 * 1000L ) );
+		assertEquals( 5, monitor.getBatchCount() );
+
+		feed( monitor, random, 50, 200, 200, 20.0 );
+		assertTrue( monitor.getSummary(), monitor.check( START + 200 * 1000L + ConvergenceMonitor.SETTLE_MSECS ) );
+		assertEquals( 20, monitor.getBatchCount() );
+
+		ConvergenceMonitor.Estimate[] estimates = monitor.getEstimates();
+		assertEquals( "throughput", estimates[0].getMetric() );
+		assertEquals( 200.0, estimates[0].getMean(), 1e-9 );
+		// Exponential response times: p90 = mean * ln(10), p99 = mean * ln(100)
+		assertEquals( 0.020 * Math.log( 10 ), estimates[1].getMean(), 0.002 );
+		assertEquals( 0.020 * Math.log( 100 ), estimates[2].getMean(), 0.01 );
+	}
+
+	@Test
+	public void testTrendingLoadDoesNotConverge()
+	{
+		ConvergenceMonitor monitor = new ConvergenceMonitor( "trending", 0.05, 0.95, 10, 10, new int[] { 99 } );
+		monitor.start( START );
+		Random random = new Random( 2 );
+
+		// Throughput keeps climbing, so the batch means spread out
+		for( int batch = 0; batch < 20; batch++ )
+			feed( monitor, random, batch * 10, ( batch + 1 ) * 10, 50 + batch * 20, 20.0 );
+		assertFalse( monitor.check( START + 200 * 1000L + ConvergenceMonitor.SETTLE_MSECS ) );
+		assertTrue( monitor.getEstimates()[0].getRelativeHalfWidth() > 0.05 );
+		assertTrue( monitor.getEstimates()[0].getLag1Autocorrelation() > 0.5 );
+	}
+
+	@Test
+	public void testWarmupTruncation() throws Exception
+	{
+		JSONObject config = new JSONObject( "{ \"batchSecs\": 10, \"minBatches\": 10, \"percentiles\": [ 99 ] }" );
+		ConvergenceMonitor plain = new ConvergenceMonitor( "plain", config );
+		config.put( ConvergenceMonitor.CFG_TRUNCATE_WARMUP_KEY, true );
+		ConvergenceMonitor truncating = new ConvergenceMonitor( "truncating", config );
+		for( ConvergenceMonitor monitor : new ConvergenceMonitor[] { plain, truncating } )
+		{
+			monitor.start( START );
+			Random random = new Random( 4 );
+			// A slow first 40 seconds
+			feed( monitor, random, 0, 40, 50, 100.0 );
+			feed( monitor, random, 40, 240, 200, 20.0 );
+			monitor.check( START + 240 * 1000L + ConvergenceMonitor.SETTLE_MSECS );
+		}
+
+		assertFalse( plain.isConverged() );
+		assertEquals( 0, plain.getWarmupBatches() );
+		assertTrue( truncating.getSummary(), truncating.isConverged() );
+		assertEquals( 4, truncating.getWarmupBatches() );
+		assertEquals( 200.0, truncating.getEstimates()[0].getMean(), 1e-9 );
+		assertEquals( 20, truncating.getEstimates()[0].getCount() );
+		assertEquals( 4, truncating.getStatistics().getInt( "warmupBatches" ) );
+	}
+
+	@Test
+	public void testConfidenceInterval()
+	{
+		// Batch means 1..5: mean 3, sd sqrt(2.5), t(0.975, 4) = 2.776
+		ConvergenceMonitor.Estimate estimate = new ConvergenceMonitor.Estimate( "x", new double[] { 1, 2, 3, 4, 5 }, 5, 0.95 );
+		assertEquals( 3.0, estimate.getMean(), 1e-9 );
+		assertEquals( 2.776 * Math.sqrt( 2.5 / 5 ), estimate.getHalfWidth(), 0.001 );
+
+		ConvergenceMonitor.Estimate single = new ConvergenceMonitor.Estimate( "x", new double[] { 1 }, 1, 0.95 );
+		assertTrue( Double.isInfinite( single.getRelativeHalfWidth() ) );
+	}
+
+	@Test
+	public void testStatisticsAndIdleBatches() throws Exception
+	{
+		JSONObject config = new JSONObject( "{ \"batchSecs\": 5, \"minBatches\": 4, \"percentiles\": [ 50 ] }" );
+		ConvergenceMonitor monitor = new ConvergenceMonitor( "idle", config );
+		monitor.start( START );
+		feed( monitor, new Random( 3 ), 0, 5, 10, 10.0 );
+		// Three more batches go by without any results; they count as zero throughput
+		assertFalse( monitor.check( START + 20 * 1000L + ConvergenceMonitor.SETTLE_MSECS ) );
+		assertEquals( 4, monitor.getBatchCount() );
+		// A straggler for a closed batch is counted as late
+		monitor.record( START + 1000L, 1000000L, false );
+
+		JSONObject stats = monitor.getStatistics();
+		assertFalse( stats.getBoolean( "converged" ) );
+		assertEquals( 1, stats.getLong( "lateResults" ) );
+		assertEquals( 2, stats.getJSONArray( "metrics" ).length() );
+		JSONObject throughput = stats.getJSONArray( "metrics" ).getJSONObject( 0 );
+		assertEquals( 2.5, throughput.getDouble( "mean" ), 1e-9 );
+		// Only one batch had response times, so there's no interval for the median yet
+		assertFalse( stats.getJSONArray( "metrics" ).getJSONObject( 1 ).has( "halfWidth" ) );
+		assertTrue( stats.toString().length() > 0 );
+	}
+}
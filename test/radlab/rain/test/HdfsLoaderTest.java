@@ -0,0 +1,133 @@
+package radlab.rain.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import radlab.rain.workload.mapreduce.HdfsLoader;
+import radlab.rain.workload.mapreduce.HdfsUtil;
+
+public class HdfsLoaderTest
+{
+	private static final long FILE_SIZE = 100000;
+
+	private File workDir;
+	private String inputPath;
+	private FileSystem fs;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		workDir = File.createTempFile( "rain-hdfsloader", "" );
+		workDir.delete();
+		workDir.mkdirs();
+		inputPath = new File( workDir, "input" ).toURI().toString();
+		fs = FileSystem.getLocal( new Configuration() );
+	}
+
+	@After
+	public void tearDown() throws IOException
+	{
+		FileUtil.fullyDelete( workDir );
+	}
+
+	private HdfsLoader createLoader( long totalBytes )
+	{
+		HdfsLoader loader = new HdfsLoader( inputPath, totalBytes, FILE_SIZE );
+		loader.setWriters( 3 );
+		loader.setSeed( 42 );
+		loader.setBlockSize( 1024 * 1024 );
+		loader.setReplication( (short) 1 );
+		return loader;
+	}
+
+	private long dataBytes( String part ) throws IOException
+	{
+		SequenceFile.Reader reader = new SequenceFile.Reader( fs, new Path( inputPath, part ), new Configuration() );
+		BytesWritable key = new BytesWritable();
+		BytesWritable value = new BytesWritable();
+		long bytes = 0;
+		while( reader.next( key, value ) )
+			bytes += key.getLength() + value.getLength();
+		reader.close();
+		return bytes;
+	}
+
+	@Test
+	public void testLoadAndResume() throws Exception
+	{
+		// Rounded down to whole files, like the generators count them
+		HdfsLoader loader = createLoader( 5 * FILE_SIZE + 10 );
+		assertEquals( 5, loader.getFiles() );
+		loader.load();
+		assertEquals( 5, loader.getFilesWritten() );
+		assertEquals( 5 * FILE_SIZE, loader.getBytesWritten() );
+		for( int i = 0; i < 5; i++ )
+		{
+			assertEquals( FILE_SIZE, dataBytes( HdfsLoader.getPartName( i ) ) );
+			assertTrue( loader.isLoaded( fs, new Path( inputPath, HdfsLoader.getPartName( i ) ) ) );
+		}
+		assertFalse( fs.exists( new Path( inputPath, "_part-00000.tmp" ) ) );
+
+		// A re-run only writes what's missing (or was written at another size)
+		fs.delete( new Path( inputPath, "part-00002" ), false );
+		HdfsLoader resumed = createLoader( 7 * FILE_SIZE );
+		resumed.load();
+		assertEquals( 3, resumed.getFilesWritten() );
+		assertEquals( 4, resumed.getFilesSkipped() );
+		assertEquals( FILE_SIZE, dataBytes( "part-00006" ) );
+
+		HdfsLoader resized = new HdfsLoader( inputPath, 2 * FILE_SIZE, FILE_SIZE / 2 );
+		resized.setWriters( 2 );
+		resized.load();
+		assertEquals( 4, resized.getFilesWritten() );
+		assertEquals( FILE_SIZE / 2, dataBytes( "part-00001" ) );
+	}
+
+	@Test
+	public void testSameSeedSameData() throws Exception
+	{
+		createLoader( FILE_SIZE ).load();
+		SequenceFile.Reader reader = new SequenceFile.Reader( fs, new Path( inputPath, "part-00000" ), new Configuration() );
+		BytesWritable first = new BytesWritable();
+		reader.next( first, new BytesWritable() );
+		reader.close();
+
+		HdfsLoader again = createLoader( FILE_SIZE );
+		again.setOverwrite( true );
+		again.load();
+		assertEquals( 1, again.getFilesWritten() );
+		reader = new SequenceFile.Reader( fs, new Path( inputPath, "part-00000" ), new Configuration() );
+		BytesWritable key = new BytesWritable();
+		reader.next( key, new BytesWritable() );
+		reader.close();
+		assertEquals( first, key );
+	}
+
+	@Test
+	public void testRequiredInputFromTrace() throws Exception
+	{
+		File trace = new File( workDir, "trace" );
+		FileWriter writer = new FileWriter( trace );
+		// The biggest job reads 3 files' worth, a tiny one still reads one
+		writer.write( "j1\tn1\t150000\t1\t1\t1000\t0\t1\t1\t1\t1\n" );
+		writer.write( "j2\tn2\t350000\t1\t1\t1001\t1\t1\t1\t1\t1\n" );
+		writer.write( "j3\tn3\t5\t1\t1\t1002\t1\t1\t1\t1\t1\n" );
+		writer.close();
+		assertEquals( 3 * FILE_SIZE, HdfsUtil.getRequiredInputBytes( trace.getPath(), FILE_SIZE ) );
+	}
+}
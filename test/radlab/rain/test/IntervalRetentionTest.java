@@ -0,0 +1,201 @@
+package radlab.rain.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import radlab.rain.IntervalRetention;
+import radlab.rain.LoadProfile;
+import radlab.rain.OperationSummary;
+import radlab.rain.Scorecard;
+import radlab.rain.util.NullSamplingStrategy;
+import radlab.rain.util.ResultsWriter;
+
+public class IntervalRetentionTest
+{
+	private static final long START = 1000000L;
+
+	private File dir;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		dir = File.createTempFile( "rain-intervals", "" );
+		dir.delete();
+		dir.mkdirs();
+	}
+
+	@After
+	public void tearDown()
+	{
+		File[] files = dir.listFiles();
+		for( int i = 0; files != null && i < files.length; i++ )
+			files[i].delete();
+		dir.delete();
+	}
+
+	private static List<JSONObject> lines( File file ) throws Exception
+	{
+		List<JSONObject> lines = new ArrayList<JSONObject>();
+		BufferedReader in = new BufferedReader( new FileReader( file ) );
+		String line = null;
+		while( ( line = in.readLine() ) != null )
+			lines.add( new JSONObject( line ) );
+		in.close();
+		return lines;
+	}
+
+	/**
+	 * Runs a schedule of one-minute steps, each with its own profile name and
+	 * 100 results, the way the scoreboard scores them.
+	 */
+	private static void run( IntervalRetention retention, int steps )
+	{
+		for( int step = 0; step < steps; step++ )
+		{
+			LoadProfile profile = new LoadProfile( 60, 10 + step % 5, "default", 0, String.format( "step-%04d", step ) );
+			for( int i = 0; i < 100; i++ )
+			{
+				long finished = START + step * 60000L + i * 600L;
+				Scorecard card = retention.getScorecard( profile, finished );
+				card._activeCount = 1;
+				card._totalOpsInitiated++;
+				card._totalOpsSuccessful++;
+				card._totalOpsSync++;
+				card._totalOpResponseTime += 20000000L;
+				OperationSummary summary = card._operationMap.get( "Browse" );
+				if( summary == null )
+				{
+					summary = new OperationSummary( new NullSamplingStrategy() );
+					card._operationMap.put( "Browse", summary );
+				}
+				summary.succeeded++;
+				summary.totalSyncInvocations++;
+				summary.totalResponseTime += 20000000L;
+				summary.acceptSample( 20000000L );
+			}
+		}
+	}
+
+	@Test
+	public void testUnboundedKeepsEverything() throws Exception
+	{
+		IntervalRetention retention = new IntervalRetention( "track", START, null );
+		run( retention, 50 );
+		retention.finish();
+		assertEquals( 50, retention.getLiveScorecards().size() );
+		assertEquals( "step-0000", retention.getLiveScorecards().get( 0 )._name );
+		assertEquals( 0, retention.getEvictions() );
+		assertEquals( 50 * IntervalRetention.estimate( retention.getLiveScorecards().get( 0 ) ), retention.getEstimatedBytes() );
+		assertTrue( !retention.getStatistics().has( "spillFile" ) );
+	}
+
+	@Test
+	public void testBudgetSpillsOldestIntervals() throws Exception
+	{
+		File spill = new File( dir, "spill.jsonl" );
+		JSONObject config = new JSONObject();
+		config.put( IntervalRetention.CFG_MEMORY_BUDGET_KB_KEY, 32 );
+		config.put( IntervalRetention.CFG_SPILL_FILE_KEY, spill.getPath() );
+		IntervalRetention retention = new IntervalRetention( "track", START, config );
+		run( retention, 500 );
+		retention.finish();
+
+		long cardBytes = IntervalRetention.estimate( retention.getLiveScorecards().get( 0 ) );
+		int live = retention.getLiveScorecards().size();
+		assertTrue( "live: " + live, live > 1 && live * cardBytes <= 32 * 1024 );
+		// Checked every so many results, so the card in use can go over a little
+		assertTrue( retention.getPeakEstimatedBytes() <= 32 * 1024 + cardBytes );
+		assertEquals( 500 - live, retention.getEvictions() );
+		// The newest steps are the ones kept
+		assertEquals( "step-0499", retention.getLiveScorecards().get( live - 1 )._name );
+
+		List<JSONObject> spilled = lines( spill );
+		assertEquals( 500 - live, spilled.size() );
+		assertEquals( "step-0000", spilled.get( 0 ).getString( "interval" ) );
+		assertEquals( 100, spilled.get( 0 ).getLong( "opsSuccessful" ) );
+		assertEquals( START, spilled.get( 0 ).getLong( "firstResultTime" ) );
+
+		JSONObject stats = retention.getStatistics();
+		assertEquals( spill.getPath(), stats.getString( "spillFile" ) );
+		assertEquals( 500 - live, stats.getLong( "spilledScorecards" ) );
+		assertEquals( 32 * 1024, stats.getLong( "memoryBudgetBytes" ) );
+	}
+
+	@Test
+	public void testRollupMergesSpilledIntervals() throws Exception
+	{
+		File spill = new File( dir, "rollup.jsonl" );
+		JSONObject config = new JSONObject();
+		config.put( IntervalRetention.CFG_MEMORY_BUDGET_KB_KEY, 128 );
+		config.put( IntervalRetention.CFG_SPILL_FILE_KEY, spill.getPath() );
+		config.put( IntervalRetention.CFG_ROLLUP_SECS_KEY, 600 );
+		IntervalRetention retention = new IntervalRetention( "track", START, config );
+		run( retention, 500 );
+		retention.finish();
+
+		int live = retention.getLiveScorecards().size();
+		List<JSONObject> windows = lines( spill );
+		// Ten one-minute steps per window, the last one partly evicted
+		assertEquals( ( 500 - live + 9 ) / 10, windows.size() );
+		JSONObject first = windows.get( 0 );
+		assertEquals( "[ROLLUP +0s]", first.getString( "interval" ) );
+		assertEquals( 600.0, first.getDouble( "durationSecs" ), 1e-9 );
+		assertEquals( 1000, first.getLong( "opsSuccessful" ) );
+		// Users 10..14 twice over, weighted by time
+		assertEquals( 12.0, first.getDouble( "activeUsers" ), 1e-9 );
+		assertEquals( 1000 / 600.0, first.getDouble( "effectiveLoadOpsPerSec" ), 1e-9 );
+		assertEquals( 1000, first.getJSONArray( "operations" ).getJSONObject( 0 ).getLong( "successes" ) );
+		assertEquals( "[ROLLUP +600s]", windows.get( 1 ).getString( "interval" ) );
+
+		long ops = 0;
+		for( JSONObject window : windows )
+			ops += window.getLong( "opsSuccessful" );
+		for( Scorecard card : retention.getLiveScorecards() )
+			ops += card._totalOpsSuccessful;
+		assertEquals( 500 * 100, ops );
+	}
+
+	@Test
+	public void testResultsWriterStreamsSpilledIntervals() throws Exception
+	{
+		File spill = new File( dir, "spill.jsonl" );
+		JSONObject config = new JSONObject();
+		config.put( IntervalRetention.CFG_MEMORY_BUDGET_KB_KEY, 16 );
+		config.put( IntervalRetention.CFG_SPILL_FILE_KEY, spill.getPath() );
+		IntervalRetention retention = new IntervalRetention( "track-1", START, config );
+		run( retention, 100 );
+		retention.finish();
+
+		JSONObject track = new JSONObject();
+		track.put( "track", "track-1" );
+		for( Scorecard card : retention.getLiveScorecards() )
+			track.append( "intervals", card.getStatistics() );
+		track.put( "intervalRetention", retention.getStatistics() );
+		ResultsWriter writer = new ResultsWriter( new File( dir, "run" ).getPath() );
+		writer.addTrack( track );
+		writer.write();
+
+		// Header plus every step, spilled or not
+		List<String> rows = new ArrayList<String>();
+		BufferedReader in = new BufferedReader( new FileReader( writer.getFile( "-intervals.csv" ) ) );
+		String line = null;
+		while( ( line = in.readLine() ) != null )
+			rows.add( line );
+		in.close();
+		assertEquals( 101, rows.size() );
+		assertTrue( rows.get( rows.size() - 1 ).startsWith( "track-1,step-" ) );
+		assertEquals( ResultsWriter.INTERVAL_COLUMNS.length, rows.get( rows.size() - 1 ).split( ",", -1 ).length );
+	}
+}
@@ -0,0 +1,129 @@
+package radlab.rain.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import radlab.rain.util.RandomStreams;
+import radlab.rain.util.storage.KeyEncoder;
+
+public class KeyEncoderTest 
+{
+	@Test
+	public void testMatchesDecimalFormat()
+	{
+		KeyEncoder encoder = new KeyEncoder( KeyEncoder.DEFAULT_WIDTH );
+		DecimalFormat format = new DecimalFormat( "000000000" );
+		long[] edges = new long[] { 0, 1, 9, 10, 99999999, 999999999, 1000000000, -1, -123, Long.MAX_VALUE, Long.MIN_VALUE + 1 };
+		for( long key : edges )
+			assertEquals( format.format( key ), encoder.toString( key ) );
+		
+		Random rng = new Random( 3 );
+		for( int i = 0; i < 100000; i++ )
+		{
+			long key = rng.nextInt( Integer.MAX_VALUE );
+			assertEquals( format.format( key ), encoder.toString( key ) );
+		}
+		
+		assertEquals( String.valueOf( Long.MIN_VALUE ), new KeyEncoder( 0 ).toString( Long.MIN_VALUE ) );
+		assertEquals( "12345", new KeyEncoder( 0 ).toString( 12345 ) );
+	}
+	
+	@Test
+	public void testPrefixAndBuffers()
+	{
+		KeyEncoder encoder = new KeyEncoder( 5, "obj-" );
+		assertEquals( "obj-00042", encoder.toString( 42 ) );
+		
+		ByteBuffer buffer = encoder.encode( 42 );
+		assertEquals( 0, buffer.position() );
+		assertEquals( 9, buffer.limit() );
+		assertEquals( "obj-00042", new String( buffer.array(), 0, buffer.limit() ) );
+		
+		byte[] bytes = encoder.toBytes( 1234567 );
+		assertEquals( "obj-1234567", new String( bytes ) );
+		
+		byte[] scratch = encoder.toScratchBytes( 43 );
+		assertEquals( "obj-00043", new String( scratch ) );
+		assertTrue( scratch == encoder.toScratchBytes( 44 ) );
+		
+		byte[] dest = new byte[32];
+		int length = encoder.encode( 7, dest, 3 );
+		assertEquals( "obj-00007", new String( dest, 3, length ) );
+	}
+	
+	@Test
+	public void testHashedKeysAreUniqueUnsigned()
+	{
+		KeyEncoder encoder = new KeyEncoder( 20, "user", true );
+		HashSet<String> seen = new HashSet<String>();
+		for( long key = 0; key < 200000; key++ )
+		{
+			String encoded = encoder.toString( key );
+			assertTrue( seen.add( encoded ) );
+			assertEquals( 24, encoded.length() );
+			
+			// Digits are the unsigned value of the mixed key
+			BigInteger expected = new BigInteger( Long.toHexString( RandomStreams.mix64( key ) ), 16 );
+			assertEquals( expected, new BigInteger( encoded.substring( 4 ) ) );
+		}
+	}
+	
+	@Test
+	public void testConcurrentEncoding() throws Exception
+	{
+		final KeyEncoder encoder = new KeyEncoder( KeyEncoder.DEFAULT_WIDTH );
+		final int threads = 16;
+		final int keys = 200000;
+		final CountDownLatch start = new CountDownLatch( 1 );
+		final AtomicLong errors = new AtomicLong( 0 );
+		List<Thread> workers = new ArrayList<Thread>();
+		for( int t = 0; t < threads; t++ )
+		{
+			final long seed = t;
+			Thread worker = new Thread()
+			{
+				public void run()
+				{
+					Random rng = new Random( seed );
+					try
+					{
+						start.await();
+					}
+					catch( InterruptedException ie )
+					{
+						return;
+					}
+					for( int i = 0; i < keys; i++ )
+					{
+						long key = rng.nextInt( 1000000000 );
+						ByteBuffer buffer = encoder.encode( key );
+						// Shared scratch space would show up as keys that don't parse back
+						if( buffer.limit() != 9 || Long.parseLong( new String( buffer.array(), 0, buffer.limit() ) ) != key )
+							errors.incrementAndGet();
+						if( Long.parseLong( encoder.toString( key ) ) != key )
+							errors.incrementAndGet();
+					}
+				}
+			};
+			workers.add( worker );
+			worker.start();
+		}
+		start.countDown();
+		for( Thread worker : workers )
+			worker.join();
+		
+		assertEquals( 0, errors.get() );
+	}
+}
@@ -0,0 +1,158 @@
+package radlab.rain.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import radlab.rain.OperationExecution;
+import radlab.rain.Scoreboard;
+import radlab.rain.workload.mapreduce.JobMonitor;
+import radlab.rain.workload.mapreduce.JobPhaseStats;
+import radlab.rain.workload.mapreduce.JobTiming;
+import radlab.rain.workload.mapreduce.WorkGenMapReduceOperation;
+
+public class MapReduceJobTest
+{
+	private static File workDir;
+	private static String inputPath;
+
+	@BeforeClass
+	public static void setUp() throws Exception
+	{
+		workDir = File.createTempFile( "rain-mapreduce", "" );
+		workDir.delete();
+		workDir.mkdirs();
+
+		// One small part file of random key/value pairs for WorkGen to read
+		Configuration conf = new Configuration();
+		Path input = new Path( new File( workDir, "input/part-00000" ).toURI().toString() );
+		inputPath = input.toString();
+		SequenceFile.Writer writer = SequenceFile.createWriter( FileSystem.getLocal( conf ), conf, input, BytesWritable.class, BytesWritable.class );
+		Random random = new Random( 1 );
+		for( int i = 0; i < 20; i++ )
+		{
+			byte[] key = new byte[16];
+			byte[] value = new byte[100];
+			random.nextBytes( key );
+			random.nextBytes( value );
+			writer.append( new BytesWritable( key ), new BytesWritable( value ) );
+		}
+		writer.close();
+
+		JobMonitor.getInstance().setPollInterval( 50 );
+	}
+
+	@AfterClass
+	public static void tearDown() throws IOException
+	{
+		FileUtil.fullyDelete( workDir );
+	}
+
+	private static WorkGenMapReduceOperation createOperation( String name, boolean async, final List<OperationExecution> results, JobPhaseStats stats )
+	{
+		Scoreboard scoreboard = new Scoreboard( "test" )
+		{
+			@Override
+			public void dropOff( OperationExecution result )
+			{
+				synchronized( results )
+				{
+					results.add( result );
+				}
+			}
+		};
+		WorkGenMapReduceOperation op = new WorkGenMapReduceOperation( true, scoreboard );
+		op.setJobName( name );
+		op.setJobTracker( "local" );
+		op.setInputPath( inputPath );
+		op.setOutputPath( new File( workDir, "output/" + name ).toURI().toString() );
+		op.setShuffleInputRatio( 0.5f );
+		op.setOutputShuffleRatio( 0.5f );
+		op.setAsyncSubmit( async );
+		op.setJobStats( stats );
+		return op;
+	}
+
+	private static void checkTiming( JobTiming timing )
+	{
+		assertTrue( timing.isSuccessful() );
+		assertTrue( timing.getQueueTime() >= 0 );
+		assertTrue( timing.getMapTime() >= 0 );
+		assertTrue( timing.getReduceTime() >= 0 );
+		assertEquals( timing.getTotalTime(), timing.getQueueTime() + timing.getMapTime() + timing.getReduceTime() );
+	}
+
+	@Test
+	public void testSynchronousJob() throws Exception
+	{
+		List<OperationExecution> results = new ArrayList<OperationExecution>();
+		JobPhaseStats stats = new JobPhaseStats( "sync" );
+		WorkGenMapReduceOperation op = createOperation( "sync", false, results, stats );
+		op.run();
+
+		assertFalse( String.valueOf( op.getFailureReason() ), op.isFailed() );
+		assertEquals( 1, results.size() );
+		assertTrue( op.getJobTiming().isComplete() );
+		checkTiming( op.getJobTiming() );
+		assertEquals( 1, stats.getJobs() );
+	}
+
+	@Test
+	public void testAsynchronousJobs() throws Exception
+	{
+		List<OperationExecution> results = new ArrayList<OperationExecution>();
+		JobPhaseStats stats = new JobPhaseStats( "async" );
+		WorkGenMapReduceOperation first = createOperation( "async-1", true, results, stats );
+		WorkGenMapReduceOperation second = createOperation( "async-2", true, results, stats );
+
+		// Both jobs are submitted before either is scored
+		first.run();
+		second.run();
+		assertNotNull( first.getJobTiming() );
+		assertNotNull( second.getJobTiming() );
+
+		assertTrue( first.getJobTiming().waitForCompletion( 60000 ) );
+		assertTrue( second.getJobTiming().waitForCompletion( 60000 ) );
+		assertEquals( 2, results.size() );
+		for( WorkGenMapReduceOperation op : new WorkGenMapReduceOperation[] { first, second } )
+		{
+			assertFalse( String.valueOf( op.getFailureReason() ), op.isFailed() );
+			checkTiming( op.getJobTiming() );
+			// The response time covers the whole job, not just the submission
+			assertTrue( op.getTimeFinished() >= op.getJobTiming().getFinishTime() );
+			assertTrue( op.getTimeFinished() - op.getTimeStarted() >= op.getJobTiming().getTotalTime() );
+		}
+		assertEquals( 2, stats.getJobs() );
+		assertEquals( 0, stats.getFailedJobs() );
+	}
+
+	@Test
+	public void testFailedSubmission() throws Exception
+	{
+		List<OperationExecution> results = new ArrayList<OperationExecution>();
+		WorkGenMapReduceOperation op = createOperation( "missing", true, results, null );
+		op.setInputPath( new File( workDir, "no-such-input" ).toURI().toString() );
+		op.run();
+
+		// Nothing to watch, so the failure is scored right away
+		assertTrue( op.isFailed() );
+		assertEquals( 1, results.size() );
+	}
+}
@@ -1,7 +1,10 @@
 package radlab.rain.test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.Before;
@@ -14,6 +17,9 @@ import radlab.rain.Scenario;
 import radlab.rain.util.ConfigUtil;
 import radlab.rain.workload.mongodb.MongoGenerator;
 import radlab.rain.workload.mongodb.MongoRequest;
+import radlab.rain.workload.mongodb.MongoTransport;
+
+import com.mongodb.WriteConcern;
 
 public class MongoOperationsTest 
 {
@@ -101,4 +107,39 @@ public class MongoOperationsTest
 		
 		runOp( generator.createPutOperation( request ) );
 	}
+	
+	@Test
+	public void testMultiGetOperation()
+	{
+		testPutOperation();
+		
+		MongoRequest<String> request = new MongoRequest<String>();
+		request.op = MongoGenerator.MULTI_GET;
+		request.keys = new ArrayList<String>();
+		request.keys.add( "UnitTestKey" );
+		request.keys.add( "UnitTestKey" );
+		runOp( generator.createMultiGetOperation( request ) );
+	}
+	
+	@Test
+	public void testBulkInsertOperation()
+	{
+		MongoRequest<String> request = new MongoRequest<String>();
+		request.op = MongoGenerator.BULK_INSERT;
+		request.sizes = new int[] { 16, 1024, 4096 };
+		runOp( generator.createBulkInsertOperation( request ) );
+	}
+	
+	@Test
+	public void testWriteConcerns() throws JSONException
+	{
+		assertEquals( WriteConcern.NORMAL, MongoTransport.parseWriteConcern( "normal" ) );
+		assertEquals( WriteConcern.FSYNC_SAFE, MongoTransport.parseWriteConcern( "FSYNC_SAFE" ) );
+		assertEquals( 2, MongoTransport.parseWriteConcern( "2" ).getW() );
+		
+		JSONObject config = new JSONObject( "{ \"writeConcern\": { \"BulkInsert\": \"NONE\" } }" );
+		generator.configure( config );
+		assertEquals( WriteConcern.NONE, generator.getWriteConcern( "BulkInsert" ) );
+		assertEquals( WriteConcern.SAFE, generator.getWriteConcern( "Put" ) );
+	}
 }
@@ -0,0 +1,98 @@
+package radlab.rain.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.Test;
+
+import radlab.rain.util.OperationStreamReader;
+import radlab.rain.util.OperationStreamWriter;
+
+public class OperationStreamTest 
+{
+	private static final int RECORDS = 100000;
+	
+	private File writeStream( long seed ) throws Exception
+	{
+		File file = File.createTempFile( "rain-ops", OperationStreamWriter.FILE_SUFFIX );
+		file.deleteOnExit();
+		
+		Random rng = new Random( seed );
+		OperationStreamWriter writer = new OperationStreamWriter( file, "track", "some.Generator", 3, 1234L );
+		long offset = 0;
+		for( int i = 0; i < RECORDS; i++ )
+		{
+			offset += rng.nextInt( 100000 );
+			DataOutput out = writer.startRecord();
+			out.writeUTF( String.valueOf( rng.nextInt( 1000000 ) ) );
+			out.writeInt( rng.nextInt( 4096 ) );
+			writer.endRecord( rng.nextInt( 5 ) - 1, offset, rng.nextBoolean() );
+		}
+		writer.close();
+		assertEquals( RECORDS, writer.getRecordCount() );
+		return file;
+	}
+	
+	@Test
+	public void testRoundTrip() throws Exception
+	{
+		File file = this.writeStream( 11 );
+		
+		OperationStreamReader reader = new OperationStreamReader( file );
+		assertEquals( "track", reader.getTrackName() );
+		assertEquals( "some.Generator", reader.getGeneratorClassName() );
+		assertEquals( 3, reader.getUserId() );
+		assertEquals( 1234L, reader.getStartTime() );
+		
+		Random rng = new Random( 11 );
+		long offset = 0;
+		int count = 0;
+		while( reader.next() )
+		{
+			offset += rng.nextInt( 100000 );
+			String key = String.valueOf( rng.nextInt( 1000000 ) );
+			int size = rng.nextInt( 4096 );
+			int index = rng.nextInt( 5 ) - 1;
+			boolean async = rng.nextBoolean();
+			
+			DataInput in = reader.getParameters();
+			assertEquals( key, in.readUTF() );
+			assertEquals( size, in.readInt() );
+			assertEquals( index, reader.getOperationIndex() );
+			assertEquals( offset, reader.getOffsetMicros() );
+			assertEquals( async, reader.isAsync() );
+			count++;
+		}
+		assertEquals( RECORDS, count );
+		assertTrue( reader.isComplete() );
+		reader.close();
+		
+		// Should stay compact: index, delta, flags, length, a short key and an int
+		assertTrue( "Recording too large: " + file.length(), file.length() < RECORDS * 20L );
+	}
+	
+	@Test
+	public void testTruncatedStream() throws Exception
+	{
+		File file = this.writeStream( 12 );
+		RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+		raf.setLength( file.length() / 2 );
+		raf.close();
+		
+		OperationStreamReader reader = new OperationStreamReader( file );
+		int count = 0;
+		while( reader.next() )
+			count++;
+		reader.close();
+		
+		assertFalse( reader.isComplete() );
+		assertTrue( count > RECORDS / 3 && count < RECORDS );
+	}
+}
@@ -0,0 +1,120 @@
+package radlab.rain.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import radlab.rain.util.storage.PayloadSlab;
+import radlab.rain.util.storage.ValueSizeDistribution;
+
+public class PayloadSlabTest 
+{
+	@Test
+	public void testValuesComeFromTheSlab()
+	{
+		PayloadSlab slab = new PayloadSlab( 1024 * 1024, 0.0 );
+		Random rng = new Random( 1 );
+		
+		byte[] value = slab.nextValue( rng, 4096 );
+		assertEquals( 4096, value.length );
+		
+		// A view shares the slab's array rather than copying it
+		ByteBuffer view = slab.nextView( rng, 4096 );
+		ByteBuffer other = slab.nextView( rng, 100 );
+		assertEquals( 4096, view.remaining() );
+		assertTrue( view.array() == other.array() );
+		
+		// Shared values are pooled per size
+		byte[] shared = slab.sharedValue( rng, 512 );
+		assertEquals( 512, shared.length );
+		boolean repeated = false;
+		for( int i = 0; i < 100 && !repeated; i++ )
+			repeated = ( slab.sharedValue( rng, 512 ) == shared );
+		assertTrue( repeated );
+		
+		// Values larger than the slab wrap around it
+		byte[] large = slab.nextValue( rng, 3 * 1024 * 1024 + 7 );
+		assertEquals( large[0], large[1024 * 1024] );
+		assertEquals( 3 * 1024 * 1024 + 7, slab.nextView( rng, large.length ).remaining() );
+	}
+	
+	@Test
+	public void testVariantBudget()
+	{
+		PayloadSlab slab = new PayloadSlab( 1024 * 1024, 0.0, 4096 );
+		Random rng = new Random( 2 );
+		
+		// The budget holds 4 variants of 1K, after that sizes get fresh copies
+		byte[] first = slab.sharedValue( rng, 1024 );
+		boolean repeated = false;
+		for( int i = 0; i < 100 && !repeated; i++ )
+			repeated = ( slab.sharedValue( rng, 1024 ) == first );
+		assertTrue( repeated );
+		assertTrue( slab.sharedValue( rng, 2048 ) != slab.sharedValue( rng, 2048 ) );
+	}
+	
+	@Test
+	public void testCompressibility()
+	{
+		Random rng = new Random( 3 );
+		double[] targets = new double[]{ 0.0, 0.5, 0.9 };
+		for( double target : targets )
+		{
+			PayloadSlab slab = new PayloadSlab( 1024 * 1024, target );
+			byte[] value = slab.nextValue( rng, 256 * 1024 );
+			
+			Deflater deflater = new Deflater();
+			deflater.setInput( value );
+			deflater.finish();
+			byte[] out = new byte[value.length * 2];
+			int compressed = deflater.deflate( out );
+			deflater.end();
+			
+			double savings = 1.0 - ( (double) compressed / value.length );
+			assertEquals( target, Math.max( 0.0, savings ), 0.05 );
+		}
+	}
+	
+	@Test
+	public void testValueSizeDistributions() throws Exception
+	{
+		Random rng = new Random( 4 );
+		
+		ValueSizeDistribution fixed = ValueSizeDistribution.fromConfig( new JSONObject( "{\"type\": \"fixed\", \"size\": 4096}" ) );
+		assertEquals( 4096, fixed.nextSize( rng ) );
+		
+		ValueSizeDistribution uniform = ValueSizeDistribution.fromConfig( new JSONObject( "{\"type\": \"uniform\", \"minSize\": 100, \"maxSize\": 200}" ) );
+		boolean sawMin = false, sawMax = false;
+		for( int i = 0; i < 100000; i++ )
+		{
+			int size = uniform.nextSize( rng );
+			assertTrue( size >= 100 && size <= 200 );
+			sawMin |= ( size == 100 );
+			sawMax |= ( size == 200 );
+		}
+		assertTrue( sawMin && sawMax );
+		
+		// Heavy tailed: most values are small, a few are huge
+		ValueSizeDistribution pareto = ValueSizeDistribution.fromConfig( new JSONObject( "{\"type\": \"pareto\", \"minSize\": 1024, \"maxSize\": 1048576, \"alpha\": 1.2}" ) );
+		int small = 0, large = 0;
+		int samples = 100000;
+		for( int i = 0; i < samples; i++ )
+		{
+			int size = pareto.nextSize( rng );
+			assertTrue( size >= 1024 && size <= 1048576 );
+			if( size < 4096 )
+				small++;
+			if( size > 65536 )
+				large++;
+		}
+		// P(X < 4L) = 1 - 4^-1.2 ~ 0.81 and P(X > 64L) ~ 64^-1.2 ~ 0.007 (ignoring the tiny upper-bound correction)
+		assertEquals( 0.81, (double) small / samples, 0.02 );
+		assertTrue( large > 0 && large < samples * 0.02 );
+	}
+}
@@ -0,0 +1,102 @@
+package radlab.rain.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import radlab.rain.util.RandomStreams;
+import radlab.rain.util.XoshiroRandom;
+import radlab.rain.util.storage.ZipfKeyGenerator;
+
+public class RandomStreamsTest 
+{
+	@Test
+	public void testSameSeedAndNamesRepeat()
+	{
+		Random a = RandomStreams.newStream( 42, "track", "track.Generator-7" );
+		Random b = RandomStreams.newStream( 42, "track", "track.Generator-7" );
+		for( int i = 0; i < 10000; i++ )
+			assertEquals( a.nextLong(), b.nextLong() );
+	}
+	
+	@Test
+	public void testDifferentUsersGetDifferentStreams()
+	{
+		Random a = RandomStreams.newStream( 42, "track", "track.Generator-1" );
+		Random b = RandomStreams.newStream( 42, "track", "track.Generator-2" );
+		Random c = RandomStreams.newStream( 43, "track", "track.Generator-1" );
+		int sameAB = 0;
+		int sameAC = 0;
+		for( int i = 0; i < 1000; i++ )
+		{
+			long x = a.nextLong();
+			if( x == b.nextLong() ) sameAB++;
+			if( x == c.nextLong() ) sameAC++;
+		}
+		assertEquals( 0, sameAB );
+		assertEquals( 0, sameAC );
+		
+		// The name path is not just concatenated
+		assertFalse( RandomStreams.deriveSeed( 1, "ab", "c" ) == RandomStreams.deriveSeed( 1, "a", "bc" ) );
+	}
+	
+	@Test
+	public void testXoshiroDistribution()
+	{
+		XoshiroRandom rng = new XoshiroRandom( 1 );
+		int buckets = 10;
+		long[] counts = new long[buckets];
+		int samples = 1000000;
+		double sum = 0.0;
+		for( int i = 0; i < samples; i++ )
+		{
+			double d = rng.nextDouble();
+			assertTrue( d >= 0.0 && d < 1.0 );
+			sum += d;
+			counts[rng.nextInt( buckets )]++;
+		}
+		assertEquals( 0.5, sum / samples, 0.002 );
+		
+		double expected = (double) samples / buckets;
+		double chiSquare = 0.0;
+		for( int i = 0; i < buckets; i++ )
+			chiSquare += ( counts[i] - expected ) * ( counts[i] - expected ) / expected;
+		// df = 9, p = 0.001
+		assertTrue( "Chi-square too large: " + chiSquare, chiSquare < 27.88 );
+	}
+	
+	@Test
+	public void testReseedDropsCachedGaussian()
+	{
+		XoshiroRandom fresh = new XoshiroRandom( 7 );
+		XoshiroRandom reseeded = new XoshiroRandom( 1 );
+		// nextGaussian() makes two values and caches the second
+		reseeded.nextGaussian();
+		reseeded.setSeed( 7 );
+		for( int i = 0; i < 100; i++ )
+			assertEquals( fresh.nextGaussian(), reseeded.nextGaussian(), 0.0 );
+	}
+	
+	@Test
+	public void testSharedKeyGeneratorPerUserStreams()
+	{
+		// Two users sharing one key generator see the same keys they'd see alone
+		ZipfKeyGenerator keyGen = new ZipfKeyGenerator( 1.001, 3.456, 1, 100000, 7 );
+		Random user1 = RandomStreams.newStream( 5, "track", "u1" );
+		Random user2 = RandomStreams.newStream( 5, "track", "u2" );
+		int[] interleaved = new int[1000];
+		for( int i = 0; i < interleaved.length; i++ )
+		{
+			interleaved[i] = keyGen.generateKey( user1 );
+			keyGen.generateKey( user2 );
+		}
+		
+		Random alone = RandomStreams.newStream( 5, "track", "u1" );
+		for( int i = 0; i < interleaved.length; i++ )
+			assertEquals( interleaved[i], keyGen.generateKey( alone ) );
+	}
+}
@@ -0,0 +1,283 @@
+package radlab.rain.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import radlab.rain.DefaultScenarioTrack;
+import radlab.rain.LoadProfile;
+import radlab.rain.OperationExecution;
+import radlab.rain.Scenario;
+import radlab.rain.Scoreboard;
+import radlab.rain.util.ConfigUtil;
+import radlab.rain.workload.redis.RedisBatchOperation;
+import radlab.rain.workload.redis.RedisGenerator;
+import radlab.rain.workload.redis.RedisLoadProfile;
+import radlab.rain.workload.redis.RedisRequest;
+import radlab.rain.workload.redis.RedisStandInServer;
+import radlab.rain.workload.redis.RedisTransport;
+
+public class RedisBatchTest
+{
+	private static DefaultScenarioTrack track;
+	private static RedisStandInServer server;
+	private RedisGenerator generator;
+
+	@BeforeClass
+	public static void scenarioSetup() throws Exception
+	{
+		server = new RedisStandInServer( "127.0.0.1", 0 );
+		server.start();
+
+		Scenario testScenario = new Scenario();
+		testScenario.setRampUp( 10 );
+		testScenario.setDuration( 600 );
+		testScenario.setRampDown( 10 );
+		track = new DefaultScenarioTrack( testScenario );
+		track.initialize( "radlab.rain.workload.redis.RedisGenerator", "127.0.0.1", server.getPort() );
+	}
+
+	@AfterClass
+	public static void scenarioTearDown()
+	{
+		server.stop();
+	}
+
+	@Before
+	public void setUp() throws JSONException
+	{
+		generator = new RedisGenerator( track );
+		generator.setUsePooling( false );
+		generator.configure( new JSONObject() );
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static RedisRequest<byte[]>[] mixedBatch()
+	{
+		String[] keys = { "batch-a", "batch-b", "batch-a", "batch-missing", "batch-b" };
+		int[] ops = { RedisGenerator.SET, RedisGenerator.SET, RedisGenerator.GET, RedisGenerator.GET, RedisGenerator.DEL };
+		RedisRequest<byte[]>[] requests = new RedisRequest[keys.length];
+		for( int i = 0; i < keys.length; i++ )
+		{
+			requests[i] = new RedisRequest<byte[]>();
+			requests[i].key = keys[i].getBytes();
+			requests[i].op = ops[i];
+			requests[i].size = 128;
+		}
+		return requests;
+	}
+
+	private void checkMixedBatch( String batchMode )
+	{
+		generator.setBatchMode( batchMode, 5 );
+		RedisRequest<byte[]>[] requests = mixedBatch();
+		RedisBatchOperation batch = generator.createBatchOperation( requests, requests.length );
+		batch.run();
+
+		// Without a scoreboard the batch keeps its operations for inspection
+		assertEquals( 5, batch.size() );
+		assertFalse( batch.getOperation( 0 ).isFailed() );
+		assertFalse( batch.getOperation( 1 ).isFailed() );
+		assertFalse( batch.getOperation( 2 ).isFailed() );
+		assertTrue( "a GET miss counts as a failure", batch.getOperation( 3 ).isFailed() );
+		assertFalse( batch.getOperation( 4 ).isFailed() );
+		assertEquals( "Get", batch.getOperation( 3 ).getOperationName() );
+		assertEquals( batch.getTimeFinished(), batch.getOperation( 2 ).getTimeFinished() );
+
+		assertNull( generator.getRedisTransport().get( "batch-b".getBytes() ) );
+		assertEquals( 128, generator.getRedisTransport().get( "batch-a".getBytes() ).length );
+	}
+
+	@Test
+	public void testPipelinedBatch()
+	{
+		checkMixedBatch( "pipeline" );
+	}
+
+	@Test
+	public void testMultiKeyBatch()
+	{
+		checkMixedBatch( "multi" );
+	}
+
+	@Test
+	public void testEachOperationIsScored()
+	{
+		final ArrayList<OperationExecution> results = new ArrayList<OperationExecution>();
+		generator.setScoreboard( new Scoreboard( "test" )
+		{
+			@Override
+			public void dropOff( OperationExecution result )
+			{
+				results.add( result );
+			}
+		} );
+		generator.setBatchMode( "pipeline", 5 );
+
+		RedisRequest<byte[]>[] requests = mixedBatch();
+		RedisBatchOperation batch = generator.createBatchOperation( requests, requests.length );
+		batch.setGeneratedBy( "user-1" );
+		batch.run();
+
+		assertEquals( 5, results.size() );
+		String[] names = { "Set", "Set", "Get", "Get", "Del" };
+		for( int i = 0; i < names.length; i++ )
+		{
+			OperationExecution result = results.get( i );
+			assertEquals( names[i], result._operationName );
+			assertEquals( i == 3, result.isFailed() );
+			assertEquals( "user-1", result.getOperation().getGeneratedBy() );
+			assertEquals( results.get( 0 ).getExecutionTimeNanos(), result.getExecutionTimeNanos() );
+		}
+		// The scoreboard now owns the operations
+		assertEquals( 0, batch.size() );
+	}
+
+	private static RedisLoadProfile exampleProfile() throws Exception
+	{
+		JSONObject profiles = new JSONObject( ConfigUtil.readFileAsString( "config/profiles.config.redis.json" ) );
+		return new RedisLoadProfile( profiles.getJSONObject( "redis-001" ).getJSONArray( "loadProfile" ).getJSONObject( 0 ) );
+	}
+	
+	/** Generating requests needs a current load profile, so pin the given one. */
+	private RedisGenerator profiledGenerator( final LoadProfile profile, JSONObject config ) throws Exception
+	{
+		DefaultScenarioTrack profiledTrack = new DefaultScenarioTrack( track.getParentScenario() )
+		{
+			@Override
+			public LoadProfile getCurrentLoadProfile()
+			{
+				return profile;
+			}
+		};
+		profiledTrack.initialize( "radlab.rain.workload.redis.RedisGenerator", "127.0.0.1", server.getPort() );
+		
+		RedisGenerator profiled = new RedisGenerator( profiledTrack );
+		profiled.setUsePooling( false );
+		profiled.configure( config );
+		profiled.initialize();
+		return profiled;
+	}
+	
+	@Test
+	public void testGeneratedBatches() throws Exception
+	{
+		JSONObject config = new JSONObject();
+		config.put( RedisGenerator.CFG_BATCH_MODE_KEY, "multi" );
+		config.put( RedisGenerator.CFG_PIPELINE_DEPTH_KEY, 7 );
+		generator = this.profiledGenerator( exampleProfile(), config );
+
+		RedisBatchOperation batch = (RedisBatchOperation) generator.nextRequest( -1 );
+		assertEquals( RedisGenerator.BATCH, batch.getOperationIndex() );
+		assertEquals( RedisBatchOperation.MULTI_KEY, batch.getBatchMode() );
+		assertEquals( 7, batch.size() );
+		
+		// A recorded batch replays as the same batch
+		ByteArrayOutputStream recording = new ByteArrayOutputStream();
+		generator.writeLastRequest( new DataOutputStream( recording ) );
+		RedisBatchOperation replayed = (RedisBatchOperation) generator.replayRequest( RedisGenerator.BATCH, new DataInputStream( new ByteArrayInputStream( recording.toByteArray() ) ) );
+		assertEquals( 7, replayed.size() );
+		for( int i = 0; i < 7; i++ )
+		{
+			assertEquals( batch.getOperation( i ).getOperationIndex(), replayed.getOperation( i ).getOperationIndex() );
+			assertEquals( batch.getOperation( i ).getOperationName(), replayed.getOperation( i ).getOperationName() );
+		}
+	}
+
+	@Test
+	public void testShortMixNeverRecordsBatchCode() throws Exception
+	{
+		// Reads and writes only add up to 0.5, so half the draws fall off the end of the mix
+		RedisLoadProfile profile = exampleProfile();
+		profile._opselect[RedisGenerator.GET] = 0.25;
+		profile._opselect[RedisGenerator.SET] = 0.5;
+		profile._opselect[RedisGenerator.DEL] = 0.5;
+		generator = this.profiledGenerator( profile, new JSONObject() );
+		
+		ByteArrayOutputStream recording = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream( recording );
+		int[] ops = new int[200];
+		for( int i = 0; i < ops.length; i++ )
+		{
+			ops[i] = generator.nextRequest( -1 ).getOperationIndex();
+			assertTrue( ops[i] == RedisGenerator.GET || ops[i] == RedisGenerator.SET );
+			generator.writeLastRequest( out );
+		}
+		
+		// Every recorded request replays as itself and the stream stays in sync
+		DataInputStream in = new DataInputStream( new ByteArrayInputStream( recording.toByteArray() ) );
+		for( int i = 0; i < ops.length; i++ )
+			assertEquals( ops[i], generator.replayRequest( i, in ).getOperationIndex() );
+		assertEquals( 0, in.available() );
+	}
+	
+	@Test
+	public void testHashSlots()
+	{
+		// Values from the Redis cluster specification
+		assertEquals( 12182, RedisTransport.slot( "foo".getBytes() ) );
+		assertEquals( RedisTransport.slot( "user1000".getBytes() ), RedisTransport.slot( "{user1000}.following".getBytes() ) );
+		assertEquals( RedisTransport.slot( "{user1000}.following".getBytes() ), RedisTransport.slot( "{user1000}.followers".getBytes() ) );
+		// Only the first tag counts, and an empty one means the whole key is hashed
+		assertEquals( RedisTransport.slot( "{bar".getBytes() ), RedisTransport.slot( "foo{{bar}}zap".getBytes() ) );
+		assertTrue( RedisTransport.slot( "foo{}{bar}".getBytes() ) != RedisTransport.slot( "bar".getBytes() ) );
+	}
+
+	@Test
+	public void testClusterBatches()
+	{
+		// A host list switches the transport to JedisCluster; the stand-in is a one-node cluster
+		String node = "127.0.0.1:" + server.getPort();
+		RedisTransport redis = new RedisTransport( node + "," + node, server.getPort() );
+		try
+		{
+			int count = 50;
+			int[] ops = new int[count];
+			byte[][] keys = new byte[count][];
+			byte[][] values = new byte[count][];
+			Object[] results = new Object[count];
+			for( int i = 0; i < count; i++ )
+			{
+				ops[i] = RedisGenerator.SET;
+				keys[i] = ( "cluster-" + i ).getBytes();
+				values[i] = ( "value-" + i ).getBytes();
+			}
+			redis.multiKey( ops, keys, values, results, count );
+			for( int i = 0; i < count; i++ )
+				assertEquals( "OK", results[i] );
+
+			for( int i = 0; i < count; i++ )
+				ops[i] = ( i % 2 == 0 ) ? RedisGenerator.GET : RedisGenerator.DEL;
+			redis.pipeline( ops, keys, values, results, count );
+			for( int i = 0; i < count; i++ )
+			{
+				if( i % 2 == 0 )
+					assertEquals( "value-" + i, new String( (byte[]) results[i] ) );
+				else assertEquals( 1L, results[i] );
+			}
+
+			redis.multiKey( ops, keys, values, results, count );
+			for( int i = 0; i < count; i += 2 )
+				assertEquals( "value-" + i, new String( (byte[]) results[i] ) );
+			assertNull( redis.get( keys[1] ) );
+		}
+		finally
+		{
+			redis.close();
+		}
+	}
+}
@@ -81,8 +81,8 @@ public class RedisOperationsTest
 	@Test
 	public void testGetOperation()
 	{
-		RedisRequest<String> request = new RedisRequest<String>();
-		request.key = "UnitTestKey";
+		RedisRequest<byte[]> request = new RedisRequest<byte[]>();
+		request.key = "UnitTestKey".getBytes();
 		request.op = RedisGenerator.GET;
 		
 		// Save the value first then retrieve it
@@ -93,8 +93,8 @@ public class RedisOperationsTest
 	@Test
 	public void testSetOperation()
 	{
-		RedisRequest<String> request = new RedisRequest<String>();
-		request.key = "UnitTestKey";
+		RedisRequest<byte[]> request = new RedisRequest<byte[]>();
+		request.key = "UnitTestKey".getBytes();
 		request.op = RedisGenerator.SET;
 		request.value = "The Brown Fox Jumped Over Something...".getBytes();
 		request.size = request.value.length;
@@ -0,0 +1,194 @@
+package radlab.rain.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import radlab.rain.LoadGenerationStrategy;
+import radlab.rain.workload.mapreduce.ReplayMapReduceGenerator;
+import radlab.rain.workload.mapreduce.ReplayTraceCursor;
+import radlab.rain.workload.mapreduce.ReplayTraceIndex;
+
+public class ReplayTraceIndexTest
+{
+	private File trace;
+	private File index;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		trace = File.createTempFile( "rain-replay", ".trace" );
+		index = new File( trace.getPath() + ReplayTraceIndex.INDEX_SUFFIX );
+	}
+
+	@After
+	public void tearDown()
+	{
+		trace.delete();
+		index.delete();
+	}
+
+	private void write( String text ) throws IOException
+	{
+		FileWriter writer = new FileWriter( trace );
+		writer.write( text );
+		writer.close();
+	}
+
+	private static String job( String name, long mapInput, long submitTime, long gap )
+	{
+		return "jobid-" + name + "\t" + name + "\t" + mapInput + "\t500\t200\t" + submitTime + "\t" + gap + "\t30\t20\t10\t30\n";
+	}
+
+	@Test
+	public void testIndexMatchesTrace() throws IOException
+	{
+		// Blank lines (like the ones in the shipped traces) and short lines are left out
+		write( job( "alpha", 100, 1000, 0 ) + "\n" + "bad\tline\n" + job( "beta", 200, 1003, 3 ) + "\r\n" + job( "gamma", 300, 1010, 7 ) );
+		ReplayTraceIndex traceIndex = ReplayTraceIndex.retain( trace.getPath(), null );
+		try
+		{
+			assertEquals( 3, traceIndex.size() );
+			assertTrue( traceIndex.isSortedBySubmitTime() );
+			assertEquals( "alpha", traceIndex.getJobName( 0 ) );
+			assertEquals( "beta", traceIndex.getJobName( 1 ) );
+			assertEquals( 300, traceIndex.get( 2, ReplayMapReduceGenerator.MAP_INPUT_BYTES_COL ) );
+			assertEquals( 500, traceIndex.get( 2, ReplayMapReduceGenerator.MAP_OUTPUT_BYTES_COL ) );
+			assertEquals( 30, traceIndex.get( 1, ReplayMapReduceGenerator.TOTAL_TIME_COL ) );
+			assertEquals( 1003, traceIndex.getSubmitTime( 1 ) );
+			assertEquals( 7, traceIndex.getInterarrivalGap( 2 ) );
+
+			assertEquals( 0, traceIndex.seek( 0 ) );
+			assertEquals( 1, traceIndex.seek( 1001 ) );
+			assertEquals( 1, traceIndex.seek( 1003 ) );
+			assertEquals( 3, traceIndex.seek( 2000 ) );
+
+			// Generators replaying the same trace share one index
+			ReplayTraceIndex again = ReplayTraceIndex.retain( trace.getPath(), null );
+			assertSame( traceIndex, again );
+			again.release();
+		}
+		finally
+		{
+			traceIndex.release();
+		}
+		assertTrue( ReplayTraceIndex.isCurrent( index, trace ) );
+	}
+
+	@Test
+	public void testIndexIsRebuiltWhenTraceChanges() throws Exception
+	{
+		write( job( "alpha", 100, 1000, 0 ) );
+		ReplayTraceIndex.retain( trace.getPath(), null ).release();
+		assertTrue( ReplayTraceIndex.isCurrent( index, trace ) );
+
+		write( job( "alpha", 100, 1000, 0 ) + job( "beta", 100, 1005, 5 ) );
+		trace.setLastModified( trace.lastModified() + 2000 );
+		assertFalse( ReplayTraceIndex.isCurrent( index, trace ) );
+		ReplayTraceIndex traceIndex = ReplayTraceIndex.retain( trace.getPath(), null );
+		assertEquals( 2, traceIndex.size() );
+		traceIndex.release();
+	}
+
+	@Test
+	public void testPartitionsCoverTraceOnce() throws IOException
+	{
+		ReplayTraceIndex.writeSyntheticTrace( trace, 1000, 7 );
+		ReplayTraceIndex traceIndex = ReplayTraceIndex.retain( trace.getPath(), null );
+		try
+		{
+			for( String partitioning : new String[] { ReplayTraceCursor.PARTITION_ROUND_ROBIN, ReplayTraceCursor.PARTITION_HASH } )
+			{
+				List<Integer> jobs = new ArrayList<Integer>();
+				for( int user = 0; user < 7; user++ )
+				{
+					ReplayTraceCursor cursor = new ReplayTraceCursor( traceIndex, partitioning, user, 7 );
+					int job;
+					long previous = -1;
+					while( ( job = cursor.next() ) >= 0 )
+					{
+						jobs.add( job );
+						// Gaps are between this user's own jobs
+						if( previous >= 0 )
+							assertEquals( ( traceIndex.getSubmitTime( job ) - previous ) * 1000, cursor.getGap() );
+						previous = traceIndex.getSubmitTime( job );
+						if( partitioning.equals( ReplayTraceCursor.PARTITION_ROUND_ROBIN ) )
+							assertEquals( user, job % 7 );
+					}
+				}
+				Collections.sort( jobs );
+				assertEquals( partitioning, traceIndex.size(), jobs.size() );
+				for( int i = 0; i < jobs.size(); i++ )
+					assertEquals( i, (int) jobs.get( i ) );
+			}
+
+			// The same job name always lands on the same user
+			ReplayTraceCursor cursor = new ReplayTraceCursor( traceIndex, ReplayTraceCursor.PARTITION_HASH, 3, 7 );
+			int job;
+			while( ( job = cursor.next() ) >= 0 )
+			{
+				for( int other = 0; other < traceIndex.size(); other++ )
+				{
+					if( traceIndex.getJobName( other ).equals( traceIndex.getJobName( job ) ) )
+						assertEquals( traceIndex.getNameHash( job ), traceIndex.getNameHash( other ) );
+				}
+			}
+		}
+		finally
+		{
+			traceIndex.release();
+		}
+	}
+
+	@Test
+	public void testSeekAndTimeCompression() throws IOException
+	{
+		write( job( "a", 1, 1000, 0 ) + job( "b", 1, 1010, 10 ) + job( "c", 1, 1030, 20 ) + job( "d", 1, 1070, 40 ) );
+		ReplayTraceIndex traceIndex = ReplayTraceIndex.retain( trace.getPath(), null );
+		try
+		{
+			// Without partitioning the trace's own gaps are replayed, compressed
+			ReplayTraceCursor cursor = new ReplayTraceCursor( traceIndex, ReplayTraceCursor.PARTITION_NONE, 5, 10 );
+			cursor.setTimeCompression( 4.0 );
+			cursor.seekOffset( 25 );
+			assertEquals( 2, cursor.next() );
+			assertEquals( 5000, cursor.getGap() );
+			assertEquals( 3, cursor.next() );
+			assertEquals( 10000, cursor.getGap() );
+			assertEquals( -1, cursor.next() );
+
+			// Round robin keeps its share of the trace after a seek
+			cursor = new ReplayTraceCursor( traceIndex, ReplayTraceCursor.PARTITION_ROUND_ROBIN, 1, 2 );
+			cursor.seek( 1010 );
+			assertEquals( 1, cursor.next() );
+			assertEquals( 0, cursor.getGap() );
+			assertEquals( 3, cursor.next() );
+			assertEquals( 60000, cursor.getGap() );
+			assertEquals( -1, cursor.next() );
+		}
+		finally
+		{
+			traceIndex.release();
+		}
+	}
+
+	@Test
+	public void testThreadIds()
+	{
+		assertEquals( 12, LoadGenerationStrategy.getThreadId( "mapreduce-001.Generator-12" ) );
+		assertEquals( 0, LoadGenerationStrategy.getThreadId( "NoTrack.Generator-0" ) );
+		assertEquals( -1, LoadGenerationStrategy.getThreadId( "main" ) );
+	}
+}
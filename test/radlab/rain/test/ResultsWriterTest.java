@@ -0,0 +1,147 @@
+package radlab.rain.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import radlab.rain.OperationSummary;
+import radlab.rain.Scorecard;
+import radlab.rain.util.NullSamplingStrategy;
+import radlab.rain.util.ResultsWriter;
+
+public class ResultsWriterTest
+{
+	private File dir;
+	private ResultsWriter writer;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		dir = File.createTempFile( "rain-results", "" );
+		dir.delete();
+		writer = new ResultsWriter( new File( dir, "run.json" ).getPath() );
+	}
+
+	@After
+	public void tearDown()
+	{
+		File[] files = dir.listFiles();
+		for( int i = 0; files != null && i < files.length; i++ )
+			files[i].delete();
+		dir.delete();
+	}
+
+	private static List<String> lines( File file ) throws IOException
+	{
+		List<String> lines = new ArrayList<String>();
+		BufferedReader in = new BufferedReader( new FileReader( file ) );
+		String line = null;
+		while( ( line = in.readLine() ) != null )
+			lines.add( line );
+		in.close();
+		return lines;
+	}
+
+	private static Scorecard card( String name, String trackName )
+	{
+		Scorecard card = new Scorecard( name, 10.0, trackName );
+		card._activeCount = 2;
+		card._numberOfUsers = 5;
+		card._totalOpsInitiated = 40;
+		card._totalOpsSuccessful = 38;
+		card._totalOpsFailed = 2;
+		card._totalOpsSync = 38;
+		card._totalActionsSuccessful = 38;
+		card._totalOpResponseTime = 38 * 50000000L;
+
+		OperationSummary summary = new OperationSummary( new NullSamplingStrategy() );
+		summary.succeeded = 38;
+		summary.failed = 2;
+		summary.totalActions = 38;
+		summary.totalSyncInvocations = 38;
+		summary.totalResponseTime = 38 * 50;
+		summary.minResponseTime = 20;
+		summary.maxResponseTime = 90;
+		card._operationMap.put( "Browse", summary );
+		return card;
+	}
+
+	@Test
+	public void testWritesJsonAndCsv() throws Exception
+	{
+		writer.getRun().put( "rngSeed", 42 );
+
+		JSONObject track = new JSONObject();
+		track.put( "track", "track-1" );
+		track.put( "targetHost", "localhost" );
+		JSONObject driver = new JSONObject();
+		driver.put( "dropOffs", 40 );
+		track.put( "driver", driver );
+		JSONObject pool = new JSONObject();
+		pool.put( "hits", 7 );
+		track.put( "objectPool", pool );
+		JSONArray intervals = new JSONArray();
+		intervals.put( card( "warm", "track-1" ).getStatistics() );
+		intervals.put( card( "peak", "track-1" ).getStatistics() );
+		track.put( "intervals", intervals );
+		track.put( "final", card( ResultsWriter.FINAL_INTERVAL, "track-1" ).getStatistics() );
+		JSONObject errors = new JSONObject();
+		errors.put( "timed out, retrying (class java.io.IOException)", 2 );
+		track.put( "errors", errors );
+		track.put( "waitTimes", new JSONArray() );
+		writer.addTrack( track );
+		writer.addAggregate( card( "aggregate", "[AGGREGATE]" ).getStatistics() );
+
+		writer.write();
+
+		JSONObject results = new JSONObject( new JSONTokener( new FileReader( writer.getFile( ".json" ) ) ) );
+		assertEquals( 42, results.getJSONObject( "run" ).getInt( "rngSeed" ) );
+		JSONObject finalCard = results.getJSONArray( "tracks" ).getJSONObject( 0 ).getJSONObject( "final" );
+		assertEquals( 38, finalCard.getLong( "opsSuccessful" ) );
+		// 38 successful ops over 10 seconds and 2 activations
+		assertEquals( 1.9, finalCard.getDouble( "effectiveLoadOpsPerSec" ), 1e-9 );
+		JSONObject browse = finalCard.getJSONArray( "operations" ).getJSONObject( 0 );
+		assertEquals( "Browse", browse.getString( "operation" ) );
+		assertEquals( 100.0, browse.getDouble( "proportionPct" ), 1e-9 );
+
+		List<String> trackRows = lines( writer.getFile( "-tracks.csv" ) );
+		assertEquals( 2, trackRows.size() );
+		assertTrue( trackRows.get( 0 ).startsWith( "track,targetHost,startTime,endTime,dropOffs," ) );
+		assertTrue( trackRows.get( 1 ).startsWith( "track-1,localhost,,,40," ) );
+		assertEquals( ResultsWriter.TRACK_COLUMNS.length, trackRows.get( 1 ).split( ",", -1 ).length );
+
+		// Two intervals, the final card and the aggregate, one operation each
+		assertEquals( 5, lines( writer.getFile( "-intervals.csv" ) ).size() );
+		List<String> opRows = lines( writer.getFile( "-operations.csv" ) );
+		assertEquals( 5, opRows.size() );
+		assertTrue( opRows.get( 3 ).startsWith( "track-1," + ResultsWriter.FINAL_INTERVAL + ",Browse,100.0,38,2," ) );
+
+		List<String> errorRows = lines( writer.getFile( "-errors.csv" ) );
+		assertEquals( "track-1,\"timed out, retrying (class java.io.IOException)\",2", errorRows.get( 1 ) );
+		assertEquals( 1, lines( writer.getFile( "-waits.csv" ) ).size() );
+	}
+
+	@Test
+	public void testEmptyIntervalIsFinite() throws Exception
+	{
+		Scorecard empty = new Scorecard( "idle", 10.0, "track-1" );
+		JSONObject stats = empty.getStatistics();
+		assertEquals( 0.0, stats.getDouble( "offeredLoadOpsPerSec" ), 0.0 );
+		assertEquals( 0, stats.getJSONArray( "operations" ).length() );
+		// Must serialize; org.json rejects NaN
+		assertTrue( stats.toString().length() > 0 );
+	}
+}
@@ -0,0 +1,275 @@
+package radlab.rain.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import radlab.rain.workload.rubis.util.InitDbDriver;
+
+public class RubisInitDbTest
+{
+	private static File categoriesFile;
+	private static File configFile;
+	private static RecordingDriver driver;
+
+	@BeforeClass
+	public static void setUp() throws Exception
+	{
+		categoriesFile = File.createTempFile( "rubis-categories", ".txt" );
+		write( categoriesFile, "Antiques (30)\nBooks (25)\nToys (12)\n" );
+		configFile = File.createTempFile( "rubis-profiles", ".json" );
+		write( configFile, "{ \"rubis-test\": { \"generatorParameters\": {"
+				+ " \"rubis.categoriesFile\": \"" + categoriesFile.getPath() + "\","
+				+ " \"rubis.maxBidsPerItem\": 3,"
+				+ " \"rubis.maxCommentLen\": 200,"
+				+ " \"rubis.maxItemDescrLen\": 300,"
+				+ " \"rubis.numOldItems\": 40,"
+				+ " \"rubis.numPreloadedUsers\": 50,"
+				+ " \"rubis.rngSeed\": 5489 } } }" );
+
+		driver = new RecordingDriver();
+		DriverManager.registerDriver( driver );
+	}
+
+	@AfterClass
+	public static void tearDown() throws SQLException
+	{
+		DriverManager.deregisterDriver( driver );
+		categoriesFile.delete();
+		configFile.delete();
+	}
+
+	private static void write( File file, String text ) throws IOException
+	{
+		FileWriter writer = new FileWriter( file );
+		writer.write( text );
+		writer.close();
+	}
+
+	private static Database load( String name, String... options )
+	{
+		ArrayList<String> args = new ArrayList<String>();
+		Collections.addAll( args, "-conf", configFile.getPath(), "-dburl", "jdbc:raintest:" + name );
+		Collections.addAll( args, options );
+		InitDbDriver.main( args.toArray( new String[args.size()] ) );
+		return driver.getDatabase( name );
+	}
+
+	@Test
+	public void testParallelLoadMatchesSerialLoad()
+	{
+		Database serial = load( "serial" );
+		Database parallel = load( "parallel", "-dbconns", "4", "-dbbatch", "7", "-dbcommit", "20" );
+
+		assertEquals( 50, serial.rows( "users" ).size() );
+		assertEquals( 40, serial.rows( "old_items" ).size() );
+		assertEquals( 67, serial.rows( "items" ).size() );
+		assertEquals( 107 * 3, serial.rows( "bids" ).size() );
+		assertEquals( 107, serial.rows( "comments" ).size() );
+		assertEquals( 3, serial.rows( "categories" ).size() );
+
+		for( String table : new String[] { "regions", "categories", "users", "items", "old_items", "bids", "comments" } )
+			assertEquals( table, serial.sortedRows( table ), parallel.sortedRows( table ) );
+
+		// One row per update in the serial load, batches and several transactions in the parallel one
+		assertEquals( 0, serial._batches.get() );
+		assertEquals( 0, serial._commits.get() );
+		assertTrue( parallel._batches.get() > 0 );
+		assertTrue( parallel._commits.get() > 4 );
+		assertTrue( parallel._connections.get() > 4 );
+	}
+
+	@Test
+	public void testLoadIsRepeatable()
+	{
+		Database first = load( "first", "-dbconns", "3", "-dbbatch", "10" );
+		Database second = load( "second", "-dbconns", "2" );
+		assertEquals( first.sortedRows( "items" ), second.sortedRows( "items" ) );
+		assertEquals( first.sortedRows( "bids" ), second.sortedRows( "bids" ) );
+	}
+
+	/**
+	 * Rows inserted through the connections of one (fake) database. Dates are
+	 * left out since they depend on when the load ran.
+	 */
+	private static class Database
+	{
+		private final Map<String,List<String>> _tables = new TreeMap<String,List<String>>();
+		private final AtomicInteger _connections = new AtomicInteger();
+		private final AtomicInteger _batches = new AtomicInteger();
+		private final AtomicInteger _commits = new AtomicInteger();
+
+		public synchronized void insert( String table, List<String> rows )
+		{
+			if( !this._tables.containsKey( table ) )
+				this._tables.put( table, new ArrayList<String>() );
+			this._tables.get( table ).addAll( rows );
+		}
+
+		public synchronized List<String> rows( String table )
+		{
+			return this._tables.containsKey( table ) ? this._tables.get( table ) : new ArrayList<String>();
+		}
+
+		public synchronized List<String> sortedRows( String table )
+		{
+			List<String> rows = new ArrayList<String>( this.rows( table ) );
+			Collections.sort( rows );
+			return rows;
+		}
+	}
+
+	public static class RecordingDriver implements Driver
+	{
+		private static final String PREFIX = "jdbc:raintest:";
+
+		private final Map<String,Database> _databases = new TreeMap<String,Database>();
+
+		public synchronized Database getDatabase( String name )
+		{
+			if( !this._databases.containsKey( name ) )
+				this._databases.put( name, new Database() );
+			return this._databases.get( name );
+		}
+
+		public Connection connect( String url, Properties info ) throws SQLException
+		{
+			if( !this.acceptsURL( url ) )
+				return null;
+			final Database database = this.getDatabase( url.substring( PREFIX.length() ) );
+			database._connections.incrementAndGet();
+			return proxy( Connection.class, new InvocationHandler()
+			{
+				public Object invoke( Object proxy, Method method, Object[] args )
+				{
+					String name = method.getName();
+					if( name.equals( "prepareStatement" ) )
+						return preparedStatement( database, (String) args[0] );
+					if( name.equals( "createStatement" ) )
+						return proxy( Statement.class, null );
+					if( name.equals( "nativeSQL" ) )
+						return args[0];
+					if( name.equals( "commit" ) )
+						database._commits.incrementAndGet();
+					return defaultValue( method );
+				}
+			} );
+		}
+
+		private static PreparedStatement preparedStatement( final Database database, String sql )
+		{
+			final String table = sql.split( " " )[2];
+			final TreeMap<Integer,String> parameters = new TreeMap<Integer,String>();
+			final List<String> batch = new ArrayList<String>();
+			return proxy( PreparedStatement.class, new InvocationHandler()
+			{
+				public Object invoke( Object proxy, Method method, Object[] args )
+				{
+					String name = method.getName();
+					if( name.equals( "clearParameters" ) )
+						parameters.clear();
+					else if( name.equals( "setDate" ) )
+						parameters.put( (Integer) args[0], "<date>" );
+					else if( name.startsWith( "set" ) && args != null && args.length == 2 )
+						parameters.put( (Integer) args[0], String.valueOf( args[1] ) );
+					else if( name.equals( "addBatch" ) )
+						batch.add( parameters.values().toString() );
+					else if( name.equals( "executeBatch" ) )
+					{
+						database._batches.incrementAndGet();
+						int[] counts = new int[batch.size()];
+						Arrays.fill( counts, 1 );
+						database.insert( table, batch );
+						batch.clear();
+						return counts;
+					}
+					else if( name.equals( "executeUpdate" ) )
+					{
+						database.insert( table, Collections.singletonList( parameters.values().toString() ) );
+						return 1;
+					}
+					else if( name.equals( "getGeneratedKeys" ) )
+						return proxy( ResultSet.class, null );
+					return defaultValue( method );
+				}
+			} );
+		}
+
+		@SuppressWarnings("unchecked")
+		private static <T> T proxy( Class<T> type, InvocationHandler handler )
+		{
+			if( handler == null )
+			{
+				handler = new InvocationHandler()
+				{
+					public Object invoke( Object proxy, Method method, Object[] args )
+					{
+						return defaultValue( method );
+					}
+				};
+			}
+			return (T) Proxy.newProxyInstance( RubisInitDbTest.class.getClassLoader(), new Class<?>[] { type }, handler );
+		}
+
+		private static Object defaultValue( Method method )
+		{
+			Class<?> type = method.getReturnType();
+			if( type == boolean.class )
+				return Boolean.FALSE;
+			if( type == int.class )
+				return 0;
+			if( type == long.class )
+				return 0L;
+			if( type == String.class )
+				return "";
+			return null;
+		}
+
+		public boolean acceptsURL( String url )
+		{
+			return url.startsWith( PREFIX );
+		}
+
+		public DriverPropertyInfo[] getPropertyInfo( String url, Properties info )
+		{
+			return new DriverPropertyInfo[0];
+		}
+
+		public int getMajorVersion() { return 1; }
+		public int getMinorVersion() { return 0; }
+		public boolean jdbcCompliant() { return false; }
+
+		public Logger getParentLogger() throws SQLFeatureNotSupportedException
+		{
+			throw new SQLFeatureNotSupportedException();
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package radlab.rain.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import radlab.rain.DefaultScenarioTrack;
+import radlab.rain.Scenario;
+import radlab.rain.util.storage.TransferStats;
+import radlab.rain.workload.s3.S3GetOperation;
+import radlab.rain.workload.s3.S3Generator;
+import radlab.rain.workload.s3.S3PutOperation;
+import radlab.rain.workload.s3.S3Request;
+import radlab.rain.workload.s3.S3StandInServer;
+import radlab.rain.workload.s3.S3Transport;
+
+public class S3TransferTest
+{
+	private static final String BUCKET = "transfertest";
+
+	private static DefaultScenarioTrack track;
+	private static S3StandInServer server;
+	private S3Transport s3;
+
+	@BeforeClass
+	public static void scenarioSetup() throws Exception
+	{
+		server = new S3StandInServer( 0 );
+		server.start();
+
+		Scenario testScenario = new Scenario();
+		testScenario.setRampUp( 10 );
+		testScenario.setDuration( 600 );
+		testScenario.setRampDown( 10 );
+		track = new DefaultScenarioTrack( testScenario );
+		track.initialize( "radlab.rain.workload.s3.S3Generator", "127.0.0.1", server.getPort() );
+	}
+
+	@AfterClass
+	public static void scenarioTearDown()
+	{
+		server.stop();
+	}
+
+	@Before
+	public void setUp() throws Exception
+	{
+		s3 = new S3Transport( "rain", "rain", "127.0.0.1", server.getPort() );
+		s3.createBucket( BUCKET );
+	}
+
+	private static byte[] randomValue( int size )
+	{
+		byte[] value = new byte[size];
+		new Random( size ).nextBytes( value );
+		return value;
+	}
+
+	@Test
+	public void testMultipartUpload() throws Exception
+	{
+		byte[] value = randomValue( 1000000 );
+		TransferStats stats = new TransferStats( "test" );
+		int partsBefore = server.getPartsUploaded();
+
+		// Four parts, the last one short, sent from a window of the array
+		s3.putObjectMultipart( BUCKET, "multi/object", value, 100, 900000, 250000, 3, stats );
+
+		assertEquals( 4, server.getPartsUploaded() - partsBefore );
+		assertEquals( 4, stats.getParts() );
+		assertEquals( 0, server.getOpenUploads() );
+		byte[] expected = new byte[900000];
+		System.arraycopy( value, 100, expected, 0, expected.length );
+		assertArrayEquals( expected, server.getObject( BUCKET, "multi/object" ) );
+	}
+
+	@Test
+	public void testRangedDownload() throws Exception
+	{
+		byte[] value = randomValue( 1000001 );
+		s3.putObject( BUCKET, "ranged", value );
+		TransferStats stats = new TransferStats( "test" );
+		int rangesBefore = server.getRangedGets();
+
+		assertEquals( value.length, s3.getObjectRanged( BUCKET, "ranged", 100000, 4, stats ) );
+		assertEquals( 11, server.getRangedGets() - rangesBefore );
+		assertEquals( 11, stats.getParts() );
+
+		// A small object costs one request
+		s3.putObject( BUCKET, "small", randomValue( 1000 ) );
+		rangesBefore = server.getRangedGets();
+		assertEquals( 1000, s3.getObjectRanged( BUCKET, "small", 100000, 4, null ) );
+		assertEquals( 1, server.getRangedGets() - rangesBefore );
+	}
+
+	@Test
+	public void testFailedDownload() throws Exception
+	{
+		try
+		{
+			s3.getObjectRanged( BUCKET, "missing", 100000, 4, null );
+			assertTrue( "expected a failure for a missing object", false );
+		}
+		catch( Exception e )
+		{
+			// Expected
+		}
+	}
+
+	@Test
+	public void testParallelOperations() throws JSONException
+	{
+		S3Generator generator = new S3Generator( track );
+		generator.setUsePooling( false );
+		JSONObject config = new JSONObject();
+		config.put( S3Generator.CFG_ENDPOINT_KEY, "127.0.0.1:" + server.getPort() );
+		generator.configure( config );
+
+		S3Request<String> request = new S3Request<String>();
+		request.bucket = BUCKET;
+		request.key = "generated";
+		request.op = S3Generator.PUT;
+		request.size = 300000;
+		request.partSize = 100000;
+		request.partConcurrency = 2;
+
+		int partsBefore = server.getPartsUploaded();
+		S3PutOperation put = generator.createPutOperation( request );
+		ByteBuffer sent = put._value.duplicate();
+		put.run();
+		assertFalse( put.getFailureReason() + "", put.isFailed() );
+		assertEquals( 3, server.getPartsUploaded() - partsBefore );
+		byte[] expected = new byte[sent.remaining()];
+		sent.get( expected );
+		assertArrayEquals( expected, server.getObject( BUCKET, "generated" ) );
+
+		request.op = S3Generator.GET;
+		S3GetOperation get = generator.createGetOperation( request );
+		get.run();
+		assertFalse( get.isFailed() );
+		assertEquals( "Get_300000", get.getOperationName() );
+
+		assertEquals( 1, generator.getPutStats().getObjects() );
+		assertEquals( 1, generator.getGetStats().getObjects() );
+		assertEquals( 3, generator.getGetStats().getParts() );
+		generator.dispose();
+	}
+}
@@ -0,0 +1,69 @@
+package radlab.rain.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import radlab.rain.util.storage.ScanStats;
+
+public class ScanStatsTest 
+{
+	@Test
+	public void testTally()
+	{
+		ScanStats.Tally tally = new ScanStats.Tally();
+		tally.start();
+		assertEquals( -1, tally.getFirstRowNanos() );
+		tally.row( 100 );
+		long firstRow = tally.getFirstRowNanos();
+		assertTrue( firstRow >= 0 );
+		tally.row( 50 );
+		assertEquals( firstRow, tally.getFirstRowNanos() );
+		assertEquals( 2, tally.getRows() );
+		assertEquals( 150, tally.getBytes() );
+		
+		// Pooled operations reuse their tally
+		tally.start();
+		assertEquals( 0, tally.getRows() );
+		assertEquals( -1, tally.getFirstRowNanos() );
+	}
+	
+	@Test
+	public void testAggregates()
+	{
+		ScanStats stats = new ScanStats( "test" );
+		stats.record( 1000, 4096000, 2000000, 500000000 );
+		stats.record( 3000, 4096000, 4000000, 1500000000 );
+		// Empty results count as operations but not towards time to first row
+		stats.record( 0, 0, -1, 1000000 );
+		
+		assertEquals( 3, stats.getOperations() );
+		assertEquals( 1, stats.getEmptyOperations() );
+		assertEquals( 4000, stats.getRows() );
+		assertEquals( 4000 / 2.001, stats.getRowsPerSecond(), 0.01 );
+		assertEquals( 4000 / 3.0, stats.getAverageRowsPerOperation(), 1e-9 );
+		assertEquals( 3.0, stats.getAverageFirstRowMillis(), 1e-9 );
+		assertEquals( 4.0, stats.getMaxFirstRowMillis(), 1e-9 );
+		
+		stats.reset();
+		assertEquals( 0, stats.getOperations() );
+		assertEquals( 0.0, stats.getRowsPerSecond(), 0.0 );
+	}
+	
+	@Test
+	public void testSharedUntilLastRelease()
+	{
+		ScanStats first = ScanStats.retain( "ScanStatsTest" );
+		ScanStats second = ScanStats.retain( "ScanStatsTest" );
+		assertSame( first, second );
+		
+		first.record( 10, 10, 1000, 1000000 );
+		first.release();
+		assertEquals( 1, second.getOperations() );
+		// The last user prints and resets
+		second.release();
+		assertEquals( 0, second.getOperations() );
+	}
+}
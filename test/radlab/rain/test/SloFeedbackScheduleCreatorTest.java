@@ -0,0 +1,107 @@
+package radlab.rain.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedList;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import radlab.rain.LoadProfile;
+import radlab.rain.workloadtraits.SloFeedbackScheduleCreator;
+
+public class SloFeedbackScheduleCreatorTest
+{
+	/** p99 of a target that's flat up to 40 users and then slows by 2 msecs per user. */
+	private static double p99( int users )
+	{
+		return 0.02 + 0.002 * Math.max( 0, users - 40 );
+	}
+
+	/** Throughput of a target that gives 10 ops/sec per user up to 500 ops/sec. */
+	private static double throughput( int users )
+	{
+		return Math.min( 10.0 * users, 500.0 );
+	}
+
+	private static int[] drive( SloFeedbackScheduleCreator controller, int intervals, boolean failing )
+	{
+		int[] levels = new int[intervals];
+		for( int i = 0; i < intervals; i++ )
+		{
+			int users = controller.getLevel();
+			levels[i] = users;
+			long successes = (long) ( throughput( users ) * 30 );
+			controller.control( i * 30000L, throughput( users ), p99( users ), successes, failing ? successes : 0 );
+		}
+		return levels;
+	}
+
+	@Test
+	public void testPidHoldsLatency() throws Exception
+	{
+		SloFeedbackScheduleCreator controller = new SloFeedbackScheduleCreator();
+		LinkedList<LoadProfile> schedule = controller.createSchedule( new JSONObject( "{ \"initial\": 10, \"max\": 200, \"targetResponseTimeMsecs\": 100 }" ) );
+		assertEquals( 1, schedule.size() );
+		assertEquals( 10, schedule.getFirst().getNumberOfUsers() );
+		assertEquals( 30000, schedule.getFirst().getInterval() );
+
+		int[] levels = drive( controller, 40, false );
+		// 100 msecs at 80 users
+		for( int i = 30; i < levels.length; i++ )
+			assertTrue( "interval " + i + ": " + levels[i], Math.abs( levels[i] - 80 ) <= 2 );
+
+		JSONObject stats = controller.getStatistics();
+		JSONArray decisions = stats.getJSONArray( "decisions" );
+		assertEquals( 40, decisions.length() );
+		assertEquals( 10, decisions.getJSONObject( 0 ).getInt( "level" ) );
+		assertEquals( 15, decisions.getJSONObject( 0 ).getInt( "nextLevel" ) );
+		assertEquals( "pid", stats.getString( "algorithm" ) );
+	}
+
+	@Test
+	public void testPidHoldsUtilization() throws Exception
+	{
+		SloFeedbackScheduleCreator controller = new SloFeedbackScheduleCreator();
+		controller.createSchedule( new JSONObject( "{ \"target\": \"utilization\", \"capacityOpsPerSec\": 500, \"targetUtilizationPct\": 80, \"initial\": 5 }" ) );
+		int[] levels = drive( controller, 40, false );
+		// 80% of 500 ops/sec is 40 users
+		assertEquals( 40, levels[levels.length - 1] );
+	}
+
+	@Test
+	public void testAimdSawtooth() throws Exception
+	{
+		SloFeedbackScheduleCreator controller = new SloFeedbackScheduleCreator();
+		controller.createSchedule( new JSONObject( "{ \"algorithm\": \"aimd\", \"initial\": 70, \"additiveIncrease\": 2, \"multiplicativeDecrease\": 0.9, \"targetResponseTimeMsecs\": 100 }" ) );
+		int[] levels = drive( controller, 60, false );
+		int min = Integer.MAX_VALUE;
+		int max = 0;
+		for( int i = 20; i < levels.length; i++ )
+		{
+			min = Math.min( min, levels[i] );
+			max = Math.max( max, levels[i] );
+		}
+		// Climbs to just past 80 users, backs off by 10% and climbs again
+		assertTrue( "max " + max, max >= 80 && max <= 82 );
+		assertTrue( "min " + min, min >= 72 && min < 80 );
+	}
+
+	@Test
+	public void testErrorsBackOffWithinLimits() throws Exception
+	{
+		SloFeedbackScheduleCreator controller = new SloFeedbackScheduleCreator();
+		LinkedList<LoadProfile> schedule = controller.createSchedule( new JSONObject( "{ \"variable\": \"rate\", \"users\": 50, \"initial\": 100, \"min\": 20, \"mix\": \"browse\" }" ) );
+		assertEquals( 50, schedule.getFirst().getNumberOfUsers() );
+		assertEquals( 100, schedule.getFirst().getOpenLoopMaxOpsPerSec() );
+		assertEquals( "browse", schedule.getFirst().getMixName() );
+
+		int[] levels = drive( controller, 10, true );
+		// Halves at most once per interval, down to the minimum
+		assertEquals( 50, levels[1] );
+		assertEquals( 20, controller.getLevel() );
+		assertTrue( controller.getStatistics().getJSONArray( "decisions" ).getJSONObject( 0 ).getString( "reason" ).startsWith( "errors" ) );
+	}
+}
@@ -0,0 +1,179 @@
+package radlab.rain.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import radlab.rain.Generator;
+import radlab.rain.LoadProfile;
+import radlab.rain.Operation;
+import radlab.rain.OperationExecution;
+import radlab.rain.TimeSeriesRollup;
+import radlab.rain.util.LatencyHistogram;
+import radlab.rain.util.ResultsWriter;
+
+public class TimeSeriesRollupTest
+{
+	private static final long START = 1000000L;
+
+	private File dir;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		dir = File.createTempFile( "rain-timeseries", "" );
+		dir.delete();
+		dir.mkdirs();
+	}
+
+	@After
+	public void tearDown()
+	{
+		File[] files = dir.listFiles();
+		for( int i = 0; files != null && i < files.length; i++ )
+			files[i].delete();
+		dir.delete();
+	}
+
+	private static List<String> lines( File file ) throws IOException
+	{
+		List<String> lines = new ArrayList<String>();
+		BufferedReader in = new BufferedReader( new FileReader( file ) );
+		String line = null;
+		while( ( line = in.readLine() ) != null )
+			lines.add( line );
+		in.close();
+		return lines;
+	}
+
+	private static OperationExecution result( final String name, LoadProfile profile, long started, long finished, Throwable failure )
+	{
+		Operation operation = new Operation( true, null )
+		{
+			{
+				this._operationName = name;
+			}
+
+			public void prepare( Generator generator ) {}
+			public void execute() {}
+			public void cleanup() {}
+		};
+		operation.setGeneratedDuringProfile( profile );
+		operation.setTimeStarted( started );
+		operation.setTimeFinished( finished );
+		operation.setFailed( failure != null );
+		operation.setFailureReason( failure );
+		OperationExecution result = new OperationExecution( operation );
+		result.setExecutionTimeNanos( ( finished - started ) * 1000000L );
+		return result;
+	}
+
+	@Test
+	public void testHistogramPercentiles()
+	{
+		LatencyHistogram histogram = new LatencyHistogram();
+		for( long micros = 1; micros <= 10000; micros++ )
+			histogram.record( micros * 1000 );
+		assertEquals( 10000, histogram.getCount() );
+		assertEquals( 10000000L, histogram.getMaxNanos() );
+		assertEquals( 5000000.0, histogram.getPercentileNanos( 50 ), 5000000.0 * 0.07 );
+		assertEquals( 9900000.0, histogram.getPercentileNanos( 99 ), 9900000.0 * 0.07 );
+		assertEquals( 0, new LatencyHistogram().getPercentileNanos( 99 ) );
+
+		Random random = new Random( 11 );
+		for( int i = 0; i < 10000; i++ )
+		{
+			long micros = (long) Math.exp( random.nextDouble() * 27 );
+			int index = LatencyHistogram.index( micros );
+			assertTrue( LatencyHistogram.lowerBound( index ) <= micros );
+			assertTrue( micros < LatencyHistogram.lowerBound( index ) + LatencyHistogram.width( index ) );
+		}
+	}
+
+	@Test
+	public void testStallShowsUp() throws Exception
+	{
+		File file = new File( dir, "series.jsonl" );
+		JSONObject config = new JSONObject();
+		config.put( TimeSeriesRollup.CFG_FILE_KEY, file.getPath() );
+		config.put( TimeSeriesRollup.CFG_SETTLE_SECS_KEY, 2 );
+		TimeSeriesRollup series = new TimeSeriesRollup( "track-1", START, config );
+		LoadProfile profile = new LoadProfile( 60, 8, "default" );
+
+		for( int sec = 0; sec < 10; sec++ )
+		{
+			// The target stalls from 4 to 7 seconds in
+			if( sec >= 4 && sec < 7 )
+				continue;
+			// The 50 operations caught in the stall finish first
+			for( int i = 0; sec == 7 && i < 50; i++ )
+				series.record( result( "Browse", profile, START + 4000, START + 7000, null ) );
+			for( int i = 0; i < 100; i++ )
+			{
+				long finished = START + sec * 1000L + i * 10;
+				series.record( result( "Browse", profile, finished - 10, finished, null ) );
+			}
+			if( sec == 8 )
+				series.record( result( "Login", profile, START + 8500, START + 8600, new IOException( "reset" ) ) );
+		}
+		// Bucket 0 was written long ago
+		series.record( result( "Browse", profile, START + 100, START + 200, null ) );
+		series.finish( START + 10000 );
+
+		List<String> lines = lines( file );
+		assertEquals( 10, lines.size() );
+		JSONObject stalled = new JSONObject( lines.get( 5 ) );
+		assertEquals( 5.0, stalled.getDouble( "offsetSecs" ), 1e-9 );
+		assertEquals( 8.0, stalled.getDouble( "activeUsers" ), 1e-9 );
+		JSONObject all = stalled.getJSONArray( "operations" ).getJSONObject( 0 );
+		assertEquals( TimeSeriesRollup.ALL_OPERATIONS, all.getString( "operation" ) );
+		assertEquals( 0, all.getLong( "completions" ) );
+		assertEquals( 50.0, all.getDouble( "inFlight" ), 1e-9 );
+
+		JSONObject recovered = new JSONObject( lines.get( 7 ) ).getJSONArray( "operations" ).getJSONObject( 0 );
+		assertEquals( 150, recovered.getLong( "completions" ) );
+		assertEquals( 3.0, recovered.getDouble( "maxResponseTimeSecs" ), 1e-9 );
+		assertEquals( 3.0, recovered.getDouble( "p99ResponseTimeSecs" ), 3.0 * 0.07 );
+		assertEquals( 0.010, recovered.getDouble( "p50ResponseTimeSecs" ), 0.010 * 0.07 );
+
+		JSONObject failed = new JSONObject( lines.get( 8 ) );
+		assertEquals( 1, failed.getJSONObject( "errors" ).getLong( "java.io.IOException" ) );
+		assertEquals( 1, failed.getJSONArray( "operations" ).getJSONObject( 0 ).getLong( "errors" ) );
+
+		JSONObject stats = series.getStatistics();
+		assertEquals( 10, stats.getLong( "buckets" ) );
+		assertEquals( 3, stats.getLong( "emptyBuckets" ) );
+		assertEquals( 3.0, stats.getDouble( "longestStallSecs" ), 1e-9 );
+		assertEquals( 1, stats.getLong( "lateResults" ) );
+		// The last stalled second also holds the first 10 msecs of the next one's first operation
+		assertEquals( 50.01, stats.getDouble( "peakInFlight" ), 1e-9 );
+		assertEquals( file.getPath(), stats.getString( "file" ) );
+
+		// The results flatten the file into one row per bucket and operation
+		JSONObject track = new JSONObject();
+		track.put( "track", "track-1" );
+		track.put( "timeSeries", stats );
+		ResultsWriter writer = new ResultsWriter( new File( dir, "run" ).getPath() );
+		writer.addTrack( track );
+		writer.write();
+		List<String> rows = lines( writer.getFile( "-timeseries.csv" ) );
+		// [ALL] and Browse (in flight during the stall) in every bucket, Login once
+		assertEquals( 1 + 10 * 2 + 1, rows.size() );
+		assertTrue( rows.get( 1 ).startsWith( "track-1," + START + ",0,[ALL],8,100,0," ) );
+		List<String> errorRows = lines( writer.getFile( "-timeseries-errors.csv" ) );
+		assertEquals( 2, errorRows.size() );
+		assertEquals( "track-1," + ( START + 8000 ) + ",8,java.io.IOException,1", errorRows.get( 1 ) );
+	}
+}
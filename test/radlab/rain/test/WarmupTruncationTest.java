@@ -0,0 +1,108 @@
+package radlab.rain.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import radlab.rain.Generator;
+import radlab.rain.Operation;
+import radlab.rain.OperationExecution;
+import radlab.rain.Scorecard;
+import radlab.rain.WarmupTruncation;
+import radlab.rain.util.Mser;
+import radlab.rain.util.ResultsWriter;
+
+public class WarmupTruncationTest
+{
+	private static final long START = 1000000L;
+
+	private static OperationExecution result( final String name, long started, long finished, long responseMsecs, boolean failed )
+	{
+		Operation operation = new Operation( true, null )
+		{
+			{
+				this._operationName = name;
+			}
+
+			public void prepare( Generator generator ) {}
+			public void execute() {}
+			public void cleanup() {}
+		};
+		operation.setTimeStarted( started );
+		operation.setTimeFinished( finished );
+		operation.setFailed( failed );
+		OperationExecution result = new OperationExecution( operation );
+		result.setExecutionTimeNanos( responseMsecs * 1000000L );
+		return result;
+	}
+
+	@Test
+	public void testMserFindsWarmup()
+	{
+		Random random = new Random( 7 );
+		double[] series = new double[300];
+		for( int i = 0; i < series.length; i++ )
+		{
+			// Ramps up from 10 to 100 over the first minute, then noise around 100
+			double level = i < 60 ? 10.0 + 1.5 * i : 100.0;
+			series[i] = level + random.nextGaussian() * 5.0;
+		}
+		int truncation = Mser.truncate( series, series.length, Mser.MSER_5 );
+		assertEquals( 0, truncation % Mser.MSER_5 );
+		assertTrue( "truncation: " + truncation, truncation >= 45 && truncation <= 80 );
+
+		// Without a warm-up there's little to cut
+		for( int i = 0; i < series.length; i++ )
+			series[i] = 100.0 + random.nextGaussian() * 5.0;
+		assertTrue( Mser.truncate( series, series.length, Mser.MSER_5 ) <= 75 );
+
+		assertEquals( 0, Mser.truncateBatches( new double[] { 3.0 }, 1 ) );
+		// Never more than half the series
+		assertTrue( Mser.truncateBatches( new double[] { 1, 2, 3, 4, 5, 6, 7, 8 }, 8 ) <= 4 );
+	}
+
+	@Test
+	public void testTrimmedScorecard() throws Exception
+	{
+		WarmupTruncation warmup = new WarmupTruncation( "track", START, START + 200 * 1000L, 1 );
+		for( int sec = 0; sec < 200; sec++ )
+		{
+			// A slow, half-speed first 30 seconds
+			int ops = sec < 30 ? 10 : 20;
+			long responseMsecs = sec < 30 ? 200 : 10;
+			for( int i = 0; i < ops; i++ )
+			{
+				long finished = START + sec * 1000L + i * ( 1000L / ops );
+				warmup.record( result( "Browse", finished - responseMsecs, finished, responseMsecs, false ) );
+			}
+		}
+		warmup.record( result( "Browse", START + 5000L, START + 5100L, 100, true ) );
+		warmup.record( result( "Browse", START + 150000L, START + 150100L, 100, true ) );
+		warmup.recordLate( result( "Browse", START + 199900L, START + 201000L, 1100, false ) );
+
+		Scorecard trimmed = warmup.analyze( START + 200 * 1000L );
+		assertEquals( 30, warmup.getTruncationSecs() );
+		assertEquals( 30, warmup.getThroughputTruncationSecs() );
+		assertEquals( 30, warmup.getResponseTimeTruncationSecs() );
+
+		JSONObject stats = trimmed.getStatistics();
+		assertEquals( ResultsWriter.TRIMMED_INTERVAL, stats.getString( "interval" ) );
+		assertEquals( 170.0, stats.getDouble( "durationSecs" ), 1e-9 );
+		assertEquals( 170 * 20, stats.getLong( "opsSuccessful" ) );
+		assertEquals( 1, stats.getLong( "opsFailed" ) );
+		assertEquals( 1, stats.getLong( "opsLate" ) );
+		assertEquals( 170 * 20 + 2, stats.getLong( "opsInitiated" ) );
+		assertEquals( 20.0, stats.getDouble( "effectiveLoadOpsPerSec" ), 1e-9 );
+		assertEquals( 0.010, stats.getDouble( "averageResponseTimeSecs" ), 1e-9 );
+		JSONObject browse = stats.getJSONArray( "operations" ).getJSONObject( 0 );
+		assertEquals( 0.010, browse.getDouble( "p99ResponseTimeSecs" ), 1e-9 );
+
+		JSONObject summary = warmup.getStatistics();
+		assertEquals( 200, summary.getInt( "observationSecs" ) );
+		assertEquals( 30, summary.getInt( "truncationSecs" ) );
+	}
+}
@@ -0,0 +1,122 @@
+package radlab.rain.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import radlab.rain.util.ZipfRejectionInversion;
+import radlab.rain.util.storage.KeyGenerator;
+import radlab.rain.util.storage.ZipfKeyGenerator;
+
+public class ZipfRejectionInversionTest 
+{
+	private static final int SAMPLES = 500000;
+	
+	// Upper tail quantile of the chi-square distribution (Wilson-Hilferty approximation)
+	private static double chiSquareCritical( int df, double z )
+	{
+		double t = 2.0 / ( 9.0 * df );
+		return df * Math.pow( 1.0 - t + z * Math.sqrt( t ), 3 );
+	}
+	
+	private void checkGoodnessOfFit( long n, double exponent, long seed )
+	{
+		ZipfRejectionInversion dist = new ZipfRejectionInversion( n, exponent, new Random( seed ) );
+		long[] observed = new long[(int) n + 1];
+		for( int i = 0; i < SAMPLES; i++ )
+		{
+			long k = dist.nextLong();
+			assertTrue( "Rank out of range: " + k, k >= 1 && k <= n );
+			observed[(int) k]++;
+		}
+		
+		// Pool the tail so that every bin has an expected count >= 5
+		double chiSquare = 0.0;
+		int bins = 0;
+		double pooledExpected = 0.0;
+		long pooledObserved = 0;
+		for( int k = 1; k <= n; k++ )
+		{
+			pooledExpected += dist.probability( k ) * SAMPLES;
+			pooledObserved += observed[k];
+			if( pooledExpected >= 5.0 || k == n )
+			{
+				chiSquare += ( pooledObserved - pooledExpected ) * ( pooledObserved - pooledExpected ) / pooledExpected;
+				bins++;
+				pooledExpected = 0.0;
+				pooledObserved = 0;
+			}
+		}
+		
+		double critical = chiSquareCritical( bins - 1, 3.09 ); // p = 0.001
+		assertTrue( "Chi-square " + chiSquare + " exceeds " + critical + " for N=" + n + " exponent=" + exponent, chiSquare < critical );
+	}
+	
+	@Test
+	public void testGoodnessOfFitShallow()
+	{
+		this.checkGoodnessOfFit( 100, 0.5, 1 );
+	}
+	
+	@Test
+	public void testGoodnessOfFitHarmonic()
+	{
+		this.checkGoodnessOfFit( 1000, 1.0, 2 );
+	}
+	
+	@Test
+	public void testGoodnessOfFitSteep()
+	{
+		this.checkGoodnessOfFit( 1000, 1.5, 3 );
+		this.checkGoodnessOfFit( 20, 3.0, 4 );
+	}
+	
+	@Test
+	public void testSingleElement()
+	{
+		ZipfRejectionInversion dist = new ZipfRejectionInversion( 1, 1.2, new Random( 5 ) );
+		for( int i = 0; i < 1000; i++ )
+			assertEquals( 1, dist.nextLong() );
+	}
+	
+	@Test
+	public void testLargeKeySpace()
+	{
+		// 10^8 keys: the head frequency should match 1/H(N,1.5) ~ 1/(zeta(1.5) - 2/sqrt(N))
+		long n = 100000000L;
+		ZipfRejectionInversion dist = new ZipfRejectionInversion( n, 1.5, new Random( 6 ) );
+		long ones = 0;
+		for( int i = 0; i < SAMPLES; i++ )
+		{
+			long k = dist.nextLong();
+			assertTrue( k >= 1 && k <= n );
+			if( k == 1 )
+				ones++;
+		}
+		double expected = 1.0 / ( 2.6123753486854883 - 2.0 / Math.sqrt( n ) );
+		assertEquals( expected, ones / (double) SAMPLES, 0.005 );
+	}
+	
+	@Test
+	public void testKeyGeneratorConfig() throws Exception
+	{
+		JSONObject config = new JSONObject();
+		config.put( KeyGenerator.A_CONFIG_KEY, 0.8 );
+		config.put( KeyGenerator.R_CONFIG_KEY, 3.456 );
+		config.put( KeyGenerator.MIN_KEY_CONFIG_KEY, 1 );
+		config.put( KeyGenerator.MAX_KEY_CONFIG_KEY, 100000000 );
+		config.put( KeyGenerator.RNG_SEED_KEY, 7 );
+		config.put( ZipfKeyGenerator.SAMPLING_METHOD_CONFIG_KEY, ZipfKeyGenerator.REJECTION_INVERSION_SAMPLING_METHOD_CONFIG_VALUE );
+		
+		KeyGenerator generator = KeyGenerator.createKeyGenerator( ZipfKeyGenerator.class.getName(), config );
+		for( int i = 0; i < SAMPLES; i++ )
+		{
+			int key = generator.generateKey();
+			assertTrue( key >= 1 && key <= 100000000 );
+		}
+	}
+}